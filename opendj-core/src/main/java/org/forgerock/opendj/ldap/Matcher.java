@@ -17,11 +17,14 @@
 package org.forgerock.opendj.ldap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.ldap.schema.MatchingRule;
 import org.forgerock.opendj.ldap.schema.MatchingRuleUse;
 import org.forgerock.opendj.ldap.schema.Schema;
@@ -31,12 +34,21 @@ import com.forgerock.opendj.util.StaticUtils;
 
 /**
  * An interface for determining whether entries match a {@code Filter}.
+ * <p>
+ * A {@code Matcher} compiles its filter once into a tree of pre-resolved
+ * matchers: attribute descriptions, matching rules and assertions are looked
+ * up and decoded when the matcher is created, nested AND and OR components are
+ * flattened, constant components are folded away, and the components of AND
+ * and OR filters are re-ordered so that the cheapest ones are evaluated first.
+ * Matchers are immutable and may therefore be shared between threads and
+ * re-used for any number of entries.
  */
 public final class Matcher {
     private static final class AndMatcherImpl extends MatcherImpl {
-        private final List<MatcherImpl> subMatchers;
+        private final MatcherImpl[] subMatchers;
 
-        private AndMatcherImpl(final List<MatcherImpl> subMatchers) {
+        private AndMatcherImpl(final MatcherImpl[] subMatchers) {
+            super(costOf(subMatchers));
             this.subMatchers = subMatchers;
         }
 
@@ -67,7 +79,8 @@ public final class Matcher {
 
         private AssertionMatcherImpl(final AttributeDescription attributeDescription,
                 final MatchingRule rule, final MatchingRuleUse ruleUse, final Assertion assertion,
-                final boolean dnAttributes) {
+                final boolean dnAttributes, final int cost) {
+            super(cost);
             this.attributeDescription = attributeDescription;
             this.rule = rule;
             this.ruleUse = ruleUse;
@@ -117,7 +130,7 @@ public final class Matcher {
                 final DN dn = entry.getName();
                 for (final RDN rdn : dn) {
                     for (final AVA ava : rdn) {
-                        if (ruleUse.hasAttribute(ava.getAttributeType())) {
+                        if (appliesTo(ava.getAttributeType())) {
                             final ConditionResult p =
                                     Matcher.matches(ava.getAttributeValue(), rule, assertion);
                             if (p == ConditionResult.TRUE) {
@@ -130,9 +143,47 @@ public final class Matcher {
             }
             return r;
         }
+
+        /**
+         * Indicates whether the assertion applies to DN values of the provided
+         * type. Without an explicit matching rule there is no matching rule
+         * use, and the equality matching rule of the requested type applies to
+         * that type and its subtypes.
+         */
+        private boolean appliesTo(final AttributeType type) {
+            return ruleUse != null ? ruleUse.hasAttribute(type)
+                                   : attributeDescription.getAttributeType().isSuperTypeOf(type);
+        }
+    }
+
+    /**
+     * Optimized matcher for the common case of an equality, ordering,
+     * approximate or substring assertion against a single attribute.
+     */
+    private static final class AttributeAssertionMatcherImpl extends MatcherImpl {
+        private final Assertion assertion;
+        private final AttributeDescription attributeDescription;
+        private final MatchingRule rule;
+
+        private AttributeAssertionMatcherImpl(final AttributeDescription attributeDescription,
+                final MatchingRule rule, final Assertion assertion, final int cost) {
+            super(cost);
+            this.attributeDescription = attributeDescription;
+            this.rule = rule;
+            this.assertion = assertion;
+        }
+
+        @Override
+        public ConditionResult matches(final Entry entry) {
+            return Matcher.matches(entry.getAttribute(attributeDescription), rule, assertion);
+        }
     }
 
     private static class FalseMatcherImpl extends MatcherImpl {
+        private FalseMatcherImpl() {
+            super(COST_CONSTANT);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.FALSE;
@@ -140,6 +191,13 @@ public final class Matcher {
     }
 
     private static abstract class MatcherImpl {
+        /** The relative cost of evaluating this matcher, used for ordering AND and OR components. */
+        private final int cost;
+
+        private MatcherImpl(final int cost) {
+            this.cost = cost;
+        }
+
         public abstract ConditionResult matches(Entry entry);
     }
 
@@ -147,6 +205,7 @@ public final class Matcher {
         private final MatcherImpl subFilter;
 
         private NotMatcherImpl(final MatcherImpl subFilter) {
+            super(subFilter.cost);
             this.subFilter = subFilter;
         }
 
@@ -157,9 +216,10 @@ public final class Matcher {
     }
 
     private static final class OrMatcherImpl extends MatcherImpl {
-        private final List<MatcherImpl> subMatchers;
+        private final MatcherImpl[] subMatchers;
 
-        private OrMatcherImpl(final List<MatcherImpl> subMatchers) {
+        private OrMatcherImpl(final MatcherImpl[] subMatchers) {
+            super(costOf(subMatchers));
             this.subMatchers = subMatchers;
         }
 
@@ -181,6 +241,7 @@ public final class Matcher {
         private final AttributeDescription attribute;
 
         private PresentMatcherImpl(final AttributeDescription attribute) {
+            super(COST_PRESENT);
             this.attribute = attribute;
         }
 
@@ -192,6 +253,10 @@ public final class Matcher {
     }
 
     private static class TrueMatcherImpl extends MatcherImpl {
+        private TrueMatcherImpl() {
+            super(COST_CONSTANT);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.TRUE;
@@ -199,6 +264,10 @@ public final class Matcher {
     }
 
     private static class UndefinedMatcherImpl extends MatcherImpl {
+        private UndefinedMatcherImpl() {
+            super(COST_CONSTANT);
+        }
+
         @Override
         public ConditionResult matches(final Entry entry) {
             return ConditionResult.UNDEFINED;
@@ -218,9 +287,23 @@ public final class Matcher {
 
             final List<MatcherImpl> subMatchers = new ArrayList<>(subFilters.size());
             for (final Filter f : subFilters) {
-                subMatchers.add(f.accept(this, schema));
+                final MatcherImpl subMatcher = f.accept(this, schema);
+                if (subMatcher == FALSE) {
+                    return FALSE;
+                } else if (subMatcher instanceof AndMatcherImpl) {
+                    subMatchers.addAll(Arrays.asList(((AndMatcherImpl) subMatcher).subMatchers));
+                } else if (subMatcher != TRUE) {
+                    subMatchers.add(subMatcher);
+                }
+            }
+            switch (subMatchers.size()) {
+            case 0:
+                return TRUE;
+            case 1:
+                return subMatchers.get(0);
+            default:
+                return new AndMatcherImpl(sortByCost(subMatchers));
             }
-            return new AndMatcherImpl(subMatchers);
         }
 
         @Override
@@ -252,7 +335,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_APPROXIMATE);
         }
 
         @Override
@@ -284,7 +367,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_EQUALITY);
         }
 
         @Override
@@ -360,7 +443,11 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, ruleUse, assertion, dnAttributes);
+            if (ad != null && !dnAttributes) {
+                return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_EXTENSIBLE);
+            }
+            return new AssertionMatcherImpl(ad, rule, ruleUse, assertion, dnAttributes,
+                    ad != null ? COST_EXTENSIBLE : COST_EXTENSIBLE_ALL_ATTRIBUTES);
         }
 
         @Override
@@ -393,7 +480,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue, de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_ORDERING);
         }
 
         @Override
@@ -425,12 +512,21 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The assertion value %s is invalid", assertionValue , de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_ORDERING);
         }
 
         @Override
         public MatcherImpl visitNotFilter(final Schema schema, final Filter subFilter) {
             final MatcherImpl subMatcher = subFilter.accept(this, schema);
+            if (subMatcher == TRUE) {
+                return FALSE;
+            } else if (subMatcher == FALSE) {
+                return TRUE;
+            } else if (subMatcher == UNDEFINED) {
+                return UNDEFINED;
+            } else if (subMatcher instanceof NotMatcherImpl) {
+                return ((NotMatcherImpl) subMatcher).subFilter;
+            }
             return new NotMatcherImpl(subMatcher);
         }
 
@@ -443,9 +539,23 @@ public final class Matcher {
 
             final List<MatcherImpl> subMatchers = new ArrayList<>(subFilters.size());
             for (final Filter f : subFilters) {
-                subMatchers.add(f.accept(this, schema));
+                final MatcherImpl subMatcher = f.accept(this, schema);
+                if (subMatcher == TRUE) {
+                    return TRUE;
+                } else if (subMatcher instanceof OrMatcherImpl) {
+                    subMatchers.addAll(Arrays.asList(((OrMatcherImpl) subMatcher).subMatchers));
+                } else if (subMatcher != FALSE) {
+                    subMatchers.add(subMatcher);
+                }
+            }
+            switch (subMatchers.size()) {
+            case 0:
+                return FALSE;
+            case 1:
+                return subMatchers.get(0);
+            default:
+                return new OrMatcherImpl(sortByCost(subMatchers));
             }
-            return new OrMatcherImpl(subMatchers);
         }
 
         @Override
@@ -493,7 +603,7 @@ public final class Matcher {
                 logger.warn(LocalizableMessage.raw("The substring assertion values contain an invalid value", de));
                 return UNDEFINED;
             }
-            return new AssertionMatcherImpl(ad, rule, null, assertion, false);
+            return new AttributeAssertionMatcherImpl(ad, rule, assertion, COST_SUBSTRINGS);
         }
 
         @Override
@@ -508,12 +618,54 @@ public final class Matcher {
 
     private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+    /*
+     * Relative evaluation costs. Constants are free, presence only requires an
+     * attribute lookup, while assertions require each attribute value to be
+     * normalized.
+     */
+    private static final int COST_CONSTANT = 0;
+    private static final int COST_PRESENT = 1;
+    private static final int COST_EQUALITY = 2;
+    private static final int COST_ORDERING = 3;
+    private static final int COST_APPROXIMATE = 4;
+    private static final int COST_SUBSTRINGS = 4;
+    private static final int COST_EXTENSIBLE = 5;
+    private static final int COST_EXTENSIBLE_ALL_ATTRIBUTES = 10;
+
+    /** Compares matchers according to their cost, cheapest first. */
+    private static final Comparator<MatcherImpl> COST_COMPARATOR = new Comparator<MatcherImpl>() {
+        @Override
+        public int compare(final MatcherImpl m1, final MatcherImpl m2) {
+            return Integer.compare(m1.cost, m2.cost);
+        }
+    };
+
     private static final MatcherImpl FALSE = new FalseMatcherImpl();
     private static final MatcherImpl TRUE = new TrueMatcherImpl();
     private static final MatcherImpl UNDEFINED = new UndefinedMatcherImpl();
 
     private static final FilterVisitor<MatcherImpl, Schema> VISITOR = new Visitor();
 
+    private static int costOf(final MatcherImpl[] subMatchers) {
+        int cost = 0;
+        for (final MatcherImpl m : subMatchers) {
+            cost += m.cost;
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the provided sub-matchers ordered so that cheapest are evaluated
+     * first. Re-ordering is safe because the three-valued AND and OR operators
+     * are commutative. The sort is stable so that matchers of equal cost are
+     * evaluated in the order in which they appear in the filter.
+     */
+    private static MatcherImpl[] sortByCost(final List<MatcherImpl> subMatchers) {
+        final MatcherImpl[] sorted = subMatchers.toArray(new MatcherImpl[subMatchers.size()]);
+        Arrays.sort(sorted, COST_COMPARATOR);
+        return sorted;
+    }
+
     private static ConditionResult matches(final Attribute a, final MatchingRule rule,
             final Assertion assertion) {
         ConditionResult r = ConditionResult.FALSE;
@@ -17,6 +17,7 @@
 
 package org.forgerock.opendj.ldif;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -129,7 +130,7 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
         LDIFWriterOutputStreamImpl(final Writer writer) {
             this.writer =
                     writer instanceof BufferedWriter ? (BufferedWriter) writer
-                            : new BufferedWriter(writer);
+                            : new BufferedWriter(writer, OUTPUT_BUFFER_SIZE);
         }
 
         @Override
@@ -153,6 +154,11 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
         }
     }
 
+    /**
+     * Size of the buffers used when writing to streams: large enough for
+     * entries to be written to the underlying stream in a few big chunks.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
     /** Regular expression used for splitting comments on line-breaks. */
     private static final Pattern SPLIT_NEWLINE = Pattern.compile("\\r?\\n");
     boolean addUserFriendlyComments;
@@ -165,7 +171,8 @@ abstract class AbstractLDIFWriter extends AbstractLDIFStream {
     }
 
     AbstractLDIFWriter(final OutputStream out) {
-        this(new OutputStreamWriter(out));
+        this(new OutputStreamWriter(out instanceof BufferedOutputStream ? out
+                : new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE)));
     }
 
     AbstractLDIFWriter(final Writer writer) {
@@ -0,0 +1,276 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldif;
+
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.util.Utils;
+
+/**
+ * Sorts entries by normalized DN using an external merge sort.
+ * <p>
+ * Entries are read and encoded into an in-memory buffer. Each time the buffer
+ * is full, it is handed over to a pool of sorter threads which sort it and
+ * write it to a temporary run file, while the reader fills a new buffer. Once
+ * all the entries have been read, the runs are merged in a single pass. If all
+ * the entries fit in a single buffer then no run file is written.
+ * <p>
+ * At most {@code (threadCount + 1) * bufferSize} bytes of encoded entries are
+ * held in memory at once, regardless of the number of entries being sorted.
+ * Entries are returned as {@code byte[][]} pairs containing the normalized DN
+ * followed by the ASN.1 encoded entry.
+ */
+final class ExternalEntrySorter implements Closeable {
+    private static final String SORTER_THREAD_NAME = "LDIF-SORTER-%d";
+    private static final String RUN_FILE_PREFIX = "ldif-sort-";
+    private static final String RUN_FILE_SUFFIX = ".run";
+    /** Approximate per-entry memory overhead of the buffer, in bytes. */
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    /** Reads back the entries of a sorted run file, one at a time. */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private byte[][] current;
+
+        private RunReader(final File run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        /** Moves to the next entry, returning {@code false} if the run is exhausted. */
+        private boolean next() throws IOException {
+            final int dnLength;
+            try {
+                dnLength = in.readInt();
+            } catch (final EOFException e) {
+                current = null;
+                return false;
+            }
+            final byte[][] entry = new byte[2][];
+            entry[0] = new byte[dnLength];
+            in.readFully(entry[0]);
+            entry[1] = new byte[in.readInt()];
+            in.readFully(entry[1]);
+            current = entry;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final Comparator<RunReader> RUN_ORDER = new Comparator<RunReader>() {
+        @Override
+        public int compare(final RunReader r1, final RunReader r2) {
+            return LDIF.DN_ORDER2.compare(r1.current, r2.current);
+        }
+    };
+
+    private final File tempDirectory;
+    private final long bufferSize;
+    private final int maxPendingRuns;
+    private final ExecutorService sorters;
+    private final Deque<Future<File>> pendingRuns = new ArrayDeque<>();
+    private final List<File> runs = new ArrayList<>();
+    private final List<RunReader> runReaders = new ArrayList<>();
+
+    /**
+     * Creates a new external entry sorter.
+     *
+     * @param tempDirectory
+     *            The directory where run files will be written, or {@code null}
+     *            for the default temporary directory.
+     * @param bufferSize
+     *            The approximate size in bytes of each in-memory buffer.
+     * @param threadCount
+     *            The number of threads sorting and writing runs concurrently.
+     */
+    ExternalEntrySorter(final File tempDirectory, final long bufferSize, final int threadCount) {
+        this.tempDirectory = tempDirectory;
+        this.bufferSize = bufferSize;
+        this.maxPendingRuns = threadCount;
+        this.sorters =
+                Executors.newFixedThreadPool(threadCount, Utils.newThreadFactory(null, SORTER_THREAD_NAME, true));
+    }
+
+    /**
+     * Reads all the entries from the provided reader and returns them sorted
+     * by normalized DN. The returned iterator is only valid until this sorter
+     * is closed. It throws an {@link IllegalStateException} if a run file
+     * cannot be read back.
+     *
+     * @param reader
+     *            The entry reader.
+     * @return The sorted entries.
+     * @throws IOException
+     *             If an error occurs while reading entries or writing runs.
+     */
+    Iterator<byte[][]> sort(final EntryReader reader) throws IOException {
+        List<byte[][]> buffer = new ArrayList<>();
+        long bufferedBytes = 0;
+        while (reader.hasNext()) {
+            final byte[][] entry = LDIF.encodeEntry(reader.readEntry());
+            buffer.add(entry);
+            bufferedBytes += entry[0].length + entry[1].length + ENTRY_OVERHEAD;
+            if (bufferedBytes >= bufferSize) {
+                spill(buffer);
+                buffer = new ArrayList<>();
+                bufferedBytes = 0;
+            }
+        }
+
+        if (pendingRuns.isEmpty() && runs.isEmpty()) {
+            // Everything fitted in memory.
+            Collections.sort(buffer, LDIF.DN_ORDER2);
+            return buffer.iterator();
+        }
+        if (!buffer.isEmpty()) {
+            spill(buffer);
+        }
+        awaitPendingRuns(0);
+        return merge();
+    }
+
+    @Override
+    public void close() {
+        sorters.shutdownNow();
+        for (final RunReader reader : runReaders) {
+            closeSilently(reader);
+        }
+        runReaders.clear();
+        for (final File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private void spill(final List<byte[][]> buffer) throws IOException {
+        // Bound memory usage by limiting the number of buffers being sorted concurrently.
+        awaitPendingRuns(maxPendingRuns - 1);
+        pendingRuns.add(sorters.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                Collections.sort(buffer, LDIF.DN_ORDER2);
+                return writeRun(buffer);
+            }
+        }));
+    }
+
+    private void awaitPendingRuns(final int maxRemaining) throws IOException {
+        while (pendingRuns.size() > maxRemaining) {
+            try {
+                runs.add(pendingRuns.poll().get());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private File writeRun(final List<byte[][]> sortedEntries) throws IOException {
+        final File run = File.createTempFile(RUN_FILE_PREFIX, RUN_FILE_SUFFIX, tempDirectory);
+        run.deleteOnExit();
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE))) {
+            for (final byte[][] entry : sortedEntries) {
+                out.writeInt(entry[0].length);
+                out.write(entry[0]);
+                out.writeInt(entry[1].length);
+                out.write(entry[1]);
+            }
+        } catch (final IOException e) {
+            run.delete();
+            throw e;
+        }
+        return run;
+    }
+
+    private Iterator<byte[][]> merge() throws IOException {
+        final PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(), RUN_ORDER);
+        for (final File run : runs) {
+            final RunReader reader = new RunReader(run);
+            runReaders.add(reader);
+            if (reader.next()) {
+                heads.add(reader);
+            }
+        }
+
+        return new Iterator<byte[][]>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public byte[][] next() {
+                final RunReader head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                final byte[][] entry = head.current;
+                try {
+                    if (head.next()) {
+                        heads.add(head);
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
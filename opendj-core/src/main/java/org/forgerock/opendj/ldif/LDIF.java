@@ -17,6 +17,10 @@ package org.forgerock.opendj.ldif;
 
 import static com.forgerock.opendj.ldap.CoreMessages.*;
 
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -57,6 +61,7 @@ import org.forgerock.opendj.ldap.requests.Requests;
 import org.forgerock.opendj.ldap.requests.SearchRequest;
 import org.forgerock.opendj.ldap.schema.AttributeUsage;
 import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.util.Reject;
 
 /**
  * This class contains common utility methods for creating and manipulating
@@ -79,7 +84,7 @@ public final class LDIF {
     /**
      * Comparator ordering the DN ASC.
      */
-    private static final Comparator<byte[][]> DN_ORDER2 = new Comparator<byte[][]>() {
+    static final Comparator<byte[][]> DN_ORDER2 = new Comparator<byte[][]>() {
         @Override
         public int compare(byte[][] b1, byte[][] b2) {
             return DN_ORDER.compare(b1[0], b2[0]);
@@ -159,12 +164,72 @@ public final class LDIF {
      */
     public static ChangeRecordReader diff(final EntryReader source, final EntryReader target)
             throws IOException {
-
         final List<byte[][]> source2 = readEntriesAsList(source);
         final List<byte[][]> target2 = readEntriesAsList(target);
-        final Iterator<byte[][]> sourceIterator = source2.iterator();
-        final Iterator<byte[][]> targetIterator = target2.iterator();
+        return diff(source, target, source2.iterator(), target2.iterator(), null);
+    }
+
+    /**
+     * Compares the content of {@code source} to the content of {@code target}
+     * and returns the differences in a change record reader, using bounded
+     * memory regardless of the number of entries.
+     * <p>
+     * Unlike {@link #diff(EntryReader, EntryReader)}, which sorts all the
+     * entries in memory, this method sorts each input using an external merge
+     * sort: entries are buffered and, each time {@code bufferSize} bytes of
+     * entries have been read, the buffer is sorted by a background thread and
+     * written to a temporary file in {@code tempDirectory}. The sorted files
+     * are then merged in a single pass while change records are read. At most
+     * {@code (threadCount + 1) * bufferSize} bytes of entries are held in
+     * memory at any time. Temporary files are removed when the returned reader
+     * is closed.
+     * <p>
+     * Change records are returned in the same order as
+     * {@link #diff(EntryReader, EntryReader)}.
+     *
+     * @param source
+     *            The entry reader containing the source entries to be compared.
+     * @param target
+     *            The entry reader containing the target entries to be compared.
+     * @param tempDirectory
+     *            The directory where temporary files will be written, or
+     *            {@code null} to use the default temporary-file directory.
+     * @param bufferSize
+     *            The approximate size in bytes of the in-memory buffers.
+     * @param threadCount
+     *            The number of threads sorting buffers concurrently.
+     * @return A change record reader containing the differences.
+     * @throws IOException
+     *             If an unexpected IO error occurred.
+     */
+    public static ChangeRecordReader diff(final EntryReader source, final EntryReader target,
+            final File tempDirectory, final long bufferSize, final int threadCount) throws IOException {
+        Reject.ifNull(source, target);
+        Reject.ifFalse(bufferSize > 0, "The buffer size must be positive");
+        Reject.ifFalse(threadCount > 0, "The number of threads must be positive");
+
+        final ExternalEntrySorter sourceSorter = new ExternalEntrySorter(tempDirectory, bufferSize, threadCount);
+        final ExternalEntrySorter targetSorter = new ExternalEntrySorter(tempDirectory, bufferSize, threadCount);
+        try {
+            final Iterator<byte[][]> sourceIterator = sourceSorter.sort(source);
+            final Iterator<byte[][]> targetIterator = targetSorter.sort(target);
+            return diff(source, target, sourceIterator, targetIterator, new Closeable() {
+                @Override
+                public void close() {
+                    sourceSorter.close();
+                    targetSorter.close();
+                }
+            });
+        } catch (final IOException | RuntimeException e) {
+            sourceSorter.close();
+            targetSorter.close();
+            throw e;
+        }
+    }
 
+    private static ChangeRecordReader diff(final EntryReader source, final EntryReader target,
+            final Iterator<byte[][]> sourceIterator, final Iterator<byte[][]> targetIterator,
+            final Closeable resources) {
         return new ChangeRecordReader() {
             private Entry sourceEntry = nextEntry(sourceIterator);
             private Entry targetEntry = nextEntry(targetIterator);
@@ -174,7 +239,11 @@ public final class LDIF {
                 try {
                     source.close();
                 } finally {
-                    target.close();
+                    try {
+                        target.close();
+                    } finally {
+                        closeSilently(resources);
+                    }
                 }
             }
 
@@ -826,7 +895,7 @@ public final class LDIF {
         return dn.toNormalizedByteString().toByteArray();
     }
 
-    private static byte[][] encodeEntry(final Entry entry) {
+    static byte[][] encodeEntry(final Entry entry) {
         final byte[][] bEntry = new byte[2][];
         // Store normalized DN
         bEntry[0] = toNormalizedByteArray(entry.getName());
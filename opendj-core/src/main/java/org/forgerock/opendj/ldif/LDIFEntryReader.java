@@ -20,11 +20,19 @@ import static com.forgerock.opendj.ldap.CoreMessages.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
@@ -37,10 +45,18 @@ import org.forgerock.opendj.ldap.Matcher;
 import org.forgerock.opendj.ldap.schema.Schema;
 import org.forgerock.opendj.ldap.schema.SchemaValidationPolicy;
 import org.forgerock.util.Reject;
+import org.forgerock.util.Utils;
 
 /**
  * An LDIF entry reader reads attribute value records (entries) using the LDAP
  * Data Interchange Format (LDIF) from a user defined source.
+ * <p>
+ * By default records are decoded on the thread which calls {@link #hasNext()}
+ * or {@link #readEntry()}. Large LDIF sources can be decoded in parallel by
+ * calling {@link #setDecodingThreadCount(int)}: records are still read
+ * sequentially from the source, but decoding, filtering and schema validation
+ * are performed by a pool of worker threads. Entries are always returned in
+ * the order in which they appear in the LDIF source.
  *
  * @see <a href="http://tools.ietf.org/html/rfc2849">RFC 2849 - The LDAP Data
  *      Interchange Format (LDIF) - Technical Specification </a>
@@ -49,6 +65,39 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
     /** Poison used to indicate end of LDIF. */
     private static final Entry EOF = new LinkedHashMapEntry();
 
+    /** The maximum number of records per decoding thread which may be decoded ahead of the caller. */
+    private static final int MAX_PENDING_RECORDS_PER_THREAD = 128;
+
+    private static final String DECODER_THREAD_NAME = "LDIF-DECODER-%d";
+
+    /** The outcome of decoding a single LDIF record. */
+    private enum DecodeStatus {
+        ENTRY, MALFORMED, SCHEMA_VALIDATION_FAILURE, SKIPPED, VERSION
+    }
+
+    /**
+     * A decoded LDIF record. Rejected records are not reported to the
+     * rejected record listener during decoding so that, when records are
+     * decoded in parallel, the listener is always notified from the thread
+     * reading entries and in the order in which the records appear.
+     */
+    private static final class DecodedRecord {
+        private final LDIFRecord record;
+        private final DecodeStatus status;
+        private final Entry entry;
+        private final LocalizableMessage message;
+        private final List<LocalizableMessage> schemaErrors;
+
+        private DecodedRecord(final LDIFRecord record, final DecodeStatus status, final Entry entry,
+                final LocalizableMessage message, final List<LocalizableMessage> schemaErrors) {
+            this.record = record;
+            this.status = status;
+            this.entry = entry;
+            this.message = message;
+            this.schemaErrors = schemaErrors;
+        }
+    }
+
     /**
      * Parses the provided array of LDIF lines as a single LDIF entry.
      *
@@ -94,6 +143,12 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
 
     private Entry nextEntry;
 
+    /** The decoding thread pool, or {@code null} if records are decoded by the calling thread. */
+    private ExecutorService decoder;
+    /** The records being decoded, in the order in which they were read. */
+    private final Deque<Future<DecodedRecord>> pendingRecords = new ArrayDeque<>();
+    private int maxPendingRecords;
+
     /**
      * Creates a new LDIF entry reader whose source is the provided input
      * stream.
@@ -148,6 +203,11 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
 
     @Override
     public void close() throws IOException {
+        if (decoder != null) {
+            decoder.shutdownNow();
+            decoder = null;
+            pendingRecords.clear();
+        }
         close0();
     }
 
@@ -180,6 +240,38 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
         return entry;
     }
 
+    /**
+     * Specifies the number of threads which should be used for decoding LDIF
+     * records. The default is {@code 1}, meaning that records are decoded by
+     * the thread which reads entries.
+     * <p>
+     * When more than one thread is used, records are read ahead of the caller
+     * and decoded in parallel, but entries are still returned, and the
+     * rejected record listener still notified, by the thread reading entries
+     * and in the order in which the records appear in the LDIF source. The
+     * configuration of this reader must not be modified once entries have
+     * started to be read.
+     *
+     * @param threadCount
+     *            The number of threads which should be used for decoding LDIF
+     *            records.
+     * @return A reference to this {@code LDIFEntryReader}.
+     * @throws IllegalArgumentException
+     *             If {@code threadCount} is less than {@code 1}.
+     * @throws IllegalStateException
+     *             If the number of decoding threads has already been set.
+     */
+    public LDIFEntryReader setDecodingThreadCount(final int threadCount) {
+        Reject.ifFalse(threadCount > 0, "The number of decoding threads must be positive");
+        Reject.ifTrue(decoder != null, "The number of decoding threads has already been set");
+        if (threadCount > 1) {
+            decoder = Executors.newFixedThreadPool(threadCount,
+                    Utils.newThreadFactory(null, DECODER_THREAD_NAME, true));
+            maxPendingRecords = threadCount * MAX_PENDING_RECORDS_PER_THREAD;
+        }
+        return this;
+    }
+
     /**
      * Specifies whether or not all operational attributes should be excluded
      * from any entries that are read from LDIF. The default is {@code false}.
@@ -351,70 +443,136 @@ public final class LDIFEntryReader extends AbstractLDIFReader implements EntryRe
 
     private Entry getNextEntry() throws DecodeException, IOException {
         while (nextEntry == null) {
-            // Read the set of lines that make up the next entry.
-            final LDIFRecord record = readLDIFRecord();
-            if (record == null) {
+            final DecodedRecord decoded = nextDecodedRecord();
+            if (decoded == null) {
                 nextEntry = EOF;
                 break;
             }
 
+            if (decoded.status == DecodeStatus.MALFORMED) {
+                handleMalformedRecord(decoded.record, decoded.message);
+                continue;
+            }
+
             try {
-                /* Read the DN of the entry and see if it is one that should be included in the import. */
-                final DN entryDN = readLDIFRecordDN(record);
-                if (entryDN == null) {
-                    // Skip version record.
-                    continue;
+                switch (decoded.status) {
+                case VERSION:
+                    break;
+                case SKIPPED:
+                    handleSkippedRecord(decoded.record, decoded.message);
+                    break;
+                case SCHEMA_VALIDATION_FAILURE:
+                    handleSchemaValidationFailure(decoded.record, decoded.schemaErrors);
+                    break;
+                default:
+                    if (!decoded.schemaErrors.isEmpty()) {
+                        handleSchemaValidationWarning(decoded.record, decoded.schemaErrors);
+                    }
+                    nextEntry = decoded.entry;
+                    break;
                 }
+            } catch (final DecodeException e) {
+                handleMalformedRecord(decoded.record, e.getMessageObject());
+            }
+        }
 
-                // Skip if branch containing the entry DN is excluded.
-                if (isBranchExcluded(entryDN)) {
-                    final LocalizableMessage message =
-                            ERR_LDIF_ENTRY_EXCLUDED_BY_DN
-                                    .get(record.lineNumber, entryDN.toString());
-                    handleSkippedRecord(record, message);
-                    continue;
-                }
+        return nextEntry;
+    }
 
-                // Use an Entry for the AttributeSequence.
-                final Entry entry = new LinkedHashMapEntry(entryDN);
-                boolean schemaValidationFailure = false;
-                final List<LocalizableMessage> schemaErrors = new LinkedList<>();
-                while (record.iterator.hasNext()) {
-                    final String ldifLine = record.iterator.next();
-                    if (!readLDIFRecordAttributeValue(record, ldifLine, entry, schemaErrors)) {
-                        schemaValidationFailure = true;
-                    }
-                }
+    /**
+     * Returns the next decoded record, or {@code null} if the end of the LDIF
+     * source has been reached.
+     */
+    private DecodedRecord nextDecodedRecord() throws IOException {
+        if (decoder == null) {
+            final LDIFRecord record = readLDIFRecord();
+            return record != null ? decodeRecord(record) : null;
+        }
 
-                // Skip if the entry is excluded by any filters.
-                if (isEntryExcluded(entry)) {
-                    final LocalizableMessage message =
-                            ERR_LDIF_ENTRY_EXCLUDED_BY_FILTER.get(record.lineNumber, entryDN
-                                    .toString());
-                    handleSkippedRecord(record, message);
-                    continue;
+        // Keep the decoding threads busy by reading ahead of the caller.
+        while (pendingRecords.size() < maxPendingRecords) {
+            final LDIFRecord record = readLDIFRecord();
+            if (record == null) {
+                break;
+            }
+            pendingRecords.add(decoder.submit(new Callable<DecodedRecord>() {
+                @Override
+                public DecodedRecord call() {
+                    return decodeRecord(record);
                 }
+            }));
+        }
+
+        final Future<DecodedRecord> future = pendingRecords.poll();
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
 
-                if (!schema.validateEntry(entry, schemaValidationPolicy, schemaErrors)) {
+    /**
+     * Decodes, filters and validates the provided LDIF record. This method
+     * does not modify the state of this reader and may therefore be invoked
+     * concurrently from multiple threads.
+     */
+    private DecodedRecord decodeRecord(final LDIFRecord record) {
+        try {
+            /* Read the DN of the entry and see if it is one that should be included in the import. */
+            final DN entryDN = readLDIFRecordDN(record);
+            if (entryDN == null) {
+                // Skip version record.
+                return new DecodedRecord(record, DecodeStatus.VERSION, null, null, null);
+            }
+
+            // Skip if branch containing the entry DN is excluded.
+            if (isBranchExcluded(entryDN)) {
+                final LocalizableMessage message =
+                        ERR_LDIF_ENTRY_EXCLUDED_BY_DN.get(record.lineNumber, entryDN.toString());
+                return new DecodedRecord(record, DecodeStatus.SKIPPED, null, message, null);
+            }
+
+            // Use an Entry for the AttributeSequence.
+            final Entry entry = new LinkedHashMapEntry(entryDN);
+            boolean schemaValidationFailure = false;
+            final List<LocalizableMessage> schemaErrors = new LinkedList<>();
+            while (record.iterator.hasNext()) {
+                final String ldifLine = record.iterator.next();
+                if (!readLDIFRecordAttributeValue(record, ldifLine, entry, schemaErrors)) {
                     schemaValidationFailure = true;
                 }
+            }
 
-                if (schemaValidationFailure) {
-                    handleSchemaValidationFailure(record, schemaErrors);
-                    continue;
-                }
+            // Skip if the entry is excluded by any filters.
+            if (isEntryExcluded(entry)) {
+                final LocalizableMessage message =
+                        ERR_LDIF_ENTRY_EXCLUDED_BY_FILTER.get(record.lineNumber, entryDN.toString());
+                return new DecodedRecord(record, DecodeStatus.SKIPPED, null, message, null);
+            }
 
-                if (!schemaErrors.isEmpty()) {
-                    handleSchemaValidationWarning(record, schemaErrors);
-                }
+            if (!schema.validateEntry(entry, schemaValidationPolicy, schemaErrors)) {
+                schemaValidationFailure = true;
+            }
 
-                nextEntry = entry;
-            } catch (final DecodeException e) {
-                handleMalformedRecord(record, e.getMessageObject());
-                continue;
+            if (schemaValidationFailure) {
+                return new DecodedRecord(record, DecodeStatus.SCHEMA_VALIDATION_FAILURE, null, null,
+                        schemaErrors);
             }
+            return new DecodedRecord(record, DecodeStatus.ENTRY, entry, null, schemaErrors);
+        } catch (final DecodeException e) {
+            return new DecodedRecord(record, DecodeStatus.MALFORMED, null, e.getMessageObject(), null);
         }
-
-        return nextEntry;
     }
 }
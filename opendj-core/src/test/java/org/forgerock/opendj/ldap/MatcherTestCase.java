@@ -0,0 +1,377 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.opendj.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.i18n.LocalizedIllegalArgumentException;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.opendj.ldap.schema.MatchingRuleUse;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.schema.UnknownSchemaElementException;
+import org.testng.Reporter;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the compiled {@link Matcher} against a reference implementation which
+ * interprets the filter for each entry.
+ */
+@SuppressWarnings("javadoc")
+public class MatcherTestCase extends SdkTestCase {
+
+    /**
+     * Reference implementation which walks the filter tree and resolves
+     * attribute descriptions, matching rules and assertions for every entry,
+     * in the same way that the matcher did before filters were compiled.
+     */
+    private static final class InterpretingMatcher implements FilterVisitor<ConditionResult, Entry> {
+        private final Schema schema = Schema.getDefaultSchema();
+
+        @Override
+        public ConditionResult visitAndFilter(final Entry entry, final List<Filter> subFilters) {
+            ConditionResult r = ConditionResult.TRUE;
+            for (final Filter f : subFilters) {
+                r = ConditionResult.and(r, f.accept(this, entry));
+            }
+            return r;
+        }
+
+        @Override
+        public ConditionResult visitApproxMatchFilter(final Entry entry, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            final MatchingRule rule = ad.getAttributeType().getApproximateMatchingRule();
+            try {
+                return rule != null ? matches(entry.getAttribute(ad), rule, rule.getAssertion(assertionValue))
+                                    : ConditionResult.UNDEFINED;
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitEqualityMatchFilter(final Entry entry, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            final MatchingRule rule = ad.getAttributeType().getEqualityMatchingRule();
+            try {
+                return rule != null ? matches(entry.getAttribute(ad), rule, rule.getAssertion(assertionValue))
+                                    : ConditionResult.UNDEFINED;
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitExtensibleMatchFilter(final Entry entry, final String matchingRule,
+                final String attributeDescription, final ByteString assertionValue, final boolean dnAttributes) {
+            try {
+                final AttributeDescription ad =
+                        attributeDescription != null ? AttributeDescription.valueOf(attributeDescription, schema)
+                                                     : null;
+                final MatchingRule rule = matchingRule != null ? schema.getMatchingRule(matchingRule)
+                                                               : ad.getAttributeType().getEqualityMatchingRule();
+                if (rule == null) {
+                    return ConditionResult.UNDEFINED;
+                }
+                final MatchingRuleUse ruleUse = matchingRule != null ? schema.getMatchingRuleUse(rule) : null;
+                if (ad != null && ruleUse != null && !ruleUse.hasAttribute(ad.getAttributeType())) {
+                    return ConditionResult.UNDEFINED;
+                }
+                final Assertion assertion = rule.getAssertion(assertionValue);
+
+                ConditionResult r = ConditionResult.FALSE;
+                if (ad != null) {
+                    r = matches(entry.getAttribute(ad), rule, assertion);
+                } else {
+                    for (final Attribute a : entry.getAllAttributes()) {
+                        if (ruleUse.hasAttribute(a.getAttributeDescription().getAttributeType())) {
+                            r = ConditionResult.or(r, matches(a, rule, assertion));
+                        }
+                    }
+                }
+                if (dnAttributes) {
+                    for (final RDN rdn : entry.getName()) {
+                        for (final AVA ava : rdn) {
+                            final AttributeType type = ava.getAttributeType();
+                            if (ruleUse != null ? ruleUse.hasAttribute(type)
+                                                : ad.getAttributeType().isSuperTypeOf(type)) {
+                                r = ConditionResult.or(r, matches(ava.getAttributeValue(), rule, assertion));
+                            }
+                        }
+                    }
+                }
+                return r;
+            } catch (final UnknownSchemaElementException | LocalizedIllegalArgumentException
+                    | DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitGreaterOrEqualFilter(final Entry entry, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            final MatchingRule rule = ad.getAttributeType().getOrderingMatchingRule();
+            try {
+                return rule != null
+                        ? matches(entry.getAttribute(ad), rule, rule.getGreaterOrEqualAssertion(assertionValue))
+                        : ConditionResult.UNDEFINED;
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitLessOrEqualFilter(final Entry entry, final String attributeDescription,
+                final ByteString assertionValue) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            final MatchingRule rule = ad.getAttributeType().getOrderingMatchingRule();
+            try {
+                return rule != null
+                        ? matches(entry.getAttribute(ad), rule, rule.getLessOrEqualAssertion(assertionValue))
+                        : ConditionResult.UNDEFINED;
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitNotFilter(final Entry entry, final Filter subFilter) {
+            return ConditionResult.not(subFilter.accept(this, entry));
+        }
+
+        @Override
+        public ConditionResult visitOrFilter(final Entry entry, final List<Filter> subFilters) {
+            ConditionResult r = ConditionResult.FALSE;
+            for (final Filter f : subFilters) {
+                r = ConditionResult.or(r, f.accept(this, entry));
+            }
+            return r;
+        }
+
+        @Override
+        public ConditionResult visitPresentFilter(final Entry entry, final String attributeDescription) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            return ConditionResult.valueOf(entry.getAttribute(ad) != null);
+        }
+
+        @Override
+        public ConditionResult visitSubstringsFilter(final Entry entry, final String attributeDescription,
+                final ByteString initialSubstring, final List<ByteString> anySubstrings,
+                final ByteString finalSubstring) {
+            final AttributeDescription ad = AttributeDescription.valueOf(attributeDescription, schema);
+            final MatchingRule rule = ad.getAttributeType().getSubstringMatchingRule();
+            try {
+                return rule != null
+                        ? matches(entry.getAttribute(ad), rule,
+                                rule.getSubstringAssertion(initialSubstring, anySubstrings, finalSubstring))
+                        : ConditionResult.UNDEFINED;
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+
+        @Override
+        public ConditionResult visitUnrecognizedFilter(final Entry entry, final byte filterTag,
+                final ByteString filterBytes) {
+            return ConditionResult.UNDEFINED;
+        }
+
+        private ConditionResult matches(final Attribute a, final MatchingRule rule, final Assertion assertion) {
+            ConditionResult r = ConditionResult.FALSE;
+            if (a != null) {
+                for (final ByteString v : a) {
+                    r = ConditionResult.or(r, matches(v, rule, assertion));
+                }
+            }
+            return r;
+        }
+
+        private ConditionResult matches(final ByteString v, final MatchingRule rule, final Assertion assertion) {
+            try {
+                return assertion.matches(rule.normalizeAttributeValue(v));
+            } catch (final DecodeException e) {
+                return ConditionResult.UNDEFINED;
+            }
+        }
+    }
+
+    private static final String[] FILTERS = {
+        "(&)",
+        "(|)",
+        "(!(&))",
+        "(!(|))",
+        "(cn=test)",
+        "(cn=TEST)",
+        "(!(cn=test))",
+        "(!(!(cn=test)))",
+        "(sn=*)",
+        "(description=*)",
+        "(cn=te*)",
+        "(cn=*es*)",
+        "(cn>=s)",
+        "(cn<=s)",
+        "(cn~=test)",
+        "(createTimestamp>=20150101000000Z)",
+        "(createTimestamp=abc)",
+        "(&(cn=test)(sn=*))",
+        "(&(cn=test)(&))",
+        "(&(cn=test)(|))",
+        "(|(cn=test)(&))",
+        "(|(cn=test)(|))",
+        "(&(objectClass=person)(&(cn=test)(&(sn=user)(uid=*))))",
+        "(|(cn=other)(|(sn=user)(|(uid=x)(uid=y))))",
+        "(&(|(cn=te*)(sn=*))(!(description=*))(objectClass=top))",
+        "(|(&(cn=test)(createTimestamp=abc))(!(sn=user)))",
+        "(&(createTimestamp=abc)(cn=nomatch))",
+        "(|(createTimestamp=abc)(cn=test))",
+        "(!(|(createTimestamp=abc)(cn=nomatch)))",
+        "(&(!(&))(cn=test))",
+        "(cn:=test)",
+        "(cn:=TEST)",
+        "(cn:=nomatch)",
+        "(unknownAttribute:=test)",
+        "(cn:caseExactMatch:=test)",
+        "(:caseIgnoreMatch:=test)",
+        "(:unknownMatch:=test)",
+        "(dc:dn:=example)",
+        "(name:dn:=test)",
+        "(cn:dn:=test)",
+        "(&(objectClass=person)(cn:=test))",
+        "(|(cn:dn:=nomatch)(sn:=user))",
+    };
+
+    @DataProvider
+    public Object[][] filtersAndEntries() {
+        final Entry[] entries = {
+            new LinkedHashMapEntry("dn: cn=test,dc=example,dc=com",
+                                   "objectClass: top",
+                                   "objectClass: person",
+                                   "cn: test",
+                                   "sn: user",
+                                   "createTimestamp: 20160101000000Z"),
+            new LinkedHashMapEntry("dn: cn=other,dc=example,dc=com",
+                                   "objectClass: top",
+                                   "cn: other",
+                                   "cn: testing",
+                                   "description: a description",
+                                   "createTimestamp: 20100101000000Z"),
+            new LinkedHashMapEntry("dn: dc=example,dc=com",
+                                   "objectClass: top",
+                                   "objectClass: domain",
+                                   "dc: example"),
+        };
+        final List<Object[]> data = new ArrayList<>();
+        for (final String filter : FILTERS) {
+            for (final Entry entry : entries) {
+                data.add(new Object[] { filter, entry });
+            }
+        }
+        return data.toArray(new Object[data.size()][]);
+    }
+
+    @Test(dataProvider = "filtersAndEntries")
+    public void testCompiledMatcherIsEquivalentToInterpreter(final String filterString, final Entry entry) {
+        final Filter filter = Filter.valueOf(filterString);
+        final ConditionResult expected = filter.accept(new InterpretingMatcher(), entry);
+        assertThat(filter.matcher().matches(entry)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testMatcherIsReusable() {
+        final Matcher matcher = Filter.valueOf("(&(objectClass=person)(cn=te*))").matcher();
+        final Entry matching = new LinkedHashMapEntry("dn: cn=test", "objectClass: person", "cn: test");
+        final Entry notMatching = new LinkedHashMapEntry("dn: cn=other", "objectClass: person", "cn: other");
+        for (int i = 0; i < 3; i++) {
+            assertThat(matcher.matches(matching)).isEqualTo(ConditionResult.TRUE);
+            assertThat(matcher.matches(notMatching)).isEqualTo(ConditionResult.FALSE);
+        }
+    }
+
+    /**
+     * Micro-benchmark comparing the compiled matcher with a copy of the matcher
+     * which evaluated the filter tree as written. Disabled by default because
+     * it takes several seconds and its result depends on the machine: enable
+     * it locally in order to measure the effect of changes to the matcher.
+     */
+    @Test(enabled = false)
+    public void benchmarkCompiledMatcherAgainstBaseline() {
+        final Filter filter = Filter.valueOf(
+                "(&(objectClass=person)(|(cn=user.1*)(sn=nomatch)(uid=user.*))(!(description=*))"
+                        + "(&(createTimestamp>=20150101000000Z)(uid=*)))");
+        final Entry[] entries = new Entry[1000];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new LinkedHashMapEntry("dn: uid=user." + i + ",dc=example,dc=com",
+                                                "objectClass: top",
+                                                "objectClass: person",
+                                                "objectClass: inetOrgPerson",
+                                                "cn: user." + i,
+                                                "sn: User " + i,
+                                                "uid: user." + i,
+                                                "createTimestamp: 20160101000000Z");
+        }
+        final BaselineMatcher baseline = new BaselineMatcher(filter, Schema.getDefaultSchema());
+        final Matcher matcher = filter.matcher();
+        final int iterations = 200;
+
+        // Warm up both implementations before measuring.
+        long baselineMatches = runBaseline(baseline, entries, iterations);
+        long compiledMatches = runCompiled(matcher, entries, iterations);
+
+        long start = System.nanoTime();
+        baselineMatches = runBaseline(baseline, entries, iterations);
+        final long baselineNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        compiledMatches = runCompiled(matcher, entries, iterations);
+        final long compiledNanos = System.nanoTime() - start;
+
+        assertThat(compiledMatches).isEqualTo(baselineMatches);
+        Reporter.log(String.format("baseline matcher: %d ms, compiled matcher: %d ms",
+                TimeUnit.NANOSECONDS.toMillis(baselineNanos), TimeUnit.NANOSECONDS.toMillis(compiledNanos)), true);
+    }
+
+    private long runBaseline(final BaselineMatcher baseline, final Entry[] entries, final int iterations) {
+        long matches = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final Entry entry : entries) {
+                if (baseline.matches(entry) == ConditionResult.TRUE) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private long runCompiled(final Matcher matcher, final Entry[] entries, final int iterations) {
+        long matches = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final Entry entry : entries) {
+                if (matcher.matches(entry) == ConditionResult.TRUE) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -23,12 +23,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizedIllegalArgumentException;
 import org.forgerock.opendj.ldap.AttributeDescription;
+import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.DecodeException;
 import org.forgerock.opendj.ldap.Entry;
@@ -1650,6 +1653,88 @@ public final class LDIFEntryReaderTestCase extends AbstractLDIFTestCase {
         assertThat(entry.getAttributeCount()).isEqualTo(nbStandardEntryAttributes);
     }
 
+    /**
+     * Tests that entries decoded in parallel are returned in the order in
+     * which they appear in the LDIF.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test
+    public void testParallelDecodingPreservesOrder() throws Exception {
+        final int nbEntries = 2000;
+        final List<String> ldif = new ArrayList<>();
+        for (int i = 0; i < nbEntries; i++) {
+            ldif.add("dn: uid=user." + i + ",dc=example,dc=com");
+            ldif.add("objectClass: top");
+            ldif.add("objectClass: person");
+            ldif.add("uid: user." + i);
+            ldif.add("description:: " + ByteString.valueOfUtf8("user " + i).toBase64String());
+            ldif.add("");
+        }
+
+        try (LDIFEntryReader reader = new LDIFEntryReader(ldif).setDecodingThreadCount(4)) {
+            for (int i = 0; i < nbEntries; i++) {
+                assertThat(reader.hasNext()).isTrue();
+                final Entry entry = reader.readEntry();
+                assertThat(entry.getName().toString()).isEqualTo("uid=user." + i + ",dc=example,dc=com");
+                assertThat(entry.parseAttribute("description").asString()).isEqualTo("user " + i);
+            }
+            assertThat(reader.hasNext()).isFalse();
+        }
+    }
+
+    /**
+     * Tests that rejected records are reported in order when records are
+     * decoded in parallel.
+     *
+     * @throws Exception
+     *             if an unexpected error occurred.
+     */
+    @Test
+    public void testParallelDecodingRejectedLDIFListener() throws Exception {
+        RejectedLDIFListener listener = mock(RejectedLDIFListener.class);
+
+        // @formatter:off
+        LDIFEntryReader reader = new LDIFEntryReader(
+                "dn: dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: domainComponent",
+                "dc: example",
+                "",
+                "dn: baddn",
+                "objectClass: top",
+                "",
+                "dn: ou=people,dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: people"
+        );
+        // @formatter:on
+
+        reader.setRejectedLDIFListener(listener).setDecodingThreadCount(2);
+
+        assertThat(reader.readEntry().getName().toString()).isEqualTo("dc=example,dc=com");
+        verifyZeroInteractions(listener);
+        assertThat(reader.readEntry().getName().toString()).isEqualTo("ou=people,dc=example,dc=com");
+        verify(listener).handleMalformedRecord(eq(6L), eq(Arrays.asList("dn: baddn", "objectClass: top")),
+                any(LocalizableMessage.class));
+        assertThat(reader.hasNext()).isFalse();
+        reader.close();
+    }
+
+    /**
+     * The number of decoding threads must be positive.
+     *
+     * @throws Exception
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSetDecodingThreadCountDoesntAllowZero() throws Exception {
+        try (LDIFEntryReader reader = new LDIFEntryReader(getStandardEntry())) {
+            reader.setDecodingThreadCount(0);
+        }
+    }
+
     /**
      * LDIFReader valueOfLDIFEntry doesn't allow null.
      *
@@ -18,9 +18,11 @@ package org.forgerock.opendj.ldif;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -1308,6 +1310,49 @@ public class LDIFTestCase extends AbstractLDIFTestCase {
         LDIF.diff(source, target);
     }
 
+    /**
+     * The external sort based diff must produce the same changes as the in
+     * memory diff, even when entries are spread over many temporary files, and
+     * it must remove its temporary files once closed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testLdifDiffUsingExternalSort() throws Exception {
+        final List<Entry> sourceEntries = new ArrayList<>();
+        final List<Entry> targetEntries = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final String dn = "dn: uid=user." + i + ",ou=People,dc=example,dc=com";
+            if (i % 10 != 0) {
+                sourceEntries.add(LDIF.makeEntry(dn, "objectClass: person", "cn: user " + i, "sn: " + i));
+            }
+            if (i % 7 != 0) {
+                final String sn = i % 3 == 0 ? "sn: modified " + i : "sn: " + i;
+                targetEntries.add(LDIF.makeEntry(dn, "objectClass: person", "cn: user " + i, sn));
+            }
+        }
+        // Make sure that the inputs are not already sorted.
+        Collections.reverse(targetEntries);
+
+        final List<String> expected = new ArrayList<>();
+        LDIF.copyTo(LDIF.diff(LDIF.newEntryCollectionReader(sourceEntries),
+                LDIF.newEntryCollectionReader(targetEntries)), new LDIFChangeRecordWriter(expected));
+
+        final File tempDirectory = Files.createTempDirectory("ldifdiff").toFile();
+        try {
+            final List<String> actual = new ArrayList<>();
+            try (ChangeRecordReader changes = LDIF.diff(LDIF.newEntryCollectionReader(sourceEntries),
+                    LDIF.newEntryCollectionReader(targetEntries), tempDirectory, 1024, 2)) {
+                assertThat(tempDirectory.list()).isNotEmpty();
+                LDIF.copyTo(changes, new LDIFChangeRecordWriter(actual));
+            }
+            assertThat(actual).isEqualTo(expected);
+            assertThat(tempDirectory.list()).isEmpty();
+        } finally {
+            tempDirectory.delete();
+        }
+    }
+
     /**
      * LDIF diff - EntryReader/Writer doesn't allow null. Exception expected.
      *
@@ -81,7 +81,7 @@ public class AddRate extends ConsoleApplication {
             private final String entryDN;
 
             private AddStatsHandler(final long currentTime, final String entryDN) {
-                super(currentTime);
+                super("add", currentTime);
                 this.entryDN = entryDN;
             }
 
@@ -111,7 +111,7 @@ public class AddRate extends ConsoleApplication {
 
         private final class DeleteStatsHandler extends UpdateStatsResultHandler<Result> {
             private DeleteStatsHandler(final long startTime) {
-                super(startTime);
+                super("delete", startTime);
             }
 
             @Override
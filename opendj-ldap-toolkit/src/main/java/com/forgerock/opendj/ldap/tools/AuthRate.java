@@ -166,8 +166,8 @@ public final class AuthRate extends ConsoleApplication {
                 }
 
                 incrementIterationCount();
-                return returnedPromise.thenOnResult(new UpdateStatsResultHandler<BindResult>(currentTimeNs))
-                                      .thenOnException(new UpdateStatsResultHandler<BindResult>(currentTimeNs));
+                return returnedPromise.thenOnResult(new UpdateStatsResultHandler<BindResult>("bind", currentTimeNs))
+                                      .thenOnException(new UpdateStatsResultHandler<BindResult>("bind", currentTimeNs));
             }
 
             private Promise<BindResult, LdapException> performBind(final Connection connection,
@@ -315,6 +315,11 @@ public final class AuthRate extends ConsoleApplication {
             this.bindRequestTemplate = bindRequestTemplate;
         }
 
+        @Override
+        boolean sendsBindRequestsOnWorkerConnections() {
+            return true;
+        }
+
         @Override
         WorkerThread newWorkerThread(final Connection connection,
                 final ConnectionFactory connectionFactory) {
@@ -220,6 +220,92 @@ final class DataSource {
         }
     }
 
+    /**
+     * Generates integers following a Zipfian distribution, the most popular values being the closest to the lower
+     * bound. Values are sampled in constant time and space using the rejection-inversion method described in
+     * "Rejection-Inversion to Generate Variates from Monotone Discrete Distributions" (Hormann and Derflinger).
+     */
+    private static final class ZipfianNumberDataSource implements IDataSource {
+        private static final double TAYLOR_THRESHOLD = 1e-8;
+
+        private final Random random;
+        private final int offset;
+        private final int range;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralRange;
+        private final double s;
+
+        private ZipfianNumberDataSource(final long seed, final int low, final int high, final double exponent) {
+            Reject.ifTrue(high <= low, "The upper bound must be greater than the lower bound");
+            Reject.ifTrue(exponent <= 0, "The exponent must be strictly positive");
+            this.random = new Random(seed);
+            this.offset = low;
+            this.range = high - low;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralRange = hIntegral(range + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        @Override
+        public IDataSource duplicate() {
+            // There is no state info so threads can just share one instance.
+            return this;
+        }
+
+        @Override
+        public Object getData() {
+            return offset + sample() - 1;
+        }
+
+        /** Returns a rank between 1 and range, rank 1 being the most popular. */
+        private int sample() {
+            while (true) {
+                final double u = hIntegralRange + random.nextDouble() * (hIntegralX1 - hIntegralRange);
+                final double x = hIntegralInverse(u);
+                final int k = (int) Math.max(1, Math.min(range, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        /** Integral of {@link #h(double)}, shifted so that it is well defined for an exponent of 1. */
+        private double hIntegral(final double x) {
+            final double logX = Math.log(x);
+            return expm1DividedByX((1 - exponent) * logX) * logX;
+        }
+
+        private double h(final double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegralInverse(final double x) {
+            return Math.exp(log1pDividedByX(Math.max(x * (1 - exponent), -1)) * x);
+        }
+
+        private static double log1pDividedByX(final double x) {
+            if (Math.abs(x) > TAYLOR_THRESHOLD) {
+                return Math.log1p(x) / x;
+            }
+            return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        private static double expm1DividedByX(final double x) {
+            if (Math.abs(x) > TAYLOR_THRESHOLD) {
+                return Math.expm1(x) / x;
+            }
+            return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+
+        public static LocalizableMessage getUsage() {
+            return LocalizableMessage.raw("\"zipf({min},{max},_exponent_)\" Random number following a Zipfian "
+                    + "distribution where the numbers closest to min are the most frequent. The exponent "
+                    + "defaults to 1.0, larger values increase the skew");
+        }
+    }
+
     private static final class StaticDataSource implements IDataSource {
         private final Object data;
 
@@ -265,7 +351,8 @@ final class DataSource {
     /**
      * Parses a list of source definitions into an array of data source objects.
      * A data source is defined as follows: - rand({min},{max}) generates a
-     * random integer between the min and max. - rand({filename}) retrieves a
+     * random integer between the min and max. - zipf({min},{max},{exponent})
+     * generates a Zipf distributed integer between the min and max. - rand({filename}) retrieves a
      * random line from a file. - inc({min},{max}) returns incremental integer
      * between the min and max. - inc({filename}) retrieves lines in order from
      * a file. - {number} always return the integer as given. - {string} always
@@ -338,6 +425,22 @@ final class DataSource {
                     throw new ArgumentException(LocalizableMessage.raw(
                             "Error parsing value generator: %s", e.getMessage()), e);
                 }
+            } else if (dataSourceDef.startsWith("zipf(") && dataSourceDef.endsWith(")")) {
+                try {
+                    final String[] params = dataSourceDef.substring("zipf(".length(), dataSourceDef.length() - 1)
+                                                         .split(",");
+                    if (params.length < 2 || params.length > 3) {
+                        throw new IllegalArgumentException("expected zipf({min},{max},{exponent})");
+                    }
+                    final int low = Integer.parseInt(params[0].trim());
+                    final int high = Integer.parseInt(params[1].trim());
+                    final double exponent = params.length == 3 ? Double.parseDouble(params[2].trim()) : 1.0;
+                    dataSources[i] = new DataSource(
+                            new ZipfianNumberDataSource(Thread.currentThread().getId(), low, high, exponent));
+                } catch (Exception e) {
+                    throw new ArgumentException(LocalizableMessage.raw(
+                            "Error parsing value generator: %s", e.getMessage()), e);
+                }
             } else if (dataSourceDef.startsWith("inc(") && dataSourceDef.endsWith(")")) {
                 final int lparenPos = dataSourceDef.indexOf("(");
                 final int commaPos = dataSourceDef.indexOf(",");
@@ -392,6 +495,8 @@ final class DataSource {
         builder.append(RandomNumberDataSource.getUsage());
         builder.append(StaticUtils.EOL);
         builder.append(RandomStringDataSource.getUsage());
+        builder.append(StaticUtils.EOL);
+        builder.append(ZipfianNumberDataSource.getUsage());
         return LocalizableMessage.raw(builder.toString());
     }
 
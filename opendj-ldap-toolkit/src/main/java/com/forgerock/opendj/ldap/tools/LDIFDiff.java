@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2012-2016 ForgeRock AS.
- * Portions Copyright 2014-2015 ForgeRock AS.
+ * Portions Copyright 2014-2016 ForgeRock AS.
  */
 package com.forgerock.opendj.ldap.tools;
 
@@ -25,6 +25,7 @@ import static com.forgerock.opendj.cli.CommonArguments.*;
 
 import static org.forgerock.util.Utils.closeSilently;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -36,6 +37,7 @@ import java.util.List;
 import org.forgerock.i18n.LocalizableException;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldif.ChangeRecordReader;
 import org.forgerock.opendj.ldif.LDIF;
 import org.forgerock.opendj.ldif.LDIFChangeRecordWriter;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
@@ -44,6 +46,7 @@ import com.forgerock.opendj.cli.ArgumentException;
 import com.forgerock.opendj.cli.ArgumentParser;
 import com.forgerock.opendj.cli.BooleanArgument;
 import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
 import com.forgerock.opendj.cli.StringArgument;
 
 /**
@@ -51,6 +54,8 @@ import com.forgerock.opendj.cli.StringArgument;
  * in LDIF format.
  */
 public final class LDIFDiff extends ConsoleApplication {
+    /** Default size in megabytes of the buffers used for sorting entries. */
+    private static final int DEFAULT_SORT_BUFFER_SIZE_MB = 64;
 
     /**
      * The main method for LDIFDiff tool.
@@ -77,6 +82,8 @@ public final class LDIFDiff extends ConsoleApplication {
 
         final BooleanArgument showUsage;
         final StringArgument outputFilename;
+        final StringArgument tmpDirectory;
+        final IntegerArgument sortBufferSize;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -86,6 +93,18 @@ public final class LDIFDiff extends ConsoleApplication {
                             .defaultValue("stdout")
                             .valuePlaceholder(INFO_OUTPUT_LDIF_FILE_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            tmpDirectory =
+                    StringArgument.builder("tmpDirectory")
+                            .description(INFO_LDIFDIFF_DESCRIPTION_TMP_DIRECTORY.get())
+                            .valuePlaceholder(INFO_DIRECTORY_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            sortBufferSize =
+                    IntegerArgument.builder("sortBufferSize")
+                            .description(INFO_LDIFDIFF_DESCRIPTION_SORT_BUFFER_SIZE.get())
+                            .lowerBound(1)
+                            .defaultValue(DEFAULT_SORT_BUFFER_SIZE_MB)
+                            .valuePlaceholder(INFO_SIZE_IN_MB_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
 
             showUsage = showUsageArgument();
             argParser.addArgument(showUsage);
@@ -179,8 +198,20 @@ public final class LDIFDiff extends ConsoleApplication {
             try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream);
                 LDIFEntryReader targetReader = new LDIFEntryReader(targetInputStream);
                 LDIFChangeRecordWriter outputWriter = new LDIFChangeRecordWriter(outputStream)) {
-                LDIF.copyTo(LDIF.diff(sourceReader, targetReader), outputWriter);
+                if (tmpDirectory.isPresent()) {
+                    final long bufferSize = sortBufferSize.getIntValue() * 1024L * 1024L;
+                    final int threadCount = Runtime.getRuntime().availableProcessors();
+                    try (ChangeRecordReader changes = LDIF.diff(sourceReader, targetReader,
+                            new File(tmpDirectory.getValue()), bufferSize, threadCount)) {
+                        LDIF.copyTo(changes, outputWriter);
+                    }
+                } else {
+                    LDIF.copyTo(LDIF.diff(sourceReader, targetReader), outputWriter);
+                }
             }
+        } catch (final ArgumentException e) {
+            errPrintln(e.getMessageObject());
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
         } catch (final IOException e) {
             if (e instanceof LocalizableException) {
                 errPrintln(ERR_LDIFDIFF_DIFF_FAILED.get(((LocalizableException) e).getMessageObject()));
@@ -88,6 +88,7 @@ public final class LDIFSearch extends ConsoleApplication {
         final StringArgument baseDN;
         final MultiChoiceArgument<SearchScope> searchScope;
         final IntegerArgument sizeLimit;
+        final IntegerArgument numThreads;
         try {
             outputFilename =
                     StringArgument.builder(OPTION_LONG_OUTPUT_LDIF_FILENAME)
@@ -133,6 +134,14 @@ public final class LDIFSearch extends ConsoleApplication {
                             .defaultValue(0)
                             .valuePlaceholder(INFO_TIME_LIMIT_PLACEHOLDER.get())
                             .buildAndAddToParser(argParser);
+            numThreads =
+                    IntegerArgument.builder("numThreads")
+                            .shortIdentifier('t')
+                            .description(INFO_LDIFSEARCH_DESCRIPTION_NUM_THREADS.get())
+                            .lowerBound(1)
+                            .defaultValue(1)
+                            .valuePlaceholder(INFO_NUM_THREADS_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
 
             showUsage = showUsageArgument();
             argParser.addArgument(showUsage);
@@ -207,7 +216,9 @@ public final class LDIFSearch extends ConsoleApplication {
         }
 
         final SearchRequest search;
+        final int decodingThreadCount;
         try {
+            decodingThreadCount = numThreads.getIntValue();
             final SearchScope scope = searchScope.getTypedValue();
             search =
                     Requests.newSearchRequest(DN.valueOf(baseDN.getValue()), scope, filters.get(0),
@@ -260,7 +271,8 @@ public final class LDIFSearch extends ConsoleApplication {
             }
 
             // Perform the search.
-            try (LDIFEntryReader sourceReader = new LDIFEntryReader(sourceInputStream);
+            try (LDIFEntryReader sourceReader =
+                    new LDIFEntryReader(sourceInputStream).setDecodingThreadCount(decodingThreadCount);
                 LDIFEntryWriter outputWriter = new LDIFEntryWriter(outputStream)) {
                 LDIF.copyTo(LDIF.search(sourceReader, search), outputWriter);
             }
@@ -0,0 +1,466 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.ResultCode.OTHER;
+import static org.forgerock.util.promise.Promises.newExceptionPromise;
+
+import static com.forgerock.opendj.cli.ArgumentConstants.*;
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.ToolVersionHandler.newSdkVersionHandler;
+import static com.forgerock.opendj.cli.Utils.*;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchResultHandler;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.BindRequest;
+import org.forgerock.opendj.ldap.requests.ModifyRequest;
+import org.forgerock.opendj.ldap.requests.Requests;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.BindResult;
+import org.forgerock.opendj.ldap.responses.CompareResult;
+import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.opendj.ldap.responses.SearchResultReference;
+import org.forgerock.opendj.ldif.EntryGenerator;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+
+import com.codahale.metrics.RatioGauge;
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.ConnectionFactoryProvider;
+import com.forgerock.opendj.cli.ConsoleApplication;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+import com.forgerock.opendj.cli.StringArgument;
+import com.forgerock.opendj.ldap.tools.Scenario.Operation;
+import com.forgerock.opendj.ldap.tools.Scenario.OperationType;
+
+/**
+ * A load generation tool that can be used to load a Directory Server with a weighted mix of search, bind, compare,
+ * modify, add and delete requests described by a scenario file, using one or more LDAP connections.
+ */
+public final class MixRate extends ConsoleApplication {
+    private final class MixPerformanceRunner extends PerformanceRunner {
+        private final class MixStatsHandler<S extends Result> extends UpdateStatsResultHandler<S>
+                implements SearchResultHandler {
+            private final OperationType type;
+            private final String addedEntryDN;
+
+            private MixStatsHandler(final OperationType type, final long currentTimeNs, final String addedEntryDN) {
+                super(type.getName(), currentTimeNs);
+                this.type = type;
+                this.addedEntryDN = addedEntryDN;
+            }
+
+            @Override
+            void updateAdditionalStatsOnResult() {
+                operationTypeCounts.get(type).inc();
+                if (addedEntryDN != null) {
+                    addedEntries.add(addedEntryDN);
+                }
+            }
+
+            @Override
+            public boolean handleEntry(final SearchResultEntry entry) {
+                return true;
+            }
+
+            @Override
+            public boolean handleReference(final SearchResultReference reference) {
+                return true;
+            }
+        }
+
+        private final class MixStatsThread extends StatsThread {
+            private static final int OPERATION_TYPE_COLUMN_WIDTH = 8;
+            private static final String OPERATION_TYPE_PERCENTAGE = STAT_ID_PREFIX + "operation_type_percentage_";
+            private static final String SKIPPED_DELETE_PERCENTAGE = STAT_ID_PREFIX + "skipped_delete_percentage";
+            private static final int SKIPPED_DELETE_COLUMN_WIDTH = 9;
+
+            private MixStatsThread(final PerformanceRunner perfRunner, final ConsoleApplication app) {
+                super(perfRunner, app);
+            }
+
+            @Override
+            void resetAdditionalStats() {
+                for (final OperationType type : OperationType.values()) {
+                    operationTypeCounts.put(type, newIntervalCounter());
+                }
+                sentDeletes = newIntervalCounter();
+                skippedDeletes = newIntervalCounter();
+            }
+
+            @Override
+            List<MultiColumnPrinter.Column> registerAdditionalColumns() {
+                final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+                for (final Operation operation : scenario.getOperations()) {
+                    final OperationType type = operation.getType();
+                    final String statKey = OPERATION_TYPE_PERCENTAGE + type.getName();
+                    registry.register(statKey, new RatioGauge() {
+                        @Override
+                        protected Ratio getRatio() {
+                            return Ratio.of(operationTypeCounts.get(type).refreshIntervalCount() * 100.0,
+                                            successCount.getLastIntervalCount());
+                        }
+                    });
+                    columns.add(column(statKey, type.getName() + " %", OPERATION_TYPE_COLUMN_WIDTH, 1));
+                }
+                if (scenario.getOperation(OperationType.DELETE) != null) {
+                    registry.register(SKIPPED_DELETE_PERCENTAGE, new RatioGauge() {
+                        @Override
+                        protected Ratio getRatio() {
+                            final long sentIntervalCount = sentDeletes.refreshIntervalCount();
+                            final long skippedIntervalCount = skippedDeletes.refreshIntervalCount();
+                            return Ratio.of(skippedIntervalCount * 100.0, sentIntervalCount + skippedIntervalCount);
+                        }
+                    });
+                    columns.add(column(SKIPPED_DELETE_PERCENTAGE, "del skip %", SKIPPED_DELETE_COLUMN_WIDTH, 1));
+                }
+                return columns;
+            }
+        }
+
+        private final class MixWorkerThread extends WorkerThread {
+            private Object[] data;
+
+            private MixWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+                super(connection, connectionFactory);
+            }
+
+            @Override
+            public Promise<?, LdapException> performOperation(final Connection connection,
+                    final DataSource[] dataSources, final long currentTimeNs) {
+                if (dataSources != null) {
+                    data = DataSource.generateData(dataSources, data);
+                }
+                final Operation operation = scenario.select(ThreadLocalRandom.current().nextDouble());
+
+                incrementIterationCount();
+                try {
+                    switch (operation.getType()) {
+                    case SEARCH:
+                        return doSearch(connection, operation, currentTimeNs);
+                    case BIND:
+                        return doBind(operation, currentTimeNs);
+                    case COMPARE:
+                        return doCompare(connection, operation, currentTimeNs);
+                    case MODIFY:
+                        return doModify(connection, operation, currentTimeNs);
+                    case DELETE:
+                        final String entryToDelete = addedEntries.poll();
+                        if (entryToDelete != null) {
+                            sentDeletes.inc();
+                            return doDelete(connection, entryToDelete, currentTimeNs);
+                        }
+                        // Nothing to delete yet: no request is sent, the delete is only reported as skipped.
+                        skippedDeletes.inc();
+                        return Promises.<Void, LdapException>newResultPromise(null);
+                    case ADD:
+                        return doAdd(connection, currentTimeNs);
+                    default:
+                        throw new IllegalStateException("Unexpected operation type " + operation.getType());
+                    }
+                } catch (final IOException e) {
+                    return newExceptionPromise(newLdapException(OTHER, e));
+                }
+            }
+
+            private Promise<Result, LdapException> doSearch(
+                    final Connection connection, final Operation operation, final long currentTimeNs) {
+                final SearchRequest request = Requests.newSearchRequest(
+                        format(operation.get("baseDN", null)),
+                        SearchScope.valueOf(operation.get("scope", SearchScope.BASE_OBJECT.toString())),
+                        format(operation.get("filter", "(objectClass=*)")),
+                        searchAttributes);
+                final MixStatsHandler<Result> handler =
+                        new MixStatsHandler<>(OperationType.SEARCH, currentTimeNs, null);
+                return connection.searchAsync(request, handler).thenOnResult(handler).thenOnException(handler);
+            }
+
+            /**
+             * Binds on a dedicated connection which is closed afterwards: binding on the worker connection would
+             * change the identity of the other requests sharing it. The response time includes the connection setup.
+             */
+            private Promise<BindResult, LdapException> doBind(final Operation operation, final long currentTimeNs) {
+                final BindRequest request = Requests.newSimpleBindRequest(
+                        format(operation.get("dn", null)), format(operation.get("password", null)).toCharArray());
+                final MixStatsHandler<BindResult> handler =
+                        new MixStatsHandler<>(OperationType.BIND, currentTimeNs, null);
+                return bindConnectionFactory.getConnectionAsync().thenAsync(
+                        new AsyncFunction<Connection, BindResult, LdapException>() {
+                            @Override
+                            public Promise<BindResult, LdapException> apply(final Connection bindConnection) {
+                                return bindConnection.bindAsync(request).thenAlways(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        bindConnection.close();
+                                    }
+                                });
+                            }
+                        }).thenOnResult(handler).thenOnException(handler);
+            }
+
+            private Promise<CompareResult, LdapException> doCompare(
+                    final Connection connection, final Operation operation, final long currentTimeNs) {
+                final MixStatsHandler<CompareResult> handler =
+                        new MixStatsHandler<>(OperationType.COMPARE, currentTimeNs, null);
+                return connection.compareAsync(Requests.newCompareRequest(format(operation.get("dn", null)),
+                        operation.get("attribute", null), format(operation.get("value", null))))
+                                 .thenOnResult(handler).thenOnException(handler);
+            }
+
+            private Promise<Result, LdapException> doModify(
+                    final Connection connection, final Operation operation, final long currentTimeNs) {
+                final ModifyRequest request = Requests.newModifyRequest(format(operation.get("dn", null)))
+                        .addModification(ModificationType.REPLACE, operation.get("attribute", null),
+                                format(operation.get("value", null)));
+                final MixStatsHandler<Result> handler =
+                        new MixStatsHandler<>(OperationType.MODIFY, currentTimeNs, null);
+                return connection.modifyAsync(request).thenOnResult(handler).thenOnException(handler);
+            }
+
+            private Promise<Result, LdapException> doAdd(final Connection connection, final long currentTimeNs)
+                    throws IOException {
+                final Entry entry;
+                synchronized (generator) {
+                    entry = generator.readEntry();
+                }
+                final MixStatsHandler<Result> handler =
+                        new MixStatsHandler<>(OperationType.ADD, currentTimeNs, entry.getName().toString());
+                return connection.addAsync(Requests.newAddRequest(entry))
+                                 .thenOnResult(handler).thenOnException(handler);
+            }
+
+            private Promise<Result, LdapException> doDelete(
+                    final Connection connection, final String entryDN, final long currentTimeNs) {
+                final MixStatsHandler<Result> handler =
+                        new MixStatsHandler<>(OperationType.DELETE, currentTimeNs, null);
+                return connection.deleteAsync(Requests.newDeleteRequest(entryDN))
+                                 .thenOnResult(handler).thenOnException(handler);
+            }
+
+            private String format(final String formatString) {
+                return data != null ? String.format(formatString, data) : formatString;
+            }
+        }
+
+        /** Entries added by this run, oldest first, which can be removed by delete operations. */
+        private final Queue<String> addedEntries = new ConcurrentLinkedQueue<>();
+        private final Map<OperationType, StatsThread.IntervalCounter> operationTypeCounts =
+                new EnumMap<>(OperationType.class);
+        private StatsThread.IntervalCounter sentDeletes = StatsThread.newIntervalCounter();
+        private StatsThread.IntervalCounter skippedDeletes = StatsThread.newIntervalCounter();
+        /** Opens the unauthenticated connections used by bind operations, one per bind. */
+        private ConnectionFactory bindConnectionFactory;
+        private Scenario scenario;
+        private String[] searchAttributes;
+        private EntryGenerator generator;
+
+        private MixPerformanceRunner(final PerformanceRunnerOptions options) throws ArgumentException {
+            super(options);
+        }
+
+        @Override
+        WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory) {
+            return new MixWorkerThread(connection, connectionFactory);
+        }
+
+        @Override
+        StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app) {
+            return new MixStatsThread(performanceRunner, app);
+        }
+    }
+
+    /**
+     * The main method for MixRate tool.
+     *
+     * @param args
+     *            The command-line arguments provided to this program.
+     */
+    public static void main(final String[] args) {
+        final int retCode = new MixRate().run(args);
+        System.exit(filterExitCode(retCode));
+    }
+
+    private BooleanArgument verbose;
+    private BooleanArgument scriptFriendly;
+
+    private MixRate() {
+        // Nothing to do.
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public boolean isScriptFriendly() {
+        return scriptFriendly.isPresent();
+    }
+
+    @Override
+    public boolean isVerbose() {
+        return verbose.isPresent();
+    }
+
+    private int run(final String[] args) {
+        // Creates the command-line argument parser for use with this program
+        final LocalizableMessage toolDescription = INFO_MIXRATE_TOOL_DESCRIPTION.get();
+        final ArgumentParser argParser =
+                new ArgumentParser(MixRate.class.getName(), toolDescription, false, true, 1, 1, "scenario-file-path");
+        argParser.setVersionHandler(newSdkVersionHandler());
+        argParser.setShortToolDescription(REF_SHORT_DESC_MIXRATE.get());
+        argParser.setDocToolDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RATE_TOOLS.get());
+
+        final ConnectionFactoryProvider connectionFactoryProvider;
+        final ConnectionFactory connectionFactory;
+        final MixPerformanceRunner runner;
+
+        /* Entries generation parameters */
+        final IntegerArgument randomSeedArg;
+        final StringArgument resourcePathArg;
+        final StringArgument constantsArg;
+        try {
+            Utils.setDefaultPerfToolProperties();
+
+            connectionFactoryProvider = new ConnectionFactoryProvider(argParser, this);
+            runner = new MixPerformanceRunner(new PerformanceRunnerOptions(argParser, this));
+
+            final StringArgument propertiesFileArgument = propertiesFileArgument();
+            argParser.addArgument(propertiesFileArgument);
+            argParser.setFilePropertiesArgument(propertiesFileArgument);
+
+            final BooleanArgument noPropertiesFileArgument = noPropertiesFileArgument();
+            argParser.addArgument(noPropertiesFileArgument);
+            argParser.setNoPropertiesFileArgument(noPropertiesFileArgument);
+
+            resourcePathArg =
+                    StringArgument.builder(MakeLDIF.OPTION_LONG_RESOURCE_PATH)
+                            .shortIdentifier('r')
+                            .description(INFO_ADDRATE_DESCRIPTION_RESOURCE_PATH.get())
+                            .docDescriptionSupplement(SUPPLEMENT_DESCRIPTION_RESOURCE_PATH.get())
+                            .valuePlaceholder(INFO_PATH_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            randomSeedArg =
+                    IntegerArgument.builder(OPTION_LONG_RANDOM_SEED)
+                            .shortIdentifier('R')
+                            .description(INFO_ADDRATE_DESCRIPTION_SEED.get())
+                            .defaultValue(0)
+                            .valuePlaceholder(INFO_SEED_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+            constantsArg =
+                    StringArgument.builder(MakeLDIF.OPTION_LONG_CONSTANT)
+                            .description(INFO_ADDRATE_DESCRIPTION_CONSTANT.get())
+                            .multiValued()
+                            .valuePlaceholder(INFO_CONSTANT_PLACEHOLDER.get())
+                            .buildAndAddToParser(argParser);
+
+            verbose = verboseArgument();
+            argParser.addArgument(verbose);
+
+            final BooleanArgument showUsage = showUsageArgument();
+            argParser.addArgument(showUsage);
+            argParser.setUsageArgument(showUsage, getOutputStream());
+
+            scriptFriendly =
+                    BooleanArgument.builder("scriptFriendly")
+                            .shortIdentifier('S')
+                            .description(INFO_DESCRIPTION_SCRIPT_FRIENDLY.get())
+                            .buildAndAddToParser(argParser);
+        } catch (final ArgumentException ae) {
+            final LocalizableMessage message = ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage());
+            errPrintln(message);
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        // Parse the command-line arguments provided to this program.
+        try {
+            argParser.parseArguments(args);
+
+            /* If we should just display usage or version information, then print it and exit. */
+            if (argParser.usageOrVersionDisplayed()) {
+                return 0;
+            }
+
+            connectionFactory = connectionFactoryProvider.getAuthenticatedConnectionFactory();
+            runner.setBindRequest(connectionFactoryProvider.getBindRequest());
+            runner.scenario = Scenario.load(argParser.getTrailingArguments().get(0));
+            runner.setDefaultTargetThroughput(runner.scenario.getTotalRate());
+            if (runner.scenario.getOperation(OperationType.BIND) != null) {
+                runner.bindConnectionFactory = connectionFactoryProvider.getUnauthenticatedConnectionFactory();
+            }
+            runner.validate();
+        } catch (final ArgumentException ae) {
+            argParser.displayMessageAndUsageReference(getErrStream(), ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final Operation search = runner.scenario.getOperation(OperationType.SEARCH);
+        final String attributes = search != null ? search.get("attributes", "").trim() : "";
+        runner.searchAttributes = attributes.isEmpty() ? new String[0] : attributes.split("\\s+");
+
+        try {
+            /* Try it out to make sure the format strings and data sources match. */
+            final Object[] data = DataSource.generateData(runner.getDataSources(), null);
+            for (final Operation operation : runner.scenario.getOperations()) {
+                for (final String property : new String[] { "baseDN", "filter", "dn", "password", "value" }) {
+                    final String formatString = operation.get(property, null);
+                    if (formatString != null) {
+                        String.format(formatString, data);
+                    }
+                }
+            }
+        } catch (final Exception ex1) {
+            errPrintln(LocalizableMessage.raw("Error formatting scenario format strings: " + ex1));
+            return ResultCode.CLIENT_SIDE_PARAM_ERROR.intValue();
+        }
+
+        final Operation add = runner.scenario.getOperation(OperationType.ADD);
+        if (add != null) {
+            runner.generator = MakeLDIF.createGenerator(
+                    add.get("template", null), resourcePathArg, randomSeedArg, constantsArg, false, this);
+            if (runner.generator == null) {
+                // Error message has already been logged.
+                return ResultCode.OPERATIONS_ERROR.intValue();
+            }
+        }
+
+        return runner.run(connectionFactory);
+    }
+}
@@ -63,7 +63,7 @@ public final class ModRate extends ConsoleApplication {
                     data = DataSource.generateData(dataSources, data);
                 }
                 mr = newModifyRequest(data);
-                LdapResultHandler<Result> modRes = new UpdateStatsResultHandler<>(currentTimeNs);
+                LdapResultHandler<Result> modRes = new UpdateStatsResultHandler<>("modify", currentTimeNs);
 
                 incrementIterationCount();
                 return connection.modifyAsync(mr).thenOnResult(modRes).thenOnException(modRes);
@@ -23,10 +23,13 @@ import static org.forgerock.util.Utils.*;
 
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.Connection;
@@ -37,6 +40,7 @@ import org.forgerock.opendj.ldap.LdapResultHandler;
 import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.responses.ExtendedResult;
 import org.forgerock.opendj.ldap.responses.Result;
+import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
 
 import com.forgerock.opendj.cli.ArgumentException;
@@ -50,6 +54,8 @@ import com.forgerock.opendj.util.StaticUtils;
 /** Benchmark application framework. */
 abstract class PerformanceRunner implements ConnectionEventListener {
     private static final double[] DEFAULT_PERCENTILES = new double[] { 99.9, 99.99, 99.999 };
+    /** Maximum number of requests a worker thread may have in flight in open-loop mode. */
+    private static final int MAX_OUTSTANDING_REQUESTS_PER_WORKER = 10000;
 
     class TimerThread extends Thread {
         private final long timeToWait;
@@ -81,31 +87,33 @@ abstract class PerformanceRunner implements ConnectionEventListener {
      *            The type of expected result.
      */
     class UpdateStatsResultHandler<S extends Result> implements LdapResultHandler<S> {
+        private final String operationType;
         protected final long operationStartTimeNs;
 
-        UpdateStatsResultHandler(final long currentTimeNs) {
+        UpdateStatsResultHandler(final String operationType, final long currentTimeNs) {
+            this.operationType = operationType;
             this.operationStartTimeNs = currentTimeNs;
         }
 
         @Override
         public final void handleException(final LdapException exception) {
             statsThread.incrementFailedCount();
-            updateResponseTime();
+            updateResponseTime(true);
             app.errPrintVerboseMessage(LocalizableMessage.raw(exception.getResult().toString()));
         }
 
         @Override
         public final void handleResult(final S result) {
             statsThread.incrementSuccessCount();
-            updateResponseTime();
+            updateResponseTime(false);
             updateAdditionalStatsOnResult();
         }
 
         /** Do nothing by default, child classes which manage additional stats need to override this method. */
         void updateAdditionalStatsOnResult() { }
 
-        private void updateResponseTime() {
-            statsThread.addResponseTime(System.nanoTime() - operationStartTimeNs);
+        private void updateResponseTime(final boolean failed) {
+            statsThread.addResponseTime(operationType, System.nanoTime() - operationStartTimeNs, failed);
         }
     }
 
@@ -127,6 +135,14 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
         @Override
         public void run() {
+            if (openLoop) {
+                runOpenLoop();
+            } else {
+                runClosedLoop();
+            }
+        }
+
+        private void runClosedLoop() {
             Promise<?, LdapException> promise;
             Connection connection;
             final double targetTimeMs = 1000.0 / (targetThroughput / (double) (numThreads * numConnections));
@@ -184,6 +200,77 @@ abstract class PerformanceRunner implements ConnectionEventListener {
             }
         }
 
+        /**
+         * Sends requests according to a fixed schedule derived from the target throughput, without waiting for
+         * the responses of the previous requests. Response times are measured from the time at which each request
+         * was intended to be sent, so that a server stall is accounted for in the response times of all the
+         * requests which should have been sent during the stall, rather than only in the one which was
+         * outstanding (coordinated omission).
+         */
+        private void runOpenLoop() {
+            final long intervalNs = (long) (SECONDS.toNanos(1) * numThreads * numConnections / targetThroughput);
+            final Semaphore outstandingRequests = new Semaphore(MAX_OUTSTANDING_REQUESTS_PER_WORKER);
+            long intendedStartTimeNs = System.nanoTime();
+
+            while (!stopRequested && !localStopRequested
+                    && (maxIterations <= 0 || count < maxIterations)) {
+                final long waitTimeNs = intendedStartTimeNs - System.nanoTime();
+                if (waitTimeNs > 0) {
+                    LockSupport.parkNanos(waitTimeNs);
+                    continue;
+                }
+
+                final Connection connection;
+                try {
+                    // Do not let the number of outstanding requests grow without bounds if the server falls behind.
+                    // Blocking here still delays the next requests, but their intended start time is unchanged.
+                    outstandingRequests.acquire();
+                    connection = getConnectionToUse();
+                } catch (final InterruptedException e) {
+                    // Ignore and check stop requested
+                    continue;
+                } catch (final LdapException e) {
+                    outstandingRequests.release();
+                    handleConnectionError(false, e);
+                    break;
+                }
+
+                final Promise<?, LdapException> promise =
+                        performOperation(connection, dataSources.get(), intendedStartTimeNs);
+                statsThread.incrementOperationCount();
+                promise.thenOnException(new ExceptionHandler<LdapException>() {
+                    @Override
+                    public void handleException(final LdapException e) {
+                        if (!stopRequested && e.getCause() instanceof IOException) {
+                            e.getCause().printStackTrace(app.getErrorStream());
+                            stopTool(true);
+                        }
+                        // Otherwise ignore. Handled by result handler
+                    }
+                }).thenAlways(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (WorkerThread.this.connection == null) {
+                            connection.close();
+                        }
+                        outstandingRequests.release();
+                    }
+                });
+                intendedStartTimeNs += intervalNs;
+            }
+
+            // Wait for the outstanding requests so that their response times are recorded.
+            while (!stopRequested) {
+                try {
+                    if (outstandingRequests.tryAcquire(MAX_OUTSTANDING_REQUESTS_PER_WORKER, 100, MILLISECONDS)) {
+                        break;
+                    }
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
         private Connection getConnectionToUse() throws InterruptedException, LdapException {
             if (this.connection == null) {
                 return connectionFactory.getConnectionAsync().getOrThrow();
@@ -224,6 +311,9 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private boolean stopRequested;
 
     private int targetThroughput;
+    private int defaultTargetThroughput;
+    private boolean openLoop;
+    private File histogramLogFile;
     private int maxIterations;
     /** Warm-up duration time in ms. */
     private long warmUpDurationMs;
@@ -240,6 +330,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     private final IntegerArgument percentilesArgument;
     private final BooleanArgument keepConnectionsOpen;
     private final BooleanArgument noRebindArgument;
+    private final BooleanArgument openLoopArgument;
+    private final StringArgument histogramLogFileArgument;
     private final StringArgument arguments;
     protected final IntegerArgument maxIterationsArgument;
     protected final IntegerArgument warmUpArgument;
@@ -311,6 +403,22 @@ abstract class PerformanceRunner implements ConnectionEventListener {
                         .defaultValue(0)
                         .valuePlaceholder(LocalizableMessage.raw("{targetThroughput}"))
                         .buildAndAddToParser(argParser);
+        openLoopArgument =
+                BooleanArgument.builder("openLoop")
+                        .description(LocalizableMessage.raw("Send requests at the fixed rate specified by the "
+                                + "target throughput without waiting for responses, and measure response times "
+                                + "from the time at which each request should have been sent. Bind requests "
+                                + "cannot be pipelined: authrate, or any tool used without --noRebind, then "
+                                + "uses a new connection for each request"))
+                        .buildAndAddToParser(argParser);
+        histogramLogFileArgument =
+                StringArgument.builder("histogramLogFile")
+                        .description(LocalizableMessage.raw("Write the response time histogram of each statistics "
+                                + "interval to the specified file using the HdrHistogram log format. When the "
+                                + "workload mixes several operation types, the histograms of each operation type "
+                                + "are also written to the file name suffixed with the operation type"))
+                        .valuePlaceholder(LocalizableMessage.raw("{histogramLogFile}"))
+                        .buildAndAddToParser(argParser);
         percentilesArgument =
                 IntegerArgument.builder("percentile")
                         .shortIdentifier('e')
@@ -381,9 +489,18 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         maxIterations = maxIterationsArgument.getIntValue() / numConnections / numThreads;
         maxDurationTimeMs = maxDurationArgument.getIntValue() * 1000L;
         statsIntervalMs = statsIntervalArgument.getIntValue() * 1000;
-        targetThroughput = targetThroughputArgument.getIntValue();
+        targetThroughput = targetThroughputArgument.isPresent() ? targetThroughputArgument.getIntValue()
+                                                                 : defaultTargetThroughput;
 
         noRebind = noRebindArgument.isPresent();
+        openLoop = openLoopArgument.isPresent();
+        histogramLogFile = histogramLogFileArgument.isPresent() ? new File(histogramLogFileArgument.getValue()) : null;
+
+        if (openLoop && targetThroughput <= 0) {
+            throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
+                "--" + targetThroughputArgument.getLongIdentifier(), "--" + openLoopArgument.getLongIdentifier(),
+                "present"));
+        }
 
         if (!noRebindArgument.isPresent() && this.numThreads > 1) {
             throw new ArgumentException(ERR_TOOL_ARG_MUST_BE_USED_WHEN_ARG_CONDITION.get(
@@ -409,6 +526,14 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     abstract WorkerThread newWorkerThread(final Connection connection, final ConnectionFactory connectionFactory);
     abstract StatsThread newStatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication app);
 
+    /**
+     * Returns whether the worker threads send bind requests on the connection they are given. Such requests cannot
+     * be pipelined with other requests, so the open loop mode then opens a new connection for each request.
+     */
+    boolean sendsBindRequestsOnWorkerConnections() {
+        return false;
+    }
+
     TimerThread newEndTimerThread(final long timeToWait) {
         return new TimerThread(timeToWait);
     }
@@ -419,9 +544,12 @@ abstract class PerformanceRunner implements ConnectionEventListener {
 
         try {
             validateCanConnectToServer(connectionFactory);
+            // Open loop requests are pipelined, but a bind must be the only outstanding request of its connection
+            final boolean shareConnections = (keepConnectionsOpen.isPresent() || noRebind)
+                    && !(openLoop && (!noRebind || sendsBindRequestsOnWorkerConnections()));
             for (int i = 0; i < numConnections; i++) {
                 Connection connection = null;
-                if (keepConnectionsOpen.isPresent() || noRebindArgument.isPresent()) {
+                if (shareConnections) {
                     connection = connectionFactory.getConnection();
                     connection.addConnectionEventListener(this);
                     connections.add(connection);
@@ -469,6 +597,14 @@ abstract class PerformanceRunner implements ConnectionEventListener {
         }
     }
 
+    /**
+     * Sets the target throughput to use when it is not specified on the command line. Must be called before
+     * {@link #validate()}.
+     */
+    void setDefaultTargetThroughput(final int defaultTargetThroughput) {
+        this.defaultTargetThroughput = defaultTargetThroughput;
+    }
+
     void setBindRequest(final BindRequest request) {
         this.bindRequest = request;
     }
@@ -500,4 +636,8 @@ abstract class PerformanceRunner implements ConnectionEventListener {
     long getStatsInterval() {
         return statsIntervalMs;
     }
+
+    File getHistogramLogFile() {
+        return histogramLogFile;
+    }
 }
@@ -0,0 +1,253 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
+import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import com.forgerock.opendj.cli.MultiColumnPrinter;
+
+/**
+ * Records full resolution response time histograms broken down per operation type.
+ * <p>
+ * Response times are recorded into HdrHistogram {@link Recorder}s, which can be updated concurrently by the
+ * worker threads without blocking. Each time {@link #snapshot()} is called, the histograms recorded since the
+ * previous snapshot are accumulated into whole-run histograms and, if a log file has been provided, written as
+ * interval histograms in the HdrHistogram log format. The interval histograms of all the operation types are
+ * written to the provided file, and, as soon as more than one operation type has been seen, the interval
+ * histograms of each operation type are written to a sibling file suffixed with the operation type name.
+ * <p>
+ * This class is thread safe.
+ */
+final class ResponseTimeRecorder implements Closeable {
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+    private static final String ALL_OPERATION_TYPES = "all";
+
+    private static final String OPERATION_TYPE = "operation";
+    private static final String COUNT = "count";
+    private static final String ERRORS = "errors";
+    private static final String MEAN = "mean";
+    private static final String PERCENTILE = "percentile";
+    private static final String MAX = "max";
+    private static final int STANDARD_WIDTH = 9;
+
+    /** The statistics of one operation type. */
+    private final class OperationTypeStats {
+        private final String operationType;
+        private final Recorder recorder = new Recorder(SIGNIFICANT_VALUE_DIGITS);
+        private final AtomicLong errorCount = new AtomicLong();
+        /** Accumulates the interval histograms, only accessed while holding the recorder lock. */
+        private final Histogram total = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+        private Histogram interval;
+        private HistogramLogWriter logWriter;
+
+        private OperationTypeStats(final String operationType) {
+            this.operationType = operationType;
+        }
+
+        private void snapshot(final boolean log) throws FileNotFoundException {
+            sampleInterval();
+            total.add(interval);
+            if (log && logFile != null) {
+                getLogWriter().outputIntervalHistogram(interval);
+            }
+        }
+
+        private void reset() {
+            sampleInterval();
+            total.reset();
+            errorCount.set(0);
+        }
+
+        private void sampleInterval() {
+            interval = interval == null ? recorder.getIntervalHistogram() : recorder.getIntervalHistogram(interval);
+        }
+
+        private HistogramLogWriter getLogWriter() throws FileNotFoundException {
+            if (logWriter == null) {
+                final File file = operationType.equals(ALL_OPERATION_TYPES)
+                        ? logFile : new File(logFile.getPath() + "." + operationType);
+                logWriter = new HistogramLogWriter(file);
+                logWriter.outputComment("[Response times of " + operationType + " operations, in nanoseconds]");
+                logWriter.outputLogFormatVersion();
+                logWriter.outputStartTime(startTimeMs);
+                logWriter.setBaseTime(startTimeMs);
+                logWriter.outputLegend();
+            }
+            return logWriter;
+        }
+
+        private void close() {
+            if (logWriter != null) {
+                logWriter.close();
+                logWriter = null;
+            }
+        }
+    }
+
+    private final File logFile;
+    private final OperationTypeStats allOperations = new OperationTypeStats(ALL_OPERATION_TYPES);
+    private final ConcurrentMap<String, OperationTypeStats> operationTypes = new ConcurrentHashMap<>();
+    private volatile long startTimeMs = System.currentTimeMillis();
+
+    /**
+     * Creates a new response time recorder.
+     *
+     * @param logFile
+     *            The file where the interval histograms will be logged, or {@code null} if they should not be logged.
+     */
+    ResponseTimeRecorder(final File logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Records the response time of an operation.
+     *
+     * @param operationType
+     *            The type of the operation, e.g. "search".
+     * @param responseTimeNs
+     *            The response time in nanoseconds.
+     * @param failed
+     *            {@code true} if the operation failed.
+     */
+    void record(final String operationType, final long responseTimeNs, final boolean failed) {
+        final OperationTypeStats stats = getStats(operationType);
+        final long value = Math.max(responseTimeNs, 0);
+        allOperations.recorder.recordValue(value);
+        stats.recorder.recordValue(value);
+        if (failed) {
+            allOperations.errorCount.incrementAndGet();
+            stats.errorCount.incrementAndGet();
+        }
+    }
+
+    /** Discards all the response times recorded so far, e.g. at the end of the warm up period. */
+    synchronized void reset() {
+        startTimeMs = System.currentTimeMillis();
+        allOperations.reset();
+        for (final OperationTypeStats stats : operationTypes.values()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Closes the current recording interval, and logs its histograms if needed.
+     *
+     * @throws FileNotFoundException
+     *             If the log file cannot be created.
+     */
+    synchronized void snapshot() throws FileNotFoundException {
+        allOperations.snapshot(true);
+        // Do not duplicate the log of the whole workload when it only contains one operation type.
+        final boolean logOperationTypes = operationTypes.size() > 1;
+        for (final OperationTypeStats stats : operationTypes.values()) {
+            stats.snapshot(logOperationTypes);
+        }
+    }
+
+    /**
+     * Prints the whole-run response time distribution of each operation type.
+     *
+     * @param stream
+     *            The stream where the summary will be printed.
+     * @param percentiles
+     *            The percentiles to display.
+     */
+    synchronized void printSummary(final PrintStream stream, final double[] percentiles) {
+        final List<MultiColumnPrinter.Column> columns = new ArrayList<>();
+        columns.add(separatorColumn());
+        columns.add(column(OPERATION_TYPE, "Operation", STANDARD_WIDTH, 0));
+        columns.add(column(COUNT, "Count", STANDARD_WIDTH + 2, 0));
+        columns.add(column(ERRORS, "Errors", STANDARD_WIDTH, 0));
+        columns.add(separatorColumn());
+        columns.add(column(MEAN, "mean", STANDARD_WIDTH, 3));
+        for (final double percentile : percentiles) {
+            columns.add(column(PERCENTILE + percentile, percentile + "%", STANDARD_WIDTH, 2));
+        }
+        columns.add(column(MAX, "max", STANDARD_WIDTH, 2));
+        columns.add(separatorColumn());
+
+        final MultiColumnPrinter printer = MultiColumnPrinter.builder(stream, columns)
+                .format(true)
+                .titleAlignment(MultiColumnPrinter.Alignment.CENTER)
+                .build();
+        printer.printDashedLine();
+        printer.printTitleSection("Requests", 3);
+        printer.printTitleSection("Response Time (milliseconds)", 2 + percentiles.length);
+        printer.printTitleLine();
+        printer.printDashedLine();
+
+        final Map<String, OperationTypeStats> sortedTypes = new TreeMap<>(operationTypes);
+        if (sortedTypes.size() > 1) {
+            for (final OperationTypeStats stats : sortedTypes.values()) {
+                printSummaryRow(printer, stats, percentiles);
+            }
+        }
+        printSummaryRow(printer, allOperations, percentiles);
+    }
+
+    private void printSummaryRow(
+            final MultiColumnPrinter printer, final OperationTypeStats stats, final double[] percentiles) {
+        final Histogram histogram = stats.total;
+        final double nsInMs = MILLISECONDS.toNanos(1);
+        final boolean empty = histogram.getTotalCount() == 0;
+        printer.printData(stats.operationType);
+        printer.printData(Long.toString(histogram.getTotalCount()));
+        printer.printData(Long.toString(stats.errorCount.get()));
+        printer.printData(empty ? Double.NaN : histogram.getMean() / nsInMs);
+        for (final double percentile : percentiles) {
+            printer.printData(empty ? Double.NaN : histogram.getValueAtPercentile(percentile) / nsInMs);
+        }
+        printer.printData(empty ? Double.NaN : histogram.getMaxValue() / nsInMs);
+    }
+
+    @Override
+    public synchronized void close() {
+        allOperations.close();
+        for (final OperationTypeStats stats : operationTypes.values()) {
+            stats.close();
+        }
+    }
+
+    private OperationTypeStats getStats(final String operationType) {
+        OperationTypeStats stats = operationTypes.get(operationType);
+        if (stats == null) {
+            final OperationTypeStats newStats = new OperationTypeStats(operationType);
+            stats = operationTypes.putIfAbsent(operationType, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+}
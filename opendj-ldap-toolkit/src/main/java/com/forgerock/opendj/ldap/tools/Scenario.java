@@ -0,0 +1,337 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.*;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.SearchScope;
+
+import com.forgerock.opendj.cli.ArgumentException;
+
+/**
+ * A weighted mix of operations read from a scenario file, used by the {@link MixRate} tool.
+ * <p>
+ * A scenario file is a Java properties file where each property name is prefixed by the name of the operation type
+ * it applies to. An operation type is part of the mix when it has either a {@code weight} or a {@code rate}:
+ *
+ * <pre>
+ * search.weight=80
+ * search.baseDN=uid=user.%1$d,ou=People,dc=example,dc=com
+ * search.scope=base
+ * search.filter=(objectClass=*)
+ * bind.weight=10
+ * bind.dn=uid=user.%1$d,ou=People,dc=example,dc=com
+ * bind.password=password
+ * modify.weight=8
+ * modify.dn=uid=user.%1$d,ou=People,dc=example,dc=com
+ * modify.attribute=description
+ * modify.value=%2$s
+ * add.weight=1
+ * add.template=addrate.template
+ * delete.weight=1
+ * </pre>
+ *
+ * DNs, filters and values are format strings evaluated against the values generated by the tool's generator
+ * arguments, which is how skewed key distributions are obtained, e.g. with {@code -g "zipf(0,100000,1.1)"}.
+ */
+final class Scenario {
+    /** The operation types which can be part of a scenario. */
+    enum OperationType {
+        SEARCH("baseDN", "scope", "filter", "attributes"),
+        BIND("dn", "password"),
+        COMPARE("dn", "attribute", "value"),
+        MODIFY("dn", "attribute", "value"),
+        ADD("template"),
+        DELETE;
+
+        private final List<String> properties;
+
+        private OperationType(final String... properties) {
+            final List<String> allProperties = new ArrayList<>(Arrays.asList(properties));
+            allProperties.add(WEIGHT);
+            allProperties.add(RATE);
+            this.properties = Collections.unmodifiableList(allProperties);
+        }
+
+        /** Returns the name of this operation type, which is used as prefix of its properties. */
+        String getName() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    /** An operation type of the scenario along with its properties. */
+    static final class Operation {
+        private final OperationType type;
+        private final double weight;
+        private final Properties properties;
+
+        private Operation(final OperationType type, final double weight, final Properties properties) {
+            this.type = type;
+            this.weight = weight;
+            this.properties = properties;
+        }
+
+        OperationType getType() {
+            return type;
+        }
+
+        double getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the value of the provided property of this operation type.
+         *
+         * @param name
+         *            The property name, without the operation type prefix.
+         * @param defaultValue
+         *            The value to return if the property is not set.
+         * @return The value of the property, or the default value if it is not set.
+         */
+        String get(final String name, final String defaultValue) {
+            return properties.getProperty(type.getName() + "." + name, defaultValue);
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + "(" + weight + ")";
+        }
+    }
+
+    private static final String WEIGHT = "weight";
+    private static final String RATE = "rate";
+
+    private final List<Operation> operations;
+    /** Cumulative weights of the operations, normalized to 1. */
+    private final double[] cumulativeWeights;
+    private final int totalRate;
+
+    private Scenario(final List<Operation> operations, final int totalRate) {
+        this.operations = Collections.unmodifiableList(operations);
+        this.totalRate = totalRate;
+        this.cumulativeWeights = new double[operations.size()];
+        double totalWeight = 0;
+        for (final Operation operation : operations) {
+            totalWeight += operation.getWeight();
+        }
+        double cumulativeWeight = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            cumulativeWeight += operations.get(i).getWeight();
+            cumulativeWeights[i] = cumulativeWeight / totalWeight;
+        }
+    }
+
+    /**
+     * Reads a scenario from the provided file.
+     *
+     * @param path
+     *            The path of the scenario file.
+     * @return The scenario.
+     * @throws ArgumentException
+     *             If the file cannot be read or if the scenario is invalid.
+     */
+    static Scenario load(final String path) throws ArgumentException {
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        } catch (final IOException e) {
+            throw new ArgumentException(ERR_MIXRATE_CANNOT_READ_SCENARIO.get(path, e.getMessage()), e);
+        }
+        return parse(properties);
+    }
+
+    /**
+     * Parses and validates a scenario.
+     *
+     * @param properties
+     *            The scenario properties.
+     * @return The scenario.
+     * @throws ArgumentException
+     *             If the scenario is invalid.
+     */
+    static Scenario parse(final Properties properties) throws ArgumentException {
+        final Set<String> knownProperties = new HashSet<>();
+        for (final OperationType type : OperationType.values()) {
+            for (final String property : type.properties) {
+                knownProperties.add(type.getName() + "." + property);
+            }
+        }
+        for (final String name : properties.stringPropertyNames()) {
+            if (!knownProperties.contains(name)) {
+                throw new ArgumentException(ERR_MIXRATE_UNKNOWN_SCENARIO_PROPERTY.get(name));
+            }
+        }
+
+        final List<Operation> operations = new ArrayList<>();
+        boolean hasWeights = false;
+        int totalRate = 0;
+        for (final OperationType type : OperationType.values()) {
+            final String weightProperty = type.getName() + "." + WEIGHT;
+            final String rateProperty = type.getName() + "." + RATE;
+            final String weight = properties.getProperty(weightProperty);
+            final String rate = properties.getProperty(rateProperty);
+            if (weight == null && rate == null) {
+                continue;
+            }
+            if (weight != null && rate != null || (weight != null ? totalRate > 0 : hasWeights)) {
+                throw new ArgumentException(ERR_MIXRATE_MIXED_WEIGHTS_AND_RATES.get());
+            }
+            final double operationWeight;
+            if (weight != null) {
+                operationWeight = parsePositiveNumber(weightProperty, weight);
+                hasWeights = true;
+            } else {
+                operationWeight = parsePositiveNumber(rateProperty, rate);
+                if (operationWeight != Math.rint(operationWeight)) {
+                    throw new ArgumentException(ERR_MIXRATE_INVALID_SCENARIO_NUMBER.get(rate, rateProperty));
+                }
+                totalRate += (int) operationWeight;
+            }
+            operations.add(new Operation(type, operationWeight, properties));
+        }
+        if (operations.isEmpty()) {
+            throw new ArgumentException(ERR_MIXRATE_NO_SCENARIO_OPERATION.get());
+        }
+
+        final Scenario scenario = new Scenario(operations, totalRate);
+        scenario.checkRequiredProperties();
+        return scenario;
+    }
+
+    private static double parsePositiveNumber(final String property, final String value) throws ArgumentException {
+        try {
+            final double number = Double.parseDouble(value.trim());
+            if (number > 0 && !Double.isInfinite(number)) {
+                return number;
+            }
+        } catch (final NumberFormatException e) {
+            // Fall through
+        }
+        throw new ArgumentException(ERR_MIXRATE_INVALID_SCENARIO_NUMBER.get(value, property));
+    }
+
+    private void checkRequiredProperties() throws ArgumentException {
+        for (final Operation operation : operations) {
+            switch (operation.getType()) {
+            case SEARCH:
+                checkRequiredProperties(operation, "baseDN");
+                final String scope = operation.get("scope", null);
+                if (scope != null && SearchScope.valueOf(scope) == null) {
+                    throw new ArgumentException(ERR_MIXRATE_INVALID_SCENARIO_SEARCH_SCOPE.get(scope,
+                            SearchScope.values()));
+                }
+                break;
+            case BIND:
+                checkRequiredProperties(operation, "dn", "password");
+                break;
+            case COMPARE:
+            case MODIFY:
+                checkRequiredProperties(operation, "dn", "attribute", "value");
+                break;
+            case ADD:
+                checkRequiredProperties(operation, "template");
+                break;
+            case DELETE:
+                if (getOperation(OperationType.ADD) == null) {
+                    throw new ArgumentException(ERR_MIXRATE_DELETE_WITHOUT_ADD.get());
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected operation type " + operation.getType());
+            }
+        }
+    }
+
+    private static void checkRequiredProperties(final Operation operation, final String... names)
+            throws ArgumentException {
+        for (final String name : names) {
+            if (operation.get(name, null) == null) {
+                throw new ArgumentException(ERR_MIXRATE_MISSING_SCENARIO_PROPERTY.get(
+                        operation.getType().getName() + "." + name, operation.getType().getName()));
+            }
+        }
+    }
+
+    /**
+     * Returns the operations of this scenario.
+     *
+     * @return The operations of this scenario.
+     */
+    List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Returns the operation of the provided type.
+     *
+     * @param type
+     *            The operation type.
+     * @return The operation of the provided type, or {@code null} if it is not part of this scenario.
+     */
+    Operation getOperation(final OperationType type) {
+        for (final Operation operation : operations) {
+            if (operation.getType() == type) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the sum of the per-operation rates of this scenario.
+     *
+     * @return The sum of the per-operation rates of this scenario, or {@code 0} if the operations are defined by
+     *         weights.
+     */
+    int getTotalRate() {
+        return totalRate;
+    }
+
+    /**
+     * Selects an operation according to the weights of the scenario.
+     *
+     * @param random
+     *            A random number uniformly distributed between {@code 0} (inclusive) and {@code 1} (exclusive).
+     * @return The selected operation.
+     */
+    Operation select(final double random) {
+        int index = Arrays.binarySearch(cumulativeWeights, random);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // Exact match on an upper bound, which is exclusive.
+            index++;
+        }
+        return operations.get(Math.min(index, operations.size() - 1));
+    }
+}
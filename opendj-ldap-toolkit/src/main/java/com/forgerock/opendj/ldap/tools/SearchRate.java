@@ -61,7 +61,7 @@ public final class SearchRate extends ConsoleApplication {
     private final class SearchPerformanceRunner extends PerformanceRunner {
         private final class SearchStatsHandler extends UpdateStatsResultHandler<Result> implements SearchResultHandler {
             private SearchStatsHandler(final long startTime) {
-                super(startTime);
+                super("search", startTime);
             }
 
             @Override
@@ -17,9 +17,11 @@ package com.forgerock.opendj.ldap.tools;
 
 import static com.forgerock.opendj.cli.MultiColumnPrinter.column;
 import static com.forgerock.opendj.cli.MultiColumnPrinter.separatorColumn;
+import static com.forgerock.opendj.ldap.tools.ToolsMessages.ERR_RATE_TOOLS_CANNOT_WRITE_HISTOGRAM_LOG;
 import static com.forgerock.opendj.ldap.tools.ToolsMessages.INFO_TOOL_WARMING_UP;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import java.io.FileNotFoundException;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
@@ -229,6 +231,7 @@ class StatsThread extends Thread {
 
     final MetricRegistry registry = new MetricRegistry();
     private final Histogram responseTimes = new Histogram(new HdrHistogramReservoir());
+    private final ResponseTimeRecorder responseTimeRecorder;
 
     private final StatsTimer gcTimerMs = new StatsTimer() {
         private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
@@ -267,6 +270,7 @@ class StatsThread extends Thread {
 
     StatsThread(final PerformanceRunner performanceRunner, final ConsoleApplication application) {
         super("Stats Thread");
+        this.responseTimeRecorder = new ResponseTimeRecorder(performanceRunner.getHistogramLogFile());
         resetStats();
         this.performanceRunner = performanceRunner;
         this.app = application;
@@ -283,6 +287,7 @@ class StatsThread extends Thread {
         successCount = newIntervalCounter();
         waitDurationNsCount = newIntervalCounter();
         durationMsCount = newIntervalCounter();
+        responseTimeRecorder.reset();
         resetAdditionalStats();
     }
 
@@ -373,7 +378,11 @@ class StatsThread extends Thread {
                 // Do nothing.
             }
             run();
+            if (!app.isScriptFriendly()) {
+                responseTimeRecorder.printSummary(app.getOutputStream(), percentiles);
+            }
         }
+        responseTimeRecorder.close();
     }
 
     /** Performs stat snapshots and reports results to application. */
@@ -385,14 +394,32 @@ class StatsThread extends Thread {
         successCount.refreshIntervalCount();
         errorCount.refreshIntervalCount();
         waitDurationNsCount.refreshIntervalCount();
+        try {
+            responseTimeRecorder.snapshot();
+        } catch (final FileNotFoundException e) {
+            app.errPrintln(ERR_RATE_TOOLS_CANNOT_WRITE_HISTOGRAM_LOG.get(e.getMessage()));
+            performanceRunner.stopTool(true);
+        }
 
         reporter.report();
     }
 
-    void addResponseTime(final long responseTimeNs) {
+    /**
+     * Records the response time of an operation.
+     *
+     * @param operationType
+     *            The type of the operation, used for the per operation type breakdown.
+     * @param responseTimeNs
+     *            The response time in nanoseconds, measured from the time at which the operation was intended to be
+     *            sent.
+     * @param failed
+     *            {@code true} if the operation failed.
+     */
+    void addResponseTime(final String operationType, final long responseTimeNs, final boolean failed) {
         if (!warmingUp) {
             waitDurationNsCount.inc(responseTimeNs);
             responseTimes.update(responseTimeNs);
+            responseTimeRecorder.record(operationType, responseTimeNs, failed);
         }
     }
 
@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ResponseTimeRecorderTestCase extends ToolsTestCase {
+    private static final double[] PERCENTILES = new double[] { 50.0, 99.0 };
+
+    @Test
+    public void testIntervalHistogramsAreLogged() throws Exception {
+        final File logFile = File.createTempFile("responseTimes", ".hlog");
+        logFile.deleteOnExit();
+        try (ResponseTimeRecorder recorder = new ResponseTimeRecorder(logFile)) {
+            for (int i = 1; i <= 100; i++) {
+                recorder.record("search", MILLISECONDS.toNanos(i), false);
+            }
+            recorder.snapshot();
+            recorder.record("search", MILLISECONDS.toNanos(1000), true);
+            recorder.snapshot();
+        }
+
+        final HistogramLogReader reader = new HistogramLogReader(logFile);
+        final Histogram first = (Histogram) reader.nextIntervalHistogram();
+        final Histogram second = (Histogram) reader.nextIntervalHistogram();
+        assertThat(reader.nextIntervalHistogram()).isNull();
+        assertThat(first.getTotalCount()).isEqualTo(100);
+        assertThat(second.getTotalCount()).isEqualTo(1);
+        assertThat(second.getMaxValue()).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(999));
+        // Single operation type: no per operation type log
+        assertThat(new File(logFile.getPath() + ".search").exists()).isFalse();
+    }
+
+    @Test
+    public void testPerOperationTypeBreakdown() throws Exception {
+        final File logFile = File.createTempFile("responseTimes", ".hlog");
+        logFile.deleteOnExit();
+        final File addLogFile = new File(logFile.getPath() + ".add");
+        final File deleteLogFile = new File(logFile.getPath() + ".delete");
+        addLogFile.deleteOnExit();
+        deleteLogFile.deleteOnExit();
+
+        final ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        try (ResponseTimeRecorder recorder = new ResponseTimeRecorder(logFile)) {
+            recorder.record("add", MILLISECONDS.toNanos(1), false);
+            recorder.record("add", MILLISECONDS.toNanos(2), false);
+            recorder.record("delete", MILLISECONDS.toNanos(3), true);
+            recorder.snapshot();
+            recorder.printSummary(new PrintStream(summary, true), PERCENTILES);
+        }
+
+        assertThat(addLogFile.exists()).isTrue();
+        assertThat(deleteLogFile.exists()).isTrue();
+        final Histogram adds = (Histogram) new HistogramLogReader(addLogFile).nextIntervalHistogram();
+        assertThat(adds.getTotalCount()).isEqualTo(2);
+        final String output = summary.toString();
+        assertThat(output).contains("add").contains("delete").contains("all");
+    }
+
+    @Test
+    public void testResetDiscardsRecordedResponseTimes() throws Exception {
+        final ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        try (ResponseTimeRecorder recorder = new ResponseTimeRecorder(null)) {
+            recorder.record("bind", MILLISECONDS.toNanos(1), true);
+            recorder.snapshot();
+            recorder.reset();
+            recorder.snapshot();
+            recorder.printSummary(new PrintStream(summary, true), PERCENTILES);
+        }
+        // Only the "all" row is printed, with zero operations and zero errors
+        assertThat(summary.toString()).doesNotContain("bind").contains(" 0 ");
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package com.forgerock.opendj.ldap.tools;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.ldap.tools.Scenario.OperationType;
+
+@SuppressWarnings("javadoc")
+public class ScenarioTestCase extends ToolsTestCase {
+
+    @Test
+    public void testSelectFollowsWeights() throws Exception {
+        final Scenario scenario = Scenario.parse(properties(
+                "search.weight", "80",
+                "search.baseDN", "uid=user.%d,ou=people,dc=example,dc=com",
+                "bind.weight", "10",
+                "bind.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "bind.password", "password",
+                "modify.weight", "10",
+                "modify.dn", "uid=user.%d,ou=people,dc=example,dc=com",
+                "modify.attribute", "description",
+                "modify.value", "%2$s"));
+        assertThat(scenario.getOperations()).hasSize(3);
+        assertThat(scenario.getTotalRate()).isEqualTo(0);
+
+        final Map<OperationType, Integer> counts = new EnumMap<>(OperationType.class);
+        final Random random = new Random(0);
+        final int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            final OperationType type = scenario.select(random.nextDouble()).getType();
+            counts.put(type, counts.containsKey(type) ? counts.get(type) + 1 : 1);
+        }
+        assertThat(counts.keySet()).containsOnly(OperationType.SEARCH, OperationType.BIND, OperationType.MODIFY);
+        assertThat(counts.get(OperationType.SEARCH) / (double) samples).isGreaterThan(0.78).isLessThan(0.82);
+        assertThat(counts.get(OperationType.BIND) / (double) samples).isGreaterThan(0.09).isLessThan(0.11);
+        assertThat(counts.get(OperationType.MODIFY) / (double) samples).isGreaterThan(0.09).isLessThan(0.11);
+    }
+
+    @Test
+    public void testSelectBounds() throws Exception {
+        final Scenario scenario = Scenario.parse(properties(
+                "search.weight", "1", "search.baseDN", "dc=example,dc=com",
+                "bind.weight", "1", "bind.dn", "cn=test", "bind.password", "password"));
+        assertThat(scenario.select(0.0).getType()).isEqualTo(OperationType.SEARCH);
+        assertThat(scenario.select(0.5).getType()).isEqualTo(OperationType.BIND);
+        assertThat(scenario.select(Math.nextAfter(1.0, 0)).getType()).isEqualTo(OperationType.BIND);
+    }
+
+    @Test
+    public void testRatesDefineTotalRate() throws Exception {
+        final Scenario scenario = Scenario.parse(properties(
+                "search.rate", "900", "search.baseDN", "dc=example,dc=com",
+                "add.rate", "50", "add.template", "addrate.template",
+                "delete.rate", "50"));
+        assertThat(scenario.getTotalRate()).isEqualTo(1000);
+        assertThat(scenario.getOperation(OperationType.SEARCH).getWeight()).isEqualTo(900);
+        assertThat(scenario.getOperation(OperationType.BIND)).isNull();
+    }
+
+    @DataProvider
+    public Object[][] invalidScenarios() {
+        return new Object[][] {
+            // No operation
+            { properties("search.baseDN", "dc=example,dc=com") },
+            // Typo
+            { properties("search.weight", "1", "search.baseDn", "dc=example,dc=com") },
+            // Missing required property
+            { properties("bind.weight", "1", "bind.dn", "cn=test") },
+            // Invalid weight
+            { properties("search.weight", "-1", "search.baseDN", "dc=example,dc=com") },
+            { properties("search.weight", "often", "search.baseDN", "dc=example,dc=com") },
+            // Non integer rate
+            { properties("search.rate", "1.5", "search.baseDN", "dc=example,dc=com") },
+            // Weights and rates mixed
+            { properties("search.weight", "1", "search.baseDN", "dc=example,dc=com",
+                         "bind.rate", "1", "bind.dn", "cn=test", "bind.password", "password") },
+            // Invalid search scope
+            { properties("search.weight", "1", "search.baseDN", "dc=example,dc=com", "search.scope", "deep") },
+            // Delete without add
+            { properties("delete.weight", "1") },
+        };
+    }
+
+    @Test(dataProvider = "invalidScenarios", expectedExceptions = ArgumentException.class)
+    public void testInvalidScenario(final Properties properties) throws Exception {
+        Scenario.parse(properties);
+    }
+
+    @Test
+    public void testZipfGeneratorIsSkewed() throws Exception {
+        final DataSource source = DataSource.parse(Arrays.asList("zipf(0,1000,1.0)"))[0];
+        final int[] counts = new int[1000];
+        final int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            final int value = (Integer) source.getData();
+            assertThat(value).isGreaterThanOrEqualTo(0).isLessThan(1000);
+            counts[value]++;
+        }
+        // With an exponent of 1, the most popular value is expected to be about twice as frequent as the second
+        // one, and the top 10 values are expected to account for about 39% of the samples.
+        assertThat(counts[0]).isGreaterThan(counts[1]);
+        assertThat(counts[0] / (double) counts[1]).isGreaterThan(1.8).isLessThan(2.2);
+        int top10 = 0;
+        for (int i = 0; i < 10; i++) {
+            top10 += counts[i];
+        }
+        assertThat(top10 / (double) samples).isGreaterThan(0.36).isLessThan(0.42);
+    }
+
+    private static Properties properties(final String... keyValues) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return properties;
+    }
+}
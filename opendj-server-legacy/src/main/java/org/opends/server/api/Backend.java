@@ -43,9 +43,11 @@ import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.PersistentSearch;
 import org.opends.server.core.PersistentSearch.CancellationCallback;
+import org.opends.server.core.PersistentSearchIndex;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.monitors.BackendMonitor;
+import org.opends.server.monitors.OperationLatencies;
 import org.opends.server.types.BackupConfig;
 import org.opends.server.types.BackupDirectory;
 import org.opends.server.types.CanceledOperationException;
@@ -101,6 +103,10 @@ public abstract class Backend<C extends Configuration>
 
   /** The set of persistent searches registered with this backend. */
   private final ConcurrentLinkedQueue<PersistentSearch> persistentSearches = new ConcurrentLinkedQueue<>();
+  /** Finds the persistent searches interested in a change without evaluating all of them. */
+  private final PersistentSearchIndex persistentSearchIndex = new PersistentSearchIndex();
+  /** The latencies of the operations processed by this backend. */
+  private final OperationLatencies operationLatencies = new OperationLatencies();
 
   /**
    * Configure this backend based on the information in the provided configuration.
@@ -175,6 +181,7 @@ public abstract class Backend<C extends Configuration>
       psearch.cancel();
     }
     persistentSearches.clear();
+    persistentSearchIndex.clear();
     closeBackend();
   }
 
@@ -803,6 +810,7 @@ public abstract class Backend<C extends Configuration>
   public void registerPersistentSearch(PersistentSearch persistentSearch) throws DirectoryException
   {
     persistentSearches.add(persistentSearch);
+    persistentSearchIndex.add(persistentSearch);
 
     persistentSearch.registerCancellationCallback(new CancellationCallback()
     {
@@ -810,6 +818,7 @@ public abstract class Backend<C extends Configuration>
       public void persistentSearchCancelled(PersistentSearch psearch)
       {
         persistentSearches.remove(psearch);
+        persistentSearchIndex.remove(psearch);
       }
     });
   }
@@ -826,6 +835,52 @@ public abstract class Backend<C extends Configuration>
     return persistentSearches;
   }
 
+  /**
+   * Returns the persistent searches currently active against this local
+   * backend which may be interested in a change to the provided entry. The
+   * returned persistent searches must still check whether the change matches
+   * their scope, filter and change types.
+   *
+   * @param dn
+   *          the DN of the changed entry
+   * @param entries
+   *          the contents of the changed entry which must be evaluated against
+   *          the persistent searches filters, for example before and after a
+   *          modification
+   * @return the persistent searches which may be interested in the change
+   */
+  public Set<PersistentSearch> getPersistentSearches(DN dn, Entry... entries)
+  {
+    final Set<PersistentSearch> candidates = new LinkedHashSet<>();
+    for (Entry entry : entries)
+    {
+      persistentSearchIndex.addCandidates(dn, entry, candidates);
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the index of the persistent searches currently active against this
+   * local backend.
+   *
+   * @return the index of the persistent searches currently active against this
+   *         local backend
+   */
+  public PersistentSearchIndex getPersistentSearchIndex()
+  {
+    return persistentSearchIndex;
+  }
+
+  /**
+   * Returns the latencies of the operations processed by this backend.
+   *
+   * @return the latencies of the operations processed by this backend
+   */
+  public OperationLatencies getOperationLatencies()
+  {
+    return operationLatencies;
+  }
+
   /**
    * Sets the backend monitor for this backend.
    *
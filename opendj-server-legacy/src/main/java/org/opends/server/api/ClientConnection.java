@@ -36,6 +36,7 @@ import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.core.AuthenticatedUsers;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.PersistentSearch;
+import org.opends.server.core.PersistentSearchQueue;
 import org.opends.server.core.PluginConfigManager;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.types.Attribute;
@@ -127,6 +128,8 @@ public abstract class ClientConnection
 
   /** A set of persistent searches registered for this client. */
   private final CopyOnWriteArrayList<PersistentSearch> persistentSearches = new CopyOnWriteArrayList<>();
+  /** The change notifications of the persistent searches waiting to be sent to this client. */
+  private final PersistentSearchQueue persistentSearchQueue = new PersistentSearchQueue();
 
   /** Performs the appropriate initialization generic to all client connections. */
   protected ClientConnection()
@@ -656,6 +659,20 @@ public abstract class ClientConnection
 
 
 
+  /**
+   * Retrieves the queue of the change notifications of the persistent searches
+   * waiting to be sent to this client.
+   *
+   * @return  The queue of the change notifications waiting to be sent to this
+   *          client.
+   */
+  public final PersistentSearchQueue getPersistentSearchQueue()
+  {
+    return persistentSearchQueue;
+  }
+
+
+
   /**
    * Registers the provided persistent search for this client.
    * Note that this should only be called by
@@ -0,0 +1,133 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.forgerock.opendj.ldap.DN;
+
+/**
+ * Maintains the number of children and subordinates of the entries of a backend as entries are added and removed,
+ * so that backends which do not index their entries can answer {@code numSubordinates} and {@code hasSubordinates}
+ * in constant time, rather than by walking their subtree.
+ * <p>
+ * Each added entry is counted by all of its ancestors, including those above the base DNs of the backend, so that
+ * entries can be added and removed in any order, for example when moving a whole subtree. Only the entries having
+ * subordinates are tracked: the counts of an entry which is not tracked, existing or not, are zero. Checking that an
+ * entry exists remains the responsibility of the backend.
+ * <p>
+ * Note that this class is not synchronized.
+ */
+public final class SubordinateCounts
+{
+  /** The counts of an entry having subordinates. */
+  private static final class Counts
+  {
+    private long children;
+    private long subordinates;
+  }
+
+  private final Map<DN, Counts> dn2Counts = new HashMap<>();
+
+  /**
+   * Counts an entry added to the backend.
+   *
+   * @param entryDN
+   *          the DN of the added entry
+   */
+  public void add(DN entryDN)
+  {
+    boolean isParent = true;
+    for (DN dn = entryDN.parent(); dn != null && !dn.isRootDN(); dn = dn.parent())
+    {
+      Counts counts = dn2Counts.get(dn);
+      if (counts == null)
+      {
+        counts = new Counts();
+        dn2Counts.put(dn, counts);
+      }
+      if (isParent)
+      {
+        counts.children++;
+        isParent = false;
+      }
+      counts.subordinates++;
+    }
+  }
+
+  /**
+   * Stops counting an entry removed from the backend. The subordinates of the entry, if any, must be removed too.
+   *
+   * @param entryDN
+   *          the DN of the removed entry
+   */
+  public void remove(DN entryDN)
+  {
+    boolean isParent = true;
+    for (DN dn = entryDN.parent(); dn != null && !dn.isRootDN(); dn = dn.parent())
+    {
+      final Counts counts = dn2Counts.get(dn);
+      if (counts == null)
+      {
+        // The entry was not counted.
+        return;
+      }
+      if (isParent)
+      {
+        counts.children--;
+        isParent = false;
+      }
+      if (--counts.subordinates == 0)
+      {
+        dn2Counts.remove(dn);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of children of an entry.
+   *
+   * @param entryDN
+   *          the DN of the entry
+   * @return the number of immediate children of the entry, which is zero if it has no children or does not exist
+   */
+  public long getNumberOfChildren(DN entryDN)
+  {
+    final Counts counts = dn2Counts.get(entryDN);
+    return counts != null ? counts.children : 0;
+  }
+
+  /**
+   * Returns the number of subordinates of an entry.
+   *
+   * @param entryDN
+   *          the DN of the entry
+   * @return the number of entries in the subtree of the entry, excluding the entry itself, which is zero if it has no
+   *         subordinates or does not exist
+   */
+  public long getNumberOfSubordinates(DN entryDN)
+  {
+    final Counts counts = dn2Counts.get(entryDN);
+    return counts != null ? counts.subordinates : 0;
+  }
+
+  /** Removes all the counts, for example because all the entries of the backend have been removed. */
+  public void clear()
+  {
+    dn2Counts.clear();
+  }
+}
@@ -524,6 +524,15 @@ abstract class AciContainer implements AciTargetMatchContext, AciEvalContext {
         return resourceEntry.getName();
     }
 
+    /**
+     * Returns the operation being evaluated.
+     *
+     * @return The operation being evaluated.
+     */
+    Operation getOperation() {
+        return operation;
+    }
+
    /**
     * {@inheritDoc}
     * <p>
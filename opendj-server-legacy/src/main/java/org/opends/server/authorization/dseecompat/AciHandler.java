@@ -53,6 +53,7 @@ import org.opends.server.types.Entry;
 import org.opends.server.types.InitializationException;
 import org.opends.server.types.Modification;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.Privilege;
 import org.opends.server.types.SearchFilter;
 import org.opends.server.types.SearchResultEntry;
@@ -490,6 +491,19 @@ public final class AciHandler extends
    * @return True if access is allowed.
    */
   boolean accessAllowed(AciContainer container)
+  {
+    final long startTime = System.nanoTime();
+    try
+    {
+      return evaluateAccess(container);
+    }
+    finally
+    {
+      container.getOperation().addPhaseNanoTime(OperationPhase.ACCESS_CONTROL, System.nanoTime() - startTime);
+    }
+  }
+
+  private boolean evaluateAccess(AciContainer container)
   {
     DN dn = container.getResourceDN();
     // For ACI_WRITE_ADD and ACI_WRITE_DELETE set the ACI_WRITE
@@ -27,6 +27,7 @@ import static org.opends.server.util.ServerConstants.*;
 import static org.opends.server.util.StaticUtils.*;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -36,8 +37,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -53,7 +56,10 @@ import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.config.Configuration;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
 import org.opends.server.api.Backend;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
 import org.opends.server.config.ConfigConstants;
 import org.opends.server.controls.EntryChangelogNotificationControl;
 import org.opends.server.controls.ExternalChangelogRequestControl;
@@ -63,6 +69,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.PersistentSearch;
+import org.opends.server.core.PersistentSearch.CancellationCallback;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.replication.common.CSN;
@@ -170,6 +177,8 @@ public class ChangelogBackend extends Backend<Configuration>
 
   private static final String CHANGE_NUMBER_ATTR = "changeNumber";
   private static final String ENTRY_SENDER_ATTACHMENT = OID_ECL_COOKIE_EXCHANGE_CONTROL + ".entrySender";
+  /** The maximum estimated size in bytes of the recently built cookie mode entries kept in memory for the searches. */
+  private static final long ENTRY_CACHE_SIZE_IN_BYTES = 32L * 1024 * 1024;
 
   /** The set of objectclasses that will be used in root entry. */
   private static final Map<ObjectClass, String>
@@ -213,6 +222,14 @@ public class ChangelogBackend extends Backend<Configuration>
   /** The set of change number-based persistent searches registered with this backend. */
   private final ConcurrentLinkedQueue<PersistentSearch> changeNumberBasedPersistentSearches =
       new ConcurrentLinkedQueue<>();
+  /** The entry senders of the searches which are running, including the persistent searches. */
+  private final Set<EntrySender> activeEntrySenders =
+      Collections.newSetFromMap(new ConcurrentHashMap<EntrySender, Boolean>());
+  /** The recently built cookie mode entries, shared by the searches. */
+  private final ChangelogEntryCache entryCache = new ChangelogEntryCache(ENTRY_CACHE_SIZE_IN_BYTES);
+  /** The time of the newest change published to the changelog, 0 if unknown. */
+  private final AtomicLong newestChangeTime = new AtomicLong();
+  private final SearchMonitorProvider searchMonitor = new SearchMonitorProvider();
 
   /**
    * Creates a new backend with the provided replication server.
@@ -268,11 +285,15 @@ public class ChangelogBackend extends Backend<Configuration>
       throw new InitializationException(
           ERR_BACKEND_CANNOT_REGISTER_BASEDN.get(DN_EXTERNAL_CHANGELOG_ROOT, getExceptionMessage(e)), e);
     }
+    DirectoryServer.deregisterMonitorProvider(searchMonitor);
+    DirectoryServer.registerMonitorProvider(searchMonitor);
   }
 
   @Override
   public void closeBackend()
   {
+    DirectoryServer.deregisterMonitorProvider(searchMonitor);
+    entryCache.clear();
     try
     {
       DirectoryServer.deregisterBaseDN(CHANGELOG_BASE_DN);
@@ -378,14 +399,21 @@ public class ChangelogBackend extends Backend<Configuration>
     {
       return;
     }
+    updateNewestChangeTime(updateMsg.getCSN());
+    if (cookieBasedPersistentSearches.isEmpty())
+    {
+      return;
+    }
 
     try
     {
+      // the entry is built once and shared by all the persistent searches, each one only setting its own cookie
+      final Entry entry = getCookieEntry(baseDN, updateMsg);
       for (PersistentSearch pSearch : cookieBasedPersistentSearches)
       {
         final SearchOperation searchOp = pSearch.getSearchOperation();
         final CookieEntrySender entrySender = searchOp.getAttachment(ENTRY_SENDER_ATTACHMENT);
-        entrySender.persistentSearchSendEntry(baseDN, updateMsg);
+        entrySender.persistentSearchSendEntry(baseDN, updateMsg, entry);
       }
     }
     catch (DirectoryException e)
@@ -433,7 +461,7 @@ public class ChangelogBackend extends Backend<Configuration>
       {
         final SearchOperation searchOp = pSearch.getSearchOperation();
         final ChangeNumberEntrySender entrySender = searchOp.getAttachment(ENTRY_SENDER_ATTACHMENT);
-        entrySender.persistentSearchSendEntry(changeNumber, changeNumberEntry);
+        entrySender.persistentSearchSendEntry(changeNumber, updateMsg.getCSN(), changeNumberEntry);
       }
     }
     catch (DirectoryException e)
@@ -509,18 +537,25 @@ public class ChangelogBackend extends Backend<Configuration>
     final MultiDomainServerState cookie = getCookieFromControl(searchOperation, excludedBaseDNs);
 
     final ChangeNumberRange range = optimizeSearch(searchOperation.getBaseDN(), searchOperation.getFilter());
+    final boolean isPersistentSearch = isPersistentSearch(searchOperation);
+    EntrySender entrySender = null;
     try
     {
-      final boolean isPersistentSearch = isPersistentSearch(searchOperation);
       if (cookie != null)
       {
-        initialSearchFromCookie(
-            getCookieEntrySender(SearchPhase.INITIAL, searchOperation, cookie, excludedBaseDNs, isPersistentSearch));
+        final CookieEntrySender cookieEntrySender =
+            getCookieEntrySender(SearchPhase.INITIAL, searchOperation, cookie, excludedBaseDNs, isPersistentSearch);
+        entrySender = cookieEntrySender;
+        activeEntrySenders.add(entrySender);
+        initialSearchFromCookie(cookieEntrySender);
       }
       else
       {
-        initialSearchFromChangeNumber(
-            getChangeNumberEntrySender(SearchPhase.INITIAL, searchOperation, range, isPersistentSearch));
+        final ChangeNumberEntrySender changeNumberEntrySender =
+            getChangeNumberEntrySender(SearchPhase.INITIAL, searchOperation, range, isPersistentSearch);
+        entrySender = changeNumberEntrySender;
+        activeEntrySenders.add(entrySender);
+        initialSearchFromChangeNumber(changeNumberEntrySender);
       }
     }
     catch (ChangelogException e)
@@ -528,6 +563,14 @@ public class ChangelogBackend extends Backend<Configuration>
       throw new DirectoryException(ResultCode.UNWILLING_TO_PERFORM, ERR_CHANGELOG_BACKEND_SEARCH.get(
           searchOperation.getBaseDN(), searchOperation.getFilter(), stackTraceToSingleLineString(e)));
     }
+    finally
+    {
+      if (!isPersistentSearch && entrySender != null)
+      {
+        // persistent searches are only removed when cancelled
+        activeEntrySenders.remove(entrySender);
+      }
+    }
   }
 
   private MultiDomainServerState getCookieFromControl(final SearchOperation searchOperation, Set<DN> excludedBaseDNs)
@@ -839,7 +882,8 @@ public class ChangelogBackend extends Backend<Configuration>
     {
       final UpdateMsg updateMsg = replicaUpdatesCursor.getRecord();
       final DN domainBaseDN = replicaUpdatesCursor.getData();
-      continueSearch = entrySender.initialSearchSendEntry(updateMsg, domainBaseDN);
+      continueSearch = entrySender.initialSearchSendEntry(updateMsg, domainBaseDN,
+          getCookieEntry(domainBaseDN, updateMsg));
     }
     return continueSearch;
   }
@@ -869,7 +913,20 @@ public class ChangelogBackend extends Backend<Configuration>
     {
       changeNumberBasedPersistentSearches.add(pSearch);
     }
+    final EntrySender entrySender = pSearch.getSearchOperation().getAttachment(ENTRY_SENDER_ATTACHMENT);
+    activeEntrySenders.add(entrySender);
     super.registerPersistentSearch(pSearch);
+
+    pSearch.registerCancellationCallback(new CancellationCallback()
+    {
+      @Override
+      public void persistentSearchCancelled(PersistentSearch psearch)
+      {
+        cookieBasedPersistentSearches.remove(psearch);
+        changeNumberBasedPersistentSearches.remove(psearch);
+        activeEntrySenders.remove(entrySender);
+      }
+    });
   }
 
   private void initializePersistentSearch(PersistentSearch pSearch) throws DirectoryException
@@ -1133,8 +1190,58 @@ public class ChangelogBackend extends Backend<Configuration>
     return cnIndexDB.getCursorFrom(changeNumberToUse);
   }
 
+  /**
+   * Returns the cookie mode entry of a change, which is shared by the searches and must not be modified. Its changelog
+   * cookie is empty: use {@link #withChangelogCookie(Entry, String)} to obtain the entry to send.
+   */
+  private Entry getCookieEntry(DN baseDN, UpdateMsg updateMsg) throws DirectoryException
+  {
+    final CSN csn = updateMsg.getCSN();
+    Entry entry = entryCache.get(baseDN, csn);
+    if (entry == null)
+    {
+      entry = createEntryFromMsg(baseDN, 0, null, updateMsg);
+      entryCache.put(baseDN, csn, entry, ChangelogEntryCache.estimateSize(entry));
+    }
+    return entry;
+  }
+
+  /**
+   * Returns a copy of the provided shared entry, with its changelog cookie set to the provided cookie. Unlike
+   * {@link Entry#duplicate(boolean)}, the copy keeps the attribute order of {@link #createEntryFromMsg}. The attributes
+   * are immutable: only their lists are copied, so that replacing the cookie does not modify the shared entry.
+   */
+  static Entry withChangelogCookie(Entry sharedEntry, String cookie)
+  {
+    final Entry entry = new Entry(sharedEntry.getName(), new LinkedHashMap<>(sharedEntry.getObjectClasses()),
+        copyOfAttributes(sharedEntry.getUserAttributes()), copyOfAttributes(sharedEntry.getOperationalAttributes()));
+    entry.replaceAttribute(Attributes.create(DirectoryServer.getAttributeType("changeLogCookie"), cookie));
+    return entry;
+  }
+
+  private static Map<AttributeType, List<Attribute>> copyOfAttributes(Map<AttributeType, List<Attribute>> attributes)
+  {
+    final Map<AttributeType, List<Attribute>> copy = new LinkedHashMap<>(attributes.size());
+    for (Map.Entry<AttributeType, List<Attribute>> mapEntry : attributes.entrySet())
+    {
+      copy.put(mapEntry.getKey(), new ArrayList<>(mapEntry.getValue()));
+    }
+    return copy;
+  }
+
+  private void updateNewestChangeTime(CSN csn)
+  {
+    final long changeTime = csn.getTime();
+    long newest;
+    do
+    {
+      newest = newestChangeTime.get();
+    }
+    while (changeTime > newest && !newestChangeTime.compareAndSet(newest, changeTime));
+  }
+
   /** Creates a changelog entry. */
-  private static Entry createEntryFromMsg(final DN baseDN, final long changeNumber, final String cookie,
+  static Entry createEntryFromMsg(final DN baseDN, final long changeNumber, final String cookie,
       final UpdateMsg msg) throws DirectoryException
   {
     if (msg instanceof AddMsg)
@@ -1586,17 +1693,59 @@ public class ChangelogBackend extends Backend<Configuration>
     }
   }
 
+  /** Sends entries to clients, and tracks the progress of their searches for the monitor. */
+  private abstract static class EntrySender
+  {
+    protected final SearchOperation searchOp;
+    private final AtomicLong processedChangeCount = new AtomicLong();
+    /** The time of the newest change processed by the search, 0 if none has been. */
+    private final AtomicLong lastChangeTime = new AtomicLong();
+
+    private EntrySender(SearchOperation searchOp)
+    {
+      this.searchOp = searchOp;
+    }
+
+    /** Records that the search has processed the change with the provided CSN, whether it matched or not. */
+    protected void changeProcessed(CSN csn)
+    {
+      processedChangeCount.incrementAndGet();
+      final long changeTime = csn.getTime();
+      long last;
+      do
+      {
+        last = lastChangeTime.get();
+      }
+      while (changeTime > last && !lastChangeTime.compareAndSet(last, changeTime));
+    }
+
+    private long getProcessedChangeCount()
+    {
+      return processedChangeCount.get();
+    }
+
+    private long getLastChangeTime()
+    {
+      return lastChangeTime.get();
+    }
+
+    /** Returns the identifier of the client search, as logged in the access log. */
+    private String getSearchId()
+    {
+      return "conn=" + searchOp.getConnectionID() + " op=" + searchOp.getOperationID();
+    }
+  }
+
   /** Sends entries to clients for change number searches. */
-  private static class ChangeNumberEntrySender
+  private static class ChangeNumberEntrySender extends EntrySender
   {
-    private final SearchOperation searchOp;
     private final long lowestChangeNumber;
     private final long highestChangeNumber;
     private final SendEntryData<Long> sendEntryData;
 
     private ChangeNumberEntrySender(SearchOperation searchOp, SearchPhase startPhase, ChangeNumberRange range)
     {
-      this.searchOp = searchOp;
+      super(searchOp);
       this.sendEntryData = new SendEntryData<>(startPhase);
       this.lowestChangeNumber = range.lowerBound;
       this.highestChangeNumber = range.upperBound;
@@ -1634,22 +1783,24 @@ public class ChangelogBackend extends Backend<Configuration>
     {
       final DN baseDN = cnIndexRecord.getBaseDN();
       sendEntryData.initialSearchSendsEntry(cnIndexRecord.getChangeNumber());
+      changeProcessed(updateMsg.getCSN());
       final Entry entry = createEntryFromMsg(baseDN, cnIndexRecord.getChangeNumber(), cookie.toString(), updateMsg);
       return sendEntryIfMatches(searchOp, entry, null);
     }
 
-    private void persistentSearchSendEntry(long changeNumber, Entry entry) throws DirectoryException
+    private void persistentSearchSendEntry(long changeNumber, CSN csn, Entry entry) throws DirectoryException
     {
       if (sendEntryData.persistentSearchCanSendEntry(changeNumber))
       {
+        changeProcessed(csn);
         sendEntryIfMatches(searchOp, entry, null);
       }
     }
   }
 
   /** Sends entries to clients for cookie-based searches. */
-  private static class CookieEntrySender {
-    private final SearchOperation searchOp;
+  private static class CookieEntrySender extends EntrySender
+  {
     private final SearchPhase startPhase;
     private final Set<DN> excludedBaseDNs;
     private final MultiDomainServerState cookie;
@@ -1659,7 +1810,7 @@ public class ChangelogBackend extends Backend<Configuration>
     private CookieEntrySender(SearchOperation searchOp, SearchPhase startPhase, MultiDomainServerState cookie,
         Set<DN> excludedBaseDNs)
     {
-      this.searchOp = searchOp;
+      super(searchOp);
       this.startPhase = startPhase;
       this.cookie = cookie;
       this.excludedBaseDNs = excludedBaseDNs;
@@ -1694,29 +1845,33 @@ public class ChangelogBackend extends Backend<Configuration>
       return data;
     }
 
-    private boolean initialSearchSendEntry(final UpdateMsg updateMsg, final DN baseDN) throws DirectoryException
+    /**
+     * @param sharedEntry
+     *          the cookie mode entry of the change, shared by the searches
+     * @return {@code true} if search should continue, {@code false} otherwise
+     */
+    private boolean initialSearchSendEntry(final UpdateMsg updateMsg, final DN baseDN, final Entry sharedEntry)
+        throws DirectoryException
     {
       final CSN csn = updateMsg.getCSN();
       final SendEntryData<CSN> sendEntryData = getSendEntryData(baseDN, csn);
       sendEntryData.initialSearchSendsEntry(csn);
-      final String cookieString = updateCookie(baseDN, updateMsg.getCSN());
-      final Entry entry = createEntryFromMsg(baseDN, 0, cookieString, updateMsg);
-      return sendEntryIfMatches(searchOp, entry, cookieString);
+      changeProcessed(csn);
+      final String cookieString = updateCookie(baseDN, csn);
+      return sendEntryIfMatches(searchOp, withChangelogCookie(sharedEntry, cookieString), cookieString);
     }
 
-    private void persistentSearchSendEntry(DN baseDN, UpdateMsg updateMsg)
+    private void persistentSearchSendEntry(DN baseDN, UpdateMsg updateMsg, Entry sharedEntry)
         throws DirectoryException
     {
       final CSN csn = updateMsg.getCSN();
       final SendEntryData<CSN> sendEntryData = getSendEntryData(baseDN, csn);
       if (sendEntryData.persistentSearchCanSendEntry(csn))
       {
+        changeProcessed(csn);
         // multi threaded case: wait for the "initial search" phase to set the cookie
-        final String cookieString = updateCookie(baseDN, updateMsg.getCSN());
-        final Entry cookieEntry = createEntryFromMsg(baseDN, 0, cookieString, updateMsg);
-        // FIXME JNR use this instead of previous line:
-        // entry.replaceAttribute(Attributes.create("changelogcookie", cookieString));
-        sendEntryIfMatches(searchOp, cookieEntry, cookieString);
+        final String cookieString = updateCookie(baseDN, csn);
+        sendEntryIfMatches(searchOp, withChangelogCookie(sharedEntry, cookieString), cookieString);
       }
     }
 
@@ -1729,4 +1884,60 @@ public class ChangelogBackend extends Backend<Configuration>
       }
     }
   }
+
+  /**
+   * Publishes the state of the changelog searches below <code>cn=monitor</code>. The lag of a search is the time
+   * elapsed between the newest change published to the changelog and the newest change processed by the search. Each
+   * value of the per search attributes is the statistic followed by the identifier of the search.
+   */
+  private final class SearchMonitorProvider extends MonitorProvider<MonitorProviderCfg>
+  {
+    @Override
+    public String getMonitorInstanceName()
+    {
+      return "Changelog Searches";
+    }
+
+    @Override
+    public MonitorData getMonitorData()
+    {
+      final long newestTime = newestChangeTime.get();
+      long maxLag = 0;
+      final Collection<String> lags = new ArrayList<>();
+      final Collection<String> processedCounts = new ArrayList<>();
+      for (EntrySender entrySender : activeEntrySenders)
+      {
+        final String searchId = entrySender.getSearchId();
+        processedCounts.add(entrySender.getProcessedChangeCount() + " " + searchId);
+        final long lastChangeTime = entrySender.getLastChangeTime();
+        if (lastChangeTime > 0 && newestTime > 0)
+        {
+          // searches which have not processed any change yet have no meaningful lag
+          final long lag = Math.max(0, newestTime - lastChangeTime);
+          maxLag = Math.max(maxLag, lag);
+          lags.add(lag + " " + searchId);
+        }
+      }
+
+      final MonitorData attrs = new MonitorData(11);
+      attrs.add("active-search-count", activeEntrySenders.size());
+      attrs.add("cookie-persistent-search-count", cookieBasedPersistentSearches.size());
+      attrs.add("change-number-persistent-search-count", changeNumberBasedPersistentSearches.size());
+      attrs.add("entry-cache-size", entryCache.size());
+      attrs.add("entry-cache-size-in-bytes", entryCache.getSizeInBytes());
+      attrs.add("entry-cache-hit-count", entryCache.getHitCount());
+      attrs.add("entry-cache-miss-count", entryCache.getMissCount());
+      attrs.add("entry-cache-rejected-count", entryCache.getRejectedCount());
+      attrs.add("max-search-lag", maxLag);
+      if (!lags.isEmpty())
+      {
+        attrs.add("search-lag", lags);
+      }
+      if (!processedCounts.isEmpty())
+      {
+        attrs.add("search-processed-change-count", processedCounts);
+      }
+      return attrs;
+    }
+  }
 }
@@ -0,0 +1,274 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+
+/**
+ * Caches the cookie mode changelog entries of the most recent changes, so that the searches reading the same recent
+ * changes share the entries instead of building them again from the update messages.
+ * <p>
+ * The cached entries do not hold the changelog cookie, which is specific to each search: they must be duplicated
+ * before it is set. The cache is bounded by the estimated size of its entries. Once it is full, the entries of the
+ * oldest changes are evicted first, and the entries of changes older than all the cached ones are not cached: a search
+ * catching up on old changes does not evict the entries shared by the searches reading the newest changes.
+ * <p>
+ * Searches lagging behind the cached changes are therefore not served by the cache: they build their entries from
+ * the update messages read by their own changelog DB cursor, without any read-ahead.
+ * <p>
+ * This class is thread safe.
+ */
+final class ChangelogEntryCache
+{
+  /** Approximate memory overhead of a cached entry, in bytes. */
+  private static final int ENTRY_OVERHEAD = 256;
+  /** Approximate memory overhead of an attribute, in bytes. */
+  private static final int ATTRIBUTE_OVERHEAD = 64;
+  /** Approximate memory overhead of an attribute value, in bytes. */
+  private static final int VALUE_OVERHEAD = 32;
+
+  /** Identifies a change of the changelog, ordered from the oldest to the newest change. */
+  private static final class Key implements Comparable<Key>
+  {
+    private final DN baseDN;
+    private final CSN csn;
+
+    private Key(DN baseDN, CSN csn)
+    {
+      this.baseDN = baseDN;
+      this.csn = csn;
+    }
+
+    @Override
+    public int compareTo(Key other)
+    {
+      final int result = csn.compareTo(other.csn);
+      return result != 0 ? result : baseDN.compareTo(other.baseDN);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+      if (!(obj instanceof Key))
+      {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return csn.equals(other.csn) && baseDN.equals(other.baseDN);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * baseDN.hashCode() + csn.hashCode();
+    }
+  }
+
+  /** A cached entry with its estimated size. */
+  private static final class CachedEntry
+  {
+    private final Entry entry;
+    private final long size;
+
+    private CachedEntry(Entry entry, long size)
+    {
+      this.entry = entry;
+      this.size = size;
+    }
+  }
+
+  private final long maxSizeInBytes;
+  private final ConcurrentNavigableMap<Key, CachedEntry> entries = new ConcurrentSkipListMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicLong sizeInBytes = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates a cache holding entries up to the provided estimated size.
+   *
+   * @param maxSizeInBytes
+   *          the maximum estimated size of the cached entries, in bytes
+   */
+  ChangelogEntryCache(long maxSizeInBytes)
+  {
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * Returns the approximate memory used by an entry.
+   *
+   * @param entry
+   *          the entry
+   * @return the estimated size of the entry, in bytes
+   */
+  static long estimateSize(Entry entry)
+  {
+    // Characters are stored on two bytes
+    long size = ENTRY_OVERHEAD + 2L * entry.getName().toString().length();
+    for (Attribute attribute : entry.getAttributes())
+    {
+      size += ATTRIBUTE_OVERHEAD;
+      for (ByteString value : attribute)
+      {
+        size += VALUE_OVERHEAD + value.length();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the cached entry of a change.
+   *
+   * @param baseDN
+   *          the base DN of the replication domain of the change
+   * @param csn
+   *          the CSN of the change
+   * @return the cached entry, which must not be modified, or {@code null} if the entry is not cached
+   */
+  Entry get(DN baseDN, CSN csn)
+  {
+    final CachedEntry cached = entries.get(new Key(baseDN, csn));
+    (cached != null ? hitCount : missCount).incrementAndGet();
+    return cached != null ? cached.entry : null;
+  }
+
+  /**
+   * Caches the entry of a change, evicting the entries of the oldest changes if the cache is full. When the cache is
+   * full, the entry is not cached if its change is older than all the cached ones.
+   *
+   * @param baseDN
+   *          the base DN of the replication domain of the change
+   * @param csn
+   *          the CSN of the change
+   * @param entry
+   *          the entry of the change, which must not be modified afterwards
+   * @param entrySize
+   *          the estimated size of the entry, in bytes, as returned by {@link #estimateSize(Entry)}
+   */
+  void put(DN baseDN, CSN csn, Entry entry, long entrySize)
+  {
+    final Key key = new Key(baseDN, csn);
+    if (sizeInBytes.get() + entrySize > maxSizeInBytes && isOlderThanCachedChanges(key))
+    {
+      rejectedCount.incrementAndGet();
+      return;
+    }
+    if (entries.putIfAbsent(key, new CachedEntry(entry, entrySize)) != null)
+    {
+      // Concurrently built by another search
+      return;
+    }
+    size.incrementAndGet();
+    sizeInBytes.addAndGet(entrySize);
+    while (sizeInBytes.get() > maxSizeInBytes && evictOldest())
+    {
+      // Evict until the cache fits
+    }
+  }
+
+  private boolean isOlderThanCachedChanges(Key key)
+  {
+    final Map.Entry<Key, CachedEntry> oldest = entries.firstEntry();
+    return oldest != null && key.compareTo(oldest.getKey()) < 0;
+  }
+
+  private boolean evictOldest()
+  {
+    final Map.Entry<Key, CachedEntry> oldest = entries.pollFirstEntry();
+    if (oldest == null)
+    {
+      return false;
+    }
+    size.decrementAndGet();
+    sizeInBytes.addAndGet(-oldest.getValue().size);
+    return true;
+  }
+
+  /** Removes all the cached entries. */
+  void clear()
+  {
+    while (evictOldest())
+    {
+      // Evict all the entries
+    }
+  }
+
+  /**
+   * Returns the number of cached entries.
+   *
+   * @return the number of cached entries
+   */
+  int size()
+  {
+    return size.get();
+  }
+
+  /**
+   * Returns the estimated size of the cached entries.
+   *
+   * @return the estimated size of the cached entries, in bytes
+   */
+  long getSizeInBytes()
+  {
+    return sizeInBytes.get();
+  }
+
+  /**
+   * Returns the number of lookups which found the entry in the cache.
+   *
+   * @return the number of lookups which found the entry in the cache
+   */
+  long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups which did not find the entry in the cache.
+   *
+   * @return the number of lookups which did not find the entry in the cache
+   */
+  long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of entries which were not cached because their change was older than all the cached ones.
+   *
+   * @return the number of entries which were not cached because their change was older than all the cached ones
+   */
+  long getRejectedCount()
+  {
+    return rejectedCount.get();
+  }
+}
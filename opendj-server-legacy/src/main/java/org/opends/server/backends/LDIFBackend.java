@@ -46,6 +46,7 @@ import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.LDIFBackendCfg;
 import org.opends.server.api.AlertGenerator;
 import org.opends.server.api.Backend;
+import org.opends.server.api.SubordinateCounts;
 import org.opends.server.controls.SubtreeDeleteControl;
 import org.opends.server.core.AddOperation;
 import org.opends.server.core.DeleteOperation;
@@ -90,6 +91,8 @@ public class LDIFBackend
 
   /** The mapping between parent DNs and their immediate children. */
   private final Map<DN, Set<DN>> childDNs = new HashMap<>();
+  /** The number of subordinates of each entry. */
+  private final SubordinateCounts subordinateCounts = new SubordinateCounts();
 
   /** The set of supported controls for this backend. */
   private final Set<String> supportedControls =
@@ -171,6 +174,7 @@ public class LDIFBackend
 
       entryMap.clear();
       childDNs.clear();
+      subordinateCounts.clear();
       return;
     }
 
@@ -392,8 +396,7 @@ public class LDIFBackend
 
     try
     {
-      Set<DN> childDNSet = childDNs.get(entryDN);
-      if (childDNSet == null || childDNSet.isEmpty())
+      if (subordinateCounts.getNumberOfChildren(entryDN) == 0)
       {
         // It could be that the entry doesn't exist, in which case we should
         // throw an exception.
@@ -444,31 +447,14 @@ public class LDIFBackend
 
     try
     {
-      Set<DN> childDNSet = childDNs.get(entryDN);
-      if (childDNSet == null || childDNSet.isEmpty())
+      if (!entryMap.containsKey(entryDN))
       {
-        // It could be that the entry doesn't exist, in which case we should
-        // throw an exception.
-        if (entryMap.containsKey(entryDN))
-        {
-          return 0L;
-        }
         throw new DirectoryException(ResultCode.NO_SUCH_OBJECT, ERR_LDIF_BACKEND_NUM_SUBORDINATES_NO_SUCH_ENTRY
             .get(entryDN));
       }
-
-      if (!includeSubtree)
-      {
-        return childDNSet.size();
-      }
-
-      long count = 0;
-      for (DN childDN : childDNSet)
-      {
-        count += getNumberOfSubordinates(childDN, true);
-        count++;
-      }
-      return count;
+      return includeSubtree
+          ? subordinateCounts.getNumberOfSubordinates(entryDN)
+          : subordinateCounts.getNumberOfChildren(entryDN);
     }
     finally
     {
@@ -526,6 +512,7 @@ public class LDIFBackend
       if (baseDNs.contains(entryDN))
       {
         entryMap.put(entryDN, entry.duplicate(false));
+        subordinateCounts.add(entryDN);
         writeLDIF();
         return;
       }
@@ -535,6 +522,7 @@ public class LDIFBackend
         if (parentDN != null && entryMap.containsKey(parentDN))
         {
           entryMap.put(entryDN, entry.duplicate(false));
+          subordinateCounts.add(entryDN);
 
           Set<DN> childDNSet = childDNs.get(parentDN);
           if (childDNSet == null)
@@ -618,6 +606,7 @@ public class LDIFBackend
       if (childDNSet == null || childDNSet.isEmpty())
       {
         entryMap.remove(entryDN);
+        subordinateCounts.remove(entryDN);
         childDNs.remove(entryDN);
 
         if (parentDN != null)
@@ -646,6 +635,7 @@ public class LDIFBackend
         }
 
         entryMap.remove(entryDN);
+        subordinateCounts.remove(entryDN);
         childDNs.remove(entryDN);
 
         if (parentDN != null)
@@ -686,6 +676,7 @@ public class LDIFBackend
   private void subtreeDelete(DN entryDN)
   {
     entryMap.remove(entryDN);
+    subordinateCounts.remove(entryDN);
     Set<DN> childDNSet = childDNs.remove(entryDN);
     if (childDNSet != null)
     {
@@ -805,7 +796,9 @@ public class LDIFBackend
       // subtree.  Otherwise, just work on the target entry.
       Set<DN> childDNSet = childDNs.remove(currentDN);
       entryMap.remove(currentDN);
+      subordinateCounts.remove(currentDN);
       entryMap.put(newDN, entry.duplicate(false));
+      subordinateCounts.add(newDN);
       if (childDNSet != null && !childDNSet.isEmpty())
       {
         for (DN childDN : childDNSet)
@@ -850,6 +843,8 @@ public class LDIFBackend
     Entry newEntry = oldEntry.duplicate(false);
     newEntry.setDN(newEntryDN);
     entryMap.put(newEntryDN, newEntry);
+    subordinateCounts.remove(entryDN);
+    subordinateCounts.add(newEntryDN);
 
     Set<DN> parentChildren = childDNs.get(newParentDN);
     if (parentChildren == null)
@@ -1035,6 +1030,7 @@ public class LDIFBackend
     {
       entryMap.clear();
       childDNs.clear();
+      subordinateCounts.clear();
 
       try
       {
@@ -1077,6 +1073,7 @@ public class LDIFBackend
           if (baseDNs.contains(entryDN))
           {
             entryMap.put(entryDN, e);
+            subordinateCounts.add(entryDN);
             continue;
           }
 
@@ -1103,6 +1100,7 @@ public class LDIFBackend
           // The entry does not exist but its parent does, so add it and update
           // the set of children for the parent.
           entryMap.put(entryDN, e);
+          subordinateCounts.add(entryDN);
 
           Set<DN> childDNSet = childDNs.get(parentDN);
           if (childDNSet == null)
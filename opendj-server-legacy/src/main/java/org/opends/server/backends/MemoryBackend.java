@@ -39,6 +39,7 @@ import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.MemoryBackendCfg;
 import org.opends.server.api.Backend;
+import org.opends.server.api.SubordinateCounts;
 import org.opends.server.controls.SubtreeDeleteControl;
 import org.opends.server.core.AddOperation;
 import org.opends.server.core.DeleteOperation;
@@ -103,6 +104,8 @@ public class MemoryBackend
   private Set<DN> baseDNs;
   /** The mapping between parent DNs and their immediate children. */
   private Map<DN, HashSet<DN>> childDNs;
+  /** The number of subordinates of each entry. */
+  private final SubordinateCounts subordinateCounts = new SubordinateCounts();
   /** The mapping between entry DNs and the corresponding entries. */
   private LinkedHashMap<DN,Entry> entryMap;
 
@@ -175,6 +178,7 @@ public class MemoryBackend
   {
     entryMap.clear();
     childDNs.clear();
+    subordinateCounts.clear();
   }
 
   @Override
@@ -245,29 +249,13 @@ public class MemoryBackend
 
   private synchronized long getNumberOfSubordinates(DN entryDN, boolean includeSubtree) throws DirectoryException
   {
-    // Try to look up the immediate children for the DN
-    final Set<DN> children = childDNs.get(entryDN);
-    if (children == null)
+    if (!entryMap.containsKey(entryDN))
     {
-      if(entryMap.get(entryDN) != null)
-      {
-        // The entry does exist but just no children.
-        return 0;
-      }
       return -1;
     }
-
-    if(!includeSubtree)
-    {
-      return children.size();
-    }
-    long count = 0;
-    for (DN child : children)
-    {
-      count += getNumberOfSubordinates(child, true);
-      count++;
-    }
-    return count;
+    return includeSubtree
+        ? subordinateCounts.getNumberOfSubordinates(entryDN)
+        : subordinateCounts.getNumberOfChildren(entryDN);
   }
 
   @Override
@@ -306,6 +294,7 @@ public class MemoryBackend
     if (baseDNs.contains(entryDN))
     {
       entryMap.put(entryDN, e);
+      subordinateCounts.add(entryDN);
       return;
     }
 
@@ -323,6 +312,7 @@ public class MemoryBackend
     }
 
     entryMap.put(entryDN, e);
+    subordinateCounts.add(entryDN);
     HashSet<DN> children = childDNs.get(parentDN);
     if (children == null)
     {
@@ -380,6 +370,7 @@ public class MemoryBackend
     // its parent, if applicable.
     childDNs.remove(entryDN);
     entryMap.remove(entryDN);
+    subordinateCounts.remove(entryDN);
 
     DN parentDN = DirectoryServer.getParentDNInSuffix(entryDN);
     if (parentDN != null)
@@ -35,6 +35,22 @@ public class RebuildConfig
     USER_DEFINED;
   }
 
+  /** Receives the progress of a rebuild performed while the backend is online. */
+  public static interface ProgressListener
+  {
+    /**
+     * Invoked periodically while the indexes are being rebuilt.
+     *
+     * @param processedEntries
+     *          The number of entries processed so far.
+     * @param remainingEntries
+     *          The estimated number of entries left to process.
+     * @param remainingSeconds
+     *          The estimated number of seconds left before completion, or {@code -1} if unknown.
+     */
+    void rebuildProgress(long processedEntries, long remainingEntries, long remainingSeconds);
+  }
+
   /** The base DN to rebuild. */
   private DN baseDN;
   private RebuildMode rebuildMode = RebuildMode.USER_DEFINED;
@@ -42,6 +58,9 @@ public class RebuildConfig
   private final List<String> rebuildList = new ArrayList<>();
   private String tmpDirectory;
   private boolean isClearDegradedState;
+  private boolean isOnline;
+  private int maxEntriesPerSecond;
+  private ProgressListener progressListener;
 
   /**
    * Get the base DN to rebuild.
@@ -228,4 +247,67 @@ public class RebuildConfig
     this.isClearDegradedState = isClearDegradedState;
   }
 
+  /**
+   * Returns {@code true} if the indexes should be built in the background while the backend remains online.
+   *
+   * @return {@code true} if the indexes should be built online.
+   */
+  public boolean isOnline()
+  {
+    return isOnline;
+  }
+
+  /**
+   * Sets whether the indexes should be built in the background while the backend remains online.
+   *
+   * @param isOnline
+   *          {@code true} if the indexes should be built online.
+   */
+  public void setOnline(boolean isOnline)
+  {
+    this.isOnline = isOnline;
+  }
+
+  /**
+   * Returns the maximum number of entries processed per second by an online rebuild.
+   *
+   * @return The maximum number of entries processed per second, or {@code 0} if unlimited.
+   */
+  public int getMaxEntriesPerSecond()
+  {
+    return maxEntriesPerSecond;
+  }
+
+  /**
+   * Sets the maximum number of entries processed per second by an online rebuild, bounding its impact on the
+   * operations processed concurrently.
+   *
+   * @param maxEntriesPerSecond
+   *          The maximum number of entries processed per second, or {@code 0} if unlimited.
+   */
+  public void setMaxEntriesPerSecond(int maxEntriesPerSecond)
+  {
+    this.maxEntriesPerSecond = maxEntriesPerSecond;
+  }
+
+  /**
+   * Returns the listener notified of the progress of an online rebuild.
+   *
+   * @return The progress listener, or {@code null} if there is none.
+   */
+  public ProgressListener getProgressListener()
+  {
+    return progressListener;
+  }
+
+  /**
+   * Sets the listener notified of the progress of an online rebuild.
+   *
+   * @param progressListener
+   *          The progress listener, or {@code null} if there is none.
+   */
+  public void setProgressListener(ProgressListener progressListener)
+  {
+    this.progressListener = progressListener;
+  }
 }
@@ -0,0 +1,925 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.ImmutableBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/**
+ * Read-only implementation of the {@link Storage} engine, serving the trees from immutable memory-mapped files.
+ * <p>
+ * The files are only written by {@link #startImport() imports}. Once opened, the storage content never changes: the
+ * transactions read the mapped files directly, without any locking.
+ */
+public final class ImmutableStorage implements Storage, Backupable, ConfigurationChangeListener<ImmutableBackendCfg>
+{
+  /** The memory used to buffer the records of the trees during an import, before they are written to a run. */
+  private static final int IMPORT_BUFFER_SIZE = 64 * MB;
+  /** The estimated memory used by each buffered record, in addition to its key and value. */
+  private static final int RECORD_OVERHEAD = 64;
+
+  /** Cursor over the records of a map, which cannot delete them. */
+  private static final class MapCursor implements SequentialCursor<ByteString, ByteString>
+  {
+    private final Iterator<Map.Entry<ByteString, ByteString>> iterator;
+    private Map.Entry<ByteString, ByteString> current;
+
+    private MapCursor(Map<ByteString, ByteString> map)
+    {
+      this.iterator = map.entrySet().iterator();
+    }
+
+    @Override
+    public boolean next()
+    {
+      current = iterator.hasNext() ? iterator.next() : null;
+      return current != null;
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return current != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return current.getKey();
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return current.getValue();
+    }
+
+    @Override
+    public void delete()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+      current = null;
+    }
+
+    private void throwIfUndefined()
+    {
+      if (current == null)
+      {
+        throw new NoSuchElementException();
+      }
+    }
+  }
+
+  /**
+   * The records of a tree written during an import. They are buffered in memory, then written to sorted runs when
+   * the buffers of the import are full. The runs and the records of the tree before the import are merged into new
+   * tables when the import ends.
+   */
+  private final class TreeBuilder
+  {
+    /** Held to modify the buffer and the runs, excluding the puts while a run is written. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile ConcurrentNavigableMap<ByteString, ByteString> buffer = new ConcurrentSkipListMap<>();
+    private final AtomicLong bufferSize = new AtomicLong();
+    /** The runs written from the buffer, from the most recent to the oldest. */
+    private final LinkedList<MappedTree> runs = new LinkedList<>();
+    /** The records of the tree before the import, empty once the tree is cleared. */
+    private MappedTree base;
+    private volatile boolean modified;
+
+    private TreeBuilder(MappedTree base)
+    {
+      this.base = base;
+    }
+
+    private void put(ByteSequence key, ByteSequence value)
+    {
+      final long size = key.length() + value.length() + RECORD_OVERHEAD;
+      lock.readLock().lock();
+      try
+      {
+        buffer.put(key.toByteString(), value.toByteString());
+        bufferSize.addAndGet(size);
+        modified = true;
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+      importBufferSize.addAndGet(size);
+    }
+
+    private ByteString read(ByteSequence key)
+    {
+      lock.readLock().lock();
+      try
+      {
+        ByteString value = buffer.get(key);
+        for (Iterator<MappedTree> it = runs.iterator(); value == null && it.hasNext();)
+        {
+          value = it.next().get(key);
+        }
+        return value != null ? value : base.get(key);
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+    }
+
+    private SequentialCursor<ByteString, ByteString> openCursor()
+    {
+      lock.readLock().lock();
+      try
+      {
+        return new MergingCursor(getSources());
+      }
+      finally
+      {
+        lock.readLock().unlock();
+      }
+    }
+
+    /** Returns cursors over the records of the tree, from the most recent to the oldest. */
+    private List<SequentialCursor<ByteString, ByteString>> getSources()
+    {
+      final List<SequentialCursor<ByteString, ByteString>> sources = new ArrayList<>(runs.size() + 2);
+      sources.add(new MapCursor(buffer));
+      for (MappedTree run : runs)
+      {
+        sources.add(run.openCursor());
+      }
+      sources.add(base.openCursor());
+      return sources;
+    }
+
+    private void clear()
+    {
+      lock.writeLock().lock();
+      try
+      {
+        releaseBuffer();
+        deleteTables(runs);
+        runs.clear();
+        // The tables of the tree are deleted once the new manifest is written
+        base = MappedTree.EMPTY;
+        modified = true;
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * Writes the buffer to a new run. Puts to this tree wait until the run is written, but the other trees are
+     * not affected.
+     */
+    private void writeRun() throws IOException
+    {
+      lock.writeLock().lock();
+      try
+      {
+        final Map<ByteString, ByteString> records = buffer;
+        if (!records.isEmpty())
+        {
+          runs.addFirst(writeTree(Collections.singletonList(new MapCursor(records))));
+          releaseBuffer();
+        }
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void releaseBuffer()
+    {
+      buffer = new ConcurrentSkipListMap<>();
+      importBufferSize.addAndGet(-bufferSize.getAndSet(0));
+    }
+
+    /** Merges the records of the tree into its final tables. */
+    private MappedTree finish() throws IOException
+    {
+      lock.writeLock().lock();
+      try
+      {
+        if (!modified)
+        {
+          return base;
+        }
+        if (buffer.isEmpty() && runs.size() == 1 && base.getRecordCount() == 0)
+        {
+          // Avoid copying the records when a single run holds all of them
+          return runs.removeFirst();
+        }
+        final MappedTree tree = writeTree(getSources());
+        deleteTables(runs);
+        runs.clear();
+        return tree;
+      }
+      finally
+      {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private void discard()
+    {
+      deleteTables(runs);
+      runs.clear();
+    }
+
+    private long getBufferSize()
+    {
+      return bufferSize.get();
+    }
+  }
+
+  /** Implementation of the {@link Importer} interface, writing the trees to new tables. */
+  private final class ImporterImpl implements Importer
+  {
+    private final ConcurrentMap<TreeName, TreeBuilder> builders = new ConcurrentHashMap<>();
+    /** Serializes the writes of runs, which are triggered by the puts of any thread. */
+    private final Object runLock = new Object();
+
+    private ImporterImpl(Map<TreeName, MappedTree> existingTrees)
+    {
+      for (Map.Entry<TreeName, MappedTree> tree : existingTrees.entrySet())
+      {
+        builders.put(tree.getKey(), new TreeBuilder(tree.getValue()));
+      }
+    }
+
+    private TreeBuilder getBuilder(TreeName treeName)
+    {
+      TreeBuilder builder = builders.get(treeName);
+      if (builder == null)
+      {
+        final TreeBuilder newBuilder = new TreeBuilder(MappedTree.EMPTY);
+        builder = builders.putIfAbsent(treeName, newBuilder);
+        if (builder == null)
+        {
+          builder = newBuilder;
+        }
+      }
+      return builder;
+    }
+
+    @Override
+    public void clearTree(TreeName treeName)
+    {
+      getBuilder(treeName).clear();
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      getBuilder(treeName).put(key, value);
+      if (importBufferSize.get() > IMPORT_BUFFER_SIZE)
+      {
+        writeLargestBuffer();
+      }
+    }
+
+    private void writeLargestBuffer()
+    {
+      synchronized (runLock)
+      {
+        if (importBufferSize.get() <= IMPORT_BUFFER_SIZE)
+        {
+          // Another thread made room meanwhile
+          return;
+        }
+        TreeBuilder largest = null;
+        for (TreeBuilder builder : builders.values())
+        {
+          if (largest == null || builder.getBufferSize() > largest.getBufferSize())
+          {
+            largest = builder;
+          }
+        }
+        try
+        {
+          largest.writeRun();
+        }
+        catch (IOException e)
+        {
+          throw new StorageRuntimeException(e);
+        }
+      }
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      final TreeBuilder builder = builders.get(treeName);
+      return builder != null ? builder.read(key) : null;
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      final TreeBuilder builder = builders.get(treeName);
+      return builder != null ? builder.openCursor() : MappedTree.EMPTY.openCursor();
+    }
+
+    @Override
+    public void close()
+    {
+      try
+      {
+        final Manifest manifest = new Manifest();
+        for (Map.Entry<TreeName, TreeBuilder> builder : builders.entrySet())
+        {
+          final List<Long> numbers = new ArrayList<>();
+          for (MappedTable table : builder.getValue().finish().getTables())
+          {
+            numbers.add(table.getNumber());
+          }
+          manifest.trees.put(builder.getKey().toString(), numbers);
+        }
+        manifest.write(backendDirectory);
+        // Delete the tables replaced by this import
+        deleteUnlistedTables(manifest);
+      }
+      catch (IOException e)
+      {
+        // The previous manifest is unchanged, the new tables are deleted by the next import
+        for (TreeBuilder builder : builders.values())
+        {
+          builder.discard();
+        }
+        throw new StorageRuntimeException(e);
+      }
+      finally
+      {
+        ImmutableStorage.this.close();
+      }
+    }
+  }
+
+  /** The transaction of all the operations, which only reads the mapped trees. */
+  private final class ReadOnlyTransaction implements WriteableTransaction
+  {
+    private MappedTree getTree(TreeName treeName)
+    {
+      final MappedTree tree = trees.get(treeName);
+      return tree != null ? tree : MappedTree.EMPTY;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      return getTree(treeName).get(key);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return getTree(treeName).openCursor();
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      return getTree(treeName).getRecordCount();
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand && !trees.containsKey(treeName))
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    @Override
+    public void deleteTree(TreeName name)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      throw new ReadOnlyStorageException();
+    }
+  }
+
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private final ReadOnlyTransaction transaction = new ReadOnlyTransaction();
+  private ImmutableBackendCfg config;
+  /** The mapped trees, which never change while the storage is open, or {@code null} if it is closed. */
+  private volatile Map<TreeName, MappedTree> trees;
+  private ImporterImpl importer;
+  private MemoryQuota memQuota;
+  /** The memory used by the buffers of the running import. */
+  private final AtomicLong importBufferSize = new AtomicLong();
+  private long nextFileNumber;
+
+  /**
+   * Creates a new immutable storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  ImmutableStorage(final ImmutableBackendCfg cfg, ServerContext serverContext)
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    cfg.addImmutableChangeListener(this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    if (accessMode.isWriteable())
+    {
+      throw new ReadOnlyStorageException(ERR_IMMUTABLE_STORAGE_READ_ONLY.get(config.getBackendId()).toString());
+    }
+    open0();
+
+    long size = 0;
+    int fileCount = 0;
+    for (MappedTree tree : trees.values())
+    {
+      size += tree.getSize();
+      fileCount += tree.getTables().size();
+    }
+    logger.info(NOTE_IMMUTABLE_OPENED, config.getBackendId(), trees.size(), fileCount, size / KB);
+  }
+
+  private void open0() throws ConfigException
+  {
+    setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    if (trees != null)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    try
+    {
+      trees = mapTrees(Manifest.read(backendDirectory));
+    }
+    catch (IOException e)
+    {
+      throw new StorageRuntimeException(e);
+    }
+  }
+
+  private Map<TreeName, MappedTree> mapTrees(Manifest manifest) throws IOException
+  {
+    final Map<TreeName, MappedTree> mappedTrees = new HashMap<>();
+    for (Map.Entry<String, List<Long>> tree : manifest.trees.entrySet())
+    {
+      final List<MappedTable> tables = new ArrayList<>(tree.getValue().size());
+      for (Long number : tree.getValue())
+      {
+        tables.add(MappedTable.open(backendDirectory, number));
+      }
+      mappedTrees.put(TreeName.valueOf(tree.getKey()), new MappedTree(tables));
+    }
+    return Collections.unmodifiableMap(mappedTrees);
+  }
+
+  @Override
+  public void close()
+  {
+    // The mappings are released once the tables are garbage collected
+    trees = null;
+    if (importer != null)
+    {
+      importer = null;
+      memQuota.releaseMemory(IMPORT_BUFFER_SIZE);
+    }
+    config.removeImmutableChangeListener(this);
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> operation) throws Exception
+  {
+    try
+    {
+      return operation.run(transaction);
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void write(final WriteOperation operation) throws Exception
+  {
+    // Only the operations which do not write anything can succeed
+    try
+    {
+      operation.run(transaction);
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    open0();
+    try
+    {
+      deleteUnlistedTables(Manifest.read(backendDirectory));
+      nextFileNumber = 0;
+      for (String fileName : listFileNames())
+      {
+        nextFileNumber = Math.max(nextFileNumber, MappedTable.getNumber(fileName));
+      }
+      nextFileNumber++;
+    }
+    catch (IOException e)
+    {
+      trees = null;
+      throw new StorageRuntimeException(e);
+    }
+    memQuota = serverContext.getMemoryQuota();
+    memQuota.acquireMemory(IMPORT_BUFFER_SIZE);
+    importBufferSize.set(0);
+    importer = new ImporterImpl(trees);
+    return importer;
+  }
+
+  private String[] listFileNames()
+  {
+    final String[] names = backendDirectory.list();
+    return names != null ? names : new String[0];
+  }
+
+  /** Deletes the tables which are not listed by a manifest: the replaced ones, or the ones of a failed import. */
+  private void deleteUnlistedTables(Manifest manifest)
+  {
+    final Set<Long> listed = new HashSet<>(manifest.getTableNumbers());
+    for (String fileName : listFileNames())
+    {
+      final long number = MappedTable.getNumber(fileName);
+      if (number >= 0 && !listed.contains(number))
+      {
+        new File(backendDirectory, fileName).delete();
+      }
+    }
+  }
+
+  private void deleteTables(List<MappedTree> mappedTrees)
+  {
+    for (MappedTree tree : mappedTrees)
+    {
+      for (MappedTable table : tree.getTables())
+      {
+        table.getFile().delete();
+      }
+    }
+  }
+
+  /**
+   * Writes the records of sorted cursors, ordered from the most recent to the oldest, to new tables.
+   *
+   * @param cursors
+   *          the cursors over the records to write, which are closed by this method
+   * @return the tree of the new tables
+   * @throws IOException
+   *           if the tables could not be written
+   */
+  private MappedTree writeTree(List<SequentialCursor<ByteString, ByteString>> cursors) throws IOException
+  {
+    final MappedTreeWriter writer = new MappedTreeWriter(backendDirectory, new MappedTreeWriter.FileNumbers()
+    {
+      @Override
+      public long next()
+      {
+        synchronized (ImmutableStorage.this)
+        {
+          return nextFileNumber++;
+        }
+      }
+    });
+    try (SequentialCursor<ByteString, ByteString> cursor = new MergingCursor(cursors))
+    {
+      while (cursor.next())
+      {
+        writer.add(cursor.getKey(), cursor.getValue());
+      }
+      final List<MappedTable> tables = new ArrayList<>();
+      for (Long number : writer.finish())
+      {
+        tables.add(MappedTable.open(backendDirectory, number));
+      }
+      return new MappedTree(tables);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      writer.abort();
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(ImmutableBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    // The files only change during imports, which cannot run at the same time as backups
+    try
+    {
+      final List<Path> files = new ArrayList<>();
+      final File directory = getDirectory();
+      final Manifest manifest = Manifest.read(directory);
+      if (new File(directory, Manifest.FILE_NAME).exists())
+      {
+        files.add(new File(directory, Manifest.FILE_NAME).toPath());
+      }
+      for (Long number : manifest.getTableNumbers())
+      {
+        files.add(new File(directory, MappedTable.fileName(number)).toPath());
+      }
+      return files.listIterator();
+    }
+    catch (IOException e)
+    {
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_BACKEND_LIST_FILES_TO_BACKUP.get(config.getBackendId(), stackTraceToSingleLineString(e)));
+    }
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch(IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    final ImporterImpl runningImporter = importer;
+    if (runningImporter != null)
+    {
+      return new HashSet<>(runningImporter.builders.keySet());
+    }
+    return new HashSet<>(trees.keySet());
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(ImmutableBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    return checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(ImmutableBackendCfg cfg, List<LocalizableMessage> unacceptableReasons)
+  {
+    return checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(ImmutableBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(ImmutableBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+
+    try
+    {
+      File newBackendDirectory = getBackendDirectory(cfg);
+
+      // Create the directory if it doesn't exist.
+      if(!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, false);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions())
+          || !cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        setDBDirPermissions(newBackendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      config = cfg;
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return StorageStatus.working();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import static java.nio.file.StandardCopyOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The list of the trees of a database, with the numbers of the tables holding the records of each tree in key order.
+ * <p>
+ * The manifest is only written at the end of an import, to a temporary file which then atomically replaces the
+ * previous manifest: a failed import leaves the previous content of the database untouched.
+ */
+final class Manifest
+{
+  static final String FILE_NAME = "MANIFEST";
+  private static final int FORMAT_VERSION = 1;
+
+  /** The numbers of the tables of each tree, keyed by tree name. */
+  final Map<String, List<Long>> trees = new TreeMap<>();
+
+  /**
+   * Reads the manifest of a database.
+   *
+   * @param directory
+   *          the directory of the database
+   * @return the manifest, which is empty if the database has none
+   * @throws IOException
+   *           if the manifest could not be read or is corrupted
+   */
+  static Manifest read(File directory) throws IOException
+  {
+    final Manifest manifest = new Manifest();
+    final File file = new File(directory, FILE_NAME);
+    if (!file.exists())
+    {
+      return manifest;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      final int version = input.readInt();
+      if (version > FORMAT_VERSION)
+      {
+        throw new IOException(ERR_IMMUTABLE_CORRUPTED_FILE.get(file, "unsupported version " + version).toString());
+      }
+      for (int i = input.readInt(); i > 0; i--)
+      {
+        final String treeName = input.readUTF();
+        final List<Long> numbers = new ArrayList<>();
+        for (int j = input.readInt(); j > 0; j--)
+        {
+          numbers.add(input.readLong());
+        }
+        manifest.trees.put(treeName, numbers);
+      }
+      return manifest;
+    }
+    catch (EOFException e)
+    {
+      throw new IOException(ERR_IMMUTABLE_CORRUPTED_FILE.get(file, "truncated").toString(), e);
+    }
+  }
+
+  /**
+   * Writes this manifest, replacing the previous one.
+   *
+   * @param directory
+   *          the directory of the database
+   * @throws IOException
+   *           if the manifest could not be written
+   */
+  void write(File directory) throws IOException
+  {
+    final File tmp = new File(directory, FILE_NAME + ".tmp");
+    try (FileOutputStream fileOutput = new FileOutputStream(tmp);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput)))
+    {
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(trees.size());
+      for (Map.Entry<String, List<Long>> tree : trees.entrySet())
+      {
+        output.writeUTF(tree.getKey());
+        output.writeInt(tree.getValue().size());
+        for (Long number : tree.getValue())
+        {
+          output.writeLong(number);
+        }
+      }
+      output.flush();
+      fileOutput.getFD().sync();
+    }
+    Files.move(tmp.toPath(), new File(directory, FILE_NAME).toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns the numbers of all the tables of the database.
+   *
+   * @return the numbers of all the tables
+   */
+  List<Long> getTableNumbers()
+  {
+    final List<Long> numbers = new ArrayList<>();
+    for (List<Long> treeNumbers : trees.values())
+    {
+      numbers.addAll(treeNumbers);
+    }
+    return numbers;
+  }
+}
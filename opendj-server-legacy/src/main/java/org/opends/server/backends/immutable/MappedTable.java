@@ -0,0 +1,329 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * An immutable file of records sorted by key, memory-mapped for reading.
+ * <p>
+ * The file holds the records, each one encoded as its key length, key, value length and value, followed by a sparse
+ * index of the offsets of one record every {@link #INDEX_INTERVAL} records, and by a footer:
+ *
+ * <pre>
+ * record*  index-offset*  record-count(long)  index-position(int)  index-count(int)  magic(int)
+ * </pre>
+ *
+ * The files never exceed {@link #MAX_FILE_SIZE} so that they are mapped as a single buffer. Reading only uses
+ * absolute positions in the mapped buffer: tables are safely read by any number of threads without locking.
+ */
+final class MappedTable
+{
+  /** The number of records between two offsets of the sparse index. */
+  static final int INDEX_INTERVAL = 32;
+  /** The maximum size of a file, below the maximum size of a mapped buffer. */
+  static final int MAX_FILE_SIZE = 1 << 30;
+  static final int MAGIC = 0x4f444a49;
+  static final int FOOTER_SIZE = 8 + 4 + 4 + 4;
+  private static final String SUFFIX = ".tbl";
+
+  private final long number;
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private final long recordCount;
+  /** The position of the sparse index, which is also the end of the records. */
+  private final int indexPosition;
+  private final int indexCount;
+  private final ByteString firstKey;
+
+  private MappedTable(long number, File file, MappedByteBuffer buffer) throws IOException
+  {
+    this.number = number;
+    this.file = file;
+    this.buffer = buffer;
+    final int size = buffer.capacity();
+    if (size < FOOTER_SIZE || buffer.getInt(size - 4) != MAGIC)
+    {
+      throw corrupted("invalid footer");
+    }
+    recordCount = buffer.getLong(size - FOOTER_SIZE);
+    indexPosition = buffer.getInt(size - FOOTER_SIZE + 8);
+    indexCount = buffer.getInt(size - FOOTER_SIZE + 12);
+    if (recordCount < 0 || indexPosition < 0 || indexCount < 0
+        || (long) indexPosition + 4L * indexCount != size - FOOTER_SIZE
+        || indexCount != (recordCount + INDEX_INTERVAL - 1) / INDEX_INTERVAL)
+    {
+      throw corrupted("invalid index");
+    }
+    firstKey = recordCount > 0 ? keyAt(0) : ByteString.empty();
+  }
+
+  static String fileName(long number)
+  {
+    return String.format("%06d", number) + SUFFIX;
+  }
+
+  /**
+   * Returns the number of a table file.
+   *
+   * @param fileName
+   *          the name of a file of the database
+   * @return the number of the table file, or -1 if the file is not a table
+   */
+  static long getNumber(String fileName)
+  {
+    if (fileName.endsWith(SUFFIX))
+    {
+      try
+      {
+        return Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+      }
+      catch (NumberFormatException e)
+      {
+        // not a table file
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Maps the file of a table.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param number
+   *          the number of the table
+   * @return the mapped table
+   * @throws IOException
+   *           if the file could not be mapped, or is corrupted
+   */
+  static MappedTable open(File directory, long number) throws IOException
+  {
+    final File file = new File(directory, fileName(number));
+    try (FileChannel channel = FileChannel.open(file.toPath(), READ))
+    {
+      if (channel.size() > MAX_FILE_SIZE)
+      {
+        throw new IOException(ERR_IMMUTABLE_CORRUPTED_FILE.get(file, "file too large").toString());
+      }
+      // The mapping remains valid once the channel is closed
+      return new MappedTable(number, file, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  private IOException corrupted(String reason)
+  {
+    return new IOException(ERR_IMMUTABLE_CORRUPTED_FILE.get(file, reason).toString());
+  }
+
+  long getNumber()
+  {
+    return number;
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  long getSize()
+  {
+    return buffer.capacity();
+  }
+
+  long getRecordCount()
+  {
+    return recordCount;
+  }
+
+  ByteString getFirstKey()
+  {
+    return firstKey;
+  }
+
+  /**
+   * Returns the position following the last record, where the positions of the records end.
+   *
+   * @return the position following the last record
+   */
+  int getEnd()
+  {
+    return indexPosition;
+  }
+
+  ByteString keyAt(int position)
+  {
+    return bytesAt(position + 4, buffer.getInt(position));
+  }
+
+  ByteString valueAt(int position)
+  {
+    final int valuePosition = position + 4 + buffer.getInt(position);
+    return bytesAt(valuePosition + 4, buffer.getInt(valuePosition));
+  }
+
+  /**
+   * Returns the position of the record following the one at the provided position.
+   *
+   * @param position
+   *          the position of a record
+   * @return the position of the next record, or {@link #getEnd()} if it is the last record
+   */
+  int nextPosition(int position)
+  {
+    final int valuePosition = position + 4 + buffer.getInt(position);
+    return valuePosition + 4 + buffer.getInt(valuePosition);
+  }
+
+  private ByteString bytesAt(int position, int length)
+  {
+    // Duplicate the buffer since relative reads are the only bulk reads, and they change the position
+    final ByteBuffer view = buffer.duplicate();
+    view.position(position);
+    final byte[] bytes = new byte[length];
+    view.get(bytes);
+    return ByteString.wrap(bytes);
+  }
+
+  /**
+   * Compares the key of a record with the provided key, in the order of {@link ByteString#compareTo(ByteSequence)}.
+   *
+   * @param position
+   *          the position of the record
+   * @param key
+   *          the key to compare
+   * @return a negative integer, zero or a positive integer if the key of the record is lower than, equal to or greater
+   *         than the provided key
+   */
+  int compareKeyAt(int position, ByteSequence key)
+  {
+    final int length = buffer.getInt(position);
+    final int keyLength = key.length();
+    final int minLength = Math.min(length, keyLength);
+    for (int i = 0; i < minLength; i++)
+    {
+      final int cmp = (buffer.get(position + 4 + i) & 0xff) - (key.byteAt(i) & 0xff);
+      if (cmp != 0)
+      {
+        return cmp;
+      }
+    }
+    return length - keyLength;
+  }
+
+  /**
+   * Returns the position of the record indexed by the provided entry of the sparse index.
+   *
+   * @param indexEntry
+   *          the entry of the sparse index
+   * @return the position of the record
+   */
+  private int indexedPosition(int indexEntry)
+  {
+    return buffer.getInt(indexPosition + 4 * indexEntry);
+  }
+
+  /**
+   * Returns the position of the first record whose key is greater than or equal to the provided key.
+   *
+   * @param key
+   *          the key to look for
+   * @return the position of the first record whose key is greater than or equal to the key, or {@link #getEnd()} if
+   *         there is none
+   */
+  int ceilingPosition(ByteSequence key)
+  {
+    // Find the last indexed record whose key is lower than or equal to the key, then scan from it
+    int low = 0;
+    int high = indexCount - 1;
+    int indexEntry = -1;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (compareKeyAt(indexedPosition(mid), key) <= 0)
+      {
+        indexEntry = mid;
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    if (indexEntry < 0)
+    {
+      return 0;
+    }
+    int position = indexedPosition(indexEntry);
+    while (position < indexPosition && compareKeyAt(position, key) < 0)
+    {
+      position = nextPosition(position);
+    }
+    return position;
+  }
+
+  /**
+   * Returns the position of the record at the provided index.
+   *
+   * @param index
+   *          the index of the record, between 0 and the number of records
+   * @return the position of the record, or {@link #getEnd()} if the index is the number of records
+   */
+  int positionOf(long index)
+  {
+    if (index >= recordCount)
+    {
+      return indexPosition;
+    }
+    int position = indexedPosition((int) (index / INDEX_INTERVAL));
+    for (long i = index % INDEX_INTERVAL; i > 0; i--)
+    {
+      position = nextPosition(position);
+    }
+    return position;
+  }
+
+  /**
+   * Returns the value of the record with the provided key.
+   *
+   * @param key
+   *          the key of the record
+   * @return the value of the record, or {@code null} if this table does not hold it
+   */
+  ByteString get(ByteSequence key)
+  {
+    final int position = ceilingPosition(key);
+    return position < indexPosition && compareKeyAt(position, key) == 0 ? valueAt(position) : null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName() + "(" + recordCount + " records)";
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.Cursor;
+
+/** The records of a tree, stored in tables whose key ranges follow each other. */
+final class MappedTree
+{
+  /** A tree without any record. */
+  static final MappedTree EMPTY = new MappedTree(Collections.<MappedTable> emptyList());
+
+  /** Cursor over the records of a tree, which cannot delete them. */
+  private final class CursorImpl implements Cursor<ByteString, ByteString>
+  {
+    /** The index of the current table, or -1 before the first record. */
+    private int tableIndex = -1;
+    private int position;
+    /** Whether the position is the one of the next record, after {@link #positionToKey(ByteSequence)} failed. */
+    private boolean beforePosition;
+    private ByteString key;
+    private ByteString value;
+
+    @Override
+    public boolean next()
+    {
+      if (tableIndex < 0)
+      {
+        return moveTo(0, 0);
+      }
+      if (beforePosition)
+      {
+        beforePosition = false;
+        return moveTo(tableIndex, position);
+      }
+      if (key == null)
+      {
+        return false;
+      }
+      return moveTo(tableIndex, tables.get(tableIndex).nextPosition(position));
+    }
+
+    @Override
+    public boolean positionToKey(ByteSequence key)
+    {
+      if (positionToKeyOrNext(key) && this.key.compareTo(key) == 0)
+      {
+        return true;
+      }
+      // Like the other storages, the next record follows the key which was looked for
+      final boolean hasNext = isDefined();
+      setUndefined();
+      beforePosition = hasNext;
+      return false;
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(ByteSequence key)
+    {
+      if (tables.isEmpty())
+      {
+        return setUndefined();
+      }
+      final int index = findTable(key);
+      return moveTo(index, tables.get(index).ceilingPosition(key));
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      if (tables.isEmpty())
+      {
+        return setUndefined();
+      }
+      final int index = tables.size() - 1;
+      return moveTo(index, tables.get(index).positionOf(tables.get(index).getRecordCount() - 1));
+    }
+
+    @Override
+    public boolean positionToIndex(int index)
+    {
+      long remaining = index;
+      for (int i = 0; i < tables.size(); i++)
+      {
+        final MappedTable table = tables.get(i);
+        if (remaining < table.getRecordCount())
+        {
+          return moveTo(i, table.positionOf(remaining));
+        }
+        remaining -= table.getRecordCount();
+      }
+      return moveTo(tables.size(), 0);
+    }
+
+    /**
+     * Moves to a position of a table, or to the first record of the next tables if the position is the end of the
+     * table.
+     */
+    private boolean moveTo(int index, int newPosition)
+    {
+      tableIndex = index;
+      position = newPosition;
+      beforePosition = false;
+      while (tableIndex < tables.size() && position >= tables.get(tableIndex).getEnd())
+      {
+        tableIndex++;
+        position = 0;
+      }
+      if (tableIndex >= tables.size())
+      {
+        return setUndefined();
+      }
+      final MappedTable table = tables.get(tableIndex);
+      key = table.keyAt(position);
+      value = table.valueAt(position);
+      return true;
+    }
+
+    private boolean setUndefined()
+    {
+      key = null;
+      value = null;
+      return false;
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return key != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return key;
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return value;
+    }
+
+    @Override
+    public void delete()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close()
+    {
+      key = null;
+      value = null;
+    }
+
+    private void throwIfUndefined()
+    {
+      if (!isDefined())
+      {
+        throw new NoSuchElementException();
+      }
+    }
+  }
+
+  private final List<MappedTable> tables;
+  private final long recordCount;
+
+  MappedTree(List<MappedTable> tables)
+  {
+    this.tables = Collections.unmodifiableList(new ArrayList<>(tables));
+    long count = 0;
+    for (MappedTable table : tables)
+    {
+      count += table.getRecordCount();
+    }
+    this.recordCount = count;
+  }
+
+  List<MappedTable> getTables()
+  {
+    return tables;
+  }
+
+  long getRecordCount()
+  {
+    return recordCount;
+  }
+
+  long getSize()
+  {
+    long size = 0;
+    for (MappedTable table : tables)
+    {
+      size += table.getSize();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the index of the table which may hold the provided key: the last one whose first key is lower than or equal
+   * to the key, or the first one.
+   */
+  private int findTable(ByteSequence key)
+  {
+    int low = 1;
+    int high = tables.size() - 1;
+    int index = 0;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (tables.get(mid).getFirstKey().compareTo(key) <= 0)
+      {
+        index = mid;
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the value of a record.
+   *
+   * @param key
+   *          the key of the record
+   * @return the value of the record, or {@code null} if this tree does not hold it
+   */
+  ByteString get(ByteSequence key)
+  {
+    return !tables.isEmpty() ? tables.get(findTable(key)).get(key) : null;
+  }
+
+  /**
+   * Opens a cursor over the records of this tree. Cursors do not hold any resource and are not thread-safe.
+   *
+   * @return a new cursor
+   */
+  Cursor<ByteString, ByteString> openCursor()
+  {
+    return new CursorImpl();
+  }
+
+  @Override
+  public String toString()
+  {
+    return tables.toString();
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import static org.opends.server.backends.immutable.MappedTable.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * Writes records, added in ascending key order, to as many new tables as needed to keep each file below
+ * {@link MappedTable#MAX_FILE_SIZE}.
+ *
+ * @see MappedTable for the format of the tables
+ */
+final class MappedTreeWriter
+{
+  /** Provides the numbers of the new files. */
+  interface FileNumbers
+  {
+    /**
+     * Returns the number of a new file of the database.
+     *
+     * @return the number of a new file
+     */
+    long next();
+  }
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final File directory;
+  private final FileNumbers fileNumbers;
+  private final List<Long> numbers = new ArrayList<>();
+
+  private long number;
+  private FileOutputStream fileOutput;
+  private DataOutputStream output;
+  private int position;
+  private long recordCount;
+  private int[] index = new int[1024];
+  private int indexCount;
+  private ByteString lastKey;
+
+  /**
+   * Creates a writer of new tables.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param fileNumbers
+   *          the provider of the numbers of the new files
+   */
+  MappedTreeWriter(File directory, FileNumbers fileNumbers)
+  {
+    this.directory = directory;
+    this.fileNumbers = fileNumbers;
+  }
+
+  /**
+   * Adds a record after the ones already added.
+   *
+   * @param key
+   *          the key of the record, greater than the keys of the records already added
+   * @param value
+   *          the value of the record
+   * @throws IOException
+   *           if the record could not be written
+   */
+  void add(ByteSequence key, ByteSequence value) throws IOException
+  {
+    if (lastKey != null && lastKey.compareTo(key) >= 0)
+    {
+      throw new IllegalArgumentException("Records must be added in ascending key order: " + key + " after "
+          + lastKey);
+    }
+    final long recordSize = 8L + key.length() + value.length();
+    if (recordSize + 4 + FOOTER_SIZE > MAX_FILE_SIZE)
+    {
+      throw new IllegalArgumentException("Record with key " + key + " is too large: " + recordSize + " bytes");
+    }
+    if (output != null && position + recordSize + 4L * (indexCount + 1) + FOOTER_SIZE > MAX_FILE_SIZE)
+    {
+      finishTable();
+    }
+    if (output == null)
+    {
+      startTable();
+    }
+    if (recordCount % INDEX_INTERVAL == 0)
+    {
+      if (indexCount == index.length)
+      {
+        index = Arrays.copyOf(index, 2 * indexCount);
+      }
+      index[indexCount++] = position;
+    }
+    output.writeInt(key.length());
+    key.copyTo(output);
+    output.writeInt(value.length());
+    value.copyTo(output);
+    position += recordSize;
+    recordCount++;
+    lastKey = key.toByteString();
+  }
+
+  private void startTable() throws IOException
+  {
+    number = fileNumbers.next();
+    fileOutput = new FileOutputStream(new File(directory, fileName(number)));
+    output = new DataOutputStream(new BufferedOutputStream(fileOutput, BUFFER_SIZE));
+    position = 0;
+    recordCount = 0;
+    indexCount = 0;
+  }
+
+  private void finishTable() throws IOException
+  {
+    for (int i = 0; i < indexCount; i++)
+    {
+      output.writeInt(index[i]);
+    }
+    output.writeLong(recordCount);
+    output.writeInt(position);
+    output.writeInt(indexCount);
+    output.writeInt(MAGIC);
+    output.flush();
+    fileOutput.getFD().sync();
+    output.close();
+    output = null;
+    numbers.add(number);
+  }
+
+  /**
+   * Finishes writing the last table and returns the numbers of all the written tables.
+   *
+   * @return the numbers of the written tables, in key order
+   * @throws IOException
+   *           if the last table could not be written
+   */
+  List<Long> finish() throws IOException
+  {
+    if (output != null)
+    {
+      finishTable();
+    }
+    return numbers;
+  }
+
+  /** Deletes the tables written so far, after a failure. */
+  void abort()
+  {
+    if (output != null)
+    {
+      StaticUtils.close(output);
+      output = null;
+      numbers.add(number);
+    }
+    for (Long n : numbers)
+    {
+      new File(directory, fileName(n)).delete();
+    }
+    numbers.clear();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * Merges sorted cursors into a single sorted cursor. When several cursors hold the same key, the record of the first
+ * one is returned: cursors must be ordered from the most recent to the oldest data.
+ */
+final class MergingCursor implements SequentialCursor<ByteString, ByteString>
+{
+  private final List<? extends SequentialCursor<ByteString, ByteString>> cursors;
+  /** Whether each cursor has been moved to its first record. */
+  private boolean started;
+  private SequentialCursor<ByteString, ByteString> current;
+
+  MergingCursor(List<? extends SequentialCursor<ByteString, ByteString>> cursors)
+  {
+    this.cursors = cursors;
+  }
+
+  @Override
+  public boolean next()
+  {
+    if (!started)
+    {
+      started = true;
+      for (SequentialCursor<ByteString, ByteString> cursor : cursors)
+      {
+        cursor.next();
+      }
+    }
+    else if (current != null)
+    {
+      // Move all the cursors holding the key which was just returned
+      final ByteString key = current.getKey();
+      for (SequentialCursor<ByteString, ByteString> cursor : cursors)
+      {
+        if (cursor.isDefined() && cursor.getKey().equals(key))
+        {
+          cursor.next();
+        }
+      }
+    }
+    else
+    {
+      return false;
+    }
+
+    current = null;
+    for (SequentialCursor<ByteString, ByteString> cursor : cursors)
+    {
+      if (cursor.isDefined() && (current == null || cursor.getKey().compareTo(current.getKey()) < 0))
+      {
+        current = cursor;
+      }
+    }
+    return current != null;
+  }
+
+  @Override
+  public boolean isDefined()
+  {
+    return current != null;
+  }
+
+  @Override
+  public ByteString getKey()
+  {
+    throwIfUndefined();
+    return current.getKey();
+  }
+
+  @Override
+  public ByteString getValue()
+  {
+    throwIfUndefined();
+    return current.getValue();
+  }
+
+  @Override
+  public void delete()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close()
+  {
+    StaticUtils.close(cursors);
+    current = null;
+  }
+
+  private void throwIfUndefined()
+  {
+    if (current == null)
+    {
+      throw new NoSuchElementException();
+    }
+  }
+}
@@ -61,6 +61,7 @@ import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
 import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.RecordCounts;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
@@ -98,7 +99,7 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     DiskSpaceMonitorHandler
 {
   /** JE implementation of the {@link Cursor} interface. */
-  private static final class CursorImpl implements Cursor<ByteString, ByteString>
+  private static class CursorImpl implements Cursor<ByteString, ByteString>
   {
     private ByteString currentKey;
     private ByteString currentValue;
@@ -284,6 +285,10 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     @Override
     public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
     {
+      if (!importedTrees.contains(treeName))
+      {
+        importedTrees.add(treeName);
+      }
       try
       {
         getOrOpenTree(treeName).put(null, db(key), db(value));
@@ -325,15 +330,30 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     @Override
     public void clearTree(TreeName treeName)
     {
-      env.truncateDatabase(null, toDatabaseName(treeName), false);
+      importedTrees.add(treeName);
+      try
+      {
+        env.truncateDatabase(null, toDatabaseName(treeName), false);
+      }
+      catch (DatabaseNotFoundException e)
+      {
+        // This is fine: the empty tree is created when it is first opened
+      }
     }
 
     @Override
     public void close()
     {
-      closeSilently(trees.values());
-      trees.clear();
-      JEStorage.this.close();
+      try
+      {
+        recordCounts.importCompleted(this, listTrees(), importedTrees);
+      }
+      finally
+      {
+        closeSilently(trees.values());
+        trees.clear();
+        JEStorage.this.close();
+      }
     }
   }
 
@@ -377,7 +397,26 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     {
       try
       {
-        final OperationStatus status = getOrOpenTree(treeName).put(txn, db(key), db(value));
+        final Database tree = getOrOpenTree(treeName);
+        final DatabaseEntry dbKey = db(key);
+        final DatabaseEntry dbValue = db(value);
+        OperationStatus status;
+        if (isCounted(treeName))
+        {
+          status = tree.putNoOverwrite(txn, dbKey, dbValue);
+          if (status == SUCCESS)
+          {
+            recordCounts.recordAdded(this, treeName);
+          }
+          else if (status == KEYEXIST)
+          {
+            status = tree.put(txn, dbKey, dbValue);
+          }
+        }
+        else
+        {
+          status = tree.put(txn, dbKey, dbValue);
+        }
         if (status != SUCCESS)
         {
           throw new StorageRuntimeException(putErrorMsg(treeName, key, value, "did not succeed: " + status));
@@ -399,7 +438,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     {
       try
       {
-        return getOrOpenTree(treeName).delete(txn, db(key)) == SUCCESS;
+        final boolean deleted = getOrOpenTree(treeName).delete(txn, db(key)) == SUCCESS;
+        if (deleted && isCounted(treeName))
+        {
+          recordCounts.recordRemoved(this, treeName);
+        }
+        return deleted;
       }
       catch (DatabaseException e)
       {
@@ -417,6 +461,10 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     {
       try
       {
+        if (recordCountsEnabled)
+        {
+          return recordCounts.getRecordCount(this, treeName);
+        }
         return getOrOpenTree(treeName).count();
       }
       catch (DatabaseException e)
@@ -425,12 +473,34 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
       }
     }
 
+    /** Returns whether the records of the tree are counted, tracking the trees written during an import. */
+    private boolean isCounted(TreeName treeName)
+    {
+      if (importedTrees != null)
+      {
+        importedTrees.add(treeName);
+        return false;
+      }
+      return recordCountsEnabled && recordCounts.isCounted(this, treeName);
+    }
+
     @Override
     public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
     {
       try
       {
-        return new CursorImpl(getOrOpenTree(treeName).openCursor(txn, CursorConfig.READ_COMMITTED));
+        return new CursorImpl(getOrOpenTree(treeName).openCursor(txn, CursorConfig.READ_COMMITTED))
+        {
+          @Override
+          public void delete()
+          {
+            super.delete();
+            if (isCounted(treeName))
+            {
+              recordCounts.recordRemoved(WriteableTransactionImpl.this, treeName);
+            }
+          }
+        };
       }
       catch (DatabaseException e)
       {
@@ -472,7 +542,12 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
           }
           if (newValue == null)
           {
-            return tree.delete(txn, dbKey) == SUCCESS;
+            final boolean deleted = tree.delete(txn, dbKey) == SUCCESS;
+            if (deleted && isCounted(treeName))
+            {
+              recordCounts.recordRemoved(this, treeName);
+            }
+            return deleted;
           }
           setData(dbValue, newValue);
           if (isDefined)
@@ -481,6 +556,10 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
           }
           else if (tree.putNoOverwrite(txn, dbKey, dbValue) == SUCCESS)
           {
+            if (isCounted(treeName))
+            {
+              recordCounts.recordAdded(this, treeName);
+            }
             return true;
           }
           // else retry due to phantom read: another thread inserted a record
@@ -496,6 +575,10 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     public void openTree(final TreeName treeName, boolean createOnDemand)
     {
       getOrOpenTree(treeName);
+      if (createOnDemand && recordCountsEnabled && !recordCounts.isCounted(this, treeName))
+      {
+        recordCounts.countTree(this, treeName);
+      }
     }
 
     @Override
@@ -508,6 +591,10 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
           closeSilently(trees.remove(treeName));
           env.removeDatabase(txn, toDatabaseName(treeName));
         }
+        if (recordCountsEnabled)
+        {
+          recordCounts.removeCount(this, treeName);
+        }
       }
       catch (DatabaseNotFoundException e)
       {
@@ -608,6 +695,11 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
   private DiskSpaceMonitor diskMonitor;
   private StorageStatus storageStatus = StorageStatus.working();
   private final ConcurrentMap<TreeName, Database> trees = new ConcurrentHashMap<>();
+  private RecordCounts recordCounts;
+  /** Whether the tree holding the record counts exists, and the counts can be used. */
+  private boolean recordCountsEnabled;
+  /** The trees written during an import, which do not maintain the record counts, or {@code null} out of imports. */
+  private Set<TreeName> importedTrees;
 
   /**
    * Creates a new JE storage with the provided configuration.
@@ -692,6 +784,8 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
   @Override
   public void close()
   {
+    recordCountsEnabled = false;
+    importedTrees = null;
     synchronized (trees)
     {
       closeSilently(trees.values());
@@ -731,6 +825,47 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     Reject.ifNull(accessMode, "accessMode must not be null");
     buildConfiguration(accessMode, false);
     open0();
+    openRecordCounts();
+  }
+
+  /**
+   * Makes the record counts available, counting once the records of the trees created before the counts were
+   * maintained.
+   */
+  private void openRecordCounts()
+  {
+    final Set<TreeName> treeNames = listTrees();
+    if (!accessMode.isWriteable())
+    {
+      recordCountsEnabled = treeNames.contains(RecordCounts.TREE_NAME);
+      return;
+    }
+    try
+    {
+      write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.openTree(RecordCounts.TREE_NAME, true);
+          recordCountsEnabled = true;
+          final List<TreeName> uncountedTrees = recordCounts.getUncountedTrees(txn, treeNames);
+          if (!uncountedTrees.isEmpty())
+          {
+            logger.info(NOTE_BACKEND_COUNTING_TREE_RECORDS, config.getBackendId(), uncountedTrees.size());
+            for (TreeName treeName : uncountedTrees)
+            {
+              recordCounts.countTree(txn, treeName);
+            }
+          }
+        }
+      });
+    }
+    catch (Exception e)
+    {
+      recordCountsEnabled = false;
+      throw new StorageRuntimeException(e);
+    }
   }
 
   private void open0() throws ConfigException
@@ -744,6 +879,7 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
             "Database is already open, either the backend is enabled or an import is currently running.");
       }
       env = new Environment(backendDirectory, envConfig);
+      recordCounts = new RecordCounts();
       monitor = new JEMonitor(config.getBackendId() + " JE Database", env);
       DirectoryServer.registerMonitorProvider(monitor);
     }
@@ -776,6 +912,7 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
   {
     buildConfiguration(AccessMode.READ_WRITE, true);
     open0();
+    importedTrees = Collections.newSetFromMap(new ConcurrentHashMap<TreeName, Boolean>());
     return new ImporterImpl();
   }
 
@@ -788,10 +925,13 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
   public void write(final WriteOperation operation) throws Exception
   {
     final Transaction txn = beginTransaction();
+    final WriteableTransaction writeableTxn = newWriteableTransaction(txn);
+    boolean committed = false;
     try
     {
-      operation.run(newWriteableTransaction(txn));
+      operation.run(writeableTxn);
       commit(txn);
+      committed = true;
     }
     catch (final StorageRuntimeException e)
     {
@@ -804,6 +944,7 @@ public final class JEStorage implements Storage, Backupable, ConfigurationChange
     finally
     {
       abort(txn);
+      recordCounts.transactionEnded(writeableTxn, committed);
     }
   }
 
@@ -0,0 +1,142 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Caches the most recently used blocks of the tables, up to a total size in bytes.
+ * <p>
+ * The cache is split into segments, each of them being a LRU map protected by its own lock, so that concurrent reads
+ * of different blocks rarely contend. Blocks are never invalidated: the table numbers are never reused, so the blocks
+ * of the deleted tables are evicted as any other block which is not used anymore.
+ */
+final class BlockCache
+{
+  /** Must be a power of 2. */
+  private static final int SEGMENT_COUNT = 16;
+  /** The approximate memory used by each cached block, in addition to its content. */
+  private static final int BLOCK_OVERHEAD = 128;
+
+  /** A LRU map of blocks, keyed by table number and offset. */
+  private static final class Segment
+  {
+    private final LinkedHashMap<Long, ByteString> blocks = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+
+    private synchronized ByteString get(Long key)
+    {
+      return blocks.get(key);
+    }
+
+    private synchronized void put(Long key, ByteString block, long capacity)
+    {
+      final ByteString previous = blocks.put(key, block);
+      size += block.length() + BLOCK_OVERHEAD;
+      if (previous != null)
+      {
+        size -= previous.length() + BLOCK_OVERHEAD;
+      }
+      final Iterator<ByteString> it = blocks.values().iterator();
+      while (size > capacity && it.hasNext())
+      {
+        size -= it.next().length() + BLOCK_OVERHEAD;
+        it.remove();
+      }
+    }
+
+    private synchronized long size()
+    {
+      return size;
+    }
+  }
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+  private volatile long segmentCapacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  BlockCache(long capacity)
+  {
+    for (int i = 0; i < segments.length; i++)
+    {
+      segments[i] = new Segment();
+    }
+    setCapacity(capacity);
+  }
+
+  /**
+   * Changes the capacity of the cache, which is enforced as blocks are added.
+   *
+   * @param capacity
+   *          the new capacity of the cache, in bytes
+   */
+  void setCapacity(long capacity)
+  {
+    segmentCapacity = capacity / SEGMENT_COUNT;
+  }
+
+  ByteString get(long tableNumber, long offset)
+  {
+    final Long key = key(tableNumber, offset);
+    final ByteString block = segment(key).get(key);
+    (block != null ? hits : misses).incrementAndGet();
+    return block;
+  }
+
+  void put(long tableNumber, long offset, ByteString block)
+  {
+    final Long key = key(tableNumber, offset);
+    segment(key).put(key, block, segmentCapacity);
+  }
+
+  private static Long key(long tableNumber, long offset)
+  {
+    // Tables are much smaller than 1 TB
+    return (tableNumber << 40) | offset;
+  }
+
+  private Segment segment(Long key)
+  {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return segments[(int) (h >>> 60) & (SEGMENT_COUNT - 1)];
+  }
+
+  long size()
+  {
+    long size = 0;
+    for (Segment segment : segments)
+    {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  long getHits()
+  {
+    return hits.get();
+  }
+
+  long getMisses()
+  {
+    return misses.get();
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * A bloom filter over the keys of a {@link SSTable}, allowing reads to skip the tables which do not contain a key.
+ * <p>
+ * The bit positions of a key are derived from a single 64 bits hash of the key, using double hashing.
+ */
+final class BloomFilter
+{
+  private final long[] bits;
+  private final int hashCount;
+
+  private BloomFilter(long[] bits, int hashCount)
+  {
+    this.bits = bits;
+    this.hashCount = hashCount;
+  }
+
+  /**
+   * Creates a bloom filter holding the provided keys.
+   *
+   * @param keyHashes
+   *          the hashes of the keys, computed with {@link #hash(ByteSequence)}
+   * @param keyCount
+   *          the number of hashes to read from the array
+   * @param bitsPerKey
+   *          the number of bits of the filter per key, which must be positive
+   * @return a new bloom filter holding the provided keys
+   */
+  static BloomFilter create(long[] keyHashes, int keyCount, int bitsPerKey)
+  {
+    // k = ln(2) * bits per key minimizes the false positive rate
+    final int hashCount = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+    final long bitCount = Math.max(64, (long) keyCount * bitsPerKey);
+    final BloomFilter filter = new BloomFilter(new long[(int) ((bitCount + 63) / 64)], hashCount);
+    for (int i = 0; i < keyCount; i++)
+    {
+      filter.add(keyHashes[i]);
+    }
+    return filter;
+  }
+
+  private void add(long hash)
+  {
+    final long bitCount = bits.length * 64L;
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++)
+    {
+      final long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bitCount;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /**
+   * Returns whether the filter may hold the key with the provided hash.
+   *
+   * @param hash
+   *          the hash of the key, computed with {@link #hash(ByteSequence)}
+   * @return {@code false} if the key is certainly not held by the filter
+   */
+  boolean mightContain(long hash)
+  {
+    final long bitCount = bits.length * 64L;
+    final int h1 = (int) hash;
+    final int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < hashCount; i++)
+    {
+      final long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bitCount;
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the 64 bits hash of the provided key.
+   *
+   * @param key
+   *          the key
+   * @return the hash of the key
+   */
+  static long hash(ByteSequence key)
+  {
+    // FNV-1a, followed by the finalization mix of MurmurHash3 to spread the bits
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < key.length(); i++)
+    {
+      h ^= key.byteAt(i) & 0xFF;
+      h *= 0x100000001B3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  void writeTo(ByteStringBuilder builder)
+  {
+    builder.appendInt(hashCount);
+    builder.appendInt(bits.length);
+    for (long word : bits)
+    {
+      builder.appendLong(word);
+    }
+  }
+
+  static BloomFilter readFrom(ByteSequenceReader reader)
+  {
+    final int hashCount = reader.readInt();
+    final long[] bits = new long[reader.readInt()];
+    for (int i = 0; i < bits.length; i++)
+    {
+      bits[i] = reader.readLong();
+    }
+    return new BloomFilter(bits, hashCount);
+  }
+}
@@ -0,0 +1,1931 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.backends.lsm.WriteBatch.TreeUpdate;
+import org.opends.server.backends.pluggable.spi.StorageInUseException;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * A log-structured merge-tree database, holding the records of all its trees in immutable sorted tables.
+ * <p>
+ * The committed updates are appended to a write-ahead log and applied to an in-memory sorted table, the memtable.
+ * When the memtable is full, it is replaced by a new one with its own log, and a background thread writes it to a new
+ * table of level 0. Another background thread compacts the tables: the tables of level 0 are merged into level 1, and
+ * when a level grows bigger than its target size, one of its tables is merged into the next level, dropping the
+ * versions of the records which are not visible anymore.
+ * <p>
+ * Each commit gets a sequence number. Readers work on a {@link Snapshot}, made of the current {@link Version} of the
+ * database and of the sequence number of the last commit, and ignore the versions written after it. Transactions are
+ * optimistic: a commit fails with a {@link ConflictException} if a record it writes was modified by another commit
+ * since its snapshot was taken.
+ * <p>
+ * During imports, the database is opened in bulk load mode: the updates are not logged and share a single sequence
+ * number, and the memtables are written to tables when the database is closed.
+ */
+final class LSMDatabase
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The value of the versions of the deleted records, compared by reference. */
+  static final ByteString TOMBSTONE = ByteString.wrap(new byte[0]);
+  /** The sequence number of the versions written by a transaction which is not committed yet. */
+  static final long UNCOMMITTED = Long.MAX_VALUE;
+
+  static final int LEVEL_COUNT = 7;
+  /** The number of level 0 tables triggering their compaction into level 1. */
+  private static final int L0_COMPACTION_TRIGGER = 4;
+  /** The number of level 0 tables from which the writes are slowed down. */
+  private static final int L0_SLOWDOWN_TRIGGER = 8;
+  /** The number of level 0 tables from which the writes wait for the compactions. */
+  private static final int L0_STOP_TRIGGER = 12;
+  /** The number of full memtables from which the writes wait for the memtables to be written to tables. */
+  private static final int MAX_IMMUTABLE_MEMTABLES = 2;
+  private static final long TARGET_TABLE_SIZE = 32L * MB;
+  /** The target size of level 1, the target size of each next level being ten times bigger. */
+  private static final long LEVEL1_MAX_SIZE = 256L * MB;
+  private static final String LOCK_FILE = "LOCK";
+  private static final String TABLE_SUFFIX = ".sst";
+  private static final String LOG_SUFFIX = ".log";
+
+  private static final Comparator<SSTable> BY_SMALLEST_KEY = new Comparator<SSTable>()
+  {
+    @Override
+    public int compare(SSTable t1, SSTable t2)
+    {
+      return t1.getInfo().getSmallestKey().compareTo(t2.getInfo().getSmallestKey());
+    }
+  };
+
+  /** Thrown when a transaction cannot commit because a record it writes was modified since its snapshot was taken. */
+  @SuppressWarnings("serial")
+  static final class ConflictException extends RuntimeException
+  {
+    ConflictException()
+    {
+      // Conflicts are expected and retried: do not fill the stack trace
+      super(null, null, false, false);
+    }
+  }
+
+  /** The state published by each commit: its sequence number and the trees of the database. */
+  private static final class Head
+  {
+    private final long sequence;
+    private final Map<String, Integer> trees;
+    private final Set<Integer> treeIds;
+
+    private Head(long sequence, Map<String, Integer> trees)
+    {
+      this.sequence = sequence;
+      this.trees = Collections.unmodifiableMap(trees);
+      this.treeIds = Collections.unmodifiableSet(new HashSet<>(trees.values()));
+    }
+
+    private Head(long sequence, Head previous)
+    {
+      this.sequence = sequence;
+      this.trees = previous.trees;
+      this.treeIds = previous.treeIds;
+    }
+  }
+
+  /** The tables of a level to merge with the overlapping tables of the next level. */
+  private static final class Compaction
+  {
+    private final int level;
+    private final List<SSTable> inputs;
+    private final List<SSTable> nextLevelInputs;
+    private final ByteString smallestKey;
+    private final ByteString largestKey;
+
+    private Compaction(int level, List<SSTable> inputs, List<SSTable> nextLevelInputs, ByteString smallestKey,
+        ByteString largestKey)
+    {
+      this.level = level;
+      this.inputs = inputs;
+      this.nextLevelInputs = nextLevelInputs;
+      this.smallestKey = smallestKey;
+      this.largestKey = largestKey;
+    }
+  }
+
+  /** A consistent view of the database, which must be closed once used. */
+  final class Snapshot implements Closeable
+  {
+    private final Version version;
+    private final long sequence;
+    private final Map<String, Integer> trees;
+    private boolean closed;
+
+    private Snapshot(Version version, long sequence, Map<String, Integer> trees)
+    {
+      this.version = version;
+      this.sequence = sequence;
+      this.trees = trees;
+    }
+
+    long getSequence()
+    {
+      return sequence;
+    }
+
+    Integer getTreeId(String treeName)
+    {
+      return trees.get(treeName);
+    }
+
+    Set<String> getTreeNames()
+    {
+      return trees.keySet();
+    }
+
+    /**
+     * Returns the value of a record.
+     *
+     * @param recordKey
+     *          the key of the record, prefixed by the identifier of its tree
+     * @return the value of the record, or {@code null} if the record does not exist in this snapshot
+     */
+    ByteString get(ByteString recordKey)
+    {
+      final ByteString value = LSMDatabase.this.get(version, recordKey, sequence);
+      return value != TOMBSTONE ? value : null;
+    }
+
+    /**
+     * Returns an iterator over all the versions of the records of this snapshot, including the ones which are not
+     * visible from it.
+     *
+     * @param batch
+     *          the uncommitted updates to iterate over in addition to the ones of the snapshot, or {@code null}
+     * @return an iterator over all the versions of the records
+     */
+    MergingIterator newIterator(WriteBatch batch)
+    {
+      final List<RecordIterator> sources = new ArrayList<>();
+      if (batch != null)
+      {
+        sources.add(batch.iterator());
+      }
+      sources.add(version.getMemTable().iterator());
+      for (MemTable memTable : version.getImmutableMemTables())
+      {
+        sources.add(memTable.iterator());
+      }
+      for (SSTable table : version.getTables(0))
+      {
+        sources.add(table.iterator());
+      }
+      for (int level = 1; level < LEVEL_COUNT; level++)
+      {
+        if (!version.getTables(level).isEmpty())
+        {
+          sources.add(new LevelIterator(version.getTables(level)));
+        }
+      }
+      return new MergingIterator(sources);
+    }
+
+    @Override
+    public void close()
+    {
+      if (!closed)
+      {
+        closed = true;
+        releaseSnapshot(this);
+      }
+    }
+  }
+
+  private final String backendId;
+  private final File directory;
+  private final boolean readOnly;
+  private final boolean bulkLoad;
+  private final BlockCache blockCache;
+  private volatile long writeBufferSize;
+  private volatile int bloomFilterBitsPerKey;
+  /** The size from which the compactions start a new table, in bytes. */
+  private volatile long targetTableSize = TARGET_TABLE_SIZE;
+  /** The target size of level 1, in bytes. */
+  private volatile long level1MaxSize = LEVEL1_MAX_SIZE;
+
+  /** Serializes the commits and the changes of version, and guards the fields below which are not volatile. */
+  private final ReentrantLock lock = new ReentrantLock();
+  /** Signaled when the background threads may have some work to do. */
+  private final Condition backgroundWork = lock.newCondition();
+  /** Signaled when the background threads have done some work, or failed. */
+  private final Condition backgroundWorkDone = lock.newCondition();
+  /** Prevents switching the memtable while bulk loading threads write to it. */
+  private final ReentrantReadWriteLock bulkLoadLock = new ReentrantReadWriteLock();
+  private volatile Version current;
+  private volatile Head head;
+  /** Guards the references to the versions and the snapshots. */
+  private final Object snapshotLock = new Object();
+  /** The number of open snapshots, keyed by sequence number. */
+  private final NavigableMap<Long, Integer> snapshots = new TreeMap<>();
+  private final AtomicLong nextFileNumber = new AtomicLong(1);
+  private final AtomicInteger nextTreeId = new AtomicInteger(1);
+  /** The sequence numbers of the deletions of the trees, while their records may still be read by a snapshot. */
+  private final Map<Integer, Long> treeDeletions = new ConcurrentHashMap<>();
+  private long manifestNumber;
+  /** The number of the oldest write-ahead log whose updates are not written to the tables. */
+  private long logNumber;
+  private WriteAheadLog log;
+  private final ByteStringBuilder logRecord = new ByteStringBuilder();
+  /** The largest key of the last table compacted from each level, from which the next compaction starts. */
+  private final ByteString[] compactPointers = new ByteString[LEVEL_COUNT];
+  /** The sequence number of all the updates of a bulk load. */
+  private long bulkSequence;
+  private FileChannel lockChannel;
+  private FileLock fileLock;
+  private Thread flushThread;
+  private Thread compactionThread;
+  private volatile boolean closing;
+  private volatile Throwable backgroundError;
+
+  /** Guards the deletion of the files, which are kept while a backup is running. */
+  private final Object deletionLock = new Object();
+  private int backupCount;
+  private final List<File> pendingDeletions = new ArrayList<>();
+
+  private final AtomicLong commitCount = new AtomicLong();
+  private final AtomicLong conflictCount = new AtomicLong();
+  private final AtomicLong writeStallCount = new AtomicLong();
+  private final AtomicLong logSyncCount = new AtomicLong();
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong compactionCount = new AtomicLong();
+  private final AtomicLong compactionBytesRead = new AtomicLong();
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private final AtomicLong bloomFilterNegatives = new AtomicLong();
+
+  /**
+   * Creates a new database, which must then be opened.
+   *
+   * @param backendId
+   *          the identifier of the backend owning the database
+   * @param directory
+   *          the directory of the database
+   * @param cacheSize
+   *          the size of the cache of the table blocks, in bytes
+   * @param writeBufferSize
+   *          the size from which a memtable is written to a table, in bytes
+   * @param bloomFilterBitsPerKey
+   *          the number of bits per key of the bloom filters of the new tables, 0 for no bloom filters
+   * @param readOnly
+   *          whether the database is opened read-only, in which case its files are not modified
+   * @param bulkLoad
+   *          whether the database is opened for a bulk load
+   */
+  LSMDatabase(String backendId, File directory, long cacheSize, long writeBufferSize, int bloomFilterBitsPerKey,
+      boolean readOnly, boolean bulkLoad)
+  {
+    this.backendId = backendId;
+    this.directory = directory;
+    this.blockCache = new BlockCache(cacheSize);
+    this.writeBufferSize = writeBufferSize;
+    this.bloomFilterBitsPerKey = bloomFilterBitsPerKey;
+    this.readOnly = readOnly;
+    this.bulkLoad = bulkLoad;
+  }
+
+  static ByteString recordKey(int treeId, ByteSequence key)
+  {
+    return new ByteStringBuilder(4 + key.length()).appendInt(treeId).appendBytes(key).toByteString();
+  }
+
+  static ByteString treePrefix(int treeId)
+  {
+    return new ByteStringBuilder(4).appendInt(treeId).toByteString();
+  }
+
+  static int treeId(ByteString recordKey)
+  {
+    return recordKey.toInt();
+  }
+
+  /**
+   * Opens the database, replaying the write-ahead logs of the updates which were not written to the tables.
+   *
+   * @throws IOException
+   *           if the database could not be opened
+   * @throws StorageInUseException
+   *           if the database is already used by another backend or process
+   */
+  void open() throws IOException
+  {
+    lockDirectory();
+    try
+    {
+      recover();
+      if (!readOnly)
+      {
+        flushThread = new DirectoryThread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            runFlushes();
+          }
+        }, "LSM flush thread for backend " + backendId);
+        compactionThread = new DirectoryThread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            runCompactions();
+          }
+        }, "LSM compaction thread for backend " + backendId);
+        flushThread.start();
+        compactionThread.start();
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      StaticUtils.close(log);
+      log = null;
+      if (current != null)
+      {
+        synchronized (snapshotLock)
+        {
+          release(current);
+        }
+      }
+      unlockDirectory();
+      throw e;
+    }
+  }
+
+  private void lockDirectory() throws IOException
+  {
+    lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), CREATE, WRITE);
+    try
+    {
+      fileLock = lockChannel.tryLock();
+    }
+    catch (OverlappingFileLockException e)
+    {
+      fileLock = null;
+    }
+    if (fileLock == null)
+    {
+      StaticUtils.close(lockChannel);
+      lockChannel = null;
+      throw new StorageInUseException(ERR_LSM_DIRECTORY_IN_USE.get(directory).toString());
+    }
+  }
+
+  private void unlockDirectory()
+  {
+    if (lockChannel != null)
+    {
+      // Closing the channel releases the lock
+      StaticUtils.close(lockChannel);
+      lockChannel = null;
+      fileLock = null;
+    }
+  }
+
+  private void recover() throws IOException
+  {
+    final String[] fileNames = listFileNames();
+    Manifest manifest = Manifest.read(directory, LEVEL_COUNT);
+    if (manifest == null)
+    {
+      for (String fileName : fileNames)
+      {
+        if (fileName.endsWith(TABLE_SUFFIX))
+        {
+          throw new IOException(ERR_LSM_NO_MANIFEST.get(directory).toString());
+        }
+      }
+      manifest = new Manifest(LEVEL_COUNT);
+    }
+    else
+    {
+      manifestNumber = Manifest.getNumber(Manifest.getCurrentFileName(directory));
+    }
+
+    long greatestFileNumber = manifest.nextFileNumber - 1;
+    final Set<Long> logNumbers = new TreeSet<>();
+    for (String fileName : fileNames)
+    {
+      final long number = Math.max(fileNumber(fileName), Manifest.getNumber(fileName));
+      greatestFileNumber = Math.max(greatestFileNumber, number);
+      if (fileName.endsWith(LOG_SUFFIX) && number >= manifest.logNumber)
+      {
+        logNumbers.add(number);
+      }
+    }
+    nextFileNumber.set(greatestFileNumber + 1);
+    nextTreeId.set(manifest.nextTreeId);
+    logNumber = manifest.logNumber;
+    head = new Head(manifest.lastSequence, manifest.trees);
+
+    final List<List<SSTable>> levels = new ArrayList<>(LEVEL_COUNT);
+    try
+    {
+      for (List<TableInfo> infos : manifest.levels)
+      {
+        final List<SSTable> tables = new ArrayList<>(infos.size());
+        levels.add(tables);
+        for (TableInfo info : infos)
+        {
+          tables.add(SSTable.open(directory, info, blockCache));
+        }
+      }
+
+      final MemTable recovered = replayLogs(logNumbers);
+      if (readOnly)
+      {
+        // The files cannot be modified: the recovered updates are kept in memory
+        current = new Version(recovered, Collections.<MemTable> emptyList(), levels);
+        return;
+      }
+      if (!recovered.isEmpty())
+      {
+        levels.get(0).addAll(0, openTables(writeTables(recovered.iterator(), Long.MAX_VALUE, false, false)));
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      for (List<SSTable> tables : levels)
+      {
+        for (SSTable table : tables)
+        {
+          // Closes the file of the table
+          table.retain();
+          table.release();
+        }
+      }
+      throw e;
+    }
+
+    final long number = nextFileNumber.getAndIncrement();
+    logNumber = number;
+    final MemTable memTable;
+    if (bulkLoad)
+    {
+      // No write-ahead log: the import is restarted from scratch if the server stops
+      memTable = new MemTable(0);
+      bulkSequence = head.sequence + 1;
+      head = new Head(bulkSequence, head);
+    }
+    else
+    {
+      log = new WriteAheadLog(new File(directory, WriteAheadLog.fileName(number)), logSyncCount);
+      memTable = new MemTable(number);
+    }
+    current = new Version(memTable, Collections.<MemTable> emptyList(), levels);
+    writeManifest(levels);
+    deleteObsoleteFiles();
+  }
+
+  private MemTable replayLogs(Set<Long> logNumbers) throws IOException
+  {
+    final MemTable memTable = new MemTable(0);
+    final AtomicLong count = new AtomicLong();
+    for (long number : logNumbers)
+    {
+      final File file = new File(directory, WriteAheadLog.fileName(number));
+      final boolean truncated = WriteAheadLog.replay(file, new WriteAheadLog.RecordHandler()
+      {
+        @Override
+        public void handle(ByteString record)
+        {
+          final WriteBatch batch = WriteBatch.decode(record);
+          apply(batch, batch.getSequence(), memTable);
+          count.incrementAndGet();
+        }
+      });
+      if (truncated)
+      {
+        logger.warn(WARN_LSM_LOG_TRUNCATED, file, backendId);
+      }
+    }
+    if (count.get() > 0)
+    {
+      logger.info(NOTE_LSM_RECOVERED_UPDATES, backendId, count.get());
+    }
+    return memTable;
+  }
+
+  private String[] listFileNames()
+  {
+    final String[] fileNames = directory.list();
+    return fileNames != null ? fileNames : new String[0];
+  }
+
+  /**
+   * Returns the number of a table or of a write-ahead log file.
+   *
+   * @param fileName
+   *          the name of a file of the database
+   * @return the number of the file, or -1 if it is neither a table nor a write-ahead log
+   */
+  private static long fileNumber(String fileName)
+  {
+    final int dot = fileName.indexOf('.');
+    if (dot > 0 && (fileName.endsWith(TABLE_SUFFIX) || fileName.endsWith(LOG_SUFFIX)))
+    {
+      try
+      {
+        return Long.parseLong(fileName.substring(0, dot));
+      }
+      catch (NumberFormatException e)
+      {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /** Deletes the files left by a previous run: obsolete tables, logs and manifests, and temporary files. */
+  private void deleteObsoleteFiles()
+  {
+    final Set<Long> tableNumbers = new HashSet<>();
+    for (List<SSTable> tables : current.getLevels())
+    {
+      for (SSTable table : tables)
+      {
+        tableNumbers.add(table.getInfo().getNumber());
+      }
+    }
+    for (String fileName : listFileNames())
+    {
+      final long manifest = Manifest.getNumber(fileName);
+      if ((fileName.endsWith(TABLE_SUFFIX) && !tableNumbers.contains(fileNumber(fileName)))
+          || (fileName.endsWith(LOG_SUFFIX) && fileNumber(fileName) < logNumber)
+          || (manifest >= 0 && manifest != manifestNumber)
+          || fileName.endsWith(".tmp"))
+      {
+        deleteFile(new File(directory, fileName));
+      }
+    }
+  }
+
+  private void deleteObsoleteLogs()
+  {
+    for (String fileName : listFileNames())
+    {
+      if (fileName.endsWith(LOG_SUFFIX) && fileNumber(fileName) < logNumber)
+      {
+        deleteFile(new File(directory, fileName));
+      }
+    }
+  }
+
+  /**
+   * Deletes a file which is not used anymore, unless a backup is running, in which case it is deleted at the end of
+   * the backup.
+   */
+  private void deleteFile(File file)
+  {
+    synchronized (deletionLock)
+    {
+      if (backupCount > 0)
+      {
+        pendingDeletions.add(file);
+      }
+      else
+      {
+        file.delete();
+      }
+    }
+  }
+
+  /** Writes a new manifest describing the provided levels. Must be called with the lock held, or while opening. */
+  private void writeManifest(List<List<SSTable>> levels) throws IOException
+  {
+    final long number = nextFileNumber.getAndIncrement();
+    final Manifest manifest = new Manifest(LEVEL_COUNT);
+    final Head h = head;
+    manifest.lastSequence = h.sequence;
+    manifest.logNumber = logNumber;
+    manifest.nextFileNumber = nextFileNumber.get();
+    manifest.nextTreeId = nextTreeId.get();
+    manifest.trees.putAll(h.trees);
+    for (int level = 0; level < LEVEL_COUNT; level++)
+    {
+      final List<TableInfo> infos = new ArrayList<>();
+      for (SSTable table : levels.get(level))
+      {
+        infos.add(table.getInfo());
+      }
+      manifest.levels.set(level, infos);
+    }
+    manifest.write(directory, number);
+
+    final long previousNumber = manifestNumber;
+    manifestNumber = number;
+    if (previousNumber > 0)
+    {
+      deleteFile(new File(directory, Manifest.fileName(previousNumber)));
+    }
+  }
+
+  /** Makes the provided version the current one. */
+  private void installVersion(Version version)
+  {
+    synchronized (snapshotLock)
+    {
+      final Version previous = current;
+      current = version;
+      release(previous);
+    }
+  }
+
+  /** Releases a reference to a version, deleting its obsolete tables once it is not referenced anymore. */
+  private void release(Version version)
+  {
+    if (--version.references == 0)
+    {
+      for (List<SSTable> tables : version.getLevels())
+      {
+        for (SSTable table : tables)
+        {
+          if (table.release() && table.isObsolete())
+          {
+            deleteFile(table.getFile());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the last committed state of the database.
+   *
+   * @return a snapshot of the database, which must be closed once used
+   */
+  Snapshot getSnapshot()
+  {
+    synchronized (snapshotLock)
+    {
+      final Head h = head;
+      final Version version = current;
+      version.references++;
+      final Integer count = snapshots.get(h.sequence);
+      snapshots.put(h.sequence, count != null ? count + 1 : 1);
+      return new Snapshot(version, h.sequence, h.trees);
+    }
+  }
+
+  private void releaseSnapshot(Snapshot snapshot)
+  {
+    synchronized (snapshotLock)
+    {
+      final int count = snapshots.get(snapshot.sequence);
+      if (count == 1)
+      {
+        snapshots.remove(snapshot.sequence);
+      }
+      else
+      {
+        snapshots.put(snapshot.sequence, count - 1);
+      }
+      release(snapshot.version);
+    }
+  }
+
+  /** Returns the sequence number of the oldest snapshot, all the versions visible from it must be kept. */
+  private long getOldestSnapshot()
+  {
+    synchronized (snapshotLock)
+    {
+      return snapshots.isEmpty() ? head.sequence : snapshots.firstKey();
+    }
+  }
+
+  private ByteString get(Version version, ByteString key, long sequence)
+  {
+    ByteString value = version.getMemTable().get(key, sequence);
+    if (value != null)
+    {
+      return value;
+    }
+    for (MemTable memTable : version.getImmutableMemTables())
+    {
+      value = memTable.get(key, sequence);
+      if (value != null)
+      {
+        return value;
+      }
+    }
+
+    final long hash = BloomFilter.hash(key);
+    for (SSTable table : version.getTables(0))
+    {
+      if (table.isInRange(key))
+      {
+        value = get(table, key, hash, sequence);
+        if (value != null)
+        {
+          return value;
+        }
+      }
+    }
+    for (int level = 1; level < LEVEL_COUNT; level++)
+    {
+      final SSTable table = version.findTable(level, key);
+      if (table != null)
+      {
+        value = get(table, key, hash, sequence);
+        if (value != null)
+        {
+          return value;
+        }
+      }
+    }
+    return null;
+  }
+
+  private ByteString get(SSTable table, ByteString key, long hash, long sequence)
+  {
+    if (!table.mightContain(hash))
+    {
+      bloomFilterNegatives.incrementAndGet();
+      return null;
+    }
+    return table.get(key, sequence);
+  }
+
+  int allocateTreeId()
+  {
+    return nextTreeId.getAndIncrement();
+  }
+
+  private void reserveTreeId(int treeId)
+  {
+    for (;;)
+    {
+      final int next = nextTreeId.get();
+      if (next > treeId || nextTreeId.compareAndSet(next, treeId + 1))
+      {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Commits a batch of updates.
+   *
+   * @param batch
+   *          the updates to commit
+   * @param snapshotSequence
+   *          the sequence number of the snapshot from which the updates were computed
+   * @param sync
+   *          whether to wait for the updates to be forced to the disk
+   * @throws ConflictException
+   *           if a record or a tree updated by the batch was modified after the snapshot
+   * @throws IOException
+   *           if the updates could not be written
+   */
+  void write(WriteBatch batch, long snapshotSequence, boolean sync) throws IOException
+  {
+    if (batch.isEmpty())
+    {
+      return;
+    }
+    final WriteAheadLog commitLog;
+    final long position;
+    lock.lock();
+    try
+    {
+      throwIfFailed();
+      makeRoomForWrite();
+      if (hasConflict(batch, snapshotSequence))
+      {
+        conflictCount.incrementAndGet();
+        throw new ConflictException();
+      }
+      final long sequence = head.sequence + 1;
+      logRecord.clear();
+      batch.encode(sequence, logRecord);
+      try
+      {
+        position = log.append(logRecord);
+      }
+      catch (IOException e)
+      {
+        // The log may end with a partial record, the next ones would not be replayed
+        fail(e);
+        throw e;
+      }
+      finally
+      {
+        logRecord.clearAndTruncate(MB, 4 * KB);
+      }
+      commitLog = log;
+      apply(batch, sequence, current.getMemTable());
+      commitCount.incrementAndGet();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    if (sync)
+    {
+      // Group commit: outside of the lock, so that the next commits can be appended meanwhile
+      commitLog.sync(position);
+    }
+  }
+
+  /** Applies a batch of updates to a memtable, then publishes them. */
+  private void apply(WriteBatch batch, long sequence, MemTable memTable)
+  {
+    Map<String, Integer> trees = null;
+    if (!batch.getTreeUpdates().isEmpty())
+    {
+      trees = new HashMap<>(head.trees);
+      for (TreeUpdate update : batch.getTreeUpdates())
+      {
+        if (update.isCreate())
+        {
+          trees.put(update.getName(), update.getId());
+          reserveTreeId(update.getId());
+        }
+        else
+        {
+          trees.remove(update.getName());
+          treeDeletions.put(update.getId(), sequence);
+        }
+      }
+    }
+    for (Map.Entry<ByteString, ByteString> record : batch.getRecords().entrySet())
+    {
+      memTable.put(record.getKey(), sequence, record.getValue());
+    }
+    head = trees != null ? new Head(sequence, trees) : new Head(sequence, head);
+  }
+
+  /** Returns whether the trees or the records updated by a batch were modified after its snapshot. */
+  private boolean hasConflict(WriteBatch batch, long snapshotSequence)
+  {
+    final Head h = head;
+    if (h.sequence == snapshotSequence)
+    {
+      return false;
+    }
+    Set<Integer> treeIds = h.treeIds;
+    if (!batch.getTreeUpdates().isEmpty())
+    {
+      final Map<String, Integer> trees = new HashMap<>(h.trees);
+      for (TreeUpdate update : batch.getTreeUpdates())
+      {
+        final Integer treeId = trees.get(update.getName());
+        if (update.isCreate())
+        {
+          if (treeId != null)
+          {
+            return true;
+          }
+          trees.put(update.getName(), update.getId());
+        }
+        else
+        {
+          if (treeId == null || treeId != update.getId())
+          {
+            return true;
+          }
+          trees.remove(update.getName());
+        }
+      }
+      treeIds = new HashSet<>(trees.values());
+    }
+
+    final Version version = current;
+    for (ByteString key : batch.getRecords().keySet())
+    {
+      if (!treeIds.contains(treeId(key)) || isModifiedAfter(version, key, snapshotSequence))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isModifiedAfter(Version version, ByteString key, long sequence)
+  {
+    if (isModifiedAfter(version.getMemTable(), key, sequence))
+    {
+      return true;
+    }
+    for (MemTable memTable : version.getImmutableMemTables())
+    {
+      if (isModifiedAfter(memTable, key, sequence))
+      {
+        return true;
+      }
+    }
+    long hash = 0;
+    boolean hashed = false;
+    for (List<SSTable> tables : version.getLevels())
+    {
+      for (SSTable table : tables)
+      {
+        if (table.getInfo().getMaxSequence() > sequence && table.isInRange(key))
+        {
+          if (!hashed)
+          {
+            hash = BloomFilter.hash(key);
+            hashed = true;
+          }
+          if (table.mightContain(hash) && table.latestSequence(key) > sequence)
+          {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isModifiedAfter(MemTable memTable, ByteString key, long sequence)
+  {
+    return memTable.getMaxSequence() > sequence && memTable.latestSequence(key) > sequence;
+  }
+
+  /**
+   * Switches the memtable if it is full, slowing down or stopping the writes while the background threads cannot keep
+   * up. Must be called with the lock held.
+   */
+  private void makeRoomForWrite() throws IOException
+  {
+    boolean delayed = false;
+    for (;;)
+    {
+      throwIfFailed();
+      final Version version = current;
+      final int level0Tables = version.getTables(0).size();
+      if (!delayed && level0Tables >= L0_SLOWDOWN_TRIGGER)
+      {
+        // Delay each write a little, rather than stopping all of them for a long time when the limit is reached
+        delayed = true;
+        awaitBackgroundWork(1);
+      }
+      else if (version.getMemTable().size() < writeBufferSize)
+      {
+        return;
+      }
+      else if (version.getImmutableMemTables().size() >= MAX_IMMUTABLE_MEMTABLES || level0Tables >= L0_STOP_TRIGGER)
+      {
+        writeStallCount.incrementAndGet();
+        awaitBackgroundWork(100);
+      }
+      else
+      {
+        switchMemTable();
+      }
+    }
+  }
+
+  private void awaitBackgroundWork(long millis) throws IOException
+  {
+    try
+    {
+      backgroundWorkDone.await(millis, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /** Replaces the full memtable by a new one, with a new write-ahead log. Must be called with the lock held. */
+  private void switchMemTable() throws IOException
+  {
+    final Version version = current;
+    final MemTable memTable;
+    if (log != null)
+    {
+      final long number = nextFileNumber.getAndIncrement();
+      log.close();
+      log = new WriteAheadLog(new File(directory, WriteAheadLog.fileName(number)), logSyncCount);
+      memTable = new MemTable(number);
+    }
+    else
+    {
+      memTable = new MemTable(0);
+    }
+    final List<MemTable> immutableMemTables = new ArrayList<>();
+    immutableMemTables.add(version.getMemTable());
+    immutableMemTables.addAll(version.getImmutableMemTables());
+    installVersion(new Version(memTable, immutableMemTables, version.getLevels()));
+    backgroundWork.signalAll();
+  }
+
+  private void throwIfFailed() throws IOException
+  {
+    final Throwable error = backgroundError;
+    if (error != null)
+    {
+      throw new IOException(
+          ERR_LSM_BACKGROUND_WORK_FAILED.get(backendId, stackTraceToSingleLineString(error)).toString(), error);
+    }
+  }
+
+  /** Records a failure to write the tables, after which the updates are rejected until the database is reopened. */
+  private void fail(Throwable error)
+  {
+    logger.error(ERR_LSM_BACKGROUND_WORK_FAILED, backendId, stackTraceToSingleLineString(error));
+    lock.lock();
+    try
+    {
+      if (backgroundError == null)
+      {
+        backgroundError = error;
+      }
+      backgroundWork.signalAll();
+      backgroundWorkDone.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes a record during a bulk load, without any transaction.
+   *
+   * @param recordKey
+   *          the key of the record, prefixed by the identifier of its tree
+   * @param value
+   *          the value of the record
+   * @throws IOException
+   *           if the memtable could not be written to a table
+   */
+  void bulkPut(ByteString recordKey, ByteString value) throws IOException
+  {
+    final Lock readLock = bulkLoadLock.readLock();
+    readLock.lock();
+    try
+    {
+      current.getMemTable().put(recordKey, bulkSequence, value);
+    }
+    finally
+    {
+      readLock.unlock();
+    }
+    if (current.getMemTable().size() >= writeBufferSize)
+    {
+      final Lock writeLock = bulkLoadLock.writeLock();
+      writeLock.lock();
+      lock.lock();
+      try
+      {
+        makeRoomForWrite();
+      }
+      finally
+      {
+        lock.unlock();
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Creates a tree during a bulk load, if it does not exist.
+   *
+   * @param treeName
+   *          the name of the tree
+   * @return the identifier of the tree
+   */
+  int bulkCreateTree(String treeName)
+  {
+    lock.lock();
+    try
+    {
+      Integer treeId = head.trees.get(treeName);
+      if (treeId == null)
+      {
+        treeId = allocateTreeId();
+        final WriteBatch batch = new WriteBatch();
+        batch.createTree(treeName, treeId);
+        apply(batch, bulkSequence, current.getMemTable());
+      }
+      return treeId;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Deletes a tree during a bulk load, if it exists. Its records are dropped by the next compactions.
+   *
+   * @param treeName
+   *          the name of the tree
+   */
+  void bulkDeleteTree(String treeName)
+  {
+    lock.lock();
+    try
+    {
+      final Integer treeId = head.trees.get(treeName);
+      if (treeId != null)
+      {
+        final WriteBatch batch = new WriteBatch();
+        batch.deleteTree(treeName, treeId);
+        apply(batch, bulkSequence, current.getMemTable());
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void runFlushes()
+  {
+    try
+    {
+      MemTable memTable;
+      while ((memTable = awaitImmutableMemTable()) != null)
+      {
+        flush(memTable);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException | RuntimeException e)
+    {
+      fail(e);
+    }
+  }
+
+  /** Waits for a memtable to write to a table, returning the oldest one or {@code null} when closing. */
+  private MemTable awaitImmutableMemTable() throws InterruptedException
+  {
+    lock.lock();
+    try
+    {
+      while (!closing && backgroundError == null)
+      {
+        final List<MemTable> immutableMemTables = current.getImmutableMemTables();
+        if (!immutableMemTables.isEmpty())
+        {
+          return immutableMemTables.get(immutableMemTables.size() - 1);
+        }
+        backgroundWork.await();
+      }
+      return null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Writes an immutable memtable to a level 0 table, then removes it from the database. */
+  private void flush(MemTable memTable) throws IOException
+  {
+    final List<SSTable> tables = openTables(writeTables(memTable.iterator(), Long.MAX_VALUE, false, false));
+    lock.lock();
+    try
+    {
+      final Version version = current;
+      final List<MemTable> immutableMemTables = new ArrayList<>(version.getImmutableMemTables());
+      immutableMemTables.remove(memTable);
+      final List<List<SSTable>> levels = version.copyLevels();
+      levels.get(0).addAll(0, tables);
+
+      // The logs of the flushed memtables are not needed anymore
+      final MemTable oldest = immutableMemTables.isEmpty()
+          ? version.getMemTable() : immutableMemTables.get(immutableMemTables.size() - 1);
+      final long previousLogNumber = logNumber;
+      logNumber = oldest.getLogNumber() != 0 ? oldest.getLogNumber() : nextFileNumber.get();
+      try
+      {
+        writeManifest(levels);
+      }
+      catch (IOException | RuntimeException e)
+      {
+        logNumber = previousLogNumber;
+        discard(tables);
+        throw e;
+      }
+      installVersion(new Version(version.getMemTable(), immutableMemTables, levels));
+      deleteObsoleteLogs();
+      flushCount.incrementAndGet();
+      backgroundWork.signalAll();
+      backgroundWorkDone.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Writes all the memtables to tables, when closing the database. */
+  private void flushMemTables() throws IOException
+  {
+    for (;;)
+    {
+      final MemTable memTable;
+      lock.lock();
+      try
+      {
+        final Version version = current;
+        if (version.getImmutableMemTables().isEmpty())
+        {
+          if (version.getMemTable().isEmpty())
+          {
+            return;
+          }
+          // The new memtable has no log, so that all the logs become obsolete
+          installVersion(new Version(new MemTable(0), Collections.singletonList(version.getMemTable()),
+              version.getLevels()));
+        }
+        final List<MemTable> immutableMemTables = current.getImmutableMemTables();
+        memTable = immutableMemTables.get(immutableMemTables.size() - 1);
+      }
+      finally
+      {
+        lock.unlock();
+      }
+      flush(memTable);
+    }
+  }
+
+  private void runCompactions()
+  {
+    try
+    {
+      Compaction compaction;
+      while ((compaction = awaitCompaction()) != null)
+      {
+        compact(compaction);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException | RuntimeException e)
+    {
+      if (!closing)
+      {
+        fail(e);
+      }
+    }
+  }
+
+  /** Waits for a level to need a compaction, returning the compaction to run or {@code null} when closing. */
+  private Compaction awaitCompaction() throws InterruptedException
+  {
+    lock.lock();
+    try
+    {
+      while (!closing && backgroundError == null)
+      {
+        final Compaction compaction = pickCompaction(current);
+        if (compaction != null)
+        {
+          return compaction;
+        }
+        backgroundWork.await();
+      }
+      return null;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private long maxLevelSize(int level)
+  {
+    long size = level1MaxSize;
+    for (int i = 1; i < level; i++)
+    {
+      size *= 10;
+    }
+    return size;
+  }
+
+  /** Returns the compaction of the level exceeding the most its target, or {@code null} if none exceeds it. */
+  private Compaction pickCompaction(Version version)
+  {
+    int level = -1;
+    double bestScore = 1;
+    for (int i = 0; i < LEVEL_COUNT - 1; i++)
+    {
+      final double score = i == 0 ? (double) version.getTables(0).size() / L0_COMPACTION_TRIGGER
+                                  : (double) version.getLevelSize(i) / maxLevelSize(i);
+      if (score >= bestScore)
+      {
+        level = i;
+        bestScore = score;
+      }
+    }
+    if (level == -1)
+    {
+      return null;
+    }
+
+    final List<SSTable> inputs;
+    if (level == 0)
+    {
+      // Level 0 tables overlap, they are all compacted together
+      inputs = new ArrayList<>(version.getTables(0));
+    }
+    else
+    {
+      // Compact the tables of the level in turn, starting after the last compacted one
+      final List<SSTable> tables = version.getTables(level);
+      SSTable input = tables.get(0);
+      if (compactPointers[level] != null)
+      {
+        for (SSTable table : tables)
+        {
+          if (table.getInfo().getSmallestKey().compareTo(compactPointers[level]) > 0)
+          {
+            input = table;
+            break;
+          }
+        }
+      }
+      inputs = Collections.singletonList(input);
+    }
+
+    ByteString smallest = null;
+    ByteString largest = null;
+    for (SSTable input : inputs)
+    {
+      final TableInfo info = input.getInfo();
+      if (smallest == null || info.getSmallestKey().compareTo(smallest) < 0)
+      {
+        smallest = info.getSmallestKey();
+      }
+      if (largest == null || info.getLargestKey().compareTo(largest) > 0)
+      {
+        largest = info.getLargestKey();
+      }
+    }
+    return new Compaction(level, inputs, version.getOverlappingTables(level + 1, smallest, largest), smallest,
+        largest);
+  }
+
+  private void compact(Compaction compaction) throws IOException
+  {
+    if (compaction.inputs.size() == 1 && compaction.nextLevelInputs.isEmpty())
+    {
+      // Nothing to merge with, the table is moved to the next level without being rewritten
+      installCompaction(compaction, compaction.inputs);
+      return;
+    }
+
+    final List<RecordIterator> sources = new ArrayList<>();
+    if (compaction.level == 0)
+    {
+      for (SSTable table : compaction.inputs)
+      {
+        sources.add(table.iterator());
+      }
+    }
+    else
+    {
+      sources.add(new LevelIterator(compaction.inputs));
+    }
+    sources.add(new LevelIterator(compaction.nextLevelInputs));
+    final boolean dropTombstones = isBaseLevel(compaction.level + 1, compaction.smallestKey, compaction.largestKey);
+    final List<TableInfo> outputs;
+    try (MergingIterator input = new MergingIterator(sources))
+    {
+      outputs = writeTables(input, targetTableSize, dropTombstones, true);
+    }
+    if (outputs == null)
+    {
+      return;
+    }
+
+    final List<SSTable> tables = openTables(outputs);
+    try
+    {
+      installCompaction(compaction, tables);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      discard(tables);
+      throw e;
+    }
+    for (SSTable table : compaction.inputs)
+    {
+      compactionBytesRead.addAndGet(table.getInfo().getSize());
+    }
+    for (SSTable table : compaction.nextLevelInputs)
+    {
+      compactionBytesRead.addAndGet(table.getInfo().getSize());
+    }
+    compactionCount.incrementAndGet();
+  }
+
+  /** Returns whether no level deeper than the provided one holds keys in the provided range. */
+  private boolean isBaseLevel(int level, ByteString smallest, ByteString largest)
+  {
+    // Only the compaction thread changes the levels other than level 0
+    final Version version = current;
+    for (int i = level + 1; i < LEVEL_COUNT; i++)
+    {
+      if (!version.getOverlappingTables(i, smallest, largest).isEmpty())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void installCompaction(Compaction compaction, List<SSTable> outputs) throws IOException
+  {
+    lock.lock();
+    try
+    {
+      final Version version = current;
+      final List<List<SSTable>> levels = version.copyLevels();
+      levels.get(compaction.level).removeAll(compaction.inputs);
+      final List<SSTable> nextLevel = levels.get(compaction.level + 1);
+      nextLevel.removeAll(compaction.nextLevelInputs);
+      nextLevel.addAll(outputs);
+      Collections.sort(nextLevel, BY_SMALLEST_KEY);
+      writeManifest(levels);
+
+      compactPointers[compaction.level] = compaction.largestKey;
+      if (outputs != compaction.inputs)
+      {
+        for (SSTable table : compaction.inputs)
+        {
+          table.markObsolete();
+        }
+        for (SSTable table : compaction.nextLevelInputs)
+        {
+          table.markObsolete();
+        }
+      }
+      installVersion(new Version(version.getMemTable(), version.getImmutableMemTables(), levels));
+      backgroundWork.signalAll();
+      backgroundWorkDone.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the visible versions of the records to new tables.
+   *
+   * @param input
+   *          the versions to write
+   * @param targetSize
+   *          the size from which a new table is started
+   * @param dropTombstones
+   *          whether the deletions can be dropped, because no deeper level holds the deleted records
+   * @param abortable
+   *          whether to give up when the database is closing
+   * @return the descriptions of the written tables, or {@code null} if given up
+   * @throws IOException
+   *           if the tables could not be written
+   */
+  private List<TableInfo> writeTables(RecordIterator input, long targetSize, boolean dropTombstones,
+      boolean abortable) throws IOException
+  {
+    final long oldestSnapshot = getOldestSnapshot();
+    final Set<Integer> liveTreeIds = head.treeIds;
+    final Iterator<Long> deletions = treeDeletions.values().iterator();
+    while (deletions.hasNext())
+    {
+      // Equivalent to an unknown deletion from now on
+      if (deletions.next() <= oldestSnapshot)
+      {
+        deletions.remove();
+      }
+    }
+
+    final List<TableInfo> outputs = new ArrayList<>();
+    SSTableWriter writer = null;
+    try
+    {
+      ByteString previousKey = null;
+      long previousSequence = 0;
+      int previousTreeId = -1;
+      boolean deletedTree = false;
+      for (input.seek(ByteString.empty()); input.isValid(); input.next())
+      {
+        if (abortable && closing)
+        {
+          deleteOutputs(writer, outputs);
+          return null;
+        }
+        final ByteString key = input.key();
+        final long sequence = input.sequence();
+        final boolean sameKey = key.equals(previousKey);
+        if (sameKey && (previousSequence <= oldestSnapshot || sequence >= previousSequence))
+        {
+          // Hidden by a more recent version, visible from all the snapshots
+          continue;
+        }
+        previousKey = key;
+        previousSequence = sequence;
+        final int treeId = treeId(key);
+        if (treeId != previousTreeId)
+        {
+          previousTreeId = treeId;
+          final Long deletion = treeDeletions.get(treeId);
+          deletedTree = !liveTreeIds.contains(treeId) && (deletion == null || deletion <= oldestSnapshot);
+        }
+        final ByteString value = input.value();
+        if (deletedTree || (dropTombstones && value == TOMBSTONE && sequence <= oldestSnapshot))
+        {
+          continue;
+        }
+
+        // All the versions of a record are written to the same table
+        if (writer != null && !sameKey && writer.size() >= targetSize)
+        {
+          outputs.add(writer.finish());
+          writer = null;
+        }
+        if (writer == null)
+        {
+          writer = new SSTableWriter(directory, nextFileNumber.getAndIncrement(), bloomFilterBitsPerKey);
+        }
+        writer.add(key, sequence, value);
+      }
+      if (writer != null)
+      {
+        outputs.add(writer.finish());
+        writer = null;
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      deleteOutputs(writer, outputs);
+      throw e;
+    }
+    for (TableInfo output : outputs)
+    {
+      bytesWritten.addAndGet(output.getSize());
+    }
+    return outputs;
+  }
+
+  private void deleteOutputs(SSTableWriter writer, List<TableInfo> outputs)
+  {
+    if (writer != null)
+    {
+      writer.abort();
+    }
+    for (TableInfo output : outputs)
+    {
+      new File(directory, TableInfo.fileName(output.getNumber())).delete();
+    }
+  }
+
+  private List<SSTable> openTables(List<TableInfo> infos) throws IOException
+  {
+    final List<SSTable> tables = new ArrayList<>(infos.size());
+    try
+    {
+      for (TableInfo info : infos)
+      {
+        tables.add(SSTable.open(directory, info, blockCache));
+      }
+      return tables;
+    }
+    catch (IOException | RuntimeException e)
+    {
+      discard(tables);
+      deleteOutputs(null, infos);
+      throw e;
+    }
+  }
+
+  private static void discard(List<SSTable> tables)
+  {
+    for (SSTable table : tables)
+    {
+      table.discard();
+    }
+  }
+
+  /**
+   * Returns the files to copy to back up the database, which are not deleted until {@link #endBackup()} is called.
+   *
+   * @return the files to back up
+   */
+  List<Path> startBackup()
+  {
+    synchronized (deletionLock)
+    {
+      backupCount++;
+    }
+    lock.lock();
+    try
+    {
+      final List<Path> files = new ArrayList<>();
+      files.add(new File(directory, Manifest.fileName(manifestNumber)).toPath());
+      for (List<SSTable> tables : current.getLevels())
+      {
+        for (SSTable table : tables)
+        {
+          files.add(table.getFile().toPath());
+        }
+      }
+      for (String fileName : listFileNames())
+      {
+        if (fileName.endsWith(LOG_SUFFIX) && fileNumber(fileName) >= logNumber)
+        {
+          files.add(new File(directory, fileName).toPath());
+        }
+      }
+      return files;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Ends a backup, deleting the files which became obsolete while it was running. */
+  void endBackup()
+  {
+    synchronized (deletionLock)
+    {
+      if (--backupCount == 0)
+      {
+        for (File file : pendingDeletions)
+        {
+          file.delete();
+        }
+        pendingDeletions.clear();
+      }
+    }
+  }
+
+  /**
+   * Closes the database, writing the memtables to tables so that no log needs to be replayed when it is reopened.
+   *
+   * @throws IOException
+   *           if the memtables could not be written
+   */
+  void close() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      closing = true;
+      backgroundWork.signalAll();
+      backgroundWorkDone.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+    join(flushThread);
+    join(compactionThread);
+    try
+    {
+      if (log != null)
+      {
+        log.close();
+      }
+      if (!readOnly && backgroundError == null)
+      {
+        flushMemTables();
+      }
+    }
+    finally
+    {
+      log = null;
+      synchronized (snapshotLock)
+      {
+        release(current);
+      }
+      unlockDirectory();
+    }
+  }
+
+  private static void join(Thread thread)
+  {
+    if (thread == null)
+    {
+      return;
+    }
+    boolean interrupted = false;
+    for (;;)
+    {
+      try
+      {
+        thread.join();
+        break;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void setCacheSize(long cacheSize)
+  {
+    blockCache.setCapacity(cacheSize);
+  }
+
+  void setWriteBufferSize(long writeBufferSize)
+  {
+    this.writeBufferSize = writeBufferSize;
+  }
+
+  void setBloomFilterBitsPerKey(int bloomFilterBitsPerKey)
+  {
+    this.bloomFilterBitsPerKey = bloomFilterBitsPerKey;
+  }
+
+  /**
+   * Changes the sizes driving the compactions, so that the levels deeper than level 1 can be filled with few records.
+   *
+   * @param targetTableSize
+   *          the size from which the compactions start a new table, in bytes
+   * @param level1MaxSize
+   *          the target size of level 1, in bytes, the target size of each next level being ten times bigger
+   */
+  void setLevelSizes(long targetTableSize, long level1MaxSize)
+  {
+    lock.lock();
+    try
+    {
+      this.targetTableSize = targetTableSize;
+      this.level1MaxSize = level1MaxSize;
+      backgroundWork.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  Set<String> getTreeNames()
+  {
+    return head.trees.keySet();
+  }
+
+  /**
+   * Returns the identifier of a tree in the last committed state, without taking a snapshot.
+   *
+   * @param treeName
+   *          the name of the tree
+   * @return the identifier of the tree, or {@code null} if it does not exist
+   */
+  Integer getTreeId(String treeName)
+  {
+    return head.trees.get(treeName);
+  }
+
+  long getLastSequence()
+  {
+    return head.sequence;
+  }
+
+  int getTableCount(int level)
+  {
+    return current.getTables(level).size();
+  }
+
+  long getLevelSize(int level)
+  {
+    return current.getLevelSize(level);
+  }
+
+  long getMemTableSize()
+  {
+    final Version version = current;
+    long size = version.getMemTable().size();
+    for (MemTable memTable : version.getImmutableMemTables())
+    {
+      size += memTable.size();
+    }
+    return size;
+  }
+
+  int getImmutableMemTableCount()
+  {
+    return current.getImmutableMemTables().size();
+  }
+
+  BlockCache getBlockCache()
+  {
+    return blockCache;
+  }
+
+  long getCommitCount()
+  {
+    return commitCount.get();
+  }
+
+  long getConflictCount()
+  {
+    return conflictCount.get();
+  }
+
+  long getWriteStallCount()
+  {
+    return writeStallCount.get();
+  }
+
+  long getLogSyncCount()
+  {
+    return logSyncCount.get();
+  }
+
+  long getFlushCount()
+  {
+    return flushCount.get();
+  }
+
+  long getCompactionCount()
+  {
+    return compactionCount.get();
+  }
+
+  long getCompactionBytesRead()
+  {
+    return compactionBytesRead.get();
+  }
+
+  long getBytesWritten()
+  {
+    return bytesWritten.get();
+  }
+
+  long getBloomFilterNegatives()
+  {
+    return bloomFilterNegatives.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return directory.getPath();
+  }
+}
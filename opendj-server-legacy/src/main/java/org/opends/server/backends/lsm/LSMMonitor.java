@@ -0,0 +1,69 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.server.backends.lsm.LSMDatabase.*;
+
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+
+/** Monitoring class for the LSM database, populating cn=monitor statistics from its counters. */
+class LSMMonitor extends MonitorProvider<MonitorProviderCfg>
+{
+  private final String name;
+  private final LSMDatabase db;
+
+  LSMMonitor(String name, LSMDatabase db)
+  {
+    this.name = name;
+    this.db = db;
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return name;
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final MonitorData monitorAttrs = new MonitorData();
+    monitorAttrs.add("LSMLastSequence", db.getLastSequence());
+    monitorAttrs.add("LSMMemTableSize", db.getMemTableSize());
+    monitorAttrs.add("LSMImmutableMemTableCount", db.getImmutableMemTableCount());
+    for (int level = 0; level < LEVEL_COUNT; level++)
+    {
+      monitorAttrs.add("LSMLevel" + level + "TableCount", db.getTableCount(level));
+      monitorAttrs.add("LSMLevel" + level + "Size", db.getLevelSize(level));
+    }
+    final BlockCache blockCache = db.getBlockCache();
+    monitorAttrs.add("LSMBlockCacheSize", blockCache.size());
+    monitorAttrs.add("LSMBlockCacheHits", blockCache.getHits());
+    monitorAttrs.add("LSMBlockCacheMisses", blockCache.getMisses());
+    monitorAttrs.add("LSMBloomFilterNegatives", db.getBloomFilterNegatives());
+    monitorAttrs.add("LSMCommitCount", db.getCommitCount());
+    monitorAttrs.add("LSMConflictCount", db.getConflictCount());
+    monitorAttrs.add("LSMWriteStallCount", db.getWriteStallCount());
+    monitorAttrs.add("LSMLogSyncCount", db.getLogSyncCount());
+    monitorAttrs.add("LSMFlushCount", db.getFlushCount());
+    monitorAttrs.add("LSMCompactionCount", db.getCompactionCount());
+    monitorAttrs.add("LSMCompactionBytesRead", db.getCompactionBytesRead());
+    monitorAttrs.add("LSMBytesWritten", db.getBytesWritten());
+    return monitorAttrs;
+  }
+}
@@ -0,0 +1,1148 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.backends.lsm.LSMDatabase.*;
+import static org.opends.server.backends.pluggable.spi.StorageUtils.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.config.server.ConfigChangeResult;
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.LSMBackendCfg;
+import org.forgerock.util.Reject;
+import org.opends.server.api.Backupable;
+import org.opends.server.api.DiskSpaceMonitorHandler;
+import org.opends.server.backends.lsm.LSMDatabase.Snapshot;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.RecordCounts;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.StorageUtils;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+import org.opends.server.util.BackupManager;
+
+/** Log-structured merge-tree implementation of the {@link Storage} engine. */
+public final class LSMStorage implements Storage, Backupable, ConfigurationChangeListener<LSMBackendCfg>,
+  DiskSpaceMonitorHandler
+{
+  private static final int IMPORT_DB_CACHE_SIZE = 32 * MB;
+
+  private static final double MAX_SLEEP_ON_RETRY_MS = 50.0;
+  /** The identifier of no tree, used to read the trees which do not exist. */
+  private static final int NO_TREE_ID = 0;
+
+  /** LSM implementation of the {@link Cursor} interface, iterating over the records of a tree in a snapshot. */
+  private final class CursorImpl implements Cursor<ByteString, ByteString>
+  {
+    private final MergingIterator iterator;
+    private final long sequence;
+    private final TreeName treeName;
+    private final int treeId;
+    private final ByteString treePrefix;
+    private final ByteString nextTreePrefix;
+    /** The transaction deleting the records, or {@code null} if the cursor cannot delete them. */
+    private final WriteableStorageImpl txn;
+    /** The snapshot owned by this cursor, or {@code null} if it belongs to its transaction. */
+    private final Snapshot snapshot;
+    private boolean positioned;
+    private ByteString currentKey;
+    private ByteString currentValue;
+
+    private CursorImpl(Snapshot snapshot, WriteBatch batch, TreeName treeName, int treeId, WriteableStorageImpl txn,
+        boolean ownsSnapshot)
+    {
+      this.iterator = snapshot.newIterator(batch);
+      this.sequence = snapshot.getSequence();
+      this.treeName = treeName;
+      this.treeId = treeId;
+      this.treePrefix = treePrefix(treeId);
+      this.nextTreePrefix = treePrefix(treeId + 1);
+      this.txn = txn;
+      this.snapshot = ownsSnapshot ? snapshot : null;
+    }
+
+    @Override
+    public void close()
+    {
+      iterator.close();
+      closeSilently(snapshot);
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return currentKey != null;
+    }
+
+    @Override
+    public ByteString getKey()
+    {
+      throwIfUndefined();
+      return currentKey.subSequence(treePrefix.length(), currentKey.length());
+    }
+
+    @Override
+    public ByteString getValue()
+    {
+      throwIfUndefined();
+      return currentValue;
+    }
+
+    @Override
+    public boolean next()
+    {
+      if (!positioned)
+      {
+        positioned = true;
+        iterator.seek(treePrefix);
+      }
+      return findVisibleRecord();
+    }
+
+    @Override
+    public void delete()
+    {
+      throwIfUndefined();
+      if (txn == null)
+      {
+        throw new UnsupportedOperationException();
+      }
+      txn.delete(treeName, getKey());
+    }
+
+    @Override
+    public boolean positionToKey(final ByteSequence key)
+    {
+      positioned = true;
+      final ByteString recordKey = recordKey(treeId, key);
+      iterator.seek(recordKey);
+      if (iterator.isValid() && iterator.key().equals(recordKey))
+      {
+        final ByteString value = readVisibleValue(recordKey);
+        if (value != null)
+        {
+          return setCurrent(recordKey, value);
+        }
+      }
+      return setCurrent(null, null);
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(final ByteSequence key)
+    {
+      positioned = true;
+      iterator.seek(recordKey(treeId, key));
+      return findVisibleRecord();
+    }
+
+    @Override
+    public boolean positionToIndex(int index)
+    {
+      positioned = true;
+      iterator.seek(treePrefix);
+      for (int i = 0; i <= index; i++)
+      {
+        if (!findVisibleRecord())
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      positioned = true;
+      ByteString key = nextTreePrefix;
+      while ((key = iterator.lowerKey(key)) != null && key.compareTo(treePrefix) >= 0)
+      {
+        iterator.seek(key);
+        final ByteString value = readVisibleValue(key);
+        if (value != null)
+        {
+          return setCurrent(key, value);
+        }
+      }
+      // Nothing left to iterate over
+      iterator.seek(nextTreePrefix);
+      return setCurrent(null, null);
+    }
+
+    /** Moves to the first visible record from the position of the iterator, in the tree. */
+    private boolean findVisibleRecord()
+    {
+      // The uncommitted updates may have changed since the last move
+      iterator.findCurrent();
+      while (iterator.isValid() && iterator.key().compareTo(nextTreePrefix) < 0)
+      {
+        final ByteString key = iterator.key();
+        final ByteString value = readVisibleValue(key);
+        if (value != null)
+        {
+          return setCurrent(key, value);
+        }
+      }
+      return setCurrent(null, null);
+    }
+
+    /**
+     * Reads all the versions of the record at the position of the iterator, returning the one visible from the
+     * snapshot. The iterator is left on the next record.
+     */
+    private ByteString readVisibleValue(ByteString key)
+    {
+      ByteString value = null;
+      for (; iterator.isValid() && iterator.key().equals(key); iterator.next())
+      {
+        final long versionSequence = iterator.sequence();
+        if (value == null && (versionSequence == UNCOMMITTED || versionSequence <= sequence))
+        {
+          value = iterator.value();
+        }
+      }
+      return value != TOMBSTONE ? value : null;
+    }
+
+    private boolean setCurrent(ByteString key, ByteString value)
+    {
+      currentKey = key;
+      currentValue = value;
+      return key != null;
+    }
+
+    private void throwIfUndefined()
+    {
+      if (!isDefined())
+      {
+        throw new NoSuchElementException();
+      }
+    }
+  }
+
+  /** LSM implementation of the {@link Importer} interface, bulk loading the records without transactions. */
+  private final class ImporterImpl implements Importer
+  {
+    @Override
+    public void close()
+    {
+      try
+      {
+        recordCounts.importCompleted(this, listTrees(), importedTrees);
+      }
+      finally
+      {
+        LSMStorage.this.close();
+      }
+    }
+
+    @Override
+    public void clearTree(final TreeName treeName)
+    {
+      importedTrees.add(treeName);
+      db.bulkDeleteTree(treeName.toString());
+      db.bulkCreateTree(treeName.toString());
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      if (!importedTrees.contains(treeName))
+      {
+        importedTrees.add(treeName);
+      }
+      Integer treeId = db.getTreeId(treeName.toString());
+      if (treeId == null)
+      {
+        treeId = db.bulkCreateTree(treeName.toString());
+      }
+      try
+      {
+        db.bulkPut(recordKey(treeId, key), value.toByteString());
+      }
+      catch (final IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      try (final Snapshot snapshot = db.getSnapshot())
+      {
+        final Integer treeId = snapshot.getTreeId(treeName.toString());
+        return treeId != null ? snapshot.get(recordKey(treeId, key)) : null;
+      }
+    }
+
+    @Override
+    public SequentialCursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      final Snapshot snapshot = db.getSnapshot();
+      final Integer treeId = snapshot.getTreeId(treeName.toString());
+      return new CursorImpl(snapshot, null, treeName, treeId != null ? treeId : NO_TREE_ID, null, true);
+    }
+  }
+
+  /** Common interface for internal WriteableTransaction implementations. */
+  private interface StorageImpl extends WriteableTransaction, Closeable
+  {
+    /**
+     * Commits the updates of the transaction.
+     *
+     * @throws IOException
+     *           if the updates could not be written
+     */
+    void commit() throws IOException;
+
+    @Override
+    void close();
+  }
+
+  /**
+   * LSM implementation of the {@link WriteableTransaction} interface. The transaction reads a snapshot of the
+   * database, and its updates are committed together when it ends.
+   */
+  private final class WriteableStorageImpl implements StorageImpl
+  {
+    private final Snapshot snapshot = db.getSnapshot();
+    private final WriteBatch batch = new WriteBatch();
+    /** The identifiers of the trees created or deleted by this transaction, {@code null} for the deleted ones. */
+    private final Map<String, Integer> treeIds = new HashMap<>();
+
+    private Integer getTreeId(TreeName treeName)
+    {
+      final String name = treeName.toString();
+      return treeIds.containsKey(name) ? treeIds.get(name) : snapshot.getTreeId(name);
+    }
+
+    private int getTreeIdOrNone(TreeName treeName)
+    {
+      final Integer treeId = getTreeId(treeName);
+      return treeId != null ? treeId : NO_TREE_ID;
+    }
+
+    private int getExistingTreeId(TreeName treeName)
+    {
+      final Integer treeId = getTreeId(treeName);
+      if (treeId == null)
+      {
+        throw new StorageRuntimeException("Tree " + treeName + " does not exist");
+      }
+      return treeId;
+    }
+
+    private ByteString read(ByteString recordKey)
+    {
+      final ByteString value = batch.get(recordKey);
+      if (value != null)
+      {
+        return value != TOMBSTONE ? value : null;
+      }
+      return snapshot.get(recordKey);
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      return read(recordKey(getTreeIdOrNone(treeName), key));
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      final ByteString recordKey = recordKey(getExistingTreeId(treeName), key);
+      if (isCounted(treeName) && read(recordKey) == null)
+      {
+        recordCounts.recordAdded(this, treeName);
+      }
+      batch.put(recordKey, value.toByteString());
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      final ByteString recordKey = recordKey(getTreeIdOrNone(treeName), key);
+      if (read(recordKey) == null)
+      {
+        return false;
+      }
+      batch.put(recordKey, TOMBSTONE);
+      if (isCounted(treeName))
+      {
+        recordCounts.recordRemoved(this, treeName);
+      }
+      return true;
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      final ByteString recordKey = recordKey(getTreeIdOrNone(treeName), key);
+      final ByteString oldValue = read(recordKey);
+      final ByteSequence newValue = f.computeNewValue(oldValue);
+      if (Objects.equals(newValue, oldValue))
+      {
+        return false;
+      }
+      if (newValue == null)
+      {
+        batch.put(recordKey, TOMBSTONE);
+      }
+      else
+      {
+        batch.put(recordKey(getExistingTreeId(treeName), key), newValue.toByteString());
+      }
+      if ((oldValue == null || newValue == null) && isCounted(treeName))
+      {
+        if (oldValue == null)
+        {
+          recordCounts.recordAdded(this, treeName);
+        }
+        else
+        {
+          recordCounts.recordRemoved(this, treeName);
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      final Integer treeId = getTreeId(treeName);
+      if (treeId != null)
+      {
+        batch.deleteTree(treeName.toString(), treeId);
+        treeIds.put(treeName.toString(), null);
+      }
+      if (recordCountsEnabled)
+      {
+        recordCounts.removeCount(this, treeName);
+      }
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      if (recordCountsEnabled)
+      {
+        return recordCounts.getRecordCount(this, treeName);
+      }
+      return RecordCounts.countRecords(openCursor(treeName));
+    }
+
+    /** Returns whether the records of the tree are counted, tracking the trees written during an import. */
+    private boolean isCounted(TreeName treeName)
+    {
+      if (importedTrees != null)
+      {
+        importedTrees.add(treeName);
+        return false;
+      }
+      return recordCountsEnabled && recordCounts.isCounted(this, treeName);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new CursorImpl(snapshot, batch, treeName, getTreeIdOrNone(treeName), this, false);
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        if (getTreeId(treeName) == null)
+        {
+          final int treeId = db.allocateTreeId();
+          batch.createTree(treeName.toString(), treeId);
+          treeIds.put(treeName.toString(), treeId);
+        }
+        if (recordCountsEnabled && !recordCounts.isCounted(this, treeName))
+        {
+          recordCounts.countTree(this, treeName);
+        }
+      }
+    }
+
+    @Override
+    public void commit() throws IOException
+    {
+      db.write(batch, snapshot.getSequence(), !config.isDBTxnNoSync());
+    }
+
+    @Override
+    public void close()
+    {
+      snapshot.close();
+    }
+  }
+
+  /** LSM read-only implementation of {@link StorageImpl} interface. */
+  private final class ReadOnlyStorageImpl implements StorageImpl
+  {
+    private final WriteableStorageImpl delegate;
+
+    ReadOnlyStorageImpl(WriteableStorageImpl delegate)
+    {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public ByteString read(TreeName treeName, ByteSequence key)
+    {
+      return delegate.read(treeName, key);
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(TreeName treeName)
+    {
+      return delegate.openCursor(treeName);
+    }
+
+    @Override
+    public long getRecordCount(TreeName treeName)
+    {
+      return delegate.getRecordCount(treeName);
+    }
+
+    @Override
+    public void openTree(TreeName treeName, boolean createOnDemand)
+    {
+      if (createOnDemand)
+      {
+        throw new ReadOnlyStorageException();
+      }
+    }
+
+    @Override
+    public void commit()
+    {
+      // nothing to commit
+    }
+
+    @Override
+    public void close()
+    {
+      delegate.close();
+    }
+
+    @Override
+    public void deleteTree(TreeName name)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public void put(TreeName treeName, ByteSequence key, ByteSequence value)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean update(TreeName treeName, ByteSequence key, UpdateFunction f)
+    {
+      throw new ReadOnlyStorageException();
+    }
+
+    @Override
+    public boolean delete(TreeName treeName, ByteSequence key)
+    {
+      throw new ReadOnlyStorageException();
+    }
+  }
+
+  private StorageImpl newStorageImpl()
+  {
+    final WriteableStorageImpl writeableStorage = new WriteableStorageImpl();
+    return accessMode.isWriteable() ? writeableStorage : new ReadOnlyStorageImpl(writeableStorage);
+  }
+
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+  private final ThreadLocal<Boolean> isInsideWriteTransaction = new ThreadLocal<Boolean>();
+
+  private final ServerContext serverContext;
+  private final File backendDirectory;
+  private AccessMode accessMode;
+  private LSMDatabase db;
+  private volatile LSMBackendCfg config;
+  private DiskSpaceMonitor diskMonitor;
+  private LSMMonitor monitor;
+  private MemoryQuota memQuota;
+  /** The memory acquired for the block cache. */
+  private long cacheSize;
+  private StorageStatus storageStatus = StorageStatus.working();
+  private RecordCounts recordCounts;
+  /** Whether the tree holding the record counts exists, and the counts can be used. */
+  private boolean recordCountsEnabled;
+  /** The trees written during an import, which do not maintain the record counts, or {@code null} out of imports. */
+  private Set<TreeName> importedTrees;
+  /** The files of the running backup, or {@code null} if no backup is running. */
+  private List<Path> backupFiles;
+
+  /**
+   * Creates a new LSM storage with the provided configuration.
+   *
+   * @param cfg
+   *          The configuration.
+   * @param serverContext
+   *          This server instance context
+   */
+  LSMStorage(final LSMBackendCfg cfg, ServerContext serverContext)
+  {
+    this.serverContext = serverContext;
+    backendDirectory = getBackendDirectory(cfg);
+    config = cfg;
+    cfg.addLSMChangeListener(this);
+  }
+
+  @Override
+  public void close()
+  {
+    recordCountsEnabled = false;
+    importedTrees = null;
+    if (db != null)
+    {
+      DirectoryServer.deregisterMonitorProvider(monitor);
+      monitor = null;
+      try
+      {
+        db.close();
+      }
+      catch (final IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+      finally
+      {
+        db = null;
+        memQuota.releaseMemory(cacheSize);
+        cacheSize = 0;
+      }
+    }
+    config.removeLSMChangeListener(this);
+    diskMonitor.deregisterMonitoredDirectory(getDirectory(), this);
+  }
+
+  @Override
+  public void open(AccessMode accessMode) throws ConfigException, StorageRuntimeException
+  {
+    Reject.ifNull(accessMode, "accessMode must not be null");
+    this.accessMode = accessMode;
+    open0(false);
+    openRecordCounts();
+  }
+
+  /**
+   * Makes the record counts available, counting once the records of the trees created before the counts were
+   * maintained.
+   */
+  private void openRecordCounts()
+  {
+    final Set<TreeName> treeNames = listTrees();
+    if (!accessMode.isWriteable())
+    {
+      recordCountsEnabled = treeNames.contains(RecordCounts.TREE_NAME);
+      return;
+    }
+    try
+    {
+      write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.openTree(RecordCounts.TREE_NAME, true);
+          recordCountsEnabled = true;
+          final List<TreeName> uncountedTrees = recordCounts.getUncountedTrees(txn, treeNames);
+          if (!uncountedTrees.isEmpty())
+          {
+            logger.info(NOTE_BACKEND_COUNTING_TREE_RECORDS, config.getBackendId(), uncountedTrees.size());
+            for (TreeName treeName : uncountedTrees)
+            {
+              recordCounts.countTree(txn, treeName);
+            }
+          }
+        }
+      });
+    }
+    catch (Exception e)
+    {
+      recordCountsEnabled = false;
+      throw new StorageRuntimeException(e);
+    }
+  }
+
+  private void open0(boolean bulkLoad) throws ConfigException
+  {
+    setupStorageFiles(backendDirectory, config.getDBDirectoryPermissions(), config.dn());
+    if (db != null)
+    {
+      throw new IllegalStateException(
+          "Database is already open, either the backend is enabled or an import is currently running.");
+    }
+    diskMonitor = serverContext.getDiskSpaceMonitor();
+    memQuota = serverContext.getMemoryQuota();
+    cacheSize = bulkLoad ? IMPORT_DB_CACHE_SIZE : computeSize(config);
+    memQuota.acquireMemory(cacheSize);
+
+    final LSMDatabase database = new LSMDatabase(config.getBackendId(), backendDirectory, cacheSize,
+        config.getDBWriteBufferSize(), config.getDBBloomFilterBitsPerKey(), !accessMode.isWriteable(), bulkLoad);
+    try
+    {
+      database.open();
+    }
+    catch (final IOException e)
+    {
+      memQuota.releaseMemory(cacheSize);
+      throw new StorageRuntimeException(e);
+    }
+    catch (final RuntimeException e)
+    {
+      memQuota.releaseMemory(cacheSize);
+      throw e;
+    }
+    db = database;
+    recordCounts = new RecordCounts();
+    logger.info(NOTE_LSM_MEMORY_CFG, config.getBackendId(), cacheSize / KB, config.getDBWriteBufferSize() / KB);
+
+    monitor = new LSMMonitor(config.getBackendId() + " LSM Database", db);
+    DirectoryServer.registerMonitorProvider(monitor);
+    registerMonitoredDirectory(config);
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> operation) throws Exception
+  {
+    // Snapshots do not lock anything, but this helps detecting bad business logic in the pluggable backend
+    throwIfNestedInWriteTransaction();
+
+    try (final StorageImpl storageImpl = newStorageImpl())
+    {
+      return operation.run(storageImpl);
+    }
+    catch (final StorageRuntimeException e)
+    {
+      if (e.getCause() != null)
+      {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    accessMode = AccessMode.READ_WRITE;
+    open0(true);
+    importedTrees = Collections.newSetFromMap(new ConcurrentHashMap<TreeName, Boolean>());
+    return new ImporterImpl();
+  }
+
+  @Override
+  public void write(final WriteOperation operation) throws Exception
+  {
+    throwIfNestedInWriteTransaction();
+
+    for (;;)
+    {
+      isInsideWriteTransaction.set(Boolean.TRUE);
+      try (final StorageImpl storageImpl = newStorageImpl())
+      {
+        boolean committed = false;
+        try
+        {
+          operation.run(storageImpl);
+          storageImpl.commit();
+          committed = true;
+          return;
+        }
+        catch (final StorageRuntimeException e)
+        {
+          if (e.getCause() != null)
+          {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+        finally
+        {
+          recordCounts.transactionEnded(storageImpl, committed);
+        }
+      }
+      catch (final ConflictException e)
+      {
+        // retry after random sleep (reduces transactions collision. Drawback: increased latency)
+        Thread.sleep((long) (Math.random() * MAX_SLEEP_ON_RETRY_MS));
+      }
+      finally
+      {
+        isInsideWriteTransaction.set(Boolean.FALSE);
+      }
+    }
+  }
+
+  /**
+   * A nested transaction within a write transaction would not see the uncommitted updates of the outer one, and
+   * would make it conflict if it writes the same records.
+   * <p>
+   * It would also be good to forbid any nested transactions, but it is impractical due to some
+   * transactions being deeply nested into the call hierarchy.
+   */
+  private void throwIfNestedInWriteTransaction()
+  {
+    if (Boolean.TRUE.equals(isInsideWriteTransaction.get()))
+    {
+      throw new IllegalStateException("OpenDJ does not support transactions nested in a write transaction. "
+          + "Code is forbidden from opening one.");
+    }
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return true;
+  }
+
+  @Override
+  public File getDirectory()
+  {
+    return getBackendDirectory(config);
+  }
+
+  private static File getBackendDirectory(LSMBackendCfg cfg)
+  {
+    return getDBDirectory(cfg.getDBDirectory(), cfg.getBackendId());
+  }
+
+  @Override
+  public ListIterator<Path> getFilesToBackup() throws DirectoryException
+  {
+    if (db == null)
+    {
+      return getFilesToBackupWhenOffline();
+    }
+    if (backupFiles != null)
+    {
+      return new ArrayList<>(backupFiles).listIterator();
+    }
+    final List<Path> files = db.startBackup();
+    db.endBackup();
+    return files.listIterator();
+  }
+
+  /** Filter to retrieve the database files to backup. */
+  private static final FileFilter BACKUP_FILES_FILTER = new FileFilter()
+  {
+    @Override
+    public boolean accept(File file)
+    {
+      String name = file.getName();
+      return name.matches("MANIFEST-\\d+") || name.matches("\\d+\\.(sst|log)");
+    }
+  };
+
+  /**
+   * Returns the list of files to backup when there is no open database.
+   * <p>
+   * The obsolete files of a database are deleted when it is opened, so all the files matching the filter are needed.
+   */
+  private ListIterator<Path> getFilesToBackupWhenOffline() throws DirectoryException
+  {
+    return BackupManager.getFiles(getDirectory(), BACKUP_FILES_FILTER, config.getBackendId()).listIterator();
+  }
+
+  @Override
+  public Path beforeRestore() throws DirectoryException
+  {
+    return null;
+  }
+
+  @Override
+  public boolean isDirectRestore()
+  {
+    // restore is done in an intermediate directory
+    return false;
+  }
+
+  @Override
+  public void afterRestore(Path restoreDirectory, Path saveDirectory) throws DirectoryException
+  {
+    // intermediate directory content is moved to database directory
+    File targetDirectory = getDirectory();
+    recursiveDelete(targetDirectory);
+    try
+    {
+      Files.move(restoreDirectory, targetDirectory.toPath());
+    }
+    catch(IOException e)
+    {
+      LocalizableMessage msg = ERR_CANNOT_RENAME_RESTORE_DIRECTORY.get(restoreDirectory, targetDirectory.getPath());
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), msg);
+    }
+  }
+
+  @Override
+  public void createBackup(BackupConfig backupConfig) throws DirectoryException
+  {
+    // The files are immutable, only their deletion must be delayed until the end of the backup
+    final LSMDatabase database = db;
+    if (database != null)
+    {
+      backupFiles = database.startBackup();
+    }
+    try
+    {
+      new BackupManager(config.getBackendId()).createBackup(this, backupConfig);
+    }
+    finally
+    {
+      if (database != null)
+      {
+        backupFiles = null;
+        database.endBackup();
+      }
+    }
+  }
+
+  @Override
+  public void removeBackup(BackupDirectory backupDirectory, String backupID) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(RestoreConfig restoreConfig) throws DirectoryException
+  {
+    new BackupManager(config.getBackendId()).restoreBackup(this, restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    final Set<String> treeNames = db.getTreeNames();
+    final Set<TreeName> results = new HashSet<>(treeNames.size());
+    for (String treeName : treeNames)
+    {
+      results.add(TreeName.valueOf(treeName));
+    }
+    return results;
+  }
+
+  @Override
+  public boolean isConfigurationChangeAcceptable(LSMBackendCfg newCfg,
+      List<LocalizableMessage> unacceptableReasons)
+  {
+    long newSize = computeSize(newCfg);
+    long oldSize = computeSize(config);
+    return (newSize <= oldSize || memQuota.isMemoryAvailable(newSize - oldSize))
+        && checkConfigurationDirectories(newCfg, unacceptableReasons);
+  }
+
+  private long computeSize(LSMBackendCfg cfg)
+  {
+    return cfg.getDBCacheSize() > 0 ? cfg.getDBCacheSize() : memQuota.memPercentToBytes(cfg.getDBCachePercent());
+  }
+
+  /**
+   * Checks newly created backend has a valid configuration.
+   * @param cfg the new configuration
+   * @param unacceptableReasons the list of accumulated errors and their messages
+   * @param context the server context
+   * @return true if newly created backend has a valid configuration
+   */
+  static boolean isConfigurationAcceptable(LSMBackendCfg cfg, List<LocalizableMessage> unacceptableReasons,
+      ServerContext context)
+  {
+    if (context != null)
+    {
+      MemoryQuota memQuota = context.getMemoryQuota();
+      if (cfg.getDBCacheSize() > 0 && !memQuota.isMemoryAvailable(cfg.getDBCacheSize()))
+      {
+        unacceptableReasons.add(ERR_BACKEND_CONFIG_CACHE_SIZE_GREATER_THAN_JVM_HEAP.get(
+            cfg.getDBCacheSize(), memQuota.getAvailableMemory()));
+        return false;
+      }
+      else if (!memQuota.isMemoryAvailable(memQuota.memPercentToBytes(cfg.getDBCachePercent())))
+      {
+        unacceptableReasons.add(ERR_BACKEND_CONFIG_CACHE_PERCENT_GREATER_THAN_JVM_HEAP.get(
+            cfg.getDBCachePercent(), memQuota.memBytesToPercent(memQuota.getAvailableMemory())));
+        return false;
+      }
+    }
+    return checkConfigurationDirectories(cfg, unacceptableReasons);
+  }
+
+  private static boolean checkConfigurationDirectories(LSMBackendCfg cfg,
+    List<LocalizableMessage> unacceptableReasons)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+    File newBackendDirectory = getBackendDirectory(cfg);
+
+    checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, true);
+    checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+    if (!ccr.getMessages().isEmpty())
+    {
+      unacceptableReasons.addAll(ccr.getMessages());
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public ConfigChangeResult applyConfigurationChange(LSMBackendCfg cfg)
+  {
+    final ConfigChangeResult ccr = new ConfigChangeResult();
+
+    try
+    {
+      File newBackendDirectory = getBackendDirectory(cfg);
+
+      // Create the directory if it doesn't exist.
+      if(!cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirExistsOrCanCreate(newBackendDirectory, ccr, false);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        ccr.setAdminActionRequired(true);
+        ccr.addMessage(NOTE_CONFIG_DB_DIR_REQUIRES_RESTART.get(config.getDBDirectory(), cfg.getDBDirectory()));
+      }
+
+      if (!cfg.getDBDirectoryPermissions().equalsIgnoreCase(config.getDBDirectoryPermissions())
+          || !cfg.getDBDirectory().equals(config.getDBDirectory()))
+      {
+        checkDBDirPermissions(cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+
+        setDBDirPermissions(newBackendDirectory, cfg.getDBDirectoryPermissions(), cfg.dn(), ccr);
+        if (!ccr.getMessages().isEmpty())
+        {
+          return ccr;
+        }
+      }
+      registerMonitoredDirectory(cfg);
+      if (db != null && importedTrees == null)
+      {
+        // Unlike the other storages, the cache and the memtables can be resized while the backend is running
+        final long newCacheSize = computeSize(cfg);
+        if (newCacheSize != cacheSize)
+        {
+          memQuota.acquireMemory(newCacheSize);
+          memQuota.releaseMemory(cacheSize);
+          cacheSize = newCacheSize;
+          db.setCacheSize(newCacheSize);
+        }
+        db.setWriteBufferSize(cfg.getDBWriteBufferSize());
+        db.setBloomFilterBitsPerKey(cfg.getDBBloomFilterBitsPerKey());
+      }
+      config = cfg;
+    }
+    catch (Exception e)
+    {
+      addErrorMessage(ccr, LocalizableMessage.raw(stackTraceToSingleLineString(e)));
+    }
+    return ccr;
+  }
+
+  private void registerMonitoredDirectory(LSMBackendCfg cfg)
+  {
+    diskMonitor.registerMonitoredDirectory(
+      cfg.getBackendId() + " backend",
+      getDirectory(),
+      cfg.getDiskLowThreshold(),
+      cfg.getDiskFullThreshold(),
+      this);
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    StorageUtils.removeStorageFiles(backendDirectory);
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storageStatus;
+  }
+
+  @Override
+  public void diskFullThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceFull(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskLowThresholdReached(File directory, long thresholdInBytes) {
+    storageStatus = statusWhenDiskSpaceLow(directory, thresholdInBytes, config.getBackendId());
+  }
+
+  @Override
+  public void diskSpaceRestored(File directory, long lowThresholdInBytes, long fullThresholdInBytes) {
+    storageStatus = StorageStatus.working();
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Iterates over the versions of the tables of a level other than level 0, whose tables are sorted and do not
+ * overlap. Only the table holding the current version is read.
+ */
+final class LevelIterator implements RecordIterator
+{
+  private final List<SSTable> tables;
+  private int tableIndex;
+  private RecordIterator current;
+
+  LevelIterator(List<SSTable> tables)
+  {
+    this.tables = tables;
+  }
+
+  /**
+   * Returns the index of the table of a level which may hold the provided key, or of the first table after the key.
+   *
+   * @param tables
+   *          the sorted tables of a level
+   * @param key
+   *          the key
+   * @return the index of the first table whose largest key is greater than or equal to the provided key, or the
+   *         number of tables if there is none
+   */
+  static int findTable(List<SSTable> tables, ByteString key)
+  {
+    int low = 0;
+    int high = tables.size();
+    while (low < high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (tables.get(mid).getInfo().getLargestKey().compareTo(key) < 0)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  @Override
+  public void seek(ByteString key)
+  {
+    tableIndex = findTable(tables, key);
+    current = tableIndex < tables.size() ? tables.get(tableIndex).iterator() : null;
+    if (current != null)
+    {
+      current.seek(key);
+      skipExhaustedTables();
+    }
+  }
+
+  private void skipExhaustedTables()
+  {
+    while (current != null && !current.isValid())
+    {
+      tableIndex++;
+      current = tableIndex < tables.size() ? tables.get(tableIndex).iterator() : null;
+      if (current != null)
+      {
+        current.seek(ByteString.empty());
+      }
+    }
+  }
+
+  @Override
+  public boolean isValid()
+  {
+    return current != null && current.isValid();
+  }
+
+  @Override
+  public void next()
+  {
+    current.next();
+    skipExhaustedTables();
+  }
+
+  @Override
+  public ByteString key()
+  {
+    return current.key();
+  }
+
+  @Override
+  public long sequence()
+  {
+    return current.sequence();
+  }
+
+  @Override
+  public ByteString value()
+  {
+    return current.value();
+  }
+
+  @Override
+  public ByteString lowerKey(ByteString key)
+  {
+    // The last table whose smallest key is lower than the key holds the lower key
+    for (int i = Math.min(findTable(tables, key), tables.size() - 1); i >= 0; i--)
+    {
+      final SSTable table = tables.get(i);
+      if (table.getInfo().getSmallestKey().compareTo(key) < 0)
+      {
+        return table.iterator().lowerKey(key);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close()
+  {
+    current = null;
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * The persistent state of a database: its trees, the tables of each level, and the write-ahead logs which must be
+ * replayed on startup.
+ * <p>
+ * A new manifest file is written each time the tables change, then the {@code CURRENT} file is atomically replaced
+ * to name it. When the {@code CURRENT} file is missing, for example after restoring a backup, the manifest with the
+ * greatest number is used.
+ */
+final class Manifest
+{
+  static final String CURRENT = "CURRENT";
+  private static final String PREFIX = "MANIFEST-";
+  private static final Pattern FILE_NAME = Pattern.compile(PREFIX + "(\\d+)");
+  private static final int FORMAT_VERSION = 1;
+
+  /** The sequence number of the last commit written to the tables. */
+  long lastSequence;
+  /** The number of the oldest write-ahead log whose updates are not written to the tables. */
+  long logNumber;
+  /** The next number to use for the files of the database. */
+  long nextFileNumber = 1;
+  /** The next identifier to use for the trees. */
+  int nextTreeId = 1;
+  /** The identifiers of the trees, keyed by tree name. */
+  final Map<String, Integer> trees = new TreeMap<>();
+  /** The tables of each level. */
+  final List<List<TableInfo>> levels = new ArrayList<>();
+
+  Manifest(int levelCount)
+  {
+    for (int i = 0; i < levelCount; i++)
+    {
+      levels.add(Collections.<TableInfo> emptyList());
+    }
+  }
+
+  static String fileName(long number)
+  {
+    return PREFIX + String.format("%06d", number);
+  }
+
+  /**
+   * Returns the number of a manifest file.
+   *
+   * @param fileName
+   *          the name of a file of the database
+   * @return the number of the manifest file, or -1 if the file is not a manifest
+   */
+  static long getNumber(String fileName)
+  {
+    final Matcher matcher = FILE_NAME.matcher(fileName);
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
+
+  /**
+   * Returns the name of the manifest file describing the database.
+   *
+   * @param directory
+   *          the directory of the database
+   * @return the name of the manifest file, or {@code null} if there is none
+   * @throws IOException
+   *           if the {@code CURRENT} file could not be read
+   */
+  static String getCurrentFileName(File directory) throws IOException
+  {
+    final File current = new File(directory, CURRENT);
+    if (current.exists())
+    {
+      return new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+    }
+    String fileName = null;
+    long greatestNumber = -1;
+    final String[] names = directory.list();
+    for (String name : names != null ? names : new String[0])
+    {
+      final long number = getNumber(name);
+      if (number > greatestNumber)
+      {
+        greatestNumber = number;
+        fileName = name;
+      }
+    }
+    return fileName;
+  }
+
+  /**
+   * Reads the manifest describing a database.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param levelCount
+   *          the number of levels of the database
+   * @return the manifest, or {@code null} if the database has none
+   * @throws IOException
+   *           if the manifest could not be read or is corrupted
+   */
+  static Manifest read(File directory, int levelCount) throws IOException
+  {
+    final String fileName = getCurrentFileName(directory);
+    if (fileName == null)
+    {
+      return null;
+    }
+    final File file = new File(directory, fileName);
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    if (bytes.length < 4)
+    {
+      throw new IOException(ERR_LSM_CORRUPTED_FILE.get(file, "truncated").toString());
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 4);
+    final ByteString content = ByteString.wrap(bytes);
+    if ((int) crc.getValue() != content.subSequence(bytes.length - 4, bytes.length).toInt())
+    {
+      throw new IOException(ERR_LSM_CORRUPTED_FILE.get(file, "checksum mismatch").toString());
+    }
+
+    final ByteSequenceReader reader = content.subSequence(0, bytes.length - 4).asReader();
+    final int version = reader.readCompactUnsignedInt();
+    if (version > FORMAT_VERSION)
+    {
+      throw new IOException(ERR_LSM_CORRUPTED_FILE.get(file, "unsupported version " + version).toString());
+    }
+    final Manifest manifest = new Manifest(levelCount);
+    manifest.lastSequence = reader.readCompactUnsignedLong();
+    manifest.logNumber = reader.readCompactUnsignedLong();
+    manifest.nextFileNumber = reader.readCompactUnsignedLong();
+    manifest.nextTreeId = reader.readCompactUnsignedInt();
+    for (int i = reader.readCompactUnsignedInt(); i > 0; i--)
+    {
+      final String name = reader.readStringUtf8(reader.readCompactUnsignedInt());
+      manifest.trees.put(name, reader.readCompactUnsignedInt());
+    }
+    final int levels = reader.readCompactUnsignedInt();
+    for (int level = 0; level < levels; level++)
+    {
+      final List<TableInfo> tables = new ArrayList<>();
+      for (int i = reader.readCompactUnsignedInt(); i > 0; i--)
+      {
+        tables.add(TableInfo.readFrom(reader));
+      }
+      manifest.levels.set(level, tables);
+    }
+    return manifest;
+  }
+
+  /**
+   * Writes this manifest to a new file, then makes it the current manifest.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param number
+   *          the number of the new manifest file
+   * @throws IOException
+   *           if the manifest could not be written
+   */
+  void write(File directory, long number) throws IOException
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder();
+    builder.appendCompactUnsigned(FORMAT_VERSION);
+    builder.appendCompactUnsigned(lastSequence);
+    builder.appendCompactUnsigned(logNumber);
+    builder.appendCompactUnsigned(nextFileNumber);
+    builder.appendCompactUnsigned(nextTreeId);
+    builder.appendCompactUnsigned(trees.size());
+    for (Map.Entry<String, Integer> tree : trees.entrySet())
+    {
+      final ByteString name = ByteString.valueOfUtf8(tree.getKey());
+      builder.appendCompactUnsigned(name.length()).appendBytes(name);
+      builder.appendCompactUnsigned(tree.getValue());
+    }
+    builder.appendCompactUnsigned(levels.size());
+    for (List<TableInfo> tables : levels)
+    {
+      builder.appendCompactUnsigned(tables.size());
+      for (TableInfo table : tables)
+      {
+        table.writeTo(builder);
+      }
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(builder.getBackingArray(), 0, builder.length());
+    builder.appendInt((int) crc.getValue());
+
+    final String fileName = fileName(number);
+    writeFile(new File(directory, fileName), builder);
+    final File tmp = new File(directory, CURRENT + ".tmp");
+    writeFile(tmp, new ByteStringBuilder().appendUtf8(fileName + "\n"));
+    Files.move(tmp.toPath(), new File(directory, CURRENT).toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  private static void writeFile(File file, ByteStringBuilder content) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, TRUNCATE_EXISTING, WRITE))
+    {
+      final ByteBuffer buffer = ByteBuffer.wrap(content.getBackingArray(), 0, content.length());
+      while (buffer.hasRemaining())
+      {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Buffers in memory the most recent versions of the records, until they are written to a level 0 table.
+ * <p>
+ * A memtable is written by a single thread at a time, but can be read concurrently by any number of threads.
+ */
+final class MemTable
+{
+  /** The approximate memory used by each version, in addition to its key and value. */
+  private static final int VERSION_OVERHEAD = 96;
+
+  /** A version of a record, sorted by ascending key then descending sequence number. */
+  private static final class Version implements Comparable<Version>
+  {
+    private final ByteString key;
+    private final long sequence;
+
+    private Version(ByteString key, long sequence)
+    {
+      this.key = key;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Version o)
+    {
+      final int cmp = key.compareTo(o.key);
+      return cmp != 0 ? cmp : Long.compare(o.sequence, sequence);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      return obj instanceof Version && compareTo((Version) obj) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return key.hashCode() * 31 + (int) (sequence ^ (sequence >>> 32));
+    }
+  }
+
+  private final ConcurrentSkipListMap<Version, ByteString> versions = new ConcurrentSkipListMap<>();
+  private final AtomicLong size = new AtomicLong();
+  /** The number of the write-ahead log file holding the updates of this memtable, 0 if they are not logged. */
+  private final long logNumber;
+  private volatile long maxSequence;
+
+  MemTable(long logNumber)
+  {
+    this.logNumber = logNumber;
+  }
+
+  long getLogNumber()
+  {
+    return logNumber;
+  }
+
+  /**
+   * Adds a version of a record.
+   *
+   * @param key
+   *          the key of the record
+   * @param sequence
+   *          the sequence number of the commit writing the version
+   * @param value
+   *          the value of the record, or {@link LSMDatabase#TOMBSTONE} if the record is deleted
+   */
+  void put(ByteString key, long sequence, ByteString value)
+  {
+    final ByteString previous = versions.put(new Version(key, sequence), value);
+    size.addAndGet(previous == null ? key.length() + value.length() + VERSION_OVERHEAD
+                                    : value.length() - previous.length());
+    if (sequence > maxSequence)
+    {
+      maxSequence = sequence;
+    }
+  }
+
+  /**
+   * Returns the value of the most recent version of a record visible from a snapshot.
+   *
+   * @param key
+   *          the key of the record
+   * @param snapshot
+   *          the sequence number of the snapshot
+   * @return the value of the record, {@link LSMDatabase#TOMBSTONE} if it was deleted, or {@code null} if this memtable
+   *         holds no version of the record visible from the snapshot
+   */
+  ByteString get(ByteString key, long snapshot)
+  {
+    final Map.Entry<Version, ByteString> entry = versions.ceilingEntry(new Version(key, snapshot));
+    return entry != null && entry.getKey().key.equals(key) ? entry.getValue() : null;
+  }
+
+  /**
+   * Returns the sequence number of the most recent version of a record.
+   *
+   * @param key
+   *          the key of the record
+   * @return the sequence number of the most recent version of the record, or -1 if this memtable holds none
+   */
+  long latestSequence(ByteString key)
+  {
+    final Version version = versions.ceilingKey(new Version(key, Long.MAX_VALUE));
+    return version != null && version.key.equals(key) ? version.sequence : -1;
+  }
+
+  long getMaxSequence()
+  {
+    return maxSequence;
+  }
+
+  /**
+   * Returns the approximate memory used by this memtable.
+   *
+   * @return the approximate memory used by this memtable, in bytes
+   */
+  long size()
+  {
+    return size.get();
+  }
+
+  boolean isEmpty()
+  {
+    return versions.isEmpty();
+  }
+
+  RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      private Iterator<Map.Entry<Version, ByteString>> iterator;
+      private Map.Entry<Version, ByteString> current;
+
+      @Override
+      public void seek(ByteString key)
+      {
+        iterator = versions.tailMap(new Version(key, Long.MAX_VALUE)).entrySet().iterator();
+        next();
+      }
+
+      @Override
+      public boolean isValid()
+      {
+        return current != null;
+      }
+
+      @Override
+      public void next()
+      {
+        current = iterator.hasNext() ? iterator.next() : null;
+      }
+
+      @Override
+      public ByteString key()
+      {
+        return current.getKey().key;
+      }
+
+      @Override
+      public long sequence()
+      {
+        return current.getKey().sequence;
+      }
+
+      @Override
+      public ByteString value()
+      {
+        return current.getValue();
+      }
+
+      @Override
+      public ByteString lowerKey(ByteString key)
+      {
+        final Version lower = versions.lowerKey(new Version(key, Long.MAX_VALUE));
+        return lower != null ? lower.key : null;
+      }
+
+      @Override
+      public void close()
+      {
+        // nothing to do
+      }
+    };
+  }
+}
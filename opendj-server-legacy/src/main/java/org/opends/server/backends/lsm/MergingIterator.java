@@ -0,0 +1,123 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.util.StaticUtils;
+
+/**
+ * Merges the versions of several sources of records, ordered from the most recent source to the oldest one.
+ * <p>
+ * When several sources hold a version with the same key and sequence number, which happens after imports, the version
+ * of the most recent source comes first.
+ */
+final class MergingIterator implements RecordIterator
+{
+  private final List<RecordIterator> sources;
+  private RecordIterator current;
+
+  MergingIterator(List<RecordIterator> sources)
+  {
+    this.sources = sources;
+  }
+
+  @Override
+  public void seek(ByteString key)
+  {
+    for (RecordIterator source : sources)
+    {
+      source.seek(key);
+    }
+    findCurrent();
+  }
+
+  /**
+   * Finds again the source holding the current version, for the sources which can be modified while they are
+   * iterated.
+   */
+  void findCurrent()
+  {
+    current = null;
+    for (RecordIterator source : sources)
+    {
+      if (source.isValid() && (current == null || compare(source, current) < 0))
+      {
+        current = source;
+      }
+    }
+  }
+
+  private static int compare(RecordIterator a, RecordIterator b)
+  {
+    final int cmp = a.key().compareTo(b.key());
+    return cmp != 0 ? cmp : Long.compare(b.sequence(), a.sequence());
+  }
+
+  @Override
+  public boolean isValid()
+  {
+    return current != null;
+  }
+
+  @Override
+  public void next()
+  {
+    current.next();
+    findCurrent();
+  }
+
+  @Override
+  public ByteString key()
+  {
+    return current.key();
+  }
+
+  @Override
+  public long sequence()
+  {
+    return current.sequence();
+  }
+
+  @Override
+  public ByteString value()
+  {
+    return current.value();
+  }
+
+  @Override
+  public ByteString lowerKey(ByteString key)
+  {
+    ByteString lowerKey = null;
+    for (RecordIterator source : sources)
+    {
+      final ByteString k = source.lowerKey(key);
+      if (k != null && (lowerKey == null || k.compareTo(lowerKey) > 0))
+      {
+        lowerKey = k;
+      }
+    }
+    return lowerKey;
+  }
+
+  @Override
+  public void close()
+  {
+    StaticUtils.close(sources);
+    current = null;
+  }
+}
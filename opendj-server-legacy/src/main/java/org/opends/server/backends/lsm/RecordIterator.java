@@ -0,0 +1,83 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.io.Closeable;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Iterates over the versions of the records of a sorted source of records: a memtable, a table, a level or a merge of
+ * them. The versions are ordered by ascending keys, then by descending sequence numbers, so that the most recent
+ * version of a record comes first.
+ * <p>
+ * A newly created iterator is not positioned, and must be positioned with {@link #seek(ByteString)}.
+ */
+interface RecordIterator extends Closeable
+{
+  /**
+   * Positions this iterator on the most recent version of the first record whose key is greater than or equal to the
+   * provided key.
+   *
+   * @param key
+   *          the key, the empty key positions this iterator on the first record
+   */
+  void seek(ByteString key);
+
+  /**
+   * Returns whether this iterator is positioned on a version.
+   *
+   * @return {@code true} if this iterator is positioned on a version, {@code false} if it went past the last one
+   */
+  boolean isValid();
+
+  /** Moves this iterator to the next version. */
+  void next();
+
+  /**
+   * Returns the key of the current version.
+   *
+   * @return the key of the current version
+   */
+  ByteString key();
+
+  /**
+   * Returns the sequence number of the commit which wrote the current version.
+   *
+   * @return the sequence number of the current version
+   */
+  long sequence();
+
+  /**
+   * Returns the value of the current version.
+   *
+   * @return the value of the current version, {@link LSMDatabase#TOMBSTONE} if the record was deleted
+   */
+  ByteString value();
+
+  /**
+   * Returns the greatest key lower than the provided one, whatever the sequence numbers of its versions. This does not
+   * change the position of this iterator.
+   *
+   * @param key
+   *          the key
+   * @return the greatest key lower than the provided one, or {@code null} if there is none
+   */
+  ByteString lowerKey(ByteString key);
+
+  @Override
+  void close();
+}
@@ -0,0 +1,485 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+
+/**
+ * An immutable file holding sorted versions of records.
+ * <p>
+ * A table is made of:
+ * <ul>
+ * <li>blocks of about {@value #BLOCK_SIZE} bytes, holding the versions in the order of the {@link RecordIterator}s.
+ * Each version is made of its key, its sequence number, its type, and the value of the record if it was not
+ * deleted;</li>
+ * <li>the index of the blocks, holding the first key and sequence number of each block, with its offset and
+ * length;</li>
+ * <li>the bloom filter of the keys of the table, which can be empty;</li>
+ * <li>a fixed size footer, holding the offsets and lengths of the index and of the bloom filter.</li>
+ * </ul>
+ * The blocks, the index and the bloom filter are each followed by their CRC32. Lengths and sequence numbers are compact
+ * encoded.
+ */
+final class SSTable
+{
+  static final int BLOCK_SIZE = 16 * 1024;
+  static final byte PUT = 0;
+  static final byte DELETE = 1;
+  /** "OpenDJ" followed by "LS", for log-structured. */
+  static final long MAGIC = 0x4F70656E444A4C53L;
+  static final int FOOTER_SIZE = 40;
+
+  private final TableInfo info;
+  private final File file;
+  private final BlockCache cache;
+  private volatile FileChannel channel;
+
+  private final ByteString[] blockKeys;
+  private final long[] blockOffsets;
+  private final int[] blockLengths;
+  private final BloomFilter bloomFilter;
+
+  /** The number of versions of the database holding this table. */
+  private final AtomicInteger references = new AtomicInteger();
+  /** Whether this table was removed from the database, and its file must be deleted once it is not used anymore. */
+  private volatile boolean obsolete;
+
+  private SSTable(TableInfo info, File file, BlockCache cache, FileChannel channel, List<ByteString> blockKeys,
+      List<Long> blockOffsets, List<Integer> blockLengths, BloomFilter bloomFilter)
+  {
+    this.info = info;
+    this.file = file;
+    this.cache = cache;
+    this.channel = channel;
+    this.blockKeys = blockKeys.toArray(new ByteString[blockKeys.size()]);
+    this.blockOffsets = new long[blockOffsets.size()];
+    this.blockLengths = new int[blockLengths.size()];
+    for (int i = 0; i < this.blockOffsets.length; i++)
+    {
+      this.blockOffsets[i] = blockOffsets.get(i);
+      this.blockLengths[i] = blockLengths.get(i);
+    }
+    this.bloomFilter = bloomFilter;
+  }
+
+  /**
+   * Opens the file of a table, and reads its index and bloom filter.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param info
+   *          the description of the table
+   * @param cache
+   *          the cache of the blocks
+   * @return the opened table
+   * @throws IOException
+   *           if the table could not be read or is corrupted
+   */
+  static SSTable open(File directory, TableInfo info, BlockCache cache) throws IOException
+  {
+    final File file = new File(directory, TableInfo.fileName(info.getNumber()));
+    final FileChannel channel = FileChannel.open(file.toPath(), READ);
+    try
+    {
+      final long size = channel.size();
+      if (size < FOOTER_SIZE)
+      {
+        throw corrupted(file, "truncated");
+      }
+      final ByteSequenceReader footer =
+          ByteString.wrap(read(channel, file, size - FOOTER_SIZE, FOOTER_SIZE)).asReader();
+      final long indexOffset = footer.readLong();
+      final int indexLength = footer.readInt();
+      final long bloomOffset = footer.readLong();
+      final int bloomLength = footer.readInt();
+      footer.readLong();
+      if (footer.readLong() != MAGIC)
+      {
+        throw corrupted(file, "invalid footer");
+      }
+
+      final List<ByteString> blockKeys = new ArrayList<>();
+      final List<Long> blockOffsets = new ArrayList<>();
+      final List<Integer> blockLengths = new ArrayList<>();
+      final ByteSequenceReader index = readChecked(channel, file, indexOffset, indexLength).asReader();
+      while (index.remaining() > 0)
+      {
+        blockKeys.add(index.readByteString(index.readCompactUnsignedInt()));
+        index.readCompactUnsignedLong();
+        blockOffsets.add(index.readCompactUnsignedLong());
+        blockLengths.add(index.readCompactUnsignedInt());
+      }
+      BloomFilter bloomFilter = null;
+      if (bloomLength > 0)
+      {
+        bloomFilter = BloomFilter.readFrom(readChecked(channel, file, bloomOffset, bloomLength).asReader());
+      }
+      return new SSTable(info, file, cache, channel, blockKeys, blockOffsets, blockLengths, bloomFilter);
+    }
+    catch (IOException | RuntimeException e)
+    {
+      close(channel);
+      throw e;
+    }
+  }
+
+  TableInfo getInfo()
+  {
+    return info;
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Returns whether the table may hold the key with the provided hash, according to its bloom filter.
+   *
+   * @param hash
+   *          the hash of the key
+   * @return {@code false} if the table certainly does not hold the key
+   */
+  boolean mightContain(long hash)
+  {
+    return bloomFilter == null || bloomFilter.mightContain(hash);
+  }
+
+  /**
+   * Returns whether the provided key is between the smallest and the largest keys of this table.
+   *
+   * @param key
+   *          the key
+   * @return {@code true} if the provided key is in the range of this table
+   */
+  boolean isInRange(ByteString key)
+  {
+    return info.getSmallestKey().compareTo(key) <= 0 && info.getLargestKey().compareTo(key) >= 0;
+  }
+
+  /**
+   * Returns the value of the most recent version of a record visible from a snapshot.
+   *
+   * @param key
+   *          the key of the record
+   * @param snapshot
+   *          the sequence number of the snapshot
+   * @return the value of the record, {@link LSMDatabase#TOMBSTONE} if it was deleted, or {@code null} if this table
+   *         holds no version of the record visible from the snapshot
+   */
+  ByteString get(ByteString key, long snapshot)
+  {
+    final RecordIterator it = iterator();
+    for (it.seek(key); it.isValid() && it.key().equals(key); it.next())
+    {
+      if (it.sequence() <= snapshot)
+      {
+        return it.value();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the sequence number of the most recent version of a record.
+   *
+   * @param key
+   *          the key of the record
+   * @return the sequence number of the most recent version of the record, or -1 if this table holds none
+   */
+  long latestSequence(ByteString key)
+  {
+    final RecordIterator it = iterator();
+    it.seek(key);
+    return it.isValid() && it.key().equals(key) ? it.sequence() : -1;
+  }
+
+  RecordIterator iterator()
+  {
+    return new TableIterator();
+  }
+
+  /** Iterates over the versions of the table, block by block. */
+  private final class TableIterator implements RecordIterator
+  {
+    private int blockIndex = -1;
+    private ByteSequenceReader block;
+    private ByteString key;
+    private long sequence;
+    private ByteString value;
+
+    @Override
+    public void seek(ByteString target)
+    {
+      loadBlock(findBlock(target));
+      next();
+      while (key != null && key.compareTo(target) < 0)
+      {
+        next();
+      }
+    }
+
+    @Override
+    public boolean isValid()
+    {
+      return key != null;
+    }
+
+    @Override
+    public void next()
+    {
+      while (block == null || block.remaining() == 0)
+      {
+        if (blockIndex + 1 >= blockKeys.length)
+        {
+          key = null;
+          value = null;
+          return;
+        }
+        loadBlock(blockIndex + 1);
+      }
+      key = block.readByteString(block.readCompactUnsignedInt());
+      sequence = block.readCompactUnsignedLong();
+      value = block.readByte() == PUT ? block.readByteString(block.readCompactUnsignedInt()) : LSMDatabase.TOMBSTONE;
+    }
+
+    @Override
+    public ByteString key()
+    {
+      return key;
+    }
+
+    @Override
+    public long sequence()
+    {
+      return sequence;
+    }
+
+    @Override
+    public ByteString value()
+    {
+      return value;
+    }
+
+    @Override
+    public ByteString lowerKey(ByteString target)
+    {
+      final int index = findBlock(target);
+      if (blockKeys.length == 0 || blockKeys[index].compareTo(target) >= 0)
+      {
+        return null;
+      }
+      ByteString lowerKey = null;
+      final ByteSequenceReader reader = readBlock(index).asReader();
+      while (reader.remaining() > 0)
+      {
+        final ByteString k = reader.readByteString(reader.readCompactUnsignedInt());
+        if (k.compareTo(target) >= 0)
+        {
+          break;
+        }
+        lowerKey = k;
+        reader.readCompactUnsignedLong();
+        if (reader.readByte() == PUT)
+        {
+          reader.skip(reader.readCompactUnsignedInt());
+        }
+      }
+      return lowerKey;
+    }
+
+    private void loadBlock(int index)
+    {
+      blockIndex = index;
+      block = index < blockKeys.length ? readBlock(index).asReader() : null;
+    }
+
+    @Override
+    public void close()
+    {
+      block = null;
+    }
+  }
+
+  /**
+   * Returns the index of the last block whose first key is lower than the provided key, or 0 if there is none. The
+   * versions of a key can span several blocks, so the first version of the key can only be found in this block or in
+   * the next ones.
+   */
+  private int findBlock(ByteString key)
+  {
+    int low = 0;
+    int high = blockKeys.length - 1;
+    int result = 0;
+    while (low <= high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (blockKeys[mid].compareTo(key) < 0)
+      {
+        result = mid;
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid - 1;
+      }
+    }
+    return result;
+  }
+
+  private ByteString readBlock(int index)
+  {
+    final long offset = blockOffsets[index];
+    ByteString block = cache.get(info.getNumber(), offset);
+    if (block == null)
+    {
+      try
+      {
+        block = readChecked(offset, blockLengths[index]);
+      }
+      catch (IOException e)
+      {
+        throw new StorageRuntimeException(e);
+      }
+      cache.put(info.getNumber(), offset, block);
+    }
+    return block;
+  }
+
+  private ByteString readChecked(long offset, int length) throws IOException
+  {
+    for (;;)
+    {
+      final FileChannel ch = channel;
+      try
+      {
+        return readChecked(ch, file, offset, length);
+      }
+      catch (ClosedChannelException e)
+      {
+        // A thread interrupted while reading closed the channel shared by all the readers
+        reopen(ch);
+        if (e instanceof ClosedByInterruptException || references.get() <= 0)
+        {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private synchronized void reopen(FileChannel closedChannel) throws IOException
+  {
+    if (channel == closedChannel && references.get() > 0)
+    {
+      channel = FileChannel.open(file.toPath(), READ);
+    }
+  }
+
+  private static ByteString readChecked(FileChannel channel, File file, long offset, int length) throws IOException
+  {
+    final byte[] data = read(channel, file, offset, length + 4);
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+    final ByteString content = ByteString.wrap(data);
+    if ((int) crc.getValue() != content.subSequence(length, length + 4).toInt())
+    {
+      throw corrupted(file, "checksum mismatch at offset " + offset);
+    }
+    return content.subSequence(0, length);
+  }
+
+  private static byte[] read(FileChannel channel, File file, long offset, int length) throws IOException
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining())
+    {
+      if (channel.read(buffer, offset + buffer.position()) < 0)
+      {
+        throw new EOFException(ERR_LSM_CORRUPTED_FILE.get(file, "truncated").toString());
+      }
+    }
+    return buffer.array();
+  }
+
+  private static IOException corrupted(File file, String reason)
+  {
+    return new IOException(ERR_LSM_CORRUPTED_FILE.get(file, reason).toString());
+  }
+
+  /** Adds a reference to this table, held by a version of the database. */
+  void retain()
+  {
+    references.incrementAndGet();
+  }
+
+  /**
+   * Removes a reference to this table, and closes its file if it is not referenced anymore.
+   *
+   * @return {@code true} if this table is not referenced anymore, and its file must be deleted if it is obsolete
+   */
+  boolean release()
+  {
+    if (references.decrementAndGet() == 0)
+    {
+      close(channel);
+      return true;
+    }
+    return false;
+  }
+
+  /** Closes and deletes the file of a table which was never added to the database. */
+  void discard()
+  {
+    close(channel);
+    file.delete();
+  }
+
+  /** Marks this table as removed from the database. */
+  void markObsolete()
+  {
+    obsolete = true;
+  }
+
+  boolean isObsolete()
+  {
+    return obsolete;
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName();
+  }
+}
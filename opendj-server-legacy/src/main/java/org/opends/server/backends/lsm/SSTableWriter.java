@@ -0,0 +1,235 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.opends.server.backends.lsm.SSTable.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Writes a new table, whose versions must be added in the order of the {@link RecordIterator}s.
+ *
+ * @see SSTable for the format of the tables
+ */
+final class SSTableWriter
+{
+  private final long number;
+  private final File file;
+  private final FileChannel channel;
+  private final int bitsPerKey;
+
+  private final ByteStringBuilder block = new ByteStringBuilder(BLOCK_SIZE + 1024);
+  private final ByteStringBuilder index = new ByteStringBuilder();
+  private long[] keyHashes = new long[1024];
+  private int keyCount;
+
+  private long offset;
+  private long entryCount;
+  private long maxSequence;
+  private ByteString smallestKey;
+  private ByteString largestKey;
+  private ByteString blockFirstKey;
+  private long blockFirstSequence;
+
+  /**
+   * Creates the file of a new table.
+   *
+   * @param directory
+   *          the directory of the database
+   * @param number
+   *          the number of the new table
+   * @param bitsPerKey
+   *          the number of bits per key of the bloom filter of the table, 0 for no bloom filter
+   * @throws IOException
+   *           if the file could not be created
+   */
+  SSTableWriter(File directory, long number, int bitsPerKey) throws IOException
+  {
+    this.number = number;
+    this.file = new File(directory, TableInfo.fileName(number));
+    this.channel = FileChannel.open(file.toPath(), CREATE_NEW, WRITE);
+    this.bitsPerKey = bitsPerKey;
+  }
+
+  /**
+   * Adds a version of a record, after the ones already added.
+   *
+   * @param key
+   *          the key of the record
+   * @param sequence
+   *          the sequence number of the version
+   * @param value
+   *          the value of the version, or {@link LSMDatabase#TOMBSTONE} if the record was deleted
+   * @throws IOException
+   *           if the table could not be written
+   */
+  void add(ByteString key, long sequence, ByteString value) throws IOException
+  {
+    if (block.isEmpty())
+    {
+      blockFirstKey = key;
+      blockFirstSequence = sequence;
+    }
+    if (largestKey == null || !largestKey.equals(key))
+    {
+      if (smallestKey == null)
+      {
+        smallestKey = key;
+      }
+      addKeyHash(BloomFilter.hash(key));
+    }
+    largestKey = key;
+
+    block.appendCompactUnsigned(key.length()).appendBytes(key);
+    block.appendCompactUnsigned(sequence);
+    if (value == LSMDatabase.TOMBSTONE)
+    {
+      block.appendByte(DELETE);
+    }
+    else
+    {
+      block.appendByte(PUT);
+      block.appendCompactUnsigned(value.length()).appendBytes(value);
+    }
+    entryCount++;
+    maxSequence = Math.max(maxSequence, sequence);
+    if (block.length() >= BLOCK_SIZE)
+    {
+      writeBlock();
+    }
+  }
+
+  private void addKeyHash(long hash)
+  {
+    if (bitsPerKey > 0)
+    {
+      if (keyCount == keyHashes.length)
+      {
+        keyHashes = Arrays.copyOf(keyHashes, keyCount * 2);
+      }
+      keyHashes[keyCount++] = hash;
+    }
+  }
+
+  private void writeBlock() throws IOException
+  {
+    index.appendCompactUnsigned(blockFirstKey.length()).appendBytes(blockFirstKey);
+    index.appendCompactUnsigned(blockFirstSequence);
+    index.appendCompactUnsigned(offset);
+    index.appendCompactUnsigned(block.length());
+    writeChecked(block);
+    block.clear();
+  }
+
+  /** Writes the provided data, followed by its CRC32. */
+  private void writeChecked(ByteStringBuilder data) throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(data.getBackingArray(), 0, data.length());
+    data.appendInt((int) crc.getValue());
+    write(ByteBuffer.wrap(data.getBackingArray(), 0, data.length()));
+  }
+
+  private void write(ByteBuffer buffer) throws IOException
+  {
+    while (buffer.hasRemaining())
+    {
+      offset += channel.write(buffer);
+    }
+  }
+
+  /**
+   * Returns whether no versions were added to the table.
+   *
+   * @return {@code true} if no versions were added to the table
+   */
+  boolean isEmpty()
+  {
+    return entryCount == 0;
+  }
+
+  /**
+   * Returns the approximate size of the table.
+   *
+   * @return the approximate size of the table, in bytes
+   */
+  long size()
+  {
+    return offset + block.length();
+  }
+
+  /**
+   * Writes the end of the table, and forces it to the disk.
+   *
+   * @return the description of the table
+   * @throws IOException
+   *           if the table could not be written
+   */
+  TableInfo finish() throws IOException
+  {
+    try
+    {
+      if (!block.isEmpty())
+      {
+        writeBlock();
+      }
+      final long indexOffset = offset;
+      final int indexLength = index.length();
+      writeChecked(index);
+      final long bloomOffset = offset;
+      final ByteStringBuilder bloom = new ByteStringBuilder();
+      if (bitsPerKey > 0)
+      {
+        BloomFilter.create(keyHashes, keyCount, bitsPerKey).writeTo(bloom);
+      }
+      final int bloomLength = bloom.length();
+      writeChecked(bloom);
+
+      final ByteStringBuilder footer = new ByteStringBuilder(FOOTER_SIZE);
+      footer.appendLong(indexOffset);
+      footer.appendInt(indexLength);
+      footer.appendLong(bloomOffset);
+      footer.appendInt(bloomLength);
+      footer.appendLong(entryCount);
+      footer.appendLong(MAGIC);
+      write(ByteBuffer.wrap(footer.getBackingArray(), 0, footer.length()));
+      channel.force(true);
+    }
+    finally
+    {
+      channel.close();
+    }
+    return new TableInfo(number, offset, entryCount, smallestKey, largestKey, maxSequence);
+  }
+
+  /** Closes and deletes the file of the table, which is not needed anymore. */
+  void abort()
+  {
+    close(channel);
+    file.delete();
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/** The description of a table, as recorded in the {@link Manifest}. */
+final class TableInfo
+{
+  private final long number;
+  private final long size;
+  private final long entryCount;
+  private final ByteString smallestKey;
+  private final ByteString largestKey;
+  private final long maxSequence;
+
+  TableInfo(long number, long size, long entryCount, ByteString smallestKey, ByteString largestKey,
+      long maxSequence)
+  {
+    this.number = number;
+    this.size = size;
+    this.entryCount = entryCount;
+    this.smallestKey = smallestKey;
+    this.largestKey = largestKey;
+    this.maxSequence = maxSequence;
+  }
+
+  static String fileName(long number)
+  {
+    return String.format("%06d.sst", number);
+  }
+
+  /**
+   * Returns the number of the table, which gives the name of its file.
+   *
+   * @return the number of the table
+   */
+  long getNumber()
+  {
+    return number;
+  }
+
+  /**
+   * Returns the size of the file of the table.
+   *
+   * @return the size of the file of the table, in bytes
+   */
+  long getSize()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the number of versions held by the table.
+   *
+   * @return the number of versions held by the table
+   */
+  long getEntryCount()
+  {
+    return entryCount;
+  }
+
+  ByteString getSmallestKey()
+  {
+    return smallestKey;
+  }
+
+  ByteString getLargestKey()
+  {
+    return largestKey;
+  }
+
+  /**
+   * Returns the greatest sequence number of the versions held by the table.
+   *
+   * @return the greatest sequence number of the versions held by the table
+   */
+  long getMaxSequence()
+  {
+    return maxSequence;
+  }
+
+  /**
+   * Returns whether the keys of the table may overlap the provided range.
+   *
+   * @param smallest
+   *          the smallest key of the range
+   * @param largest
+   *          the largest key of the range
+   * @return {@code true} if the keys of the table may overlap the provided range
+   */
+  boolean overlaps(ByteString smallest, ByteString largest)
+  {
+    return smallestKey.compareTo(largest) <= 0 && largestKey.compareTo(smallest) >= 0;
+  }
+
+  void writeTo(ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(number);
+    builder.appendCompactUnsigned(size);
+    builder.appendCompactUnsigned(entryCount);
+    builder.appendCompactUnsigned(smallestKey.length()).appendBytes(smallestKey);
+    builder.appendCompactUnsigned(largestKey.length()).appendBytes(largestKey);
+    builder.appendCompactUnsigned(maxSequence);
+  }
+
+  static TableInfo readFrom(ByteSequenceReader reader)
+  {
+    final long number = reader.readCompactUnsignedLong();
+    final long size = reader.readCompactUnsignedLong();
+    final long entryCount = reader.readCompactUnsignedLong();
+    final ByteString smallestKey = reader.readByteString(reader.readCompactUnsignedInt());
+    final ByteString largestKey = reader.readByteString(reader.readCompactUnsignedInt());
+    final long maxSequence = reader.readCompactUnsignedLong();
+    return new TableInfo(number, size, entryCount, smallestKey, largestKey, maxSequence);
+  }
+
+  @Override
+  public String toString()
+  {
+    return fileName(number);
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * An immutable view of the memtables and tables of the database. A new version is installed each time a memtable is
+ * switched, written to a table, or when tables are compacted. The readers keep using the version they started with,
+ * whose tables are not deleted until all its readers are done.
+ */
+final class Version
+{
+  /** The memtable receiving the updates. */
+  private final MemTable memTable;
+  /** The memtables waiting to be written to level 0, from the most recent to the oldest. */
+  private final List<MemTable> immutableMemTables;
+  /**
+   * The tables of each level. Level 0 tables, written from the memtables, can overlap and are ordered from the most
+   * recent to the oldest. The tables of the other levels do not overlap and are sorted by key.
+   */
+  private final List<List<SSTable>> levels;
+  /** The number of readers of this version, plus one while it is the current version. Guarded by the database. */
+  int references = 1;
+
+  Version(MemTable memTable, List<MemTable> immutableMemTables, List<List<SSTable>> levels)
+  {
+    this.memTable = memTable;
+    this.immutableMemTables = Collections.unmodifiableList(new ArrayList<>(immutableMemTables));
+    final List<List<SSTable>> copy = new ArrayList<>(levels.size());
+    for (List<SSTable> tables : levels)
+    {
+      copy.add(Collections.unmodifiableList(new ArrayList<>(tables)));
+      for (SSTable table : tables)
+      {
+        table.retain();
+      }
+    }
+    this.levels = Collections.unmodifiableList(copy);
+  }
+
+  MemTable getMemTable()
+  {
+    return memTable;
+  }
+
+  List<MemTable> getImmutableMemTables()
+  {
+    return immutableMemTables;
+  }
+
+  List<List<SSTable>> getLevels()
+  {
+    return levels;
+  }
+
+  List<SSTable> getTables(int level)
+  {
+    return levels.get(level);
+  }
+
+  /**
+   * Returns a mutable copy of the tables of the levels.
+   *
+   * @return a mutable copy of the tables of the levels
+   */
+  List<List<SSTable>> copyLevels()
+  {
+    final List<List<SSTable>> copy = new ArrayList<>(levels.size());
+    for (List<SSTable> tables : levels)
+    {
+      copy.add(new ArrayList<>(tables));
+    }
+    return copy;
+  }
+
+  long getLevelSize(int level)
+  {
+    long size = 0;
+    for (SSTable table : levels.get(level))
+    {
+      size += table.getInfo().getSize();
+    }
+    return size;
+  }
+
+  /**
+   * Returns the tables of a level overlapping a range of keys.
+   *
+   * @param level
+   *          the level
+   * @param smallest
+   *          the smallest key of the range
+   * @param largest
+   *          the largest key of the range
+   * @return the tables of the level overlapping the range
+   */
+  List<SSTable> getOverlappingTables(int level, ByteString smallest, ByteString largest)
+  {
+    final List<SSTable> tables = new ArrayList<>();
+    for (SSTable table : levels.get(level))
+    {
+      if (table.getInfo().overlaps(smallest, largest))
+      {
+        tables.add(table);
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Returns the table of a level, other than level 0, which may hold the provided key.
+   *
+   * @param level
+   *          the level
+   * @param key
+   *          the key
+   * @return the table which may hold the key, or {@code null} if there is none
+   */
+  SSTable findTable(int level, ByteString key)
+  {
+    final List<SSTable> tables = levels.get(level);
+    final int index = LevelIterator.findTable(tables, key);
+    if (index < tables.size() && tables.get(index).getInfo().getSmallestKey().compareTo(key) <= 0)
+    {
+      return tables.get(index);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * A write-ahead log file, holding the updates of a memtable until they are written to a table.
+ * <p>
+ * Each record is made of its length and its CRC32, followed by a {@link WriteBatch}. Records are appended by the
+ * committing threads one at a time, then forced to the disk by group commits: the first thread waiting for its record
+ * to be forced forces all the records appended so far, while the next threads wait for it and are usually released
+ * without forcing the log themselves.
+ */
+final class WriteAheadLog implements Closeable
+{
+  private static final int HEADER_SIZE = 8;
+
+  /** Receives the records read from a write-ahead log. */
+  interface RecordHandler
+  {
+    /**
+     * Handles a record read from a write-ahead log.
+     *
+     * @param record
+     *          the content of the record
+     * @throws IOException
+     *           if the record is not valid
+     */
+    void handle(ByteString record) throws IOException;
+  }
+
+  private final File file;
+  private final FileChannel channel;
+  private final AtomicLong syncCount;
+  private final ByteStringBuilder buffer = new ByteStringBuilder();
+  /** The position of the end of the last appended record, guarded by this. */
+  private long writtenPosition;
+
+  private final Object syncLock = new Object();
+  /** The position up to which the log was forced to the disk, guarded by syncLock. */
+  private long syncedPosition;
+  /** Whether a thread is forcing the log to the disk, guarded by syncLock. */
+  private boolean syncing;
+  private boolean closed;
+
+  /**
+   * Creates a new write-ahead log file.
+   *
+   * @param file
+   *          the file to create
+   * @param syncCount
+   *          the counter of the times the write-ahead logs were forced to the disk
+   * @throws IOException
+   *           if the file could not be created
+   */
+  WriteAheadLog(File file, AtomicLong syncCount) throws IOException
+  {
+    this.file = file;
+    this.channel = FileChannel.open(file.toPath(), CREATE_NEW, WRITE);
+    this.syncCount = syncCount;
+  }
+
+  static String fileName(long number)
+  {
+    return String.format("%06d.log", number);
+  }
+
+  File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * Appends a record to the log, without forcing it to the disk.
+   *
+   * @param record
+   *          the content of the record
+   * @return the position of the end of the record, to provide to {@link #sync(long)}
+   * @throws IOException
+   *           if the record could not be written
+   */
+  synchronized long append(ByteStringBuilder record) throws IOException
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(record.getBackingArray(), 0, record.length());
+    buffer.clear();
+    buffer.appendInt(record.length());
+    buffer.appendInt((int) crc.getValue());
+    buffer.appendBytes(record);
+    final ByteBuffer bytes = ByteBuffer.wrap(buffer.getBackingArray(), 0, buffer.length());
+    while (bytes.hasRemaining())
+    {
+      channel.write(bytes);
+    }
+    buffer.clearAndTruncate(1024 * 1024, 1024);
+    writtenPosition += HEADER_SIZE + record.length();
+    return writtenPosition;
+  }
+
+  /**
+   * Waits until the log is forced to the disk up to the provided position, forcing it if no other thread does.
+   *
+   * @param position
+   *          the position returned when appending the last record to force
+   * @throws IOException
+   *           if the log could not be forced to the disk
+   */
+  void sync(long position) throws IOException
+  {
+    synchronized (syncLock)
+    {
+      while (syncing && syncedPosition < position)
+      {
+        try
+        {
+          syncLock.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (syncedPosition >= position || closed)
+      {
+        return;
+      }
+      syncing = true;
+    }
+
+    try
+    {
+      final long forcedPosition;
+      synchronized (this)
+      {
+        forcedPosition = writtenPosition;
+      }
+      channel.force(false);
+      syncCount.incrementAndGet();
+      synchronized (syncLock)
+      {
+        syncedPosition = Math.max(syncedPosition, forcedPosition);
+      }
+    }
+    finally
+    {
+      synchronized (syncLock)
+      {
+        syncing = false;
+        syncLock.notifyAll();
+      }
+    }
+  }
+
+  /** Forces the log to the disk, then closes it. The threads waiting for their records to be forced are released. */
+  @Override
+  public void close() throws IOException
+  {
+    synchronized (syncLock)
+    {
+      while (syncing)
+      {
+        try
+        {
+          syncLock.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      syncing = true;
+    }
+    try
+    {
+      channel.force(false);
+      channel.close();
+    }
+    finally
+    {
+      synchronized (syncLock)
+      {
+        syncing = false;
+        closed = true;
+        syncLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Reads the records of a write-ahead log, up to the end of the file or to the first incomplete or corrupted record,
+   * which was being written when the server stopped.
+   *
+   * @param file
+   *          the write-ahead log file
+   * @param handler
+   *          the handler of the records
+   * @return {@code true} if the log ended with an incomplete or corrupted record, which was ignored
+   * @throws IOException
+   *           if the log could not be read, or if the handler failed
+   */
+  static boolean replay(File file, RecordHandler handler) throws IOException
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      for (;;)
+      {
+        final int first = in.read();
+        if (first == -1)
+        {
+          return false;
+        }
+        final byte[] record;
+        final int checksum;
+        try
+        {
+          final int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8
+              | in.readUnsignedByte();
+          checksum = in.readInt();
+          if (length < 0 || length > file.length())
+          {
+            return true;
+          }
+          record = new byte[length];
+          in.readFully(record);
+        }
+        catch (EOFException e)
+        {
+          return true;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum)
+        {
+          return true;
+        }
+        handler.handle(ByteString.wrap(record));
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return file.getName();
+  }
+}
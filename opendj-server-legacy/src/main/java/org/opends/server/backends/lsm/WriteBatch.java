@@ -0,0 +1,286 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static org.opends.server.backends.lsm.LSMDatabase.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * The updates of a transaction, committed together with a single sequence number and written to the write-ahead log
+ * as a single record.
+ * <p>
+ * A batch holds the creations and deletions of trees, in order, and the last value written to each record, or
+ * {@link LSMDatabase#TOMBSTONE} if the record was deleted. The record keys are prefixed by the identifier of their
+ * tree.
+ */
+final class WriteBatch
+{
+  private static final byte PUT = 0;
+  private static final byte DELETE = 1;
+  private static final byte CREATE_TREE = 2;
+  private static final byte DELETE_TREE = 3;
+
+  /** The creation or the deletion of a tree. */
+  static final class TreeUpdate
+  {
+    private final boolean create;
+    private final String name;
+    private final int id;
+
+    private TreeUpdate(boolean create, String name, int id)
+    {
+      this.create = create;
+      this.name = name;
+      this.id = id;
+    }
+
+    boolean isCreate()
+    {
+      return create;
+    }
+
+    String getName()
+    {
+      return name;
+    }
+
+    int getId()
+    {
+      return id;
+    }
+  }
+
+  private final List<TreeUpdate> treeUpdates = new ArrayList<>();
+  private final NavigableMap<ByteString, ByteString> records = new TreeMap<>();
+  /** The sequence number of the commit of a batch read from a write-ahead log. */
+  private long sequence;
+
+  void put(ByteString recordKey, ByteString value)
+  {
+    records.put(recordKey, value);
+  }
+
+  /**
+   * Returns the value written to a record by this batch.
+   *
+   * @param recordKey
+   *          the key of the record
+   * @return the value written to the record, {@link LSMDatabase#TOMBSTONE} if it was deleted, or {@code null} if the
+   *         batch did not write it
+   */
+  ByteString get(ByteString recordKey)
+  {
+    return records.get(recordKey);
+  }
+
+  void createTree(String name, int id)
+  {
+    treeUpdates.add(new TreeUpdate(true, name, id));
+  }
+
+  /**
+   * Deletes a tree, discarding the records of the tree written by this batch.
+   *
+   * @param name
+   *          the name of the tree
+   * @param id
+   *          the identifier of the tree
+   */
+  void deleteTree(String name, int id)
+  {
+    records.subMap(treePrefix(id), true, treePrefix(id + 1), false).clear();
+    treeUpdates.add(new TreeUpdate(false, name, id));
+  }
+
+  List<TreeUpdate> getTreeUpdates()
+  {
+    return Collections.unmodifiableList(treeUpdates);
+  }
+
+  NavigableMap<ByteString, ByteString> getRecords()
+  {
+    return records;
+  }
+
+  /**
+   * Returns the sequence number of the commit of a batch decoded from a write-ahead log record.
+   *
+   * @return the sequence number of the commit of the batch
+   */
+  long getSequence()
+  {
+    return sequence;
+  }
+
+  boolean isEmpty()
+  {
+    return treeUpdates.isEmpty() && records.isEmpty();
+  }
+
+  /**
+   * Encodes this batch into a write-ahead log record.
+   *
+   * @param sequence
+   *          the sequence number of the commit of this batch
+   * @param builder
+   *          the builder receiving the record
+   */
+  void encode(long sequence, ByteStringBuilder builder)
+  {
+    builder.appendCompactUnsigned(sequence);
+    builder.appendCompactUnsigned(treeUpdates.size() + records.size());
+    for (TreeUpdate update : treeUpdates)
+    {
+      builder.appendByte(update.create ? CREATE_TREE : DELETE_TREE);
+      builder.appendCompactUnsigned(update.id);
+      final ByteString name = ByteString.valueOfUtf8(update.name);
+      builder.appendCompactUnsigned(name.length()).appendBytes(name);
+    }
+    for (Map.Entry<ByteString, ByteString> record : records.entrySet())
+    {
+      final ByteString key = record.getKey();
+      final ByteString value = record.getValue();
+      builder.appendByte(value == TOMBSTONE ? DELETE : PUT);
+      builder.appendCompactUnsigned(key.length()).appendBytes(key);
+      if (value != TOMBSTONE)
+      {
+        builder.appendCompactUnsigned(value.length()).appendBytes(value);
+      }
+    }
+  }
+
+  /**
+   * Decodes a batch from a write-ahead log record.
+   *
+   * @param record
+   *          the write-ahead log record
+   * @return the decoded batch
+   */
+  static WriteBatch decode(ByteString record)
+  {
+    final WriteBatch batch = new WriteBatch();
+    final ByteSequenceReader reader = record.asReader();
+    batch.sequence = reader.readCompactUnsignedLong();
+    for (int i = reader.readCompactUnsignedInt(); i > 0; i--)
+    {
+      final byte type = reader.readByte();
+      switch (type)
+      {
+      case CREATE_TREE:
+      case DELETE_TREE:
+        final int id = reader.readCompactUnsignedInt();
+        final String name = reader.readStringUtf8(reader.readCompactUnsignedInt());
+        batch.treeUpdates.add(new TreeUpdate(type == CREATE_TREE, name, id));
+        break;
+      default:
+        final ByteString key = reader.readByteString(reader.readCompactUnsignedInt());
+        batch.records.put(key, type == PUT ? reader.readByteString(reader.readCompactUnsignedInt()) : TOMBSTONE);
+        break;
+      }
+    }
+    return batch;
+  }
+
+  /**
+   * Returns an iterator over the records written by this batch, which remains valid while the batch is modified. The
+   * versions have the sequence number {@link LSMDatabase#UNCOMMITTED}.
+   *
+   * @return an iterator over the records written by this batch
+   */
+  RecordIterator iterator()
+  {
+    return new RecordIterator()
+    {
+      /** The key from which the iterator looks for its current record. */
+      private ByteString position;
+      /** Whether the current record can have the position key. */
+      private boolean inclusive;
+
+      @Override
+      public void seek(ByteString key)
+      {
+        position = key;
+        inclusive = true;
+      }
+
+      private Map.Entry<ByteString, ByteString> current()
+      {
+        if (position == null)
+        {
+          return null;
+        }
+        return inclusive ? records.ceilingEntry(position) : records.higherEntry(position);
+      }
+
+      @Override
+      public boolean isValid()
+      {
+        return current() != null;
+      }
+
+      @Override
+      public void next()
+      {
+        final Map.Entry<ByteString, ByteString> current = current();
+        if (current != null)
+        {
+          position = current.getKey();
+          inclusive = false;
+        }
+      }
+
+      @Override
+      public ByteString key()
+      {
+        return current().getKey();
+      }
+
+      @Override
+      public long sequence()
+      {
+        return UNCOMMITTED;
+      }
+
+      @Override
+      public ByteString value()
+      {
+        return current().getValue();
+      }
+
+      @Override
+      public ByteString lowerKey(ByteString key)
+      {
+        return records.lowerKey(key);
+      }
+
+      @Override
+      public void close()
+      {
+        position = null;
+      }
+    };
+  }
+}
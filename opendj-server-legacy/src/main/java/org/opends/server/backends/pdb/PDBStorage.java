@@ -32,6 +32,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,6 +41,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -57,6 +59,7 @@ import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.Importer;
 import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.RecordCounts;
 import org.opends.server.backends.pluggable.spi.SequentialCursor;
 import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageInUseException;
@@ -105,7 +108,7 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
   private static final int BUFFER_SIZE = 16 * 1024;
 
   /** PersistIt implementation of the {@link Cursor} interface. */
-  private final class CursorImpl implements Cursor<ByteString, ByteString>
+  private class CursorImpl implements Cursor<ByteString, ByteString>
   {
     private ByteString currentKey;
     private ByteString currentValue;
@@ -279,12 +282,20 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
     @Override
     public void close()
     {
-      PDBStorage.this.close();
+      try
+      {
+        recordCounts.importCompleted(this, listTrees(), importedTrees);
+      }
+      finally
+      {
+        PDBStorage.this.close();
+      }
     }
 
     @Override
     public void clearTree(final TreeName treeName)
     {
+      importedTrees.add(treeName);
       final Transaction txn = db.getTransaction();
       deleteTree(txn, treeName);
       createTree(txn, treeName);
@@ -334,6 +345,10 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       try
       {
         final Exchange ex = getExchangeFromCache(treeName);
+        if (!importedTrees.contains(treeName))
+        {
+          importedTrees.add(treeName);
+        }
         bytesToKey(ex.getKey(), key);
         bytesToValue(ex.getValue(), value);
         ex.store();
@@ -401,10 +416,23 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
     {
       try
       {
+        final boolean isCounted = isCounted(treeName);
         final Exchange ex = getExchangeFromCache(treeName);
         bytesToKey(ex.getKey(), key);
         bytesToValue(ex.getValue(), value);
-        ex.store();
+        if (isCounted)
+        {
+          // The previous value, if any, is swapped into the exchange
+          ex.fetchAndStore();
+          if (!ex.getValue().isDefined())
+          {
+            recordCounts.recordAdded(this, treeName);
+          }
+        }
+        else
+        {
+          ex.store();
+        }
       }
       catch (final PersistitException | RollbackException e)
       {
@@ -419,7 +447,12 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       {
         final Exchange ex = getExchangeFromCache(treeName);
         bytesToKey(ex.getKey(), key);
-        return ex.remove();
+        final boolean removed = ex.remove();
+        if (removed && isCounted(treeName))
+        {
+          recordCounts.recordRemoved(this, treeName);
+        }
+        return removed;
       }
       catch (final PersistitException | RollbackException e)
       {
@@ -435,6 +468,10 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       {
         ex = getExchangeFromCache(treeName);
         ex.removeTree();
+        if (recordCountsEnabled)
+        {
+          recordCounts.removeCount(this, treeName);
+        }
       }
       catch (final PersistitException | RollbackException e)
       {
@@ -450,16 +487,22 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
     @Override
     public long getRecordCount(TreeName treeName)
     {
-      // FIXME: is there a better/quicker way to do this?
-      try(final Cursor<?, ?> cursor = openCursor(treeName))
+      if (recordCountsEnabled)
       {
-        long count = 0;
-        while (cursor.next())
-        {
-          count++;
-        }
-        return count;
+        return recordCounts.getRecordCount(this, treeName);
       }
+      return RecordCounts.countRecords(openCursor(treeName));
+    }
+
+    /** Returns whether the records of the tree are counted, tracking the trees written during an import. */
+    private boolean isCounted(TreeName treeName)
+    {
+      if (importedTrees != null)
+      {
+        importedTrees.add(treeName);
+        return false;
+      }
+      return recordCountsEnabled && recordCounts.isCounted(this, treeName);
     }
 
     @Override
@@ -472,7 +515,18 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
          * exchange in order to avoid reentrant accesses to the same tree
          * interfering with the cursor position.
          */
-        return new CursorImpl(getNewExchange(treeName, false));
+        return new CursorImpl(getNewExchange(treeName, false))
+        {
+          @Override
+          public void delete()
+          {
+            super.delete();
+            if (isCounted(treeName))
+            {
+              recordCounts.recordRemoved(WriteableStorageImpl.this, treeName);
+            }
+          }
+        };
       }
       catch (final PersistitException | RollbackException e)
       {
@@ -486,6 +540,10 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       if (createOnDemand)
       {
         openCreateTree(treeName);
+        if (recordCountsEnabled && !recordCounts.isCounted(this, treeName))
+        {
+          recordCounts.countTree(this, treeName);
+        }
       }
       else
       {
@@ -537,6 +595,17 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
             ex.getValue().clear().putByteArray(newValue.toByteArray());
             ex.store();
           }
+          if ((oldValue == null || newValue == null) && isCounted(treeName))
+          {
+            if (oldValue == null)
+            {
+              recordCounts.recordAdded(this, treeName);
+            }
+            else
+            {
+              recordCounts.recordRemoved(this, treeName);
+            }
+          }
           return true;
         }
         return false;
@@ -711,6 +780,11 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
   private PDBMonitor monitor;
   private MemoryQuota memQuota;
   private StorageStatus storageStatus = StorageStatus.working();
+  private RecordCounts recordCounts;
+  /** Whether the tree holding the record counts exists, and the counts can be used. */
+  private boolean recordCountsEnabled;
+  /** The trees written during an import, which do not maintain the record counts, or {@code null} out of imports. */
+  private Set<TreeName> importedTrees;
 
   /**
    * Creates a new persistit storage with the provided configuration.
@@ -772,6 +846,8 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
   @Override
   public void close()
   {
+    recordCountsEnabled = false;
+    importedTrees = null;
     if (db != null)
     {
       DirectoryServer.deregisterMonitorProvider(monitor);
@@ -808,6 +884,47 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
   {
     Reject.ifNull(accessMode, "accessMode must not be null");
     open0(buildConfiguration(accessMode));
+    openRecordCounts();
+  }
+
+  /**
+   * Makes the record counts available, counting once the records of the trees created before the counts were
+   * maintained.
+   */
+  private void openRecordCounts()
+  {
+    final Set<TreeName> treeNames = listTrees();
+    if (!accessMode.isWriteable())
+    {
+      recordCountsEnabled = treeNames.contains(RecordCounts.TREE_NAME);
+      return;
+    }
+    try
+    {
+      write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.openTree(RecordCounts.TREE_NAME, true);
+          recordCountsEnabled = true;
+          final List<TreeName> uncountedTrees = recordCounts.getUncountedTrees(txn, treeNames);
+          if (!uncountedTrees.isEmpty())
+          {
+            logger.info(NOTE_BACKEND_COUNTING_TREE_RECORDS, config.getBackendId(), uncountedTrees.size());
+            for (TreeName treeName : uncountedTrees)
+            {
+              recordCounts.countTree(txn, treeName);
+            }
+          }
+        }
+      });
+    }
+    catch (Exception e)
+    {
+      recordCountsEnabled = false;
+      throw new StorageRuntimeException(e);
+    }
   }
 
   private void open0(final Configuration dbCfg) throws ConfigException
@@ -821,6 +938,7 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
             "Database is already open, either the backend is enabled or an import is currently running.");
       }
       db = new Persistit(dbCfg);
+      recordCounts = new RecordCounts();
 
       final long bufferCount = getBufferPoolCfg(dbCfg).computeBufferCount(db.getAvailableHeap());
       final long totalSize = bufferCount * BUFFER_SIZE / 1024;
@@ -889,6 +1007,7 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
   public Importer startImport() throws ConfigException, StorageRuntimeException
   {
     open0(buildImportConfiguration());
+    importedTrees = Collections.newSetFromMap(new ConcurrentHashMap<TreeName, Boolean>());
     return new ImporterImpl();
   }
 
@@ -906,9 +1025,18 @@ public final class PDBStorage implements Storage, Backupable, ConfigurationChang
       {
         try (final StorageImpl storageImpl = newStorageImpl())
         {
-          operation.run(storageImpl);
-          txn.commit(commitPolicy);
-          return;
+          boolean committed = false;
+          try
+          {
+            operation.run(storageImpl);
+            txn.commit(commitPolicy);
+            committed = true;
+            return;
+          }
+          finally
+          {
+            recordCounts.transactionEnded(storageImpl, committed);
+          }
         }
         catch (final StorageRuntimeException e)
         {
@@ -43,6 +43,7 @@ import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.forgerock.opendj.server.config.server.PluggableBackendCfg;
 import org.forgerock.util.Reject;
 import org.opends.server.api.Backend;
+import org.opends.server.api.Backupable;
 import org.opends.server.api.MonitorProvider;
 import org.opends.server.backends.RebuildConfig;
 import org.opends.server.backends.VerifyConfig;
@@ -105,6 +106,8 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
 
   /** The underlying storage engine. */
   private Storage storage;
+  /** The most frequently read keys, or {@code null} if they are not recorded. */
+  private HotKeys hotKeys;
 
   /** The controls supported by this backend. */
   private static final Set<String> supportedControls = CollectionUtils.newHashSet(
@@ -171,7 +174,14 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
     this.cfg = cfg;
     this.serverContext = serverContext;
     baseDNs = new HashSet<>(cfg.getBaseDN());
-    storage = new TracedStorage(configureStorage(cfg, serverContext), cfg.getBackendId());
+    storage = configureStorage(cfg, serverContext);
+    if (cfg.getHotKeysMaxCount() > 0 && storage instanceof Backupable)
+    {
+      hotKeys = new HotKeys(cfg.getBackendId(), storage, ((Backupable) storage).getDirectory(),
+          cfg.getHotKeysMaxCount(), cfg.getHotKeysSaveInterval());
+      storage = hotKeys.getStorage();
+    }
+    storage = new TracedStorage(storage, cfg.getBackendId());
   }
 
   @Override
@@ -179,11 +189,16 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
   {
     if (mustOpenRootContainer())
     {
-      rootContainer = newRootContainer(AccessMode.READ_WRITE);
+      rootContainer = newRootContainer(getStorageAccessMode());
     }
 
     // Preload the tree cache.
     rootContainer.preload(cfg.getPreloadTimeLimit());
+    if (hotKeys != null)
+    {
+      // Warm up the cache in the background while the backend already serves requests.
+      hotKeys.start();
+    }
 
     try
     {
@@ -241,6 +256,11 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
     // backend. We need to wait for them to finish.
     waitUntilQuiescent();
 
+    if (hotKeys != null)
+    {
+      hotKeys.stop();
+    }
+
     // Close RootContainer and Storage.
     try
     {
@@ -653,7 +673,7 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
       {
         throw new DirectoryException(getServerErrorResultCode(), ERR_REMOVE_FAIL.get(e.getMessage()), e);
       }
-      rootContainer = newRootContainer(AccessMode.READ_WRITE);
+      rootContainer = newRootContainer(getStorageAccessMode());
       rootContainer.getStorage().close();
       return getImportStrategy(serverContext, rootContainer).importLDIF(importConfig);
     }
@@ -768,7 +788,7 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
     {
       if (openRootContainer)
       {
-        rootContainer = newRootContainer(AccessMode.READ_WRITE);
+        rootContainer = newRootContainer(getStorageAccessMode());
       }
       getImportStrategy(serverContext, rootContainer).rebuildIndex(rebuildConfig);
     }
@@ -836,6 +856,18 @@ public abstract class BackendImpl<C extends PluggableBackendCfg> extends Backend
    */
   protected abstract Storage configureStorage(C cfg, ServerContext serverContext) throws ConfigException;
 
+  /**
+   * Returns the access mode used to open the storage engine when this backend is enabled, or before
+   * its content is imported or rebuilt. Storage engines which can only be written by an
+   * {@link org.opends.server.backends.pluggable.spi.Importer} must be opened read-only.
+   *
+   * @return the access mode used to open the storage engine
+   */
+  protected AccessMode getStorageAccessMode()
+  {
+    return AccessMode.READ_WRITE;
+  }
+
   @Override
   public boolean isConfigurationAcceptable(C config, List<LocalizableMessage> unacceptableReasons,
       ServerContext serverContext)
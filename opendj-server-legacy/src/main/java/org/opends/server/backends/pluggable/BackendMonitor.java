@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
@@ -80,6 +81,9 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   private final HashMap<SearchFilter, FilterStats> filterToStats = new HashMap<>();
   private final AtomicInteger indexedSearchCount = new AtomicInteger();
   private final AtomicInteger unindexedSearchCount = new AtomicInteger();
+  private final AtomicLong sortCount = new AtomicLong();
+  private final AtomicLong spilledSortCount = new AtomicLong();
+  private final AtomicLong sortSpillBytes = new AtomicLong();
 
   /**
    * Creates a new backend monitor.
@@ -102,7 +106,7 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
   @Override
   public MonitorData getMonitorData()
   {
-    MonitorData monitorAttrs = new MonitorData(5);
+    MonitorData monitorAttrs = new MonitorData(8);
 
     Collection<String> needReindexValues = createNeedReindexValues();
     if (!needReindexValues.isEmpty())
@@ -118,6 +122,10 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
       monitorAttrs.add("filter-use-unindexed", unindexedSearchCount);
     }
 
+    monitorAttrs.add("sort-count", sortCount);
+    monitorAttrs.add("sort-spill-count", spilledSortCount);
+    monitorAttrs.add("sort-spill-bytes", sortSpillBytes);
+
     return monitorAttrs;
   }
 
@@ -283,6 +291,22 @@ class BackendMonitor extends MonitorProvider<MonitorProviderCfg>
     }
   }
 
+  /**
+   * Updates the statistics counters to include a sort of search results.
+   *
+   * @param spilledBytes The number of bytes written to temporary files by the sort, {@code 0} if it was performed
+   * in memory
+   */
+  void updateSortStats(long spilledBytes)
+  {
+    sortCount.getAndIncrement();
+    if (spilledBytes > 0)
+    {
+      spilledSortCount.getAndIncrement();
+      sortSpillBytes.getAndAdd(spilledBytes);
+    }
+  }
+
   private void removeLowestHit()
   {
     while (!filterToStats.isEmpty() && filterToStats.size() > maxEntries)
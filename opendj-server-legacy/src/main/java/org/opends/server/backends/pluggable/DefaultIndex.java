@@ -67,6 +67,11 @@ class DefaultIndex extends AbstractTree implements Index
    * </ul>
    */
   private volatile boolean trusted;
+  /**
+   * Whether this untrusted index is being built online. While it is, the updates are applied as if it was trusted,
+   * except that removing entryIDs from a non-existing key is not a corruption, since the key may not be built yet.
+   */
+  private volatile boolean building;
 
   /**
    * Create a new index object.
@@ -101,10 +106,11 @@ class DefaultIndex extends AbstractTree implements Index
       codec = new EntryIDSet.EntryIDSetCodecV3(codec, cryptoSuite);
     }
     trusted = flags.contains(TRUSTED);
-    if (!trusted && entryContainer.getHighestEntryID(txn).longValue() == 0)
+    if (!trusted && createOnDemand && entryContainer.getHighestEntryID(txn).longValue() == 0)
     {
       // If there are no entries in the entry container then there
       // is no reason why this index can't be upgraded to trusted.
+      // This cannot be recorded when the storage is opened read-only.
       setTrusted(txn, true);
     }
   }
@@ -176,7 +182,7 @@ class DefaultIndex extends AbstractTree implements Index
      * Avoid taking a write lock on a record which has hit all IDs because it is likely to be a
      * point of contention.
      */
-    if (!get(txn, key).isDefined())
+    if (building ? isUndefinedRecord(txn, key) : !get(txn, key).isDefined())
     {
       return;
     }
@@ -197,9 +203,9 @@ class DefaultIndex extends AbstractTree implements Index
            */
           return entryIDSet.size() == 0 ? null : toValue(entryIDSet);
         }
-        else if (trusted)
+        else if (trusted || building)
         {
-          if (deletedIDs != null)
+          if (deletedIDs != null && !building)
           {
             logIndexCorruptError(txn, key);
           }
@@ -213,6 +219,12 @@ class DefaultIndex extends AbstractTree implements Index
     });
   }
 
+  private boolean isUndefinedRecord(ReadableTransaction txn, ByteString key)
+  {
+    final ByteString value = txn.read(getName(), key);
+    return value != null && !decodeValue(key, value).isDefined();
+  }
+
   private static boolean isNullOrEmpty(EntryIDSet entryIDSet)
   {
     return entryIDSet == null || entryIDSet.size() == 0;
@@ -323,4 +335,15 @@ class DefaultIndex extends AbstractTree implements Index
   {
     return trusted;
   }
+
+  /**
+   * Sets whether this index is being built online, in which case concurrent updates must add the missing keys.
+   *
+   * @param building
+   *          {@code true} while the index is being built online
+   */
+  final void setBuilding(boolean building)
+  {
+    this.building = building;
+  }
 }
@@ -27,16 +27,18 @@ import static org.opends.server.protocols.ldap.LDAPResultCode.*;
 import static org.opends.server.types.AdditionalLogItem.*;
 import static org.opends.server.util.StaticUtils.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -162,6 +164,8 @@ public class EntryContainer
    * For example when a root container contains multiple suffixes.
    */
   private final String treePrefix;
+  /** The directory where server side sorts write their run files, next to the import temporary files. */
+  private final File sortTempDirectory;
 
   private final ServerContext serverContext;
 
@@ -354,6 +358,8 @@ public class EntryContainer
     this.rootContainer = rootContainer;
     this.serverContext = serverContext;
     this.treePrefix = baseDN.toNormalizedUrlSafeString();
+    this.sortTempDirectory =
+        new File(new File(getFileForPath(OnDiskMergeImporter.DEFAULT_TMP_DIR), backendID + "-sort"), treePrefix);
     this.id2childrenCount = new ID2ChildrenCount(getIndexName(ID2CHILDREN_COUNT_TREE_NAME));
     this.dn2id = new DN2ID(getIndexName(DN2ID_TREE_NAME), baseDN);
     this.dn2uri = new DN2URI(getIndexName(REFERRAL_TREE_NAME), this);
@@ -406,6 +412,8 @@ public class EntryContainer
     {
       cryptoSuite = serverContext.getCryptoManager().newCryptoSuite(config.getCipherTransformation(),
           config.getCipherKeyLength());
+      // Remove the run files left by sorts interrupted by a crash
+      recursiveDelete(sortTempDirectory);
       id2entry = new ID2Entry(getIndexName(ID2ENTRY_TREE_NAME), newDataConfig(config));
       id2entry.open(txn, shouldCreate);
       id2childrenCount.open(txn, shouldCreate);
@@ -686,10 +694,12 @@ public class EntryContainer
           }
 
           // Handle client abandon of paged results.
+          final PagedResultsCursors pagedResultsCursors = rootContainer.getPagedResultsCursors();
           if (pageRequest != null)
           {
             if (pageRequest.getSize() == 0)
             {
+              pagedResultsCursors.remove(pagedResultsCursors.get(searchOperation, pageRequest.getCookie()));
               addPagedResultsControl(searchOperation, pageRequest, null);
               return null;
             }
@@ -716,6 +726,22 @@ public class EntryContainer
           {
             debugBuffer = new StringBuilder();
           }
+          else if (pageRequest != null && pageRequest.getCookie().length() != 0)
+          {
+            // Resume an indexed paged search without evaluating the indexes again.
+            final PagedResultsCursors.Cursor cursor = pagedResultsCursors.get(searchOperation, pageRequest.getCookie());
+            final long[] entryIDs = cursor != null ? cursor.getEntryIDs() : null;
+            if (entryIDs != null)
+            {
+              for (Control control : cursor.getResponseControls())
+              {
+                searchOperation.addResponseControl(control);
+              }
+              rootContainer.getMonitorProvider().incrementIndexedSearchCount();
+              searchIndexed(txn, entryIDs, cursor.areCandidatesInScope(), searchOperation, pageRequest, cursor);
+              return null;
+            }
+          }
 
           EntryIDSet candidateEntryIDs = null;
           boolean candidatesAreInScope = false;
@@ -837,7 +863,7 @@ public class EntryContainer
           if (reorderedCandidateEntryIDs != null)
           {
             rootContainer.getMonitorProvider().incrementIndexedSearchCount();
-            searchIndexed(txn, reorderedCandidateEntryIDs, candidatesAreInScope, searchOperation, pageRequest);
+            searchIndexed(txn, reorderedCandidateEntryIDs, candidatesAreInScope, searchOperation, pageRequest, null);
           }
           else
           {
@@ -1255,12 +1281,15 @@ public class EntryContainer
    *          The search operation.
    * @param pageRequest
    *          A Paged Results control, or null if none.
+   * @param cursor
+   *          The cursor of the paged search being resumed, or null if the candidate entry IDs have just been
+   *          computed.
    * @throws DirectoryException
    *           If an error prevented the search from being processed.
    */
   private void searchIndexed(ReadableTransaction txn, long[] entryIDReorderedSet, boolean candidatesAreInScope,
-      SearchOperation searchOperation, PagedResultsControl pageRequest) throws DirectoryException,
-      CanceledOperationException
+      SearchOperation searchOperation, PagedResultsControl pageRequest, PagedResultsCursors.Cursor cursor)
+      throws DirectoryException, CanceledOperationException
   {
     SearchScope searchScope = searchOperation.getScope();
     DN aBaseDN = searchOperation.getBaseDN();
@@ -1274,7 +1303,7 @@ public class EntryContainer
       // The cookie contains the ID of the next entry to be returned.
       try
       {
-        beginEntryID = pageRequest.getCookie().toLong();
+        beginEntryID = PagedResultsCursors.getEntryID(pageRequest.getCookie());
       }
       catch (Exception e)
       {
@@ -1303,7 +1332,10 @@ public class EntryContainer
     if (continueSearch)
     {
       final SearchFilter filter = searchOperation.getFilter();
-      for (int i = findStartIndex(beginEntryID, entryIDReorderedSet); i < entryIDReorderedSet.length; i++)
+      final int startIndex = cursor != null
+          ? rootContainer.getPagedResultsCursors().getPosition(cursor)
+          : findStartIndex(beginEntryID, entryIDReorderedSet);
+      for (int i = startIndex; i < entryIDReorderedSet.length; i++)
       {
         EntryID entryID = new EntryID(entryIDReorderedSet[i]);
         Entry entry;
@@ -1326,7 +1358,9 @@ public class EntryContainer
             if (isPageFull(searchOperation, pageRequest))
             {
               // Set the cookie to remember where we were.
-              addPagedResultsControl(searchOperation, pageRequest, entryID.toByteString());
+              final ByteString cookie = rootContainer.getPagedResultsCursors().suspend(
+                  searchOperation, cursor, entryIDReorderedSet, candidatesAreInScope, i);
+              addPagedResultsControl(searchOperation, pageRequest, cookie);
               return;
             }
 
@@ -1355,6 +1389,7 @@ public class EntryContainer
     }
 
     // Indicate no more pages.
+    rootContainer.getPagedResultsCursors().remove(cursor);
     addPagedResultsControl(searchOperation, pageRequest, null);
   }
 
@@ -2535,98 +2570,92 @@ public class EntryContainer
       return null;
     }
 
-    final DN baseDN = searchOperation.getBaseDN();
-    final SearchScope scope = searchOperation.getScope();
-    final SearchFilter filter = searchOperation.getFilter();
-
-    final TreeMap<ByteString, EntryID> sortMap = new TreeMap<>();
-    for (EntryID id : entryIDSet)
+    final SortKeyExtractor extractor =
+        new SortKeyExtractor(id2entry, getEntryCache(), backendID, searchOperation, sortKeys);
+    final long memoryLimit = config.getSortMemoryLimit();
+    final List<EntryIDSorter> sorters = new ArrayList<>(2);
+    try
     {
-      try
+      // See if there is a VLV request to further pare down the set of results, and if there is where it should be
+      // processed by offset or assertion value.
+      if (vlvRequest == null)
       {
-        Entry e = getEntry(txn, id);
-        if (e.matchesBaseAndScope(baseDN, scope) && filter.matchesEntry(e))
-        {
-          sortMap.put(encodeVLVKey(sortKeys, e, id.longValue()), id);
-        }
+        final EntryIDSorter sorter = newSorter(sorters, EntryIDSorter.ASCENDING_ORDER, Long.MAX_VALUE, memoryLimit);
+        extractor.extract(txn, entryIDSet, sorter);
+        return sorter.getSortedEntryIDs(0, (int) sorter.size());
       }
-      catch (Exception e)
+      if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
       {
-        LocalizableMessage message = ERR_ENTRYIDSORTER_CANNOT_EXAMINE_ENTRY.get(id, getExceptionMessage(e));
-        throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), message, e);
+        return sortByOffset(txn, extractor, entryIDSet, searchOperation, vlvRequest, sorters, memoryLimit);
       }
+      return sortByGreaterThanOrEqualAssertion(
+          txn, extractor, entryIDSet, searchOperation, vlvRequest, sortKeys, sorters, memoryLimit);
     }
-
-    // See if there is a VLV request to further pare down the set of results, and if there is where it should be
-    // processed by offset or assertion value.
-    if (vlvRequest == null)
+    catch (IOException e)
     {
-      return toArray(sortMap.values());
+      throw new DirectoryException(
+          DirectoryServer.getServerErrorResultCode(), ERR_ENTRYIDSORTER_CANNOT_SPILL.get(getExceptionMessage(e)), e);
     }
-
-    if (vlvRequest.getTargetType() == VLVRequestControl.TYPE_TARGET_BYOFFSET)
+    finally
     {
-      return sortByOffset(searchOperation, vlvRequest, sortMap);
+      long spilledBytes = 0;
+      for (EntryIDSorter sorter : sorters)
+      {
+        spilledBytes += sorter.getSpilledBytes();
+        sorter.close();
+      }
+      rootContainer.getMonitorProvider().updateSortStats(spilledBytes);
     }
-    return sortByGreaterThanOrEqualAssertion(searchOperation, vlvRequest, sortKeys, sortMap);
   }
 
-  private static final long[] toArray(Collection<EntryID> entryIDs)
+  private EntryIDSorter newSorter(List<EntryIDSorter> sorters, Comparator<ByteString> order, long maxKeys,
+      long memoryLimit)
   {
-    final long[] array = new long[entryIDs.size()];
-    int i = 0;
-    for (EntryID entryID : entryIDs)
-    {
-      array[i++] = entryID.longValue();
-    }
-    return array;
+    // The run files hold normalized values of the entries: protect them like the entries themselves
+    final EntryIDSorter sorter = new EntryIDSorter(order, maxKeys, memoryLimit, sortTempDirectory,
+        config.isConfidentialityEnabled() ? cryptoSuite : null);
+    sorters.add(sorter);
+    return sorter;
   }
 
-  private static final long[] sortByGreaterThanOrEqualAssertion(SearchOperation searchOperation,
-      VLVRequestControl vlvRequest, List<SortKey> sortKeys, final TreeMap<ByteString, EntryID> sortMap)
-      throws DirectoryException
+  private long[] sortByGreaterThanOrEqualAssertion(ReadableTransaction txn,
+      SortKeyExtractor extractor, EntryIDSet entryIDSet, SearchOperation searchOperation,
+      VLVRequestControl vlvRequest, List<SortKey> sortKeys, List<EntryIDSorter> sorters, long memoryLimit)
+      throws DirectoryException, IOException
   {
     ByteString assertionValue = vlvRequest.getGreaterThanOrEqualAssertion();
-    ByteSequence encodedTargetAssertion =
-        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, sortMap.size());
-
-    boolean targetFound = false;
-    int index = 0;
-    int targetIndex = 0;
-    int startIndex = 0;
-    int includedAfterCount = 0;
-    long[] idSet = new long[sortMap.size()];
-    for (Map.Entry<ByteString, EntryID> entry : sortMap.entrySet())
-    {
-      ByteString vlvKey = entry.getKey();
-      EntryID id = entry.getValue();
-      idSet[index++] = id.longValue();
-
-      if (targetFound)
+    final ByteSequence encodedTargetAssertion =
+        encodeTargetAssertion(sortKeys, assertionValue, searchOperation, (int) entryIDSet.size());
+
+    // Only keep the beforeCount entries immediately before the target, and the target followed by the afterCount
+    // entries, although at least one entry is always returned after the target.
+    final int beforeCount = vlvRequest.getBeforeCount();
+    final int afterCount = Math.max(1, vlvRequest.getAfterCount());
+    final EntryIDSorter before = newSorter(sorters, EntryIDSorter.DESCENDING_ORDER, beforeCount, memoryLimit);
+    final EntryIDSorter after = newSorter(sorters, EntryIDSorter.ASCENDING_ORDER, 1L + afterCount, memoryLimit);
+    extractor.extract(txn, entryIDSet, new SortKeyExtractor.SortKeyHandler()
+    {
+      @Override
+      public void add(ByteString sortKey) throws IOException
       {
-        includedAfterCount++;
-        if (includedAfterCount >= vlvRequest.getAfterCount())
-        {
-          break;
-        }
-      }
-      else
-      {
-        targetFound = vlvKey.compareTo(encodedTargetAssertion) >= 0;
-        if (targetFound)
-        {
-          startIndex = Math.max(0, targetIndex - vlvRequest.getBeforeCount());
-        }
-        targetIndex++;
+        (sortKey.compareTo(encodedTargetAssertion) >= 0 ? after : before).add(sortKey);
       }
-    }
+    });
 
+    final int contentCount = (int) (before.size() + after.size());
     final long[] result;
-    if (targetFound)
+    int targetIndex;
+    if (after.size() > 0)
     {
-      final long[] array = new long[index - startIndex];
-      System.arraycopy(idSet, startIndex, array, 0, array.length);
-      result = array;
+      final long[] beforeIDs = before.getSortedEntryIDs(0, beforeCount);
+      final long[] afterIDs = after.getSortedEntryIDs(0, 1 + afterCount);
+      result = new long[beforeIDs.length + afterIDs.length];
+      for (int i = 0; i < beforeIDs.length; i++)
+      {
+        result[i] = beforeIDs[beforeIDs.length - 1 - i];
+      }
+      System.arraycopy(afterIDs, 0, result, beforeIDs.length, afterIDs.length);
+      targetIndex = (int) before.size() + 1;
     }
     else
     {
@@ -2634,21 +2663,22 @@ public class EntryContainer
        * No entry was found to be greater than or equal to the sort key, so the target offset will
        * be one greater than the content count.
        */
-      targetIndex = sortMap.size() + 1;
+      targetIndex = contentCount + 1;
       result = new long[0];
     }
-    addVLVResponseControl(searchOperation, targetIndex, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetIndex, contentCount, SUCCESS);
     return result;
   }
 
-  private static final long[] sortByOffset(SearchOperation searchOperation, VLVRequestControl vlvRequest,
-      TreeMap<ByteString, EntryID> sortMap) throws DirectoryException
+  private long[] sortByOffset(ReadableTransaction txn, SortKeyExtractor extractor,
+      EntryIDSet entryIDSet, SearchOperation searchOperation, VLVRequestControl vlvRequest,
+      List<EntryIDSorter> sorters, long memoryLimit) throws DirectoryException, IOException
   {
     int targetOffset = vlvRequest.getOffset();
     if (targetOffset < 0)
     {
       // The client specified a negative target offset. This should never be allowed.
-      addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), OFFSET_RANGE_ERROR);
+      addVLVResponseControl(searchOperation, targetOffset, (int) entryIDSet.size(), OFFSET_RANGE_ERROR);
 
       LocalizableMessage message = ERR_ENTRYIDSORTER_NEGATIVE_START_POS.get();
       throw new DirectoryException(ResultCode.VIRTUAL_LIST_VIEW_ERROR, message);
@@ -2661,6 +2691,13 @@ public class EntryContainer
     int beforeCount = vlvRequest.getBeforeCount();
     int afterCount = vlvRequest.getAfterCount();
     int listOffset = targetOffset - 1; // VLV offsets start at 1, not 0.
+
+    // Entries after the requested window are never returned, so only the first ones need to be kept.
+    final EntryIDSorter sorter =
+        newSorter(sorters, EntryIDSorter.ASCENDING_ORDER, (long) listOffset + afterCount + 1, memoryLimit);
+    extractor.extract(txn, entryIDSet, sorter);
+    final int contentCount = (int) sorter.size();
+
     int startPos = listOffset - beforeCount;
     if (startPos < 0)
     {
@@ -2669,41 +2706,20 @@ public class EntryContainer
       startPos = 0;
       beforeCount = listOffset;
     }
-    else if (startPos >= sortMap.size())
+    else if (startPos >= contentCount)
     {
       // The start position is beyond the end of the list. In this case, we'll assume that the start position was
       // one greater than the size of the list and will only return the beforeCount entries.
-      targetOffset = sortMap.size() + 1;
-      listOffset = sortMap.size();
-      startPos = listOffset - beforeCount;
+      targetOffset = contentCount + 1;
+      listOffset = contentCount;
+      startPos = Math.max(0, listOffset - beforeCount);
       afterCount = 0;
     }
 
     int count = 1 + beforeCount + afterCount;
-    long[] sortedIDs = new long[count];
-    int treePos = 0;
-    int arrayPos = 0;
-    for (EntryID id : sortMap.values())
-    {
-      if (treePos++ < startPos)
-      {
-        continue;
-      }
-
-      sortedIDs[arrayPos++] = id.longValue();
-      if (arrayPos >= count)
-      {
-        break;
-      }
-    }
-
-    if (arrayPos < count)
-    {
-      // We don't have enough entries in the set to meet the requested page size, so we'll need to shorten the array.
-      sortedIDs = Arrays.copyOf(sortedIDs, arrayPos);
-    }
+    long[] sortedIDs = sorter.getSortedEntryIDs(startPos, count);
 
-    addVLVResponseControl(searchOperation, targetOffset, sortMap.size(), SUCCESS);
+    addVLVResponseControl(searchOperation, targetOffset, contentCount, SUCCESS);
     return sortedIDs;
   }
 
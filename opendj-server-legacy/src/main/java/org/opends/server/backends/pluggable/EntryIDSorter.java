@@ -0,0 +1,421 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.forgerock.util.Utils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.util.Reject;
+import org.opends.server.crypto.CryptoSuite;
+import org.opends.server.types.CryptoManagerException;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.FilePermission;
+
+/**
+ * Sorts the keys encoded by {@link VLVIndex#encodeVLVKey(List, org.opends.server.types.Entry, long)} for the
+ * entries returned by a sorted search, and returns the corresponding entry IDs in sort order.
+ * <p>
+ * A bounded sorter only retains the first {@code maxKeys} keys in sort order, using a max heap, which is what
+ * virtual list view requests need. An unbounded sorter buffers all the keys in memory. In both cases, if the
+ * retained keys exceed the memory limit then they are sorted and written to a temporary run file, and the runs are
+ * merged once all the keys have been added. Each run only contains its first {@code maxKeys} keys, since the
+ * other keys cannot be part of the result.
+ * <p>
+ * The run files hold the sort keys, that is normalized values of the entries: only their owner can read them, and
+ * they are encrypted when a crypto suite is provided.
+ * <p>
+ * This class is not thread safe.
+ */
+final class EntryIDSorter implements SortKeyExtractor.SortKeyHandler, Closeable
+{
+  /** Sorts keys in ascending order. */
+  static final Comparator<ByteString> ASCENDING_ORDER = new Comparator<ByteString>()
+  {
+    @Override
+    public int compare(ByteString key1, ByteString key2)
+    {
+      return key1.compareTo(key2);
+    }
+  };
+  /** Sorts keys in descending order. */
+  static final Comparator<ByteString> DESCENDING_ORDER = Collections.reverseOrder(ASCENDING_ORDER);
+
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final String RUN_FILE_PREFIX = "vlv-sort-";
+  private static final String RUN_FILE_SUFFIX = ".run";
+  /** Approximate per-key memory overhead of the buffers, in bytes. */
+  private static final int KEY_OVERHEAD = 64;
+  private static final int RUN_BUFFER_SIZE = 64 * 1024;
+  private static final int INITIAL_HEAP_CAPACITY = 1024;
+  private static final FilePermission OWNER_ONLY_DIRECTORY = new FilePermission(0700);
+  private static final FilePermission OWNER_ONLY_FILE = new FilePermission(0600);
+
+  /** Reads back the keys of a sorted run file, one at a time. */
+  private static final class RunReader implements Closeable
+  {
+    private final DataInputStream in;
+    private ByteString current;
+
+    private RunReader(InputStream in)
+    {
+      this.in = new DataInputStream(in);
+    }
+
+    /** Moves to the next key, returning {@code false} if the run is exhausted. */
+    private boolean next() throws IOException
+    {
+      final int length;
+      try
+      {
+        length = in.readInt();
+      }
+      catch (EOFException e)
+      {
+        current = null;
+        return false;
+      }
+      final byte[] key = new byte[length];
+      in.readFully(key);
+      current = ByteString.wrap(key);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      in.close();
+    }
+  }
+
+  private final Comparator<ByteString> order;
+  private final long maxKeys;
+  private final long memoryLimit;
+  private final File tempDirectory;
+  private final CryptoSuite cryptoSuite;
+
+  /** The max heap of the retained keys of a bounded sorter, or {@code null} once it has been spilled. */
+  private PriorityQueue<ByteString> heap;
+  /** The buffered keys of an unbounded sorter, or of a bounded sorter which has been spilled. */
+  private List<ByteString> buffer;
+  private long bufferedBytes;
+  private long size;
+  private long spilledBytes;
+  private final List<File> runs = new ArrayList<>();
+
+  /**
+   * Creates a new sorter.
+   *
+   * @param order
+   *          the sort order of the keys
+   * @param maxKeys
+   *          the number of keys to retain, or {@link Long#MAX_VALUE} to retain all of them
+   * @param memoryLimit
+   *          the approximate number of bytes of keys which can be held in memory
+   * @param tempDirectory
+   *          the directory where run files will be written, which is created if needed
+   * @param cryptoSuite
+   *          the crypto suite encrypting the run files, or {@code null} to write them in clear
+   */
+  EntryIDSorter(Comparator<ByteString> order, long maxKeys, long memoryLimit, File tempDirectory,
+      CryptoSuite cryptoSuite)
+  {
+    Reject.ifTrue(maxKeys < 0, "maxKeys must be positive");
+    Reject.ifNull(tempDirectory, "tempDirectory must not be null");
+    this.order = order;
+    this.maxKeys = maxKeys;
+    this.memoryLimit = memoryLimit;
+    this.tempDirectory = tempDirectory;
+    this.cryptoSuite = cryptoSuite;
+    if (maxKeys != Long.MAX_VALUE)
+    {
+      heap = new PriorityQueue<>((int) Math.min(maxKeys + 1, INITIAL_HEAP_CAPACITY), Collections.reverseOrder(order));
+    }
+    else
+    {
+      buffer = new ArrayList<>();
+    }
+  }
+
+  @Override
+  public void add(ByteString key) throws IOException
+  {
+    size++;
+    if (heap != null)
+    {
+      addToHeap(key);
+      return;
+    }
+    buffer.add(key);
+    bufferedBytes += sizeOf(key);
+    if (bufferedBytes > memoryLimit)
+    {
+      spill();
+    }
+  }
+
+  private void addToHeap(ByteString key) throws IOException
+  {
+    if (heap.size() >= maxKeys)
+    {
+      if (maxKeys == 0 || order.compare(key, heap.peek()) >= 0)
+      {
+        // The key is after all the retained keys.
+        return;
+      }
+      bufferedBytes -= sizeOf(heap.poll());
+    }
+    heap.add(key);
+    bufferedBytes += sizeOf(key);
+    if (bufferedBytes > memoryLimit)
+    {
+      // Too many large keys have been requested: fall back to run files.
+      buffer = new ArrayList<>(heap);
+      heap = null;
+      spill();
+    }
+  }
+
+  private static long sizeOf(ByteString key)
+  {
+    return key.length() + KEY_OVERHEAD;
+  }
+
+  /**
+   * Returns the number of keys which have been added to this sorter, including the keys which were not retained.
+   *
+   * @return the number of keys which have been added to this sorter
+   */
+  long size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes written to run files so far.
+   *
+   * @return the number of bytes written to run files so far, {@code 0} if the keys were sorted in memory
+   */
+  long getSpilledBytes()
+  {
+    return spilledBytes;
+  }
+
+  /**
+   * Returns the entry IDs of a range of the sorted keys. This method may only be called once all the keys have
+   * been added.
+   *
+   * @param offset
+   *          the position of the first key of the range, starting at 0
+   * @param length
+   *          the maximum number of entry IDs to return
+   * @return the entry IDs of the keys within the range, in sort order, which may be less than {@code length}
+   * @throws IOException
+   *           if the run files cannot be read
+   */
+  long[] getSortedEntryIDs(long offset, int length) throws IOException
+  {
+    Reject.ifTrue(offset < 0 || length < 0, "offset and length must be positive");
+    final long end = Math.min(Math.min(size, maxKeys), offset + length);
+    final long[] entryIDs = new long[(int) Math.max(0, end - offset)];
+    if (entryIDs.length == 0)
+    {
+      return entryIDs;
+    }
+
+    if (runs.isEmpty())
+    {
+      final List<ByteString> keys = heap != null ? new ArrayList<>(heap) : buffer;
+      Collections.sort(keys, order);
+      for (int i = 0; i < entryIDs.length; i++)
+      {
+        entryIDs[i] = getEntryID(keys.get((int) offset + i));
+      }
+      return entryIDs;
+    }
+
+    if (!buffer.isEmpty())
+    {
+      spill();
+    }
+    mergeRuns(offset, entryIDs);
+    return entryIDs;
+  }
+
+  private void mergeRuns(long offset, long[] entryIDs) throws IOException
+  {
+    final List<RunReader> readers = new ArrayList<>(runs.size());
+    try
+    {
+      final PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(), new Comparator<RunReader>()
+      {
+        @Override
+        public int compare(RunReader r1, RunReader r2)
+        {
+          return order.compare(r1.current, r2.current);
+        }
+      });
+      for (File run : runs)
+      {
+        final RunReader reader = new RunReader(openRun(run));
+        readers.add(reader);
+        if (reader.next())
+        {
+          heads.add(reader);
+        }
+      }
+
+      long position = 0;
+      int i = 0;
+      while (i < entryIDs.length && !heads.isEmpty())
+      {
+        final RunReader head = heads.poll();
+        if (position++ >= offset)
+        {
+          entryIDs[i++] = getEntryID(head.current);
+        }
+        if (head.next())
+        {
+          heads.add(head);
+        }
+      }
+    }
+    finally
+    {
+      closeSilently(readers);
+    }
+  }
+
+  /** The entry ID is appended to the sort key, see {@link VLVIndex#encodeVLVKey}. */
+  private static long getEntryID(ByteString key)
+  {
+    return key.subSequence(key.length() - 8, key.length()).toLong();
+  }
+
+  private void spill() throws IOException
+  {
+    final ByteString[] keys = buffer.toArray(new ByteString[buffer.size()]);
+    Arrays.sort(keys, order);
+    final int length = (int) Math.min(keys.length, maxKeys);
+    final File run = createRun();
+    try (DataOutputStream out = new DataOutputStream(writeRun(run)))
+    {
+      for (int i = 0; i < length; i++)
+      {
+        out.writeInt(keys[i].length());
+        keys[i].copyTo(out);
+      }
+      spilledBytes += out.size();
+    }
+    buffer.clear();
+    bufferedBytes = 0;
+  }
+
+  /** Creates an empty run file which can only be read by its owner. */
+  private File createRun() throws IOException
+  {
+    if (runs.isEmpty() && !tempDirectory.isDirectory())
+    {
+      if (!tempDirectory.mkdirs() && !tempDirectory.isDirectory())
+      {
+        throw new IOException("Cannot create directory " + tempDirectory);
+      }
+      restrictPermissions(tempDirectory, OWNER_ONLY_DIRECTORY);
+    }
+    final File run = File.createTempFile(RUN_FILE_PREFIX, RUN_FILE_SUFFIX, tempDirectory);
+    runs.add(run);
+    restrictPermissions(run, OWNER_ONLY_FILE);
+    return run;
+  }
+
+  private static void restrictPermissions(File file, FilePermission permission)
+  {
+    try
+    {
+      if (!FilePermission.setPermissions(file, permission))
+      {
+        logger.trace("Cannot restrict the permissions of %s", file);
+      }
+    }
+    catch (IOException | DirectoryException e)
+    {
+      // Not supported on this platform
+      logger.traceException(e);
+    }
+  }
+
+  private OutputStream writeRun(File run) throws IOException
+  {
+    final OutputStream out = new FileOutputStream(run);
+    try
+    {
+      return new BufferedOutputStream(cryptoSuite != null ? cryptoSuite.getCipherOutputStream(out) : out,
+          RUN_BUFFER_SIZE);
+    }
+    catch (CryptoManagerException e)
+    {
+      out.close();
+      throw new IOException(e);
+    }
+  }
+
+  private InputStream openRun(File run) throws IOException
+  {
+    final InputStream in = new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE);
+    try
+    {
+      return cryptoSuite != null ? new BufferedInputStream(cryptoSuite.getCipherInputStream(in), RUN_BUFFER_SIZE)
+                                 : in;
+    }
+    catch (CryptoManagerException e)
+    {
+      in.close();
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    for (File run : runs)
+    {
+      run.delete();
+    }
+    runs.clear();
+    heap = null;
+    buffer = null;
+  }
+}
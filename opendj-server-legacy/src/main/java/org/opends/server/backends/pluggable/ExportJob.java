@@ -16,24 +16,41 @@
  */
 package org.opends.server.backends.pluggable;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ByteString;
 import org.opends.server.backends.pluggable.spi.Cursor;
 import org.opends.server.backends.pluggable.spi.ReadOperation;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
 import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.core.DirectoryServer;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.Entry;
 import org.opends.server.types.LDIFExportConfig;
+import org.opends.server.util.LDIFChunkChecksums;
 import org.opends.server.util.LDIFException;
 import org.opends.server.util.StaticUtils;
 
+import static org.forgerock.util.Utils.*;
 import static org.opends.messages.BackendMessages.*;
 
 /** Export a backend to LDIF. */
@@ -47,6 +64,12 @@ class ExportJob
   /** The number of milliseconds between job progress reports. */
   private final long progressInterval = 10000;
 
+  /** The number of consecutive entryIDs exported as a single chunk by a parallel export. */
+  private static final int CHUNK_SIZE = 1000;
+
+  /** The name template of the threads of a parallel export. */
+  private static final String EXPORTER_THREAD_NAME = "EXPORTER-%d";
+
   /** The current number of entries exported. */
   private long exportedCount;
 
@@ -111,31 +134,18 @@ class ExportJob
     // Iterate through the containers.
     try
     {
-      rootContainer.getStorage().read(new ReadOperation<Void>()
+      if (exportConfig.getThreadCount() > 1 && !invokesLDIFExportPlugins())
       {
-        @Override
-        public Void run(ReadableTransaction txn) throws Exception
-        {
-          for (EntryContainer exportContainer : exportContainers)
-          {
-            if (exportConfig.isCancelled())
-            {
-              break;
-            }
-
-            exportContainer.sharedLock.lock();
-            try
-            {
-              exportContainer(txn, exportContainer);
-            }
-            finally
-            {
-              exportContainer.sharedLock.unlock();
-            }
-          }
-          return null;
-        }
-      });
+        exportContainersInParallel(rootContainer.getStorage(), exportContainers);
+      }
+      else
+      {
+        exportContainers(rootContainer.getStorage(), exportContainers);
+      }
+    }
+    catch (IOException | LDIFException | StorageRuntimeException e)
+    {
+      throw e;
     }
     catch (Exception e)
     {
@@ -158,6 +168,52 @@ class ExportJob
     logger.info(NOTE_EXPORT_FINAL_STATUS, exportedCount, skippedCount, totalTime/1000, rate);
   }
 
+  /**
+   * Returns whether the export must invoke LDIF export plugins. Plugins are not required to be thread safe, and are
+   * therefore always invoked by a single thread: a parallel export then falls back to the sequential export.
+   */
+  private boolean invokesLDIFExportPlugins()
+  {
+    if (exportConfig.invokeExportPlugins() && DirectoryServer.getPluginConfigManager().hasLDIFExportPlugins())
+    {
+      if (exportConfig.getThreadCount() > 1)
+      {
+        logger.info(NOTE_EXPORT_SEQUENTIAL_WITH_EXPORT_PLUGINS, exportConfig.getThreadCount());
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private void exportContainers(Storage storage, final List<EntryContainer> exportContainers) throws Exception
+  {
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        for (EntryContainer exportContainer : exportContainers)
+        {
+          if (exportConfig.isCancelled())
+          {
+            break;
+          }
+
+          exportContainer.sharedLock.lock();
+          try
+          {
+            exportContainer(txn, exportContainer);
+          }
+          finally
+          {
+            exportContainer.sharedLock.unlock();
+          }
+        }
+        return null;
+      }
+    });
+  }
+
   /**
    * Export the entries in a single entry entryContainer, in other words from
    * one of the base DNs.
@@ -182,19 +238,9 @@ class ExportJob
         }
 
         ByteString key = cursor.getKey();
-        EntryID entryID = null;
-        try
-        {
-          entryID = new EntryID(key);
-        }
-        catch (Exception e)
+        EntryID entryID = toEntryID(key);
+        if (entryID == null)
         {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
-          }
           skippedCount++;
           continue;
         }
@@ -205,21 +251,9 @@ class ExportJob
           continue;
         }
 
-        ByteString value = cursor.getValue();
-        Entry entry = null;
-        try
+        Entry entry = toEntry(entryContainer, entryID, cursor.getValue());
+        if (entry == null)
         {
-          entry = id2entry.entryFromDatabase(value, entryContainer.getRootContainer().getCompressedSchema());
-        }
-        catch (Exception e)
-        {
-          if (logger.isTraceEnabled())
-          {
-            logger.traceException(e);
-
-            logger.trace("Malformed id2entry record for ID %d:%n%s%n",
-                       entryID, StaticUtils.bytesToHex(value));
-          }
           skippedCount++;
           continue;
         }
@@ -236,6 +270,220 @@ class ExportJob
     }
   }
 
+  private static EntryID toEntryID(ByteString key)
+  {
+    try
+    {
+      return new EntryID(key);
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry ID %s.%n", StaticUtils.bytesToHex(key));
+      }
+      return null;
+    }
+  }
+
+  private static Entry toEntry(EntryContainer entryContainer, EntryID entryID, ByteString value)
+  {
+    try
+    {
+      return entryContainer.getID2Entry().entryFromDatabase(
+          value, entryContainer.getRootContainer().getCompressedSchema());
+    }
+    catch (Exception e)
+    {
+      if (logger.isTraceEnabled())
+      {
+        logger.traceException(e);
+
+        logger.trace("Malformed id2entry record for ID %d:%n%s%n",
+                   entryID, StaticUtils.bytesToHex(value));
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Exports the entries in chunks of consecutive entryIDs, each chunk being read, encoded and compressed by one of
+   * the export threads in its own read transaction. The chunks are written in entryID order, the number of chunks
+   * waiting to be written being bounded to limit the memory used. Unlike a sequential export, the exported entries
+   * are therefore not a snapshot of the whole backend if it is updated during the export.
+   * <p>
+   * Only used when no LDIF export plugins must be invoked, since the entries are encoded by several threads.
+   */
+  private void exportContainersInParallel(Storage storage, List<EntryContainer> exportContainers) throws Exception
+  {
+    final int threadCount = exportConfig.getThreadCount();
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(threadCount, newThreadFactory(null, EXPORTER_THREAD_NAME, true));
+    final OutputStream output = exportConfig.getBlockOutputStream();
+    final String ldifFile = exportConfig.getLDIFFile();
+    final LDIFChunkChecksums checksums = ldifFile != null ? new LDIFChunkChecksums(new File(ldifFile).length()) : null;
+    try
+    {
+      for (EntryContainer exportContainer : exportContainers)
+      {
+        if (exportConfig.isCancelled())
+        {
+          break;
+        }
+
+        exportContainer.sharedLock.lock();
+        try
+        {
+          final long highestID = getHighestEntryID(storage, exportContainer);
+          final Deque<Future<ExportedChunk>> pendingChunks = new ArrayDeque<>();
+          for (long firstID = 1; firstID <= highestID && !exportConfig.isCancelled(); firstID += CHUNK_SIZE)
+          {
+            if (pendingChunks.size() >= 2 * threadCount)
+            {
+              writeChunk(pendingChunks.removeFirst(), output, checksums);
+            }
+            final long lastID = Math.min(firstID + CHUNK_SIZE - 1, highestID);
+            pendingChunks.add(executor.submit(new ChunkExporter(storage, exportContainer, firstID, lastID)));
+          }
+          while (!pendingChunks.isEmpty())
+          {
+            writeChunk(pendingChunks.removeFirst(), output, checksums);
+          }
+        }
+        finally
+        {
+          exportContainer.sharedLock.unlock();
+        }
+      }
+      output.flush();
+      if (checksums != null)
+      {
+        checksums.write(new File(ldifFile));
+      }
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long getHighestEntryID(Storage storage, final EntryContainer entryContainer) throws Exception
+  {
+    return storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return entryContainer.getHighestEntryID(txn).longValue();
+      }
+    });
+  }
+
+  private void writeChunk(Future<ExportedChunk> future, OutputStream output, LDIFChunkChecksums checksums)
+      throws Exception
+  {
+    final ExportedChunk chunk;
+    try
+    {
+      chunk = future.get();
+    }
+    catch (ExecutionException e)
+    {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+    if (chunk.exportedCount > 0)
+    {
+      final byte[] bytes = chunk.bytes.toByteArray();
+      output.write(bytes);
+      if (checksums != null)
+      {
+        checksums.addChunk(bytes);
+      }
+    }
+    exportedCount += chunk.exportedCount;
+    skippedCount += chunk.skippedCount;
+  }
+
+  /** The entries of a range of entryIDs, encoded and compressed if needed. */
+  private static final class ExportedChunk
+  {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private long exportedCount;
+    private long skippedCount;
+  }
+
+  /** Exports the entries of a range of entryIDs into a chunk. */
+  private final class ChunkExporter implements Callable<ExportedChunk>
+  {
+    private final Storage storage;
+    private final EntryContainer entryContainer;
+    private final long firstID;
+    private final long lastID;
+
+    private ChunkExporter(Storage storage, EntryContainer entryContainer, long firstID, long lastID)
+    {
+      this.storage = storage;
+      this.entryContainer = entryContainer;
+      this.firstID = firstID;
+      this.lastID = lastID;
+    }
+
+    @Override
+    public ExportedChunk call() throws Exception
+    {
+      final ExportedChunk chunk = new ExportedChunk();
+      final OutputStream output =
+          exportConfig.compressData() ? new GZIPOutputStream(chunk.bytes) : chunk.bytes;
+      try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output)))
+      {
+        storage.read(new ReadOperation<Void>()
+        {
+          @Override
+          public Void run(ReadableTransaction txn) throws Exception
+          {
+            exportRange(txn, writer, chunk);
+            return null;
+          }
+        });
+      }
+      return chunk;
+    }
+
+    private void exportRange(ReadableTransaction txn, BufferedWriter writer, ExportedChunk chunk)
+        throws IOException, LDIFException
+    {
+      try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(entryContainer.getID2Entry().getName()))
+      {
+        boolean found = cursor.positionToKeyOrNext(new EntryID(firstID).toByteString());
+        for (; found && !exportConfig.isCancelled(); found = cursor.next())
+        {
+          final EntryID entryID = toEntryID(cursor.getKey());
+          if (entryID == null)
+          {
+            chunk.skippedCount++;
+            continue;
+          }
+          if (entryID.longValue() > lastID)
+          {
+            break;
+          }
+
+          final Entry entry = toEntry(entryContainer, entryID, cursor.getValue());
+          if (entry != null && entry.toLDIF(exportConfig, writer))
+          {
+            chunk.exportedCount++;
+          }
+          else
+          {
+            chunk.skippedCount++;
+          }
+        }
+      }
+    }
+  }
+
   /** This class reports progress of the export job at fixed intervals. */
   private class ProgressTask extends TimerTask
   {
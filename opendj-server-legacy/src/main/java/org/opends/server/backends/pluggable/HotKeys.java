@@ -0,0 +1,515 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static java.nio.file.StandardCopyOption.*;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.TreeName;
+
+/**
+ * Records the most frequently read keys of the trees of a backend, so that they can be read again in order to warm up
+ * the database cache the next time the backend is opened.
+ * <p>
+ * The storages do not expose the content of their cache: keys are sampled when they are read through the storage
+ * returned by {@link #getStorage()}, counted, and the most frequently read ones are regularly saved to a file. When
+ * the backend is started, the keys saved in the file are read back in the background, one tree per thread and in key
+ * order so that the storage reads its files as sequentially as possible.
+ */
+final class HotKeys
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The name of the file holding the hot keys, in the directory of the storage. */
+  static final String FILE_NAME = "hot-keys";
+  private static final int FORMAT_VERSION = 1;
+  /** Only one out of this number of reads is recorded. */
+  private static final int SAMPLING_RATE = 8;
+  /** The number of keys read by a warm-up transaction, so that transactions are kept short. */
+  private static final int WARM_UP_BATCH_SIZE = 1000;
+  private static final int MAX_WARM_UP_THREADS = 4;
+  /**
+   * The number of keys, as a multiple of the maximum number of saved keys, from which new keys are not recorded until
+   * the saver thread prunes them.
+   */
+  private static final int MAX_RECORDED_KEYS_FACTOR = 4;
+
+  private final String backendId;
+  private final Storage storage;
+  private final File file;
+  private final int maxCount;
+  private final long saveIntervalSeconds;
+  private final Storage recordingStorage;
+
+  /** The number of times each sampled key has been read, keyed by tree. */
+  private final ConcurrentMap<TreeName, ConcurrentMap<ByteString, AtomicInteger>> counts = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean pruning = new AtomicBoolean();
+  private volatile boolean started;
+
+  /** Saves the hot keys and prunes the recorded keys, away from the threads reading the keys. */
+  private volatile ScheduledExecutorService saver;
+  private ExecutorService warmers;
+
+  /**
+   * Creates the hot keys of a backend.
+   *
+   * @param backendId
+   *          the identifier of the backend
+   * @param storage
+   *          the storage of the backend
+   * @param directory
+   *          the directory of the storage, where the hot keys are saved
+   * @param maxCount
+   *          the maximum number of keys which are saved
+   * @param saveIntervalSeconds
+   *          the interval in seconds between two saves of the hot keys
+   */
+  HotKeys(String backendId, Storage storage, File directory, int maxCount, long saveIntervalSeconds)
+  {
+    this.backendId = backendId;
+    this.storage = storage;
+    this.file = new File(directory, FILE_NAME);
+    this.maxCount = maxCount;
+    this.saveIntervalSeconds = saveIntervalSeconds;
+    this.recordingStorage = new HotKeysRecordingStorage(storage, this);
+  }
+
+  /**
+   * Returns the storage recording the keys which are read.
+   *
+   * @return the storage recording the keys which are read
+   */
+  Storage getStorage()
+  {
+    return recordingStorage;
+  }
+
+  /**
+   * Starts recording the keys which are read, reads the keys saved by a previous run in the background and regularly
+   * saves the hot keys. The storage must be opened.
+   */
+  synchronized void start()
+  {
+    if (started)
+    {
+      return;
+    }
+    started = true;
+    startWarmUp();
+    saver = Executors.newSingleThreadScheduledExecutor(
+        new DirectoryThread.Factory("Hot keys saver for backend " + backendId));
+    saver.scheduleWithFixedDelay(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        saveQuietly();
+      }
+    }, saveIntervalSeconds, saveIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /** Stops the warm-up, stops recording the keys which are read and saves the hot keys. */
+  synchronized void stop()
+  {
+    if (!started)
+    {
+      return;
+    }
+    started = false;
+    warmers.shutdownNow();
+    saver.shutdownNow();
+    try
+    {
+      warmers.awaitTermination(1, TimeUnit.MINUTES);
+      saver.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    saveQuietly();
+    counts.clear();
+    size.set(0);
+    pruning.set(false);
+  }
+
+  /**
+   * Records that a key has been read. Only a sample of the reads is actually recorded, and the recorded keys are
+   * pruned by the saver thread.
+   *
+   * @param treeName
+   *          the name of the tree holding the key
+   * @param key
+   *          the key which has been read
+   */
+  void record(TreeName treeName, ByteSequence key)
+  {
+    if (!started || ThreadLocalRandom.current().nextInt(SAMPLING_RATE) != 0)
+    {
+      return;
+    }
+    ConcurrentMap<ByteString, AtomicInteger> treeCounts = counts.get(treeName);
+    if (treeCounts == null)
+    {
+      final ConcurrentMap<ByteString, AtomicInteger> newTreeCounts = new ConcurrentHashMap<>();
+      treeCounts = counts.putIfAbsent(treeName, newTreeCounts);
+      if (treeCounts == null)
+      {
+        treeCounts = newTreeCounts;
+      }
+    }
+    final ByteString keyCopy = key.toByteString();
+    final AtomicInteger count = treeCounts.get(keyCopy);
+    if (count != null)
+    {
+      count.incrementAndGet();
+    }
+    else if (size.get() < MAX_RECORDED_KEYS_FACTOR * maxCount
+        && treeCounts.putIfAbsent(keyCopy, new AtomicInteger(1)) == null
+        && size.incrementAndGet() > 2 * maxCount)
+    {
+      schedulePrune();
+    }
+  }
+
+  /** Asks the saver thread to prune the recorded keys, unless it is already doing it. */
+  private void schedulePrune()
+  {
+    final ScheduledExecutorService executor = saver;
+    if (executor == null || !pruning.compareAndSet(false, true))
+    {
+      return;
+    }
+    try
+    {
+      executor.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          prune();
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      // The backend is being stopped
+      pruning.set(false);
+    }
+  }
+
+  /** Returns the number of keys currently recorded, saved or not. */
+  int getRecordedKeyCount()
+  {
+    return size.get();
+  }
+
+  /** Keeps the most frequently read keys, and halves their counts so that keys which are no longer read fade out. */
+  private void prune()
+  {
+    try
+    {
+      final Map<TreeName, Set<ByteString>> keptKeys = new HashMap<>();
+      for (HotKey hotKey : getHottestKeys())
+      {
+        Set<ByteString> keys = keptKeys.get(hotKey.treeName);
+        if (keys == null)
+        {
+          keys = new HashSet<>();
+          keptKeys.put(hotKey.treeName, keys);
+        }
+        keys.add(hotKey.key);
+      }
+      for (Map.Entry<TreeName, ConcurrentMap<ByteString, AtomicInteger>> tree : counts.entrySet())
+      {
+        final Set<ByteString> keys = keptKeys.get(tree.getKey());
+        final ConcurrentMap<ByteString, AtomicInteger> treeCounts = tree.getValue();
+        for (Map.Entry<ByteString, AtomicInteger> entry : treeCounts.entrySet())
+        {
+          if (keys == null || !keys.contains(entry.getKey()))
+          {
+            if (treeCounts.remove(entry.getKey(), entry.getValue()))
+            {
+              size.decrementAndGet();
+            }
+          }
+          else
+          {
+            entry.getValue().set(Math.max(1, entry.getValue().get() / 2));
+          }
+        }
+      }
+    }
+    finally
+    {
+      pruning.set(false);
+    }
+  }
+
+  /** Returns at most {@code maxCount} keys, from the most to the least frequently read one. */
+  private List<HotKey> getHottestKeys()
+  {
+    final List<HotKey> hotKeys = new ArrayList<>();
+    for (Map.Entry<TreeName, ConcurrentMap<ByteString, AtomicInteger>> tree : counts.entrySet())
+    {
+      for (Map.Entry<ByteString, AtomicInteger> entry : tree.getValue().entrySet())
+      {
+        hotKeys.add(new HotKey(tree.getKey(), entry.getKey(), entry.getValue().get()));
+      }
+    }
+    Collections.sort(hotKeys, new Comparator<HotKey>()
+    {
+      @Override
+      public int compare(HotKey k1, HotKey k2)
+      {
+        return Integer.compare(k2.count, k1.count);
+      }
+    });
+    return hotKeys.size() > maxCount ? hotKeys.subList(0, maxCount) : hotKeys;
+  }
+
+  private void saveQuietly()
+  {
+    try
+    {
+      save();
+    }
+    catch (IOException e)
+    {
+      logger.traceException(e);
+      logger.warn(WARN_HOT_KEYS_SAVE_FAILED, backendId, file, stackTraceToSingleLineString(e));
+    }
+  }
+
+  /**
+   * Saves the hot keys, grouped by tree and sorted, replacing the previously saved ones.
+   *
+   * @throws IOException
+   *           if the hot keys could not be saved
+   */
+  void save() throws IOException
+  {
+    final Map<TreeName, SortedSet<ByteString>> trees = new TreeMap<>();
+    for (HotKey hotKey : getHottestKeys())
+    {
+      SortedSet<ByteString> keys = trees.get(hotKey.treeName);
+      if (keys == null)
+      {
+        keys = new TreeSet<>();
+        trees.put(hotKey.treeName, keys);
+      }
+      keys.add(hotKey.key);
+    }
+    if (trees.isEmpty())
+    {
+      // Do not lose the keys of the previous run when the backend is stopped before serving any request
+      return;
+    }
+
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+    {
+      output.writeInt(FORMAT_VERSION);
+      output.writeInt(trees.size());
+      for (Map.Entry<TreeName, SortedSet<ByteString>> tree : trees.entrySet())
+      {
+        output.writeUTF(tree.getKey().toString());
+        output.writeInt(tree.getValue().size());
+        for (ByteString key : tree.getValue())
+        {
+          output.writeInt(key.length());
+          key.copyTo(output);
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the saved hot keys.
+   *
+   * @return the sorted hot keys, keyed by tree, which are empty if no hot keys have been saved
+   * @throws IOException
+   *           if the hot keys could not be read
+   */
+  Map<TreeName, List<ByteString>> load() throws IOException
+  {
+    final Map<TreeName, List<ByteString>> trees = new TreeMap<>();
+    if (!file.exists())
+    {
+      return trees;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      final int version = input.readInt();
+      if (version > FORMAT_VERSION)
+      {
+        throw new IOException("unsupported version " + version);
+      }
+      for (int i = input.readInt(); i > 0; i--)
+      {
+        final TreeName treeName = TreeName.valueOf(input.readUTF());
+        final List<ByteString> keys = new ArrayList<>();
+        for (int j = input.readInt(); j > 0; j--)
+        {
+          final byte[] key = new byte[input.readInt()];
+          input.readFully(key);
+          keys.add(ByteString.wrap(key));
+        }
+        trees.put(treeName, keys);
+      }
+      return trees;
+    }
+    catch (EOFException e)
+    {
+      throw new IOException("truncated file", e);
+    }
+  }
+
+  private void startWarmUp()
+  {
+    Map<TreeName, List<ByteString>> trees;
+    try
+    {
+      trees = load();
+    }
+    catch (IOException e)
+    {
+      logger.traceException(e);
+      logger.warn(WARN_HOT_KEYS_LOAD_FAILED, backendId, file, stackTraceToSingleLineString(e));
+      trees = Collections.emptyMap();
+    }
+
+    final int nbThreads = Math.max(1, Math.min(trees.size(), MAX_WARM_UP_THREADS));
+    warmers = Executors.newFixedThreadPool(nbThreads, new DirectoryThread.Factory("Hot keys warm-up for backend "
+        + backendId));
+    if (trees.isEmpty())
+    {
+      return;
+    }
+
+    int nbKeys = 0;
+    for (List<ByteString> keys : trees.values())
+    {
+      nbKeys += keys.size();
+    }
+    logger.info(NOTE_HOT_KEYS_WARM_UP_STARTED, backendId, nbKeys, trees.size());
+    final long startTime = System.currentTimeMillis();
+    final AtomicInteger remainingTrees = new AtomicInteger(trees.size());
+    final int totalKeys = nbKeys;
+    for (final Map.Entry<TreeName, List<ByteString>> tree : trees.entrySet())
+    {
+      warmers.execute(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          warmUp(tree.getKey(), tree.getValue());
+          if (remainingTrees.decrementAndGet() == 0 && started)
+          {
+            logger.info(NOTE_HOT_KEYS_WARM_UP_DONE, backendId, totalKeys, System.currentTimeMillis() - startTime);
+          }
+        }
+      });
+    }
+  }
+
+  /** Reads the keys of a tree in batches, directly from the storage so that they are not recorded again. */
+  private void warmUp(final TreeName treeName, final List<ByteString> keys)
+  {
+    try
+    {
+      for (int i = 0; i < keys.size() && started && !Thread.currentThread().isInterrupted(); i += WARM_UP_BATCH_SIZE)
+      {
+        final List<ByteString> batch = keys.subList(i, Math.min(i + WARM_UP_BATCH_SIZE, keys.size()));
+        storage.read(new ReadOperation<Void>()
+        {
+          @Override
+          public Void run(ReadableTransaction txn) throws Exception
+          {
+            for (ByteString key : batch)
+            {
+              txn.read(treeName, key);
+            }
+            return null;
+          }
+        });
+      }
+    }
+    catch (Exception e)
+    {
+      // The tree may have been removed since the keys were saved, or the backend is being closed
+      logger.traceException(e);
+    }
+  }
+
+  /** A sampled key with the number of times it has been read. */
+  private static final class HotKey
+  {
+    private final TreeName treeName;
+    private final ByteString key;
+    private final int count;
+
+    private HotKey(TreeName treeName, ByteString key, int count)
+    {
+      this.treeName = treeName;
+      this.key = key;
+      this.count = count;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
+import org.opends.server.backends.pluggable.spi.StorageStatus;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.types.BackupConfig;
+import org.opends.server.types.BackupDirectory;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.RestoreConfig;
+
+/**
+ * Decorates a {@link Storage} in order to record the keys which are read into {@link HotKeys}: the keys read directly
+ * and the keys cursors are positioned to. Keys which are only iterated over by cursors are not recorded.
+ */
+final class HotKeysRecordingStorage implements Storage
+{
+  /** Decorates a {@link Cursor} in order to record the keys it is positioned to. */
+  private final class RecordingCursor implements Cursor<ByteString, ByteString>
+  {
+    private final TreeName treeName;
+    private final Cursor<ByteString, ByteString> cursor;
+
+    private RecordingCursor(final TreeName treeName, final Cursor<ByteString, ByteString> cursor)
+    {
+      this.treeName = treeName;
+      this.cursor = cursor;
+    }
+
+    @Override
+    public boolean positionToKey(final ByteSequence key)
+    {
+      return record(cursor.positionToKey(key));
+    }
+
+    @Override
+    public boolean positionToKeyOrNext(final ByteSequence key)
+    {
+      return record(cursor.positionToKeyOrNext(key));
+    }
+
+    private boolean record(boolean isDefined)
+    {
+      if (isDefined)
+      {
+        hotKeys.record(treeName, cursor.getKey());
+      }
+      return isDefined;
+    }
+
+    @Override
+    public boolean positionToLastKey()
+    {
+      return cursor.positionToLastKey();
+    }
+
+    @Override
+    public boolean positionToIndex(int index)
+    {
+      return cursor.positionToIndex(index);
+    }
+
+    @Override
+    public boolean next()
+    {
+      return cursor.next();
+    }
+
+    @Override
+    public boolean isDefined()
+    {
+      return cursor.isDefined();
+    }
+
+    @Override
+    public ByteString getKey() throws NoSuchElementException
+    {
+      return cursor.getKey();
+    }
+
+    @Override
+    public ByteString getValue() throws NoSuchElementException
+    {
+      return cursor.getValue();
+    }
+
+    @Override
+    public void delete() throws NoSuchElementException, UnsupportedOperationException
+    {
+      cursor.delete();
+    }
+
+    @Override
+    public void close()
+    {
+      cursor.close();
+    }
+  }
+
+  /** Decorates a {@link ReadableTransaction} in order to record the keys which are read. */
+  private final class RecordingReadableTransaction implements ReadableTransaction
+  {
+    private final ReadableTransaction txn;
+
+    private RecordingReadableTransaction(final ReadableTransaction txn)
+    {
+      this.txn = txn;
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final ByteString value = txn.read(treeName, key);
+      if (value != null)
+      {
+        hotKeys.record(treeName, key);
+      }
+      return value;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new RecordingCursor(treeName, txn.openCursor(treeName));
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return txn.getRecordCount(treeName);
+    }
+  }
+
+  /** Decorates a {@link WriteableTransaction} in order to record the keys which are read. */
+  private final class RecordingWriteableTransaction implements WriteableTransaction
+  {
+    private final WriteableTransaction txn;
+
+    private RecordingWriteableTransaction(final WriteableTransaction txn)
+    {
+      this.txn = txn;
+    }
+
+    @Override
+    public ByteString read(final TreeName treeName, final ByteSequence key)
+    {
+      final ByteString value = txn.read(treeName, key);
+      if (value != null)
+      {
+        hotKeys.record(treeName, key);
+      }
+      return value;
+    }
+
+    @Override
+    public Cursor<ByteString, ByteString> openCursor(final TreeName treeName)
+    {
+      return new RecordingCursor(treeName, txn.openCursor(treeName));
+    }
+
+    @Override
+    public long getRecordCount(final TreeName treeName)
+    {
+      return txn.getRecordCount(treeName);
+    }
+
+    @Override
+    public void openTree(final TreeName treeName, final boolean createOnDemand)
+    {
+      txn.openTree(treeName, createOnDemand);
+    }
+
+    @Override
+    public void deleteTree(final TreeName treeName)
+    {
+      txn.deleteTree(treeName);
+    }
+
+    @Override
+    public void put(final TreeName treeName, final ByteSequence key, final ByteSequence value)
+    {
+      txn.put(treeName, key, value);
+    }
+
+    @Override
+    public boolean update(final TreeName treeName, final ByteSequence key, final UpdateFunction f)
+    {
+      return txn.update(treeName, key, f);
+    }
+
+    @Override
+    public boolean delete(final TreeName treeName, final ByteSequence key)
+    {
+      return txn.delete(treeName, key);
+    }
+  }
+
+  private final Storage storage;
+  private final HotKeys hotKeys;
+
+  HotKeysRecordingStorage(final Storage storage, final HotKeys hotKeys)
+  {
+    this.storage = storage;
+    this.hotKeys = hotKeys;
+  }
+
+  @Override
+  public <T> T read(final ReadOperation<T> readOperation) throws Exception
+  {
+    return storage.read(new ReadOperation<T>()
+    {
+      @Override
+      public T run(final ReadableTransaction txn) throws Exception
+      {
+        return readOperation.run(new RecordingReadableTransaction(txn));
+      }
+    });
+  }
+
+  @Override
+  public void write(final WriteOperation writeOperation) throws Exception
+  {
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(final WriteableTransaction txn) throws Exception
+      {
+        writeOperation.run(new RecordingWriteableTransaction(txn));
+      }
+    });
+  }
+
+  @Override
+  public void open(final AccessMode accessMode) throws Exception
+  {
+    storage.open(accessMode);
+  }
+
+  @Override
+  public void close()
+  {
+    storage.close();
+  }
+
+  @Override
+  public Importer startImport() throws ConfigException, StorageRuntimeException
+  {
+    return storage.startImport();
+  }
+
+  @Override
+  public void removeStorageFiles() throws StorageRuntimeException
+  {
+    storage.removeStorageFiles();
+  }
+
+  @Override
+  public StorageStatus getStorageStatus()
+  {
+    return storage.getStorageStatus();
+  }
+
+  @Override
+  public boolean supportsBackupAndRestore()
+  {
+    return storage.supportsBackupAndRestore();
+  }
+
+  @Override
+  public void createBackup(final BackupConfig backupConfig) throws DirectoryException
+  {
+    storage.createBackup(backupConfig);
+  }
+
+  @Override
+  public void removeBackup(final BackupDirectory backupDirectory, final String backupID) throws DirectoryException
+  {
+    storage.removeBackup(backupDirectory, backupID);
+  }
+
+  @Override
+  public void restoreBackup(final RestoreConfig restoreConfig) throws DirectoryException
+  {
+    storage.restoreBackup(restoreConfig);
+  }
+
+  @Override
+  public Set<TreeName> listTrees()
+  {
+    return storage.listTrees();
+  }
+}
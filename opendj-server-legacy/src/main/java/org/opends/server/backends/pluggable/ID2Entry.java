@@ -48,10 +48,12 @@ import org.opends.server.backends.pluggable.spi.StorageRuntimeException;
 import org.opends.server.backends.pluggable.spi.TreeName;
 import org.opends.server.backends.pluggable.spi.WriteableTransaction;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.OperationTracer;
 import org.opends.server.types.CryptoManagerException;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.LDAPException;
+import org.opends.server.types.OperationPhase;
 
 /**
  * Represents the tree containing the LDAP entries.
@@ -456,14 +458,57 @@ class ID2Entry extends AbstractTree
   public Entry get(ReadableTransaction txn, EntryID entryID)
        throws DirectoryException, StorageRuntimeException
   {
+    final ByteString value;
     try
     {
-      return get0(txn.read(getName(), entryID.toByteString()));
+      value = read(txn, entryID);
     }
     catch (Exception e)
     {
       throw new DirectoryException(DirectoryServer.getServerErrorResultCode(), ERR_ENTRY_DATABASE_CORRUPT.get(entryID));
     }
+    // Only the decoding is measured as the entry decode phase, not the storage read
+    return decode(entryID, value);
+  }
+
+  /**
+   * Reads the encoded value of a record of the entry tree, which can be decoded later on with
+   * {@link #decode(EntryID, ByteString)}, possibly by another thread.
+   *
+   * @param txn a non null transaction
+   * @param entryID The desired entry ID which forms the key.
+   * @return The encoded entry, or null if there is no such record.
+   * @throws StorageRuntimeException If an error occurs in the storage.
+   */
+  ByteString read(ReadableTransaction txn, EntryID entryID)
+  {
+    return txn.read(getName(), entryID.toByteString());
+  }
+
+  /**
+   * Decodes a record value read with {@link #read(ReadableTransaction, EntryID)}.
+   *
+   * @param entryID The entry ID of the record.
+   * @param value The encoded entry, may be null.
+   * @return The decoded entry, or null if the value is null.
+   * @throws DirectoryException If the entry cannot be decoded.
+   */
+  Entry decode(EntryID entryID, ByteString value) throws DirectoryException
+  {
+    final long startTime = OperationTracer.startPhase();
+    try
+    {
+      return get0(value);
+    }
+    catch (Exception e)
+    {
+      throw new DirectoryException(
+          DirectoryServer.getServerErrorResultCode(), ERR_ENTRY_DATABASE_CORRUPT.get(entryID), e);
+    }
+    finally
+    {
+      OperationTracer.endPhase(OperationPhase.ENTRY_DECODE, startTime);
+    }
   }
 
   Cursor<EntryID, Entry> openCursor(ReadableTransaction txn)
@@ -25,9 +25,11 @@ import java.util.Map;
 
 import org.opends.server.backends.pluggable.AttributeIndex.IndexFilterType;
 import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.core.OperationTracer;
 import org.opends.server.core.SearchOperation;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.types.FilterType;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.SearchFilter;
 
 /**
@@ -91,7 +93,15 @@ class IndexFilter
   EntryIDSet evaluate()
   {
     appendToDebugBuffer("filter=");
-    return evaluateFilter(searchOp.getFilter());
+    final long startTime = OperationTracer.startPhase();
+    try
+    {
+      return evaluateFilter(searchOp.getFilter());
+    }
+    finally
+    {
+      OperationTracer.endPhase(OperationPhase.INDEX, startTime);
+    }
   }
 
   /**
@@ -132,7 +132,7 @@ import sun.misc.Unsafe;
  */
 final class OnDiskMergeImporter
 {
-  private static final String DEFAULT_TMP_DIR = "import-tmp";
+  static final String DEFAULT_TMP_DIR = "import-tmp";
 
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
@@ -280,6 +280,10 @@ final class OnDiskMergeImporter
         clearDegradedState(entryContainer, indexesToRebuild);
         logger.info(NOTE_REBUILD_CLEARDEGRADEDSTATE_FINAL_STATUS, rebuildConfig.getRebuildList());
       }
+      else if (rebuildConfig.isOnline())
+      {
+        new OnlineIndexBuilder(entryContainer, indexesToRebuild, rebuildConfig, totalEntries).build();
+      }
       else
       {
         rebuildIndex(entryContainer, rebuildConfig.getTmpDirectory(), indexesToRebuild, totalEntries);
@@ -356,7 +360,7 @@ final class OnDiskMergeImporter
         // User defined format is attributeType(.indexType)
         visitIndexes(entryContainer,
             visitOnlyIndexes(buildUserDefinedIndexNames(entryContainer, rebuildConfig.getRebuildList()), selector));
-        if (!rebuildConfig.isClearDegradedState())
+        if (!rebuildConfig.isClearDegradedState() && !rebuildConfig.isOnline())
         {
           logger.info(NOTE_REBUILD_START, Utils.joinAsString(", ", rebuildConfig.getRebuildList()), totalEntries);
         }
@@ -0,0 +1,370 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.messages.BackendMessages.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.util.Utils;
+import org.opends.server.backends.RebuildConfig;
+import org.opends.server.backends.RebuildConfig.ProgressListener;
+import org.opends.server.backends.pluggable.AttributeIndex.MatchingRuleIndex;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.types.Entry;
+import org.opends.server.types.InitializationException;
+import org.opends.server.types.LockManager.DNLock;
+
+/**
+ * Rebuilds attribute indexes while the backend remains enabled.
+ * <p>
+ * The indexes are first emptied and marked as being built: they stay untrusted, so that searches do not use them, but
+ * the concurrent updates of the entries add their keys as if they were trusted. The entries are then scanned in
+ * entryID order, each one being read and indexed while holding its read lock, so that an entry is either indexed by
+ * the scan after its last update, or updated after being indexed by the scan. The indexes are trusted once all the
+ * entries have been scanned.
+ */
+final class OnlineIndexBuilder
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The number of entryIDs read from id2entry in a single read transaction. */
+  private static final int BATCH_SIZE = 1000;
+  /** The number of attempts to lock an entry before aborting the rebuild. */
+  private static final int LOCK_ATTEMPTS = 3;
+  /** The interval in milliseconds between two progress reports. */
+  private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+  private final Storage storage;
+  private final EntryContainer entryContainer;
+  private final Collection<MatchingRuleIndex> indexes;
+  private final int maxEntriesPerSecond;
+  private final ProgressListener progressListener;
+  private final long totalEntries;
+
+  private long processedEntries;
+  private long startTime;
+  private long previousReportTime;
+  private long previousReportCount;
+
+  /**
+   * Creates a builder of the provided indexes.
+   *
+   * @param entryContainer
+   *          the entry container whose indexes are rebuilt
+   * @param indexNames
+   *          the names of the indexes to rebuild
+   * @param rebuildConfig
+   *          the rebuild configuration, providing the throttling and the progress listener
+   * @param totalEntries
+   *          the number of entries to process
+   * @throws InitializationException
+   *           if one of the indexes is not an attribute index
+   */
+  OnlineIndexBuilder(EntryContainer entryContainer, Set<String> indexNames, RebuildConfig rebuildConfig,
+      long totalEntries) throws InitializationException
+  {
+    this.storage = entryContainer.getRootContainer().getStorage();
+    this.entryContainer = entryContainer;
+    this.indexes = selectIndexes(entryContainer, indexNames);
+    this.maxEntriesPerSecond = rebuildConfig.getMaxEntriesPerSecond();
+    this.progressListener = rebuildConfig.getProgressListener();
+    this.totalEntries = totalEntries;
+  }
+
+  private static Collection<MatchingRuleIndex> selectIndexes(EntryContainer entryContainer, Set<String> indexNames)
+      throws InitializationException
+  {
+    final Set<String> remainingNames = new HashSet<>();
+    for (String indexName : indexNames)
+    {
+      remainingNames.add(indexName.toLowerCase());
+    }
+
+    final List<MatchingRuleIndex> indexes = new ArrayList<>();
+    for (AttributeIndex attributeIndex : entryContainer.getAttributeIndexes())
+    {
+      for (MatchingRuleIndex index : attributeIndex.getNameToIndexes().values())
+      {
+        if (remainingNames.remove(index.getName().getIndexId().toLowerCase()))
+        {
+          indexes.add(index);
+        }
+      }
+    }
+    if (!remainingNames.isEmpty())
+    {
+      throw new InitializationException(ERR_REBUILD_ONLINE_UNSUPPORTED_INDEX.get(remainingNames.iterator().next()));
+    }
+    return indexes;
+  }
+
+  /**
+   * Rebuilds the indexes. They are left untrusted if the rebuild fails.
+   *
+   * @throws Exception
+   *           if the rebuild failed
+   */
+  void build() throws Exception
+  {
+    if (indexes.isEmpty())
+    {
+      logger.info(NOTE_REBUILD_NOTHING_TO_REBUILD);
+      return;
+    }
+    logger.info(NOTE_REBUILD_ONLINE_START, Utils.joinAsString(", ", getIndexNames()), totalEntries);
+
+    startTime = System.currentTimeMillis();
+    previousReportTime = startTime;
+    try
+    {
+      startBuilding();
+      scanEntries();
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (MatchingRuleIndex index : indexes)
+          {
+            index.setTrusted(txn, true);
+          }
+        }
+      });
+    }
+    finally
+    {
+      for (MatchingRuleIndex index : indexes)
+      {
+        index.setBuilding(false);
+      }
+    }
+
+    final long totalTime = System.currentTimeMillis() - startTime;
+    final float rate = totalTime > 0 ? 1000f * processedEntries / totalTime : 0;
+    logger.info(NOTE_REBUILD_FINAL_STATUS, processedEntries, totalTime / 1000, rate);
+  }
+
+  private Collection<String> getIndexNames()
+  {
+    final Collection<String> names = new ArrayList<>();
+    for (MatchingRuleIndex index : indexes)
+    {
+      names.add(index.getName().getIndexId());
+    }
+    return names;
+  }
+
+  /** Empties the indexes while no operation is in progress on the entry container, then starts building them. */
+  private void startBuilding() throws Exception
+  {
+    entryContainer.exclusiveLock.lock();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          for (MatchingRuleIndex index : indexes)
+          {
+            entryContainer.deleteTree(txn, index);
+            index.open(txn, true);
+            index.setTrusted(txn, false);
+            index.setBuilding(true);
+          }
+        }
+      });
+    }
+    finally
+    {
+      entryContainer.exclusiveLock.unlock();
+    }
+  }
+
+  private void scanEntries() throws Exception
+  {
+    ByteString nextKey = new EntryID(0).toByteString();
+    List<EntryID> entryIDs;
+    while (!(entryIDs = readEntryIDs(nextKey)).isEmpty())
+    {
+      for (EntryID entryID : entryIDs)
+      {
+        indexEntry(entryID);
+        processedEntries++;
+        throttle();
+        reportProgress();
+      }
+      nextKey = new EntryID(entryIDs.get(entryIDs.size() - 1).longValue() + 1).toByteString();
+    }
+  }
+
+  private List<EntryID> readEntryIDs(final ByteString fromKey) throws Exception
+  {
+    return storage.read(new ReadOperation<List<EntryID>>()
+    {
+      @Override
+      public List<EntryID> run(ReadableTransaction txn) throws Exception
+      {
+        final List<EntryID> entryIDs = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(entryContainer.getID2Entry().getName()))
+        {
+          boolean found = cursor.positionToKeyOrNext(fromKey);
+          while (found && entryIDs.size() < BATCH_SIZE)
+          {
+            entryIDs.add(new EntryID(cursor.getKey()));
+            found = cursor.next();
+          }
+        }
+        return entryIDs;
+      }
+    });
+  }
+
+  private void indexEntry(final EntryID entryID) throws Exception
+  {
+    final Entry entry = readEntry(entryID);
+    DN entryDN = entry != null ? entry.getName() : null;
+    while (entryDN != null)
+    {
+      final DNLock entryLock = lockEntry(entryDN);
+      try
+      {
+        // The entry may have been removed or renamed in the meantime: retry with its current DN, if any.
+        entryDN = indexEntryIfNotRenamed(entryID, entryDN);
+      }
+      finally
+      {
+        entryLock.unlock();
+      }
+    }
+  }
+
+  private Entry readEntry(final EntryID entryID) throws Exception
+  {
+    return storage.read(new ReadOperation<Entry>()
+    {
+      @Override
+      public Entry run(ReadableTransaction txn) throws Exception
+      {
+        return entryContainer.getID2Entry().get(txn, entryID);
+      }
+    });
+  }
+
+  private DNLock lockEntry(DN entryDN) throws InitializationException
+  {
+    for (int i = 0; i < LOCK_ATTEMPTS; i++)
+    {
+      final DNLock entryLock = DirectoryServer.getLockManager().tryReadLockEntry(entryDN);
+      if (entryLock != null)
+      {
+        return entryLock;
+      }
+    }
+    throw new InitializationException(ERR_REBUILD_ONLINE_CANNOT_LOCK_ENTRY.get(entryDN));
+  }
+
+  /**
+   * Indexes the entry having the provided entryID if its DN is still the locked DN.
+   *
+   * @return the current DN of the entry if it has been renamed, or {@code null} if it has been indexed or removed
+   */
+  private DN indexEntryIfNotRenamed(final EntryID entryID, final DN lockedDN) throws Exception
+  {
+    final DN[] renamedDN = new DN[1];
+    entryContainer.sharedLock.lock();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          final Entry entry = entryContainer.getID2Entry().get(txn, entryID);
+          if (entry == null)
+          {
+            return;
+          }
+          if (!entry.getName().equals(lockedDN))
+          {
+            renamedDN[0] = entry.getName();
+            return;
+          }
+          final EntryIDSet addedIDs = EntryIDSet.newDefinedSet(entryID.longValue());
+          for (MatchingRuleIndex index : indexes)
+          {
+            for (ByteString key : index.indexEntry(entry))
+            {
+              index.update(txn, key, null, addedIDs);
+            }
+          }
+        }
+      });
+    }
+    finally
+    {
+      entryContainer.sharedLock.unlock();
+    }
+    return renamedDN[0];
+  }
+
+  private void throttle() throws InterruptedException
+  {
+    if (maxEntriesPerSecond > 0)
+    {
+      final long waitTime = processedEntries * 1000 / maxEntriesPerSecond - (System.currentTimeMillis() - startTime);
+      if (waitTime > 0)
+      {
+        Thread.sleep(waitTime);
+      }
+    }
+  }
+
+  private void reportProgress()
+  {
+    final long now = System.currentTimeMillis();
+    final long deltaTime = now - previousReportTime;
+    if (deltaTime < PROGRESS_INTERVAL_MILLIS)
+    {
+      return;
+    }
+    final float progressPercent = totalEntries > 0 ? Math.round((100f * processedEntries) / totalEntries) : 0;
+    final float rate = 1000f * (processedEntries - previousReportCount) / deltaTime;
+    logger.info(NOTE_REBUILD_PROGRESS_REPORT, progressPercent, processedEntries, totalEntries, rate);
+    if (progressListener != null)
+    {
+      final long remainingEntries = Math.max(totalEntries - processedEntries, 0);
+      final long remainingSeconds = rate > 0 ? (long) (remainingEntries / rate) : -1;
+      progressListener.rebuildProgress(processedEntries, remainingEntries, remainingSeconds);
+    }
+    previousReportTime = now;
+    previousReportCount = processedEntries;
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import java.lang.ref.SoftReference;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.controls.PagedResultsControl;
+import org.opends.server.controls.ServerSideSortRequestControl;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.types.Control;
+import org.opends.server.types.DirectoryException;
+
+/**
+ * Keeps the state of indexed searches using the simple paged results control, so that the next pages can be
+ * returned without evaluating the indexes again, nor looking for the position of the last returned entry.
+ * <p>
+ * Each cursor holds a snapshot of the remaining candidate entry IDs along with the position of the next entry to
+ * return. Cursors are identified by a random ID which is part of the paged results cookie, followed by the ID of
+ * the next entry to return. A cursor can only be resumed by a search with the same base DN, scope, filter and sort
+ * order, issued with the same authorization identity: since REST gateways usually send each page on a different
+ * pooled connection, cursors are not bound to a client connection.
+ * <p>
+ * Cursors expire after a period of inactivity. The least recently used cursors are evicted once the memory limit is
+ * reached, or when a client connection opens too many cursors. Since snapshots are only softly referenced, they can
+ * also be reclaimed by the garbage collector under memory pressure. In all these cases the search is evaluated
+ * again and resumes after the last returned entry, as it did before cursors were introduced.
+ * <p>
+ * This class is thread safe.
+ */
+final class PagedResultsCursors
+{
+  /** The maximum number of cursors which can be opened by a single client connection. */
+  static final int MAX_CURSORS_PER_CONNECTION = 8;
+  /** Approximate memory overhead of a cursor, in bytes. */
+  private static final int CURSOR_OVERHEAD = 256;
+  private static final int COOKIE_LENGTH = 16;
+
+  /** The state of a paged search between two pages. */
+  static final class Cursor
+  {
+    private final long id;
+    private final String search;
+    private final long connectionID;
+    private final SoftReference<long[]> entryIDs;
+    private final long size;
+    private final boolean candidatesAreInScope;
+    private final List<Control> responseControls;
+    private int position;
+    private long lastAccessTime;
+
+    private Cursor(long id, String search, long connectionID, long[] entryIDs, boolean candidatesAreInScope,
+        List<Control> responseControls)
+    {
+      this.id = id;
+      this.search = search;
+      this.connectionID = connectionID;
+      this.entryIDs = new SoftReference<>(entryIDs);
+      this.size = CURSOR_OVERHEAD + 8L * entryIDs.length;
+      this.candidatesAreInScope = candidatesAreInScope;
+      this.responseControls = responseControls;
+    }
+
+    /**
+     * Returns the snapshot of the candidate entry IDs.
+     *
+     * @return the snapshot of the candidate entry IDs, or {@code null} if it has been reclaimed
+     */
+    long[] getEntryIDs()
+    {
+      return entryIDs.get();
+    }
+
+    boolean areCandidatesInScope()
+    {
+      return candidatesAreInScope;
+    }
+
+    /**
+     * Returns the response controls, such as the server side sort response control, which were returned with
+     * the first page.
+     *
+     * @return the response controls which were returned with the first page
+     */
+    List<Control> getResponseControls()
+    {
+      return responseControls;
+    }
+  }
+
+  private final SecureRandom random = new SecureRandom();
+  /** The cursors, in least recently used order. */
+  private final LinkedHashMap<Long, Cursor> cursors = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryUsed;
+  private long timeoutMs;
+  private long memoryLimit;
+
+  PagedResultsCursors(long timeoutMs, long memoryLimit)
+  {
+    setLimits(timeoutMs, memoryLimit);
+  }
+
+  /**
+   * Changes the timeout and the memory limit of the cursors.
+   *
+   * @param timeoutMs
+   *          the time in milliseconds after which an unused cursor expires, {@code 0} disables cursors
+   * @param memoryLimit
+   *          the approximate number of bytes which can be used by the cursors
+   */
+  synchronized void setLimits(long timeoutMs, long memoryLimit)
+  {
+    this.timeoutMs = timeoutMs;
+    this.memoryLimit = memoryLimit;
+    evict(System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the cursor of a paged search.
+   *
+   * @param searchOperation
+   *          the search operation requesting the next page
+   * @param cookie
+   *          the paged results cookie
+   * @return the cursor, or {@code null} if there is no usable cursor for this search and cookie
+   */
+  synchronized Cursor get(SearchOperation searchOperation, ByteString cookie)
+  {
+    final long now = System.currentTimeMillis();
+    evict(now);
+    if (cookie.length() != COOKIE_LENGTH)
+    {
+      return null;
+    }
+    final Cursor cursor = cursors.get(cookie.toLong());
+    if (cursor == null || !cursor.search.equals(getSearch(searchOperation)))
+    {
+      return null;
+    }
+    final long[] entryIDs = cursor.getEntryIDs();
+    if (entryIDs == null
+        || cursor.position >= entryIDs.length
+        || entryIDs[cursor.position] != getEntryID(cookie))
+    {
+      // Reclaimed by the garbage collector, or a stale cookie of this search.
+      remove(cursor);
+      return null;
+    }
+    cursor.lastAccessTime = now;
+    return cursor;
+  }
+
+  /**
+   * Returns the position of the next entry to return in the snapshot of a cursor.
+   * <p>
+   * The position is updated by {@link #suspend} while holding the lock of this object, hence it must be read
+   * while holding the same lock.
+   *
+   * @param cursor
+   *          the cursor returned by {@link #get}
+   * @return the position of the next entry to return in the snapshot of the cursor
+   */
+  synchronized int getPosition(Cursor cursor)
+  {
+    return cursor.position;
+  }
+
+  /**
+   * Remembers where a paged search stopped, and returns the cookie which will allow to resume it.
+   *
+   * @param searchOperation
+   *          the search operation which returned a page
+   * @param cursor
+   *          the cursor which was resumed by the search operation, or {@code null} if the candidate entry IDs were
+   *          computed by the search
+   * @param entryIDs
+   *          the candidate entry IDs iterated by the search, which are the snapshot of the cursor if it was resumed
+   * @param candidatesAreInScope
+   *          whether the candidate entries are known to be in the scope of the search
+   * @param position
+   *          the position in {@code entryIDs} of the next entry to return
+   * @return the cookie to return to the client
+   */
+  synchronized ByteString suspend(SearchOperation searchOperation, Cursor cursor, long[] entryIDs,
+      boolean candidatesAreInScope, int position)
+  {
+    final long now = System.currentTimeMillis();
+    if (cursor != null && cursors.get(cursor.id) == cursor)
+    {
+      cursor.position = position;
+      cursor.lastAccessTime = now;
+      return newCookie(cursor.id, entryIDs[position]);
+    }
+    if (timeoutMs == 0)
+    {
+      return newCookie(0, entryIDs[position]);
+    }
+
+    // Only keep the entries which remain to be returned.
+    final long[] remaining = Arrays.copyOfRange(entryIDs, position, entryIDs.length);
+    final Cursor newCursor = new Cursor(newCursorID(), getSearch(searchOperation),
+        searchOperation.getConnectionID(), remaining, candidatesAreInScope,
+        getNonPagedResultsControls(searchOperation));
+    newCursor.lastAccessTime = now;
+    evictConnectionCursors(newCursor.connectionID);
+    cursors.put(newCursor.id, newCursor);
+    memoryUsed += newCursor.size;
+    evict(now);
+    return newCookie(newCursor.id, remaining[0]);
+  }
+
+  /**
+   * Discards the cursor of a search which returned its last page, or which was abandoned by the client.
+   *
+   * @param cursor
+   *          the cursor, may be {@code null}
+   */
+  synchronized void remove(Cursor cursor)
+  {
+    if (cursor != null && cursors.get(cursor.id) == cursor)
+    {
+      cursors.remove(cursor.id);
+      memoryUsed -= cursor.size;
+    }
+  }
+
+  /**
+   * Returns the ID of the next entry to return which is contained in a cookie.
+   *
+   * @param cookie
+   *          the paged results cookie
+   * @return the ID of the next entry to return
+   * @throws IndexOutOfBoundsException
+   *           if the cookie is too short
+   */
+  static long getEntryID(ByteString cookie)
+  {
+    if (cookie.length() >= COOKIE_LENGTH)
+    {
+      return cookie.subSequence(8, COOKIE_LENGTH).toLong();
+    }
+    // Cookie returned before cursors were introduced.
+    return cookie.toLong();
+  }
+
+  private static ByteString newCookie(long cursorID, long nextEntryID)
+  {
+    return new ByteStringBuilder(COOKIE_LENGTH).appendLong(cursorID).appendLong(nextEntryID).toByteString();
+  }
+
+  private long newCursorID()
+  {
+    long id;
+    do
+    {
+      id = random.nextLong();
+    }
+    while (id == 0 || cursors.containsKey(id));
+    return id;
+  }
+
+  private static String getSearch(SearchOperation searchOperation)
+  {
+    final StringBuilder builder = new StringBuilder();
+    builder.append(searchOperation.getBaseDN());
+    builder.append(' ').append(searchOperation.getScope());
+    builder.append(' ').append(searchOperation.getAuthorizationDN());
+    builder.append(' ').append(searchOperation.getFilter());
+    try
+    {
+      final ServerSideSortRequestControl sortRequest =
+          searchOperation.getRequestControl(ServerSideSortRequestControl.DECODER);
+      if (sortRequest != null)
+      {
+        builder.append(' ').append(sortRequest.getSortKeys());
+      }
+    }
+    catch (DirectoryException e)
+    {
+      // Already decoded by the search.
+    }
+    return builder.toString();
+  }
+
+  private static List<Control> getNonPagedResultsControls(SearchOperation searchOperation)
+  {
+    final List<Control> controls = new ArrayList<>();
+    for (Control control : searchOperation.getResponseControls())
+    {
+      if (!(control instanceof PagedResultsControl))
+      {
+        controls.add(control);
+      }
+    }
+    return controls;
+  }
+
+  private void evictConnectionCursors(long connectionID)
+  {
+    int count = 0;
+    Cursor eldest = null;
+    for (Cursor cursor : cursors.values())
+    {
+      if (cursor.connectionID == connectionID)
+      {
+        count++;
+        if (eldest == null)
+        {
+          eldest = cursor;
+        }
+      }
+    }
+    if (count >= MAX_CURSORS_PER_CONNECTION)
+    {
+      remove(eldest);
+    }
+  }
+
+  private void evict(long now)
+  {
+    final Iterator<Cursor> it = cursors.values().iterator();
+    while (it.hasNext())
+    {
+      final Cursor cursor = it.next();
+      if (memoryUsed <= memoryLimit && now - cursor.lastAccessTime < timeoutMs)
+      {
+        // Cursors are in least recently used order, so the next ones have not expired either.
+        break;
+      }
+      it.remove();
+      memoryUsed -= cursor.size;
+    }
+  }
+
+  /**
+   * Returns the number of cursors.
+   *
+   * @return the number of cursors
+   */
+  synchronized int size()
+  {
+    return cursors.size();
+  }
+}
@@ -71,6 +71,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   private final PluggableBackendCfg config;
   /** The monitor for this backend. */
   private BackendMonitor monitor;
+  /** The state of the indexed paged searches. */
+  private final PagedResultsCursors pagedResultsCursors;
 
   /** The base DNs contained in this root container. */
   private final ConcurrentMap<DN, EntryContainer> entryContainers = new ConcurrentHashMap<>();
@@ -103,6 +105,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
 
     getMonitorProvider().enableFilterUseStats(config.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(config.getIndexFilterAnalyzerMaxFilters());
+    this.pagedResultsCursors =
+        new PagedResultsCursors(config.getPagedResultsCursorTimeout(), config.getPagedResultsCursorMemoryLimit());
 
     config.addPluggableChangeListener(this);
   }
@@ -270,6 +274,16 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
     return monitor;
   }
 
+  /**
+   * Returns the state of the indexed searches using the simple paged results control.
+   *
+   * @return The state of the indexed paged searches.
+   */
+  PagedResultsCursors getPagedResultsCursors()
+  {
+    return pagedResultsCursors;
+  }
+
   /**
    * Preload the tree cache. There is no preload if the configured preload
    * time limit is zero.
@@ -452,6 +466,8 @@ public class RootContainer implements ConfigurationChangeListener<PluggableBacke
   {
     getMonitorProvider().enableFilterUseStats(configuration.isIndexFilterAnalyzerEnabled());
     getMonitorProvider().setMaxEntries(configuration.getIndexFilterAnalyzerMaxFilters());
+    pagedResultsCursors.setLimits(
+        configuration.getPagedResultsCursorTimeout(), configuration.getPagedResultsCursorMemoryLimit());
 
     return new ConfigChangeResult();
   }
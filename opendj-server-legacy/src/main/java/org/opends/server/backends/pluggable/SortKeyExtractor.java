@@ -0,0 +1,273 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.opends.messages.BackendMessages.*;
+import static org.opends.server.backends.pluggable.VLVIndex.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.SortKey;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.EntryCache;
+import org.opends.server.api.ServerShutdownListener;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.types.DirectoryException;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * Computes the sort keys of the candidate entries of a sorted search.
+ * <p>
+ * Entries are read from the storage by the calling thread, since transactions cannot be shared between threads.
+ * Decoding the entries, evaluating the search filter and encoding the sort keys is far more expensive, and is
+ * performed in parallel by a shared pool of threads on chunks of entries, which is started on first use and stopped
+ * when the server shuts down.
+ */
+final class SortKeyExtractor
+{
+  /** Receives the sort keys of the entries matching the search. */
+  interface SortKeyHandler
+  {
+    /**
+     * Adds the sort key of an entry matching the search. Always called by the thread extracting the sort keys.
+     *
+     * @param sortKey
+     *          the sort key, as encoded by {@link VLVIndex#encodeVLVKey}
+     * @throws IOException
+     *           if the sort key cannot be handled
+     */
+    void add(ByteString sortKey) throws IOException;
+  }
+
+  private static final String EXTRACTOR_THREAD_NAME = "Sort key extractor";
+  private static final int CHUNK_SIZE = 1024;
+  private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+  /** Limits the number of chunks held in memory by each extraction. */
+  private static final int MAX_PENDING_CHUNKS = 2 * THREAD_COUNT;
+  /** Stops the extractor threads when the server shuts down. */
+  private static final ServerShutdownListener SHUTDOWN_LISTENER = new ServerShutdownListener()
+  {
+    @Override
+    public String getShutdownListenerName()
+    {
+      return EXTRACTOR_THREAD_NAME;
+    }
+
+    @Override
+    public void processServerShutdown(LocalizableMessage reason)
+    {
+      shutdownExtractors();
+    }
+  };
+  /** The shared pool of extractor threads, {@code null} until first used or once the server has shut down. */
+  private static ExecutorService extractors;
+
+  /** Computes the sort keys of a chunk of entries. */
+  private final class Chunk implements Callable<List<ByteString>>
+  {
+    private final List<EntryID> entryIDs = new ArrayList<>(CHUNK_SIZE);
+    /** The cached entry, or its encoded value read from the storage, for each entry ID. */
+    private final List<Object> values = new ArrayList<>(CHUNK_SIZE);
+
+    @Override
+    public List<ByteString> call() throws DirectoryException
+    {
+      final List<ByteString> keys = new ArrayList<>(entryIDs.size());
+      for (int i = 0; i < entryIDs.size(); i++)
+      {
+        final EntryID entryID = entryIDs.get(i);
+        try
+        {
+          final Entry entry = toEntry(entryID, values.get(i));
+          if (entry != null && entry.matchesBaseAndScope(baseDN, scope) && filter.matchesEntry(entry))
+          {
+            keys.add(encodeVLVKey(sortKeys, entry, entryID.longValue()));
+          }
+        }
+        catch (Exception e)
+        {
+          throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+              ERR_ENTRYIDSORTER_CANNOT_EXAMINE_ENTRY.get(entryID, getExceptionMessage(e)), e);
+        }
+      }
+      return keys;
+    }
+
+    private Entry toEntry(EntryID entryID, Object value) throws DirectoryException
+    {
+      if (value instanceof Entry)
+      {
+        return (Entry) value;
+      }
+      final Entry entry = id2entry.decode(entryID, (ByteString) value);
+      if (entry != null)
+      {
+        // Put the entry in the cache making sure not to overwrite a newer copy
+        // that may have been inserted since the time we read the cache.
+        entryCache.putEntryIfAbsent(entry, backendID, entryID.longValue());
+      }
+      return entry;
+    }
+  }
+
+  private final ID2Entry id2entry;
+  private final EntryCache<?> entryCache;
+  private final String backendID;
+  private final List<SortKey> sortKeys;
+  private final DN baseDN;
+  private final SearchScope scope;
+  private final SearchFilter filter;
+
+  SortKeyExtractor(ID2Entry id2entry, EntryCache<?> entryCache, String backendID, SearchOperation searchOperation,
+      List<SortKey> sortKeys)
+  {
+    this.id2entry = id2entry;
+    this.entryCache = entryCache;
+    this.backendID = backendID;
+    this.sortKeys = sortKeys;
+    this.baseDN = searchOperation.getBaseDN();
+    this.scope = searchOperation.getScope();
+    this.filter = searchOperation.getFilter();
+  }
+
+  /**
+   * Computes the sort keys of the candidate entries which match the search.
+   *
+   * @param txn
+   *          a non null transaction
+   * @param entryIDs
+   *          the candidate entry IDs
+   * @param handler
+   *          the handler receiving the sort keys, in no particular order
+   * @throws DirectoryException
+   *           if an entry cannot be examined
+   * @throws IOException
+   *           if the handler failed
+   */
+  void extract(ReadableTransaction txn, EntryIDSet entryIDs, SortKeyHandler handler)
+      throws DirectoryException, IOException
+  {
+    final boolean parallel = THREAD_COUNT > 1 && entryIDs.size() > CHUNK_SIZE;
+    final Deque<Future<List<ByteString>>> pendingChunks = new ArrayDeque<>();
+    try
+    {
+      Chunk chunk = new Chunk();
+      for (EntryID entryID : entryIDs)
+      {
+        final Entry cacheEntry = entryCache.getEntry(backendID, entryID.longValue());
+        chunk.entryIDs.add(entryID);
+        chunk.values.add(cacheEntry != null ? cacheEntry : id2entry.read(txn, entryID));
+        if (chunk.entryIDs.size() == CHUNK_SIZE)
+        {
+          if (parallel)
+          {
+            while (pendingChunks.size() >= MAX_PENDING_CHUNKS)
+            {
+              addAll(handler, await(pendingChunks.poll()));
+            }
+            pendingChunks.add(getExtractors().submit(chunk));
+          }
+          else
+          {
+            addAll(handler, chunk.call());
+          }
+          chunk = new Chunk();
+        }
+      }
+      addAll(handler, chunk.call());
+      while (!pendingChunks.isEmpty())
+      {
+        addAll(handler, await(pendingChunks.poll()));
+      }
+    }
+    finally
+    {
+      for (Future<List<ByteString>> pendingChunk : pendingChunks)
+      {
+        pendingChunk.cancel(true);
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getExtractors()
+  {
+    if (extractors == null)
+    {
+      extractors = Executors.newFixedThreadPool(THREAD_COUNT, new DirectoryThread.Factory(EXTRACTOR_THREAD_NAME));
+      DirectoryServer.registerShutdownListener(SHUTDOWN_LISTENER);
+    }
+    return extractors;
+  }
+
+  private static synchronized void shutdownExtractors()
+  {
+    if (extractors != null)
+    {
+      extractors.shutdownNow();
+      extractors = null;
+    }
+    DirectoryServer.deregisterShutdownListener(SHUTDOWN_LISTENER);
+  }
+
+  private static void addAll(SortKeyHandler handler, List<ByteString> sortKeys) throws IOException
+  {
+    for (ByteString sortKey : sortKeys)
+    {
+      handler.add(sortKey);
+    }
+  }
+
+  private static List<ByteString> await(Future<List<ByteString>> future) throws DirectoryException
+  {
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_INTERRUPTED_ERROR.get(e.getMessage()), e);
+    }
+    catch (ExecutionException e)
+    {
+      final Throwable cause = e.getCause();
+      if (cause instanceof DirectoryException)
+      {
+        throw (DirectoryException) cause;
+      }
+      throw new DirectoryException(DirectoryServer.getServerErrorResultCode(),
+          ERR_EXECUTION_ERROR.get(getExceptionMessage(cause)), cause);
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable.spi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Maintains the number of records of the trees of a {@link Storage}, so that
+ * {@link ReadableTransaction#getRecordCount(TreeName)} does not have to count them.
+ * <p>
+ * The counts are stored in a dedicated tree of the storage, and must be updated by the storage in the same
+ * transactions as the records they count. The count of a tree is made of a base record, whose presence means that
+ * the tree is counted, and of delta records sharded amongst the writing threads to allow concurrent updates without
+ * contention, at the price of reading at most {@value #SHARD_COUNT} + 1 records per count.
+ * <p>
+ * The trees which are not counted, because they were created before the counts were maintained, are counted by
+ * walking through their records until the storage counts them with {@link #countTree(WriteableTransaction, TreeName)}.
+ * The storage must then call {@link #transactionEnded(WriteableTransaction, boolean)} once the transaction which
+ * counted them has been committed or aborted.
+ */
+public final class RecordCounts
+{
+  /** The name of the tree holding the record counts. */
+  public static final TreeName TREE_NAME = new TreeName("record_counts", "trees");
+
+  /**
+   * Must be a power of 2.
+   * @see <a href="http://en.wikipedia.org/wiki/Modulo_operation#Performance_issues">Performance issues</a>
+   */
+  private static final int SHARD_COUNT = 256;
+  /** Separates the tree name from the shard in the keys, tree names do not contain it. */
+  private static final byte SEPARATOR = 0;
+
+  private static final ByteString ONE = ByteString.valueOfLong(1);
+  private static final ByteString MINUS_ONE = ByteString.valueOfLong(-1);
+
+  /** The trees known to be counted, to avoid reading their base record on each write. */
+  private final Set<TreeName> countedTrees = Collections.newSetFromMap(new ConcurrentHashMap<TreeName, Boolean>());
+  /**
+   * The trees counted by the write transactions which have not ended yet. They are only added to the
+   * {@link #countedTrees} once their transaction has been committed, since their base record is rolled back otherwise.
+   */
+  private final Map<WriteableTransaction, Set<TreeName>> pendingCountedTrees = new ConcurrentHashMap<>();
+
+  /**
+   * Returns whether the records of the provided tree are counted.
+   *
+   * @param txn
+   *          the transaction reading the counts
+   * @param treeName
+   *          the tree name
+   * @return {@code true} if the records of the provided tree are counted
+   */
+  public boolean isCounted(ReadableTransaction txn, TreeName treeName)
+  {
+    if (countedTrees.contains(treeName))
+    {
+      return true;
+    }
+    final Set<TreeName> pendingTrees = pendingCountedTrees.get(txn);
+    if (pendingTrees != null && pendingTrees.contains(treeName))
+    {
+      // Counted by this transaction, which has not been committed yet
+      return true;
+    }
+    if (!TREE_NAME.equals(treeName) && txn.read(TREE_NAME, baseKey(treeName)) != null)
+    {
+      countedTrees.add(treeName);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of records of the provided tree, walking through its records if it is not counted.
+   *
+   * @param txn
+   *          the transaction reading the counts
+   * @param treeName
+   *          the tree name
+   * @return the number of records of the provided tree
+   */
+  public long getRecordCount(ReadableTransaction txn, TreeName treeName)
+  {
+    if (!isCounted(txn, treeName))
+    {
+      return countRecords(txn.openCursor(treeName));
+    }
+    final ByteString prefix = baseKey(treeName);
+    long count = 0;
+    try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(TREE_NAME))
+    {
+      boolean found = cursor.positionToKeyOrNext(prefix);
+      while (found && cursor.getKey().startsWith(prefix))
+      {
+        count += cursor.getValue().toLong();
+        found = cursor.next();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Adds a record to the count of the provided tree, if it is counted.
+   *
+   * @param txn
+   *          the transaction which added the record
+   * @param treeName
+   *          the tree name
+   */
+  public void recordAdded(WriteableTransaction txn, TreeName treeName)
+  {
+    addCount(txn, treeName, ONE);
+  }
+
+  /**
+   * Removes a record from the count of the provided tree, if it is counted.
+   *
+   * @param txn
+   *          the transaction which removed the record
+   * @param treeName
+   *          the tree name
+   */
+  public void recordRemoved(WriteableTransaction txn, TreeName treeName)
+  {
+    addCount(txn, treeName, MINUS_ONE);
+  }
+
+  private void addCount(WriteableTransaction txn, TreeName treeName, final ByteString delta)
+  {
+    if (isCounted(txn, treeName))
+    {
+      txn.update(TREE_NAME, shardKey(treeName), new UpdateFunction()
+      {
+        @Override
+        public ByteSequence computeNewValue(ByteSequence oldValue)
+        {
+          if (oldValue == null)
+          {
+            return delta;
+          }
+          return ByteString.valueOfLong(oldValue.toByteString().toLong() + delta.toLong());
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns the trees amongst the provided ones which are not counted.
+   *
+   * @param txn
+   *          the transaction reading the counts
+   * @param treeNames
+   *          the names of the trees of the storage
+   * @return the names of the trees which are not counted
+   */
+  public List<TreeName> getUncountedTrees(ReadableTransaction txn, Collection<TreeName> treeNames)
+  {
+    final List<TreeName> uncountedTrees = new ArrayList<>();
+    for (TreeName treeName : treeNames)
+    {
+      if (!TREE_NAME.equals(treeName) && !isCounted(txn, treeName))
+      {
+        uncountedTrees.add(treeName);
+      }
+    }
+    return uncountedTrees;
+  }
+
+  /**
+   * Counts the records of the provided tree, which is counted from now on. The tree is only known to be counted by the
+   * other transactions once {@link #transactionEnded(WriteableTransaction, boolean)} reports that the provided
+   * transaction has been committed.
+   *
+   * @param txn
+   *          the transaction counting the records
+   * @param treeName
+   *          the tree name
+   * @return the number of records of the provided tree
+   */
+  public long countTree(WriteableTransaction txn, TreeName treeName)
+  {
+    removeCount(txn, treeName);
+    final long count = countRecords(txn.openCursor(treeName));
+    txn.put(TREE_NAME, baseKey(treeName), ByteString.valueOfLong(count));
+    // Write transactions are confined to a single thread
+    Set<TreeName> pendingTrees = pendingCountedTrees.get(txn);
+    if (pendingTrees == null)
+    {
+      pendingTrees = new HashSet<>();
+      pendingCountedTrees.put(txn, pendingTrees);
+    }
+    pendingTrees.add(treeName);
+    return count;
+  }
+
+  /**
+   * Notifies that a write transaction has ended. The trees counted by the transaction are known to be counted from
+   * now on if it has been committed. This must be called by the storage at the end of each write transaction, whether
+   * it has been committed or not.
+   *
+   * @param txn
+   *          the write transaction which has ended
+   * @param committed
+   *          {@code true} if the transaction has been committed, {@code false} if it has been aborted
+   */
+  public void transactionEnded(WriteableTransaction txn, boolean committed)
+  {
+    final Set<TreeName> pendingTrees = pendingCountedTrees.remove(txn);
+    if (pendingTrees != null && committed)
+    {
+      countedTrees.addAll(pendingTrees);
+    }
+  }
+
+  /**
+   * Removes the count of the provided tree, which is not counted anymore. This must be called when the tree is
+   * deleted.
+   *
+   * @param txn
+   *          the transaction which deleted the tree
+   * @param treeName
+   *          the tree name
+   */
+  public void removeCount(WriteableTransaction txn, TreeName treeName)
+  {
+    countedTrees.remove(treeName);
+    final ByteString prefix = baseKey(treeName);
+    try (final Cursor<ByteString, ByteString> cursor = txn.openCursor(TREE_NAME))
+    {
+      boolean found = cursor.positionToKeyOrNext(prefix);
+      while (found && cursor.getKey().startsWith(prefix))
+      {
+        cursor.delete();
+        found = cursor.next();
+      }
+    }
+  }
+
+  /**
+   * Rewrites the counts of the trees modified by an import, by walking through their records. Imports do not
+   * maintain the counts because they are run without transactions.
+   *
+   * @param importer
+   *          the importer which ran the import, and has not been closed yet
+   * @param existingTrees
+   *          the names of all the trees of the storage
+   * @param importedTrees
+   *          the names of the trees cleared or written by the import
+   */
+  public void importCompleted(Importer importer, Set<TreeName> existingTrees, Set<TreeName> importedTrees)
+  {
+    countedTrees.clear();
+    final List<ByteString> obsoleteKeys = new ArrayList<>();
+    if (existingTrees.contains(TREE_NAME))
+    {
+      try (final SequentialCursor<ByteString, ByteString> cursor = importer.openCursor(TREE_NAME))
+      {
+        while (cursor.next())
+        {
+          final ByteString key = cursor.getKey();
+          final String treeName = key.subSequence(0, indexOf(key, SEPARATOR)).toString();
+          if (importedTrees.contains(TreeName.valueOf(treeName)))
+          {
+            obsoleteKeys.add(key);
+          }
+        }
+      }
+    }
+    else
+    {
+      importer.clearTree(TREE_NAME);
+    }
+
+    // Importers cannot delete records: the previous deltas are reset, then the base record is rewritten
+    final ByteString zero = ByteString.valueOfLong(0);
+    for (ByteString key : obsoleteKeys)
+    {
+      importer.put(TREE_NAME, key, zero);
+    }
+    for (TreeName treeName : importedTrees)
+    {
+      if (!TREE_NAME.equals(treeName) && existingTrees.contains(treeName))
+      {
+        final long count = countRecords(importer.openCursor(treeName));
+        importer.put(TREE_NAME, baseKey(treeName), ByteString.valueOfLong(count));
+      }
+    }
+  }
+
+  /**
+   * Counts the records of a tree by walking through them, and closes the provided cursor.
+   *
+   * @param cursor
+   *          a cursor opened on the tree
+   * @return the number of records of the tree
+   */
+  public static long countRecords(SequentialCursor<?, ?> cursor)
+  {
+    try
+    {
+      long count = 0;
+      while (cursor.next())
+      {
+        count++;
+      }
+      return count;
+    }
+    finally
+    {
+      cursor.close();
+    }
+  }
+
+  private static int indexOf(ByteSequence bytes, byte b)
+  {
+    for (int i = 0; i < bytes.length(); i++)
+    {
+      if (bytes.byteAt(i) == b)
+      {
+        return i;
+      }
+    }
+    return bytes.length();
+  }
+
+  private static ByteString baseKey(TreeName treeName)
+  {
+    return new ByteStringBuilder().appendUtf8(treeName.toString()).appendByte(SEPARATOR).toByteString();
+  }
+
+  private static ByteString shardKey(TreeName treeName)
+  {
+    final byte shard = (byte) (Thread.currentThread().getId() & (SHARD_COUNT - 1));
+    return new ByteStringBuilder().appendUtf8(treeName.toString()).appendByte(SEPARATOR).appendByte(shard)
+        .toByteString();
+  }
+}
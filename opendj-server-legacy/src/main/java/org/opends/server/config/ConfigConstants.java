@@ -4144,6 +4144,13 @@ public final class ConfigConstants
   public static final String ATTR_TASK_EXPORT_WRAP_COLUMN =
        NAME_PREFIX_TASK + "export-wrap-column";
 
+  /**
+   * The name of the attribute in an export task definition that specifies
+   * the number of threads used to read and encode the entries in parallel.
+   */
+  public static final String ATTR_TASK_EXPORT_THREAD_COUNT =
+       NAME_PREFIX_TASK + "export-thread-count";
+
   /**
    * The name of the attribute in an export task definition that specifies
    * that operational attributes have to be included.
@@ -4337,6 +4344,27 @@ public final class ConfigConstants
   public static final String ATTR_REBUILD_TMP_DIRECTORY =
        NAME_PREFIX_TASK + "rebuild-tmp-directory";
 
+  /**
+   * The name of the attribute in an rebuild task definition that specifies
+   * whether the indexes should be rebuilt while the backend remains online.
+   */
+  public static final String ATTR_REBUILD_ONLINE =
+       NAME_PREFIX_TASK + "rebuild-online";
+
+  /**
+   * The name of the attribute in an rebuild task definition that specifies the
+   * maximum number of entries processed per second by an online rebuild.
+   */
+  public static final String ATTR_REBUILD_MAX_ENTRIES_PER_SECOND =
+       NAME_PREFIX_TASK + "rebuild-max-entries-per-second";
+
+  /**
+   * The name of the attribute in an rebuild task entry that holds the
+   * estimated number of seconds before an online rebuild completes.
+   */
+  public static final String ATTR_REBUILD_REMAINING_TIME =
+       NAME_PREFIX_TASK + "rebuild-remaining-time";
+
   /**
    * Used to specify that the rebuild all boolean should be set.
    */
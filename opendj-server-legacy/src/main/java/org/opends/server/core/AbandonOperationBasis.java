@@ -26,6 +26,7 @@ import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.types.*;
 import org.opends.server.types.operation.PostOperationAbandonOperation;
 import org.opends.server.types.operation.PreParseAbandonOperation;
@@ -140,7 +141,10 @@ public class AbandonOperationBasis extends AbstractOperation
 abandonProcessing:
     {
       // Invoke the pre-parse abandon plugins.
-      if (!processOperationResult(getPluginConfigManager().invokePreParseAbandonPlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseAbandonPlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         break abandonProcessing;
       }
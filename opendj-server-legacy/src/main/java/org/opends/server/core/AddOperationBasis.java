@@ -29,6 +29,7 @@ import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.protocols.ldap.LDAPAttribute;
 import org.opends.server.protocols.ldap.LDAPResultCode;
 import org.opends.server.types.AbstractOperation;
@@ -41,6 +42,7 @@ import org.opends.server.types.Entry;
 import org.opends.server.types.LDAPException;
 import org.opends.server.types.ObjectClass;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 import org.opends.server.types.RawAttribute;
 import org.opends.server.types.operation.PostResponseAddOperation;
@@ -494,7 +496,10 @@ public class AddOperationBasis
       checkIfCanceled(false);
 
       // Invoke the pre-parse add plugins.
-      if (!processOperationResult(getPluginConfigManager().invokePreParseAddPlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseAddPlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         return;
       }
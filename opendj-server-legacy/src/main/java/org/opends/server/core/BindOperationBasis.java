@@ -26,6 +26,7 @@ import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.types.*;
 import org.opends.server.types.operation.PreParseBindOperation;
 import org.opends.server.workflowelement.localbackend.LocalBackendBindOperation;
@@ -492,7 +493,10 @@ public class BindOperationBasis
     try
     {
       // Invoke the pre-parse bind plugins.
-      if (!processOperationResult(getPluginConfigManager().invokePreParseBindPlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseBindPlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         return;
       }
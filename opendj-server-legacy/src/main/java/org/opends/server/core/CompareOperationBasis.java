@@ -28,12 +28,14 @@ import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.types.AbstractOperation;
 import org.opends.server.types.CancelResult;
 import org.opends.server.types.CanceledOperationException;
 import org.opends.server.types.Control;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 import org.opends.server.types.operation.PostResponseCompareOperation;
 import org.opends.server.types.operation.PreParseCompareOperation;
@@ -320,7 +322,10 @@ public class CompareOperationBasis
       checkIfCanceled(false);
 
       // Invoke the pre-parse compare plugins.
-      if (!processOperationResult(getPluginConfigManager().invokePreParseComparePlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseComparePlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         return;
       }
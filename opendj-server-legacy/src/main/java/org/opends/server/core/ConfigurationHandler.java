@@ -94,6 +94,7 @@ import org.forgerock.opendj.ldif.LDIFEntryWriter;
 import org.forgerock.util.Utils;
 import org.forgerock.util.annotations.VisibleForTesting;
 import org.opends.server.api.AlertGenerator;
+import org.opends.server.api.SubordinateCounts;
 import org.opends.server.schema.GeneralizedTimeSyntax;
 import org.opends.server.tools.LDIFModify;
 import org.opends.server.types.DirectoryEnvironmentConfig;
@@ -153,6 +154,9 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
   /** Backend containing the configuration entries. */
   private MemoryBackend backend;
 
+  /** The number of subordinates of each configuration entry, synchronized on itself. */
+  private final SubordinateCounts subordinateCounts = new SubordinateCounts();
+
   /** The config root entry. */
   private Entry rootEntry;
 
@@ -244,7 +248,11 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
   public void finalize()
   {
     listeners.clear();
-    backend.clear();
+    synchronized (subordinateCounts)
+    {
+      backend.clear();
+      subordinateCounts.clear();
+    }
   }
 
   /**
@@ -423,6 +431,17 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
    */
   public long numSubordinates(final DN entryDN, final boolean subtree) throws ConfigException
   {
+    synchronized (subordinateCounts)
+    {
+      if (backend.contains(entryDN))
+      {
+        return subtree
+            ? subordinateCounts.getNumberOfSubordinates(entryDN)
+            : subordinateCounts.getNumberOfChildren(entryDN);
+      }
+    }
+
+    // The entry does not exist: let the backend report the error.
     final ConfigLdapResultHandler resultHandler = new ConfigLdapResultHandler();
     final CollectorSearchResultHandler searchHandler = new CollectorSearchResultHandler();
     final SearchScope scope = subtree ? SearchScope.SUBORDINATES : SearchScope.SINGLE_LEVEL;
@@ -474,7 +493,14 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
 
     // Add the entry.
     final ConfigLdapResultHandler resultHandler = new ConfigLdapResultHandler();
-    backend.handleAdd(UNCANCELLABLE_REQUEST_CONTEXT, Requests.newAddRequest(entry), null, resultHandler);
+    synchronized (subordinateCounts)
+    {
+      backend.handleAdd(UNCANCELLABLE_REQUEST_CONTEXT, Requests.newAddRequest(entry), null, resultHandler);
+      if (resultHandler.hasCompletedSuccessfully())
+      {
+        subordinateCounts.add(entryDN);
+      }
+    }
 
     if (!resultHandler.hasCompletedSuccessfully())
     {
@@ -556,7 +582,14 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
 
     // Delete the entry and all listeners on the entry
     final ConfigLdapResultHandler resultHandler = new ConfigLdapResultHandler();
-    backend.handleDelete(UNCANCELLABLE_REQUEST_CONTEXT, Requests.newDeleteRequest(dn), null, resultHandler);
+    synchronized (subordinateCounts)
+    {
+      backend.handleDelete(UNCANCELLABLE_REQUEST_CONTEXT, Requests.newDeleteRequest(dn), null, resultHandler);
+      if (resultHandler.hasCompletedSuccessfully())
+      {
+        subordinateCounts.remove(dn);
+      }
+    }
     listeners.remove(dn);
 
     if (!resultHandler.hasCompletedSuccessfully())
@@ -1259,6 +1292,15 @@ public class ConfigurationHandler implements ConfigurationRepository, AlertGener
           ERR_CONFIG_FILE_GENERIC_ERROR.get(configFile.getAbsolutePath(), e.getCause()), e);
     }
 
+    synchronized (subordinateCounts)
+    {
+      subordinateCounts.clear();
+      for (Entry entry : backend.getAll())
+      {
+        subordinateCounts.add(entry.getName());
+      }
+    }
+
     // Check that root entry is the expected one
     rootEntry = backend.get(DN_CONFIG_ROOT);
     if (rootEntry == null)
@@ -31,6 +31,8 @@ import org.forgerock.opendj.server.config.meta.GlobalCfgDefn.SingleStructuralObj
 import org.forgerock.opendj.server.config.server.GlobalCfg;
 import org.opends.server.api.AuthenticationPolicy;
 import org.opends.server.loggers.CommonAudit;
+import org.opends.server.monitors.OperationTraceMonitor;
+import org.opends.server.monitors.PasswordVerificationMonitor;
 import org.opends.server.types.*;
 
 import static org.forgerock.opendj.ldap.schema.SchemaOptions.*;
@@ -98,6 +100,8 @@ public class CoreConfigManager
     }
 
     applyGlobalConfiguration(globalConfig, serverContext);
+    DirectoryServer.registerMonitorProvider(new PasswordVerificationMonitor(PasswordVerifier.getInstance()));
+    DirectoryServer.registerMonitorProvider(new OperationTraceMonitor(OperationTracer.getInstance()));
   }
 
   /**
@@ -136,6 +140,12 @@ public class CoreConfigManager
     setMaxAllowedConnections(globalConfig.getMaxAllowedClientConnections());
     setMaxPersistentSearchLimit(globalConfig.getMaxPsearches());
     setMaxInternalBufferSize((int) globalConfig.getMaxInternalBufferSize());
+    PasswordVerifier.getInstance().configure(globalConfig.getNumPasswordVerificationThreads(),
+        globalConfig.getPasswordVerificationCacheTimeout(), globalConfig.getPasswordVerificationCacheSize());
+    OperationTracer.getInstance().configure(globalConfig.getOperationTraceSamplingInterval(),
+        globalConfig.getSlowOperationThreshold(), globalConfig.getOperationTraceBufferSize());
+    LoginStateWriter.getInstance().configure(globalConfig.getLoginStateUpdateDelay(),
+        globalConfig.getLoginStateUpdateBatchSize());
 
     // For tools, common audit may not be available
     CommonAudit commonAudit = serverContext.getCommonAudit();
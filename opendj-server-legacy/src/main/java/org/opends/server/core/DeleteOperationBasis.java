@@ -25,6 +25,7 @@ import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.plugin.PluginResult;
 import org.opends.server.types.*;
 import org.opends.server.types.operation.PostResponseDeleteOperation;
 import org.opends.server.types.operation.PreParseDeleteOperation;
@@ -200,7 +201,10 @@ public class DeleteOperationBasis
     try
     {
       // Invoke the pre-parse delete plugins.
-      if (!processOperationResult(getPluginConfigManager().invokePreParseDeletePlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseDeletePlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         return;
       }
@@ -5659,6 +5659,9 @@ public final class DirectoryServer
       directoryServer.workQueue.waitUntilIdle(ServerShutdownMonitor.WAIT_TIME);
     }
 
+    // Write the deferred login state updates while they can still be replicated
+    LoginStateWriter.getInstance().shutdown();
+
     // shutdown replication
     for (SynchronizationProvider<?> provider : directoryServer.synchronizationProviders)
     {
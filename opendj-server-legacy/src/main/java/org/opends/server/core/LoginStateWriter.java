@@ -0,0 +1,418 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.forgerock.util.Utils.*;
+import static org.opends.messages.CoreMessages.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.opends.server.types.Modification;
+
+/**
+ * Writes the login state of the users, such as their last login time, after their successful binds have been
+ * responded to.
+ * <p>
+ * The deferred modifications of the entry of a user are kept in memory, where a later modification of an attribute
+ * replaces the pending one, until the configured delay has elapsed or until enough users have pending modifications to
+ * fill a batch. They are then written by a background thread with internal modify operations. The pending
+ * modifications of a user are written before any synchronous update of the same user, so that they cannot overwrite
+ * more recent values. Pending modifications are written when the server is stopped, before the replication is stopped
+ * so that they are replicated.
+ * <p>
+ * This class is thread safe.
+ */
+public final class LoginStateWriter
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final LoginStateWriter INSTANCE = new LoginStateWriter();
+
+  /** The pending modifications of a user entry. */
+  private static final class PendingUpdate
+  {
+    /** The time at which the modifications must be written. */
+    private final long deadline;
+    private final Map<AttributeType, Modification> modifications = new LinkedHashMap<>();
+
+    private PendingUpdate(long deadline)
+    {
+      this.deadline = deadline;
+    }
+  }
+
+  /** Guards all the fields below. */
+  private final Object lock = new Object();
+  /** The pending updates, in the order of their deadlines. */
+  private final LinkedHashMap<DN, PendingUpdate> pendingUpdates = new LinkedHashMap<>();
+  /** The modifications being written, per user. */
+  private final Map<DN, PendingUpdate> inFlight = new HashMap<>();
+  private long delayMillis;
+  private int batchSize = 1000;
+  private Thread writerThread;
+  /** Whether the server is stopping, in which case the modifications are written synchronously. */
+  private boolean stopped;
+
+  /** Creates a login state writer which does not defer any update. */
+  LoginStateWriter()
+  {
+    // Nothing to do
+  }
+
+  /**
+   * Returns the login state writer of the server.
+   *
+   * @return the login state writer of the server
+   */
+  public static LoginStateWriter getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Applies the configuration of the login state writer.
+   *
+   * @param delayMillis
+   *          how long the modifications may be deferred, 0 to write them synchronously
+   * @param batchSize
+   *          the maximum number of users whose modifications are written in a batch
+   */
+  public void configure(long delayMillis, int batchSize)
+  {
+    synchronized (lock)
+    {
+      this.delayMillis = delayMillis;
+      this.batchSize = batchSize;
+      this.stopped = false;
+      // Write the pending modifications earlier if the delay has been reduced
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns whether the login state modifications may be deferred.
+   *
+   * @return {@code true} if the login state modifications may be deferred
+   */
+  public boolean isEnabled()
+  {
+    synchronized (lock)
+    {
+      return delayMillis > 0 && !stopped;
+    }
+  }
+
+  /**
+   * Defers modifications of the entry of a user. They are written synchronously if the writer has been shut down.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param modifications
+   *          the modifications of the user entry, each one applying to a different attribute
+   */
+  public void defer(DN userDN, List<Modification> modifications)
+  {
+    final boolean writeNow;
+    synchronized (lock)
+    {
+      final boolean wasEmpty = pendingUpdates.isEmpty();
+      PendingUpdate update = pendingUpdates.get(userDN);
+      if (update == null)
+      {
+        update = new PendingUpdate(System.currentTimeMillis() + delayMillis);
+        pendingUpdates.put(userDN, update);
+      }
+      for (Modification modification : modifications)
+      {
+        update.modifications.put(getAttributeType(modification), modification);
+      }
+
+      // Once shut down, the pending modifications are written by the caller
+      writeNow = stopped;
+      if (!stopped && writerThread == null)
+      {
+        writerThread = newThreadFactory(null, "LOGIN-STATE-WRITER", true).newThread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            writePendingUpdates();
+          }
+        });
+        writerThread.start();
+      }
+      else if (!stopped && (wasEmpty || pendingUpdates.size() >= batchSize))
+      {
+        // Make the writer thread wait for the deadline of the new update, or write the full batch
+        lock.notifyAll();
+      }
+    }
+    if (writeNow)
+    {
+      flush();
+    }
+  }
+
+  /**
+   * Removes the pending modifications of the entry of a user, so that they can be written along with synchronous
+   * modifications of the entry. Waits for the pending modifications of the user which are being written.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @return the pending modifications of the user entry, which may be empty
+   */
+  public List<Modification> removePendingModifications(DN userDN)
+  {
+    synchronized (lock)
+    {
+      waitUntilWritten(userDN);
+      final PendingUpdate update = pendingUpdates.remove(userDN);
+      return update != null ? new ArrayList<>(update.modifications.values()) : Collections.<Modification> emptyList();
+    }
+  }
+
+  /**
+   * Returns the modification of an attribute of the entry of a user which has not been written yet, so that the
+   * checks relying on this attribute, such as the idle lockout, do not read a stale value from the entry.
+   *
+   * @param userDN
+   *          the DN of the user entry
+   * @param attributeType
+   *          the type of the attribute
+   * @return the pending or being written modification of the attribute, or {@code null} if there is none
+   */
+  public Modification getPendingModification(DN userDN, AttributeType attributeType)
+  {
+    synchronized (lock)
+    {
+      // The pending modifications are more recent than the ones being written
+      Modification modification = getModification(pendingUpdates.get(userDN), attributeType);
+      return modification != null ? modification : getModification(inFlight.get(userDN), attributeType);
+    }
+  }
+
+  /** Writes all the pending modifications, and waits for the ones being written. */
+  public void flush()
+  {
+    final List<Map.Entry<DN, PendingUpdate>> updates;
+    synchronized (lock)
+    {
+      updates = takeBatch(Integer.MAX_VALUE);
+    }
+    write(updates);
+    synchronized (lock)
+    {
+      while (!inFlight.isEmpty())
+      {
+        waitUninterruptibly(0);
+      }
+    }
+  }
+
+  /**
+   * Stops the writer thread, waiting for the modifications it is writing, then writes all the pending modifications.
+   * The server calls it when stopping, before the synchronization providers and the backends are finalized. The next
+   * modifications are written synchronously until the writer is configured again.
+   */
+  public void shutdown()
+  {
+    final Thread thread;
+    synchronized (lock)
+    {
+      stopped = true;
+      thread = writerThread;
+      writerThread = null;
+      lock.notifyAll();
+    }
+    if (thread != null)
+    {
+      joinUninterruptibly(thread);
+    }
+    flush();
+  }
+
+  /** Loops writing the batches of pending modifications once they are due, until the writer is shut down. */
+  private void writePendingUpdates()
+  {
+    while (true)
+    {
+      List<Map.Entry<DN, PendingUpdate>> updates = Collections.emptyList();
+      synchronized (lock)
+      {
+        while (updates.isEmpty())
+        {
+          if (stopped)
+          {
+            // The pending modifications are written by shutdown()
+            return;
+          }
+          if (pendingUpdates.isEmpty())
+          {
+            waitUninterruptibly(0);
+          }
+          else if (!isBatchDue())
+          {
+            final long waitTime = pendingUpdates.values().iterator().next().deadline - System.currentTimeMillis();
+            if (waitTime > 0)
+            {
+              waitUninterruptibly(waitTime);
+            }
+          }
+          else
+          {
+            updates = takeBatch(batchSize);
+            if (updates.isEmpty())
+            {
+              // All the due users are being written by flush()
+              waitUninterruptibly(0);
+            }
+          }
+        }
+      }
+      write(updates);
+    }
+  }
+
+  /** Called with the lock held. */
+  private boolean isBatchDue()
+  {
+    if (pendingUpdates.isEmpty())
+    {
+      return false;
+    }
+    return delayMillis == 0
+        || pendingUpdates.size() >= batchSize
+        || pendingUpdates.values().iterator().next().deadline <= System.currentTimeMillis();
+  }
+
+  /** Called with the lock held: removes the oldest pending updates, which are then in flight. */
+  private List<Map.Entry<DN, PendingUpdate>> takeBatch(int maxSize)
+  {
+    final List<Map.Entry<DN, PendingUpdate>> updates = new ArrayList<>();
+    final Iterator<Map.Entry<DN, PendingUpdate>> it = pendingUpdates.entrySet().iterator();
+    while (it.hasNext() && updates.size() < maxSize)
+    {
+      final Map.Entry<DN, PendingUpdate> update = it.next();
+      if (!inFlight.containsKey(update.getKey()))
+      {
+        inFlight.put(update.getKey(), update.getValue());
+        updates.add(new AbstractMap.SimpleImmutableEntry<>(update));
+        it.remove();
+      }
+    }
+    return updates;
+  }
+
+  private void write(List<Map.Entry<DN, PendingUpdate>> updates)
+  {
+    for (Map.Entry<DN, PendingUpdate> update : updates)
+    {
+      final DN userDN = update.getKey();
+      try
+      {
+        final List<Modification> modifications = new ArrayList<>(update.getValue().modifications.values());
+        final ModifyOperation modifyOperation = getRootConnection().processModify(userDN, modifications);
+        final ResultCode resultCode = modifyOperation.getResultCode();
+        if (resultCode == ResultCode.NO_SUCH_OBJECT)
+        {
+          logger.trace("Not updating the login state of user %s because the entry has been removed", userDN);
+        }
+        else if (resultCode != ResultCode.SUCCESS)
+        {
+          logger.error(ERR_LOGIN_STATE_CANNOT_UPDATE_USER_ENTRY, userDN, modifyOperation.getErrorMessage());
+        }
+      }
+      catch (RuntimeException e)
+      {
+        logger.traceException(e);
+        logger.error(ERR_LOGIN_STATE_CANNOT_UPDATE_USER_ENTRY, userDN, e);
+      }
+      finally
+      {
+        synchronized (lock)
+        {
+          inFlight.remove(userDN);
+          lock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /** Called with the lock held. */
+  private void waitUntilWritten(DN userDN)
+  {
+    while (inFlight.containsKey(userDN))
+    {
+      waitUninterruptibly(0);
+    }
+  }
+
+  /** Called with the lock held: waits for at most the provided time in milliseconds, or until notified if 0. */
+  private void waitUninterruptibly(long waitTimeMillis)
+  {
+    try
+    {
+      lock.wait(waitTimeMillis);
+    }
+    catch (InterruptedException e)
+    {
+      // The writer thread is a daemon thread which must survive the interruptions
+      logger.traceException(e);
+    }
+  }
+
+  private static void joinUninterruptibly(Thread thread)
+  {
+    boolean interrupted = false;
+    while (thread.isAlive())
+    {
+      try
+      {
+        thread.join();
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Modification getModification(PendingUpdate update, AttributeType attributeType)
+  {
+    return update != null ? update.modifications.get(attributeType) : null;
+  }
+
+  private static AttributeType getAttributeType(Modification modification)
+  {
+    return modification.getAttribute().getAttributeDescription().getAttributeType();
+  }
+}
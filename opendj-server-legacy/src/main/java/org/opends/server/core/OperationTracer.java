@@ -0,0 +1,358 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.opends.messages.CoreMessages.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.GeneralizedTime;
+import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
+
+/**
+ * Records the time spent in each phase of the processing of a sample of the operations, and of the slow operations.
+ * <p>
+ * The phases measured for all the operations are complemented, for one operation out of the sampling interval chosen
+ * at random, by the time spent acquiring entry locks, reading indexes and reading entries. Since the backends are not
+ * aware of the operation they work for, these phases are attributed to the operation being processed by the current
+ * thread, which {@link #startPhase()} only looks up when tracing is enabled.
+ * <p>
+ * The traced operations, and the operations whose response time reaches the slow operation threshold, are kept in a
+ * fixed size ring buffer which can be read from the "Operation Traces" monitor entry. The slow operations are also
+ * logged with their phase breakdown.
+ * <p>
+ * This class is thread safe.
+ */
+public final class OperationTracer
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final OperationTracer INSTANCE = new OperationTracer();
+
+  /** The name of the attachment marking the traced operations. */
+  private static final String TRACED_ATTACHMENT = OperationTracer.class.getName() + ".traced";
+
+  /** The traced operation being processed by the current thread, if any. */
+  private static final ThreadLocal<Operation> TRACED_OPERATION = new ThreadLocal<>();
+
+  private static final OperationPhase[] PHASES = OperationPhase.values();
+
+  /** The phases breakdown of a traced or slow operation. */
+  public static final class OperationTrace
+  {
+    private final long startTime;
+    private final long connectionID;
+    private final long operationID;
+    private final int messageID;
+    private final String operationType;
+    private final long responseNanoTime;
+    private final long[] phaseNanoTimes = new long[PHASES.length];
+    private final boolean traced;
+
+    private OperationTrace(Operation operation, long responseNanoTime, boolean traced)
+    {
+      this.startTime = operation.getProcessingStartTime();
+      this.connectionID = operation.getConnectionID();
+      this.operationID = operation.getOperationID();
+      this.messageID = operation.getMessageID();
+      this.operationType = operation.getOperationType().getOperationName();
+      this.responseNanoTime = responseNanoTime;
+      for (OperationPhase phase : PHASES)
+      {
+        phaseNanoTimes[phase.ordinal()] = operation.getPhaseNanoTime(phase);
+      }
+      this.traced = traced;
+    }
+
+    /**
+     * Returns the response time of the operation.
+     *
+     * @return the response time of the operation, in nanoseconds
+     */
+    public long getResponseNanoTime()
+    {
+      return responseNanoTime;
+    }
+
+    /**
+     * Returns the time spent in a phase of the operation.
+     *
+     * @param phase
+     *          the phase
+     * @return the time spent in the phase, in nanoseconds, or 0 if it was not measured
+     */
+    public long getPhaseNanoTime(OperationPhase phase)
+    {
+      return phaseNanoTimes[phase.ordinal()];
+    }
+
+    /**
+     * Indicates whether the operation was sampled, as opposed to only being recorded because it was slow.
+     *
+     * @return {@code true} if the operation was sampled
+     */
+    public boolean isTraced()
+    {
+      return traced;
+    }
+
+    @Override
+    public String toString()
+    {
+      final StringBuilder buffer = new StringBuilder();
+      buffer.append(GeneralizedTime.valueOf(startTime));
+      buffer.append(" conn=").append(connectionID);
+      buffer.append(" op=").append(operationID);
+      buffer.append(" msgID=").append(messageID);
+      buffer.append(" type=").append(operationType);
+      buffer.append(" etime=").append(TimeUnit.NANOSECONDS.toMicros(responseNanoTime)).append("us");
+      for (OperationPhase phase : PHASES)
+      {
+        final long nanoTime = phaseNanoTimes[phase.ordinal()];
+        if (nanoTime > 0)
+        {
+          buffer.append(' ').append(phase.getPhaseName()).append('=');
+          buffer.append(TimeUnit.NANOSECONDS.toMicros(nanoTime)).append("us");
+        }
+      }
+      if (!traced)
+      {
+        buffer.append(" sampled=false");
+      }
+      return buffer.toString();
+    }
+  }
+
+  private volatile int samplingInterval;
+  private volatile long slowThresholdNanos;
+  private volatile AtomicReferenceArray<OperationTrace> traces = new AtomicReferenceArray<>(1000);
+  /** The number of traces ever added to the ring buffer. */
+  private final AtomicLong traceCount = new AtomicLong();
+  private final AtomicLong slowOperationCount = new AtomicLong();
+
+  /** Only used by {@link #getInstance()} and the unit tests. */
+  OperationTracer()
+  {
+  }
+
+  /**
+   * Returns the operation tracer of the server.
+   *
+   * @return the operation tracer of the server
+   */
+  public static OperationTracer getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Applies the configuration of the operation tracer.
+   *
+   * @param samplingInterval
+   *          one operation out of this number is traced, 0 to disable the tracing
+   * @param slowThresholdMillis
+   *          the response time from which operations are logged, 0 to disable the logging
+   * @param bufferSize
+   *          the number of traces kept in memory
+   */
+  public synchronized void configure(int samplingInterval, long slowThresholdMillis, int bufferSize)
+  {
+    this.samplingInterval = samplingInterval;
+    this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+    if (bufferSize != traces.length())
+    {
+      traces = new AtomicReferenceArray<>(bufferSize);
+    }
+  }
+
+  /**
+   * Decides whether an operation which is starting to be processed by the current thread must be traced.
+   *
+   * @param operation
+   *          the operation starting to be processed
+   */
+  public void operationStarted(Operation operation)
+  {
+    final int interval = samplingInterval;
+    if (interval == 0)
+    {
+      return;
+    }
+    if (ThreadLocalRandom.current().nextInt(interval) == 0)
+    {
+      operation.setAttachment(TRACED_ATTACHMENT, Boolean.TRUE);
+      TRACED_OPERATION.set(operation);
+    }
+    else
+    {
+      TRACED_OPERATION.set(null);
+    }
+  }
+
+  /**
+   * Records the phases breakdown of an operation whose response has been sent, if it was traced or if it was slow.
+   *
+   * @param operation
+   *          the completed operation
+   */
+  public void operationCompleted(Operation operation)
+  {
+    final boolean traced = isTraced(operation);
+    final long threshold = slowThresholdNanos;
+    if (!traced && threshold == 0)
+    {
+      return;
+    }
+
+    long responseNanoTime = operation.getProcessingNanoTime();
+    if (responseNanoTime < 0)
+    {
+      responseNanoTime = TimeUnit.MILLISECONDS.toNanos(operation.getProcessingTime());
+    }
+    final boolean slow = threshold > 0 && responseNanoTime >= threshold;
+    if (traced)
+    {
+      if (TRACED_OPERATION.get() == operation)
+      {
+        TRACED_OPERATION.set(null);
+      }
+    }
+    else if (!slow)
+    {
+      return;
+    }
+
+    final OperationTrace trace = new OperationTrace(operation, responseNanoTime, traced);
+    final AtomicReferenceArray<OperationTrace> buffer = traces;
+    buffer.set((int) (traceCount.getAndIncrement() % buffer.length()), trace);
+    if (slow)
+    {
+      slowOperationCount.incrementAndGet();
+      logger.warn(WARN_SLOW_OPERATION.get(TimeUnit.NANOSECONDS.toMillis(threshold), trace));
+    }
+  }
+
+  /** Indicates whether the operation has been picked for tracing when it started. */
+  static boolean isTraced(Operation operation)
+  {
+    return operation.getAttachment(TRACED_ATTACHMENT) != null;
+  }
+
+  /**
+   * Returns the traces currently held in the ring buffer, oldest first.
+   *
+   * @return the traces currently held in the ring buffer, oldest first
+   */
+  public List<OperationTrace> getTraces()
+  {
+    final AtomicReferenceArray<OperationTrace> buffer = traces;
+    final long end = traceCount.get();
+    final long start = Math.max(end - buffer.length(), 0);
+    final List<OperationTrace> results = new ArrayList<>((int) (end - start));
+    for (long i = start; i < end; i++)
+    {
+      final OperationTrace trace = buffer.get((int) (i % buffer.length()));
+      if (trace != null)
+      {
+        results.add(trace);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns the number of operations traced or logged as slow since the server started.
+   *
+   * @return the number of operations traced or logged as slow since the server started
+   */
+  public long getTraceCount()
+  {
+    return traceCount.get();
+  }
+
+  /**
+   * Returns the number of operations logged as slow since the server started.
+   *
+   * @return the number of operations logged as slow since the server started
+   */
+  public long getSlowOperationCount()
+  {
+    return slowOperationCount.get();
+  }
+
+  /**
+   * Returns the configured sampling interval.
+   *
+   * @return the configured sampling interval, 0 if the tracing is disabled
+   */
+  public int getSamplingInterval()
+  {
+    return samplingInterval;
+  }
+
+  /**
+   * Starts measuring a phase of the traced operation processed by the current thread.
+   *
+   * @return the start time of the phase to provide to {@link #endPhase(OperationPhase, long)}, or 0 if the current
+   *         thread is not processing a traced operation
+   */
+  public static long startPhase()
+  {
+    if (INSTANCE.samplingInterval == 0 || TRACED_OPERATION.get() == null)
+    {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Ends measuring a phase of the traced operation processed by the current thread, and adds its duration to the
+   * operation.
+   *
+   * @param phase
+   *          the measured phase
+   * @param startTime
+   *          the value returned by {@link #startPhase()}
+   */
+  public static void endPhase(OperationPhase phase, long startTime)
+  {
+    if (startTime != 0)
+    {
+      final Operation operation = TRACED_OPERATION.get();
+      if (operation != null)
+      {
+        operation.addPhaseNanoTime(phase, System.nanoTime() - startTime);
+      }
+    }
+  }
+
+  /**
+   * Stops measuring the phases of the operation processed by the current thread, if it was traced. This must be called
+   * once the current thread has finished processing an operation, whether its response has been sent or not, so that
+   * the phases of the next operations processed by the thread are not added to it.
+   */
+  public static void operationProcessed()
+  {
+    TRACED_OPERATION.remove();
+  }
+}
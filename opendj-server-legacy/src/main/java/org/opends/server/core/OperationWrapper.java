@@ -34,6 +34,7 @@ import org.opends.server.types.DirectoryException;
 import org.opends.server.types.DisconnectReason;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 
 /**
@@ -247,6 +248,18 @@ public class OperationWrapper<W extends Operation> implements Operation
     return operation.getProcessingNanoTime();
   }
 
+  @Override
+  public long getPhaseNanoTime(OperationPhase phase)
+  {
+    return operation.getPhaseNanoTime(phase);
+  }
+
+  @Override
+  public void addPhaseNanoTime(OperationPhase phase, long nanoTime)
+  {
+    operation.addPhaseNanoTime(phase, nanoTime);
+  }
+
   @Override
   public List<String> getReferralURLs()
   {
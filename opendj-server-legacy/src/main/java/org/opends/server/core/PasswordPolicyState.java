@@ -37,6 +37,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizableMessageBuilder;
@@ -926,7 +927,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
 
     boolean isGeneralizedTime = SYNTAX_GENERALIZED_TIME_NAME.equals(type.getSyntax().getName());
     lastLoginTime = -1;
-    for (Attribute a : userEntry.getAttribute(type))
+    for (Attribute a : getLastLoginTimeAttributes(type))
     {
       if (a.isEmpty())
       {
@@ -991,6 +992,16 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
     return lastLoginTime;
   }
 
+  /**
+   * Returns the last login time attributes of the user entry, or the last login time which has not been written to it
+   * yet by the login state writer, so that the idle lockout is not evaluated against a stale value.
+   */
+  private List<Attribute> getLastLoginTimeAttributes(AttributeType type)
+  {
+    Modification pending = LoginStateWriter.getInstance().getPendingModification(userEntry.getName(), type);
+    return pending != null ? Collections.singletonList(pending.getAttribute()) : userEntry.getAttribute(type);
+  }
+
   private long parseTime(String format, String time, boolean isGeneralizedTime) throws ParseException
   {
     SimpleDateFormat dateFormat = new SimpleDateFormat(format);
@@ -1978,7 +1989,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
             continue;
           }
 
-          if (passwordMatches(password, pwComponents, scheme))
+          if (passwordMatches(password, pwComponents, scheme, v))
           {
             if (logger.isTraceEnabled())
             {
@@ -2144,7 +2155,7 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
             continue;
           }
 
-          if (passwordMatches(password, pwComponents, scheme))
+          if (passwordMatches(password, pwComponents, scheme, v))
           {
             if (passwordPolicy.isDefaultPasswordStorageScheme(schemeName)) {
               existingDefaultSchemes.add(schemeName);
@@ -2227,11 +2238,23 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
         : DirectoryServer.getPasswordStorageScheme(schemeName);
   }
 
-  private boolean passwordMatches(ByteString password, String[] pwComponents, PasswordStorageScheme<?> scheme)
+  private boolean passwordMatches(final ByteString password, final String[] pwComponents,
+      final PasswordStorageScheme<?> scheme, ByteString storedValue)
   {
-    return passwordPolicy.isAuthPasswordSyntax()
-        ? scheme.authPasswordMatches(password, pwComponents[1], pwComponents[2])
-        : scheme.passwordMatches(password, ByteString.valueOfUtf8(pwComponents[1]));
+    final boolean isAuthPasswordSyntax = passwordPolicy.isAuthPasswordSyntax();
+    final String schemeName =
+        isAuthPasswordSyntax ? scheme.getAuthPasswordSchemeName() : scheme.getStorageSchemeName();
+    return PasswordVerifier.getInstance().passwordMatches(userEntry.getName(), password, storedValue, schemeName,
+        new Callable<Boolean>()
+        {
+          @Override
+          public Boolean call()
+          {
+            return isAuthPasswordSyntax
+                ? scheme.authPasswordMatches(password, pwComponents[1], pwComponents[2])
+                : scheme.passwordMatches(password, ByteString.valueOfUtf8(pwComponents[1]));
+          }
+        });
   }
 
   private ByteString encodePassword(ByteString password, PasswordStorageScheme<?> s) throws DirectoryException
@@ -2753,11 +2776,30 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       return;
     }
 
-    // Convert the set of modifications to a set of LDAP modifications.
+    // The last login time can be written after the bind response, but the authentication failures must be written
+    // before it, so that the lockout is enforced by the following binds.
+    LoginStateWriter loginStateWriter = LoginStateWriter.getInstance();
+    if (loginStateWriter.isEnabled() && isLastLoginTimeUpdateOnly())
+    {
+      loginStateWriter.defer(userEntry.getName(), modifications);
+      return;
+    }
+
+    // Convert the set of modifications to a set of LDAP modifications,
+    // including the deferred ones which have not been superseded.
     ArrayList<RawModification> modList = new ArrayList<>();
+    Set<AttributeType> modifiedTypes = new HashSet<>();
     for (Modification m : modifications)
     {
       modList.add(RawModification.create(m.getModificationType(), new LDAPAttribute(m.getAttribute())));
+      modifiedTypes.add(m.getAttribute().getAttributeDescription().getAttributeType());
+    }
+    for (Modification m : loginStateWriter.removePendingModifications(userEntry.getName()))
+    {
+      if (!modifiedTypes.contains(m.getAttribute().getAttributeDescription().getAttributeType()))
+      {
+        modList.add(RawModification.create(m.getModificationType(), new LDAPAttribute(m.getAttribute())));
+      }
     }
 
     InternalClientConnection conn = getRootConnection();
@@ -2782,4 +2824,19 @@ public final class PasswordPolicyState extends AuthenticationPolicyState
       }
     }
   }
+
+  /** Returns whether the only modification of the user entry replaces the last login time. */
+  private boolean isLastLoginTimeUpdateOnly()
+  {
+    AttributeType lastLoginTimeType = passwordPolicy.getLastLoginTimeAttribute();
+    for (Modification m : modifications)
+    {
+      if (m.getModificationType() != ModificationType.REPLACE
+          || !m.getAttribute().getAttributeDescription().getAttributeType().equals(lastLoginTimeType))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -0,0 +1,447 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.forgerock.util.Utils.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+
+/**
+ * Verifies the passwords provided by the users against the values stored in their entries.
+ * <p>
+ * Verifying a password encoded with an expensive storage scheme, such as PBKDF2, Bcrypt or Crypt with a high number
+ * of iterations, takes milliseconds of CPU. Such verifications are performed by a bounded pool of threads, so that a
+ * storm of bind requests cannot use all the CPUs and starve the other operations. A storage scheme is expensive once
+ * its average verification CPU time reaches {@link #OFFLOAD_THRESHOLD_NANOS}. The cheap verifications are performed by
+ * the calling thread, which avoids the hand-off.
+ * <p>
+ * Successful verifications can be cached for a short time. The cache holds a keyed digest of the provided password,
+ * never the password itself, and a cached verification only applies to the stored value it was verified against:
+ * changing the password of a user invalidates it.
+ * <p>
+ * This class is thread safe.
+ */
+public final class PasswordVerifier
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The average verification CPU time from which the verifications of a storage scheme are offloaded. */
+  static final long OFFLOAD_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  /** The number of verifications needed to know whether a storage scheme is expensive. */
+  private static final int MIN_VERIFICATIONS = 4;
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final boolean IS_CPU_TIME_SUPPORTED = isCpuTimeSupported();
+
+  private static final PasswordVerifier INSTANCE = new PasswordVerifier();
+
+  /** The statistics of the verifications of a password storage scheme. */
+  public static final class SchemeStatistics
+  {
+    private final AtomicLong verificationCount = new AtomicLong();
+    private final AtomicLong cpuTime = new AtomicLong();
+    private final AtomicLong offloadedCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+
+    private void update(long verificationCpuTime)
+    {
+      verificationCount.incrementAndGet();
+      cpuTime.addAndGet(verificationCpuTime);
+    }
+
+    private boolean isExpensive()
+    {
+      final long count = verificationCount.get();
+      return count >= MIN_VERIFICATIONS && cpuTime.get() / count >= OFFLOAD_THRESHOLD_NANOS;
+    }
+
+    /**
+     * Returns the number of passwords verified with the storage scheme.
+     *
+     * @return the number of passwords verified with the storage scheme
+     */
+    public long getVerificationCount()
+    {
+      return verificationCount.get();
+    }
+
+    /**
+     * Returns the CPU time used to verify the passwords, in nanoseconds.
+     *
+     * @return the CPU time used to verify the passwords, in nanoseconds
+     */
+    public long getCpuTime()
+    {
+      return cpuTime.get();
+    }
+
+    /**
+     * Returns the number of verifications performed by the password verification threads.
+     *
+     * @return the number of verifications performed by the password verification threads
+     */
+    public long getOffloadedCount()
+    {
+      return offloadedCount.get();
+    }
+
+    /**
+     * Returns the number of verifications avoided thanks to the cache.
+     *
+     * @return the number of verifications avoided thanks to the cache
+     */
+    public long getCacheHitCount()
+    {
+      return cacheHitCount.get();
+    }
+  }
+
+  /** A successful verification. */
+  private static final class CachedVerification
+  {
+    private final ByteString storedValue;
+    private final byte[] passwordDigest;
+    private final long expirationTime;
+
+    private CachedVerification(ByteString storedValue, byte[] passwordDigest, long expirationTime)
+    {
+      this.storedValue = storedValue;
+      this.passwordDigest = passwordDigest;
+      this.expirationTime = expirationTime;
+    }
+
+    private boolean isExpired(long now)
+    {
+      return now >= expirationTime;
+    }
+  }
+
+  private final ThreadPoolExecutor verifiers;
+  private final ConcurrentMap<String, SchemeStatistics> statistics = new ConcurrentHashMap<>();
+  private final Map<DN, CachedVerification> cache = new ConcurrentHashMap<>();
+  /** Prevents computing the digests of the cached passwords without access to the server memory. */
+  private final byte[] digestKey = new byte[32];
+  private volatile long cacheTimeoutMillis;
+  private volatile int maxCacheSize = 10000;
+
+  /** Creates a password verifier with the default number of threads and no cache. */
+  PasswordVerifier()
+  {
+    final int threadCount = getDefaultThreadCount();
+    verifiers = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newThreadFactory(null, "PASSWORD-VERIFIER-%d", true));
+    verifiers.allowCoreThreadTimeOut(true);
+    new SecureRandom().nextBytes(digestKey);
+  }
+
+  /**
+   * Returns the password verifier of the server.
+   *
+   * @return the password verifier of the server
+   */
+  public static PasswordVerifier getInstance()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Applies the configuration of the password verifier.
+   *
+   * @param threadCount
+   *          the number of threads verifying the expensive passwords, or {@code null} for the default
+   * @param cacheTimeoutMillis
+   *          how long the successful verifications are cached, 0 to disable the cache
+   * @param maxCacheSize
+   *          the maximum number of cached verifications
+   */
+  public synchronized void configure(Integer threadCount, long cacheTimeoutMillis, int maxCacheSize)
+  {
+    final int newThreadCount = threadCount != null ? threadCount : getDefaultThreadCount();
+    if (newThreadCount > verifiers.getMaximumPoolSize())
+    {
+      verifiers.setMaximumPoolSize(newThreadCount);
+      verifiers.setCorePoolSize(newThreadCount);
+    }
+    else
+    {
+      verifiers.setCorePoolSize(newThreadCount);
+      verifiers.setMaximumPoolSize(newThreadCount);
+    }
+    this.cacheTimeoutMillis = cacheTimeoutMillis;
+    this.maxCacheSize = maxCacheSize;
+    if (cacheTimeoutMillis == 0 || cache.size() > maxCacheSize)
+    {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Returns whether the provided password matches a value stored in the entry of a user.
+   *
+   * @param userDN
+   *          the DN of the user
+   * @param password
+   *          the password provided by the user
+   * @param storedValue
+   *          the encoded password stored in the entry of the user
+   * @param schemeName
+   *          the name of the storage scheme of the stored value
+   * @param verification
+   *          verifies the provided password against the stored value
+   * @return {@code true} if the provided password matches the stored value
+   */
+  public boolean passwordMatches(DN userDN, ByteString password, ByteString storedValue, String schemeName,
+      Callable<Boolean> verification)
+  {
+    final SchemeStatistics schemeStatistics = getStatistics(schemeName);
+    final long timeout = cacheTimeoutMillis;
+    byte[] passwordDigest = null;
+    if (timeout > 0)
+    {
+      passwordDigest = digest(password);
+      if (isCached(userDN, storedValue, passwordDigest))
+      {
+        schemeStatistics.cacheHitCount.incrementAndGet();
+        return true;
+      }
+    }
+
+    final boolean matches = schemeStatistics.isExpensive()
+        ? verifyOffloaded(verification, schemeStatistics)
+        : verify(verification, schemeStatistics);
+    if (matches && passwordDigest != null)
+    {
+      cache(userDN, new CachedVerification(storedValue, passwordDigest, System.currentTimeMillis() + timeout));
+    }
+    return matches;
+  }
+
+  private boolean verifyOffloaded(final Callable<Boolean> verification, final SchemeStatistics schemeStatistics)
+  {
+    final Future<Boolean> future;
+    try
+    {
+      future = verifiers.submit(new Callable<Boolean>()
+      {
+        @Override
+        public Boolean call()
+        {
+          return verify(verification, schemeStatistics);
+        }
+      });
+    }
+    catch (RejectedExecutionException e)
+    {
+      logger.traceException(e);
+      return verify(verification, schemeStatistics);
+    }
+    schemeStatistics.offloadedCount.incrementAndGet();
+
+    try
+    {
+      return future.get();
+    }
+    catch (InterruptedException e)
+    {
+      logger.traceException(e);
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    catch (ExecutionException e)
+    {
+      // verify() does not throw checked exceptions.
+      final Throwable cause = e.getCause();
+      if (cause instanceof Error)
+      {
+        throw (Error) cause;
+      }
+      throw (RuntimeException) cause;
+    }
+  }
+
+  private static boolean verify(Callable<Boolean> verification, SchemeStatistics schemeStatistics)
+  {
+    final long startTime = getCpuTime();
+    try
+    {
+      return verification.call();
+    }
+    catch (RuntimeException e)
+    {
+      throw e;
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      return false;
+    }
+    finally
+    {
+      schemeStatistics.update(getCpuTime() - startTime);
+    }
+  }
+
+  private boolean isCached(DN userDN, ByteString storedValue, byte[] passwordDigest)
+  {
+    final CachedVerification cached = cache.get(userDN);
+    if (cached == null)
+    {
+      return false;
+    }
+    if (cached.isExpired(System.currentTimeMillis()))
+    {
+      cache.remove(userDN, cached);
+      return false;
+    }
+    return cached.storedValue.equals(storedValue) && MessageDigest.isEqual(cached.passwordDigest, passwordDigest);
+  }
+
+  private void cache(DN userDN, CachedVerification verification)
+  {
+    if (cache.size() >= maxCacheSize && !cache.containsKey(userDN))
+    {
+      removeExpiredVerifications();
+      if (cache.size() >= maxCacheSize)
+      {
+        return;
+      }
+    }
+    cache.put(userDN, verification);
+  }
+
+  private void removeExpiredVerifications()
+  {
+    final long now = System.currentTimeMillis();
+    for (Iterator<CachedVerification> it = cache.values().iterator(); it.hasNext();)
+    {
+      if (it.next().isExpired(now))
+      {
+        it.remove();
+      }
+    }
+  }
+
+  private byte[] digest(ByteString password)
+  {
+    try
+    {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(digestKey);
+      digest.update(password.toByteArray());
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      // SHA-256 is required by the Java platform.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private SchemeStatistics getStatistics(String schemeName)
+  {
+    SchemeStatistics schemeStatistics = statistics.get(schemeName);
+    if (schemeStatistics == null)
+    {
+      schemeStatistics = new SchemeStatistics();
+      final SchemeStatistics existing = statistics.putIfAbsent(schemeName, schemeStatistics);
+      if (existing != null)
+      {
+        schemeStatistics = existing;
+      }
+    }
+    return schemeStatistics;
+  }
+
+  /**
+   * Returns the verification statistics of each password storage scheme, sorted by scheme name.
+   *
+   * @return the verification statistics of each password storage scheme
+   */
+  public Map<String, SchemeStatistics> getStatistics()
+  {
+    return new TreeMap<>(statistics);
+  }
+
+  /**
+   * Returns the number of cached verifications.
+   *
+   * @return the number of cached verifications
+   */
+  public int getCacheSize()
+  {
+    return cache.size();
+  }
+
+  /**
+   * Returns the number of verifications waiting for a password verification thread.
+   *
+   * @return the number of verifications waiting for a password verification thread
+   */
+  public int getPendingCount()
+  {
+    return verifiers.getQueue().size();
+  }
+
+  /** Stops the password verification threads, only used by the tests which create their own verifier. */
+  void shutdown()
+  {
+    verifiers.shutdownNow();
+  }
+
+  private static int getDefaultThreadCount()
+  {
+    return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  }
+
+  private static boolean isCpuTimeSupported()
+  {
+    try
+    {
+      return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+    }
+    catch (UnsupportedOperationException e)
+    {
+      return false;
+    }
+  }
+
+  /** Returns the CPU time of the current thread, or the elapsed time if the JVM cannot measure it. */
+  private static long getCpuTime()
+  {
+    return IS_CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+}
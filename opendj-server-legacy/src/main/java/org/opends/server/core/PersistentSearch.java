@@ -20,9 +20,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.api.ClientConnection;
 import org.opends.server.controls.EntryChangeNotificationControl;
 import org.opends.server.controls.PersistentSearchChangeType;
 import org.opends.server.types.CancelResult;
@@ -31,6 +33,7 @@ import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 
+import static org.opends.messages.CoreMessages.*;
 import static org.opends.server.controls.PersistentSearchChangeType.*;
 
 /**
@@ -119,7 +122,10 @@ public final class PersistentSearch
   private final Set<PersistentSearchChangeType> changeTypes;
 
   /** Indicates whether or not this persistent search has already been aborted. */
-  private boolean isCancelled;
+  private volatile boolean isCancelled;
+
+  /** Indicates whether the search result done has already been sent, or queued, by this persistent search. */
+  private final AtomicBoolean isDone = new AtomicBoolean();
 
   /** Indicates whether entries returned should include the entry change notification control. */
   private final boolean returnECs;
@@ -383,14 +389,63 @@ public final class PersistentSearch
     return Collections.emptyList();
   }
 
-  private void sendEntry(Entry entry, List<Control> entryControls)
+  private void sendEntry(final Entry entry, final List<Control> entryControls)
+  {
+    if (isCancelled)
+    {
+      return;
+    }
+    final ClientConnection clientConnection = searchOperation.getClientConnection();
+    if (clientConnection.isInnerConnection())
+    {
+      returnEntry(entry, entryControls);
+      return;
+    }
+
+    final PersistentSearchQueue queue = clientConnection.getPersistentSearchQueue();
+    final boolean isQueued = queue.offer(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        // Drop the notifications queued before the cancellation
+        if (!isCancelled)
+        {
+          returnEntry(entry, entryControls);
+        }
+      }
+    });
+    if (!isQueued)
+    {
+      // The client does not read the notifications fast enough: stop
+      // notifying it, and tell it once, whichever notifier overflowed first.
+      cancel();
+      if (!isDone.compareAndSet(false, true))
+      {
+        return;
+      }
+      queue.add(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          searchOperation.setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
+          searchOperation.appendErrorMessage(
+              ERR_PSEARCH_SLOW_CONSUMER.get(PersistentSearchQueue.MAX_PENDING_NOTIFICATIONS));
+          searchOperation.sendSearchResultDone();
+        }
+      });
+    }
+  }
+
+  private void returnEntry(Entry entry, List<Control> entryControls)
   {
     try
     {
       if (!searchOperation.returnEntry(entry, entryControls))
       {
         cancel();
-        searchOperation.sendSearchResultDone();
+        sendSearchResultDone();
       }
     }
     catch (Exception e)
@@ -401,7 +456,7 @@ public final class PersistentSearch
 
       try
       {
-        searchOperation.sendSearchResultDone();
+        sendSearchResultDone();
       }
       catch (Exception e2)
       {
@@ -410,6 +465,15 @@ public final class PersistentSearch
     }
   }
 
+  /** Sends the search result done, unless it has already been sent or queued. */
+  private void sendSearchResultDone()
+  {
+    if (isDone.compareAndSet(false, true))
+    {
+      searchOperation.sendSearchResultDone();
+    }
+  }
+
   /**
    * Registers a cancellation callback with this persistent search.
    * The cancellation callback will be notified when this persistent
@@ -0,0 +1,391 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.DecodeException;
+import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.forgerock.opendj.ldap.schema.MatchingRule;
+import org.forgerock.opendj.ldap.schema.Schema;
+import org.forgerock.opendj.ldap.spi.IndexQueryFactory;
+import org.forgerock.opendj.ldap.spi.Indexer;
+import org.forgerock.opendj.ldap.spi.IndexingOptions;
+import org.opends.server.types.Attribute;
+import org.opends.server.types.Entry;
+import org.opends.server.types.FilterType;
+import org.opends.server.types.SearchFilter;
+
+/**
+ * Finds the persistent searches of a backend which may be interested in a change, without evaluating the base DN,
+ * scope and filter of all of them.
+ * <p>
+ * Persistent searches are grouped by base DN, so that only the searches whose base DN is the changed entry or one of
+ * its superiors are considered. Within a base DN, the searches whose filter is an equality assertion, or a
+ * conjunction containing an equality assertion, are further indexed by the normalized assertion value: they are
+ * only considered if the changed entry contains a matching value. The other searches are always considered.
+ * <p>
+ * The returned persistent searches are only candidates: they must still check the scope, filter and change types
+ * of the change.
+ * <p>
+ * This class is thread safe. Looking up the candidates does not acquire any lock.
+ */
+public final class PersistentSearchIndex
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** Only the equality keys are used, so the substring key size does not matter. */
+  private static final IndexingOptions INDEXING_OPTIONS = new IndexingOptions()
+  {
+    @Override
+    public int substringKeySize()
+    {
+      return 6;
+    }
+  };
+
+  /** Extracts the key of an exact match query, any other query cannot be indexed. */
+  private static final IndexQueryFactory<ByteString> EXACT_MATCH_KEY = new IndexQueryFactory<ByteString>()
+  {
+    @Override
+    public ByteString createExactMatchQuery(String indexID, ByteSequence key)
+    {
+      return key.toByteString();
+    }
+
+    @Override
+    public ByteString createMatchAllQuery()
+    {
+      return null;
+    }
+
+    @Override
+    public ByteString createRangeMatchQuery(String indexID, ByteSequence lower, ByteSequence upper,
+        boolean lowerIncluded, boolean upperIncluded)
+    {
+      return null;
+    }
+
+    @Override
+    public ByteString createIntersectionQuery(Collection<ByteString> subqueries)
+    {
+      return null;
+    }
+
+    @Override
+    public ByteString createUnionQuery(Collection<ByteString> subqueries)
+    {
+      return null;
+    }
+
+    @Override
+    public IndexingOptions getIndexingOptions()
+    {
+      return INDEXING_OPTIONS;
+    }
+  };
+
+  /** The equality assertion used to index a persistent search. */
+  private static final class IndexKey
+  {
+    private final AttributeType attributeType;
+    private final ByteString key;
+
+    private IndexKey(AttributeType attributeType, ByteString key)
+    {
+      this.attributeType = attributeType;
+      this.key = key;
+    }
+  }
+
+  /** The persistent searches sharing the same base DN. */
+  private static final class BaseDNSearches
+  {
+    private final List<PersistentSearch> unindexed = new CopyOnWriteArrayList<>();
+    private final Map<AttributeType, Map<ByteString, List<PersistentSearch>>> indexed = new ConcurrentHashMap<>();
+    private int size;
+  }
+
+  private final Map<DN, BaseDNSearches> searches = new ConcurrentHashMap<>();
+  /** The index key of each registered persistent search, {@code null} for the unindexed ones. */
+  private final Map<PersistentSearch, IndexKey> indexKeys = new HashMap<>();
+  private final AtomicLong lookupCount = new AtomicLong();
+  private final AtomicLong candidateCount = new AtomicLong();
+
+  /**
+   * Adds a persistent search to this index.
+   *
+   * @param psearch
+   *          the persistent search to add
+   */
+  public synchronized void add(PersistentSearch psearch)
+  {
+    if (indexKeys.containsKey(psearch))
+    {
+      return;
+    }
+    final SearchOperation searchOp = psearch.getSearchOperation();
+    final IndexKey indexKey = getIndexKey(searchOp.getFilter());
+    indexKeys.put(psearch, indexKey);
+
+    BaseDNSearches baseDNSearches = searches.get(searchOp.getBaseDN());
+    if (baseDNSearches == null)
+    {
+      baseDNSearches = new BaseDNSearches();
+      searches.put(searchOp.getBaseDN(), baseDNSearches);
+    }
+    baseDNSearches.size++;
+    if (indexKey == null)
+    {
+      baseDNSearches.unindexed.add(psearch);
+      return;
+    }
+    Map<ByteString, List<PersistentSearch>> keys = baseDNSearches.indexed.get(indexKey.attributeType);
+    if (keys == null)
+    {
+      keys = new ConcurrentHashMap<>();
+      baseDNSearches.indexed.put(indexKey.attributeType, keys);
+    }
+    List<PersistentSearch> psearches = keys.get(indexKey.key);
+    if (psearches == null)
+    {
+      psearches = new CopyOnWriteArrayList<>();
+      keys.put(indexKey.key, psearches);
+    }
+    psearches.add(psearch);
+  }
+
+  /**
+   * Removes a persistent search from this index.
+   *
+   * @param psearch
+   *          the persistent search to remove
+   */
+  public synchronized void remove(PersistentSearch psearch)
+  {
+    if (!indexKeys.containsKey(psearch))
+    {
+      return;
+    }
+    final IndexKey indexKey = indexKeys.remove(psearch);
+    final DN baseDN = psearch.getSearchOperation().getBaseDN();
+    final BaseDNSearches baseDNSearches = searches.get(baseDN);
+    if (--baseDNSearches.size == 0)
+    {
+      searches.remove(baseDN);
+      return;
+    }
+    if (indexKey == null)
+    {
+      baseDNSearches.unindexed.remove(psearch);
+      return;
+    }
+    final Map<ByteString, List<PersistentSearch>> keys = baseDNSearches.indexed.get(indexKey.attributeType);
+    final List<PersistentSearch> psearches = keys.get(indexKey.key);
+    psearches.remove(psearch);
+    if (psearches.isEmpty())
+    {
+      keys.remove(indexKey.key);
+      if (keys.isEmpty())
+      {
+        baseDNSearches.indexed.remove(indexKey.attributeType);
+      }
+    }
+  }
+
+  /** Removes all the persistent searches from this index. */
+  public synchronized void clear()
+  {
+    searches.clear();
+    indexKeys.clear();
+  }
+
+  /**
+   * Adds the persistent searches which may be interested in a change to the provided candidates.
+   *
+   * @param dn
+   *          the DN of the changed entry
+   * @param entry
+   *          the content of the changed entry which must be evaluated against the persistent searches filters
+   * @param candidates
+   *          the set where to add the candidate persistent searches
+   */
+  public void addCandidates(DN dn, Entry entry, Set<PersistentSearch> candidates)
+  {
+    lookupCount.incrementAndGet();
+    final int initialSize = candidates.size();
+    for (DN baseDN = dn; baseDN != null; baseDN = baseDN.parent())
+    {
+      final BaseDNSearches baseDNSearches = searches.get(baseDN);
+      if (baseDNSearches != null)
+      {
+        candidates.addAll(baseDNSearches.unindexed);
+        for (Map.Entry<AttributeType, Map<ByteString, List<PersistentSearch>>> mapEntry
+            : baseDNSearches.indexed.entrySet())
+        {
+          addCandidates(entry, mapEntry.getKey(), mapEntry.getValue(), candidates);
+        }
+      }
+    }
+    candidateCount.addAndGet(candidates.size() - initialSize);
+  }
+
+  private void addCandidates(Entry entry, AttributeType attributeType,
+      Map<ByteString, List<PersistentSearch>> psearchesByKey, Set<PersistentSearch> candidates)
+  {
+    final MatchingRule rule = attributeType.getEqualityMatchingRule();
+    final Indexer indexer = getIndexer(rule);
+    final Schema schema = DirectoryServer.getSchema().getSchemaNG();
+    final List<ByteString> keys = new ArrayList<>();
+    for (Attribute attribute : entry.getAttribute(attributeType))
+    {
+      if (!rule.equals(attribute.getAttributeDescription().getAttributeType().getEqualityMatchingRule()))
+      {
+        // A sub-type with a different matching rule: values cannot be compared with the keys.
+        addAll(psearchesByKey, candidates);
+        return;
+      }
+      try
+      {
+        for (ByteString value : attribute)
+        {
+          indexer.createKeys(schema, value, keys);
+        }
+      }
+      catch (DecodeException e)
+      {
+        logger.traceException(e);
+        addAll(psearchesByKey, candidates);
+        return;
+      }
+    }
+    for (ByteString key : keys)
+    {
+      final List<PersistentSearch> psearches = psearchesByKey.get(key);
+      if (psearches != null)
+      {
+        candidates.addAll(psearches);
+      }
+    }
+  }
+
+  private static void addAll(Map<ByteString, List<PersistentSearch>> psearchesByKey,
+      Set<PersistentSearch> candidates)
+  {
+    for (List<PersistentSearch> psearches : psearchesByKey.values())
+    {
+      candidates.addAll(psearches);
+    }
+  }
+
+  /**
+   * Returns the equality assertion which must be satisfied by the entries matching the provided filter.
+   *
+   * @return the index key, or {@code null} if the filter cannot be indexed
+   */
+  private static IndexKey getIndexKey(SearchFilter filter)
+  {
+    if (filter.getFilterType() == FilterType.EQUALITY)
+    {
+      return getEqualityIndexKey(filter);
+    }
+    else if (filter.getFilterType() == FilterType.AND)
+    {
+      for (SearchFilter component : filter.getFilterComponents())
+      {
+        if (component.getFilterType() == FilterType.EQUALITY)
+        {
+          final IndexKey indexKey = getEqualityIndexKey(component);
+          if (indexKey != null)
+          {
+            return indexKey;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static IndexKey getEqualityIndexKey(SearchFilter filter)
+  {
+    final AttributeType attributeType = filter.getAttributeType();
+    final MatchingRule rule = attributeType.getEqualityMatchingRule();
+    // Entries list their object classes separately, and most searches target a single object class anyway.
+    if (attributeType.isObjectClass() || rule == null || getIndexer(rule) == null)
+    {
+      return null;
+    }
+    try
+    {
+      final ByteString key = rule.getAssertion(filter.getAssertionValue()).createIndexQuery(EXACT_MATCH_KEY);
+      return key != null ? new IndexKey(attributeType, key) : null;
+    }
+    catch (DecodeException e)
+    {
+      logger.traceException(e);
+      return null;
+    }
+  }
+
+  /** Returns the indexer producing the keys of the exact match queries of an equality matching rule. */
+  private static Indexer getIndexer(MatchingRule rule)
+  {
+    final Collection<? extends Indexer> indexers = rule.createIndexers(INDEXING_OPTIONS);
+    return indexers.size() == 1 ? indexers.iterator().next() : null;
+  }
+
+  /**
+   * Returns the number of persistent searches in this index.
+   *
+   * @return the number of persistent searches in this index
+   */
+  public synchronized int size()
+  {
+    return indexKeys.size();
+  }
+
+  /**
+   * Returns the number of changes which have been looked up in this index.
+   *
+   * @return the number of changes which have been looked up in this index
+   */
+  public long getLookupCount()
+  {
+    return lookupCount.get();
+  }
+
+  /**
+   * Returns the number of candidate persistent searches returned by this index, which have evaluated the changes.
+   *
+   * @return the number of candidate persistent searches returned by this index
+   */
+  public long getCandidateCount()
+  {
+    return candidateCount.get();
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.ServerShutdownListener;
+
+/**
+ * Delivers the change notifications of the persistent searches of a client connection, so that the operations which
+ * changed the entries do not wait for the clients to read the notifications.
+ * <p>
+ * Notifications are delivered in order by a shared pool of threads, at most one thread at a time working for a given
+ * client connection. The queue is bounded: a client which does not read the notifications fast enough is a slow
+ * consumer, and the persistent search whose notification overflows the queue is cancelled rather than silently
+ * missing changes, see {@link PersistentSearch}. The shared pool is started on first use and stopped when the server
+ * shuts down, dropping the notifications which have not been delivered yet.
+ * <p>
+ * This class is thread safe.
+ */
+public final class PersistentSearchQueue
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  /** The maximum number of notifications pending for a client connection. */
+  static final int MAX_PENDING_NOTIFICATIONS = 1000;
+  /** Lets other client connections make progress when a connection has many pending notifications. */
+  private static final int MAX_NOTIFICATIONS_PER_RUN = 64;
+  private static final String NOTIFIER_THREAD_NAME = "Persistent search notifier";
+  /** Stops the notifier threads when the server shuts down. */
+  private static final ServerShutdownListener SHUTDOWN_LISTENER = new ServerShutdownListener()
+  {
+    @Override
+    public String getShutdownListenerName()
+    {
+      return NOTIFIER_THREAD_NAME;
+    }
+
+    @Override
+    public void processServerShutdown(LocalizableMessage reason)
+    {
+      shutdownNotifiers();
+    }
+  };
+  /** The shared pool of notifier threads, {@code null} until first used or once the server has shut down. */
+  private static ExecutorService notifiers;
+
+  private final Deque<Runnable> pendingNotifications = new ArrayDeque<>();
+  private final Runnable notifier = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      deliverPendingNotifications();
+    }
+  };
+  private boolean isScheduled;
+  private int maxPendingCount;
+  private long deliveredCount;
+  private long overflowCount;
+
+  /**
+   * Queues a notification, unless the queue is full.
+   *
+   * @param notification
+   *          the notification to deliver
+   * @return {@code true} if the notification has been queued, {@code false} if the queue is full
+   */
+  synchronized boolean offer(Runnable notification)
+  {
+    if (pendingNotifications.size() >= MAX_PENDING_NOTIFICATIONS)
+    {
+      overflowCount++;
+      return false;
+    }
+    add(notification);
+    return true;
+  }
+
+  /**
+   * Queues a notification even if the queue is full. Used to tell a slow consumer that its persistent search has
+   * been cancelled.
+   *
+   * @param notification
+   *          the notification to deliver
+   */
+  synchronized void add(Runnable notification)
+  {
+    pendingNotifications.add(notification);
+    maxPendingCount = Math.max(maxPendingCount, pendingNotifications.size());
+    if (!isScheduled)
+    {
+      isScheduled = true;
+      schedule();
+    }
+  }
+
+  /** Runs the notifier on the shared pool, or drops the pending notifications if the server is shutting down. */
+  private synchronized void schedule()
+  {
+    try
+    {
+      getNotifiers().execute(notifier);
+    }
+    catch (RejectedExecutionException e)
+    {
+      logger.traceException(e);
+      pendingNotifications.clear();
+      isScheduled = false;
+    }
+  }
+
+  private static synchronized ExecutorService getNotifiers()
+  {
+    if (notifiers == null)
+    {
+      notifiers = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), new DirectoryThread.Factory(NOTIFIER_THREAD_NAME));
+      DirectoryServer.registerShutdownListener(SHUTDOWN_LISTENER);
+    }
+    return notifiers;
+  }
+
+  private static synchronized void shutdownNotifiers()
+  {
+    if (notifiers != null)
+    {
+      notifiers.shutdownNow();
+      notifiers = null;
+    }
+    DirectoryServer.deregisterShutdownListener(SHUTDOWN_LISTENER);
+  }
+
+  private void deliverPendingNotifications()
+  {
+    for (int i = 0; i < MAX_NOTIFICATIONS_PER_RUN; i++)
+    {
+      final Runnable notification;
+      synchronized (this)
+      {
+        notification = pendingNotifications.poll();
+        if (notification == null)
+        {
+          isScheduled = false;
+          return;
+        }
+      }
+      try
+      {
+        notification.run();
+      }
+      catch (Exception e)
+      {
+        logger.traceException(e);
+      }
+      synchronized (this)
+      {
+        deliveredCount++;
+      }
+    }
+    // Still scheduled, give other client connections a chance.
+    schedule();
+  }
+
+  /**
+   * Returns the number of notifications waiting to be delivered.
+   *
+   * @return the number of notifications waiting to be delivered
+   */
+  public synchronized int getPendingCount()
+  {
+    return pendingNotifications.size();
+  }
+
+  /**
+   * Returns the highest number of notifications which have been waiting to be delivered at the same time.
+   *
+   * @return the highest number of notifications which have been waiting to be delivered at the same time
+   */
+  public synchronized int getMaxPendingCount()
+  {
+    return maxPendingCount;
+  }
+
+  /**
+   * Returns the number of notifications which have been delivered.
+   *
+   * @return the number of notifications which have been delivered
+   */
+  public synchronized long getDeliveredCount()
+  {
+    return deliveredCount;
+  }
+
+  /**
+   * Returns the number of notifications which could not be queued because the client did not read the previous
+   * ones fast enough.
+   *
+   * @return the number of notifications which could not be queued
+   */
+  public synchronized long getOverflowCount()
+  {
+    return overflowCount;
+  }
+}
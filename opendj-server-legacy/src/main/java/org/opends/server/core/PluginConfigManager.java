@@ -1676,6 +1676,18 @@ public class PluginConfigManager
     }
   }
 
+  /**
+   * Indicates whether LDIF export plugins have been configured in the
+   * Directory Server.
+   *
+   * @return  {@code true} if LDIF export plugins have been configured, or
+   *          {@code false} if not.
+   */
+  public boolean hasLDIFExportPlugins()
+  {
+    return ldifExportPlugins.length > 0;
+  }
+
   /**
    * Invokes the set of LDIF export plugins that have been configured in the
    * Directory Server.
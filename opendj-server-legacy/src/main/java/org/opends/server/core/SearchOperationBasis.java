@@ -48,6 +48,7 @@ import org.opends.server.types.CanceledOperationException;
 import org.opends.server.types.Control;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 import org.opends.server.types.RawFilter;
 import org.opends.server.types.SearchFilter;
@@ -988,7 +989,10 @@ public class SearchOperationBasis
       // Check for and handle a request to cancel this operation.
       checkIfCanceled(false);
 
-      if (!processOperationResult(getPluginConfigManager().invokePreParseSearchPlugins(this)))
+      final long preParseStartTime = System.nanoTime();
+      final PluginResult.PreParse preParseResult = getPluginConfigManager().invokePreParseSearchPlugins(this);
+      addPhaseNanoTime(OperationPhase.PRE_PARSE_PLUGINS, System.nanoTime() - preParseStartTime);
+      if (!processOperationResult(preParseResult))
       {
         return;
       }
@@ -17,6 +17,7 @@
 package org.opends.server.core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -25,6 +26,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -92,6 +95,30 @@ public class SubentryManager extends InternalDirectoryServerPlugin
 
   /** Dummy configuration DN for Subentry Manager. */
   private static final String CONFIG_DN = "cn=Subentry Manager,cn=config";
+  /** Bounds the memory used by the applicability caches, which are cleared once full. */
+  private static final int MAX_CACHED_PARENT_DNS = 10000;
+
+  /**
+   * The subentries which apply to the children of a parent DN, as far as the DN of the children is concerned. They
+   * are ordered from the nearest to the furthest base DN, and are precompiled for the depth of the children, so
+   * that only the few subentries having a specific exclusion directly below the parent DN need to be checked again
+   * against the DN of each child.
+   */
+  private static final class ApplicableSubEntries
+  {
+    private static final ApplicableSubEntries NONE = new ApplicableSubEntries(
+        Collections.<SubEntry> emptyList(), new BitSet());
+
+    private final List<SubEntry> subEntries;
+    /** The indexes of the subentries which exclude some of the children. */
+    private final BitSet childExclusions;
+
+    private ApplicableSubEntries(List<SubEntry> subEntries, BitSet childExclusions)
+    {
+      this.subEntries = subEntries;
+      this.childExclusions = childExclusions;
+    }
+  }
 
   /** A mapping between the DNs and applicable subentries. */
   private final Map<DN, List<SubEntry>> dn2SubEntry = new HashMap<>();
@@ -99,6 +126,10 @@ public class SubentryManager extends InternalDirectoryServerPlugin
   private final Map<DN, List<SubEntry>> dn2CollectiveSubEntry = new HashMap<>();
   /** A mapping between subentry DNs and subentry objects. */
   private final DITCacheMap<SubEntry> dit2SubEntry = new DITCacheMap<>();
+  /** A mapping between parent DNs and the subentries applicable to their children, invalidated on changes. */
+  private final ConcurrentMap<DN, ApplicableSubEntries> parentDN2SubEntries = new ConcurrentHashMap<>();
+  /** A mapping between parent DNs and the collective subentries applicable to their children. */
+  private final ConcurrentMap<DN, ApplicableSubEntries> parentDN2CollectiveSubEntries = new ConcurrentHashMap<>();
   /** Internal search all operational attributes. */
   private final Set<String> requestAttrs = newLinkedHashSet("*", "+");
   /** Lock to protect internal data structures. */
@@ -193,6 +224,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
       }
       dit2SubEntry.put(entry.getName(), subEntry);
       subList.add(subEntry);
+      invalidateApplicableSubEntries();
     }
     finally
     {
@@ -245,6 +277,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
           {
             subEntryListsIt.remove();
           }
+          invalidateApplicableSubEntries();
           return true;
         }
       }
@@ -431,28 +464,155 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     lock.readLock().lock();
     try
     {
-      List<SubEntry> subentries = new ArrayList<>();
-      for (DN subDN = dn; subDN != null && !subDN.isRootDN(); subDN = subDN.parent())
+      return getDNApplicableSubEntries(subEntryMap, dn);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the subentries whose subtree specification applies to the provided DN, ignoring the refinements. The
+   * caller must hold the read lock.
+   */
+  private List<SubEntry> getDNApplicableSubEntries(Map<DN, List<SubEntry>> subEntryMap, DN dn)
+  {
+    final List<SubEntry> subentries = new ArrayList<>();
+    if (dn.isRootDN())
+    {
+      return subentries;
+    }
+
+    final List<SubEntry> subList = subEntryMap.get(dn);
+    if (subList != null)
+    {
+      for (SubEntry subEntry : subList)
       {
-        List<SubEntry> subList = subEntryMap.get(subDN);
-        if (subList != null)
+        if (subEntry.getSubTreeSpecification().isDNWithinScope(dn))
         {
-          for (SubEntry subEntry : subList)
+          subentries.add(subEntry);
+        }
+      }
+    }
+
+    final DN parentDN = dn.parent();
+    if (parentDN != null && !parentDN.isRootDN())
+    {
+      final ApplicableSubEntries applicable = getApplicableSubEntries(subEntryMap, parentDN);
+      for (int i = 0; i < applicable.subEntries.size(); i++)
+      {
+        final SubEntry subEntry = applicable.subEntries.get(i);
+        if (!applicable.childExclusions.get(i) || subEntry.getSubTreeSpecification().isDNWithinScope(dn))
+        {
+          subentries.add(subEntry);
+        }
+      }
+    }
+    return subentries;
+  }
+
+  private ApplicableSubEntries getApplicableSubEntries(Map<DN, List<SubEntry>> subEntryMap, DN parentDN)
+  {
+    final ConcurrentMap<DN, ApplicableSubEntries> cache =
+        subEntryMap == dn2SubEntry ? parentDN2SubEntries : parentDN2CollectiveSubEntries;
+    ApplicableSubEntries applicable = cache.get(parentDN);
+    if (applicable == null)
+    {
+      // Computed under the read lock, so it cannot race with an invalidation.
+      applicable = computeApplicableSubEntries(subEntryMap, parentDN);
+      if (cache.size() >= MAX_CACHED_PARENT_DNS)
+      {
+        cache.clear();
+      }
+      cache.put(parentDN, applicable);
+    }
+    return applicable;
+  }
+
+  private ApplicableSubEntries computeApplicableSubEntries(Map<DN, List<SubEntry>> subEntryMap, DN parentDN)
+  {
+    final List<SubEntry> subEntries = new ArrayList<>();
+    final BitSet childExclusions = new BitSet();
+    for (DN subDN = parentDN; subDN != null && !subDN.isRootDN(); subDN = subDN.parent())
+    {
+      final List<SubEntry> subList = subEntryMap.get(subDN);
+      if (subList != null)
+      {
+        for (SubEntry subEntry : subList)
+        {
+          final SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
+          if (isChildDNWithinScope(subSpec, parentDN))
           {
-            SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
-            if (subSpec.isDNWithinScope(dn))
+            if (hasChildExclusion(subSpec, parentDN))
             {
-              subentries.add(subEntry);
+              childExclusions.set(subEntries.size());
             }
+            subEntries.add(subEntry);
+          }
+          else if (parentDN.equals(subSpec.getBaseDN().parent()))
+          {
+            // Only the base entry may be in scope among the children, it is checked by its own DN
+            childExclusions.set(subEntries.size());
+            subEntries.add(subEntry);
           }
         }
       }
-      return subentries;
     }
-    finally
+    return subEntries.isEmpty() ? ApplicableSubEntries.NONE : new ApplicableSubEntries(subEntries, childExclusions);
+  }
+
+  /**
+   * Returns whether the children of the provided parent DN are within the scope of the subtree specification, unless
+   * a chopBefore exclusion is one of the children.
+   */
+  private static boolean isChildDNWithinScope(SubtreeSpecification subSpec, DN parentDN)
+  {
+    if (!parentDN.isSubordinateOrEqualTo(subSpec.getBaseDN()))
     {
-      lock.readLock().unlock();
+      // The children are outside of the subtree
+      return false;
     }
+    final int depth = parentDN.size() + 1 - subSpec.getBaseDN().size();
+    if (depth < subSpec.getMinimumDepth()
+        || (subSpec.getMaximumDepth() >= 0 && depth > subSpec.getMaximumDepth()))
+    {
+      return false;
+    }
+    for (DN chopBeforeDN : subSpec.getChopBefore())
+    {
+      if (parentDN.isSubordinateOrEqualTo(chopBeforeDN))
+      {
+        return false;
+      }
+    }
+    for (DN chopAfterDN : subSpec.getChopAfter())
+    {
+      if (parentDN.isSubordinateOrEqualTo(chopAfterDN))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasChildExclusion(SubtreeSpecification subSpec, DN parentDN)
+  {
+    for (DN chopBeforeDN : subSpec.getChopBefore())
+    {
+      if (parentDN.equals(chopBeforeDN.parent()))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Invalidates the cached applicable subentries. The caller must hold the write lock. */
+  private void invalidateApplicableSubEntries()
+  {
+    parentDN2SubEntries.clear();
+    parentDN2CollectiveSubEntries.clear();
   }
 
   /**
@@ -478,20 +638,13 @@ public class SubentryManager extends InternalDirectoryServerPlugin
     lock.readLock().lock();
     try
     {
-      List<SubEntry> subentries = new ArrayList<>();
-      for (DN subDN = entry.getName(); subDN != null && !subDN.isRootDN(); subDN = subDN.parent())
+      final List<SubEntry> subentries = getDNApplicableSubEntries(subEntryMap, entry.getName());
+      final Iterator<SubEntry> it = subentries.iterator();
+      while (it.hasNext())
       {
-        List<SubEntry> subList = subEntryMap.get(subDN);
-        if (subList != null)
+        if (!it.next().getSubTreeSpecification().isRefinementsMatch(entry))
         {
-          for (SubEntry subEntry : subList)
-          {
-            SubtreeSpecification subSpec = subEntry.getSubTreeSpecification();
-            if (subSpec.isWithinScope(entry))
-            {
-              subentries.add(subEntry);
-            }
-          }
+          it.remove();
         }
       }
       return subentries;
@@ -561,6 +714,7 @@ public class SubentryManager extends InternalDirectoryServerPlugin
         {
           dit2SubEntry.remove(subEntry.getDN());
           subEntriesIt.remove();
+          invalidateApplicableSubEntries();
           notifySubentryDeleted(subEntry.getEntry());
         }
       }
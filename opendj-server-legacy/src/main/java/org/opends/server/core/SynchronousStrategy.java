@@ -36,7 +36,11 @@ public class SynchronousStrategy implements QueueingStrategy {
   @Override
   public void enqueueRequest(Operation operation) throws DirectoryException {
     DirectoryServer.checkCanEnqueueRequest(operation, true);
-    operation.run();
-    operation.operationCompleted();
+    try {
+      operation.run();
+      operation.operationCompleted();
+    } finally {
+      OperationTracer.operationProcessed();
+    }
   }
 }
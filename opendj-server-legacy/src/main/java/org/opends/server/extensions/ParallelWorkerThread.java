@@ -22,6 +22,7 @@ import java.util.Map;
 import org.forgerock.i18n.LocalizableMessage;
 import org.opends.server.api.DirectoryThread;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.OperationTracer;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 import org.opends.server.types.CancelRequest;
 import org.opends.server.types.DisconnectReason;
@@ -147,8 +148,15 @@ public class ParallelWorkerThread
         {
           // The operation is not null, so process it.  Make sure that when
           // processing is complete.
-          operation.run();
-          operation.operationCompleted();
+          try
+          {
+            operation.run();
+            operation.operationCompleted();
+          }
+          finally
+          {
+            OperationTracer.operationProcessed();
+          }
         }
       }
       catch (Throwable t)
@@ -19,12 +19,15 @@ package org.opends.server.extensions;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
 
 /**
  * This class redirects read and write requests either to a child byte channel,
- * or a byte channel to be redirected to.
+ * or a byte channel to be redirected to. Gathering writes are passed to the
+ * target channel if it supports them, otherwise the buffers are written one at
+ * a time.
  */
-public class RedirectingByteChannel implements ByteChannel
+public class RedirectingByteChannel implements ByteChannel, GatheringByteChannel
 {
   /**
    * Create an instance of a redirecting byte channel using the specified byte
@@ -121,4 +124,35 @@ public class RedirectingByteChannel implements ByteChannel
       return child.write(buffer);
     }
   }
+
+  @Override
+  public long write(final ByteBuffer[] srcs) throws IOException
+  {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public long write(final ByteBuffer[] srcs, final int offset, final int length)
+      throws IOException
+  {
+    ByteChannel tmp = redirect;
+    if (tmp == null)
+    {
+      tmp = child;
+    }
+    if (tmp instanceof GatheringByteChannel)
+    {
+      return ((GatheringByteChannel) tmp).write(srcs, offset, length);
+    }
+
+    long bytesWritten = 0;
+    for (int i = offset; i < offset + length; i++)
+    {
+      while (srcs[i].hasRemaining())
+      {
+        bytesWritten += tmp.write(srcs[i]);
+      }
+    }
+    return bytesWritten;
+  }
 }
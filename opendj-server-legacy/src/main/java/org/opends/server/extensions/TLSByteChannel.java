@@ -20,10 +20,16 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.security.cert.Certificate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
@@ -34,11 +40,37 @@ import javax.net.ssl.SSLSession;
 
 import org.forgerock.i18n.slf4j.LocalizedLogger;
 
-/** A class that provides a TLS byte channel implementation. */
+/**
+ * A class that provides a TLS byte channel implementation.
+ * <p>
+ * The buffers holding the SSL packets and the unwrapped data are taken from a
+ * pool shared by all the TLS byte channels, and are only held while they
+ * contain data, so that idle connections do not retain them.
+ */
 public final class TLSByteChannel implements ConnectionSecurityProvider
 {
+  /** Notified of the outcome of the TLS handshakes. */
+  public interface HandshakeListener
+  {
+    /**
+     * Invoked when a handshake has completed.
+     *
+     * @param durationNanos
+     *          the time elapsed since the beginning of the handshake, in
+     *          nanoseconds
+     * @param isResumed
+     *          whether the handshake resumed a previously established session,
+     *          always {@code false} for TLS 1.3 and later whose resumed
+     *          handshakes cannot be told apart from full handshakes
+     */
+    void handshakeCompleted(long durationNanos, boolean isResumed);
+
+    /** Invoked when a handshake has failed, or the connection was closed during the handshake. */
+    void handshakeFailed();
+  }
+
   /** Private implementation. */
-  private final class ByteChannelImpl implements ByteChannel
+  private final class ByteChannelImpl implements ByteChannel, GatheringByteChannel
   {
     @Override
     public void close() throws IOException
@@ -82,6 +114,11 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
             finally
             {
               channel.close();
+              handshakeFailed();
+              synchronized (unwrapLock)
+              {
+                releaseRecvBuffers(true);
+              }
             }
           }
         }
@@ -99,52 +136,84 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
     {
       synchronized (readLock)
       {
-        // Only read and unwrap new data if needed.
-        if (!recvUnwrappedBuffer.hasRemaining())
+        try
         {
-          final int read = doRecvAndUnwrap();
-          if (read <= 0)
+          // Only read and unwrap new data if needed.
+          if (!hasRecvUnwrappedData())
           {
-            // No data read or end of stream.
-            return read;
+            final int read = doRecvAndUnwrap();
+            if (read <= 0)
+            {
+              // No data read or end of stream.
+              return read;
+            }
           }
-        }
 
-        // Copy available data.
-        final int startPos = unwrappedData.position();
-        if (recvUnwrappedBuffer.remaining() > unwrappedData.remaining())
-        {
-          // Unwrapped data does not fit in client buffer so copy one byte at a
-          // time: it's annoying that there is no easy way to do this with
-          // ByteBuffers.
-          while (unwrappedData.hasRemaining())
+          // Copy available data.
+          synchronized (unwrapLock)
           {
-            unwrappedData.put(recvUnwrappedBuffer.get());
+            final int startPos = unwrappedData.position();
+            if (recvUnwrappedBuffer.remaining() > unwrappedData.remaining())
+            {
+              // Unwrapped data does not fit in client buffer so only copy
+              // what fits.
+              final int limit = recvUnwrappedBuffer.limit();
+              recvUnwrappedBuffer.limit(recvUnwrappedBuffer.position() + unwrappedData.remaining());
+              unwrappedData.put(recvUnwrappedBuffer);
+              recvUnwrappedBuffer.limit(limit);
+            }
+            else
+            {
+              unwrappedData.put(recvUnwrappedBuffer);
+            }
+            return unwrappedData.position() - startPos;
           }
         }
-        else
+        finally
         {
-          // Unwrapped data fits client buffer so block copy.
-          unwrappedData.put(recvUnwrappedBuffer);
+          synchronized (unwrapLock)
+          {
+            releaseRecvBuffers(false);
+          }
         }
-        return unwrappedData.position() - startPos;
       }
     }
 
     @Override
     public int write(final ByteBuffer unwrappedData) throws IOException
+    {
+      return (int) write(new ByteBuffer[] { unwrappedData }, 0, 1);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] unwrappedData) throws IOException
+    {
+      return write(unwrappedData, 0, unwrappedData.length);
+    }
+
+    /**
+     * Wraps the data of all the buffers together, so that many small messages
+     * are sent using full size SSL packets rather than one packet each.
+     */
+    @Override
+    public long write(final ByteBuffer[] unwrappedData, final int offset,
+        final int length) throws IOException
     {
       // This method will block until the entire message is sent.
-      final int bytesWritten = unwrappedData.remaining();
+      long bytesWritten = 0;
+      for (int i = offset; i < offset + length; i++)
+      {
+        bytesWritten += unwrappedData[i].remaining();
+      }
 
       // Synchronized in order to prevent interleaving and reordering.
       synchronized (writeLock)
       {
         // Repeat until the entire input data is written.
-        while (unwrappedData.hasRemaining())
+        while (hasRemaining(unwrappedData, offset, length))
         {
           // Wrap and send the data.
-          doWrapAndSend(unwrappedData);
+          doWrapAndSend(unwrappedData, offset, length);
 
           // Perform handshake if needed.
           if (isHandshaking(sslEngine.getHandshakeStatus()))
@@ -211,12 +280,35 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
       }
     }
 
+    private boolean hasRecvUnwrappedData()
+    {
+      synchronized (unwrapLock)
+      {
+        return recvUnwrappedBuffer != null && recvUnwrappedBuffer.hasRemaining();
+      }
+    }
+
     /** Attempt to read and unwrap the next SSL packet. */
     private int doRecvAndUnwrap() throws IOException
     {
       // Synchronize SSL unwrap with channel reads.
       synchronized (unwrapLock)
       {
+        if (recvWrappedBuffer == null)
+        {
+          if (recvBuffersClosed)
+          {
+            // Do not take buffers from the pool that would never be released.
+            throw new ClosedChannelException();
+          }
+          final SSLSession session = sslEngine.getSession();
+          recvWrappedBuffer = acquireBuffer(session.getPacketBufferSize());
+          recvUnwrappedBuffer = acquireBuffer(session.getApplicationBufferSize());
+          // Initially nothing has been received.
+          recvWrappedBuffer.flip();
+          recvUnwrappedBuffer.flip();
+        }
+
         // Read SSL packets until some unwrapped data is produced or no more
         // data is available on the underlying channel.
         while (true)
@@ -233,12 +325,14 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
           {
             // Save the error - see abortOnSSLException().
             sslException = e;
+            handshakeFailed();
             throw e;
           }
           finally
           {
             recvUnwrappedBuffer.flip(); // Restore for read.
           }
+          updateHandshakeStatus(result.getHandshakeStatus());
 
           switch (result.getStatus())
           {
@@ -246,10 +340,11 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
             // The unwrapped buffer is not big enough: resize and repeat.
             final int newAppSize = sslEngine.getSession()
                 .getApplicationBufferSize();
-            final ByteBuffer newRecvUnwrappedBuffer = ByteBuffer
-                .allocate(recvUnwrappedBuffer.limit() + newAppSize);
+            final ByteBuffer newRecvUnwrappedBuffer =
+                acquireBuffer(recvUnwrappedBuffer.limit() + newAppSize);
             newRecvUnwrappedBuffer.put(recvUnwrappedBuffer);
             newRecvUnwrappedBuffer.flip();
+            releaseBuffer(recvUnwrappedBuffer);
             recvUnwrappedBuffer = newRecvUnwrappedBuffer;
             break; // Retry unwrap.
           case BUFFER_UNDERFLOW:
@@ -259,10 +354,10 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
             if (newPktSize > recvWrappedBuffer.capacity())
             {
               // Increase the buffer size.
-              final ByteBuffer newRecvWrappedBuffer = ByteBuffer
-                  .allocate(newPktSize);
+              final ByteBuffer newRecvWrappedBuffer = acquireBuffer(newPktSize);
               newRecvWrappedBuffer.put(recvWrappedBuffer);
               newRecvWrappedBuffer.flip();
+              releaseBuffer(recvWrappedBuffer);
               recvWrappedBuffer = newRecvWrappedBuffer;
             }
             // Read wrapped data from underlying channel.
@@ -301,64 +396,149 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
     /** Attempt to wrap and send the next SSL packet. */
     private int doWrapAndSend(final ByteBuffer unwrappedData)
         throws IOException
+    {
+      return doWrapAndSend(new ByteBuffer[] { unwrappedData }, 0, 1);
+    }
+
+    /** Attempt to wrap and send the next SSL packet. */
+    private int doWrapAndSend(final ByteBuffer[] unwrappedData,
+        final int offset, final int length) throws IOException
     {
       // Synchronize SSL wrap with channel writes.
       synchronized (wrapLock)
       {
-        // Repeat while there is overflow.
-        while (true)
+        // The packet is written before returning, so the buffer is only held
+        // for the duration of this call.
+        ByteBuffer sendWrappedBuffer =
+            acquireBuffer(sslEngine.getSession().getPacketBufferSize());
+        try
         {
-          abortOnSSLException();
-          final SSLEngineResult result;
-          try
-          {
-            result = sslEngine.wrap(unwrappedData, sendWrappedBuffer);
-          }
-          catch (SSLException e)
+          // Repeat while there is overflow.
+          while (true)
           {
-            // Save the error - see abortOnSSLException().
-            sslException = e;
-            throw e;
-          }
+            abortOnSSLException();
+            final SSLEngineResult result;
+            try
+            {
+              result = sslEngine.wrap(unwrappedData, offset, length, sendWrappedBuffer);
+            }
+            catch (SSLException e)
+            {
+              // Save the error - see abortOnSSLException().
+              sslException = e;
+              handshakeFailed();
+              throw e;
+            }
+            updateHandshakeStatus(result.getHandshakeStatus());
 
-          switch (result.getStatus())
-          {
-          case BUFFER_OVERFLOW:
-            // The wrapped buffer is not big enough: resize and repeat.
-            final int newSize = sslEngine.getSession().getPacketBufferSize();
-            final ByteBuffer newSendWrappedBuffer = ByteBuffer
-                .allocate(sendWrappedBuffer.position() + newSize);
-            sendWrappedBuffer.flip();
-            newSendWrappedBuffer.put(sendWrappedBuffer);
-            sendWrappedBuffer = newSendWrappedBuffer;
-            break; // Retry.
-          case BUFFER_UNDERFLOW:
-            // This should not happen for sends.
-            sslException =
-              new SSLException("Got unexpected underflow while wrapping");
-            throw sslException;
-          case CLOSED:
-            throw new ClosedChannelException();
-          default: // OK
-            // Write the SSL packet: our IO stack will block until all the
-            // data is written.
-            sendWrappedBuffer.flip();
-            while (sendWrappedBuffer.hasRemaining())
+            switch (result.getStatus())
             {
-              channel.write(sendWrappedBuffer);
+            case BUFFER_OVERFLOW:
+              // The wrapped buffer is not big enough: resize and repeat.
+              final int newSize = sslEngine.getSession().getPacketBufferSize();
+              final ByteBuffer newSendWrappedBuffer =
+                  acquireBuffer(sendWrappedBuffer.position() + newSize);
+              sendWrappedBuffer.flip();
+              newSendWrappedBuffer.put(sendWrappedBuffer);
+              releaseBuffer(sendWrappedBuffer);
+              sendWrappedBuffer = newSendWrappedBuffer;
+              break; // Retry.
+            case BUFFER_UNDERFLOW:
+              // This should not happen for sends.
+              sslException =
+                new SSLException("Got unexpected underflow while wrapping");
+              throw sslException;
+            case CLOSED:
+              throw new ClosedChannelException();
+            default: // OK
+              // Write the SSL packet: our IO stack will block until all the
+              // data is written.
+              sendWrappedBuffer.flip();
+              while (sendWrappedBuffer.hasRemaining())
+              {
+                channel.write(sendWrappedBuffer);
+              }
+              return sendWrappedBuffer.position();
             }
-            final int written = sendWrappedBuffer.position();
-            sendWrappedBuffer.clear();
-            return written;
           }
         }
+        finally
+        {
+          releaseBuffer(sendWrappedBuffer);
+        }
       }
     }
 
+    private boolean hasRemaining(final ByteBuffer[] buffers, final int offset,
+        final int length)
+    {
+      for (int i = offset; i < offset + length; i++)
+      {
+        if (buffers[i].hasRemaining())
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
     private boolean isHandshaking(final HandshakeStatus status)
     {
       return status != HandshakeStatus.NOT_HANDSHAKING;
     }
+
+    /** Tracks the beginning and the end of the handshakes, for the handshake listener. */
+    private void updateHandshakeStatus(final HandshakeStatus status)
+    {
+      if (handshakeListener == null)
+      {
+        return;
+      }
+      if (status == HandshakeStatus.FINISHED)
+      {
+        final long startTime = handshakeStartTime;
+        if (startTime != 0)
+        {
+          handshakeStartTime = 0;
+          final boolean isResumed = isResumedSession(sslEngine.getSession(), handshakeStartTimeMillis);
+          handshakeListener.handshakeCompleted(System.nanoTime() - startTime, isResumed);
+        }
+      }
+      else if (isHandshaking(status) && handshakeStartTime == 0 && !sslEngine.isOutboundDone())
+      {
+        handshakeStartTimeMillis = System.currentTimeMillis();
+        handshakeStartTime = System.nanoTime();
+      }
+    }
+
+    private void handshakeFailed()
+    {
+      if (handshakeListener != null && handshakeStartTime != 0)
+      {
+        handshakeStartTime = 0;
+        handshakeListener.handshakeFailed();
+      }
+    }
+
+    /**
+     * Returns the receive buffers to the pool once all their data has been
+     * consumed, or unconditionally if the channel is closed.
+     */
+    private void releaseRecvBuffers(final boolean isClosed)
+    {
+      if (isClosed)
+      {
+        recvBuffersClosed = true;
+      }
+      if (recvWrappedBuffer != null
+          && (isClosed || (!recvWrappedBuffer.hasRemaining() && !recvUnwrappedBuffer.hasRemaining())))
+      {
+        releaseBuffer(recvWrappedBuffer);
+        releaseBuffer(recvUnwrappedBuffer);
+        recvWrappedBuffer = null;
+        recvUnwrappedBuffer = null;
+      }
+    }
   }
 
   /**
@@ -398,14 +578,35 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
   private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
   private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
 
+  /** Large enough for the SSL packets and the unwrapped data of the usual SSL sessions. */
+  private static final int POOLED_BUFFER_SIZE = 17 * 1024;
+  /** Bounds the memory retained by the pool once the connections are idle. */
+  private static final int MAX_POOLED_BUFFERS = 512;
+  private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  /** The protocols whose resumed handshakes reuse the session of a previous handshake. */
+  private static final Set<String> RESUMPTION_DETECTING_PROTOCOLS =
+      new HashSet<>(Arrays.asList("SSLv3", "TLSv1", "TLSv1.1", "TLSv1.2"));
+
   private final ByteChannelImpl pimpl = new ByteChannelImpl();
   private final ByteChannel channel;
   private final SSLEngine sslEngine;
+  private final HandshakeListener handshakeListener;
 
   private volatile SSLException sslException;
+  /**
+   * The receive buffers, {@code null} when they do not contain any data. They
+   * are only acquired and released while holding both the read lock and the
+   * unwrap lock, except during a handshake triggered by a write, which needs
+   * to unwrap but does not release them.
+   */
   private ByteBuffer recvWrappedBuffer;
   private ByteBuffer recvUnwrappedBuffer;
-  private ByteBuffer sendWrappedBuffer;
+  /** Whether the receive buffers have been released for good by {@link ByteChannelImpl#close()}. */
+  private boolean recvBuffersClosed;
+  /** The {@link System#nanoTime()} at the beginning of the handshake in progress, 0 if there is none. */
+  private volatile long handshakeStartTime;
+  private volatile long handshakeStartTimeMillis;
 
   private final Object handshakeLock = new Object();
   private final Object unwrapLock = new Object();
@@ -424,22 +625,78 @@ public final class TLSByteChannel implements ConnectionSecurityProvider
    *          The SSL engine to use.
    */
   public TLSByteChannel(final ByteChannel channel, final SSLEngine sslEngine)
+  {
+    this(channel, sslEngine, null);
+  }
+
+  /**
+   * Creates an TLS byte channel instance using the specified socket channel
+   * and SSL engine, notifying the provided listener of the outcome of the
+   * handshakes.
+   *
+   * @param channel
+   *          The underlying channel.
+   * @param sslEngine
+   *          The SSL engine to use.
+   * @param handshakeListener
+   *          The listener notified of the outcome of the handshakes, may be
+   *          {@code null}.
+   */
+  public TLSByteChannel(final ByteChannel channel, final SSLEngine sslEngine,
+      final HandshakeListener handshakeListener)
   {
     this.channel = channel;
     this.sslEngine = sslEngine;
+    this.handshakeListener = handshakeListener;
+  }
 
-    // Allocate read/write buffers.
-    final SSLSession session = sslEngine.getSession();
-    final int wrappedBufferSize = session.getPacketBufferSize();
-    final int unwrappedBufferSize = session.getApplicationBufferSize();
+  /**
+   * Whether a handshake negotiating the provided session resumed a previously
+   * established session.
+   * <p>
+   * Up to TLS 1.2, an abbreviated handshake reuses the session established by
+   * the full handshake, so the session was created before the handshake
+   * started. TLS 1.3 resumes sessions with pre-shared keys: the JDK copies the
+   * ticketed session, or decodes it from a stateless ticket, and no
+   * reliable signal tells whether a handshake used a pre-shared key. TLS 1.3
+   * handshakes are therefore never reported as resumed.
+   *
+   * @param session
+   *          the session negotiated by the handshake
+   * @param handshakeStartTimeMillis
+   *          the time when the handshake started
+   * @return {@code true} if the handshake resumed a previously established
+   *         session
+   */
+  static boolean isResumedSession(final SSLSession session, final long handshakeStartTimeMillis)
+  {
+    return RESUMPTION_DETECTING_PROTOCOLS.contains(session.getProtocol())
+        && session.getCreationTime() < handshakeStartTimeMillis;
+  }
 
-    sendWrappedBuffer = ByteBuffer.allocate(wrappedBufferSize);
-    recvWrappedBuffer = ByteBuffer.allocate(wrappedBufferSize);
-    recvUnwrappedBuffer = ByteBuffer.allocate(unwrappedBufferSize);
+  /** Returns an empty buffer, ready for writing, with at least the requested capacity. */
+  private static ByteBuffer acquireBuffer(final int capacity)
+  {
+    ByteBuffer buffer = null;
+    if (capacity <= POOLED_BUFFER_SIZE)
+    {
+      buffer = BUFFER_POOL.poll();
+    }
+    if (buffer == null)
+    {
+      buffer = ByteBuffer.allocate(Math.max(capacity, POOLED_BUFFER_SIZE));
+    }
+    buffer.clear();
+    return buffer;
+  }
 
-    // Initially nothing has been received.
-    recvWrappedBuffer.flip();
-    recvUnwrappedBuffer.flip();
+  /** Returns a buffer to the pool, unless it has been grown past the pooled size. */
+  private static void releaseBuffer(final ByteBuffer buffer)
+  {
+    if (buffer.capacity() == POOLED_BUFFER_SIZE)
+    {
+      BUFFER_POOL.offer(buffer);
+    }
   }
 
   @Override
@@ -0,0 +1,514 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import static org.opends.messages.LoggerMessages.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.forgerock.i18n.slf4j.LocalizedLogger;
+import org.opends.server.api.DirectoryThread;
+import org.opends.server.api.ServerShutdownListener;
+import org.opends.server.core.DirectoryServer;
+
+/**
+ * A Text Writer which encodes log records on the caller's thread into the slots of a lock-free ring buffer, from which
+ * a single thread writes them to a {@link MultifileTextWriter} in large batches.
+ * <p>
+ * Contrary to the {@link AsynchronousTextWriter}, the records can be provided as any {@link CharSequence}, such as a
+ * {@link StringBuilder} reused by the caller, and they are encoded in UTF-8 into byte arrays owned by the ring buffer:
+ * neither a string nor a queue node is allocated per record. When the ring buffer is full, the record is either dropped
+ * or the caller waits for the writer thread to make room for it.
+ */
+class BatchedTextWriter implements ServerShutdownListener, TextWriter
+{
+  private static final LocalizedLogger logger = LocalizedLogger.getLoggerForThisClass();
+
+  private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(StandardCharsets.UTF_8);
+  private static final int MIN_SLOT_SIZE = 256;
+  /** The slots grown above this size are released once written, so that a few huge records do not pin memory. */
+  private static final int MAX_RETAINED_SLOT_SIZE = 16 * 1024;
+  /** How long the writer thread sleeps when no record is available, unless woken up by a new record. */
+  private static final long IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /** How long the shutdown waits for the records claimed before the stop request to be published. */
+  private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+  /** The value of {@link #claimed} once the writer has been shut down: no record can be claimed any more. */
+  private static final long CLOSED = Long.MIN_VALUE;
+  /** How often the number of dropped records is logged. */
+  private static final long DROPPED_RECORDS_REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  /** The wrapped Text Writer. */
+  private final MultifileTextWriter writer;
+  private final String name;
+  private final boolean dropWhenFull;
+
+  /** The number of slots of the ring buffer, a power of two. */
+  private final int capacity;
+  private final int mask;
+  /** The encoded records, each followed by a line separator. */
+  private final byte[][] slots;
+  private final int[] lengths;
+  /** The sequence number of the record published in each slot, or -1. */
+  private final AtomicLongArray published;
+  /** The sequence number of the next record to claim, or {@link #CLOSED}. */
+  private final AtomicLong claimed = new AtomicLong();
+  /** The sequence number of the next record to write. Only updated by the writer thread. */
+  private volatile long consumed;
+
+  /** The buffer in which the records are batched before being written. Only used by the writer thread. */
+  private final ByteBuffer batch;
+  private final WriterThread writerThread;
+  private volatile boolean writerWaiting;
+  private volatile boolean stopRequested;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+  /** The number of records dropped because the ring buffer was full. */
+  private final AtomicLong droppedCount = new AtomicLong();
+  /** The number of records dropped because they were written while the writer was shutting down. */
+  private final AtomicLong shutdownDroppedCount = new AtomicLong();
+  private final AtomicLong fullQueueWaitCount = new AtomicLong();
+  private long reportedDroppedCount;
+  private long lastDroppedRecordsReportTime = System.nanoTime();
+
+  /**
+   * Construct a new BatchedTextWriter wrapper.
+   *
+   * @param name          the name of the thread.
+   * @param queueSize     the minimum number of records the ring buffer can hold.
+   * @param batchSize     the size in bytes of the batches written to the wrapped writer.
+   * @param dropWhenFull  whether records are dropped, rather than waiting, when the ring buffer is full.
+   * @param writer        the writer of the log files.
+   */
+  BatchedTextWriter(String name, int queueSize, int batchSize, boolean dropWhenFull, MultifileTextWriter writer)
+  {
+    this.name = name;
+    this.dropWhenFull = dropWhenFull;
+    this.writer = writer;
+
+    this.capacity = queueSize <= 1 ? 1 : Integer.highestOneBit(queueSize - 1) << 1;
+    this.mask = capacity - 1;
+    this.slots = new byte[capacity][];
+    this.lengths = new int[capacity];
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++)
+    {
+      published.set(i, -1);
+    }
+    this.batch = ByteBuffer.allocateDirect(Math.max(batchSize, MIN_SLOT_SIZE));
+
+    writerThread = new WriterThread();
+    writerThread.start();
+
+    DirectoryServer.registerShutdownListener(this);
+  }
+
+  /** The writer thread is responsible for writing the records published in the ring buffer. */
+  private class WriterThread extends DirectoryThread
+  {
+    public WriterThread()
+    {
+      super(name);
+    }
+
+    @Override
+    public void run()
+    {
+      while (!stopRequested)
+      {
+        if (!writeAvailableRecords())
+        {
+          writerWaiting = true;
+          // Check again once the flag is visible, so that a record published meanwhile is not left waiting
+          if (!isRecordAvailable() && !stopRequested)
+          {
+            LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+          }
+          writerWaiting = false;
+        }
+        reportDroppedRecords(false);
+      }
+    }
+  }
+
+  @Override
+  public void writeRecord(String record)
+  {
+    writeRecord((CharSequence) record);
+  }
+
+  /**
+   * Encodes the log record into the ring buffer, from which it will be written asynchronously.
+   *
+   * @param record the log record to write, which can be reused once this method returns.
+   */
+  public void writeRecord(CharSequence record)
+  {
+    final long sequence = claim();
+    if (sequence < 0)
+    {
+      return;
+    }
+    final int index = (int) sequence & mask;
+    lengths[index] = encode(record, index);
+    published.lazySet(index, sequence);
+    if (writerWaiting)
+    {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  /** Returns the sequence number of the claimed slot, or -1 if the record must be dropped. */
+  private long claim()
+  {
+    boolean waited = false;
+    for (int attempts = 0;; attempts++)
+    {
+      if (stopRequested)
+      {
+        shutdownDroppedCount.incrementAndGet();
+        return -1;
+      }
+      final long sequence = claimed.get();
+      if (sequence == CLOSED)
+      {
+        shutdownDroppedCount.incrementAndGet();
+        return -1;
+      }
+      if (sequence - consumed < capacity)
+      {
+        if (claimed.compareAndSet(sequence, sequence + 1))
+        {
+          return sequence;
+        }
+      }
+      else if (dropWhenFull)
+      {
+        droppedCount.incrementAndGet();
+        return -1;
+      }
+      else
+      {
+        if (!waited)
+        {
+          fullQueueWaitCount.incrementAndGet();
+          waited = true;
+        }
+        LockSupport.unpark(writerThread);
+        if (attempts < 100)
+        {
+          Thread.yield();
+        }
+        else
+        {
+          LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+      }
+    }
+  }
+
+  /** Encodes the record in UTF-8 into the provided slot, and returns the encoded length. */
+  private int encode(CharSequence record, int index)
+  {
+    final int length = record.length();
+    // 3 bytes per char is the worst case: surrogate pairs are encoded with 4 bytes
+    final int maxSize = length * 3 + LINE_SEPARATOR.length;
+    byte[] bytes = slots[index];
+    if (bytes == null || bytes.length < maxSize)
+    {
+      bytes = new byte[Math.max(Integer.highestOneBit(maxSize) << 1, MIN_SLOT_SIZE)];
+      slots[index] = bytes;
+    }
+
+    int pos = 0;
+    for (int i = 0; i < length; i++)
+    {
+      final char c = record.charAt(i);
+      if (c < 0x80)
+      {
+        bytes[pos++] = (byte) c;
+      }
+      else if (c < 0x800)
+      {
+        bytes[pos++] = (byte) (0xC0 | c >> 6);
+        bytes[pos++] = (byte) (0x80 | c & 0x3F);
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(record.charAt(i + 1)))
+      {
+        final int codePoint = Character.toCodePoint(c, record.charAt(++i));
+        bytes[pos++] = (byte) (0xF0 | codePoint >> 18);
+        bytes[pos++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        bytes[pos++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        bytes[pos++] = (byte) (0x80 | codePoint & 0x3F);
+      }
+      else if (Character.isSurrogate(c))
+      {
+        // Malformed surrogate pair, replaced like the JDK encoders do
+        bytes[pos++] = '?';
+      }
+      else
+      {
+        bytes[pos++] = (byte) (0xE0 | c >> 12);
+        bytes[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+        bytes[pos++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    System.arraycopy(LINE_SEPARATOR, 0, bytes, pos, LINE_SEPARATOR.length);
+    return pos + LINE_SEPARATOR.length;
+  }
+
+  private boolean isRecordAvailable()
+  {
+    final long sequence = consumed;
+    return published.get((int) sequence & mask) == sequence;
+  }
+
+  /**
+   * Writes the records published in the ring buffer in batches, until a slot is not published yet.
+   *
+   * @return {@code true} if at least one record was written
+   */
+  private boolean writeAvailableRecords()
+  {
+    long sequence = consumed;
+    int index = (int) sequence & mask;
+    if (published.get(index) != sequence)
+    {
+      return false;
+    }
+
+    final long first = sequence;
+    do
+    {
+      final byte[] bytes = slots[index];
+      final int length = lengths[index];
+      if (length > batch.remaining())
+      {
+        writeBatch();
+      }
+      if (length > batch.capacity())
+      {
+        writer.writeRecords(ByteBuffer.wrap(bytes, 0, length));
+      }
+      else
+      {
+        batch.put(bytes, 0, length);
+      }
+      if (bytes.length > MAX_RETAINED_SLOT_SIZE)
+      {
+        slots[index] = null;
+      }
+      sequence++;
+      // Frees the slot for the producers
+      consumed = sequence;
+      index = (int) sequence & mask;
+    }
+    while (published.get(index) == sequence);
+
+    writeBatch();
+    writtenCount.addAndGet(sequence - first);
+    return true;
+  }
+
+  private void writeBatch()
+  {
+    batch.flip();
+    if (batch.hasRemaining())
+    {
+      writer.writeRecords(batch);
+    }
+    batch.clear();
+  }
+
+  private void reportDroppedRecords(boolean force)
+  {
+    final long now = System.nanoTime();
+    if (force || now - lastDroppedRecordsReportTime >= DROPPED_RECORDS_REPORT_INTERVAL_NANOS)
+    {
+      final long dropped = droppedCount.get();
+      if (dropped > reportedDroppedCount)
+      {
+        logger.warn(WARN_LOGGER_RECORDS_DROPPED.get(dropped - reportedDroppedCount, name));
+        reportedDroppedCount = dropped;
+      }
+      lastDroppedRecordsReportTime = now;
+    }
+  }
+
+  @Override
+  public void flush()
+  {
+    writer.flush();
+  }
+
+  @Override
+  public long getBytesWritten()
+  {
+    return writer.getBytesWritten();
+  }
+
+  /**
+   * Retrieves the wrapped writer.
+   *
+   * @return The wrapped writer used by this batched writer.
+   */
+  public MultifileTextWriter getWrappedWriter()
+  {
+    return writer;
+  }
+
+  /**
+   * Returns the number of records the ring buffer can hold.
+   *
+   * @return the number of records the ring buffer can hold.
+   */
+  public int getQueueSize()
+  {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of records waiting in the ring buffer.
+   *
+   * @return the number of records waiting in the ring buffer.
+   */
+  public long getQueuedRecordCount()
+  {
+    final long sequence = claimed.get();
+    return sequence != CLOSED ? Math.max(sequence - consumed, 0) : 0;
+  }
+
+  /**
+   * Returns the number of records written to the log files.
+   *
+   * @return the number of records written to the log files.
+   */
+  public long getWrittenRecordCount()
+  {
+    return writtenCount.get();
+  }
+
+  /**
+   * Returns the number of records dropped because the ring buffer was full or the writer was stopped.
+   *
+   * @return the number of dropped records.
+   */
+  public long getDroppedRecordCount()
+  {
+    return droppedCount.get() + shutdownDroppedCount.get();
+  }
+
+  /**
+   * Returns the number of records whose writer had to wait because the ring buffer was full.
+   *
+   * @return the number of records whose writer had to wait because the ring buffer was full.
+   */
+  public long getFullQueueWaitCount()
+  {
+    return fullQueueWaitCount.get();
+  }
+
+  @Override
+  public String getShutdownListenerName()
+  {
+    return "BatchedTextWriter Thread " + name;
+  }
+
+  @Override
+  public void processServerShutdown(LocalizableMessage reason)
+  {
+    // Don't shutdown the wrapped writer on server shutdown as it
+    // might get more write requests before the log publishers are
+    // manually shutdown just before the server process exists.
+    shutdown(false);
+  }
+
+  @Override
+  public void shutdown()
+  {
+    shutdown(true);
+  }
+
+  /**
+   * Writes the records claimed before the writer was closed, waiting for their producers to publish them. The records
+   * which are still not published once the timeout expires are counted as dropped.
+   */
+  private void drainClaimedRecords(long lastClaimed)
+  {
+    final long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+    while (consumed < lastClaimed)
+    {
+      if (!writeAvailableRecords())
+      {
+        if (System.nanoTime() - deadline >= 0)
+        {
+          shutdownDroppedCount.addAndGet(lastClaimed - consumed);
+          return;
+        }
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Releases any resources held by the writer.
+   *
+   * @param shutdownWrapped If the wrapped writer should be closed as well.
+   */
+  public void shutdown(boolean shutdownWrapped)
+  {
+    stopRequested = true;
+
+    // Wait for the writer thread to terminate
+    while (writerThread.isAlive())
+    {
+      try
+      {
+        LockSupport.unpark(writerThread);
+        writerThread.join();
+      }
+      catch (InterruptedException ex)
+      {
+        // Ignore; we gotta wait..
+      }
+    }
+
+    // Write the records claimed before the stop request
+    final long lastClaimed = claimed.getAndSet(CLOSED);
+    if (lastClaimed != CLOSED)
+    {
+      drainClaimedRecords(lastClaimed);
+      reportDroppedRecords(true);
+      final long shutdownDropped = shutdownDroppedCount.get();
+      if (shutdownDropped > 0)
+      {
+        logger.warn(WARN_LOGGER_RECORDS_DROPPED_ON_SHUTDOWN.get(shutdownDropped, name));
+      }
+    }
+
+    if (shutdownWrapped)
+    {
+      writer.shutdown();
+    }
+
+    DirectoryServer.deregisterShutdownListener(this);
+  }
+}
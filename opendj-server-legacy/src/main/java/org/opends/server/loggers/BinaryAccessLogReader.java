@@ -0,0 +1,235 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import static org.opends.messages.LoggerMessages.*;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteSequenceReader;
+import org.forgerock.opendj.ldap.ByteString;
+
+/**
+ * Reads the log records of a binary access log, written by a binary file based access log publisher.
+ * <p>
+ * A binary access log is a sequence of frames, each of them prefixed by its BER encoded length and starting with its
+ * type:
+ * <ul>
+ * <li>a session frame starts the log, and clears the dictionary. It holds the format version and the time from which
+ * the time of the next record is computed;</li>
+ * <li>a definition frame adds an entry to the dictionary, with its identifier and its UTF-8 value;</li>
+ * <li>a record frame holds a log record: the difference between its time and the time of the previous record, the
+ * dictionary entry of its header, then its items. Each item is made of the dictionary entry of its label, followed by
+ * its value, either as a UTF-8 string, a number, a dictionary entry, or a dictionary entry and a port for the client
+ * and server addresses.</li>
+ * </ul>
+ * The numbers are compact encoded, and frames of unknown types are skipped so that the format can be extended.
+ */
+public final class BinaryAccessLogReader implements Closeable
+{
+  /** The frame starting a session of the log, which clears the dictionary. */
+  static final byte SESSION_FRAME = 0;
+  /** The frame defining a dictionary entry. */
+  static final byte DEFINITION_FRAME = 1;
+  /** The frame holding a log record. */
+  static final byte RECORD_FRAME = 2;
+
+  /** A value written as a UTF-8 string. */
+  static final byte LITERAL_VALUE = 0;
+  /** A value written as a UTF-8 string, and enclosed in quotes in the text log. */
+  static final byte QUOTED_LITERAL_VALUE = 1;
+  /** A positive decimal number. */
+  static final byte NUMBER_VALUE = 2;
+  /** A value written as a dictionary entry. */
+  static final byte REFERENCE_VALUE = 3;
+  /** A value written as a dictionary entry, and enclosed in quotes in the text log. */
+  static final byte QUOTED_REFERENCE_VALUE = 4;
+  /** A "host:port" value, whose host is written as a dictionary entry. */
+  static final byte ADDRESS_VALUE = 5;
+
+  /** The version of the format, written in the session frames. */
+  static final int FORMAT_VERSION = 1;
+
+  private final DataInputStream in;
+  private final List<String> dictionary = new ArrayList<>();
+  private boolean sessionStarted;
+  private long lastTime;
+
+  /**
+   * Creates a reader of a binary access log.
+   *
+   * @param in
+   *          the stream from which the binary access log is read
+   */
+  public BinaryAccessLogReader(InputStream in)
+  {
+    this.in = new DataInputStream(new BufferedInputStream(in));
+  }
+
+  /**
+   * Reads the next log record.
+   *
+   * @return the next log record, or {@code null} if the end of the log has been reached
+   * @throws IOException
+   *           if the log could not be read or is not a valid binary access log
+   */
+  public BinaryAccessLogRecord readRecord() throws IOException
+  {
+    byte[] frame;
+    while ((frame = readFrame()) != null)
+    {
+      if (frame.length == 0)
+      {
+        continue;
+      }
+      final ByteSequenceReader reader = ByteString.wrap(frame).asReader();
+      final byte type = reader.readByte();
+      if (type == SESSION_FRAME)
+      {
+        final int version = reader.readCompactUnsignedInt();
+        if (version > FORMAT_VERSION)
+        {
+          throw new IOException(ERR_BINARY_ACCESS_LOG_UNSUPPORTED_VERSION.get(version).toString());
+        }
+        lastTime = reader.readCompactUnsignedLong();
+        dictionary.clear();
+        sessionStarted = true;
+      }
+      else if (!sessionStarted)
+      {
+        throw new IOException(ERR_BINARY_ACCESS_LOG_NO_SESSION.get().toString());
+      }
+      else if (type == DEFINITION_FRAME)
+      {
+        final int id = reader.readCompactUnsignedInt();
+        final String value = reader.readStringUtf8(reader.remaining());
+        while (dictionary.size() <= id)
+        {
+          dictionary.add(null);
+        }
+        dictionary.set(id, value);
+      }
+      else if (type == RECORD_FRAME)
+      {
+        return readRecord(reader);
+      }
+      // Frames of other types were added by later versions of the format, and are skipped
+    }
+    return null;
+  }
+
+  private BinaryAccessLogRecord readRecord(ByteSequenceReader reader) throws IOException
+  {
+    final long time = lastTime + decodeZigZag(reader.readCompactUnsignedLong());
+    lastTime = time;
+    final String header = getEntry(reader.readCompactUnsignedInt());
+    final List<String> labels = new ArrayList<>();
+    final List<String> rawValues = new ArrayList<>();
+    while (reader.remaining() > 0)
+    {
+      labels.add(getEntry(reader.readCompactUnsignedInt()));
+      final byte valueType = reader.readByte();
+      switch (valueType)
+      {
+      case LITERAL_VALUE:
+        rawValues.add(reader.readStringUtf8(reader.readCompactUnsignedInt()));
+        break;
+      case QUOTED_LITERAL_VALUE:
+        rawValues.add('"' + reader.readStringUtf8(reader.readCompactUnsignedInt()) + '"');
+        break;
+      case NUMBER_VALUE:
+        rawValues.add(Long.toString(reader.readCompactUnsignedLong()));
+        break;
+      case REFERENCE_VALUE:
+        rawValues.add(getEntry(reader.readCompactUnsignedInt()));
+        break;
+      case QUOTED_REFERENCE_VALUE:
+        rawValues.add('"' + getEntry(reader.readCompactUnsignedInt()) + '"');
+        break;
+      case ADDRESS_VALUE:
+        final String host = getEntry(reader.readCompactUnsignedInt());
+        rawValues.add(host + ':' + reader.readCompactUnsignedLong());
+        break;
+      default:
+        throw new IOException(ERR_BINARY_ACCESS_LOG_INVALID_VALUE_TYPE.get(valueType).toString());
+      }
+    }
+    return new BinaryAccessLogRecord(time, header, labels, rawValues);
+  }
+
+  private String getEntry(int id) throws IOException
+  {
+    final String entry = id < dictionary.size() ? dictionary.get(id) : null;
+    if (entry == null)
+    {
+      throw new IOException(ERR_BINARY_ACCESS_LOG_UNDEFINED_REFERENCE.get(id).toString());
+    }
+    return entry;
+  }
+
+  /** Returns the content of the next frame, or {@code null} if the end of the log has been reached. */
+  private byte[] readFrame() throws IOException
+  {
+    final int first = in.read();
+    if (first == -1)
+    {
+      return null;
+    }
+    try
+    {
+      int length = first;
+      if ((first & 0x80) != 0)
+      {
+        length = 0;
+        for (int i = first & 0x7F; i > 0; i--)
+        {
+          length = (length << 8) | in.readUnsignedByte();
+        }
+      }
+      final byte[] frame = new byte[length];
+      in.readFully(frame);
+      return frame;
+    }
+    catch (EOFException e)
+    {
+      // The server may have stopped while writing the last frame
+      throw new EOFException(ERR_BINARY_ACCESS_LOG_TRUNCATED.get().toString());
+    }
+  }
+
+  static long encodeZigZag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long decodeZigZag(long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    in.close();
+  }
+}
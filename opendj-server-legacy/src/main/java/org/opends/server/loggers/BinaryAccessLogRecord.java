@@ -0,0 +1,148 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A log record read from a binary access log by a {@link BinaryAccessLogReader}.
+ * <p>
+ * A record is made of a header, such as "SEARCH RES" or "CONNECT", followed by a list of items, such as
+ * {@code conn=12} or {@code dn="uid=user.0,dc=example,dc=com"}. The values are kept exactly as they appear in the
+ * text access log, including their quotes.
+ */
+public final class BinaryAccessLogRecord
+{
+  private final long time;
+  private final String header;
+  private final List<String> labels;
+  private final List<String> rawValues;
+
+  BinaryAccessLogRecord(long time, String header, List<String> labels, List<String> rawValues)
+  {
+    this.time = time;
+    this.header = header;
+    this.labels = labels;
+    this.rawValues = rawValues;
+  }
+
+  /**
+   * Returns the time at which the record was logged.
+   *
+   * @return the time at which the record was logged, in milliseconds since the epoch
+   */
+  public long getTime()
+  {
+    return time;
+  }
+
+  /**
+   * Returns the type of the record, such as "SEARCH" or "CONNECT".
+   *
+   * @return the type of the record
+   */
+  public String getType()
+  {
+    final int space = header.indexOf(' ');
+    return space != -1 ? header.substring(0, space) : header;
+  }
+
+  /**
+   * Returns the category of the record, "REQ" or "RES", if the operations were not logged in combined mode.
+   *
+   * @return the category of the record, or {@code null} if it has none
+   */
+  public String getCategory()
+  {
+    final int space = header.indexOf(' ');
+    return space != -1 ? header.substring(space + 1) : null;
+  }
+
+  /**
+   * Returns the labels of the items of the record, in order.
+   *
+   * @return the labels of the items of the record
+   */
+  public List<String> getLabels()
+  {
+    return Collections.unmodifiableList(labels);
+  }
+
+  /**
+   * Returns the values of the items of the record, in order, as they appear in the text access log.
+   *
+   * @return the values of the items of the record, including their quotes
+   */
+  public List<String> getRawValues()
+  {
+    return Collections.unmodifiableList(rawValues);
+  }
+
+  /**
+   * Returns the value of the first item of the record with the provided label, without its quotes.
+   *
+   * @param label
+   *          the label of the item, such as "dn" or "etime"
+   * @return the value of the item, or {@code null} if the record has no such item
+   */
+  public String getValue(String label)
+  {
+    final int index = labels.indexOf(label);
+    if (index == -1)
+    {
+      return null;
+    }
+    final String value = rawValues.get(index);
+    if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+    {
+      return value.substring(1, value.length() - 1);
+    }
+    return value;
+  }
+
+  /**
+   * Appends the record, as it would have been written by a file based access log publisher, to the provided buffer.
+   *
+   * @param buffer
+   *          the buffer to which the record is appended
+   * @param timeFormat
+   *          the format of the timestamp of the record
+   */
+  public void toString(StringBuilder buffer, DateFormat timeFormat)
+  {
+    buffer.append('[').append(timeFormat.format(new Date(time))).append("] ");
+    buffer.append(header);
+    for (int i = 0; i < labels.size(); i++)
+    {
+      buffer.append(' ').append(labels.get(i)).append('=').append(rawValues.get(i));
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    final StringBuilder buffer = new StringBuilder();
+    buffer.append('[').append(time).append("] ").append(header);
+    for (int i = 0; i < labels.size(); i++)
+    {
+      buffer.append(' ').append(labels.get(i)).append('=').append(rawValues.get(i));
+    }
+    return buffer.toString();
+  }
+}
@@ -0,0 +1,387 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import static org.opends.server.loggers.BinaryAccessLogReader.*;
+import static org.opends.server.util.CollectionUtils.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.util.TimeThread;
+
+/**
+ * A Text Writer which encodes the access log records formatted by the {@link TextAccessLogPublisher} into the binary
+ * format read by the {@link BinaryAccessLogReader}, and writes them to a {@link MultifileTextWriter} in blocks.
+ * <p>
+ * Each record is split into its header, such as "SEARCH RES", and its "label=value" items. The header, the labels,
+ * and the values of the items holding DNs, filters, client addresses and other frequently repeated values are written
+ * as references to a dictionary whose entries are defined in the log the first time they are used. When a block is
+ * written to a new log file, because the previous one was rotated, it is preceded by the definitions of the entries
+ * it refers to, so that each log file can be read on its own.
+ */
+class BinaryAccessLogWriter implements TextWriter
+{
+  /** The labels of the items whose values are written as dictionary references. */
+  private static final Set<String> DICTIONARY_LABELS = newHashSet("dn", "base", "filter", "attrs", "authDN",
+      "authzDN", "newSuperior", "oid", "name", "scope", "type", "version", "mechanism", "reason", "protocol",
+      "requestControls", "responseControls");
+  /** The labels of the items whose "host:port" values are written as a dictionary reference and a port. */
+  private static final Set<String> ADDRESS_LABELS = newHashSet("from", "to");
+  /** The values longer than this are always written as strings. */
+  private static final int MAX_DICTIONARY_VALUE_LENGTH = 512;
+  /** Once the dictionary holds this number of entries, it is cleared before the next block. */
+  private static final int MAX_DICTIONARY_SIZE = 64 * 1024;
+  /** The block buffers grown above this capacity are released once written. */
+  private static final int MAX_RETAINED_BLOCK_CAPACITY = 1024 * 1024;
+
+  /** The wrapped Text Writer. */
+  private final MultifileTextWriter writer;
+  private int blockSize;
+  private boolean autoFlush;
+
+  private final Map<String, Integer> dictionary = new HashMap<>();
+  private final List<String> entries = new ArrayList<>();
+  /** The number of dictionary entries defined before the current block. */
+  private int blockStartEntryCount;
+  /** The time of the last record written before the current block. */
+  private long blockStartTime;
+  private long lastTime;
+  /** The number of files rotated by the wrapped writer when the last block was written, -1 before the first block. */
+  private long filesRotated = -1;
+
+  private final ByteStringBuilder block;
+  private final ByteStringBuilder frame = new ByteStringBuilder();
+  private final ByteStringBuilder definition = new ByteStringBuilder();
+
+  /**
+   * Creates a new binary access log writer.
+   *
+   * @param blockSize  the size in bytes of the blocks written to the wrapped writer.
+   * @param autoFlush  whether each record must be written to the log file immediately.
+   * @param writer     the writer of the log files.
+   */
+  BinaryAccessLogWriter(int blockSize, boolean autoFlush, MultifileTextWriter writer)
+  {
+    this.writer = writer;
+    configure(blockSize, autoFlush);
+    this.block = new ByteStringBuilder(this.blockSize);
+  }
+
+  /**
+   * Changes how the blocks are written.
+   *
+   * @param blockSize  the size in bytes of the blocks written to the wrapped writer.
+   * @param autoFlush  whether each record must be written to the log file immediately.
+   */
+  synchronized void configure(int blockSize, boolean autoFlush)
+  {
+    this.blockSize = Math.max(blockSize, 1024);
+    this.autoFlush = autoFlush;
+  }
+
+  @Override
+  public void writeRecord(String record)
+  {
+    writeRecord((CharSequence) record);
+  }
+
+  /**
+   * Encodes a log record formatted by the {@link TextAccessLogPublisher} in binary mode, which starts with its
+   * timestamp in milliseconds between square brackets.
+   *
+   * @param record the log record to write, which can be reused once this method returns.
+   */
+  public synchronized void writeRecord(CharSequence record)
+  {
+    if (block.isEmpty())
+    {
+      startBlock();
+    }
+
+    final int length = record.length();
+    long time = TimeThread.getTime();
+    int pos = 0;
+    final int timeEnd = indexOf(record, ']', 1);
+    if (record.length() > 0 && record.charAt(0) == '[' && timeEnd != -1 && isNumber(record, 1, timeEnd))
+    {
+      time = parseNumber(record, 1, timeEnd);
+      pos = timeEnd + 1;
+      if (pos < length && record.charAt(pos) == ' ')
+      {
+        pos++;
+      }
+    }
+
+    frame.clear();
+    frame.appendByte(RECORD_FRAME);
+    frame.appendCompactUnsigned(encodeZigZag(time - lastTime));
+    lastTime = time;
+
+    int itemStart = nextItem(record, pos);
+    appendReference(record.subSequence(pos, itemStart).toString());
+    while (itemStart < length)
+    {
+      final int labelEnd = indexOf(record, '=', itemStart + 1);
+      final int valueEnd = nextItem(record, labelEnd + 1);
+      final String label = record.subSequence(itemStart + 1, labelEnd).toString();
+      appendReference(label);
+      appendValue(label, record, labelEnd + 1, valueEnd);
+      itemStart = valueEnd;
+    }
+    appendFrame(block, frame);
+
+    if (autoFlush || block.length() >= blockSize)
+    {
+      writeBlock();
+    }
+  }
+
+  private void startBlock()
+  {
+    if (entries.size() >= MAX_DICTIONARY_SIZE)
+    {
+      dictionary.clear();
+      entries.clear();
+      appendSession(block, lastTime);
+    }
+    blockStartEntryCount = entries.size();
+    blockStartTime = lastTime;
+  }
+
+  /**
+   * Returns the position of the space starting the next "label=value" item, or the length of the record if there is
+   * none. The value of the current item can contain spaces, but a quoted value must end with a quote.
+   */
+  private static int nextItem(CharSequence record, int valueStart)
+  {
+    final int length = record.length();
+    final boolean quoted = valueStart < length && record.charAt(valueStart) == '"';
+    for (int i = valueStart; i < length; i++)
+    {
+      if (record.charAt(i) == ' '
+          && (!quoted || (i - 1 > valueStart && record.charAt(i - 1) == '"'))
+          && isLabel(record, i + 1))
+      {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  /** Returns whether a label, followed by an equal sign, starts at the provided position. */
+  private static boolean isLabel(CharSequence record, int start)
+  {
+    for (int i = start; i < record.length(); i++)
+    {
+      final char c = record.charAt(i);
+      if (c == '=')
+      {
+        return i > start;
+      }
+      if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '.')
+      {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private void appendValue(String label, CharSequence record, int start, int end)
+  {
+    if (isNumber(record, start, end))
+    {
+      frame.appendByte(NUMBER_VALUE);
+      frame.appendCompactUnsigned(parseNumber(record, start, end));
+      return;
+    }
+
+    final boolean quoted = end - start >= 2 && record.charAt(start) == '"' && record.charAt(end - 1) == '"';
+    final String value = quoted ? record.subSequence(start + 1, end - 1).toString()
+                                : record.subSequence(start, end).toString();
+    if (!quoted && ADDRESS_LABELS.contains(label))
+    {
+      final int colon = value.lastIndexOf(':');
+      if (colon > 0 && isNumber(value, colon + 1, value.length()))
+      {
+        frame.appendByte(ADDRESS_VALUE);
+        appendReference(value.substring(0, colon));
+        frame.appendCompactUnsigned(parseNumber(value, colon + 1, value.length()));
+        return;
+      }
+    }
+
+    if (value.length() <= MAX_DICTIONARY_VALUE_LENGTH && DICTIONARY_LABELS.contains(label))
+    {
+      frame.appendByte(quoted ? QUOTED_REFERENCE_VALUE : REFERENCE_VALUE);
+      appendReference(value);
+    }
+    else
+    {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      frame.appendByte(quoted ? QUOTED_LITERAL_VALUE : LITERAL_VALUE);
+      frame.appendCompactUnsigned(bytes.length);
+      frame.appendBytes(bytes);
+    }
+  }
+
+  /** Appends the reference to a dictionary entry to the current frame, defining the entry first if needed. */
+  private void appendReference(String value)
+  {
+    Integer id = dictionary.get(value);
+    if (id == null)
+    {
+      id = entries.size();
+      dictionary.put(value, id);
+      entries.add(value);
+      appendDefinition(block, id, value);
+    }
+    frame.appendCompactUnsigned(id);
+  }
+
+  private void appendDefinition(ByteStringBuilder buffer, int id, String value)
+  {
+    definition.clear();
+    definition.appendByte(DEFINITION_FRAME);
+    definition.appendCompactUnsigned(id);
+    definition.appendUtf8(value);
+    appendFrame(buffer, definition);
+  }
+
+  private void appendSession(ByteStringBuilder buffer, long time)
+  {
+    definition.clear();
+    definition.appendByte(SESSION_FRAME);
+    definition.appendCompactUnsigned(FORMAT_VERSION);
+    definition.appendCompactUnsigned(time);
+    appendFrame(buffer, definition);
+  }
+
+  private static void appendFrame(ByteStringBuilder buffer, ByteStringBuilder content)
+  {
+    buffer.appendBERLength(content.length());
+    buffer.appendBytes(content);
+  }
+
+  /** Writes the current block, preceded by the definitions of the entries it refers to if the file was rotated. */
+  private void writeBlock()
+  {
+    synchronized (writer)
+    {
+      writer.rotateIfSizeLimitReached(block.length());
+      if (writer.getTotalFilesRotated() != filesRotated)
+      {
+        final ByteStringBuilder header = new ByteStringBuilder(block.length() + blockStartEntryCount * 32);
+        appendSession(header, blockStartTime);
+        for (int id = 0; id < blockStartEntryCount; id++)
+        {
+          appendDefinition(header, id, entries.get(id));
+        }
+        header.appendBytes(block);
+        writer.writeRecords(ByteBuffer.wrap(header.getBackingArray(), 0, header.length()));
+        filesRotated = writer.getTotalFilesRotated();
+      }
+      else
+      {
+        writer.writeRecords(ByteBuffer.wrap(block.getBackingArray(), 0, block.length()));
+      }
+    }
+    block.clearAndTruncate(Math.max(MAX_RETAINED_BLOCK_CAPACITY, blockSize), blockSize);
+  }
+
+  /**
+   * Returns whether the characters are a positive decimal number which is written back identically, and small
+   * enough to be compact encoded.
+   */
+  private static boolean isNumber(CharSequence s, int start, int end)
+  {
+    final int length = end - start;
+    if (length <= 0 || length > 16 || (length > 1 && s.charAt(start) == '0'))
+    {
+      return false;
+    }
+    for (int i = start; i < end; i++)
+    {
+      final char c = s.charAt(i);
+      if (c < '0' || c > '9')
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long parseNumber(CharSequence s, int start, int end)
+  {
+    long value = 0;
+    for (int i = start; i < end; i++)
+    {
+      value = value * 10 + (s.charAt(i) - '0');
+    }
+    return value;
+  }
+
+  private static int indexOf(CharSequence s, char c, int from)
+  {
+    for (int i = from; i < s.length(); i++)
+    {
+      if (s.charAt(i) == c)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public synchronized void flush()
+  {
+    if (!block.isEmpty())
+    {
+      writeBlock();
+    }
+    writer.flush();
+  }
+
+  @Override
+  public long getBytesWritten()
+  {
+    return writer.getBytesWritten();
+  }
+
+  /**
+   * Retrieves the wrapped writer.
+   *
+   * @return The wrapped writer used by this binary writer.
+   */
+  public MultifileTextWriter getWrappedWriter()
+  {
+    return writer;
+  }
+
+  @Override
+  public void shutdown()
+  {
+    flush();
+    writer.shutdown();
+  }
+}
@@ -25,6 +25,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Calendar;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -87,6 +89,8 @@ class MultifileTextWriter
   private MeteredStream outputStream;
   /** The underlying buffered writer using the output stream. */
   private BufferedWriter writer;
+  /** The channel of the underlying file, used to write already encoded records. */
+  private FileChannel channel;
 
   /**
    * Creates a new instance of MultiFileTextWriter with the supplied policies.
@@ -166,6 +170,7 @@ class MultifileTextWriter
 
     FileOutputStream stream = new FileOutputStream(file, append);
     outputStream = new MeteredStream(stream, file.length());
+    channel = stream.getChannel();
 
     OutputStreamWriter osw = new OutputStreamWriter(outputStream, encoding);
     if(bufferSize <= 0)
@@ -562,6 +567,53 @@ class MultifileTextWriter
     }
   }
 
+  /**
+   * Writes a batch of log records, already encoded in UTF-8 and each followed
+   * by a line separator, to the file. The records are written directly to the
+   * file channel, without being buffered.
+   *
+   * @param records the encoded log records to write.
+   */
+  void writeRecords(ByteBuffer records)
+  {
+    final int size = records.remaining();
+    synchronized(this)
+    {
+      rotateIfSizeLimitReached(size);
+
+      try
+      {
+        // Records written as strings must reach the file first
+        writer.flush();
+        while (records.hasRemaining())
+        {
+          channel.write(records);
+        }
+        outputStream.written += size;
+      }
+      catch(Exception e)
+      {
+        errorHandler.handleWriteError(size + " bytes of log records", e);
+      }
+    }
+  }
+
+  /**
+   * Rotates the log file if writing the provided number of bytes to it would
+   * reach the size limit. An empty log file is not rotated, so that a record
+   * larger than the size limit does not cause two rotations in a row.
+   *
+   * @param size the number of bytes about to be written.
+   */
+  synchronized void rotateIfSizeLimitReached(long size)
+  {
+    if(sizeLimit > 0 && outputStream.written > 0
+        && outputStream.written + size >= sizeLimit)
+    {
+      rotate();
+    }
+  }
+
   @Override
   public void flush()
   {
@@ -35,10 +35,16 @@ import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.util.Utils;
 import org.forgerock.opendj.config.server.ConfigurationChangeListener;
+import org.forgerock.opendj.server.config.meta.BatchedFileBasedAccessLogPublisherCfgDefn.QueueFullPolicy;
 import org.forgerock.opendj.server.config.meta.FileBasedAccessLogPublisherCfgDefn.LogFormat;
+import org.forgerock.opendj.server.config.server.BatchedFileBasedAccessLogPublisherCfg;
+import org.forgerock.opendj.server.config.server.BinaryFileBasedAccessLogPublisherCfg;
 import org.forgerock.opendj.server.config.server.FileBasedAccessLogPublisherCfg;
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
 import org.opends.server.api.ClientConnection;
 import org.opends.server.api.ExtendedOperationHandler;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
 import org.opends.server.controls.TransactionIdControl;
 import org.opends.server.core.AbandonOperation;
 import org.opends.server.core.AddOperation;
@@ -72,6 +78,13 @@ public final class TextAccessLogPublisher extends
   private static final String CATEGORY_RESPONSE = "RES";
   /** The category to use when logging requests. */
   private static final String CATEGORY_REQUEST = "REQ";
+  /** The record buffers grown above this capacity are not reused, so that a few huge records do not pin memory. */
+  private static final int MAX_REUSED_BUFFER_CAPACITY = 16 * 1024;
+  /**
+   * The buffers in which each thread formats the log records. The records are either copied into a string or
+   * encoded by the writer before the buffer is reused.
+   */
+  private static final ThreadLocal<StringBuilder> RECORD_BUFFERS = new ThreadLocal<>();
 
   /**
    * Returns an instance of the text access log publisher that will print all
@@ -97,9 +110,47 @@ public final class TextAccessLogPublisher extends
   private TextWriter writer;
   private FileBasedAccessLogPublisherCfg cfg;
   private boolean isCombinedMode;
+  /** Whether the records are written by a binary writer, which expects their time in milliseconds. */
+  private boolean isBinary;
   private boolean includeControlOIDs;
   private String timeStampFormat = "dd/MMM/yyyy:HH:mm:ss Z";
   private ServerContext serverContext;
+  /** Reports the statistics of the batched writer, if this publisher uses one. */
+  private BatchedWriterMonitor batchedWriterMonitor;
+
+  /** Reports the statistics of the ring buffer of a batched file based access log publisher. */
+  private final class BatchedWriterMonitor extends MonitorProvider<MonitorProviderCfg>
+  {
+    private final String instanceName;
+
+    private BatchedWriterMonitor(String instanceName)
+    {
+      this.instanceName = instanceName;
+    }
+
+    @Override
+    public String getMonitorInstanceName()
+    {
+      return instanceName;
+    }
+
+    @Override
+    public MonitorData getMonitorData()
+    {
+      final MonitorData attrs = new MonitorData(5);
+      final TextWriter currentWriter = writer;
+      if (currentWriter instanceof BatchedTextWriter)
+      {
+        final BatchedTextWriter batchedWriter = (BatchedTextWriter) currentWriter;
+        attrs.add("queue-size", batchedWriter.getQueueSize());
+        attrs.add("queued-record-count", batchedWriter.getQueuedRecordCount());
+        attrs.add("written-record-count", batchedWriter.getWrittenRecordCount());
+        attrs.add("dropped-record-count", batchedWriter.getDroppedRecordCount());
+        attrs.add("full-queue-wait-count", batchedWriter.getFullQueueWaitCount());
+      }
+      return attrs;
+    }
+  }
 
   @Override
   public ConfigChangeResult applyConfigurationChange(FileBasedAccessLogPublisherCfg config)
@@ -115,17 +166,43 @@ public final class TextAccessLogPublisher extends
       {
         currentWriter = ((AsynchronousTextWriter) writer).getWrappedWriter();
       }
+      else if (writer instanceof BatchedTextWriter)
+      {
+        currentWriter = ((BatchedTextWriter) writer).getWrappedWriter();
+      }
       else
       {
         currentWriter = writer;
       }
+      // The records are written to the binary writer, if any, rather than directly to the multifile writer
+      final TextWriter baseWriter = currentWriter;
+      if (currentWriter instanceof BinaryAccessLogWriter)
+      {
+        currentWriter = ((BinaryAccessLogWriter) currentWriter).getWrappedWriter();
+      }
 
       if (currentWriter instanceof MultifileTextWriter)
       {
         final MultifileTextWriter mfWriter = (MultifileTextWriter) currentWriter;
         configure(mfWriter, config);
+        if (baseWriter instanceof BinaryAccessLogWriter)
+        {
+          ((BinaryAccessLogWriter) baseWriter).configure((int) config.getBufferSize(),
+              config.isAutoFlush() && !config.isAsynchronous());
+        }
 
-        if (config.isAsynchronous())
+        if (config instanceof BatchedFileBasedAccessLogPublisherCfg)
+        {
+          // Records are always written asynchronously by batched publishers
+          final BatchedFileBasedAccessLogPublisherCfg batchedConfig = (BatchedFileBasedAccessLogPublisherCfg) config;
+          if (hasBatchedConfigChanged(batchedConfig))
+          {
+            final BatchedTextWriter previousWriter = (BatchedTextWriter) writer;
+            writer = newBatchedWriter(mfWriter, batchedConfig);
+            previousWriter.shutdown(false);
+          }
+        }
+        else if (config.isAsynchronous())
         {
           if (writer instanceof AsynchronousTextWriter)
           {
@@ -133,14 +210,14 @@ public final class TextAccessLogPublisher extends
             {
               // reinstantiate
               final AsynchronousTextWriter previousWriter = (AsynchronousTextWriter) writer;
-              writer = newAsyncWriter(mfWriter, config);
+              writer = newAsyncWriter(baseWriter, config);
               previousWriter.shutdown(false);
             }
           }
           else
           {
             // turn async text writer on
-            writer = newAsyncWriter(mfWriter, config);
+            writer = newAsyncWriter(baseWriter, config);
           }
         }
         else
@@ -149,12 +226,13 @@ public final class TextAccessLogPublisher extends
           {
             // asynchronous is being turned off, remove async text writers.
             final AsynchronousTextWriter previousWriter = (AsynchronousTextWriter) writer;
-            writer = mfWriter;
+            writer = baseWriter;
             previousWriter.shutdown(false);
           }
         }
 
-        if (cfg.isAsynchronous() && config.isAsynchronous()
+        if (!(config instanceof BatchedFileBasedAccessLogPublisherCfg)
+            && cfg.isAsynchronous() && config.isAsynchronous()
             && cfg.getQueueSize() != config.getQueueSize())
         {
           ccr.setAdminActionRequired(true);
@@ -184,7 +262,8 @@ public final class TextAccessLogPublisher extends
   private void configure(MultifileTextWriter mfWriter, FileBasedAccessLogPublisherCfg config) throws DirectoryException
   {
     final FilePermission perm = FilePermission.decodeUNIXMode(config.getLogFilePermissions());
-    final boolean writerAutoFlush = config.isAutoFlush() && !config.isAsynchronous();
+    final boolean writerAutoFlush = config.isAutoFlush() && !config.isAsynchronous()
+        && !(config instanceof BatchedFileBasedAccessLogPublisherCfg);
 
     final File logFile = getLogFile(config);
     final FileNamingPolicy fnPolicy = new TimeStampNaming(logFile);
@@ -225,7 +304,8 @@ public final class TextAccessLogPublisher extends
     {
       final FilePermission perm = FilePermission.decodeUNIXMode(cfg.getLogFilePermissions());
       final LogPublisherErrorHandler errorHandler = new LogPublisherErrorHandler(cfg.dn());
-      final boolean writerAutoFlush = cfg.isAutoFlush() && !cfg.isAsynchronous();
+      final boolean writerAutoFlush = cfg.isAutoFlush() && !cfg.isAsynchronous()
+          && !(cfg instanceof BatchedFileBasedAccessLogPublisherCfg);
 
       final MultifileTextWriter theWriter = new MultifileTextWriter(
           "Multifile Text Writer for " + cfg.dn(),
@@ -242,13 +322,22 @@ public final class TextAccessLogPublisher extends
         theWriter.addRetentionPolicy(DirectoryServer.getRetentionPolicy(dn));
       }
 
-      if (cfg.isAsynchronous())
+      if (cfg instanceof BatchedFileBasedAccessLogPublisherCfg)
       {
-        this.writer = newAsyncWriter(theWriter, cfg);
+        this.writer = newBatchedWriter(theWriter, (BatchedFileBasedAccessLogPublisherCfg) cfg);
+        batchedWriterMonitor =
+            new BatchedWriterMonitor(cfg.dn().rdn().getFirstAVA().getAttributeValue() + " Statistics");
+        DirectoryServer.registerMonitorProvider(batchedWriterMonitor);
       }
       else
       {
-        this.writer = theWriter;
+        TextWriter baseWriter = theWriter;
+        if (cfg instanceof BinaryFileBasedAccessLogPublisherCfg)
+        {
+          baseWriter = new BinaryAccessLogWriter((int) cfg.getBufferSize(),
+              cfg.isAutoFlush() && !cfg.isAsynchronous(), theWriter);
+        }
+        this.writer = cfg.isAsynchronous() ? newAsyncWriter(baseWriter, cfg) : baseWriter;
       }
     }
     catch (final DirectoryException e)
@@ -265,6 +354,7 @@ public final class TextAccessLogPublisher extends
     initializeFilters(cfg);
 
     this.cfg = cfg;
+    isBinary = cfg instanceof BinaryFileBasedAccessLogPublisherCfg;
     isCombinedMode = cfg.getLogFormat() == LogFormat.COMBINED;
     includeControlOIDs = cfg.isLogControlOids();
     timeStampFormat = cfg.getLogRecordTimeFormat();
@@ -282,10 +372,26 @@ public final class TextAccessLogPublisher extends
     return !cfg.dn().equals(newConfig.dn()) && cfg.isAutoFlush() != newConfig.isAutoFlush();
   }
 
-  private AsynchronousTextWriter newAsyncWriter(MultifileTextWriter mfWriter, FileBasedAccessLogPublisherCfg config)
+  private boolean hasBatchedConfigChanged(BatchedFileBasedAccessLogPublisherCfg newConfig)
+  {
+    final BatchedFileBasedAccessLogPublisherCfg batchedConfig = (BatchedFileBasedAccessLogPublisherCfg) cfg;
+    return batchedConfig.getQueueSize() != newConfig.getQueueSize()
+        || batchedConfig.getBufferSize() != newConfig.getBufferSize()
+        || batchedConfig.getQueueFullPolicy() != newConfig.getQueueFullPolicy();
+  }
+
+  private BatchedTextWriter newBatchedWriter(MultifileTextWriter mfWriter,
+      BatchedFileBasedAccessLogPublisherCfg config)
+  {
+    String name = "Batched Text Writer for " + config.dn();
+    return new BatchedTextWriter(name, config.getQueueSize(), (int) config.getBufferSize(),
+        config.getQueueFullPolicy() == QueueFullPolicy.DROP, mfWriter);
+  }
+
+  private AsynchronousTextWriter newAsyncWriter(TextWriter baseWriter, FileBasedAccessLogPublisherCfg config)
   {
     String name = "Asynchronous Text Writer for " + config.dn();
-    return new AsynchronousTextWriter(name, config.getQueueSize(), config.isAutoFlush(), mfWriter);
+    return new AsynchronousTextWriter(name, config.getQueueSize(), config.isAutoFlush(), baseWriter);
   }
 
   @Override
@@ -332,6 +438,13 @@ public final class TextAccessLogPublisher extends
       return false;
     }
 
+    // The batched writer cannot write synchronously
+    if (config instanceof BatchedFileBasedAccessLogPublisherCfg && !config.isAsynchronous())
+    {
+      unacceptableReasons.add(ERR_CONFIG_LOGGING_BATCHED_NOT_ASYNCHRONOUS.get(config.dn()));
+      return false;
+    }
+
     return true;
   }
 
@@ -343,10 +456,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(abandonOperation, "ABANDON", CATEGORY_REQUEST, buffer);
     appendAbandonRequest(abandonOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -357,7 +470,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(abandonOperation, "ABANDON", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -366,7 +479,7 @@ public final class TextAccessLogPublisher extends
     appendResultCodeAndMessage(buffer, abandonOperation);
     logAdditionalLogItems(abandonOperation, buffer);
     appendEtime(buffer, abandonOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -377,10 +490,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(addOperation, "ADD", CATEGORY_REQUEST, buffer);
     appendAddRequest(addOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -391,7 +504,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(addOperation, "ADD", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -401,7 +514,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(addOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", addOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, addOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -412,10 +525,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(bindOperation, "BIND", CATEGORY_REQUEST, buffer);
     appendBindRequest(bindOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -426,7 +539,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(bindOperation, "BIND", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -478,7 +591,7 @@ public final class TextAccessLogPublisher extends
 
     appendEtime(buffer, bindOperation);
 
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -489,10 +602,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(compareOperation, "COMPARE", CATEGORY_REQUEST, buffer);
     appendCompareRequest(compareOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -503,7 +616,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(compareOperation, "COMPARE", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -513,7 +626,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(compareOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", compareOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, compareOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -525,14 +638,14 @@ public final class TextAccessLogPublisher extends
     }
 
     final long connectionID = clientConnection.getConnectionID();
-    final StringBuilder buffer = new StringBuilder(100);
-    buffer.append('[').append(TimeThread.getUserDefinedTime(timeStampFormat)).append(']');
+    final StringBuilder buffer = getRecordBuffer();
+    appendTimeStamp(buffer);
     buffer.append(" CONNECT conn=").append(connectionID);
     buffer.append(" from=").append(clientConnection.getClientHostPort());
     buffer.append(" to=").append(clientConnection.getServerHostPort());
     buffer.append(" protocol=").append(clientConnection.getProtocol());
 
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -543,10 +656,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(deleteOperation, "DELETE", CATEGORY_REQUEST, buffer);
     appendDeleteRequest(deleteOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -557,7 +670,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(deleteOperation, "DELETE", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -567,7 +680,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(deleteOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", deleteOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, deleteOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -580,13 +693,13 @@ public final class TextAccessLogPublisher extends
     }
 
     final long connectionID = clientConnection.getConnectionID();
-    final StringBuilder buffer = new StringBuilder(100);
-    buffer.append('[').append(TimeThread.getUserDefinedTime(timeStampFormat)).append(']');
+    final StringBuilder buffer = getRecordBuffer();
+    appendTimeStamp(buffer);
     buffer.append(" DISCONNECT conn=").append(connectionID);
     appendLabel(buffer, "reason", disconnectReason);
     appendLabelIfNotNull(buffer, "msg", message);
 
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -597,10 +710,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(extendedOperation, "EXTENDED", CATEGORY_REQUEST, buffer);
     appendExtendedRequest(extendedOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -611,7 +724,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(extendedOperation, "EXTENDED", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -634,7 +747,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(extendedOperation, buffer);
     appendEtime(buffer, extendedOperation);
 
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -645,10 +758,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(modifyDNOperation, "MODIFYDN", CATEGORY_REQUEST, buffer);
     appendModifyDNRequest(modifyDNOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -659,7 +772,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(modifyDNOperation, "MODIFYDN", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -669,7 +782,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(modifyDNOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", modifyDNOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, modifyDNOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -680,10 +793,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(modifyOperation, "MODIFY", CATEGORY_REQUEST, buffer);
     appendModifyRequest(modifyOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -694,7 +807,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(modifyOperation, "MODIFY", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -704,7 +817,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(modifyOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", modifyOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, modifyOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -715,10 +828,10 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(192);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(searchOperation, "SEARCH", CATEGORY_REQUEST, buffer);
     appendSearchRequest(searchOperation, buffer);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -729,7 +842,7 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(128);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(searchOperation, "SEARCH", CATEGORY_RESPONSE, buffer);
     if (isCombinedMode)
     {
@@ -740,7 +853,7 @@ public final class TextAccessLogPublisher extends
     logAdditionalLogItems(searchOperation, buffer);
     appendLabelIfNotNull(buffer, "authzDN", searchOperation.getProxiedAuthorizationDN());
     appendEtime(buffer, searchOperation);
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
@@ -751,20 +864,24 @@ public final class TextAccessLogPublisher extends
       return;
     }
 
-    final StringBuilder buffer = new StringBuilder(100);
+    final StringBuilder buffer = getRecordBuffer();
     appendHeader(unbindOperation, "UNBIND", CATEGORY_REQUEST, buffer);
     if (unbindOperation.isSynchronizationOperation())
     {
       buffer.append(" type=synchronization");
     }
 
-    writer.writeRecord(buffer.toString());
+    writeRecord(buffer);
   }
 
   @Override
   protected void close0()
   {
     writer.shutdown();
+    if (batchedWriterMonitor != null)
+    {
+      DirectoryServer.deregisterMonitorProvider(batchedWriterMonitor);
+    }
     TimeThread.removeUserDefinedFormatter(timeStampFormat);
     if (cfg != null)
     {
@@ -772,6 +889,36 @@ public final class TextAccessLogPublisher extends
     }
   }
 
+  /** Returns the buffer of the current thread, emptied, in which a log record can be formatted. */
+  private static StringBuilder getRecordBuffer()
+  {
+    StringBuilder buffer = RECORD_BUFFERS.get();
+    if (buffer == null || buffer.capacity() > MAX_REUSED_BUFFER_CAPACITY)
+    {
+      buffer = new StringBuilder(256);
+      RECORD_BUFFERS.set(buffer);
+    }
+    buffer.setLength(0);
+    return buffer;
+  }
+
+  private void writeRecord(StringBuilder buffer)
+  {
+    final TextWriter currentWriter = writer;
+    if (currentWriter instanceof BatchedTextWriter)
+    {
+      ((BatchedTextWriter) currentWriter).writeRecord(buffer);
+    }
+    else if (currentWriter instanceof BinaryAccessLogWriter)
+    {
+      ((BinaryAccessLogWriter) currentWriter).writeRecord(buffer);
+    }
+    else
+    {
+      currentWriter.writeRecord(buffer.toString());
+    }
+  }
+
   private void appendAbandonRequest(final AbandonOperation abandonOperation, final StringBuilder buffer)
   {
     buffer.append(" idToAbandon=");
@@ -917,12 +1064,28 @@ public final class TextAccessLogPublisher extends
     buffer.append(etime);
   }
 
+  /** Appends the time of the record, between square brackets, to the provided buffer. */
+  private void appendTimeStamp(final StringBuilder buffer)
+  {
+    buffer.append('[');
+    if (isBinary)
+    {
+      // The time is formatted when the binary log is decoded
+      buffer.append(TimeThread.getTime());
+    }
+    else
+    {
+      buffer.append(TimeThread.getUserDefinedTime(timeStampFormat));
+    }
+    buffer.append(']');
+  }
+
   /** Appends the common log header information to the provided buffer. */
   private void appendHeader(final Operation operation, final String opType,
       final String category, final StringBuilder buffer)
   {
-    buffer.append('[').append(TimeThread.getUserDefinedTime(timeStampFormat)).append("] ");
-    buffer.append(opType);
+    appendTimeStamp(buffer);
+    buffer.append(' ').append(opType);
     if (!isCombinedMode)
     {
       buffer.append(' ').append(category);
@@ -29,13 +29,15 @@ import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
 import org.opends.server.api.Backend;
 import org.opends.server.api.MonitorData;
 import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.PersistentSearchIndex;
 import org.opends.server.types.DirectoryConfig;
 import org.opends.server.types.ObjectClass;
 
 /**
  * This class implements a monitor provider that will report generic information
  * for an enabled Directory Server backend, including its backend ID, base DNs,
- * writability mode, and the number of entries it contains.
+ * writability mode, the number of entries it contains, and the latencies of
+ * the operations it processed.
  */
 public class BackendMonitor
        extends MonitorProvider<MonitorProviderCfg>
@@ -89,13 +91,19 @@ public class BackendMonitor
   {
     Set<DN> baseDNs = backend.getBaseDNs();
 
-    MonitorData attrs = new MonitorData(6);
+    PersistentSearchIndex psearchIndex = backend.getPersistentSearchIndex();
+
+    MonitorData attrs = new MonitorData(9);
     attrs.add(ATTR_MONITOR_BACKEND_ID, backend.getBackendID());
     attrs.add(ATTR_MONITOR_BACKEND_BASE_DN, Arrays.asList(baseDNs));
     attrs.add(ATTR_MONITOR_BACKEND_IS_PRIVATE, backend.isPrivateBackend());
     attrs.add(ATTR_MONITOR_BACKEND_ENTRY_COUNT, backend.getEntryCount());
     attrs.add(ATTR_MONITOR_BASE_DN_ENTRY_COUNT, getBackendEntryCounts(baseDNs));
     attrs.add(ATTR_MONITOR_BACKEND_WRITABILITY_MODE, backend.getWritabilityMode());
+    attrs.add("persistent-search-count", psearchIndex.size());
+    attrs.add("persistent-search-change-count", psearchIndex.getLookupCount());
+    attrs.add("persistent-search-candidate-count", psearchIndex.getCandidateCount());
+    backend.getOperationLatencies().addMonitorData(attrs);
     return attrs;
   }
 
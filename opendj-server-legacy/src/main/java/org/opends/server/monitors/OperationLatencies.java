@@ -0,0 +1,271 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import static org.opends.server.util.StaticUtils.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opends.server.api.MonitorData;
+import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
+import org.opends.server.types.OperationType;
+import org.opends.server.util.LatencyHistogram;
+import org.opends.server.util.LatencyHistogram.Snapshot;
+
+/**
+ * Latency histograms of the operations processed by a connection handler or a
+ * backend, for each operation type. Besides the response time (etime) of the
+ * operations, a histogram is kept for each {@link OperationPhase}.
+ * <p>
+ * The histograms are exposed as monitor attributes named
+ * {@code ds-mon-<metric>-<statistic>}, where the metric is {@code etime} or the
+ * name of a phase, and the statistic is the number of recorded operations, a
+ * percentile or the maximum, either since the server started or during the last
+ * minute. Each value is the statistic in microseconds, followed by the
+ * operation type.
+ * <p>
+ * The histograms of an operation type are only created when a latency is first
+ * recorded for it.
+ */
+public final class OperationLatencies
+{
+  /** The percentiles exposed in monitor entries. */
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+  private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+  private static final String[] PROMETHEUS_QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+  private static final OperationType[] OPERATION_TYPES = OperationType.values();
+  private static final OperationPhase[] PHASES = OperationPhase.values();
+  /** The response time, followed by the phases. */
+  private static final int METRIC_COUNT = 1 + PHASES.length;
+  private static final int ETIME = 0;
+
+  private final AtomicReferenceArray<LatencyHistogram> histograms =
+      new AtomicReferenceArray<>(OPERATION_TYPES.length * METRIC_COUNT);
+
+  /**
+   * Records the response time and the duration of each measured phase of the
+   * provided operation. The phases which were not measured are not recorded.
+   *
+   * @param operation
+   *          the completed operation
+   * @param responseNanoTime
+   *          the response time of the operation, in nanoseconds
+   */
+  public void record(Operation operation, long responseNanoTime)
+  {
+    final OperationType type = operation.getOperationType();
+    histogram(type, ETIME).record(responseNanoTime);
+    for (OperationPhase phase : PHASES)
+    {
+      final long nanoTime = operation.getPhaseNanoTime(phase);
+      if (nanoTime > 0)
+      {
+        record(type, phase, nanoTime);
+      }
+    }
+  }
+
+  /**
+   * Records the duration of a phase of an operation.
+   *
+   * @param type
+   *          the type of the operation
+   * @param phase
+   *          the phase of the operation
+   * @param nanoTime
+   *          the duration of the phase, in nanoseconds
+   */
+  public void record(OperationType type, OperationPhase phase, long nanoTime)
+  {
+    histogram(type, metricIndex(phase)).record(nanoTime);
+  }
+
+  private LatencyHistogram histogram(OperationType type, int metric)
+  {
+    final int index = type.ordinal() * METRIC_COUNT + metric;
+    final LatencyHistogram histogram = histograms.get(index);
+    if (histogram != null)
+    {
+      return histogram;
+    }
+    histograms.compareAndSet(index, null, new LatencyHistogram());
+    return histograms.get(index);
+  }
+
+  private static int metricIndex(OperationPhase phase)
+  {
+    return phase.ordinal() + 1;
+  }
+
+  private static String metricName(int metric)
+  {
+    return metric == ETIME ? "etime" : PHASES[metric - 1].getPhaseName();
+  }
+
+  private static String operationName(OperationType type)
+  {
+    return toLowerCase(type.getOperationName());
+  }
+
+  /**
+   * Adds the percentiles of the recorded latencies to the provided monitor data.
+   *
+   * @param attrs
+   *          the monitor data to which the percentiles must be added
+   */
+  public void addMonitorData(MonitorData attrs)
+  {
+    for (int metric = 0; metric < METRIC_COUNT; metric++)
+    {
+      final List<Snapshot> totals = new ArrayList<>();
+      final List<Snapshot> lastMinutes = new ArrayList<>();
+      final List<String> names = new ArrayList<>();
+      for (OperationType type : OPERATION_TYPES)
+      {
+        final LatencyHistogram histogram = histograms.get(type.ordinal() * METRIC_COUNT + metric);
+        if (histogram != null)
+        {
+          totals.add(histogram.getTotal());
+          lastMinutes.add(histogram.getLastInterval());
+          names.add(operationName(type));
+        }
+      }
+      if (!names.isEmpty())
+      {
+        final String prefix = "ds-mon-" + metricName(metric) + "-";
+        addStatistics(attrs, prefix, totals, names);
+        addStatistics(attrs, prefix + "last-minute-", lastMinutes, names);
+      }
+    }
+  }
+
+  private static void addStatistics(MonitorData attrs, String prefix, List<Snapshot> snapshots, List<String> names)
+  {
+    attrs.add(prefix + "count", statistic(snapshots, names, -1));
+    for (int i = 0; i < PERCENTILES.length; i++)
+    {
+      attrs.add(prefix + PERCENTILE_NAMES[i], statistic(snapshots, names, PERCENTILES[i]));
+    }
+    attrs.add(prefix + "max", statistic(snapshots, names, 100));
+  }
+
+  /** Returns the count if the percentile is negative. */
+  private static Collection<String> statistic(List<Snapshot> snapshots, List<String> names, double percentile)
+  {
+    final Collection<String> values = new ArrayList<>(snapshots.size());
+    for (int i = 0; i < snapshots.size(); i++)
+    {
+      final Snapshot snapshot = snapshots.get(i);
+      final long value = percentile < 0 ? snapshot.getCount() : snapshot.getValueAtPercentile(percentile);
+      values.add(value + " " + names.get(i));
+    }
+    return values;
+  }
+
+  /**
+   * Returns the number of metrics exported in the Prometheus text format.
+   *
+   * @return the number of metrics exported in the Prometheus text format
+   */
+  public static int getMetricCount()
+  {
+    return METRIC_COUNT;
+  }
+
+  /**
+   * Appends the Prometheus type declaration of a metric.
+   *
+   * @param buffer
+   *          the buffer to which the declaration must be appended
+   * @param metric
+   *          the index of the metric
+   * @param lastMinute
+   *          {@code true} for the quantiles over the last minute, exported as
+   *          gauges, {@code false} for the summary since the server started
+   */
+  public static void appendPrometheusType(StringBuilder buffer, int metric, boolean lastMinute)
+  {
+    final String family = prometheusFamily(metric, lastMinute);
+    buffer.append("# HELP ").append(family).append(' ');
+    buffer.append(metric == ETIME ? "The response time of the operations"
+                                  : "The time spent in the " + metricName(metric) + " phase of the operations");
+    buffer.append(lastMinute ? ", quantiles over the last minute\n" : ", since the server started\n");
+    buffer.append("# TYPE ").append(family).append(lastMinute ? " gauge\n" : " summary\n");
+  }
+
+  /**
+   * Appends the Prometheus samples of a metric for each operation type.
+   * <p>
+   * The summary holds the quantiles, sum and count of all the latencies
+   * recorded since the server started, so that they are consistent with each
+   * other. The quantiles over the last minute are exported separately.
+   *
+   * @param buffer
+   *          the buffer to which the samples must be appended
+   * @param metric
+   *          the index of the metric
+   * @param lastMinute
+   *          {@code true} for the quantiles over the last minute, exported as
+   *          gauges, {@code false} for the summary since the server started
+   * @param labels
+   *          the labels identifying the owner of these latencies, formatted
+   *          as {@code name="value"} pairs separated by commas
+   */
+  public void appendPrometheusSamples(StringBuilder buffer, int metric, boolean lastMinute, String labels)
+  {
+    final String family = prometheusFamily(metric, lastMinute);
+    for (OperationType type : OPERATION_TYPES)
+    {
+      final LatencyHistogram histogram = histograms.get(type.ordinal() * METRIC_COUNT + metric);
+      if (histogram == null)
+      {
+        continue;
+      }
+      final String sampleLabels = labels + ",operation=\"" + operationName(type) + "\"";
+      final Snapshot snapshot = lastMinute ? histogram.getLastInterval() : histogram.getTotal();
+      for (int i = 0; i < PERCENTILES.length; i++)
+      {
+        appendSample(buffer, family, sampleLabels + ",quantile=\"" + PROMETHEUS_QUANTILES[i] + "\"",
+            toSeconds(snapshot.getValueAtPercentile(PERCENTILES[i])));
+      }
+      if (!lastMinute)
+      {
+        appendSample(buffer, family + "_sum", sampleLabels, toSeconds(snapshot.getSum()));
+        appendSample(buffer, family + "_count", sampleLabels, Long.toString(snapshot.getCount()));
+      }
+    }
+  }
+
+  private static String prometheusFamily(int metric, boolean lastMinute)
+  {
+    return "opendj_operation_" + metricName(metric) + (lastMinute ? "_last_minute_seconds" : "_seconds");
+  }
+
+  private static void appendSample(StringBuilder buffer, String name, String labels, String value)
+  {
+    buffer.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  private static String toSeconds(long micros)
+  {
+    return Double.toString(micros / 1000000d);
+  }
+}
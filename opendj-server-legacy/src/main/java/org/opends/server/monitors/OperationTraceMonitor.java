@@ -0,0 +1,72 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.OperationTracer;
+import org.opends.server.core.OperationTracer.OperationTrace;
+
+/**
+ * This class defines a monitor provider that dumps the operations recorded by the operation tracer, oldest first. Each
+ * value of the operation-trace attribute describes an operation and the time spent in each phase of its processing.
+ */
+public class OperationTraceMonitor extends MonitorProvider<MonitorProviderCfg>
+{
+  private final OperationTracer operationTracer;
+
+  /**
+   * Creates a monitor provider for the provided operation tracer.
+   *
+   * @param operationTracer
+   *          the operation tracer to monitor
+   */
+  public OperationTraceMonitor(OperationTracer operationTracer)
+  {
+    this.operationTracer = operationTracer;
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return "Operation Traces";
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final List<OperationTrace> traces = operationTracer.getTraces();
+    final MonitorData attrs = new MonitorData(4);
+    attrs.add("operation-trace-sampling-interval", operationTracer.getSamplingInterval());
+    attrs.add("operation-trace-count", operationTracer.getTraceCount());
+    attrs.add("slow-operation-count", operationTracer.getSlowOperationCount());
+    if (!traces.isEmpty())
+    {
+      final Collection<String> values = new ArrayList<>(traces.size());
+      for (OperationTrace trace : traces)
+      {
+        values.add(trace.toString());
+      }
+      attrs.add("operation-trace", values);
+    }
+    return attrs;
+  }
+}
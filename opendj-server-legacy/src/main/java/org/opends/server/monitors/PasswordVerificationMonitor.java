@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.monitors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
+import org.opends.server.api.MonitorData;
+import org.opends.server.api.MonitorProvider;
+import org.opends.server.core.PasswordVerifier;
+import org.opends.server.core.PasswordVerifier.SchemeStatistics;
+
+/**
+ * This class defines a monitor provider that reports the CPU time used to verify the passwords of the users, for
+ * each password storage scheme. Each value of the per scheme attributes is the statistic followed by the scheme name.
+ */
+public class PasswordVerificationMonitor extends MonitorProvider<MonitorProviderCfg>
+{
+  private final PasswordVerifier passwordVerifier;
+
+  /**
+   * Creates a monitor provider for the provided password verifier.
+   *
+   * @param passwordVerifier
+   *          the password verifier to monitor
+   */
+  public PasswordVerificationMonitor(PasswordVerifier passwordVerifier)
+  {
+    this.passwordVerifier = passwordVerifier;
+  }
+
+  @Override
+  public String getMonitorInstanceName()
+  {
+    return "Password Verification";
+  }
+
+  @Override
+  public MonitorData getMonitorData()
+  {
+    final Map<String, SchemeStatistics> statistics = passwordVerifier.getStatistics();
+    final Collection<String> counts = new ArrayList<>();
+    final Collection<String> cpuTimes = new ArrayList<>();
+    final Collection<String> offloadedCounts = new ArrayList<>();
+    final Collection<String> cacheHitCounts = new ArrayList<>();
+    for (Map.Entry<String, SchemeStatistics> mapEntry : statistics.entrySet())
+    {
+      final String schemeName = mapEntry.getKey();
+      final SchemeStatistics schemeStatistics = mapEntry.getValue();
+      counts.add(schemeStatistics.getVerificationCount() + " " + schemeName);
+      cpuTimes.add(TimeUnit.NANOSECONDS.toMillis(schemeStatistics.getCpuTime()) + " " + schemeName);
+      offloadedCounts.add(schemeStatistics.getOffloadedCount() + " " + schemeName);
+      cacheHitCounts.add(schemeStatistics.getCacheHitCount() + " " + schemeName);
+    }
+
+    final MonitorData attrs = new MonitorData(6);
+    if (!statistics.isEmpty())
+    {
+      attrs.add("password-verification-count", counts);
+      attrs.add("password-verification-cpu-time", cpuTimes);
+      attrs.add("password-verification-offloaded-count", offloadedCounts);
+      attrs.add("password-verification-cache-hit-count", cacheHitCounts);
+    }
+    attrs.add("password-verification-pending-count", passwordVerifier.getPendingCount());
+    attrs.add("password-verification-cache-size", passwordVerifier.getCacheSize());
+    return attrs;
+  }
+}
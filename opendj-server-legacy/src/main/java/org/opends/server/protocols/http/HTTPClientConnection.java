@@ -55,6 +55,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ExtendedOperation;
 import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.OperationTracer;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.ServerContext;
 import org.opends.server.loggers.HTTPAccessLogger;
@@ -400,7 +401,9 @@ final class HTTPClientConnection extends ClientConnection implements HTTPRequest
     {
       this.statTracker.updateRequestMonitoringData(getMethod(), time);
       this.statTracker.updateOperationMonitoringData(operation.getOperationType(), time);
+      this.statTracker.updateOperationLatencies(operation);
     }
+    OperationTracer.getInstance().operationCompleted(operation);
 
     OperationWithPromise op = this.operationsInProgress.get(operation.getMessageID());
     if (op != null)
@@ -0,0 +1,149 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.HttpApplication;
+import org.forgerock.http.io.Buffer;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.opendj.server.config.server.PrometheusEndpointCfg;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.Factory;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+import org.opends.server.api.Backend;
+import org.opends.server.api.ConnectionHandler;
+import org.opends.server.api.HttpEndpoint;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.monitors.OperationLatencies;
+import org.opends.server.protocols.ldap.LDAPConnectionHandler;
+
+/**
+ * Exposes the operation latencies of the connection handlers and backends in
+ * the Prometheus text exposition format. Each latency is exported as a summary
+ * covering the whole life of the server, and as gauges holding its quantiles
+ * over the last minute.
+ */
+public final class PrometheusEndpoint extends HttpEndpoint<PrometheusEndpointCfg>
+{
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * Create a new PrometheusEndpoint with the supplied configuration.
+   *
+   * @param configuration
+   *          Configuration to use for the {@link HttpApplication}
+   */
+  public PrometheusEndpoint(PrometheusEndpointCfg configuration)
+  {
+    super(configuration);
+  }
+
+  @Override
+  public HttpApplication newHttpApplication()
+  {
+    return new HttpApplication()
+    {
+      @Override
+      public Handler start()
+      {
+        return new PrometheusHandler();
+      }
+
+      @Override
+      public Factory<Buffer> getBufferFactory()
+      {
+        return null;
+      }
+
+      @Override
+      public void stop()
+      {
+        // Nothing to do
+      }
+    };
+  }
+
+  /** Writes the latencies currently recorded in the server. */
+  private static final class PrometheusHandler implements Handler
+  {
+    @Override
+    public Promise<Response, NeverThrowsException> handle(Context context, Request request)
+    {
+      if (!"GET".equalsIgnoreCase(request.getMethod()))
+      {
+        return Promises.newResultPromise(new Response(Status.METHOD_NOT_ALLOWED));
+      }
+      final Response response = new Response(Status.OK);
+      response.getHeaders().put("Content-Type", CONTENT_TYPE);
+      response.setEntity(export());
+      return Promises.newResultPromise(response);
+    }
+  }
+
+  /**
+   * Returns the operation latencies of the connection handlers and backends in
+   * the Prometheus text exposition format.
+   *
+   * @return the operation latencies of the connection handlers and backends in
+   *         the Prometheus text exposition format
+   */
+  static String export()
+  {
+    final Map<String, OperationLatencies> sources = new LinkedHashMap<>();
+    for (ConnectionHandler<?> handler : DirectoryServer.getConnectionHandlers())
+    {
+      final String labels = "connection_handler=\"" + escape(handler.getConnectionHandlerName()) + "\"";
+      if (handler instanceof LDAPConnectionHandler)
+      {
+        sources.put(labels, ((LDAPConnectionHandler) handler).getStatTracker().getOperationLatencies());
+      }
+      else if (handler instanceof HTTPConnectionHandler)
+      {
+        sources.put(labels, ((HTTPConnectionHandler) handler).getStatTracker().getOperationLatencies());
+      }
+    }
+    for (Backend<?> backend : DirectoryServer.getBackends())
+    {
+      sources.put("backend=\"" + escape(backend.getBackendID()) + "\"", backend.getOperationLatencies());
+    }
+
+    final StringBuilder buffer = new StringBuilder();
+    for (int metric = 0; metric < OperationLatencies.getMetricCount(); metric++)
+    {
+      for (boolean lastMinute : new boolean[] { false, true })
+      {
+        OperationLatencies.appendPrometheusType(buffer, metric, lastMinute);
+        for (Map.Entry<String, OperationLatencies> source : sources.entrySet())
+        {
+          source.getValue().appendPrometheusSamples(buffer, metric, lastMinute, source.getKey());
+        }
+      }
+    }
+    return buffer.toString();
+  }
+
+  private static String escape(String labelValue)
+  {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
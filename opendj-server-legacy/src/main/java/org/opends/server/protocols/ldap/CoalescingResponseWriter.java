@@ -0,0 +1,222 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import static org.forgerock.util.Utils.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+
+/**
+ * Writes the encoded LDAP messages sent to a client connection, accumulating the messages which do not need to be
+ * sent immediately, such as search result entries, so that they are written with fewer and larger writes.
+ * <p>
+ * Pending messages are copied to a direct buffer taken from a shared pool, which is written and returned to the pool
+ * once it is full, or when a message which must be sent immediately is written, such as the result of an operation.
+ * A message which does not fit in the remaining space is written along with the pending messages using a single
+ * gathering write. Over TLS, this produces full size records rather than one record per message.
+ * <p>
+ * Messages never remain pending for much longer than {@link #MAX_FLUSH_DELAY_MS}, so that the entries returned by a
+ * slow search are not held back until the buffer is full or the search completes: the first pending message
+ * schedules a flush of the client connection, which runs in a separate thread so that a client which does not read
+ * its responses cannot delay the flushes of the other connections.
+ * <p>
+ * This class is thread safe.
+ */
+final class CoalescingResponseWriter
+{
+  /** Large enough to hold two full size TLS records. */
+  static final int BUFFER_SIZE = 32 * 1024;
+  /** Bounds the memory retained by the pool once the connections are idle. */
+  private static final int MAX_POOLED_BUFFERS = 256;
+  private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+  /** The maximum number of milliseconds during which messages remain pending. */
+  static final long MAX_FLUSH_DELAY_MS = 10;
+  private static final ScheduledExecutorService FLUSH_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(newThreadFactory(null, "LDAP Response Flush Scheduler", true));
+  private static final ExecutorService FLUSHERS =
+      Executors.newCachedThreadPool(newThreadFactory(null, "LDAP Response Flusher %d", true));
+
+  private final GatheringByteChannel channel;
+  /** Submits the delayed flush of the client connection to the flusher threads. */
+  private final Runnable scheduledFlush;
+  /** Serializes the writes to the channel, and protects the pending messages. */
+  private final Lock lock = new ReentrantLock();
+  /** The pending messages, or {@code null} if there are none. */
+  private ByteBuffer pending;
+
+  /**
+   * Creates a response writer.
+   *
+   * @param channel
+   *          the channel to which the messages are written
+   * @param delayedFlush
+   *          flushes the client connection once messages have been pending for {@link #MAX_FLUSH_DELAY_MS}, handling
+   *          the errors of the flush as the client connection sees fit
+   */
+  CoalescingResponseWriter(GatheringByteChannel channel, final Runnable delayedFlush)
+  {
+    this.channel = channel;
+    this.scheduledFlush = new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        FLUSHERS.execute(delayedFlush);
+      }
+    };
+  }
+
+  /**
+   * Writes an encoded message, or keeps it for a later write.
+   *
+   * @param message
+   *          the encoded message, which is copied if it is not written immediately
+   * @param flush
+   *          whether the message, along with any pending message, must be written immediately
+   * @throws IOException
+   *           if the messages could not be written, in which case the pending messages are discarded
+   */
+  void write(ByteStringBuilder message, boolean flush) throws IOException
+  {
+    lock.lock();
+    try
+    {
+      if (pending == null && (flush || message.length() >= BUFFER_SIZE))
+      {
+        writeFully(wrap(message));
+        return;
+      }
+      if (pending == null)
+      {
+        pending = acquireBuffer();
+        FLUSH_SCHEDULER.schedule(scheduledFlush, MAX_FLUSH_DELAY_MS, MILLISECONDS);
+      }
+      if (message.length() <= pending.remaining())
+      {
+        message.copyTo(pending);
+        if (flush || !pending.hasRemaining())
+        {
+          flushPending();
+        }
+        return;
+      }
+      pending.flip();
+      try
+      {
+        writeFully(pending, wrap(message));
+      }
+      finally
+      {
+        releasePending();
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the pending messages, if any.
+   *
+   * @throws IOException
+   *           if the messages could not be written, in which case they are discarded
+   */
+  void flush() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      flushPending();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /** Discards the pending messages, if any, for example because the client connection is closed. */
+  void discard()
+  {
+    lock.lock();
+    try
+    {
+      releasePending();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void flushPending() throws IOException
+  {
+    if (pending != null)
+    {
+      pending.flip();
+      try
+      {
+        writeFully(pending);
+      }
+      finally
+      {
+        releasePending();
+      }
+    }
+  }
+
+  private void writeFully(ByteBuffer... buffers) throws IOException
+  {
+    while (buffers[buffers.length - 1].hasRemaining())
+    {
+      channel.write(buffers);
+    }
+  }
+
+  private static ByteBuffer wrap(ByteStringBuilder message)
+  {
+    return ByteBuffer.wrap(message.getBackingArray(), 0, message.length());
+  }
+
+  private static ByteBuffer acquireBuffer()
+  {
+    final ByteBuffer buffer = BUFFER_POOL.poll();
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private void releasePending()
+  {
+    if (pending != null)
+    {
+      pending.clear();
+      BUFFER_POOL.offer(pending);
+      pending = null;
+    }
+  }
+}
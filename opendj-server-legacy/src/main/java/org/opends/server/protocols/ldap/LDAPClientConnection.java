@@ -31,6 +31,7 @@ import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -66,7 +67,9 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ExtendedOperationBasis;
 import org.opends.server.core.ModifyDNOperationBasis;
 import org.opends.server.core.ModifyOperationBasis;
+import org.opends.server.core.OperationTracer;
 import org.opends.server.core.PersistentSearch;
+import org.opends.server.core.PersistentSearchQueue;
 import org.opends.server.core.PluginConfigManager;
 import org.opends.server.core.SearchOperation;
 import org.opends.server.core.SearchOperationBasis;
@@ -83,6 +86,7 @@ import org.opends.server.types.DirectoryException;
 import org.opends.server.types.DisconnectReason;
 import org.opends.server.types.IntermediateResponse;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 import org.opends.server.types.SearchResultEntry;
 import org.opends.server.types.SearchResultReference;
@@ -158,7 +162,7 @@ public final class LDAPClientConnection extends ClientConnection implements
    * record them before calling this method and restore them after it
    * returns.
    */
-  private class TimeoutWriteByteChannel implements ByteChannel
+  private class TimeoutWriteByteChannel implements ByteChannel, GatheringByteChannel
   {
     /** Synchronize concurrent writes to the same connection. */
     private final Lock writeLock = new ReentrantLock();
@@ -188,17 +192,46 @@ public final class LDAPClientConnection extends ClientConnection implements
 
     @Override
     public int write(ByteBuffer byteBuffer) throws IOException
+    {
+      return (int) write(new ByteBuffer[] { byteBuffer }, 0, 1);
+    }
+
+    private boolean hasRemaining(ByteBuffer[] byteBuffers, int offset, int length)
+    {
+      for (int i = offset; i < offset + length; i++)
+      {
+        if (byteBuffers[i].hasRemaining())
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public long write(ByteBuffer[] byteBuffers) throws IOException
+    {
+      return write(byteBuffers, 0, byteBuffers.length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] byteBuffers, int offset, int length)
+        throws IOException
     {
       writeLock.lock();
       try
       {
-        int bytesToWrite = byteBuffer.remaining();
-        int bytesWritten = clientChannel.write(byteBuffer);
+        long bytesToWrite = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+          bytesToWrite += byteBuffers[i].remaining();
+        }
+        long bytesWritten = clientChannel.write(byteBuffers, offset, length);
         if (bytesWritten > 0 && keepStats)
         {
-          statTracker.updateBytesWritten(bytesWritten);
+          statTracker.updateBytesWritten((int) bytesWritten);
         }
-        if (!byteBuffer.hasRemaining())
+        if (!hasRemaining(byteBuffers, offset, length))
         {
           return bytesToWrite;
         }
@@ -220,10 +253,10 @@ public final class LDAPClientConnection extends ClientConnection implements
           // The client connection does not provide a selector, so we'll
           // fall back to a more inefficient way that will work without a
           // selector.
-          while (byteBuffer.hasRemaining()
+          while (hasRemaining(byteBuffers, offset, length)
               && System.currentTimeMillis() < stopTime)
           {
-            bytesWritten = clientChannel.write(byteBuffer);
+            bytesWritten = clientChannel.write(byteBuffers, offset, length);
             if (bytesWritten < 0)
             {
               // The client connection has been closed.
@@ -231,11 +264,11 @@ public final class LDAPClientConnection extends ClientConnection implements
             }
             if (bytesWritten > 0 && keepStats)
             {
-              statTracker.updateBytesWritten(bytesWritten);
+              statTracker.updateBytesWritten((int) bytesWritten);
             }
           }
 
-          if (byteBuffer.hasRemaining())
+          if (hasRemaining(byteBuffers, offset, length))
           {
             // If we've gotten here, then the write timed out.
             throw new ClosedChannelException();
@@ -250,7 +283,7 @@ public final class LDAPClientConnection extends ClientConnection implements
         try
         {
           selector.select(waitTime);
-          while (byteBuffer.hasRemaining())
+          while (hasRemaining(byteBuffers, offset, length))
           {
             long currentTime = System.currentTimeMillis();
             if (currentTime >= stopTime)
@@ -266,7 +299,7 @@ public final class LDAPClientConnection extends ClientConnection implements
               SelectionKey k = iterator.next();
               if (k.isWritable())
               {
-                bytesWritten = clientChannel.write(byteBuffer);
+                bytesWritten = clientChannel.write(byteBuffers, offset, length);
                 if (bytesWritten < 0)
                 {
                   // The client connection has been closed.
@@ -274,14 +307,14 @@ public final class LDAPClientConnection extends ClientConnection implements
                 }
                 if (bytesWritten > 0 && keepStats)
                 {
-                  statTracker.updateBytesWritten(bytesWritten);
+                  statTracker.updateBytesWritten((int) bytesWritten);
                 }
 
                 iterator.remove();
               }
             }
 
-            if (byteBuffer.hasRemaining())
+            if (hasRemaining(byteBuffers, offset, length))
             {
               selector.select(waitTime);
             }
@@ -381,6 +414,12 @@ public final class LDAPClientConnection extends ClientConnection implements
   /** The set of all operations currently in progress on this connection. */
   private final ConcurrentHashMap<Integer, Operation> operationsInProgress;
 
+  /**
+   * The time spent decoding the LDAP message being processed, in nanoseconds.
+   * Only used by the request handler thread reading this connection.
+   */
+  private long messageDecodeNanoTime;
+
   /**
    * The number of operations performed on this connection. Used to compare with
    * the resource limits of the network group.
@@ -422,6 +461,8 @@ public final class LDAPClientConnection extends ClientConnection implements
   private final int bufferSize;
   private final RedirectingByteChannel saslChannel;
   private final RedirectingByteChannel tlsChannel;
+  /** Writes the responses to the client, coalescing the search results. */
+  private final CoalescingResponseWriter responseWriter;
   private volatile ConnectionSecurityProvider saslActiveProvider;
   private volatile ConnectionSecurityProvider tlsActiveProvider;
   private volatile ConnectionSecurityProvider saslPendingProvider;
@@ -478,6 +519,14 @@ public final class LDAPClientConnection extends ClientConnection implements
     tlsChannel = RedirectingByteChannel.getRedirectingByteChannel(timeoutClientChannel);
     saslChannel = RedirectingByteChannel.getRedirectingByteChannel(tlsChannel);
     this.asn1Reader = new ASN1ByteChannelReader(saslChannel, bufferSize, connectionHandler.getMaxRequestSize());
+    responseWriter = new CoalescingResponseWriter(saslChannel, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        flushResponses();
+      }
+    });
 
     if (connectionHandler.useSSL())
     {
@@ -677,14 +726,22 @@ public final class LDAPClientConnection extends ClientConnection implements
     // if operation processing encounters a run-time exception after sending the
     // response: the worker thread exception handling code will attempt to send
     // an error result to the client indicating that a problem occurred.
-    if (removeOperationInProgress(operation.getMessageID()))
+    if (removeOperationInProgress(operation.getMessageID(), false))
     {
       LDAPMessage message = operationToResponseLDAPMessage(operation);
       if (message != null)
       {
+        final long startTime = System.nanoTime();
         sendLDAPMessage(message);
+        operation.addPhaseNanoTime(OperationPhase.RESPONSE_WRITE, System.nanoTime() - startTime);
       }
     }
+
+    if (keepStats)
+    {
+      statTracker.updateOperationLatencies(operation);
+    }
+    OperationTracer.getInstance().operationCompleted(operation);
   }
 
   /**
@@ -839,8 +896,24 @@ public final class LDAPClientConnection extends ClientConnection implements
     SearchResultEntryProtocolOp protocolOp =
         new SearchResultEntryProtocolOp(searchEntry, ldapVersion);
 
+    final long startTime = System.nanoTime();
     sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchEntry.getControls()));
+        protocolOp, searchEntry.getControls()), isPersistentSearchUpdate(searchOperation));
+    searchOperation.addPhaseNanoTime(OperationPhase.RESPONSE_WRITE, System.nanoTime() - startTime);
+  }
+
+  /**
+   * Indicates whether the search operation is a persistent search, which may
+   * be sending an entry change notification. The search results of other
+   * searches are written at the latest when the operation completes, or
+   * shortly after they have been sent if the search is slow, whereas
+   * change notifications must be sent immediately since a persistent search
+   * never completes. Enabling a persistent search prevents it from sending its
+   * response, so the entries of its initial search are not coalesced either.
+   */
+  private boolean isPersistentSearchUpdate(SearchOperation searchOperation)
+  {
+    return !searchOperation.isSendResponse();
   }
 
   /**
@@ -874,8 +947,10 @@ public final class LDAPClientConnection extends ClientConnection implements
     SearchResultReferenceProtocolOp protocolOp =
         new SearchResultReferenceProtocolOp(searchReference);
 
+    final long startTime = System.nanoTime();
     sendLDAPMessage(new LDAPMessage(searchOperation.getMessageID(),
-        protocolOp, searchReference.getControls()));
+        protocolOp, searchReference.getControls()), isPersistentSearchUpdate(searchOperation));
+    searchOperation.addPhaseNanoTime(OperationPhase.RESPONSE_WRITE, System.nanoTime() - startTime);
     return true;
   }
 
@@ -914,13 +989,27 @@ public final class LDAPClientConnection extends ClientConnection implements
    *          The LDAP message to send to the client.
    */
   private void sendLDAPMessage(LDAPMessage message)
+  {
+    sendLDAPMessage(message, true);
+  }
+
+  /**
+   * Sends the provided LDAP message to the client.
+   *
+   * @param message
+   *          The LDAP message to send to the client.
+   * @param flush
+   *          Indicates whether the message must be written immediately, or
+   *          may be written later along with the next messages.
+   */
+  private void sendLDAPMessage(LDAPMessage message, boolean flush)
   {
     // Use a thread local writer.
     final ASN1WriterHolder holder = getASN1Writer();
     try
     {
       message.write(holder.writer);
-      holder.buffer.copyTo(saslChannel);
+      responseWriter.write(holder.buffer, flush);
 
       if (logger.isTraceEnabled())
       {
@@ -1048,6 +1137,9 @@ public final class LDAPClientConnection extends ClientConnection implements
       }
     }
 
+    // The responses which could not be sent will never be.
+    responseWriter.discard();
+
     // Enqueue the connection channels for closing by the finalizer.
     Runnable r = new ConnectionFinalizerJob(asn1Reader, clientChannel);
     connectionHandler.registerConnectionFinalizer(r);
@@ -1135,6 +1227,7 @@ public final class LDAPClientConnection extends ClientConnection implements
       throws DirectoryException
   {
     int messageID = operation.getMessageID();
+    operation.addPhaseNanoTime(OperationPhase.DECODE, messageDecodeNanoTime);
 
     // We need to grab a lock to ensure that no one else can add
     // operations to the queue while we are performing some preliminary
@@ -1208,6 +1301,16 @@ public final class LDAPClientConnection extends ClientConnection implements
    */
   @Override
   public boolean removeOperationInProgress(int messageID)
+  {
+    return removeOperationInProgress(messageID, true);
+  }
+
+  /**
+   * Removes the provided operation from the set of operations in progress,
+   * optionally writing the responses kept for a later write, such as the
+   * search result entries of an abandoned search.
+   */
+  private boolean removeOperationInProgress(int messageID, boolean flushResponses)
   {
     Operation operation = operationsInProgress.remove(messageID);
     if (operation == null)
@@ -1215,6 +1318,11 @@ public final class LDAPClientConnection extends ClientConnection implements
       return false;
     }
 
+    if (flushResponses)
+    {
+      flushResponses();
+    }
+
     if (operation.getOperationType() == OperationType.ABANDON
         && keepStats
         && operation.getResultCode() == ResultCode.CANCELLED)
@@ -1494,13 +1602,16 @@ public final class LDAPClientConnection extends ClientConnection implements
    *
    * @param message
    *          The LDAP message to process.
+   * @param decodeNanoTime
+   *          The time spent decoding the LDAP message, in nanoseconds.
    * @return <CODE>true</CODE> if the appropriate action was taken for
    *         the request, or <CODE>false</CODE> if there was a fatal
    *         error and the client has been disconnected as a result, or
    *         if the client unbound from the server.
    */
-  boolean processLDAPMessage(LDAPMessage message)
+  boolean processLDAPMessage(LDAPMessage message, long decodeNanoTime)
   {
+    messageDecodeNanoTime = decodeNanoTime;
     if (keepStats)
     {
       statTracker.updateMessageRead(message);
@@ -1700,6 +1811,26 @@ public final class LDAPClientConnection extends ClientConnection implements
     return connectionValid;
   }
 
+  private void flushResponses()
+  {
+    try
+    {
+      responseWriter.flush();
+    }
+    catch (ClosedChannelException e)
+    {
+      logger.traceException(e);
+      disconnect(DisconnectReason.IO_ERROR, false,
+          ERR_IO_ERROR_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+    catch (Exception e)
+    {
+      logger.traceException(e);
+      disconnect(DisconnectReason.SERVER_ERROR, false,
+          ERR_UNEXPECTED_EXCEPTION_ON_CLIENT_CONNECTION.get(getExceptionMessage(e)));
+    }
+  }
+
   private void sendLDAPMessage(LDAPMessage message, ProtocolOp responseOp)
   {
     sendLDAPMessage(new LDAPMessage(message.getMessageID(), responseOp));
@@ -2258,6 +2389,20 @@ public final class LDAPClientConnection extends ClientConnection implements
       buffer.append(countPSearch);
       buffer.append("\"");
     }
+
+    PersistentSearchQueue psearchQueue = getPersistentSearchQueue();
+    if (countPSearch > 0 || psearchQueue.getDeliveredCount() > 0)
+    {
+      buffer.append(" psearchPendingNotifications=\"");
+      buffer.append(psearchQueue.getPendingCount());
+      buffer.append("\" psearchMaxPendingNotifications=\"");
+      buffer.append(psearchQueue.getMaxPendingCount());
+      buffer.append("\" psearchDeliveredNotifications=\"");
+      buffer.append(psearchQueue.getDeliveredCount());
+      buffer.append("\" psearchOverflows=\"");
+      buffer.append(psearchQueue.getOverflowCount());
+      buffer.append("\"");
+    }
     return buffer.toString();
   }
 
@@ -33,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.slf4j.LocalizedLogger;
@@ -158,6 +159,22 @@ public final class LDAPConnectionHandler extends
   /** The set of statistics collected for this connection handler. */
   private LDAPStatistics statTracker;
 
+  /** Reports the TLS handshakes of the client connections to the statistics. */
+  private final TLSByteChannel.HandshakeListener handshakeListener = new TLSByteChannel.HandshakeListener()
+  {
+    @Override
+    public void handshakeCompleted(long durationNanos, boolean isResumed)
+    {
+      statTracker.updateTLSHandshake(durationNanos, isResumed);
+    }
+
+    @Override
+    public void handshakeFailed()
+    {
+      statTracker.updateTLSHandshakeFailure();
+    }
+  };
+
   /** The client connection monitor provider associated with this connection handler. */
   private ClientConnectionMonitorProvider connMonitor;
 
@@ -1224,7 +1241,7 @@ public final class LDAPConnectionHandler extends
       throws DirectoryException
   {
     SSLEngine sslEngine = createSSLEngine(currentConfig, sslContext);
-    return new TLSByteChannel(channel, sslEngine);
+    return new TLSByteChannel(channel, sslEngine, keepStats() ? handshakeListener : null);
   }
 
   private SSLEngine createSSLEngine(LDAPConnectionHandlerCfg config,
@@ -1342,6 +1359,12 @@ public final class LDAPConnectionHandler extends
       SSLContext sslContext = SSLContext.getInstance(SSL_CONTEXT_INSTANCE_NAME);
       sslContext.init(keyManagers, trustManagerProvider.getTrustManagers(),
           null);
+
+      // Let clients resume their sessions rather than perform full handshakes
+      // when they reconnect.
+      final SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+      sessionContext.setSessionCacheSize(config.getSSLSessionCacheSize());
+      sessionContext.setSessionTimeout((int) Math.min(config.getSSLSessionTimeout(), Integer.MAX_VALUE));
       return sslContext;
     }
     catch (Exception e)
@@ -166,8 +166,9 @@ public class LDAPRequestHandler
             {
               if (!ldapMessageProcessed)
               {
-                if (readyConnection.processLDAPMessage(
-                    LDAPReader.readMessage(asn1Reader)))
+                final long decodeStartTime = System.nanoTime();
+                final LDAPMessage message = LDAPReader.readMessage(asn1Reader);
+                if (readyConnection.processLDAPMessage(message, System.nanoTime() - decodeStartTime))
                 {
                   ldapMessageProcessed = true;
                 }
@@ -20,6 +20,7 @@ import static org.opends.messages.ProtocolMessages.*;
 import static org.opends.server.protocols.ldap.LDAPConstants.*;
 import static org.opends.server.util.ServerConstants.*;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -27,8 +28,10 @@ import org.forgerock.opendj.config.server.ConfigException;
 import org.opends.server.api.MonitorData;
 import org.forgerock.opendj.server.config.server.MonitorProviderCfg;
 import org.opends.server.api.MonitorProvider;
+import org.opends.server.monitors.OperationLatencies;
 import org.opends.server.types.DirectoryConfig;
 import org.opends.server.types.ObjectClass;
+import org.opends.server.types.Operation;
 import org.opends.server.types.OperationType;
 
 /**
@@ -46,6 +49,8 @@ import org.opends.server.types.OperationType;
  * broken down by message type.</LI>
  * <LI>The total number of bytes read from LDAP clients.</LI>
  * <LI>The total number of bytes written to LDAP clients.</LI>
+ * <LI>The latency percentiles of the operations, broken down by
+ * operation type and processing phase.</LI>
  * </UL>
  * <BR>
  * <BR>
@@ -116,6 +121,19 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
   private AtomicLong extOperationCount = new AtomicLong(0);
   private AtomicLong extOperationTime = new AtomicLong(0);
 
+  // Monitor Objects : for TLS handshakes
+  private AtomicLong tlsHandshakeCount = new AtomicLong(0);
+  private AtomicLong tlsResumedHandshakeCount = new AtomicLong(0);
+  private AtomicLong tlsFailedHandshakeCount = new AtomicLong(0);
+  private AtomicLong tlsHandshakeTime = new AtomicLong(0);
+  /** The number of handshakes which ended during the current second, and during the previous one. */
+  private long tlsHandshakeSecond;
+  private long tlsHandshakesThisSecond;
+  private long tlsHandshakesLastSecond;
+
+  /** The latencies of the completed operations, and of their processing phases. */
+  private volatile OperationLatencies operationLatencies = new OperationLatencies();
+
   /**
    * Creates a new instance of this class with the specified parent.
    *
@@ -167,7 +185,7 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
      *        and associated with their objectclass
      *        OC_MONITOR_CONNHANDLERSTATS
      */
-    final MonitorData attrs = new MonitorData(31 + 10 * 2);
+    final MonitorData attrs = new MonitorData(31 + 10 * 2 + 5);
     attrs.add("connectionsEstablished", connectionsEstablished);
     attrs.add("connectionsClosed", connectionsClosed);
     attrs.add("bytesRead", bytesRead);
@@ -240,6 +258,16 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
     attrs.add("ds-mon-extended-operations-total-count", extOperationCount);
     attrs.add("ds-mon-resident-time-extended-operations-total-time", extOperationTime);
 
+    // TLS handshakes
+    attrs.add("ds-mon-tls-handshakes-total-count", tlsHandshakeCount);
+    attrs.add("ds-mon-tls-handshakes-resumed-count", tlsResumedHandshakeCount);
+    attrs.add("ds-mon-tls-handshakes-failed-count", tlsFailedHandshakeCount);
+    attrs.add("ds-mon-tls-handshakes-total-time", TimeUnit.NANOSECONDS.toMillis(tlsHandshakeTime.get()));
+    attrs.add("ds-mon-tls-handshakes-per-second", getTLSHandshakesLastSecond());
+
+    // latency percentiles
+    operationLatencies.addMonitorData(attrs);
+
     return attrs;
   }
 
@@ -298,6 +326,13 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       abandonOperationTime.set(0);
       extOperationCount.set(0);
       extOperationTime.set(0);
+
+      tlsHandshakeCount.set(0);
+      tlsResumedHandshakeCount.set(0);
+      tlsFailedHandshakeCount.set(0);
+      tlsHandshakeTime.set(0);
+
+      operationLatencies = new OperationLatencies();
   }
 
   /**
@@ -797,6 +832,29 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
       return unbindRequests.get();
   }
 
+  /**
+   * Retrieves the number of TLS handshakes which have completed.
+   *
+   * @return The number of TLS handshakes which have completed.
+   */
+  public long getTLSHandshakes()
+  {
+    return tlsHandshakeCount.get();
+  }
+
+  /**
+   * Retrieves the number of TLS handshakes which have resumed a previously
+   * established session. Resumed TLS 1.3 handshakes are counted as full
+   * handshakes, since they cannot be told apart.
+   *
+   * @return The number of TLS handshakes which have resumed a previously
+   *         established session.
+   */
+  public long getTLSResumedHandshakes()
+  {
+    return tlsResumedHandshakeCount.get();
+  }
+
   /**
    * Update the operation counters and times depending on the OperationType.
    * @param type of the operation.
@@ -845,4 +903,89 @@ public class LDAPStatistics extends MonitorProvider<MonitorProviderCfg>
           moddnOperationTime.getAndAdd(time);
       }
   }
+
+  /**
+   * Records the latencies of the provided operation, once its response has
+   * been sent.
+   *
+   * @param operation
+   *          The completed operation.
+   */
+  public void updateOperationLatencies(Operation operation)
+  {
+    long time = operation.getProcessingNanoTime();
+    if (time < 0)
+    {
+      time = TimeUnit.MILLISECONDS.toNanos(operation.getProcessingTime());
+    }
+    operationLatencies.record(operation, time);
+  }
+
+  /**
+   * Returns the latencies of the operations processed by the connections of
+   * this connection handler.
+   *
+   * @return The latencies of the operations processed by the connections of
+   *         this connection handler.
+   */
+  public OperationLatencies getOperationLatencies()
+  {
+    return operationLatencies;
+  }
+
+  /**
+   * Updates the TLS handshake counters to indicate that a handshake has
+   * completed.
+   *
+   * @param durationNanos
+   *          The duration of the handshake, in nanoseconds.
+   * @param isResumed
+   *          Whether the handshake resumed a previously established session.
+   */
+  public void updateTLSHandshake(long durationNanos, boolean isResumed)
+  {
+    tlsHandshakeCount.getAndIncrement();
+    if (isResumed)
+    {
+      tlsResumedHandshakeCount.getAndIncrement();
+    }
+    tlsHandshakeTime.getAndAdd(durationNanos);
+    countTLSHandshake();
+  }
+
+  /** Updates the TLS handshake counters to indicate that a handshake has failed. */
+  public void updateTLSHandshakeFailure()
+  {
+    tlsFailedHandshakeCount.getAndIncrement();
+    countTLSHandshake();
+  }
+
+  private synchronized void countTLSHandshake()
+  {
+    final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    if (second != tlsHandshakeSecond)
+    {
+      tlsHandshakesLastSecond = second == tlsHandshakeSecond + 1 ? tlsHandshakesThisSecond : 0;
+      tlsHandshakesThisSecond = 0;
+      tlsHandshakeSecond = second;
+    }
+    tlsHandshakesThisSecond++;
+  }
+
+  /**
+   * Retrieves the number of TLS handshakes which ended during the last
+   * complete second, which reveals reconnection storms.
+   *
+   * @return The number of TLS handshakes which ended during the last complete
+   *         second.
+   */
+  public synchronized long getTLSHandshakesLastSecond()
+  {
+    final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    if (second == tlsHandshakeSecond)
+    {
+      return tlsHandshakesLastSecond;
+    }
+    return second == tlsHandshakeSecond + 1 ? tlsHandshakesThisSecond : 0;
+  }
 }
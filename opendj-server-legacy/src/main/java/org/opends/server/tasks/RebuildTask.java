@@ -61,6 +61,8 @@ public class RebuildTask extends Task
   private String tmpDirectory;
   private RebuildMode rebuildMode = RebuildMode.USER_DEFINED;
   private boolean isClearDegradedState;
+  private boolean isOnline;
+  private int maxEntriesPerSecond;
 
   /** {@inheritDoc} */
   @Override
@@ -94,6 +96,9 @@ public class RebuildTask extends Task
     tmpDirectory = asString(taskEntry, ATTR_REBUILD_TMP_DIRECTORY);
     final String val = asString(taskEntry, ATTR_REBUILD_INDEX_CLEARDEGRADEDSTATE);
     isClearDegradedState = Boolean.parseBoolean(val);
+    isOnline = Boolean.parseBoolean(asString(taskEntry, ATTR_REBUILD_ONLINE));
+    maxEntriesPerSecond = TaskUtils.getSingleValueInteger(
+        taskEntry.getAttribute(getAttributeType(ATTR_REBUILD_MAX_ENTRIES_PER_SECOND)), 0);
 
     AttributeType typeIndex = getAttributeType(ATTR_REBUILD_INDEX);
     List<Attribute> attrList = taskEntry.getAttribute(typeIndex);
@@ -157,6 +162,30 @@ public class RebuildTask extends Task
     // The degraded state is set(if present in args)
     // during the initialization.
     rebuildConfig.isClearDegradedState(isClearDegradedState);
+    rebuildConfig.setOnline(isOnline);
+    rebuildConfig.setMaxEntriesPerSecond(maxEntriesPerSecond);
+    rebuildConfig.setProgressListener(new RebuildConfig.ProgressListener()
+    {
+      @Override
+      public void rebuildProgress(long processedEntries, long remainingEntries, long remainingSeconds)
+      {
+        try
+        {
+          replaceAttributeValue(ATTR_TASK_INITIALIZE_DONE, String.valueOf(processedEntries));
+          replaceAttributeValue(ATTR_TASK_INITIALIZE_LEFT, String.valueOf(remainingEntries));
+          if (remainingSeconds >= 0)
+          {
+            replaceAttributeValue(ATTR_REBUILD_REMAINING_TIME, String.valueOf(remainingSeconds));
+          }
+        }
+        catch (DirectoryException e)
+        {
+          logger.traceException(e);
+        }
+      }
+    });
+    // The backend remains enabled when only clearing the degraded state, or when rebuilding online.
+    final boolean keepBackendEnabled = isClearDegradedState || isOnline;
     boolean isBackendNeedToBeEnabled = false;
 
     if (tmpDirectory == null)
@@ -179,13 +208,13 @@ public class RebuildTask extends Task
     }
 
     // If we are rebuilding one or more system indexes, we have
-    // to acquire exclusive lock. Shared lock in 'cleardegradedstate' mode.
+    // to acquire exclusive lock. Shared lock in 'cleardegradedstate' and online modes.
     String lockFile = LockFileManager.getBackendLockFileName(backend);
     StringBuilder failureReason = new StringBuilder();
 
     // Disable the backend
-    // Except in 'cleardegradedstate' mode we don't need to disable it.
-    if (!isClearDegradedState)
+    // Except in 'cleardegradedstate' and online modes we don't need to disable it.
+    if (!keepBackendEnabled)
     {
       try
       {
@@ -282,7 +311,7 @@ public class RebuildTask extends Task
     // The backend must be enabled only if the task is successful
     // for prevent potential risks of database corruption.
     if ((returnCode == TaskState.COMPLETED_SUCCESSFULLY || isBackendNeedToBeEnabled)
-        && !isClearDegradedState)
+        && !keepBackendEnabled)
     {
       // Enable the backend.
       try
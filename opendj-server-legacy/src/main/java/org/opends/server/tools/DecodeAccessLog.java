@@ -0,0 +1,412 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.tools;
+
+import static com.forgerock.opendj.cli.CommonArguments.*;
+import static com.forgerock.opendj.cli.Utils.*;
+
+import static org.opends.messages.ToolMessages.*;
+import static org.opends.server.protocols.ldap.LDAPResultCode.*;
+import static org.opends.server.util.ServerConstants.*;
+import static org.opends.server.util.StaticUtils.*;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.i18n.LocalizableMessage;
+import org.opends.server.core.DirectoryServer.DirectoryServerVersionHandler;
+import org.opends.server.loggers.BinaryAccessLogReader;
+import org.opends.server.loggers.BinaryAccessLogRecord;
+import org.opends.server.loggers.JDKLogging;
+import org.opends.server.types.NullOutputStream;
+
+import com.forgerock.opendj.cli.ArgumentException;
+import com.forgerock.opendj.cli.ArgumentParser;
+import com.forgerock.opendj.cli.BooleanArgument;
+import com.forgerock.opendj.cli.IntegerArgument;
+import com.forgerock.opendj.cli.MultiChoiceArgument;
+import com.forgerock.opendj.cli.StringArgument;
+
+/**
+ * This class provides a program that converts the binary access logs written by the binary file based access log
+ * publishers to text, as written by the file based access log publishers, or to CSV. It can also select the log
+ * records of some types, containing some items, or whose processing time exceeds a threshold.
+ */
+public class DecodeAccessLog
+{
+  /** The fully-qualified name of this class. */
+  private static final String CLASS_NAME = "org.opends.server.tools.DecodeAccessLog";
+
+  private static final String FORMAT_TEXT = "text";
+  private static final String FORMAT_CSV = "csv";
+  /** The default value of the log-record-time-format property of the file based access log publishers. */
+  private static final String DEFAULT_TIME_FORMAT = "dd/MMM/yyyy:HH:mm:ss Z";
+  /** The items written in their own column of the CSV output, the other items being written in the last column. */
+  private static final String[] CSV_COLUMNS = { "conn", "op", "msgID", "dn", "result", "etime" };
+
+  /**
+   * Provides the command line arguments to the <CODE>mainDecode</CODE> method so that they can be processed.
+   *
+   * @param args
+   *          The command line arguments provided to this program.
+   */
+  public static void main(String[] args)
+  {
+    int exitCode = mainDecode(args, System.out, System.err);
+    if (exitCode != 0)
+    {
+      System.exit(filterExitCode(exitCode));
+    }
+  }
+
+  /**
+   * Parses the provided command line arguments and decodes the binary access logs.
+   *
+   * @param args
+   *          The command line arguments provided to this program.
+   * @param outStream
+   *          The output stream to use for standard output, or {@code null} if standard output is not needed.
+   * @param errStream
+   *          The output stream to use for standard error, or {@code null} if standard error is not needed.
+   * @return The return code for this operation. A value of zero indicates that all processing completed
+   *         successfully. A nonzero value indicates that some problem occurred during processing.
+   */
+  public static int mainDecode(String[] args, OutputStream outStream, OutputStream errStream)
+  {
+    PrintStream out = NullOutputStream.wrapOrNullStream(outStream);
+    PrintStream err = NullOutputStream.wrapOrNullStream(errStream);
+    JDKLogging.disableLogging();
+
+    StringArgument logFile;
+    StringArgument outputFile;
+    MultiChoiceArgument<String> outputFormat;
+    StringArgument timeFormat;
+    StringArgument recordType;
+    StringArgument match;
+    IntegerArgument minEtime;
+    BooleanArgument showUsage;
+
+    LocalizableMessage toolDescription = INFO_DECODE_ACCESS_LOG_TOOL_DESCRIPTION.get();
+    ArgumentParser argParser = new ArgumentParser(CLASS_NAME, toolDescription, false);
+    argParser.setShortToolDescription(REF_SHORT_DESC_DECODE_ACCESS_LOG.get());
+    argParser.setVersionHandler(new DirectoryServerVersionHandler());
+
+    try
+    {
+      logFile =
+              StringArgument.builder("logFile")
+                      .shortIdentifier('f')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_LOG_FILE.get())
+                      .multiValued()
+                      .required()
+                      .valuePlaceholder(INFO_FILE_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      outputFile =
+              StringArgument.builder("outputFile")
+                      .shortIdentifier('o')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_OUTPUT_FILE.get())
+                      .valuePlaceholder(INFO_OUTPUT_FILE_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      outputFormat =
+              MultiChoiceArgument.<String>builder("outputFormat")
+                      .shortIdentifier('F')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_OUTPUT_FORMAT.get())
+                      .allowedValues(FORMAT_TEXT, FORMAT_CSV)
+                      .defaultValue(FORMAT_TEXT)
+                      .valuePlaceholder(INFO_DECODE_ACCESS_LOG_FORMAT_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      timeFormat =
+              StringArgument.builder("timeFormat")
+                      .shortIdentifier('T')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_TIME_FORMAT.get())
+                      .defaultValue(DEFAULT_TIME_FORMAT)
+                      .valuePlaceholder(INFO_DECODE_ACCESS_LOG_TIME_FORMAT_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      recordType =
+              StringArgument.builder("type")
+                      .shortIdentifier('t')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_TYPE.get())
+                      .multiValued()
+                      .valuePlaceholder(INFO_DECODE_ACCESS_LOG_TYPE_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      match =
+              StringArgument.builder("match")
+                      .shortIdentifier('m')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_MATCH.get())
+                      .multiValued()
+                      .valuePlaceholder(INFO_DECODE_ACCESS_LOG_MATCH_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+      minEtime =
+              IntegerArgument.builder("minEtime")
+                      .shortIdentifier('e')
+                      .description(INFO_DECODE_ACCESS_LOG_DESCRIPTION_MIN_ETIME.get())
+                      .lowerBound(0)
+                      .valuePlaceholder(INFO_DECODE_ACCESS_LOG_ETIME_PLACEHOLDER.get())
+                      .buildAndAddToParser(argParser);
+
+      showUsage = showUsageArgument();
+      argParser.addArgument(showUsage);
+      argParser.setUsageArgument(showUsage);
+    }
+    catch (ArgumentException ae)
+    {
+      printWrappedText(err, ERR_CANNOT_INITIALIZE_ARGS.get(ae.getMessage()));
+      return 1;
+    }
+
+    // Parse the command-line arguments provided to the program.
+    try
+    {
+      argParser.parseArguments(args);
+    }
+    catch (ArgumentException ae)
+    {
+      argParser.displayMessageAndUsageReference(err, ERR_ERROR_PARSING_ARGS.get(ae.getMessage()));
+      return CLIENT_SIDE_PARAM_ERROR;
+    }
+
+    // If we should just display usage or version information,
+    // then print it and exit.
+    if (argParser.usageOrVersionDisplayed())
+    {
+      return 0;
+    }
+
+    final DateFormat dateFormat;
+    try
+    {
+      dateFormat = new SimpleDateFormat(timeFormat.getValue());
+    }
+    catch (IllegalArgumentException e)
+    {
+      printWrappedText(err, ERR_DECODE_ACCESS_LOG_INVALID_TIME_FORMAT.get(timeFormat.getValue(), e.getMessage()));
+      return CLIENT_SIDE_PARAM_ERROR;
+    }
+
+    final List<String> matchLabels = new ArrayList<>();
+    final List<String> matchValues = new ArrayList<>();
+    for (String value : match.getValues())
+    {
+      final int equals = value.indexOf('=');
+      if (equals <= 0)
+      {
+        printWrappedText(err, ERR_DECODE_ACCESS_LOG_INVALID_MATCH.get(value));
+        return CLIENT_SIDE_PARAM_ERROR;
+      }
+      matchLabels.add(value.substring(0, equals));
+      matchValues.add(value.substring(equals + 1));
+    }
+    final Set<String> types = new HashSet<>();
+    for (String type : recordType.getValues())
+    {
+      types.add(toUpperCase(type));
+    }
+    final long minimumEtime;
+    try
+    {
+      minimumEtime = minEtime.isPresent() ? minEtime.getIntValue() : -1;
+    }
+    catch (ArgumentException e)
+    {
+      printWrappedText(err, e.getMessageObject());
+      return CLIENT_SIDE_PARAM_ERROR;
+    }
+    final boolean csv = FORMAT_CSV.equals(outputFormat.getValue());
+
+    Writer writer = null;
+    try
+    {
+      final OutputStream output = outputFile.isPresent() ? new FileOutputStream(outputFile.getValue()) : out;
+      writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+    catch (IOException e)
+    {
+      printWrappedText(err, ERR_DECODE_ACCESS_LOG_CANNOT_WRITE.get(outputFile.getValue(), getExceptionMessage(e)));
+      return 1;
+    }
+
+    final StringBuilder buffer = new StringBuilder();
+    try
+    {
+      if (csv)
+      {
+        buffer.append("time,type,category");
+        for (String column : CSV_COLUMNS)
+        {
+          buffer.append(',').append(column);
+        }
+        buffer.append(",items");
+        writeLine(writer, buffer);
+      }
+
+      for (String fileName : logFile.getValues())
+      {
+        try (BinaryAccessLogReader reader = new BinaryAccessLogReader(new FileInputStream(fileName)))
+        {
+          BinaryAccessLogRecord record;
+          while ((record = reader.readRecord()) != null)
+          {
+            if (!isSelected(record, types, matchLabels, matchValues, minimumEtime))
+            {
+              continue;
+            }
+            if (csv)
+            {
+              appendCsv(record, buffer, dateFormat);
+            }
+            else
+            {
+              record.toString(buffer, dateFormat);
+            }
+            writeLine(writer, buffer);
+          }
+        }
+        catch (IOException e)
+        {
+          writer.flush();
+          printWrappedText(err, ERR_DECODE_ACCESS_LOG_CANNOT_READ.get(fileName, getExceptionMessage(e)));
+          return 1;
+        }
+      }
+      writer.flush();
+    }
+    catch (IOException e)
+    {
+      printWrappedText(err, ERR_DECODE_ACCESS_LOG_CANNOT_WRITE.get(
+          outputFile.isPresent() ? outputFile.getValue() : "-", getExceptionMessage(e)));
+      return 1;
+    }
+    finally
+    {
+      if (outputFile.isPresent())
+      {
+        close(writer);
+      }
+    }
+    return 0;
+  }
+
+  private static boolean isSelected(BinaryAccessLogRecord record, Set<String> types, List<String> matchLabels,
+      List<String> matchValues, long minimumEtime)
+  {
+    if (!types.isEmpty() && !types.contains(record.getType()))
+    {
+      return false;
+    }
+    for (int i = 0; i < matchLabels.size(); i++)
+    {
+      if (!matchValues.get(i).equals(record.getValue(matchLabels.get(i))))
+      {
+        return false;
+      }
+    }
+    if (minimumEtime >= 0)
+    {
+      final String etime = record.getValue("etime");
+      try
+      {
+        return etime != null && Long.parseLong(etime) >= minimumEtime;
+      }
+      catch (NumberFormatException e)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void appendCsv(BinaryAccessLogRecord record, StringBuilder buffer, DateFormat dateFormat)
+  {
+    appendCsvValue(buffer, dateFormat.format(record.getTime()));
+    buffer.append(',');
+    appendCsvValue(buffer, record.getType());
+    buffer.append(',');
+    appendCsvValue(buffer, record.getCategory());
+    final Set<String> columns = new HashSet<>();
+    for (String column : CSV_COLUMNS)
+    {
+      buffer.append(',');
+      String value = record.getValue(column);
+      if (value == null && "dn".equals(column))
+      {
+        value = record.getValue("base");
+        columns.add("base");
+      }
+      appendCsvValue(buffer, value);
+      columns.add(column);
+    }
+    buffer.append(',');
+    final StringBuilder items = new StringBuilder();
+    final List<String> labels = record.getLabels();
+    final List<String> rawValues = record.getRawValues();
+    for (int i = 0; i < labels.size(); i++)
+    {
+      if (!columns.contains(labels.get(i)))
+      {
+        if (items.length() > 0)
+        {
+          items.append(' ');
+        }
+        items.append(labels.get(i)).append('=').append(rawValues.get(i));
+      }
+    }
+    appendCsvValue(buffer, items.toString());
+  }
+
+  private static void appendCsvValue(StringBuilder buffer, String value)
+  {
+    if (value == null)
+    {
+      return;
+    }
+    if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1)
+    {
+      buffer.append(value);
+      return;
+    }
+    buffer.append('"');
+    for (int i = 0; i < value.length(); i++)
+    {
+      final char c = value.charAt(i);
+      if (c == '"')
+      {
+        buffer.append('"');
+      }
+      buffer.append(c);
+    }
+    buffer.append('"');
+  }
+
+  private static void writeLine(Writer writer, StringBuilder buffer) throws IOException
+  {
+    buffer.append(EOL);
+    writer.append(buffer);
+    buffer.setLength(0);
+  }
+}
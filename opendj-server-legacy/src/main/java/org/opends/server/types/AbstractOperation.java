@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.i18n.LocalizableMessageBuilder;
@@ -34,6 +35,7 @@ import org.opends.server.api.ClientConnection;
 import org.opends.server.api.plugin.PluginResult.OperationResult;
 import org.opends.server.controls.ControlDecoder;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.core.OperationTracer;
 import org.opends.server.protocols.ldap.LDAPControl;
 import org.opends.server.types.operation.PostResponseOperation;
 import org.opends.server.types.operation.PreParseOperation;
@@ -135,6 +137,13 @@ public abstract class AbstractOperation
   private long processingStartNanoTime;
   /** The time that processing ended on this operation in nanoseconds. */
   private long processingStopNanoTime;
+  /** The time that this operation was created, used to measure the time spent in the work queue. */
+  private final long creationNanoTime = System.nanoTime();
+  /**
+   * The time spent in each phase of the processing of this operation in nanoseconds. The phases of an operation may be
+   * measured by several threads, for instance by the worker thread and by the thread writing the search results.
+   */
+  private final AtomicLongArray phaseNanoTimes = new AtomicLongArray(OperationPhase.count());
 
   /** The callbacks to be invoked once a response has been sent. */
   private List<Runnable> postResponseCallbacks;
@@ -579,9 +588,15 @@ public abstract class AbstractOperation
   public final void setProcessingStartTime()
   {
     processingStartTime = System.currentTimeMillis();
+    final long now = System.nanoTime();
     if(useNanoTime)
     {
-      processingStartNanoTime = System.nanoTime();
+      processingStartNanoTime = now;
+    }
+    phaseNanoTimes.set(OperationPhase.QUEUE.ordinal(), now - creationNanoTime);
+    if (!isInternalOperation())
+    {
+      OperationTracer.getInstance().operationStarted(this);
     }
   }
 
@@ -621,6 +636,18 @@ public abstract class AbstractOperation
     return -1;
   }
 
+  @Override
+  public final long getPhaseNanoTime(OperationPhase phase)
+  {
+    return phaseNanoTimes.get(phase.ordinal());
+  }
+
+  @Override
+  public final void addPhaseNanoTime(OperationPhase phase, long nanoTime)
+  {
+    phaseNanoTimes.addAndGet(phase.ordinal(), nanoTime);
+  }
+
   @Override
   public final void registerPostResponseCallback(Runnable callback)
   {
@@ -3666,6 +3666,33 @@ public class Entry
    */
   public boolean toLDIF(LDIFExportConfig exportConfig)
          throws IOException, LDIFException
+  {
+    return toLDIF(exportConfig, null);
+  }
+
+
+  /**
+   * Writes this entry in LDIF form to the provided writer according
+   * to the provided configuration. This allows entries to be encoded
+   * concurrently, for example by a parallel export.
+   *
+   * @param  exportConfig  The configuration that specifies how the
+   *                       entry should be written.
+   * @param  ldifWriter    The writer to which the entry should be
+   *                       written, or {@code null} to use the writer
+   *                       of the export configuration.
+   *
+   * @return  <CODE>true</CODE> if the entry is actually written, or
+   *          <CODE>false</CODE> if it is not for some reason.
+   *
+   * @throws  IOException  If a problem occurs while writing the
+   *                       information.
+   *
+   * @throws  LDIFException  If a problem occurs while trying to
+   *                         determine whether to write the entry.
+   */
+  public boolean toLDIF(LDIFExportConfig exportConfig, BufferedWriter ldifWriter)
+         throws IOException, LDIFException
   {
     // See if this entry should be included in the export at all.
     try
@@ -3702,7 +3729,7 @@ public class Entry
 
 
     // Get the information necessary to write the LDIF.
-    BufferedWriter writer     = exportConfig.getWriter();
+    BufferedWriter writer     = ldifWriter != null ? ldifWriter : exportConfig.getWriter();
     int            wrapColumn = exportConfig.getWrapColumn();
     boolean        wrapLines  = wrapColumn > 1;
 
@@ -35,6 +35,7 @@ import java.util.zip.GZIPOutputStream;
 import org.forgerock.i18n.LocalizableMessage;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.schema.AttributeType;
+import org.opends.server.util.LDIFChunkChecksums;
 import org.opends.server.util.StaticUtils;
 
 /**
@@ -78,6 +79,8 @@ public final class LDIFExportConfig extends OperationConfig
   private BufferedWriter writer;
   /** The output stream to which the LDIF data should be written. */
   private OutputStream ldifOutputStream;
+  /** The output stream to which already encoded blocks of LDIF data should be written. */
+  private OutputStream blockOutputStream;
 
   /**
    * The behavior that should be used when writing an LDIF file and a file with
@@ -87,6 +90,8 @@ public final class LDIFExportConfig extends OperationConfig
 
   /** The column number at which long lines should be wrapped. */
   private int wrapColumn;
+  /** The number of threads used to read and encode the entries. */
+  private int threadCount;
 
   /** The set of base DNs to exclude from the export. */
   private List<DN> excludeBranches;
@@ -136,6 +141,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -168,6 +174,7 @@ public final class LDIFExportConfig extends OperationConfig
     excludeAttributes            = new HashSet<>();
     includeAttributes            = new HashSet<>();
     wrapColumn                   = -1;
+    threadCount                  = 1;
   }
 
   /**
@@ -185,72 +192,15 @@ public final class LDIFExportConfig extends OperationConfig
   {
     if (writer == null)
     {
-      if (ldifOutputStream == null)
-      {
-        File f = new File(ldifFile);
-        boolean mustSetPermissions = false;
-
-        switch (existingFileBehavior)
-        {
-        case APPEND:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, true);
-          break;
-        case OVERWRITE:
-          // Create new file if it doesn't exist ensuring that we can
-          // set its permissions.
-          if (!f.exists())
-          {
-            f.createNewFile();
-            mustSetPermissions = true;
-          }
-          ldifOutputStream = new FileOutputStream(ldifFile, false);
-          break;
-        case FAIL:
-          if (f.exists())
-          {
-            LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
-            throw new IOException(message.toString());
-          }
-          // Create new file ensuring that we can set its permissions.
-          f.createNewFile();
-          mustSetPermissions = true;
-          ldifOutputStream = new FileOutputStream(ldifFile);
-          break;
-        }
-
-        if (mustSetPermissions)
-        {
-          try
-          {
-            // Ignore
-            FilePermission.setSafePermissions(f, 0600);
-          }
-          catch (Exception e)
-          {
-            // The file could not be created with the correct permissions.
-            LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
-                .get(f, stackTraceToSingleLineString(e));
-            throw new IOException(message.toString());
-          }
-        }
-      }
-
       // See if we should compress the output.
       OutputStream outputStream;
       if (compressData)
       {
-        outputStream = new GZIPOutputStream(ldifOutputStream);
+        outputStream = new GZIPOutputStream(openOutputStream());
       }
       else
       {
-        outputStream = ldifOutputStream;
+        outputStream = openOutputStream();
       }
 
 
@@ -268,6 +218,109 @@ public final class LDIFExportConfig extends OperationConfig
     return writer;
   }
 
+  /**
+   * Retrieves the output stream to which blocks of LDIF data, already
+   * encoded and compressed if needed, should be written. This is used
+   * by parallel exports, which compress each block as a separate GZIP
+   * member: the concatenation of the members is a valid compressed
+   * LDIF file. This method must not be used together with
+   * {@link #getWriter()}.
+   *
+   * @return  The output stream to which the blocks of LDIF data
+   *          should be written.
+   *
+   * @throws  IOException  If a problem occurs while preparing the
+   *                       output stream.
+   */
+  public OutputStream getBlockOutputStream()
+         throws IOException
+  {
+    if (blockOutputStream == null)
+    {
+      blockOutputStream = openOutputStream();
+    }
+    return blockOutputStream;
+  }
+
+  private OutputStream openOutputStream() throws IOException
+  {
+    if (ldifOutputStream == null)
+    {
+      File f = new File(ldifFile);
+      boolean mustSetPermissions = false;
+
+      switch (existingFileBehavior)
+      {
+      case APPEND:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
+        {
+          f.createNewFile();
+          mustSetPermissions = true;
+        }
+        ldifOutputStream = new FileOutputStream(ldifFile, true);
+        break;
+      case OVERWRITE:
+        // Create new file if it doesn't exist ensuring that we can
+        // set its permissions.
+        if (!f.exists())
+        {
+          f.createNewFile();
+          mustSetPermissions = true;
+        }
+        ldifOutputStream = new FileOutputStream(ldifFile, false);
+        break;
+      case FAIL:
+        if (f.exists())
+        {
+          LocalizableMessage message = ERR_LDIF_FILE_EXISTS.get(ldifFile);
+          throw new IOException(message.toString());
+        }
+        // Create new file ensuring that we can set its permissions.
+        f.createNewFile();
+        mustSetPermissions = true;
+        ldifOutputStream = new FileOutputStream(ldifFile);
+        break;
+      }
+
+      if (existingFileBehavior != ExistingFileBehavior.APPEND)
+      {
+        // The checksums of a previous export no longer match the file.
+        LDIFChunkChecksums.getChecksumFile(f).delete();
+      }
+
+      if (mustSetPermissions)
+      {
+        try
+        {
+          // Ignore
+          FilePermission.setSafePermissions(f, 0600);
+        }
+        catch (Exception e)
+        {
+          // The file could not be created with the correct permissions.
+          LocalizableMessage message = WARN_EXPORT_LDIF_SET_PERMISSION_FAILED
+              .get(f, stackTraceToSingleLineString(e));
+          throw new IOException(message.toString());
+        }
+      }
+    }
+    return ldifOutputStream;
+  }
+
+  /**
+   * Retrieves the path to the LDIF file that should be written.
+   *
+   * @return  The path to the LDIF file that should be written, or
+   *          {@code null} if the LDIF data is written to an output
+   *          stream.
+   */
+  public String getLDIFFile()
+  {
+    return ldifFile;
+  }
+
   /**
    * Indicates whether the LDIF export plugins should be invoked for
    * entries as they are exported.
@@ -294,6 +347,18 @@ public final class LDIFExportConfig extends OperationConfig
     this.invokeExportPlugins = invokeExportPlugins;
   }
 
+  /**
+   * Indicates whether the LDIF data should be compressed as it is
+   * written.
+   *
+   * @return  <CODE>true</CODE> if the LDIF data should be compressed
+   *          as it is written, or <CODE>false</CODE> if not.
+   */
+  public boolean compressData()
+  {
+    return compressData;
+  }
+
   /**
    * Specifies whether the LDIF data should be compressed as it is
    * written.  If compression should be used, then this must be set
@@ -452,6 +517,32 @@ public final class LDIFExportConfig extends OperationConfig
     this.wrapColumn = wrapColumn;
   }
 
+  /**
+   * Retrieves the number of threads used to read and encode the
+   * entries. With more than one thread, the entries are exported in
+   * parallel, in blocks which are reassembled in order.
+   *
+   * @return  The number of threads used to read and encode the
+   *          entries.
+   */
+  public int getThreadCount()
+  {
+    return threadCount;
+  }
+
+  /**
+   * Specifies the number of threads used to read and encode the
+   * entries.
+   *
+   * @param  threadCount  The number of threads used to read and
+   *                      encode the entries, where values lower
+   *                      than 2 disable parallel exports.
+   */
+  public void setThreadCount(int threadCount)
+  {
+    this.threadCount = threadCount;
+  }
+
   /**
    * Retrieves the set of base DNs that specify the set of entries to
    * exclude from the export.  The list that is returned may be
@@ -821,6 +912,6 @@ public final class LDIFExportConfig extends OperationConfig
   public void close()
   {
     // FIXME -- Need to add code to generate a signed hash of the LDIF content.
-    StaticUtils.close(writer);
+    StaticUtils.close(writer, blockOutputStream);
   }
 }
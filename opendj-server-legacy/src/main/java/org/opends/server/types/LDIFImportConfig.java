@@ -44,6 +44,7 @@ import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.tools.makeldif.MakeLDIFInputStream;
 import org.opends.server.tools.makeldif.TemplateFile;
 import org.opends.server.util.CollectionUtils;
+import org.opends.server.util.LDIFChunkChecksums;
 import org.opends.server.util.StaticUtils;
 
 /**
@@ -235,7 +236,7 @@ public final class LDIFImportConfig extends OperationConfig
       else
       {
         inputStream = ldifInputStream =
-             new FileInputStream(ldifFileIterator.next());
+             openLDIFFile(ldifFileIterator.next());
       }
 
       if (isEncrypted)
@@ -278,7 +279,7 @@ public final class LDIFImportConfig extends OperationConfig
     reader.close();
 
     InputStream inputStream = ldifInputStream =
-         new FileInputStream(ldifFileIterator.next());
+         openLDIFFile(ldifFileIterator.next());
 
     if (isEncrypted)
     {
@@ -296,6 +297,18 @@ public final class LDIFImportConfig extends OperationConfig
 
 
 
+  /**
+   * Opens an LDIF file after verifying its integrity if it has been
+   * written along with the checksums of its chunks.
+   */
+  private InputStream openLDIFFile(String ldifFile) throws IOException
+  {
+    LDIFChunkChecksums.verify(new File(ldifFile));
+    return new FileInputStream(ldifFile);
+  }
+
+
+
   /**
    * Retrieves the writer that should be used to write entries that
    * are rejected rather than imported for some reason.
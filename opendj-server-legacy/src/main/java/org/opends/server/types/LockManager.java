@@ -24,6 +24,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.util.Reject;
+import org.opends.server.core.OperationTracer;
 
 /**
  * A lock manager coordinates directory update operations so that the DIT structure remains in a
@@ -348,7 +349,15 @@ public final class LockManager
    */
   public DNLock tryReadLockEntry(final DN entry)
   {
-    return acquireLockFromCache(entry).tryReadLockEntry();
+    final long startTime = OperationTracer.startPhase();
+    try
+    {
+      return acquireLockFromCache(entry).tryReadLockEntry();
+    }
+    finally
+    {
+      OperationTracer.endPhase(OperationPhase.LOCK, startTime);
+    }
   }
 
   /**
@@ -361,7 +370,15 @@ public final class LockManager
    */
   public DNLock tryWriteLockEntry(final DN entry)
   {
-    return acquireLockFromCache(entry).tryWriteLockEntry();
+    final long startTime = OperationTracer.startPhase();
+    try
+    {
+      return acquireLockFromCache(entry).tryWriteLockEntry();
+    }
+    finally
+    {
+      OperationTracer.endPhase(OperationPhase.LOCK, startTime);
+    }
   }
 
   /**
@@ -375,7 +392,15 @@ public final class LockManager
    */
   public DNLock tryWriteLockSubtree(final DN subtree)
   {
-    return acquireLockFromCache(subtree).tryWriteLockSubtree();
+    final long startTime = OperationTracer.startPhase();
+    try
+    {
+      return acquireLockFromCache(subtree).tryWriteLockSubtree();
+    }
+    finally
+    {
+      OperationTracer.endPhase(OperationPhase.LOCK, startTime);
+    }
   }
 
   /** For unit testing. */
@@ -555,6 +555,26 @@ public interface Operation extends Runnable
    */
   long getProcessingNanoTime();
 
+  /**
+   * Retrieves the length of time in nanoseconds that the server spent
+   * in the provided phase of the processing of this operation.
+   *
+   * @param  phase  The phase of the processing of this operation.
+   *
+   * @return  The length of time in nanoseconds that the server spent
+   *          in the provided phase, or 0 if it was not measured.
+   */
+  long getPhaseNanoTime(OperationPhase phase);
+
+  /**
+   * Adds the provided length of time to the time that the server spent
+   * in the provided phase of the processing of this operation.
+   *
+   * @param  phase     The phase of the processing of this operation.
+   * @param  nanoTime  The length of time in nanoseconds to add.
+   */
+  void addPhaseNanoTime(OperationPhase phase, long nanoTime);
+
   /**
    * Indicates that processing on this operation has completed
    * successfully and that the client should perform any associated
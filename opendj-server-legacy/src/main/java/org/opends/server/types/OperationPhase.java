@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.types;
+
+/**
+ * This enumeration defines the phases of the processing of an operation whose
+ * duration is measured by the Directory Server.
+ */
+@org.opends.server.types.PublicAPI(
+     stability=org.opends.server.types.StabilityLevel.UNCOMMITTED,
+     mayInstantiate=false,
+     mayExtend=false,
+     mayInvoke=true)
+public enum OperationPhase
+{
+  /** The time spent decoding the request. */
+  DECODE("decode"),
+  /** The time spent waiting in the work queue before processing started. */
+  QUEUE("queue"),
+  /** The time spent in the pre-parse plugins. */
+  PRE_PARSE_PLUGINS("preparse"),
+  /** The time spent evaluating access control. */
+  ACCESS_CONTROL("aci"),
+  /**
+   * The time spent acquiring entry locks, which is part of the backend time.
+   * It is only measured for the operations traced by the
+   * {@link org.opends.server.core.OperationTracer}.
+   */
+  LOCK("lock"),
+  /**
+   * The time spent reading indexes, which is part of the backend time. It is
+   * only measured for the operations traced by the
+   * {@link org.opends.server.core.OperationTracer}.
+   */
+  INDEX("index"),
+  /**
+   * The time spent reading and decoding entries, which is part of the backend
+   * time. It is only measured for the operations traced by the
+   * {@link org.opends.server.core.OperationTracer}.
+   */
+  ENTRY_DECODE("entrydecode"),
+  /** The time spent in the backend, excluding the access control evaluation. */
+  BACKEND("backend"),
+  /** The time spent writing the responses to the client. */
+  RESPONSE_WRITE("write");
+
+  /** The number of phases. */
+  private static final int COUNT = values().length;
+
+  /** The short name of this phase, used in monitoring attribute names. */
+  private final String phaseName;
+
+  private OperationPhase(String phaseName)
+  {
+    this.phaseName = phaseName;
+  }
+
+  /**
+   * Retrieves the short name of this phase, used in monitoring attribute names.
+   *
+   * @return  The short name of this phase.
+   */
+  public String getPhaseName()
+  {
+    return phaseName;
+  }
+
+  /**
+   * Retrieves the number of phases.
+   *
+   * @return  The number of phases.
+   */
+  public static int count()
+  {
+    return COUNT;
+  }
+}
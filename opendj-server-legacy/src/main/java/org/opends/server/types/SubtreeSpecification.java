@@ -1330,8 +1330,22 @@ public final class SubtreeSpecification
    */
   public boolean isWithinScope(final Entry entry)
   {
-    return isDNWithinScope(entry.getName())
-        && (refinements == null || refinements.matches(entry));
+    return isDNWithinScope(entry.getName()) && isRefinementsMatch(entry);
+  }
+
+  /**
+   * Determine if an entry matches the refinements of the subtree
+   * specification, regardless of its DN.
+   *
+   * @param entry
+   *          The entry.
+   * @return {@code true} if the subtree specification has no
+   *         refinements or if the entry matches them, or
+   *         {@code false} if not.
+   */
+  public boolean isRefinementsMatch(final Entry entry)
+  {
+    return refinements == null || refinements.matches(entry);
   }
 
   /**
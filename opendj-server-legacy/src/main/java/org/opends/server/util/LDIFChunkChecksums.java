@@ -0,0 +1,169 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import static org.opends.messages.UtilityMessages.*;
+import static org.opends.server.util.ServerConstants.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Records the CRC-32 checksums of the chunks of an LDIF file written by a parallel export, so that the integrity of
+ * the file can be verified before importing it, without parsing nor decompressing it.
+ * <p>
+ * The checksums are stored in a file having the name of the LDIF file followed by {@link #FILE_SUFFIX}, with one line
+ * per chunk holding its offset, its length and its checksum in hexadecimal. The chunks are checksummed as written, so
+ * after compression when the LDIF file is compressed.
+ */
+public final class LDIFChunkChecksums
+{
+  /** The suffix appended to the name of an LDIF file to get the name of its checksum file. */
+  public static final String FILE_SUFFIX = ".crc32";
+
+  private static final String HEADER = "# offset length crc32";
+
+  private final StringBuilder lines = new StringBuilder(HEADER).append(EOL);
+  private long offset;
+
+  /**
+   * Creates the checksums of chunks appended to an LDIF file.
+   *
+   * @param offset
+   *          the length of the LDIF file before the first chunk is appended
+   */
+  public LDIFChunkChecksums(long offset)
+  {
+    this.offset = offset;
+  }
+
+  /**
+   * Returns the checksum file of an LDIF file.
+   *
+   * @param ldifFile
+   *          the LDIF file
+   * @return the checksum file of the LDIF file, which may not exist
+   */
+  public static File getChecksumFile(File ldifFile)
+  {
+    return new File(ldifFile.getPath() + FILE_SUFFIX);
+  }
+
+  /**
+   * Records the checksum of the next chunk appended to the LDIF file.
+   *
+   * @param chunk
+   *          the bytes of the chunk, as written to the LDIF file
+   */
+  public void addChunk(byte[] chunk)
+  {
+    final CRC32 crc = new CRC32();
+    crc.update(chunk);
+    lines.append(offset).append(' ').append(chunk.length).append(' ').append(Long.toHexString(crc.getValue()))
+         .append(EOL);
+    offset += chunk.length;
+  }
+
+  /**
+   * Writes the recorded checksums to the checksum file of an LDIF file, replacing any existing one.
+   *
+   * @param ldifFile
+   *          the LDIF file whose chunks have been recorded
+   * @throws IOException
+   *           if the checksum file cannot be written
+   */
+  public void write(File ldifFile) throws IOException
+  {
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(getChecksumFile(ldifFile))))
+    {
+      writer.write(lines.toString());
+    }
+  }
+
+  /**
+   * Verifies the chunks of an LDIF file against the checksums recorded by the export which wrote it. Nothing is
+   * verified if the LDIF file has no checksum file.
+   *
+   * @param ldifFile
+   *          the LDIF file to verify
+   * @throws IOException
+   *           if a checksum does not match, or if the files cannot be read
+   */
+  public static void verify(File ldifFile) throws IOException
+  {
+    final File checksumFile = getChecksumFile(ldifFile);
+    if (!checksumFile.exists())
+    {
+      return;
+    }
+
+    final byte[] buffer = new byte[64 * 1024];
+    try (BufferedReader reader = new BufferedReader(new FileReader(checksumFile));
+        RandomAccessFile file = new RandomAccessFile(ldifFile, "r"))
+    {
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        lineNumber++;
+        if (line.startsWith("#") || line.trim().isEmpty())
+        {
+          continue;
+        }
+
+        final long offset;
+        final long length;
+        final long expectedCrc;
+        try
+        {
+          final String[] fields = line.trim().split(" ");
+          offset = Long.parseLong(fields[0]);
+          length = Long.parseLong(fields[1]);
+          expectedCrc = Long.parseLong(fields[2], 16);
+        }
+        catch (RuntimeException e)
+        {
+          throw new IOException(ERR_LDIF_CHUNK_CHECKSUMS_MALFORMED.get(checksumFile, lineNumber, line).toString(), e);
+        }
+
+        final CRC32 crc = new CRC32();
+        file.seek(offset);
+        long remaining = length;
+        while (remaining > 0)
+        {
+          final int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read < 0)
+          {
+            break;
+          }
+          crc.update(buffer, 0, read);
+          remaining -= read;
+        }
+        if (remaining > 0 || crc.getValue() != expectedCrc)
+        {
+          throw new IOException(
+              ERR_LDIF_CHUNK_CHECKSUM_MISMATCH.get(ldifFile, length, offset, checksumFile).toString());
+        }
+      }
+    }
+  }
+}
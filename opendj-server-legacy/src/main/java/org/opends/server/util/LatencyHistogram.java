@@ -0,0 +1,249 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram which can be updated concurrently without locking.
+ * <p>
+ * Latencies are recorded in microseconds, into log-linear buckets in the manner of HdrHistogram: values lower than 32
+ * microseconds are recorded exactly, and each power of two above is split into 16 buckets, so that the value reported
+ * for a percentile is at most 1/16 higher than the recorded value. Values above one day are recorded as one day.
+ * <p>
+ * In addition to the statistics accumulated since the histogram was created, the histogram keeps the statistics of
+ * the last complete interval, one minute by default, so that recent regressions are not diluted by the whole history
+ * of the server.
+ */
+public final class LatencyHistogram
+{
+  /** The number of buckets each power of two is split into. */
+  private static final int SUB_BUCKET_COUNT = 16;
+  private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKET_COUNT);
+  /** The values lower than this limit have their own bucket. */
+  private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+  /** The highest recorded value, in microseconds. */
+  private static final long MAX_VALUE = TimeUnit.DAYS.toMicros(1);
+  private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+  /** The counts recorded during an interval of time, or since the histogram was created. */
+  private static final class Counts
+  {
+    private final long endNanoTime;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+
+    private Counts(long endNanoTime)
+    {
+      this.endNanoTime = endNanoTime;
+    }
+
+    private void record(int bucketIndex, long value)
+    {
+      buckets.incrementAndGet(bucketIndex);
+      sum.addAndGet(value);
+    }
+  }
+
+  private final long intervalNanos;
+  private final Counts total = new Counts(Long.MAX_VALUE);
+  private volatile Counts currentInterval;
+  private volatile Counts lastInterval;
+
+  /** Creates a new histogram whose recent statistics cover the last complete minute. */
+  public LatencyHistogram()
+  {
+    this(1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Creates a new histogram.
+   *
+   * @param interval
+   *          the duration of the interval covered by the recent statistics
+   * @param unit
+   *          the unit of the interval
+   */
+  public LatencyHistogram(long interval, TimeUnit unit)
+  {
+    this.intervalNanos = unit.toNanos(interval);
+    final long now = System.nanoTime();
+    this.currentInterval = new Counts(now + intervalNanos);
+    this.lastInterval = new Counts(now);
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanoTime
+   *          the latency, in nanoseconds
+   */
+  public void record(long nanoTime)
+  {
+    final long value = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanoTime), 0), MAX_VALUE);
+    final int index = bucketIndex(value);
+    total.record(index, value);
+    currentInterval(System.nanoTime()).record(index, value);
+  }
+
+  /**
+   * Returns the statistics accumulated since this histogram was created.
+   *
+   * @return the statistics accumulated since this histogram was created
+   */
+  public Snapshot getTotal()
+  {
+    return new Snapshot(total);
+  }
+
+  /**
+   * Returns the statistics of the last complete interval.
+   *
+   * @return the statistics of the last complete interval
+   */
+  public Snapshot getLastInterval()
+  {
+    final long now = System.nanoTime();
+    currentInterval(now);
+    final Counts last = lastInterval;
+    // Nothing was recorded during the last interval if it ended more than an interval ago
+    return new Snapshot(now - last.endNanoTime < intervalNanos ? last : new Counts(now));
+  }
+
+  private Counts currentInterval(long now)
+  {
+    final Counts current = currentInterval;
+    return now - current.endNanoTime < 0 ? current : rotate(now);
+  }
+
+  private synchronized Counts rotate(long now)
+  {
+    final Counts current = currentInterval;
+    if (now - current.endNanoTime < 0)
+    {
+      return current;
+    }
+    final Counts next = new Counts(now - (now - current.endNanoTime) % intervalNanos + intervalNanos);
+    lastInterval = current;
+    currentInterval = next;
+    return next;
+  }
+
+  private static int bucketIndex(long value)
+  {
+    if (value < LINEAR_LIMIT)
+    {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the highest value recorded in the provided bucket. */
+  private static long bucketHighestValue(int bucketIndex)
+  {
+    if (bucketIndex < LINEAR_LIMIT)
+    {
+      return bucketIndex;
+    }
+    final int shift = (bucketIndex - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 1;
+    final long subBucket = (bucketIndex - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /** An immutable copy of the statistics of a histogram, in microseconds. */
+  public static final class Snapshot
+  {
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private final long count;
+    private final long sum;
+
+    private Snapshot(Counts counts)
+    {
+      long n = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+        buckets[i] = counts.buckets.get(i);
+        n += buckets[i];
+      }
+      // Use the bucket counts so that the percentiles are consistent with the count
+      this.count = n;
+      this.sum = counts.sum.get();
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the number of recorded latencies
+     */
+    public long getCount()
+    {
+      return count;
+    }
+
+    /**
+     * Returns the sum of the recorded latencies, in microseconds.
+     *
+     * @return the sum of the recorded latencies, in microseconds
+     */
+    public long getSum()
+    {
+      return sum;
+    }
+
+    /**
+     * Returns the latency below which the provided percentage of the recorded latencies fall.
+     *
+     * @param percentile
+     *          the percentage, between 0 and 100
+     * @return the latency at the provided percentile in microseconds, or 0 if no latencies were recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+      final long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+      long n = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+        n += buckets[i];
+        if (n >= rank)
+        {
+          return bucketHighestValue(i);
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Returns the highest recorded latency.
+     *
+     * @return the highest recorded latency in microseconds, or 0 if no latencies were recorded
+     */
+    public long getMax()
+    {
+      for (int i = BUCKET_COUNT - 1; i >= 0; i--)
+      {
+        if (buckets[i] != 0)
+        {
+          return bucketHighestValue(i);
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -191,7 +191,7 @@ public class LocalBackendAddOperation
         @Override
         public void run()
         {
-          for (PersistentSearch psearch : backend.getPersistentSearches())
+          for (PersistentSearch psearch : backend.getPersistentSearches(entry.getName(), entry))
           {
             psearch.processAdd(entry);
           }
@@ -165,7 +165,7 @@ public class LocalBackendDeleteOperation
         @Override
         public void run()
         {
-          for (PersistentSearch psearch : backend.getPersistentSearches())
+          for (PersistentSearch psearch : backend.getPersistentSearches(entry.getName(), entry))
           {
             psearch.processDelete(entry);
           }
@@ -19,6 +19,7 @@ package org.opends.server.workflowelement.localbackend;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.i18n.LocalizableMessage;
@@ -205,7 +206,9 @@ public class LocalBackendModifyDNOperation
         @Override
         public void run()
         {
-          for (PersistentSearch psearch : backend.getPersistentSearches())
+          final Set<PersistentSearch> psearches = backend.getPersistentSearches(currentEntry.getName(), newEntry);
+          psearches.addAll(backend.getPersistentSearches(newEntry.getName(), newEntry));
+          for (PersistentSearch psearch : psearches)
           {
             psearch.processModifyDN(newEntry, currentEntry.getName());
           }
@@ -300,7 +300,8 @@ public class LocalBackendModifyOperation
         @Override
         public void run()
         {
-          for (PersistentSearch psearch : backend.getPersistentSearches())
+          for (PersistentSearch psearch
+              : backend.getPersistentSearches(currentEntry.getName(), modifiedEntry, currentEntry))
           {
             psearch.processModify(modifiedEntry, currentEntry);
           }
@@ -213,8 +213,10 @@ public class LocalBackendSearchOperation
           appendErrorMessage(ERR_MAX_PSEARCH_LIMIT_EXCEEDED.get());
           return;
         }
-        backend.registerPersistentSearch(persistentSearch);
+        // Enable it first, so that its change notifications are never sent
+        // as regular search results.
         persistentSearch.enable();
+        backend.registerPersistentSearch(persistentSearch);
       }
 
 
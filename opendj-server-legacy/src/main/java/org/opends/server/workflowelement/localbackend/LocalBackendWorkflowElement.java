@@ -47,6 +47,7 @@ import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyOperation;
 import org.opends.server.core.SearchOperation;
+import org.opends.server.monitors.OperationLatencies;
 import org.opends.server.types.AbstractOperation;
 import org.opends.server.types.AdditionalLogItem;
 import org.opends.server.types.CanceledOperationException;
@@ -54,6 +55,7 @@ import org.opends.server.types.Control;
 import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
 import org.opends.server.types.OperationType;
 import org.opends.server.types.Privilege;
 import org.opends.server.types.SearchResultEntry;
@@ -722,6 +724,31 @@ public class LocalBackendWorkflowElement
    *           if this operation should be canceled
    */
   private void execute(Operation operation) throws CanceledOperationException {
+    // The time spent evaluating access control and writing search results is measured separately
+    final long aciNanoTime = operation.getPhaseNanoTime(OperationPhase.ACCESS_CONTROL);
+    final long writeNanoTime = operation.getPhaseNanoTime(OperationPhase.RESPONSE_WRITE);
+    final long startTime = System.nanoTime();
+    try
+    {
+      executeLocal(operation);
+    }
+    finally
+    {
+      final long localAciNanoTime = operation.getPhaseNanoTime(OperationPhase.ACCESS_CONTROL) - aciNanoTime;
+      final long backendNanoTime = System.nanoTime() - startTime - localAciNanoTime
+          - (operation.getPhaseNanoTime(OperationPhase.RESPONSE_WRITE) - writeNanoTime);
+      operation.addPhaseNanoTime(OperationPhase.BACKEND, backendNanoTime);
+
+      final OperationLatencies latencies = backend.getOperationLatencies();
+      latencies.record(operation.getOperationType(), OperationPhase.BACKEND, backendNanoTime);
+      if (localAciNanoTime > 0)
+      {
+        latencies.record(operation.getOperationType(), OperationPhase.ACCESS_CONTROL, localAciNanoTime);
+      }
+    }
+  }
+
+  private void executeLocal(Operation operation) throws CanceledOperationException {
     switch (operation.getOperationType())
     {
       case BIND:
@@ -0,0 +1,105 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.api;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.DN;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SubordinateCountsTestCase extends APITestCase
+{
+  private static final DN BASE_DN = DN.valueOf("dc=example,dc=com");
+
+  @Test
+  public void testCountsOfASubtree()
+  {
+    final SubordinateCounts counts = new SubordinateCounts();
+    final DN peopleDN = BASE_DN.child("ou", "people");
+    counts.add(BASE_DN);
+    counts.add(peopleDN);
+    counts.add(peopleDN.child("uid", "user.0"));
+    counts.add(peopleDN.child("uid", "user.1"));
+
+    assertThat(counts.getNumberOfChildren(BASE_DN)).isEqualTo(1);
+    assertThat(counts.getNumberOfSubordinates(BASE_DN)).isEqualTo(3);
+    assertThat(counts.getNumberOfChildren(peopleDN)).isEqualTo(2);
+    assertThat(counts.getNumberOfSubordinates(peopleDN.child("uid", "user.0"))).isEqualTo(0);
+
+    counts.remove(peopleDN.child("uid", "user.0"));
+    assertThat(counts.getNumberOfSubordinates(BASE_DN)).isEqualTo(2);
+    assertThat(counts.getNumberOfChildren(peopleDN)).isEqualTo(1);
+
+    counts.clear();
+    assertThat(counts.getNumberOfSubordinates(BASE_DN)).isEqualTo(0);
+  }
+
+  /** Applies random adds and removes, then checks the counts against a scan of the remaining entries. */
+  @Test
+  public void testCountsAreEquivalentToScanning()
+  {
+    final Random random = new Random(42);
+    final List<DN> allDNs = new ArrayList<>();
+    allDNs.add(BASE_DN);
+    for (int i = 0; i < 500; i++)
+    {
+      final DN parentDN = allDNs.get(random.nextInt(allDNs.size()));
+      allDNs.add(parentDN.child("cn", "entry" + i));
+    }
+
+    final SubordinateCounts counts = new SubordinateCounts();
+    final Set<DN> entries = new HashSet<>();
+    for (int i = 0; i < 5000; i++)
+    {
+      final DN dn = allDNs.get(random.nextInt(allDNs.size()));
+      if (entries.add(dn))
+      {
+        counts.add(dn);
+      }
+      else
+      {
+        entries.remove(dn);
+        counts.remove(dn);
+      }
+    }
+
+    for (DN dn : allDNs)
+    {
+      long children = 0;
+      long subordinates = 0;
+      for (DN entryDN : entries)
+      {
+        if (entryDN.isSubordinateOrEqualTo(dn) && !entryDN.equals(dn))
+        {
+          subordinates++;
+          if (entryDN.parent().equals(dn))
+          {
+            children++;
+          }
+        }
+      }
+      assertThat(counts.getNumberOfChildren(dn)).as("children of %s", dn).isEqualTo(children);
+      assertThat(counts.getNumberOfSubordinates(dn)).as("subordinates of %s", dn).isEqualTo(subordinates);
+    }
+  }
+}
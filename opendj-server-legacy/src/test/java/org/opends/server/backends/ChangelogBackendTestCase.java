@@ -35,6 +35,7 @@ import static org.testng.Assert.*;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -54,11 +55,14 @@ import org.opends.server.api.Backend;
 import org.opends.server.backends.ChangelogBackend.ChangeNumberRange;
 import org.opends.server.controls.EntryChangelogNotificationControl;
 import org.opends.server.controls.ExternalChangelogRequestControl;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.controls.PersistentSearchControl;
 import org.opends.server.core.DeleteOperation;
 import org.opends.server.core.DirectoryServer;
 import org.opends.server.core.ModifyDNOperation;
 import org.opends.server.core.ModifyDNOperationBasis;
 import org.opends.server.core.ModifyOperation;
+import org.opends.server.core.PersistentSearch;
 import org.opends.server.protocols.internal.InternalClientConnection;
 import org.opends.server.protocols.internal.InternalSearchOperation;
 import org.opends.server.protocols.internal.Requests;
@@ -767,6 +771,64 @@ public class ChangelogBackendTestCase extends ReplicationTestCase
   }
 
   /** With an empty RS, a search should return only root entry. */
+  @Test
+  public void changelogCookieIsSetOnACopyOfTheSharedEntry() throws Exception
+  {
+    String test = "SharedEntry";
+    final CSN[] csns = generateCSNs(2, server1);
+    final Entry sharedEntry =
+        ChangelogBackend.createEntryFromMsg(DN_OTEST, 0, null, generateDeleteMsg(server1, csns[1], test, 1));
+
+    final Entry entry1 = ChangelogBackend.withChangelogCookie(sharedEntry, buildCookie(csns[0]));
+    final Entry entry2 = ChangelogBackend.withChangelogCookie(sharedEntry, buildCookie(csns[1]));
+
+    assertAttributeValue(entry1, "changelogcookie", buildCookie(csns[0]));
+    assertAttributeValue(entry2, "changelogcookie", buildCookie(csns[1]));
+    assertAttributeValue(sharedEntry, "changelogcookie", "");
+    assertThat(entry1.getUserAttributes().keySet())
+        .containsExactlyElementsOf(sharedEntry.getUserAttributes().keySet());
+    assertThat(entry1.getOperationalAttributes().keySet())
+        .containsExactlyElementsOf(sharedEntry.getOperationalAttributes().keySet());
+  }
+
+  @Test
+  public void cookiePersistentSearchesShareTheEntryOfAChange() throws Exception
+  {
+    String test = "SharedPSearches";
+    debugInfo(test, "Starting test\n\n");
+    final String filter = "(targetdn=*" + test + "*,o=test)";
+    final int activeSearchCount = getChangelogSearchesMonitorValue("active-search-count");
+    final int cookiePersistentSearchCount = getChangelogSearchesMonitorValue("cookie-persistent-search-count");
+
+    final InternalSearchOperation psearch1 = startCookiePersistentSearch(filter);
+    final InternalSearchOperation psearch2 = startCookiePersistentSearch(filter);
+    assertThat(getChangelogSearchesMonitorValue("active-search-count")).isEqualTo(activeSearchCount + 2);
+    assertThat(getChangelogSearchesMonitorValue("cookie-persistent-search-count"))
+        .isEqualTo(cookiePersistentSearchCount + 2);
+    try
+    {
+      final CSN[] csns = generateCSNs(1, server1);
+      publishUpdateMessagesInOTest(test, false, generateDeleteMsg(server1, csns[0], test, 1));
+
+      final SearchResultEntry entry1 = waitForPersistentSearchEntry(psearch1);
+      final SearchResultEntry entry2 = waitForPersistentSearchEntry(psearch2);
+      assertThat(entry1).isNotSameAs(entry2);
+      assertDelEntry(entry1, test + 1, test + "uuid1", CHANGENUMBER_ZERO, csns[0]);
+      assertDelEntry(entry2, test + 1, test + "uuid1", CHANGENUMBER_ZERO, csns[0]);
+      assertResultsContainCookieControl(psearch1, newArrayList(buildCookie(csns[0])));
+      assertResultsContainCookieControl(psearch2, newArrayList(buildCookie(csns[0])));
+    }
+    finally
+    {
+      cancelPersistentSearch(psearch1);
+      cancelPersistentSearch(psearch2);
+    }
+    assertThat(getChangelogSearchesMonitorValue("active-search-count")).isEqualTo(activeSearchCount);
+    assertThat(getChangelogSearchesMonitorValue("cookie-persistent-search-count"))
+        .isEqualTo(cookiePersistentSearchCount);
+    debugInfo(test, "Ending test successfully");
+  }
+
   @Test
   public void searchWhenNoChangesShouldReturnRootEntryOnly() throws Exception
   {
@@ -1140,6 +1202,49 @@ public class ChangelogBackendTestCase extends ReplicationTestCase
     return searchOp;
   }
 
+  private InternalSearchOperation startCookiePersistentSearch(String filterString) throws Exception
+  {
+    final SearchRequest request = newSearchRequest(filterString)
+        .addControl(createCookieControl(""))
+        .addControl(new PersistentSearchControl(EnumSet.allOf(PersistentSearchChangeType.class), true, true));
+    return connection.processSearch(request);
+  }
+
+  private SearchResultEntry waitForPersistentSearchEntry(final InternalSearchOperation searchOp) throws Exception
+  {
+    TestTimer timer = new TestTimer.Builder()
+      .maxSleep(5, SECONDS)
+      .sleepTimes(10, MILLISECONDS)
+      .toTimer();
+    return timer.repeatUntilSuccess(new Callable<SearchResultEntry>()
+    {
+      @Override
+      public SearchResultEntry call() throws Exception
+      {
+        assertThat(searchOp.getSearchEntries()).hasSize(1);
+        return searchOp.getSearchEntries().get(0);
+      }
+    });
+  }
+
+  private void cancelPersistentSearch(InternalSearchOperation searchOp)
+  {
+    for (PersistentSearch psearch : DirectoryServer.getBackend(ChangelogBackend.BACKEND_ID).getPersistentSearches())
+    {
+      if (psearch.getMessageID() == searchOp.getMessageID())
+      {
+        psearch.cancel();
+      }
+    }
+  }
+
+  private int getChangelogSearchesMonitorValue(String attributeName) throws Exception
+  {
+    final InternalSearchOperation searchOp =
+        searchDNWithBaseScope(DN.valueOf("cn=Changelog Searches,cn=monitor"), newHashSet(attributeName));
+    return Integer.parseInt(getAttributeValue(searchOp.getSearchEntries().get(0), attributeName));
+  }
+
   private InternalSearchOperation searchDNWithBaseScope(DN dn, Set<String> attributes) throws Exception
   {
     SearchRequest request = Requests.newSearchRequest(dn, SearchScope.BASE_OBJECT)
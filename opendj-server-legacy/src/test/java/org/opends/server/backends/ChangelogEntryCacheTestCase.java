@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.replication.common.CSN;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Entry;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ChangelogEntryCacheTestCase extends BackendTestCase
+{
+  private static final DN BASE_DN = DN.valueOf("dc=example,dc=com");
+  private static final DN OTHER_BASE_DN = DN.valueOf("dc=other,dc=com");
+  private static final CSN CSN1 = new CSN(1000, 1, 1);
+  private static final CSN CSN2 = new CSN(1001, 2, 1);
+  private static final CSN CSN3 = new CSN(1002, 3, 1);
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testEntriesAreCachedPerDomainAndCSN()
+  {
+    final ChangelogEntryCache cache = new ChangelogEntryCache(1000);
+    final Entry entry = mock(Entry.class);
+
+    assertThat(cache.get(BASE_DN, CSN1)).isNull();
+    cache.put(BASE_DN, CSN1, entry, 100);
+    assertThat(cache.get(BASE_DN, new CSN(1000, 1, 1))).isSameAs(entry);
+    assertThat(cache.get(OTHER_BASE_DN, CSN1)).isNull();
+    assertThat(cache.get(BASE_DN, new CSN(1000, 1, 2))).isNull();
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getSizeInBytes()).isEqualTo(100);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testOldestChangesAreEvicted()
+  {
+    final ChangelogEntryCache cache = new ChangelogEntryCache(250);
+    cache.put(BASE_DN, CSN1, mock(Entry.class), 100);
+    cache.put(BASE_DN, CSN2, mock(Entry.class), 100);
+    cache.put(BASE_DN, CSN3, mock(Entry.class), 100);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getSizeInBytes()).isEqualTo(200);
+    assertThat(cache.get(BASE_DN, CSN1)).isNull();
+    assertThat(cache.get(BASE_DN, CSN2)).isNotNull();
+    assertThat(cache.get(BASE_DN, CSN3)).isNotNull();
+
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getSizeInBytes()).isEqualTo(0);
+    assertThat(cache.get(BASE_DN, CSN3)).isNull();
+  }
+
+  @Test
+  public void testCacheIsBoundedByTheSizeOfTheEntries()
+  {
+    final ChangelogEntryCache cache = new ChangelogEntryCache(250);
+    cache.put(BASE_DN, CSN1, mock(Entry.class), 100);
+    cache.put(BASE_DN, CSN2, mock(Entry.class), 100);
+    cache.put(BASE_DN, CSN3, mock(Entry.class), 200);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getSizeInBytes()).isEqualTo(200);
+    assertThat(cache.get(BASE_DN, CSN3)).isNotNull();
+  }
+
+  @Test
+  public void testOlderChangesDoNotEvictTheNewestOnes()
+  {
+    final ChangelogEntryCache cache = new ChangelogEntryCache(200);
+    cache.put(BASE_DN, CSN2, mock(Entry.class), 100);
+    cache.put(OTHER_BASE_DN, CSN3, mock(Entry.class), 100);
+    // Built by a search catching up on old changes
+    cache.put(BASE_DN, CSN1, mock(Entry.class), 100);
+
+    assertThat(cache.get(BASE_DN, CSN1)).isNull();
+    assertThat(cache.get(BASE_DN, CSN2)).isNotNull();
+    assertThat(cache.get(OTHER_BASE_DN, CSN3)).isNotNull();
+    assertThat(cache.getRejectedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testOlderChangesAreCachedUntilTheCacheIsFull()
+  {
+    final ChangelogEntryCache cache = new ChangelogEntryCache(1000);
+    cache.put(BASE_DN, CSN3, mock(Entry.class), 100);
+    cache.put(BASE_DN, CSN1, mock(Entry.class), 100);
+
+    assertThat(cache.get(BASE_DN, CSN1)).isNotNull();
+    assertThat(cache.get(BASE_DN, CSN3)).isNotNull();
+    assertThat(cache.getRejectedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEstimatedSizeGrowsWithTheEntry() throws Exception
+  {
+    final Entry small = TestCaseUtils.makeEntry(
+        "dn: changeNumber=1,cn=changelog",
+        "objectClass: top",
+        "objectClass: changeLogEntry",
+        "changeNumber: 1",
+        "changeType: delete",
+        "targetDN: uid=jdoe,dc=example,dc=com");
+    final Entry large = small.duplicate(false);
+    final StringBuilder changes = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+    {
+      changes.append("replace: description\ndescription: value ").append(i).append("\n-\n");
+    }
+    large.addAttribute(Attributes.create("changes", changes.toString()), null);
+
+    assertThat(ChangelogEntryCache.estimateSize(small)).isGreaterThan(0);
+    assertThat(ChangelogEntryCache.estimateSize(large))
+        .isGreaterThan(ChangelogEntryCache.estimateSize(small) + changes.length());
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.immutable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.ImmutableBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOnlyStorageException;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.SequentialCursor;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ImmutableStorageTest extends DirectoryServerTestCase
+{
+  private final TreeName treeName = new TreeName("dc=test", "test");
+  private final TreeName otherTreeName = new TreeName("dc=test", "other");
+  private ImmutableStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws ConfigException
+  {
+    ServerContext serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+
+    storage = new ImmutableStorage(createBackendCfg(), serverContext);
+    storage.removeStorageFiles();
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+    storage.removeStorageFiles();
+  }
+
+  @Test
+  public void testImportedRecordsAreReadAfterOpening() throws Exception
+  {
+    try (Importer importer = storage.startImport())
+    {
+      // Records are not imported in key order
+      for (int i = 999; i >= 0; i--)
+      {
+        importer.put(treeName, key(i), valueOfUtf8("value" + i));
+      }
+      importer.put(treeName, key(10), valueOfUtf8("updated"));
+      importer.clearTree(otherTreeName);
+
+      assertThat(importer.read(treeName, key(10))).isEqualTo(valueOfUtf8("updated"));
+      try (SequentialCursor<ByteString, ByteString> cursor = importer.openCursor(treeName))
+      {
+        assertThat(cursor.next()).isTrue();
+        assertThat(cursor.getKey()).isEqualTo(key(0));
+      }
+    }
+
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(storage.listTrees()).containsOnly(treeName, otherTreeName);
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(1000);
+        assertThat(txn.getRecordCount(otherTreeName)).isEqualTo(0);
+        assertThat(txn.read(treeName, key(10))).isEqualTo(valueOfUtf8("updated"));
+        assertThat(txn.read(treeName, key(500))).isEqualTo(valueOfUtf8("value500"));
+        assertThat(txn.read(treeName, key(1000))).isNull();
+
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(treeName))
+        {
+          int count = 0;
+          while (cursor.next())
+          {
+            assertThat(cursor.getKey()).isEqualTo(key(count++));
+          }
+          assertThat(count).isEqualTo(1000);
+
+          assertThat(cursor.positionToIndex(123)).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(123));
+          assertThat(cursor.positionToLastKey()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(999));
+          assertThat(cursor.positionToKeyOrNext(valueOfUtf8("0000500x"))).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(501));
+          assertThat(cursor.positionToKey(valueOfUtf8("0000500x"))).isFalse();
+          assertThat(cursor.next()).isTrue();
+          assertThat(cursor.getKey()).isEqualTo(key(501));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testImportKeepsTheTreesWhichAreNotCleared() throws Exception
+  {
+    try (Importer importer = storage.startImport())
+    {
+      importer.put(treeName, key(1), valueOfUtf8("a"));
+      importer.put(otherTreeName, key(1), valueOfUtf8("b"));
+    }
+    try (Importer importer = storage.startImport())
+    {
+      importer.clearTree(otherTreeName);
+      importer.put(otherTreeName, key(2), valueOfUtf8("c"));
+      importer.put(treeName, key(2), valueOfUtf8("d"));
+    }
+
+    storage.open(AccessMode.READ_ONLY);
+    storage.read(new ReadOperation<Void>()
+    {
+      @Override
+      public Void run(ReadableTransaction txn) throws Exception
+      {
+        assertThat(txn.getRecordCount(treeName)).isEqualTo(2);
+        assertThat(txn.read(treeName, key(1))).isEqualTo(valueOfUtf8("a"));
+        assertThat(txn.getRecordCount(otherTreeName)).isEqualTo(1);
+        assertThat(txn.read(otherTreeName, key(1))).isNull();
+        assertThat(txn.read(otherTreeName, key(2))).isEqualTo(valueOfUtf8("c"));
+        return null;
+      }
+    });
+  }
+
+  @Test(expectedExceptions = ReadOnlyStorageException.class)
+  public void testWritesAreRejected() throws Exception
+  {
+    storage.open(AccessMode.READ_ONLY);
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.put(treeName, key(1), valueOfUtf8("a"));
+      }
+    });
+  }
+
+  @Test(expectedExceptions = ReadOnlyStorageException.class)
+  public void testCannotBeOpenedReadWrite() throws Exception
+  {
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  private static ByteString key(int i)
+  {
+    return valueOfUtf8(String.format("%07d", i));
+  }
+
+  private ImmutableBackendCfg createBackendCfg()
+  {
+    ImmutableBackendCfg backendCfg = mockCfg(ImmutableBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("ImmutableStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("ImmutableStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    return backendCfg;
+  }
+}
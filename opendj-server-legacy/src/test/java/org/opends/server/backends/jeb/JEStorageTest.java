@@ -0,0 +1,216 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.jeb;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.config.ConfigurationMock.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.server.config.server.JEBackendCfg;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
+import org.opends.server.backends.pluggable.spi.RecordCounts;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
+import org.opends.server.backends.pluggable.spi.WriteOperation;
+import org.opends.server.backends.pluggable.spi.WriteableTransaction;
+import org.opends.server.core.MemoryQuota;
+import org.opends.server.core.ServerContext;
+import org.opends.server.extensions.DiskSpaceMonitor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class JEStorageTest extends DirectoryServerTestCase
+{
+  private JEStorage storage;
+
+  @BeforeClass
+  public static void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws ConfigException
+  {
+    ServerContext serverContext = mock(ServerContext.class);
+    when(serverContext.getMemoryQuota()).thenReturn(new MemoryQuota());
+    when(serverContext.getDiskSpaceMonitor()).thenReturn(mock(DiskSpaceMonitor.class));
+
+    storage = new JEStorage(createBackendCfg(), serverContext);
+    storage.removeStorageFiles();
+    storage.open(AccessMode.READ_WRITE);
+  }
+
+  @AfterMethod
+  public void tearDown()
+  {
+    storage.close();
+  }
+
+  @Test
+  public void testRecordCountsAreMaintained() throws Exception
+  {
+    final TreeName countedTree = new TreeName("dc=test", "counted");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(countedTree, true);
+        txn.put(countedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(countedTree, valueOfUtf8("b"), valueOfUtf8("b"));
+        txn.put(countedTree, valueOfUtf8("c"), valueOfUtf8("c"));
+        txn.put(countedTree, valueOfUtf8("a"), valueOfUtf8("a2"));
+        txn.delete(countedTree, valueOfUtf8("b"));
+        txn.delete(countedTree, valueOfUtf8("unknown"));
+        txn.update(countedTree, valueOfUtf8("d"), new UpdateFunction()
+        {
+          @Override
+          public ByteSequence computeNewValue(ByteSequence oldValue)
+          {
+            return valueOfUtf8("d");
+          }
+        });
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(countedTree))
+        {
+          cursor.positionToKey(valueOfUtf8("c"));
+          cursor.delete();
+        }
+      }
+    });
+    assertThat(getRecordCount(countedTree)).isEqualTo(2);
+
+    storage.close();
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(getRecordCount(countedTree)).isEqualTo(2);
+  }
+
+  @Test
+  public void testRecordCountsAreRewrittenByImport() throws Exception
+  {
+    final TreeName importedTree = new TreeName("dc=test", "imported");
+    final TreeName untouchedTree = new TreeName("dc=test", "untouched");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(importedTree, true);
+        txn.openTree(untouchedTree, true);
+        txn.put(importedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(untouchedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(untouchedTree, valueOfUtf8("b"), valueOfUtf8("b"));
+      }
+    });
+    storage.close();
+
+    final Importer importer = storage.startImport();
+    importer.clearTree(importedTree);
+    importer.put(importedTree, valueOfUtf8("x"), valueOfUtf8("x"));
+    importer.put(importedTree, valueOfUtf8("y"), valueOfUtf8("y"));
+    importer.put(importedTree, valueOfUtf8("z"), valueOfUtf8("z"));
+    importer.close();
+
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(getRecordCount(importedTree)).isEqualTo(3);
+    assertThat(getRecordCount(untouchedTree)).isEqualTo(2);
+
+    // The counts are maintained again once the import has completed
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.delete(importedTree, valueOfUtf8("x"));
+      }
+    });
+    assertThat(getRecordCount(importedTree)).isEqualTo(2);
+  }
+
+  @Test
+  public void testTreeCountedByAnAbortedTransactionIsNotCounted() throws Exception
+  {
+    final TreeName tree = new TreeName("dc=test", "aborted");
+    final RecordCounts recordCounts = new RecordCounts();
+    try
+    {
+      storage.write(new WriteOperation()
+      {
+        @Override
+        public void run(WriteableTransaction txn) throws Exception
+        {
+          txn.openTree(tree, true);
+          recordCounts.countTree(txn, tree);
+          assertThat(recordCounts.isCounted(txn, tree)).isTrue();
+          recordCounts.transactionEnded(txn, false);
+          throw new IllegalStateException("abort");
+        }
+      });
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    }
+    catch (IllegalStateException expected)
+    {
+      // The transaction has been aborted
+    }
+
+    assertThat(storage.read(new ReadOperation<Boolean>()
+    {
+      @Override
+      public Boolean run(ReadableTransaction txn) throws Exception
+      {
+        return recordCounts.isCounted(txn, tree);
+      }
+    })).isFalse();
+  }
+
+  private long getRecordCount(final TreeName tree) throws Exception
+  {
+    return storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return txn.getRecordCount(tree);
+      }
+    });
+  }
+
+  private JEBackendCfg createBackendCfg()
+  {
+    JEBackendCfg backendCfg = mockCfg(JEBackendCfg.class);
+    when(backendCfg.getBackendId()).thenReturn("JEStorageTest");
+    when(backendCfg.getDBDirectory()).thenReturn("JEStorageTest");
+    when(backendCfg.getDBDirectoryPermissions()).thenReturn("755");
+    when(backendCfg.getDBCacheSize()).thenReturn(0L);
+    when(backendCfg.getDBCachePercent()).thenReturn(20);
+    when(backendCfg.getDBNumCleanerThreads()).thenReturn(2);
+    when(backendCfg.getDBNumLockTables()).thenReturn(63);
+    return backendCfg;
+  }
+}
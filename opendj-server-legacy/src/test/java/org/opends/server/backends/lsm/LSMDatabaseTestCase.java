@@ -0,0 +1,477 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.lsm;
+
+import static java.nio.file.StandardOpenOption.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.lsm.LSMDatabase.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.lsm.LSMDatabase.Snapshot;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential = true)
+public class LSMDatabaseTestCase extends DirectoryServerTestCase
+{
+  private static final long KB = 1024;
+  private static final long MB = 1024 * KB;
+  /** Small enough for a few hundred records to fill several memtables. */
+  private static final long TINY_WRITE_BUFFER = 4 * KB;
+  private static final long LARGE_WRITE_BUFFER = MB;
+  private static final String VALUE_PADDING = String.format("%100s", "");
+
+  private File directory;
+  private File copy;
+  private LSMDatabase db;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void createDirectories() throws Exception
+  {
+    directory = TestCaseUtils.createTemporaryDirectory("lsm-db");
+    copy = TestCaseUtils.createTemporaryDirectory("lsm-db-copy");
+  }
+
+  @AfterMethod
+  public void deleteDirectories() throws Exception
+  {
+    if (db != null)
+    {
+      db.close();
+      db = null;
+    }
+    TestCaseUtils.deleteDirectory(directory);
+    TestCaseUtils.deleteDirectory(copy);
+  }
+
+  @Test
+  public void testFullMemTableIsFlushedToATable() throws Exception
+  {
+    db = open(directory, TINY_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 100);
+
+    assertEventually(new Callable<Boolean>()
+    {
+      @Override
+      public Boolean call()
+      {
+        return db.getFlushCount() > 0;
+      }
+    });
+    assertThat(getTableCount(db)).isGreaterThan(0);
+    assertRecords(db, treeId, 0, 100);
+
+    db = reopen(db, directory, TINY_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 100);
+  }
+
+  @Test
+  public void testTablesAreCompactedIntoTheDeeperLevels() throws Exception
+  {
+    db = open(directory, TINY_WRITE_BUFFER);
+    db.setLevelSizes(KB, 4 * KB);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 2000);
+
+    assertEventually(new Callable<Boolean>()
+    {
+      @Override
+      public Boolean call()
+      {
+        for (int level = 2; level < LEVEL_COUNT; level++)
+        {
+          if (db.getTableCount(level) > 0)
+          {
+            return true;
+          }
+        }
+        return false;
+      }
+    });
+    assertThat(db.getCompactionCount()).isGreaterThan(0);
+    assertRecords(db, treeId, 0, 2000);
+
+    db = reopen(db, directory, TINY_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 2000);
+  }
+
+  @Test
+  public void testTombstonesAreDroppedWhenCompactedIntoTheBaseLevel() throws Exception
+  {
+    db = open(directory, TINY_WRITE_BUFFER);
+    final int deletedTreeId = createTree(db, "deleted");
+    final int keptTreeId = createTree(db, "kept");
+    putRecords(db, deletedTreeId, 0, 200);
+    for (int i = 0; i < 200; i++)
+    {
+      final WriteBatch batch = new WriteBatch();
+      batch.put(recordKey(deletedTreeId, key(i)), TOMBSTONE);
+      write(db, batch);
+    }
+    assertThat(get(db, deletedTreeId, 0)).isNull();
+
+    // Keep writing to another tree, so that the deletions are flushed then compacted with the deleted records
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    int kept = 0;
+    while (countVersions(db, deletedTreeId) > 0 && System.nanoTime() < deadline)
+    {
+      putRecords(db, keptTreeId, kept, 10);
+      kept += 10;
+    }
+    assertThat(countVersions(db, deletedTreeId)).isEqualTo(0);
+    assertThat(db.getCompactionCount()).isGreaterThan(0);
+    assertRecords(db, keptTreeId, 0, kept);
+  }
+
+  @Test
+  public void testCommittedUpdatesAreReplayedAfterAnUncleanClose() throws Exception
+  {
+    db = open(directory, LARGE_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 10);
+    final long lastSequence = db.getLastSequence();
+    crash();
+
+    db = open(copy, LARGE_WRITE_BUFFER);
+    assertThat(db.getLastSequence()).isEqualTo(lastSequence);
+    assertThat(db.getTreeId("tree")).isEqualTo(treeId);
+    assertRecords(db, treeId, 0, 10);
+
+    // The replayed updates were written to a table: they survive another reopening
+    db = reopen(db, copy, LARGE_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 10);
+  }
+
+  @Test
+  public void testTruncatedLogTailIsIgnored() throws Exception
+  {
+    db = open(directory, LARGE_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 10);
+    crash();
+
+    // The last record was being written when the server stopped
+    final File log = getLastLog(copy);
+    try (FileChannel channel = FileChannel.open(log.toPath(), WRITE))
+    {
+      channel.truncate(channel.size() - 3);
+    }
+
+    db = open(copy, LARGE_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 9);
+    assertThat(get(db, treeId, 9)).isNull();
+
+    // The next updates are not lost behind the truncated record
+    putRecords(db, treeId, 9, 1);
+    db = reopen(db, copy, LARGE_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 10);
+  }
+
+  @Test
+  public void testCorruptedLogTailIsIgnored() throws Exception
+  {
+    db = open(directory, LARGE_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 10);
+    crash();
+
+    final File log = getLastLog(copy);
+    try (FileChannel channel = FileChannel.open(log.toPath(), READ, WRITE))
+    {
+      final ByteBuffer lastByte = ByteBuffer.allocate(1);
+      channel.read(lastByte, channel.size() - 1);
+      lastByte.put(0, (byte) ~lastByte.get(0));
+      lastByte.rewind();
+      channel.write(lastByte, channel.size() - 1);
+    }
+
+    db = open(copy, LARGE_WRITE_BUFFER);
+    assertRecords(db, treeId, 0, 9);
+    assertThat(get(db, treeId, 9)).isNull();
+  }
+
+  @Test
+  public void testConcurrentUpdatesOfARecordConflict() throws Exception
+  {
+    db = open(directory, LARGE_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 2);
+
+    try (Snapshot first = db.getSnapshot(); Snapshot second = db.getSnapshot())
+    {
+      db.write(newPut(treeId, 0, "first"), first.getSequence(), false);
+      try
+      {
+        db.write(newPut(treeId, 0, "second"), second.getSequence(), false);
+        fail("Expected a conflict");
+      }
+      catch (ConflictException expected)
+      {
+        // The record was modified after the snapshot
+      }
+      // Another record can be modified from the same snapshot
+      db.write(newPut(treeId, 1, "second"), second.getSequence(), false);
+    }
+    assertThat(get(db, treeId, 0)).isEqualTo("first");
+    assertThat(get(db, treeId, 1)).isEqualTo("second");
+    assertThat(db.getConflictCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testConcurrentCreationsOfATreeConflict() throws Exception
+  {
+    db = open(directory, LARGE_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+
+    try (Snapshot snapshot = db.getSnapshot())
+    {
+      final WriteBatch first = new WriteBatch();
+      first.createTree("new", db.allocateTreeId());
+      db.write(first, snapshot.getSequence(), false);
+
+      final WriteBatch second = new WriteBatch();
+      second.createTree("new", db.allocateTreeId());
+      try
+      {
+        db.write(second, snapshot.getSequence(), false);
+        fail("Expected a conflict");
+      }
+      catch (ConflictException expected)
+      {
+        // The tree was created after the snapshot
+      }
+
+      final WriteBatch deletion = new WriteBatch();
+      deletion.deleteTree("tree", treeId);
+      db.write(deletion, snapshot.getSequence(), false);
+      try
+      {
+        // The record belongs to a tree deleted after the snapshot
+        db.write(newPut(treeId, 0, "value"), snapshot.getSequence(), false);
+        fail("Expected a conflict");
+      }
+      catch (ConflictException expected)
+      {
+        // Expected
+      }
+    }
+    assertThat(db.getTreeNames()).containsOnly("new");
+    assertThat(db.getConflictCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testBackupKeepsItsFilesUntilItEnds() throws Exception
+  {
+    db = open(directory, TINY_WRITE_BUFFER);
+    final int treeId = createTree(db, "tree");
+    putRecords(db, treeId, 0, 100);
+    assertEventually(new Callable<Boolean>()
+    {
+      @Override
+      public Boolean call()
+      {
+        return getTableCount(db) > 0;
+      }
+    });
+
+    final List<Path> files = db.startBackup();
+    try
+    {
+      // The tables and the manifest of the backup become obsolete
+      final long compactions = db.getCompactionCount();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      int count = 100;
+      while (db.getCompactionCount() == compactions && System.nanoTime() < deadline)
+      {
+        putRecords(db, treeId, count, 50);
+        count += 50;
+      }
+      assertThat(db.getCompactionCount()).isGreaterThan(compactions);
+      for (Path file : files)
+      {
+        assertThat(Files.exists(file)).as(file.toString()).isTrue();
+      }
+    }
+    finally
+    {
+      db.endBackup();
+    }
+
+    int deleted = 0;
+    for (Path file : files)
+    {
+      if (!Files.exists(file))
+      {
+        deleted++;
+      }
+    }
+    assertThat(deleted).isGreaterThan(0);
+  }
+
+  private static LSMDatabase open(File directory, long writeBufferSize) throws IOException
+  {
+    final LSMDatabase db = new LSMDatabase("test", directory, MB, writeBufferSize, 10, false, false);
+    db.open();
+    return db;
+  }
+
+  private static LSMDatabase reopen(LSMDatabase db, File directory, long writeBufferSize) throws IOException
+  {
+    db.close();
+    return open(directory, writeBufferSize);
+  }
+
+  /** Copies the files of an open database, as they would be found after the server was killed, then closes it. */
+  private void crash() throws IOException
+  {
+    TestCaseUtils.copyDirectory(directory, copy);
+    db.close();
+    db = null;
+  }
+
+  private static File getLastLog(File directory)
+  {
+    final String[] logs = directory.list();
+    Arrays.sort(logs);
+    for (int i = logs.length - 1; i >= 0; i--)
+    {
+      if (logs[i].endsWith(".log"))
+      {
+        return new File(directory, logs[i]);
+      }
+    }
+    throw new AssertionError("No write-ahead log in " + directory);
+  }
+
+  private static int createTree(LSMDatabase db, String name) throws IOException
+  {
+    final int treeId = db.allocateTreeId();
+    final WriteBatch batch = new WriteBatch();
+    batch.createTree(name, treeId);
+    write(db, batch);
+    return treeId;
+  }
+
+  /** Writes each record in its own synchronous commit. */
+  private static void putRecords(LSMDatabase db, int treeId, int first, int count) throws IOException
+  {
+    for (int i = first; i < first + count; i++)
+    {
+      write(db, newPut(treeId, i, value(i)));
+    }
+  }
+
+  private static WriteBatch newPut(int treeId, int i, String value)
+  {
+    final WriteBatch batch = new WriteBatch();
+    batch.put(recordKey(treeId, key(i)), ByteString.valueOfUtf8(value));
+    return batch;
+  }
+
+  private static void write(LSMDatabase db, WriteBatch batch) throws IOException
+  {
+    try (Snapshot snapshot = db.getSnapshot())
+    {
+      db.write(batch, snapshot.getSequence(), true);
+    }
+  }
+
+  private static String get(LSMDatabase db, int treeId, int i)
+  {
+    try (Snapshot snapshot = db.getSnapshot())
+    {
+      final ByteString value = snapshot.get(recordKey(treeId, key(i)));
+      return value != null ? value.toString() : null;
+    }
+  }
+
+  private static void assertRecords(LSMDatabase db, int treeId, int first, int count)
+  {
+    for (int i = first; i < first + count; i++)
+    {
+      assertThat(get(db, treeId, i)).as("record " + i).isEqualTo(value(i));
+    }
+  }
+
+  /** Returns the number of versions of the records of a tree, including the deletions. */
+  private static int countVersions(LSMDatabase db, int treeId)
+  {
+    int count = 0;
+    try (Snapshot snapshot = db.getSnapshot(); MergingIterator iterator = snapshot.newIterator(null))
+    {
+      for (iterator.seek(treePrefix(treeId)); iterator.isValid() && treeId(iterator.key()) == treeId;
+          iterator.next())
+      {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int getTableCount(LSMDatabase db)
+  {
+    int count = 0;
+    for (int level = 0; level < LEVEL_COUNT; level++)
+    {
+      count += db.getTableCount(level);
+    }
+    return count;
+  }
+
+  private static void assertEventually(Callable<Boolean> condition) throws Exception
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (!condition.call() && System.nanoTime() < deadline)
+    {
+      Thread.sleep(10);
+    }
+    assertThat(condition.call()).isTrue();
+  }
+
+  private static ByteString key(int i)
+  {
+    return ByteString.valueOfUtf8(String.format("key%08d", i));
+  }
+
+  private static String value(int i)
+  {
+    return "value" + i + VALUE_PADDING;
+  }
+}
@@ -22,11 +22,18 @@ import static org.opends.server.util.StaticUtils.*;
 import static org.forgerock.opendj.ldap.ByteString.*;
 
 import org.forgerock.opendj.config.server.ConfigException;
+import org.forgerock.opendj.ldap.ByteSequence;
+import org.forgerock.opendj.ldap.ByteString;
 import org.opends.server.DirectoryServerTestCase;
 import org.opends.server.TestCaseUtils;
 import org.forgerock.opendj.server.config.server.PDBBackendCfg;
 import org.opends.server.backends.pluggable.spi.AccessMode;
+import org.opends.server.backends.pluggable.spi.Cursor;
+import org.opends.server.backends.pluggable.spi.Importer;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.ReadableTransaction;
 import org.opends.server.backends.pluggable.spi.TreeName;
+import org.opends.server.backends.pluggable.spi.UpdateFunction;
 import org.opends.server.backends.pluggable.spi.WriteOperation;
 import org.opends.server.backends.pluggable.spi.WriteableTransaction;
 import org.opends.server.core.MemoryQuota;
@@ -122,6 +129,93 @@ public class PDBStorageTest extends DirectoryServerTestCase
     assertThat(storage.getNewExchange(treeName, true)).isNotSameAs(initial);
   }
 
+  @Test
+  public void testRecordCountsAreMaintained() throws Exception
+  {
+    final TreeName countedTree = new TreeName("dc=test", "counted");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(countedTree, true);
+        txn.deleteTree(countedTree);
+        txn.openTree(countedTree, true);
+        txn.put(countedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(countedTree, valueOfUtf8("b"), valueOfUtf8("b"));
+        txn.put(countedTree, valueOfUtf8("c"), valueOfUtf8("c"));
+        txn.put(countedTree, valueOfUtf8("a"), valueOfUtf8("a2"));
+        txn.delete(countedTree, valueOfUtf8("b"));
+        txn.delete(countedTree, valueOfUtf8("unknown"));
+        txn.update(countedTree, valueOfUtf8("d"), new UpdateFunction()
+        {
+          @Override
+          public ByteSequence computeNewValue(ByteSequence oldValue)
+          {
+            return valueOfUtf8("d");
+          }
+        });
+        try (Cursor<ByteString, ByteString> cursor = txn.openCursor(countedTree))
+        {
+          cursor.positionToKey(valueOfUtf8("c"));
+          cursor.delete();
+        }
+      }
+    });
+    assertThat(getRecordCount(countedTree)).isEqualTo(2);
+
+    storage.close();
+    storage.open(AccessMode.READ_ONLY);
+    assertThat(getRecordCount(countedTree)).isEqualTo(2);
+  }
+
+  @Test
+  public void testRecordCountsAreRewrittenByImport() throws Exception
+  {
+    final TreeName importedTree = new TreeName("dc=test", "imported");
+    final TreeName untouchedTree = new TreeName("dc=test", "untouched");
+    storage.write(new WriteOperation()
+    {
+      @Override
+      public void run(WriteableTransaction txn) throws Exception
+      {
+        txn.openTree(importedTree, true);
+        txn.deleteTree(importedTree);
+        txn.openTree(importedTree, true);
+        txn.openTree(untouchedTree, true);
+        txn.deleteTree(untouchedTree);
+        txn.openTree(untouchedTree, true);
+        txn.put(importedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(untouchedTree, valueOfUtf8("a"), valueOfUtf8("a"));
+        txn.put(untouchedTree, valueOfUtf8("b"), valueOfUtf8("b"));
+      }
+    });
+    storage.close();
+
+    final Importer importer = storage.startImport();
+    importer.clearTree(importedTree);
+    importer.put(importedTree, valueOfUtf8("x"), valueOfUtf8("x"));
+    importer.put(importedTree, valueOfUtf8("y"), valueOfUtf8("y"));
+    importer.put(importedTree, valueOfUtf8("z"), valueOfUtf8("z"));
+    importer.close();
+
+    storage.open(AccessMode.READ_WRITE);
+    assertThat(getRecordCount(importedTree)).isEqualTo(3);
+    assertThat(getRecordCount(untouchedTree)).isEqualTo(2);
+  }
+
+  private long getRecordCount(final TreeName tree) throws Exception
+  {
+    return storage.read(new ReadOperation<Long>()
+    {
+      @Override
+      public Long run(ReadableTransaction txn) throws Exception
+      {
+        return txn.getRecordCount(tree);
+      }
+    });
+  }
+
   protected PDBBackendCfg createBackendCfg()
   {
     PDBBackendCfg backendCfg = mockCfg(PDBBackendCfg.class);
@@ -0,0 +1,194 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.backends.pluggable.EntryIDSorter.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Random;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.crypto.CryptoSuite;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class EntryIDSorterTest extends DirectoryServerTestCase
+{
+  private static final int NB_KEYS = 10000;
+  private static final long NO_SPILL = Long.MAX_VALUE;
+  /** Small enough to spill every few hundred keys. */
+  private static final long SPILL = 16 * 1024;
+
+  private File directory;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    directory = new File(TestCaseUtils.createTemporaryDirectory("EntryIDSorterTest"), "sort");
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    TestCaseUtils.deleteDirectory(directory.getParentFile());
+  }
+
+  @DataProvider
+  public Object[][] memoryLimits()
+  {
+    return new Object[][] { { NO_SPILL }, { SPILL } };
+  }
+
+  @Test(dataProvider = "memoryLimits")
+  public void testUnboundedSortReturnsAllEntryIDsInOrder(long memoryLimit) throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(ASCENDING_ORDER, Long.MAX_VALUE, memoryLimit, directory, null))
+    {
+      addShuffledKeys(sorter);
+
+      assertThat(sorter.size()).isEqualTo(NB_KEYS);
+      assertThat(sorter.getSpilledBytes() > 0).isEqualTo(memoryLimit == SPILL);
+      assertThat(sorter.getSortedEntryIDs(0, NB_KEYS)).isEqualTo(expectedIDs(0, NB_KEYS));
+      assertThat(sorter.getSortedEntryIDs(NB_KEYS - 5, 10)).isEqualTo(expectedIDs(NB_KEYS - 5, 5));
+    }
+  }
+
+  @Test(dataProvider = "memoryLimits")
+  public void testBoundedSortOnlyRetainsFirstKeys(long memoryLimit) throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(ASCENDING_ORDER, 1000, memoryLimit, directory, null))
+    {
+      addShuffledKeys(sorter);
+
+      assertThat(sorter.size()).isEqualTo(NB_KEYS);
+      assertThat(sorter.getSortedEntryIDs(990, 20)).isEqualTo(expectedIDs(990, 10));
+      assertThat(sorter.getSortedEntryIDs(2000, 20)).isEmpty();
+    }
+  }
+
+  @Test
+  public void testBoundedDescendingSort() throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(DESCENDING_ORDER, 3, NO_SPILL, directory, null))
+    {
+      addShuffledKeys(sorter);
+
+      assertThat(sorter.getSortedEntryIDs(0, 3)).containsExactly(NB_KEYS - 1, NB_KEYS - 2, NB_KEYS - 3);
+    }
+  }
+
+  @Test
+  public void testZeroKeysOnlyCounts() throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(ASCENDING_ORDER, 0, NO_SPILL, directory, null))
+    {
+      addShuffledKeys(sorter);
+
+      assertThat(sorter.size()).isEqualTo(NB_KEYS);
+      assertThat(sorter.getSortedEntryIDs(0, 10)).isEmpty();
+    }
+  }
+
+  @Test
+  public void testRunFilesAreOnlyReadableByTheirOwner() throws Exception
+  {
+    try (EntryIDSorter sorter = new EntryIDSorter(ASCENDING_ORDER, Long.MAX_VALUE, SPILL, directory, null))
+    {
+      addShuffledKeys(sorter);
+
+      final File[] runs = directory.listFiles();
+      assertThat(runs).isNotEmpty();
+      if (Files.getFileStore(directory.toPath()).supportsFileAttributeView("posix"))
+      {
+        assertThat(Files.getPosixFilePermissions(directory.toPath())).containsOnly(
+            PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+        for (File run : runs)
+        {
+          assertThat(Files.getPosixFilePermissions(run.toPath())).containsOnly(
+              PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+        }
+      }
+    }
+    assertThat(directory.listFiles()).isEmpty();
+  }
+
+  @Test
+  public void testRunFilesAreEncryptedWithTheCryptoSuite() throws Exception
+  {
+    final CryptoSuite cryptoSuite = DirectoryServer.getCryptoManager().newCryptoSuite("AES/CBC/PKCS5Padding", 128);
+    try (EntryIDSorter sorter = new EntryIDSorter(ASCENDING_ORDER, Long.MAX_VALUE, SPILL, directory, cryptoSuite))
+    {
+      addShuffledKeys(sorter);
+
+      assertThat(sorter.getSpilledBytes()).isPositive();
+      for (File run : directory.listFiles())
+      {
+        final String content = new String(Files.readAllBytes(run.toPath()), "ISO-8859-1");
+        assertThat(content).doesNotContain("value0");
+      }
+      assertThat(sorter.getSortedEntryIDs(0, NB_KEYS)).isEqualTo(expectedIDs(0, NB_KEYS));
+    }
+  }
+
+  /** Adds keys whose sort order is the same as their entry IDs, in random order. */
+  private static void addShuffledKeys(EntryIDSorter sorter) throws Exception
+  {
+    final int[] ids = new int[NB_KEYS];
+    for (int i = 0; i < NB_KEYS; i++)
+    {
+      ids[i] = i;
+    }
+    final Random random = new Random(0);
+    for (int i = NB_KEYS - 1; i > 0; i--)
+    {
+      final int j = random.nextInt(i + 1);
+      final int tmp = ids[i];
+      ids[i] = ids[j];
+      ids[j] = tmp;
+    }
+    for (int id : ids)
+    {
+      sorter.add(new ByteStringBuilder().appendUtf8(String.format("value%08d", id)).appendLong(id).toByteString());
+    }
+  }
+
+  private static long[] expectedIDs(int from, int count)
+  {
+    final long[] ids = new long[count];
+    for (int i = 0; i < count; i++)
+    {
+      ids[i] = from + i;
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.ldap.ByteString.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.spi.ReadOperation;
+import org.opends.server.backends.pluggable.spi.Storage;
+import org.opends.server.backends.pluggable.spi.TreeName;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class HotKeysTest extends DirectoryServerTestCase
+{
+  private final TreeName id2entry = new TreeName("dc=test", "id2entry");
+  private final TreeName dn2id = new TreeName("dc=test", "dn2id");
+  private File directory;
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    directory = TestCaseUtils.createTemporaryDirectory("HotKeysTest");
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception
+  {
+    TestCaseUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testMostFrequentlyReadKeysAreSavedSorted() throws Exception
+  {
+    final HotKeys hotKeys = new HotKeys("HotKeysTest", mock(Storage.class), directory, 3, 3600);
+    hotKeys.start();
+    for (int i = 0; i < 2000; i++)
+    {
+      hotKeys.record(id2entry, valueOfUtf8("c"));
+      hotKeys.record(dn2id, valueOfUtf8("z"));
+      if (i % 2 == 0)
+      {
+        hotKeys.record(id2entry, valueOfUtf8("a"));
+      }
+      if (i % 100 == 0)
+      {
+        hotKeys.record(id2entry, valueOfUtf8("b"));
+      }
+    }
+    hotKeys.stop();
+
+    final Map<TreeName, List<ByteString>> trees = hotKeys.load();
+    assertThat(trees.keySet()).containsOnly(id2entry, dn2id);
+    assertThat(trees.get(id2entry)).containsExactly(valueOfUtf8("a"), valueOfUtf8("c"));
+    assertThat(trees.get(dn2id)).containsExactly(valueOfUtf8("z"));
+  }
+
+  @Test
+  public void testRecordedKeysArePrunedByTheSaverThread() throws Exception
+  {
+    final HotKeys hotKeys = new HotKeys("HotKeysTest", mock(Storage.class), directory, 10, 3600);
+    hotKeys.start();
+    for (int i = 0; i < 8000; i++)
+    {
+      hotKeys.record(id2entry, valueOfUtf8("hot"));
+    }
+    for (int i = 0; i < 100000; i++)
+    {
+      hotKeys.record(id2entry, valueOfUtf8("cold" + i));
+      // New keys are ignored rather than pruned by the reading threads when the saver thread is late
+      assertThat(hotKeys.getRecordedKeyCount()).isLessThanOrEqualTo(40);
+    }
+    hotKeys.stop();
+
+    assertThat(hotKeys.load().get(id2entry)).contains(valueOfUtf8("hot")).hasSize(10);
+  }
+
+  @Test
+  public void testKeysAreNotRecordedWhenStopped() throws Exception
+  {
+    final HotKeys hotKeys = new HotKeys("HotKeysTest", mock(Storage.class), directory, 3, 3600);
+    for (int i = 0; i < 1000; i++)
+    {
+      hotKeys.record(id2entry, valueOfUtf8("a"));
+    }
+    hotKeys.save();
+
+    assertThat(hotKeys.load()).isEmpty();
+    assertThat(new File(directory, HotKeys.FILE_NAME)).doesNotExist();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSavedKeysAreReadWhenStarted() throws Exception
+  {
+    final HotKeys previousRun = new HotKeys("HotKeysTest", mock(Storage.class), directory, 10, 3600);
+    previousRun.start();
+    for (int i = 0; i < 1000; i++)
+    {
+      previousRun.record(id2entry, valueOfUtf8("a"));
+    }
+    previousRun.stop();
+
+    final Storage storage = mock(Storage.class);
+    final HotKeys hotKeys = new HotKeys("HotKeysTest", storage, directory, 10, 3600);
+    hotKeys.start();
+    try
+    {
+      verify(storage, timeout(10000)).read(any(ReadOperation.class));
+    }
+    finally
+    {
+      hotKeys.stop();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.backends.pluggable;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.backends.pluggable.PagedResultsCursors.Cursor;
+import org.opends.server.core.SearchOperation;
+import org.opends.server.types.Control;
+import org.opends.server.types.SearchFilter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+@Test(groups = { "precommit", "pluggablebackend", "unit" }, sequential=true)
+public class PagedResultsCursorsTest extends DirectoryServerTestCase
+{
+  private static final long TIMEOUT_MS = 60 * 1000;
+  private static final long MEMORY_LIMIT = 1024 * 1024;
+  private static final long[] ENTRY_IDS = { 3, 5, 8, 13, 21, 34 };
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testResumeSearch() throws Exception
+  {
+    final PagedResultsCursors cursors = new PagedResultsCursors(TIMEOUT_MS, MEMORY_LIMIT);
+    final SearchOperation search = newSearchOperation(1, "(sn=smith)");
+
+    ByteString cookie = cursors.suspend(search, null, ENTRY_IDS, true, 2);
+    assertThat(PagedResultsCursors.getEntryID(cookie)).isEqualTo(8);
+
+    Cursor cursor = cursors.get(newSearchOperation(2, "(sn=smith)"), cookie);
+    assertThat(cursor).isNotNull();
+    assertThat(cursor.areCandidatesInScope()).isTrue();
+    // Only the remaining entries have been kept.
+    assertThat(cursor.getEntryIDs()).containsExactly(8, 13, 21, 34);
+    assertThat(cursors.getPosition(cursor)).isEqualTo(0);
+
+    cookie = cursors.suspend(search, cursor, cursor.getEntryIDs(), true, 2);
+    assertThat(PagedResultsCursors.getEntryID(cookie)).isEqualTo(21);
+    cursor = cursors.get(search, cookie);
+    assertThat(cursors.getPosition(cursor)).isEqualTo(2);
+
+    cursors.remove(cursor);
+    assertThat(cursors.get(search, cookie)).isNull();
+    assertThat(cursors.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCursorIsBoundToTheSearch() throws Exception
+  {
+    final PagedResultsCursors cursors = new PagedResultsCursors(TIMEOUT_MS, MEMORY_LIMIT);
+    final ByteString cookie = cursors.suspend(newSearchOperation(1, "(sn=smith)"), null, ENTRY_IDS, false, 1);
+
+    assertThat(cursors.get(newSearchOperation(1, "(sn=jones)"), cookie)).isNull();
+    assertThat(cursors.get(newSearchOperation(1, "(sn=smith)"), ByteString.valueOfLong(5))).isNull();
+    assertThat(cursors.get(newSearchOperation(1, "(sn=smith)"), cookie)).isNotNull();
+  }
+
+  @Test
+  public void testDisabledCursorsStillReturnTheNextEntryID() throws Exception
+  {
+    final PagedResultsCursors cursors = new PagedResultsCursors(0, MEMORY_LIMIT);
+    final SearchOperation search = newSearchOperation(1, "(sn=smith)");
+
+    final ByteString cookie = cursors.suspend(search, null, ENTRY_IDS, false, 3);
+    assertThat(PagedResultsCursors.getEntryID(cookie)).isEqualTo(13);
+    assertThat(cursors.get(search, cookie)).isNull();
+    assertThat(cursors.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedCursorsAreEvicted() throws Exception
+  {
+    final long[] entryIDs = new long[1000];
+    final PagedResultsCursors cursors = new PagedResultsCursors(TIMEOUT_MS, 8 * entryIDs.length * 3);
+    final List<ByteString> cookies = new ArrayList<>();
+    for (int connectionID = 0; connectionID < 4; connectionID++)
+    {
+      final SearchOperation search = newSearchOperation(connectionID, "(sn=smith)");
+      cookies.add(cursors.suspend(search, null, entryIDs, false, 0));
+    }
+
+    assertThat(cursors.size()).isEqualTo(2);
+    assertThat(cursors.get(newSearchOperation(0, "(sn=smith)"), cookies.get(0))).isNull();
+    assertThat(cursors.get(newSearchOperation(3, "(sn=smith)"), cookies.get(3))).isNotNull();
+  }
+
+  @Test
+  public void testCursorsPerConnectionAreLimited() throws Exception
+  {
+    final PagedResultsCursors cursors = new PagedResultsCursors(TIMEOUT_MS, MEMORY_LIMIT);
+    final SearchOperation search = newSearchOperation(1, "(sn=smith)");
+    final ByteString firstCookie = cursors.suspend(search, null, ENTRY_IDS, false, 0);
+    for (int i = 1; i < PagedResultsCursors.MAX_CURSORS_PER_CONNECTION; i++)
+    {
+      cursors.suspend(search, null, ENTRY_IDS, false, 0);
+    }
+    assertThat(cursors.size()).isEqualTo(PagedResultsCursors.MAX_CURSORS_PER_CONNECTION);
+
+    cursors.suspend(search, null, ENTRY_IDS, false, 0);
+    assertThat(cursors.size()).isEqualTo(PagedResultsCursors.MAX_CURSORS_PER_CONNECTION);
+    assertThat(cursors.get(search, firstCookie)).isNull();
+  }
+
+  private SearchOperation newSearchOperation(long connectionID, String filter) throws Exception
+  {
+    final SearchOperation searchOp = mock(SearchOperation.class);
+    when(searchOp.getConnectionID()).thenReturn(connectionID);
+    when(searchOp.getBaseDN()).thenReturn(DN.valueOf("dc=test,dc=com"));
+    when(searchOp.getScope()).thenReturn(SearchScope.WHOLE_SUBTREE);
+    when(searchOp.getAuthorizationDN()).thenReturn(DN.valueOf("cn=Directory Manager"));
+    when(searchOp.getFilter()).thenReturn(SearchFilter.createFilterFromString(filter));
+    when(searchOp.getResponseControls()).thenReturn(new ArrayList<Control>());
+    return searchOp;
+  }
+}
@@ -35,6 +35,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.forgerock.opendj.ldap.ByteString;
 import org.forgerock.opendj.ldap.ConditionResult;
@@ -81,6 +82,7 @@ import org.opends.server.types.DirectoryException;
 import org.opends.server.types.Entry;
 import org.opends.server.types.LDIFExportConfig;
 import org.opends.server.types.LDIFImportConfig;
+import org.opends.server.types.LockManager.DNLock;
 import org.opends.server.types.Modification;
 import org.opends.server.types.RestoreConfig;
 import org.opends.server.types.SearchFilter;
@@ -919,6 +921,43 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     }
   }
 
+  @Test
+  public void testParallelExportLDIFIsTheSequentialExport() throws Exception
+  {
+    final ByteArrayOutputStream sequentialContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(sequentialContent))
+    {
+      backend.exportLDIF(exportConfig);
+    }
+
+    final ByteArrayOutputStream parallelContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(parallelContent))
+    {
+      exportConfig.setThreadCount(4);
+      backend.exportLDIF(exportConfig);
+    }
+    assertThat(parallelContent.toString()).isEqualTo(sequentialContent.toString());
+
+    // Each chunk is compressed as a separate GZIP member.
+    final ByteArrayOutputStream compressedContent = new ByteArrayOutputStream();
+    try (final LDIFExportConfig exportConfig = new LDIFExportConfig(compressedContent))
+    {
+      exportConfig.setThreadCount(4);
+      exportConfig.setCompressData(true);
+      backend.exportLDIF(exportConfig);
+    }
+    final ByteArrayOutputStream uncompressedContent = new ByteArrayOutputStream();
+    try (final GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(compressedContent.toByteArray())))
+    {
+      final byte[] buffer = new byte[4096];
+      for (int read; (read = input.read(buffer)) > 0;)
+      {
+        uncompressedContent.write(buffer, 0, read);
+      }
+    }
+    assertThat(uncompressedContent.toString()).isEqualTo(sequentialContent.toString());
+  }
+
   @Test
   public void testExportLDIFAndImportLDIF() throws Exception
   {
@@ -1095,6 +1134,135 @@ public abstract class PluggableBackendImplTestCase<C extends PluggableBackendCfg
     assertThat(backend.verifyBackend(config)).isEqualTo(0);
   }
 
+  @Test
+  public void testRebuildIndexOnlineWhileUpdatingEntries() throws Exception
+  {
+    final List<Entry> modifiedEntries = makeOnlineRebuildEntries("online.modified.", 20);
+    final List<Entry> addedEntries = makeOnlineRebuildEntries("online.added.", 20);
+    addEntriesToBackend(modifiedEntries);
+
+    final RebuildConfig rebuildConf = new RebuildConfig();
+    rebuildConf.setBaseDN(DN.valueOf("dc=test,dc=com"));
+    rebuildConf.setRebuildMode(RebuildMode.USER_DEFINED);
+    rebuildConf.addRebuildIndex("sn");
+    rebuildConf.addRebuildIndex("uid");
+    rebuildConf.setOnline(true);
+    // Slow the scan down so that the updates below happen while the indexes are being built
+    rebuildConf.setMaxEntriesPerSecond(20);
+
+    final Exception[] rebuildFailure = new Exception[1];
+    final Thread rebuildThread = new Thread("Online index rebuild")
+    {
+      @Override
+      public void run()
+      {
+        try
+        {
+          backend.rebuildBackend(rebuildConf, DirectoryServer.getInstance().getServerContext());
+        }
+        catch (Exception e)
+        {
+          rebuildFailure[0] = e;
+        }
+      }
+    };
+    rebuildThread.start();
+    try
+    {
+      for (int i = 0; i < modifiedEntries.size(); i++)
+      {
+        replaceSn(modifiedEntries.get(i), "Modified" + i);
+        addEntryWithLock(addedEntries.get(i));
+        Thread.sleep(50);
+      }
+    }
+    finally
+    {
+      rebuildThread.join();
+    }
+    assertNull(rebuildFailure[0]);
+
+    try
+    {
+      VerifyConfig config = new VerifyConfig();
+      config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+      config.addCompleteIndex("sn");
+      config.addCompleteIndex("uid");
+      assertThat(backend.verifyBackend(config)).isEqualTo(0);
+
+      config = new VerifyConfig();
+      config.setBaseDN(DN.valueOf("dc=test,dc=com"));
+      config.addCleanIndex("sn");
+      config.addCleanIndex("uid");
+      assertThat(backend.verifyBackend(config)).isEqualTo(0);
+    }
+    finally
+    {
+      for (Entry entry : modifiedEntries)
+      {
+        backend.deleteEntry(entry.getName(), mock(DeleteOperation.class));
+      }
+      for (Entry entry : addedEntries)
+      {
+        backend.deleteEntry(entry.getName(), mock(DeleteOperation.class));
+      }
+    }
+  }
+
+  private List<Entry> makeOnlineRebuildEntries(String uidPrefix, int count) throws Exception
+  {
+    final List<Entry> entries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+    {
+      entries.add(TestCaseUtils.makeEntry(
+          "dn: uid=" + uidPrefix + i + ",ou=People," + testBaseDN,
+          "objectClass: top",
+          "objectClass: person",
+          "objectClass: organizationalPerson",
+          "objectClass: inetOrgPerson",
+          "cn: Online Rebuild " + i,
+          "sn: Original" + i,
+          "uid: " + uidPrefix + i));
+    }
+    return entries;
+  }
+
+  /** Replaces the entry while holding its write lock, as a modify operation would. */
+  private void replaceSn(Entry oldEntry, String sn) throws Exception
+  {
+    final Entry newEntry = oldEntry.duplicate(false);
+    final List<Modification> mods = Arrays.asList(new Modification(REPLACE, create("sn", sn)));
+    newEntry.applyModifications(mods);
+
+    final ModifyOperation modifyOp = mock(ModifyOperation.class);
+    when(modifyOp.getModifications()).thenReturn(mods);
+    final DNLock entryLock = DirectoryServer.getLockManager().tryWriteLockEntry(oldEntry.getName());
+    assertNotNull(entryLock);
+    try
+    {
+      backend.replaceEntry(oldEntry, newEntry, modifyOp);
+    }
+    finally
+    {
+      entryLock.unlock();
+    }
+  }
+
+  /** Adds the entry while holding its write lock, as an add operation would. */
+  private void addEntryWithLock(Entry entry) throws Exception
+  {
+    final DNLock entryLock = DirectoryServer.getLockManager().tryWriteLockEntry(entry.getName());
+    assertNotNull(entryLock);
+    try
+    {
+      backend.addEntry(entry, mock(AddOperation.class));
+    }
+    finally
+    {
+      entryLock.unlock();
+    }
+  }
+
   @Test
   public void testVerifyID2ChildrenCount() throws Exception
   {
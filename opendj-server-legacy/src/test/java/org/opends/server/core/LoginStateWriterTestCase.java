@@ -0,0 +1,286 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.protocols.internal.InternalClientConnection.*;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.types.Attributes;
+import org.opends.server.types.Modification;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LoginStateWriterTestCase extends CoreTestCase
+{
+  private static final DN USER_DN = DN.valueOf("uid=test.user,o=test");
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @BeforeMethod
+  public void addUser() throws Exception
+  {
+    TestCaseUtils.initializeTestBackend(true);
+    TestCaseUtils.addEntry(
+        "dn: uid=test.user,o=test",
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: test.user",
+        "givenName: Test",
+        "sn: User",
+        "cn: Test User",
+        "userPassword: password");
+  }
+
+  @Test
+  public void testDeferredModificationsAreMergedAndFlushed() throws Exception
+  {
+    final LoginStateWriter writer = new LoginStateWriter();
+    writer.configure(3600000, 1000);
+    assertThat(writer.isEnabled()).isTrue();
+
+    writer.defer(USER_DN, replace("description", "first"));
+    writer.defer(USER_DN, replace("description", "second"));
+    assertThat(getDescription()).isNull();
+
+    writer.flush();
+    assertThat(getDescription()).isEqualTo("second");
+  }
+
+  @Test
+  public void testPendingModificationsAreRemovedForSynchronousUpdates() throws Exception
+  {
+    final LoginStateWriter writer = new LoginStateWriter();
+    writer.configure(3600000, 1000);
+
+    final List<Modification> modifications = replace("description", "deferred");
+    writer.defer(USER_DN, modifications);
+    assertThat(writer.removePendingModifications(USER_DN)).isEqualTo(modifications);
+    assertThat(writer.removePendingModifications(USER_DN)).isEmpty();
+
+    writer.flush();
+    assertThat(getDescription()).isNull();
+  }
+
+  @Test
+  public void testFullBatchIsWrittenBeforeTheDelay() throws Exception
+  {
+    final LoginStateWriter writer = new LoginStateWriter();
+    writer.configure(3600000, 1);
+
+    writer.defer(USER_DN, replace("description", "batched"));
+    final long timeout = System.currentTimeMillis() + 10000;
+    while (getDescription() == null && System.currentTimeMillis() < timeout)
+    {
+      Thread.sleep(10);
+    }
+    assertThat(getDescription()).isEqualTo("batched");
+  }
+
+  @Test
+  public void testShutdownWritesThePendingModificationsThenWritesSynchronously() throws Exception
+  {
+    final LoginStateWriter writer = new LoginStateWriter();
+    writer.configure(3600000, 1000);
+    writer.defer(USER_DN, replace("description", "pending"));
+
+    writer.shutdown();
+    assertThat(getDescription()).isEqualTo("pending");
+    assertThat(writer.isEnabled()).isFalse();
+
+    // Deferred by a bind which was checking isEnabled() while the writer was shut down
+    writer.defer(USER_DN, replace("description", "late"));
+    assertThat(getDescription()).isEqualTo("late");
+
+    writer.configure(3600000, 1000);
+    assertThat(writer.isEnabled()).isTrue();
+    writer.shutdown();
+  }
+
+  @Test
+  public void testBindDefersTheLastLoginTime() throws Exception
+  {
+    configureDeferredLoginStates("ds-cfg-lockout-failure-count: 3");
+    try
+    {
+      assertThat(bind("password")).isEqualTo(ResultCode.SUCCESS);
+      assertThat(getLastLoginTime()).isNull();
+
+      LoginStateWriter.getInstance().flush();
+      assertThat(getLastLoginTime()).isNotNull();
+    }
+    finally
+    {
+      resetDeferredLoginStates();
+    }
+  }
+
+  @Test
+  public void testBindWritesTheFailuresAndTheLockoutSynchronously() throws Exception
+  {
+    configureDeferredLoginStates("ds-cfg-lockout-failure-count: 2");
+    try
+    {
+      assertThat(bind("wrong")).isEqualTo(ResultCode.INVALID_CREDENTIALS);
+      assertThat(getFailureTimes()).hasSize(1);
+      assertThat(getEntryAttribute("pwdAccountLockedTime")).isNull();
+
+      assertThat(bind("wrong")).isEqualTo(ResultCode.INVALID_CREDENTIALS);
+      assertThat(getFailureTimes()).hasSize(2);
+      assertThat(getEntryAttribute("pwdAccountLockedTime")).isNotNull();
+
+      assertThat(bind("password")).isEqualTo(ResultCode.INVALID_CREDENTIALS);
+    }
+    finally
+    {
+      resetDeferredLoginStates();
+    }
+  }
+
+  @Test
+  public void testPendingLastLoginTimeIsMergedWithTheNextSynchronousUpdate() throws Exception
+  {
+    configureDeferredLoginStates("ds-cfg-lockout-failure-count: 3");
+    try
+    {
+      assertThat(bind("password")).isEqualTo(ResultCode.SUCCESS);
+      assertThat(getLastLoginTime()).isNull();
+
+      // Recording the failure writes the pending last login time along with it
+      assertThat(bind("wrong")).isEqualTo(ResultCode.INVALID_CREDENTIALS);
+      assertThat(getFailureTimes()).hasSize(1);
+      assertThat(getLastLoginTime()).isNotNull();
+      assertThat(LoginStateWriter.getInstance().removePendingModifications(USER_DN)).isEmpty();
+    }
+    finally
+    {
+      resetDeferredLoginStates();
+    }
+  }
+
+  @Test
+  public void testIdleLockoutReadsThePendingLastLoginTime() throws Exception
+  {
+    getRootConnection().processModify(USER_DN, Arrays.asList(
+        new Modification(ModificationType.REPLACE, Attributes.create("ds-pwp-last-login-time", "20000101")),
+        new Modification(ModificationType.REPLACE, Attributes.create("pwdChangedTime", "20000101000000Z"))));
+    configureDeferredLoginStates("ds-cfg-idle-lockout-interval: 1 d");
+    try
+    {
+      // Idle for too long according to the entry
+      assertThat(bind("password")).isEqualTo(ResultCode.INVALID_CREDENTIALS);
+
+      // A bind which has not been written yet, for instance within the delay
+      final String today = new SimpleDateFormat("yyyyMMdd").format(new Date());
+      LoginStateWriter.getInstance().defer(USER_DN, replace("ds-pwp-last-login-time", today));
+      assertThat(bind("password")).isEqualTo(ResultCode.SUCCESS);
+    }
+    finally
+    {
+      resetDeferredLoginStates();
+    }
+  }
+
+  /** Defers the login states for an hour, and makes the default password policy maintain the last login time. */
+  private static void configureDeferredLoginStates(String lockoutSetting) throws Exception
+  {
+    final String lockoutAttribute = lockoutSetting.substring(0, lockoutSetting.indexOf(':'));
+    TestCaseUtils.applyModifications(true,
+        "dn: cn=Default Password Policy,cn=Password Policies,cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-last-login-time-attribute",
+        "ds-cfg-last-login-time-attribute: ds-pwp-last-login-time",
+        "-",
+        "replace: ds-cfg-last-login-time-format",
+        "ds-cfg-last-login-time-format: yyyyMMdd",
+        "-",
+        "replace: " + lockoutAttribute,
+        lockoutSetting,
+        "",
+        "dn: cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-login-state-update-delay",
+        "ds-cfg-login-state-update-delay: 1 h");
+  }
+
+  private static void resetDeferredLoginStates() throws Exception
+  {
+    TestCaseUtils.applyModifications(true,
+        "dn: cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-login-state-update-delay",
+        "",
+        "dn: cn=Default Password Policy,cn=Password Policies,cn=config",
+        "changetype: modify",
+        "replace: ds-cfg-last-login-time-attribute",
+        "-",
+        "replace: ds-cfg-last-login-time-format",
+        "-",
+        "replace: ds-cfg-lockout-failure-count",
+        "ds-cfg-lockout-failure-count: 0",
+        "-",
+        "replace: ds-cfg-idle-lockout-interval",
+        "ds-cfg-idle-lockout-interval: 0 seconds");
+    LoginStateWriter.getInstance().flush();
+  }
+
+  private static ResultCode bind(String password)
+  {
+    return getRootConnection().processSimpleBind(USER_DN.toString(), password).getResultCode();
+  }
+
+  private static String getLastLoginTime() throws Exception
+  {
+    return getEntryAttribute("ds-pwp-last-login-time");
+  }
+
+  private static Set<String> getFailureTimes() throws Exception
+  {
+    return DirectoryServer.getEntry(USER_DN).parseAttribute("pwdFailureTime").asSetOfString();
+  }
+
+  private static String getEntryAttribute(String attributeName) throws Exception
+  {
+    return DirectoryServer.getEntry(USER_DN).parseAttribute(attributeName).asString();
+  }
+
+  private static List<Modification> replace(String attributeName, String value)
+  {
+    return Arrays.asList(new Modification(ModificationType.REPLACE, Attributes.create(attributeName, value)));
+  }
+
+  private static String getDescription() throws Exception
+  {
+    return getEntryAttribute("description");
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opends.server.TestCaseUtils;
+import org.opends.server.core.OperationTracer.OperationTrace;
+import org.opends.server.protocols.internal.InternalClientConnection;
+import org.opends.server.types.Control;
+import org.opends.server.types.Operation;
+import org.opends.server.types.OperationPhase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class OperationTracerTestCase extends CoreTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @AfterMethod
+  public void disableTracing()
+  {
+    OperationTracer.getInstance().configure(0, 0, 1000);
+  }
+
+  @Test
+  public void testDisabledTracerRecordsNothing()
+  {
+    final OperationTracer tracer = new OperationTracer();
+    tracer.configure(0, 0, 10);
+    final Operation operation = newOperation();
+    tracer.operationStarted(operation);
+    assertThat(OperationTracer.isTraced(operation)).isFalse();
+    complete(operation);
+    tracer.operationCompleted(operation);
+    assertThat(tracer.getTraces()).isEmpty();
+    assertThat(tracer.getTraceCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testTracedOperationRecordsPhases() throws Exception
+  {
+    final OperationTracer tracer = OperationTracer.getInstance();
+    tracer.configure(1, 0, 10);
+    final long traceCount = tracer.getTraceCount();
+    final Operation operation = newOperation();
+    tracer.operationStarted(operation);
+
+    final long startTime = OperationTracer.startPhase();
+    assertThat(startTime).isNotEqualTo(0);
+    Thread.sleep(2);
+    OperationTracer.endPhase(OperationPhase.LOCK, startTime);
+    assertThat(operation.getPhaseNanoTime(OperationPhase.LOCK)).isGreaterThan(0);
+
+    complete(operation);
+    tracer.operationCompleted(operation);
+    assertThat(tracer.getTraceCount()).isEqualTo(traceCount + 1);
+    final List<OperationTrace> traces = tracer.getTraces();
+    final OperationTrace trace = traces.get(traces.size() - 1);
+    assertThat(trace.isTraced()).isTrue();
+    assertThat(trace.getPhaseNanoTime(OperationPhase.LOCK)).isEqualTo(operation.getPhaseNanoTime(OperationPhase.LOCK));
+    assertThat(trace.toString()).contains(" lock=");
+
+    // The phases of the completed operation are no longer measured
+    assertThat(OperationTracer.startPhase()).isEqualTo(0);
+  }
+
+  @Test
+  public void testProcessedOperationIsNoLongerTraced()
+  {
+    final OperationTracer tracer = OperationTracer.getInstance();
+    tracer.configure(1, 0, 10);
+    final Operation operation = newOperation();
+    tracer.operationStarted(operation);
+    assertThat(OperationTracer.isTraced(operation)).isTrue();
+    assertThat(OperationTracer.startPhase()).isNotEqualTo(0);
+
+    // The operation is not completed, for instance because processing it failed
+    OperationTracer.operationProcessed();
+    assertThat(OperationTracer.startPhase()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSlowOperationsAreRecorded() throws Exception
+  {
+    final OperationTracer tracer = new OperationTracer();
+    tracer.configure(0, 50, 10);
+    final Operation fastOperation = newOperation();
+    complete(fastOperation);
+    tracer.operationCompleted(fastOperation);
+    assertThat(tracer.getTraces()).isEmpty();
+
+    final Operation slowOperation = newOperation();
+    slowOperation.setProcessingStartTime();
+    Thread.sleep(60);
+    slowOperation.setProcessingStopTime();
+    tracer.operationCompleted(slowOperation);
+    assertThat(tracer.getSlowOperationCount()).isEqualTo(1);
+    assertThat(tracer.getTraces()).hasSize(1);
+    assertThat(tracer.getTraces().get(0).isTraced()).isFalse();
+  }
+
+  @Test
+  public void testRingBufferKeepsTheLastTraces()
+  {
+    final OperationTracer tracer = new OperationTracer();
+    tracer.configure(1, 0, 3);
+    final List<Long> operationIDs = new ArrayList<>();
+    for (int i = 0; i < 5; i++)
+    {
+      final Operation operation = newOperation();
+      operationIDs.add(operation.getOperationID());
+      tracer.operationStarted(operation);
+      complete(operation);
+      tracer.operationCompleted(operation);
+    }
+    assertThat(tracer.getTraceCount()).isEqualTo(5);
+    final List<OperationTrace> traces = tracer.getTraces();
+    assertThat(traces).hasSize(3);
+    for (int i = 0; i < 3; i++)
+    {
+      assertThat(traces.get(i).toString()).contains(" op=" + operationIDs.get(i + 2) + " ");
+    }
+  }
+
+  private static Operation newOperation()
+  {
+    return new AbandonOperationBasis(InternalClientConnection.getRootConnection(),
+        InternalClientConnection.nextOperationID(), InternalClientConnection.nextMessageID(),
+        new ArrayList<Control>(), 1);
+  }
+
+  private static void complete(Operation operation)
+  {
+    operation.setProcessingStartTime();
+    operation.setProcessingStopTime();
+  }
+}
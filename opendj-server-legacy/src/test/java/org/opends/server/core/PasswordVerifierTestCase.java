@@ -0,0 +1,154 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.forgerock.opendj.ldap.ByteString;
+import org.forgerock.opendj.ldap.DN;
+import org.opends.server.core.PasswordVerifier.SchemeStatistics;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PasswordVerifierTestCase extends CoreTestCase
+{
+  private static final DN USER_DN = DN.valueOf("uid=user.0,ou=people,dc=example,dc=com");
+  private static final ByteString PASSWORD = ByteString.valueOfUtf8("password");
+  private static final ByteString STORED_VALUE = ByteString.valueOfUtf8("{TEST}encoded");
+
+  private final List<PasswordVerifier> verifiers = new ArrayList<>();
+
+  /** Records the verifications, and the threads which performed them. */
+  private static final class Verification implements Callable<Boolean>
+  {
+    private final boolean matches;
+    private final long durationNanos;
+    private int count;
+    private String threadName;
+
+    private Verification(boolean matches, long durationNanos)
+    {
+      this.matches = matches;
+      this.durationNanos = durationNanos;
+    }
+
+    @Override
+    public synchronized Boolean call()
+    {
+      count++;
+      threadName = Thread.currentThread().getName();
+      final long endTime = System.nanoTime() + durationNanos;
+      while (System.nanoTime() < endTime)
+      {
+        // Burn CPU like an expensive storage scheme.
+      }
+      return matches;
+    }
+  }
+
+  @AfterMethod
+  public void shutdownPasswordVerifiers()
+  {
+    for (PasswordVerifier verifier : verifiers)
+    {
+      verifier.shutdown();
+    }
+    verifiers.clear();
+  }
+
+  private PasswordVerifier newPasswordVerifier()
+  {
+    final PasswordVerifier verifier = new PasswordVerifier();
+    verifiers.add(verifier);
+    return verifier;
+  }
+
+  @Test
+  public void testSuccessfulVerificationsAreCached()
+  {
+    final PasswordVerifier verifier = newPasswordVerifier();
+    verifier.configure(null, 60000, 10);
+    final Verification verification = new Verification(true, 0);
+
+    assertThat(verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "TEST", verification)).isTrue();
+    assertThat(verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "TEST", verification)).isTrue();
+    assertThat(verification.count).isEqualTo(1);
+    assertThat(verifier.getCacheSize()).isEqualTo(1);
+
+    final SchemeStatistics statistics = verifier.getStatistics().get("TEST");
+    assertThat(statistics.getVerificationCount()).isEqualTo(1);
+    assertThat(statistics.getCacheHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testCachedVerificationsOnlyApplyToTheSamePasswordAndStoredValue()
+  {
+    final PasswordVerifier verifier = newPasswordVerifier();
+    verifier.configure(null, 60000, 10);
+    final Verification verification = new Verification(true, 0);
+    verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "TEST", verification);
+
+    final Verification otherPassword = new Verification(false, 0);
+    assertThat(verifier.passwordMatches(USER_DN, ByteString.valueOfUtf8("other"), STORED_VALUE, "TEST", otherPassword))
+        .isFalse();
+    assertThat(otherPassword.count).isEqualTo(1);
+
+    // The password has been changed.
+    final Verification changedPassword = new Verification(false, 0);
+    assertThat(verifier.passwordMatches(
+        USER_DN, PASSWORD, ByteString.valueOfUtf8("{TEST}changed"), "TEST", changedPassword)).isFalse();
+    assertThat(changedPassword.count).isEqualTo(1);
+  }
+
+  @Test
+  public void testVerificationsAreNotCachedByDefault()
+  {
+    final PasswordVerifier verifier = newPasswordVerifier();
+    final Verification verification = new Verification(true, 0);
+
+    verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "TEST", verification);
+    verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "TEST", verification);
+    assertThat(verification.count).isEqualTo(2);
+    assertThat(verifier.getCacheSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void testExpensiveVerificationsAreOffloaded()
+  {
+    final PasswordVerifier verifier = newPasswordVerifier();
+    final Verification cheapVerification = new Verification(true, 0);
+    final Verification expensiveVerification =
+        new Verification(true, 5 * PasswordVerifier.OFFLOAD_THRESHOLD_NANOS);
+    for (int i = 0; i < 10; i++)
+    {
+      assertThat(verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "CHEAP", cheapVerification)).isTrue();
+      assertThat(verifier.passwordMatches(USER_DN, PASSWORD, STORED_VALUE, "EXPENSIVE", expensiveVerification))
+          .isTrue();
+    }
+
+    assertThat(cheapVerification.threadName).isEqualTo(Thread.currentThread().getName());
+    assertThat(expensiveVerification.threadName).startsWith("PASSWORD-VERIFIER-");
+    assertThat(verifier.getStatistics().get("CHEAP").getOffloadedCount()).isEqualTo(0);
+    final SchemeStatistics statistics = verifier.getStatistics().get("EXPENSIVE");
+    assertThat(statistics.getOffloadedCount()).isGreaterThan(0);
+    assertThat(statistics.getCpuTime()).isGreaterThan(0);
+  }
+}
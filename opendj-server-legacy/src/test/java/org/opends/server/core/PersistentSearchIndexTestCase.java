@@ -0,0 +1,114 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PersistentSearchIndexTestCase extends CoreTestCase
+{
+  private static final String PEOPLE = "ou=people,dc=example,dc=com";
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testCandidatesAreFilteredByBaseDNAndEqualityAssertion() throws Exception
+  {
+    final PersistentSearchIndex index = new PersistentSearchIndex();
+    final PersistentSearch uidSearch = newPersistentSearch(PEOPLE, "(uid=JDoe)");
+    final PersistentSearch andSearch = newPersistentSearch(PEOPLE, "(&(objectClass=person)(uid=jdoe))");
+    final PersistentSearch presenceSearch = newPersistentSearch(PEOPLE, "(uid=*)");
+    final PersistentSearch suffixSearch = newPersistentSearch("dc=example,dc=com", "(objectClass=*)");
+    final PersistentSearch groupsSearch = newPersistentSearch("ou=groups,dc=example,dc=com", "(objectClass=*)");
+    for (PersistentSearch psearch : new PersistentSearch[] {
+      uidSearch, andSearch, presenceSearch, suffixSearch, groupsSearch })
+    {
+      index.add(psearch);
+    }
+    assertThat(index.size()).isEqualTo(5);
+
+    assertThat(getCandidates(index, newEntry("jdoe")))
+        .containsOnly(uidSearch, andSearch, presenceSearch, suffixSearch);
+    assertThat(getCandidates(index, newEntry("bjensen")))
+        .containsOnly(presenceSearch, suffixSearch);
+    assertThat(index.getLookupCount()).isEqualTo(2);
+    assertThat(index.getCandidateCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void testRemovedSearchesAreNoLongerCandidates() throws Exception
+  {
+    final PersistentSearchIndex index = new PersistentSearchIndex();
+    final PersistentSearch search1 = newPersistentSearch(PEOPLE, "(uid=jdoe)");
+    final PersistentSearch search2 = newPersistentSearch(PEOPLE, "(uid=jdoe)");
+    index.add(search1);
+    index.add(search2);
+
+    index.remove(search1);
+    assertThat(getCandidates(index, newEntry("jdoe"))).containsOnly(search2);
+
+    index.remove(search2);
+    assertThat(getCandidates(index, newEntry("jdoe"))).isEmpty();
+    assertThat(index.size()).isEqualTo(0);
+  }
+
+  private static Set<PersistentSearch> getCandidates(PersistentSearchIndex index, Entry entry)
+  {
+    final Set<PersistentSearch> candidates = new LinkedHashSet<>();
+    index.addCandidates(entry.getName(), entry, candidates);
+    return candidates;
+  }
+
+  private static Entry newEntry(String uid) throws Exception
+  {
+    return TestCaseUtils.makeEntry(
+        "dn: uid=" + uid + "," + PEOPLE,
+        "objectClass: top",
+        "objectClass: person",
+        "objectClass: organizationalPerson",
+        "objectClass: inetOrgPerson",
+        "uid: " + uid,
+        "cn: " + uid,
+        "sn: " + uid);
+  }
+
+  private static PersistentSearch newPersistentSearch(String baseDN, String filter) throws Exception
+  {
+    final SearchOperation searchOp = mock(SearchOperation.class);
+    when(searchOp.getBaseDN()).thenReturn(DN.valueOf(baseDN));
+    when(searchOp.getScope()).thenReturn(SearchScope.WHOLE_SUBTREE);
+    when(searchOp.getFilter()).thenReturn(SearchFilter.createFilterFromString(filter));
+    return new PersistentSearch(searchOp, EnumSet.allOf(PersistentSearchChangeType.class), false, false);
+  }
+}
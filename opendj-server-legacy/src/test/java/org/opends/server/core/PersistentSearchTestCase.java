@@ -0,0 +1,143 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.core;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Field;
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.ClientConnection;
+import org.opends.server.controls.PersistentSearchChangeType;
+import org.opends.server.types.Control;
+import org.opends.server.types.Entry;
+import org.opends.server.types.SearchFilter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PersistentSearchTestCase extends CoreTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testSlowConsumerIsToldOnceAndLaterNotificationsAreDropped() throws Exception
+  {
+    final CountDownLatch clientReads = new CountDownLatch(1);
+    final SearchOperation searchOp = newSearchOperation(newClientConnection());
+    when(searchOp.returnEntry(any(Entry.class), anyListOf(Control.class))).thenAnswer(new Answer<Boolean>()
+    {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Exception
+      {
+        clientReads.await();
+        return true;
+      }
+    });
+    final PersistentSearch psearch =
+        new PersistentSearch(searchOp, EnumSet.allOf(PersistentSearchChangeType.class), true, false);
+    DirectoryServer.registerPersistentSearch();
+
+    final Entry entry = TestCaseUtils.makeEntry(
+        "dn: uid=jdoe,ou=people,dc=example,dc=com",
+        "objectClass: top",
+        "objectClass: person",
+        "uid: jdoe",
+        "cn: jdoe",
+        "sn: jdoe");
+    final Thread[] notifiers = new Thread[2];
+    for (int i = 0; i < notifiers.length; i++)
+    {
+      notifiers[i] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (int j = 0; j < PersistentSearchQueue.MAX_PENDING_NOTIFICATIONS + 10; j++)
+          {
+            psearch.processAdd(entry);
+          }
+        }
+      };
+      notifiers[i].start();
+    }
+    for (Thread notifier : notifiers)
+    {
+      notifier.join();
+    }
+    clientReads.countDown();
+
+    verify(searchOp, timeout(10000)).sendSearchResultDone();
+    final PersistentSearchQueue queue = searchOp.getClientConnection().getPersistentSearchQueue();
+    waitUntilDelivered(queue);
+    verify(searchOp).setResultCode(ResultCode.ADMIN_LIMIT_EXCEEDED);
+    verify(searchOp).sendSearchResultDone();
+    // Only the notification being sent when the search was cancelled reached the client
+    verify(searchOp, atMost(1)).returnEntry(any(Entry.class), anyListOf(Control.class));
+    assertThat(queue.getOverflowCount()).isGreaterThanOrEqualTo(1);
+  }
+
+  private static void waitUntilDelivered(PersistentSearchQueue queue) throws InterruptedException
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (queue.getPendingCount() > 0 && System.nanoTime() < deadline)
+    {
+      Thread.sleep(10);
+    }
+    assertThat(queue.getPendingCount()).isEqualTo(0);
+  }
+
+  private static SearchOperation newSearchOperation(ClientConnection clientConnection) throws Exception
+  {
+    final SearchOperation searchOp = mock(SearchOperation.class);
+    when(searchOp.getClientConnection()).thenReturn(clientConnection);
+    when(searchOp.getBaseDN()).thenReturn(DN.valueOf("dc=example,dc=com"));
+    when(searchOp.getScope()).thenReturn(SearchScope.WHOLE_SUBTREE);
+    when(searchOp.getFilter()).thenReturn(SearchFilter.objectClassPresent());
+    return searchOp;
+  }
+
+  /** Mocks an external client connection, initializing the state its final methods rely on. */
+  private static ClientConnection newClientConnection() throws Exception
+  {
+    final ClientConnection clientConnection = mock(ClientConnection.class);
+    setField(clientConnection, "persistentSearches", new CopyOnWriteArrayList<PersistentSearch>());
+    setField(clientConnection, "persistentSearchQueue", new PersistentSearchQueue());
+    return clientConnection;
+  }
+
+  private static void setField(ClientConnection clientConnection, String name, Object value) throws Exception
+  {
+    final Field field = ClientConnection.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(clientConnection, value);
+  }
+}
@@ -486,6 +486,66 @@ public class SubentryManagerTestCase extends CoreTestCase
           DN.valueOf("uid=rogasawara," + OLDBASE + "," + SUFFIX)).isEmpty());
   }
 
+  @Test
+  public void testSpecificExclusionsAndDepthAreAppliedToChildren() throws Exception
+  {
+    SubentryManager manager = DirectoryServer.getSubentryManager();
+    DN salesDN = DN.valueOf("cn=Sales," + BASE);
+    DN grandChildDN = DN.valueOf("cn=Child," + testEntry.getName());
+    // Caches the applicable subentries before adding a new one.
+    assertThat(getDns(manager.getSubentries(testEntry))).doesNotContain(DN.valueOf("cn=Exclusions Subentry," + SUFFIX));
+
+    Entry exclusionsSubentry = addEntry(
+         "dn: cn=Exclusions Subentry," + SUFFIX,
+         "objectClass: top",
+         "objectclass: subentry",
+         "subtreeSpecification: {base \"ou=Test SubEntry Manager\", "
+             + "specificExclusions { chopBefore:\"cn=Sales\" }, maximum 1}",
+         "cn: Exclusions Subentry");
+    try
+    {
+      assertThat(getDns(manager.getSubentries(testEntry))).contains(exclusionsSubentry.getName());
+      assertThat(getDns(manager.getSubentries(testEntry.getName()))).contains(exclusionsSubentry.getName());
+      assertThat(getDns(manager.getSubentries(salesDN))).doesNotContain(exclusionsSubentry.getName());
+      assertThat(getDns(manager.getSubentries(grandChildDN))).doesNotContain(exclusionsSubentry.getName());
+    }
+    finally
+    {
+      TestCaseUtils.deleteEntry(exclusionsSubentry.getName());
+    }
+    assertThat(getDns(manager.getSubentries(testEntry))).doesNotContain(exclusionsSubentry.getName());
+  }
+
+  @Test
+  public void testSubentryDoesNotApplyOutsideOfItsBase() throws Exception
+  {
+    SubentryManager manager = DirectoryServer.getSubentryManager();
+    DN siblingDN = DN.valueOf("ou=Sibling," + SUFFIX);
+    DN siblingChildDN = DN.valueOf("cn=Child,ou=Sibling," + SUFFIX);
+    // Caches the applicable subentries of the children of the suffix and of the sibling before adding a new one.
+    manager.getSubentries(siblingDN);
+    manager.getSubentries(siblingChildDN);
+
+    Entry baseSubentry = addEntry(
+         "dn: cn=Base Subentry," + SUFFIX,
+         "objectClass: top",
+         "objectclass: subentry",
+         "subtreeSpecification: {base \"" + BASE_RDN + "\"}",
+         "cn: Base Subentry");
+    try
+    {
+      assertThat(getDns(manager.getSubentries(DN.valueOf(BASE)))).contains(baseSubentry.getName());
+      assertThat(getDns(manager.getSubentries(testEntry.getName()))).contains(baseSubentry.getName());
+      assertThat(getDns(manager.getSubentries(DN.valueOf(SUFFIX)))).doesNotContain(baseSubentry.getName());
+      assertThat(getDns(manager.getSubentries(siblingDN))).doesNotContain(baseSubentry.getName());
+      assertThat(getDns(manager.getSubentries(siblingChildDN))).doesNotContain(baseSubentry.getName());
+    }
+    finally
+    {
+      TestCaseUtils.deleteEntry(baseSubentry.getName());
+    }
+  }
+
   @Test
   public void testExtendedSubtreeSpecification() throws Exception
   {
@@ -0,0 +1,313 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class BatchedTextWriterTest extends DirectoryServerTestCase
+{
+  private static final String EOL = System.getProperty("line.separator");
+  private static final boolean DROP = true;
+  private static final boolean BLOCK = false;
+
+  /** Records the bytes written to a mocked {@link MultifileTextWriter}, optionally blocking the writes. */
+  private static final class RecordingWriter implements Answer<Void>
+  {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final CountDownLatch writesAllowed;
+    private final CountDownLatch writeStarted = new CountDownLatch(1);
+    private final MultifileTextWriter writer = mock(MultifileTextWriter.class);
+
+    private RecordingWriter(boolean isBlocked)
+    {
+      writesAllowed = new CountDownLatch(isBlocked ? 1 : 0);
+      doAnswer(this).when(writer).writeRecords(any(ByteBuffer.class));
+    }
+
+    @Override
+    public Void answer(InvocationOnMock invocation) throws Exception
+    {
+      final ByteBuffer records = (ByteBuffer) invocation.getArguments()[0];
+      final byte[] bytes = new byte[records.remaining()];
+      records.get(bytes);
+      synchronized (written)
+      {
+        written.write(bytes);
+      }
+      writeStarted.countDown();
+      writesAllowed.await();
+      return null;
+    }
+
+    private void awaitWriteStarted() throws InterruptedException
+    {
+      assertThat(writeStarted.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void allowWrites()
+    {
+      writesAllowed.countDown();
+    }
+
+    private String getWritten()
+    {
+      synchronized (written)
+      {
+        return new String(written.toByteArray(), StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /** A record whose encoding blocks until it is released, to hold a claimed slot unpublished. */
+  private static final class BlockingRecord implements CharSequence
+  {
+    private final String value;
+    private final CountDownLatch encodingStarted = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private BlockingRecord(String value)
+    {
+      this.value = value;
+    }
+
+    @Override
+    public int length()
+    {
+      return value.length();
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+      if (index == 0)
+      {
+        encodingStarted.countDown();
+        try
+        {
+          released.await();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return value.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+      return value.subSequence(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+      return value;
+    }
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @Test
+  public void testRecordsAreWrittenInOrderWhenTheRingBufferWrapsAround() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(false);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 4, 64, BLOCK, recorder.writer);
+    assertThat(writer.getQueueSize()).isEqualTo(4);
+
+    final StringBuilder expected = new StringBuilder();
+    final StringBuilder record = new StringBuilder();
+    for (int i = 0; i < 100; i++)
+    {
+      record.setLength(0);
+      record.append("record ").append(i);
+      // The record is reused by the caller once written
+      writer.writeRecord(record);
+      expected.append("record ").append(i).append(EOL);
+    }
+    writer.shutdown();
+
+    assertThat(recorder.getWritten()).isEqualTo(expected.toString());
+    assertThat(writer.getWrittenRecordCount()).isEqualTo(100);
+    assertThat(writer.getDroppedRecordCount()).isEqualTo(0);
+    assertThat(writer.getQueuedRecordCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRecordsLargerThanTheBatchAreWritten() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(false);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 4, 256, BLOCK, recorder.writer);
+    final StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+    {
+      large.append('x');
+    }
+
+    writer.writeRecord("small");
+    writer.writeRecord(large);
+    writer.writeRecord("small");
+    writer.shutdown();
+
+    assertThat(recorder.getWritten()).isEqualTo("small" + EOL + large + EOL + "small" + EOL);
+  }
+
+  @Test
+  public void testRecordsAreEncodedInUTF8() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(false);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 8, 64, BLOCK, recorder.writer);
+
+    // 2, 3 and 4 bytes characters
+    writer.writeRecord("caf\u00e9 \u20ac \ud83d\ude00");
+    // Malformed surrogate pairs
+    writer.writeRecord("a\ud83db \ude00c");
+    writer.shutdown();
+
+    assertThat(recorder.getWritten()).isEqualTo("caf\u00e9 \u20ac \ud83d\ude00" + EOL + "a?b ?c" + EOL);
+  }
+
+  @Test
+  public void testRecordsAreDroppedWhenTheRingBufferIsFull() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(true);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 4, 64, DROP, recorder.writer);
+
+    // Block the writer thread, so the ring buffer fills up
+    writer.writeRecord("first");
+    recorder.awaitWriteStarted();
+    for (int i = 0; i < 10; i++)
+    {
+      writer.writeRecord("record " + i);
+    }
+    assertThat(writer.getDroppedRecordCount()).isEqualTo(6);
+    assertThat(writer.getQueuedRecordCount()).isEqualTo(4);
+    assertThat(writer.getFullQueueWaitCount()).isEqualTo(0);
+
+    recorder.allowWrites();
+    writer.shutdown();
+
+    assertThat(recorder.getWritten())
+        .isEqualTo("first" + EOL + "record 0" + EOL + "record 1" + EOL + "record 2" + EOL + "record 3" + EOL);
+    assertThat(writer.getWrittenRecordCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void testCallerWaitsWhenTheRingBufferIsFull() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(true);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 4, 64, BLOCK, recorder.writer);
+
+    writer.writeRecord("first");
+    recorder.awaitWriteStarted();
+    final Thread caller = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        for (int i = 0; i < 10; i++)
+        {
+          writer.writeRecord("record " + i);
+        }
+      }
+    };
+    caller.start();
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (writer.getFullQueueWaitCount() == 0 && System.nanoTime() < deadline)
+    {
+      Thread.sleep(10);
+    }
+    assertThat(writer.getFullQueueWaitCount()).isEqualTo(1);
+    assertThat(caller.isAlive()).isTrue();
+
+    recorder.allowWrites();
+    caller.join(TimeUnit.SECONDS.toMillis(10));
+    assertThat(caller.isAlive()).isFalse();
+    writer.shutdown();
+
+    assertThat(writer.getWrittenRecordCount()).isEqualTo(11);
+    assertThat(writer.getDroppedRecordCount()).isEqualTo(0);
+    assertThat(recorder.getWritten()).endsWith("record 9" + EOL);
+  }
+
+  @Test
+  public void testShutdownWritesTheRecordsClaimedBeforeTheStopRequest() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter(false);
+    final BatchedTextWriter writer = new BatchedTextWriter("test", 4, 64, BLOCK, recorder.writer);
+
+    // Claim a slot, but do not publish the record before the shutdown starts
+    final BlockingRecord record = new BlockingRecord("late");
+    final Thread caller = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        writer.writeRecord(record);
+      }
+    };
+    caller.start();
+    assertThat(record.encodingStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+    final Thread shutdown = new Thread()
+    {
+      @Override
+      public void run()
+      {
+        writer.shutdown();
+      }
+    };
+    shutdown.start();
+    // Records provided after the stop request are dropped
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (writer.getDroppedRecordCount() == 0 && System.nanoTime() < deadline)
+    {
+      writer.writeRecord("dropped");
+      Thread.sleep(10);
+    }
+    record.released.countDown();
+    caller.join(TimeUnit.SECONDS.toMillis(10));
+    shutdown.join(TimeUnit.SECONDS.toMillis(10));
+    assertThat(shutdown.isAlive()).isFalse();
+
+    assertThat(recorder.getWritten()).isEqualTo("late" + EOL);
+    assertThat(writer.getWrittenRecordCount()).isEqualTo(1);
+    assertThat(writer.getDroppedRecordCount()).isGreaterThanOrEqualTo(1);
+    verify(recorder.writer).shutdown();
+  }
+}
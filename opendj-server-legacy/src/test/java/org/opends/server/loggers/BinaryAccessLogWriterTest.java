@@ -0,0 +1,255 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.loggers;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opends.server.DirectoryServerTestCase;
+import org.opends.server.TestCaseUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class BinaryAccessLogWriterTest extends DirectoryServerTestCase
+{
+  /** Records the blocks written to a mocked {@link MultifileTextWriter}, in one buffer per log file. */
+  private static final class RecordingWriter
+  {
+    private final List<ByteArrayOutputStream> files = new ArrayList<>();
+    private final MultifileTextWriter writer = mock(MultifileTextWriter.class);
+
+    private RecordingWriter()
+    {
+      files.add(new ByteArrayOutputStream());
+      doAnswer(new Answer<Void>()
+      {
+        @Override
+        public Void answer(InvocationOnMock invocation)
+        {
+          final ByteBuffer records = (ByteBuffer) invocation.getArguments()[0];
+          final byte[] bytes = new byte[records.remaining()];
+          records.get(bytes);
+          getCurrentFile().write(bytes, 0, bytes.length);
+          return null;
+        }
+      }).when(writer).writeRecords(any(ByteBuffer.class));
+      when(writer.getTotalFilesRotated()).thenAnswer(new Answer<Long>()
+      {
+        @Override
+        public Long answer(InvocationOnMock invocation)
+        {
+          return (long) files.size() - 1;
+        }
+      });
+    }
+
+    private ByteArrayOutputStream getCurrentFile()
+    {
+      return files.get(files.size() - 1);
+    }
+
+    private void rotate()
+    {
+      files.add(new ByteArrayOutputStream());
+    }
+
+    private byte[] getFile(int index)
+    {
+      return files.get(index).toByteArray();
+    }
+  }
+
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  @DataProvider
+  public Object[][] records()
+  {
+    return new Object[][] {
+      { "[1458000000000] CONNECT conn=0 from=127.0.0.1:51234 to=127.0.0.1:1389 protocol=LDAP" },
+      { "[1458000000001] CONNECT conn=1 from=[::1]:51234 to=[::1]:1389 protocol=LDAP" },
+      { "[1458000000002] SEARCH REQ conn=1 op=2 msgID=3 base=\"dc=example,dc=com\" scope=sub"
+          + " filter=\"(&(cn=John Smith)(description=x=y z=1))\" attrs=\"cn sn\"" },
+      { "[1458000000003] SEARCH RES conn=1 op=2 msgID=3 result=0 nentries=1 etime=007" },
+      { "[1458000000004] MODIFY RES conn=1 op=4 msgID=5 result=32 message=\"No such entry x=1\" etime=0" },
+      { "[1458000000005] BIND REQ conn=1 op=6 msgID=7 version=3 type=SIMPLE dn=\"\"" },
+      { "[1458000000006] EXTENDED RES conn=1 op=8 msgID=9 name=\"StartTLS\" oid=\"1.3.6.1.4.1.1466.20037\""
+          + " result=0 etime=12345678901234567890" },
+      { "[1458000000007] DISCONNECT conn=1 reason=\"Client Unbind\"" },
+      { "[1458000000008] ABANDON" },
+    };
+  }
+
+  @Test(dataProvider = "records")
+  public void testRecordsAreDecodedIdentically(String record) throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    // Written twice, so that the dictionary references are read too
+    writer.writeRecord(record);
+    writer.writeRecord(record);
+    writer.flush();
+
+    assertThat(decode(recorder.getFile(0))).containsExactly(record, record);
+  }
+
+  @Test
+  public void testItemValuesAreDecoded() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    writer.writeRecord("[1458000000000] SEARCH REQ conn=1 op=2 msgID=3 base=\"dc=example,dc=com\""
+        + " filter=\"(cn=a b=c)\" from=[::1]:389");
+    writer.flush();
+
+    final BinaryAccessLogRecord record = readAll(recorder.getFile(0)).get(0);
+    assertThat(record.getTime()).isEqualTo(1458000000000L);
+    assertThat(record.getType()).isEqualTo("SEARCH");
+    assertThat(record.getCategory()).isEqualTo("REQ");
+    assertThat(record.getLabels()).containsExactly("conn", "op", "msgID", "base", "filter", "from");
+    assertThat(record.getValue("base")).isEqualTo("dc=example,dc=com");
+    assertThat(record.getValue("filter")).isEqualTo("(cn=a b=c)");
+    assertThat(record.getValue("from")).isEqualTo("[::1]:389");
+    assertThat(record.getValue("etime")).isNull();
+  }
+
+  @Test
+  public void testTimestampsGoingBackwardsAreDecoded() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    writer.writeRecord("[1458000000010] CONNECT conn=0");
+    writer.writeRecord("[1458000000000] CONNECT conn=1");
+    writer.flush();
+
+    assertThat(decode(recorder.getFile(0)))
+        .containsExactly("[1458000000010] CONNECT conn=0", "[1458000000000] CONNECT conn=1");
+  }
+
+  @Test
+  public void testDictionaryIsResetWhenFull() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(1024, false, recorder.writer);
+    // Each record defines a new dictionary entry, so the dictionary is reset at least once
+    final int count = 70000;
+    for (int i = 0; i < count; i++)
+    {
+      writer.writeRecord(newRecord(i));
+    }
+    writer.flush();
+
+    final List<String> decoded = decode(recorder.getFile(0));
+    assertThat(decoded).hasSize(count);
+    for (int i = 0; i < count; i++)
+    {
+      assertThat(decoded.get(i)).isEqualTo(newRecord(i));
+    }
+  }
+
+  @Test
+  public void testFileWrittenAfterRotationIsDecodedAlone() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    writer.writeRecord(newRecord(0));
+    writer.writeRecord(newRecord(1));
+    writer.flush();
+
+    recorder.rotate();
+    // Refers to the dictionary entries defined in the previous file
+    writer.writeRecord(newRecord(1));
+    writer.writeRecord(newRecord(2));
+    writer.flush();
+
+    assertThat(decode(recorder.getFile(0))).containsExactly(newRecord(0), newRecord(1));
+    assertThat(decode(recorder.getFile(1))).containsExactly(newRecord(1), newRecord(2));
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testTruncatedLogIsRejected() throws Exception
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    writer.writeRecord(newRecord(0));
+    writer.flush();
+
+    final byte[] log = recorder.getFile(0);
+    decode(Arrays.copyOf(log, log.length - 1));
+  }
+
+  /**
+   * Encodes text access log records, each starting with its timestamp in milliseconds between square brackets, into
+   * a binary access log.
+   */
+  public static byte[] toBinaryAccessLog(String... records)
+  {
+    final RecordingWriter recorder = new RecordingWriter();
+    final BinaryAccessLogWriter writer = new BinaryAccessLogWriter(4096, false, recorder.writer);
+    for (String record : records)
+    {
+      writer.writeRecord(record);
+    }
+    writer.flush();
+    return recorder.getFile(0);
+  }
+
+  private static String newRecord(int i)
+  {
+    return "[" + (1458000000000L + i) + "] SEARCH RES conn=1 op=" + i + " msgID=" + (i + 1)
+        + " base=\"uid=user." + i + ",dc=example,dc=com\" result=0 etime=" + (i % 10);
+  }
+
+  private static List<String> decode(byte[] log) throws IOException
+  {
+    final List<String> records = new ArrayList<>();
+    for (BinaryAccessLogRecord record : readAll(log))
+    {
+      records.add(record.toString());
+    }
+    return records;
+  }
+
+  private static List<BinaryAccessLogRecord> readAll(byte[] log) throws IOException
+  {
+    final List<BinaryAccessLogRecord> records = new ArrayList<>();
+    try (BinaryAccessLogReader reader = new BinaryAccessLogReader(new ByteArrayInputStream(log)))
+    {
+      BinaryAccessLogRecord record;
+      while ((record = reader.readRecord()) != null)
+      {
+        records.add(record);
+      }
+    }
+    return records;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.protocols.ldap.CoalescingResponseWriter.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.ByteStringBuilder;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class CoalescingResponseWriterTestCase extends LdapTestCase
+{
+  private static final Runnable NO_DELAYED_FLUSH = new Runnable()
+  {
+    @Override
+    public void run()
+    {
+      // Only the explicit flushes write the pending messages.
+    }
+  };
+
+  /** Flushes the writer like a client connection does once messages have been pending for too long. */
+  private static final class DelayedFlush implements Runnable
+  {
+    private final CountDownLatch flushed = new CountDownLatch(1);
+    private CoalescingResponseWriter writer;
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        writer.flush();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+      flushed.countDown();
+    }
+  }
+
+  /** Records the writes, writing at most a few bytes at a time to exercise partial writes. */
+  private static final class RecordingChannel implements GatheringByteChannel
+  {
+    private static final int MAX_WRITE_SIZE = 10000;
+    private final ByteStringBuilder written = new ByteStringBuilder();
+    private int writeCount;
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+      writeCount++;
+      int bytesWritten = 0;
+      for (int i = offset; i < offset + length && bytesWritten < MAX_WRITE_SIZE; i++)
+      {
+        final int count = Math.min(srcs[i].remaining(), MAX_WRITE_SIZE - bytesWritten);
+        written.appendBytes(srcs[i], count);
+        bytesWritten += count;
+      }
+      return bytesWritten;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+      return (int) write(new ByteBuffer[] { src });
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+      // Nothing to do.
+    }
+  }
+
+  @Test
+  public void testMessagesAreWrittenTogether() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final CoalescingResponseWriter writer = new CoalescingResponseWriter(channel, NO_DELAYED_FLUSH);
+
+    writer.write(message('a', 100), false);
+    writer.write(message('b', 100), false);
+    assertThat(channel.writeCount).isEqualTo(0);
+
+    writer.write(message('c', 10), true);
+    assertThat(channel.writeCount).isEqualTo(1);
+    assertThat(channel.written.toByteString())
+        .isEqualTo(message('a', 100).appendBytes(message('b', 100)).appendBytes(message('c', 10)).toByteString());
+
+    writer.flush();
+    assertThat(channel.writeCount).isEqualTo(1);
+  }
+
+  @Test
+  public void testMessageWithoutPendingMessagesIsWrittenImmediately() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final CoalescingResponseWriter writer = new CoalescingResponseWriter(channel, NO_DELAYED_FLUSH);
+
+    writer.write(message('a', 100), true);
+    assertThat(channel.writeCount).isEqualTo(1);
+    writer.write(message('b', BUFFER_SIZE), false);
+    assertThat(channel.written.length()).isEqualTo(100 + BUFFER_SIZE);
+  }
+
+  @Test
+  public void testLargeMessageIsWrittenWithPendingMessages() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final CoalescingResponseWriter writer = new CoalescingResponseWriter(channel, NO_DELAYED_FLUSH);
+
+    writer.write(message('a', 100), false);
+    writer.write(message('b', BUFFER_SIZE), false);
+    assertThat(channel.written.toByteString())
+        .isEqualTo(message('a', 100).appendBytes(message('b', BUFFER_SIZE)).toByteString());
+  }
+
+  @Test
+  public void testFullBufferIsWritten() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final CoalescingResponseWriter writer = new CoalescingResponseWriter(channel, NO_DELAYED_FLUSH);
+
+    final int messageSize = BUFFER_SIZE / 4;
+    for (int i = 0; i < 4; i++)
+    {
+      writer.write(message('a', messageSize), false);
+    }
+    assertThat(channel.written.length()).isEqualTo(BUFFER_SIZE);
+
+    writer.write(message('b', 10), false);
+    writer.discard();
+    writer.flush();
+    assertThat(channel.written.length()).isEqualTo(BUFFER_SIZE);
+  }
+
+  @Test
+  public void testPendingMessagesAreWrittenAfterTheMaximumDelay() throws Exception
+  {
+    final RecordingChannel channel = new RecordingChannel();
+    final DelayedFlush delayedFlush = new DelayedFlush();
+    final CoalescingResponseWriter writer = new CoalescingResponseWriter(channel, delayedFlush);
+    delayedFlush.writer = writer;
+
+    writer.write(message('a', 100), false);
+    assertThat(delayedFlush.flushed.await(100 * MAX_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(channel.writeCount).isEqualTo(1);
+    assertThat(channel.written.toByteString()).isEqualTo(message('a', 100).toByteString());
+  }
+
+  private static ByteStringBuilder message(char c, int length)
+  {
+    final ByteStringBuilder builder = new ByteStringBuilder(length);
+    for (int i = 0; i < length; i++)
+    {
+      builder.appendByte(c);
+    }
+    return builder;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.protocols.ldap;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.forgerock.opendj.ldap.requests.Requests.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.controls.PersistentSearchChangeType;
+import org.forgerock.opendj.ldap.controls.PersistentSearchRequestControl;
+import org.opends.server.TestCaseUtils;
+import org.opends.server.api.Backend;
+import org.opends.server.core.DirectoryServer;
+import org.opends.server.tools.RemoteConnection;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LDAPClientConnectionTestCase extends LdapTestCase
+{
+  @BeforeClass
+  public void startServer() throws Exception
+  {
+    TestCaseUtils.startServer();
+  }
+
+  /** Change notifications must not wait in the coalescing buffer for other responses to be written. */
+  @Test
+  public void testPersistentSearchNotificationIsSentImmediately() throws Exception
+  {
+    TestCaseUtils.initializeTestBackend(true);
+    final Backend<?> backend = DirectoryServer.getBackend(DN.valueOf(TestCaseUtils.TEST_ROOT_DN_STRING));
+
+    try (RemoteConnection conn = new RemoteConnection("localhost", TestCaseUtils.getServerLdapPort()))
+    {
+      conn.bind("cn=Directory Manager", "password");
+      conn.search(newSearchRequest(TestCaseUtils.TEST_ROOT_DN_STRING, SearchScope.WHOLE_SUBTREE, "(objectClass=*)")
+          .addControl(PersistentSearchRequestControl.newControl(true, true, true, PersistentSearchChangeType.ADD)));
+      waitUntilRegistered(backend);
+
+      // Added through an internal connection: nothing else is written to the persistent search connection
+      TestCaseUtils.addEntry(
+          "dn: ou=People," + TestCaseUtils.TEST_ROOT_DN_STRING,
+          "objectClass: top",
+          "objectClass: organizationalUnit",
+          "ou: People");
+
+      final LDAPMessage message = conn.readMessage();
+      assertThat(message.getProtocolOp()).isInstanceOf(SearchResultEntryProtocolOp.class);
+      assertThat(message.getSearchResultEntryProtocolOp().getDN())
+          .isEqualTo(DN.valueOf("ou=People," + TestCaseUtils.TEST_ROOT_DN_STRING));
+    }
+  }
+
+  private static void waitUntilRegistered(Backend<?> backend) throws InterruptedException
+  {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (backend.getPersistentSearches().isEmpty() && System.nanoTime() < deadline)
+    {
+      Thread.sleep(10);
+    }
+    assertThat(backend.getPersistentSearches()).hasSize(1);
+  }
+}
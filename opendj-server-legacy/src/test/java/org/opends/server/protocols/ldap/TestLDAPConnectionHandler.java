@@ -16,26 +16,36 @@
  */
 package org.opends.server.protocols.ldap;
 
+import static java.util.concurrent.TimeUnit.*;
+
 import static org.opends.server.config.ConfigConstants.*;
 import static org.testng.Assert.*;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.net.ssl.SSLSocket;
 
 import org.forgerock.i18n.LocalizableMessage;
 import org.opends.server.TestCaseUtils;
 import org.forgerock.opendj.server.config.server.LDAPConnectionHandlerCfg;
 import org.opends.server.api.ClientConnection;
+import org.opends.server.api.ConnectionHandler;
 import org.forgerock.opendj.config.server.ConfigException;
 import org.opends.server.core.DirectoryServer;
+import org.opends.server.extensions.SASLOverTLSTestCase.TestSSLSocketFactory;
 import org.opends.server.types.Attribute;
 import org.forgerock.opendj.ldap.schema.AttributeType;
 import org.opends.server.types.Attributes;
 import org.forgerock.opendj.ldap.DN;
 import org.opends.server.types.Entry;
 import org.opends.server.types.SSLClientAuthPolicy;
+import org.opends.server.util.TestTimer;
+import org.testng.SkipException;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -311,4 +321,81 @@ public class TestLDAPConnectionHandler extends LdapTestCase {
     LDAPConnHandler.applyConfigurationChange(config);
     LDAPConnHandler.finalizeConnectionHandler(reasonMsg);
   }
+
+  @Test
+  public void testTLSHandshakesAreCountedAndSessionsResumed() throws Exception
+  {
+    final LDAPStatistics statistics = getLDAPSConnectionHandler().getStatTracker();
+    final long handshakes = statistics.getTLSHandshakes();
+    final long resumedHandshakes = statistics.getTLSResumedHandshakes();
+
+    // The second connection resumes the session established by the first one.
+    connectAndHandshake("TLSv1.2");
+    connectAndHandshake("TLSv1.2");
+
+    assertHandshakesEventually(statistics, handshakes + 2, resumedHandshakes + 1);
+  }
+
+  /** TLS 1.3 handshakes are counted, but their resumption cannot be detected. */
+  @Test
+  public void testTLS13HandshakesAreCountedAsFullHandshakes() throws Exception
+  {
+    try (SSLSocket socket = (SSLSocket) TestSSLSocketFactory.getDefault().createSocket())
+    {
+      if (!Arrays.asList(socket.getSupportedProtocols()).contains("TLSv1.3"))
+      {
+        throw new SkipException("TLS 1.3 is not supported by this JVM");
+      }
+    }
+    final LDAPStatistics statistics = getLDAPSConnectionHandler().getStatTracker();
+    final long handshakes = statistics.getTLSHandshakes();
+    final long resumedHandshakes = statistics.getTLSResumedHandshakes();
+
+    connectAndHandshake("TLSv1.3");
+    connectAndHandshake("TLSv1.3");
+
+    assertHandshakesEventually(statistics, handshakes + 2, resumedHandshakes);
+  }
+
+  private static void assertHandshakesEventually(final LDAPStatistics statistics, final long expectedHandshakes,
+      final long expectedResumedHandshakes) throws Exception
+  {
+    // The server may complete a resumed handshake after the client.
+    final TestTimer timer = new TestTimer.Builder()
+        .maxSleep(10, SECONDS)
+        .sleepTimes(100, MILLISECONDS)
+        .toTimer();
+    timer.repeatUntilSuccess(new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception
+      {
+        assertEquals(statistics.getTLSHandshakes(), expectedHandshakes);
+        assertEquals(statistics.getTLSResumedHandshakes(), expectedResumedHandshakes);
+        return null;
+      }
+    });
+  }
+
+  private static void connectAndHandshake(String protocol) throws Exception
+  {
+    try (SSLSocket socket = (SSLSocket) TestSSLSocketFactory.getDefault().createSocket(
+        "127.0.0.1", TestCaseUtils.getServerLdapsPort()))
+    {
+      socket.setEnabledProtocols(new String[] { protocol });
+      socket.startHandshake();
+    }
+  }
+
+  private static LDAPConnectionHandler getLDAPSConnectionHandler()
+  {
+    for (ConnectionHandler<?> handler : DirectoryServer.getConnectionHandlers())
+    {
+      if (handler instanceof LDAPConnectionHandler && ((LDAPConnectionHandler) handler).useSSL())
+      {
+        return (LDAPConnectionHandler) handler;
+      }
+    }
+    throw new AssertionError("No LDAPS connection handler");
+  }
 }
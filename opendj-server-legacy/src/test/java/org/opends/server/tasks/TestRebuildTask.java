@@ -110,6 +110,37 @@ public class TestRebuildTask extends TasksTestCase
                    "ds-task-rebuild-index: mail"
               ),
               TaskState.COMPLETED_SUCCESSFULLY
+         },
+         // An online rebuild keeps the backend enabled.
+         {
+              TestCaseUtils.makeEntry(
+                   "dn: ds-task-id=" + UUID.randomUUID() +
+                        ",cn=Scheduled Tasks,cn=Tasks",
+                   "objectclass: top",
+                   "objectclass: ds-task",
+                   "objectclass: ds-task-rebuild",
+                   "ds-task-class-name: org.opends.server.tasks.RebuildTask",
+                   "ds-task-rebuild-base-dn: " + suffix,
+                   "ds-task-rebuild-index: mail",
+                   "ds-task-rebuild-online: true",
+                   "ds-task-rebuild-max-entries-per-second: 1000"
+              ),
+              TaskState.COMPLETED_SUCCESSFULLY
+         },
+         // System indexes cannot be rebuilt online.
+         {
+              TestCaseUtils.makeEntry(
+                   "dn: ds-task-id=" + UUID.randomUUID() +
+                        ",cn=Scheduled Tasks,cn=Tasks",
+                   "objectclass: top",
+                   "objectclass: ds-task",
+                   "objectclass: ds-task-rebuild",
+                   "ds-task-class-name: org.opends.server.tasks.RebuildTask",
+                   "ds-task-rebuild-base-dn: " + suffix,
+                   "ds-task-rebuild-index: dn2id",
+                   "ds-task-rebuild-online: true"
+              ),
+              TaskState.STOPPED_BY_ERROR
          },
                  {
               TestCaseUtils.makeEntry(
@@ -0,0 +1,148 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.tools;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.opends.server.loggers.BinaryAccessLogWriterTest.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.opends.server.TestCaseUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class DecodeAccessLogTestCase extends ToolsTestCase
+{
+  private static final String TIME_FORMAT = "yyyyMMddHHmmss.SSS";
+  private static final String CONNECT =
+      "[1458000000000] CONNECT conn=1 from=127.0.0.1:5000 to=127.0.0.1:1389 protocol=LDAP";
+  private static final String SEARCH_REQ =
+      "[1458000000001] SEARCH REQ conn=1 op=1 msgID=2 base=\"dc=example,dc=com\" scope=sub filter=\"(uid=jdoe)\"";
+  private static final String SEARCH_RES = "[1458000000002] SEARCH RES conn=1 op=1 msgID=2 result=0 nentries=1 etime=3";
+  private static final String SLOW_SEARCH_RES =
+      "[1458000000003] SEARCH RES conn=1 op=3 msgID=4 result=0 nentries=5 etime=250";
+
+  private File logFile;
+
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    TestCaseUtils.startServer();
+    logFile = File.createTempFile("binary-access", ".log");
+    try (FileOutputStream out = new FileOutputStream(logFile))
+    {
+      out.write(toBinaryAccessLog(CONNECT, SEARCH_REQ, SEARCH_RES, SLOW_SEARCH_RES));
+    }
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception
+  {
+    logFile.delete();
+  }
+
+  @Test
+  public void testDecodeToText() throws Exception
+  {
+    assertThat(decode()).containsExactly(
+        toText(CONNECT), toText(SEARCH_REQ), toText(SEARCH_RES), toText(SLOW_SEARCH_RES));
+  }
+
+  @Test
+  public void testDecodeToCSV() throws Exception
+  {
+    assertThat(decode("-F", "csv")).containsExactly(
+        "time,type,category,conn,op,msgID,dn,result,etime,items",
+        format(1458000000000L) + ",CONNECT,,1,,,,,,from=127.0.0.1:5000 to=127.0.0.1:1389 protocol=LDAP",
+        format(1458000000001L) + ",SEARCH,REQ,1,1,2,\"dc=example,dc=com\",,,\"scope=sub filter=\"\"(uid=jdoe)\"\"\"",
+        format(1458000000002L) + ",SEARCH,RES,1,1,2,,0,3,nentries=1",
+        format(1458000000003L) + ",SEARCH,RES,1,3,4,,0,250,nentries=5");
+  }
+
+  @Test
+  public void testSelectRecordsByType() throws Exception
+  {
+    assertThat(decode("-t", "search")).containsExactly(
+        toText(SEARCH_REQ), toText(SEARCH_RES), toText(SLOW_SEARCH_RES));
+    assertThat(decode("-t", "connect", "-t", "disconnect")).containsExactly(toText(CONNECT));
+  }
+
+  @Test
+  public void testSelectRecordsByItemValue() throws Exception
+  {
+    assertThat(decode("-m", "op=1")).containsExactly(toText(SEARCH_REQ), toText(SEARCH_RES));
+    assertThat(decode("-m", "base=dc=example,dc=com")).containsExactly(toText(SEARCH_REQ));
+    assertThat(decode("-m", "op=1", "-m", "result=0")).containsExactly(toText(SEARCH_RES));
+  }
+
+  @Test
+  public void testSelectRecordsByMinimumEtime() throws Exception
+  {
+    assertThat(decode("-e", "100")).containsExactly(toText(SLOW_SEARCH_RES));
+    assertThat(decode("-e", "0", "-t", "search")).containsExactly(toText(SEARCH_RES), toText(SLOW_SEARCH_RES));
+  }
+
+  @Test
+  public void testInvalidMatchIsRejected() throws Exception
+  {
+    final String[] args = { "-f", logFile.getPath(), "-m", "op" };
+    assertThat(DecodeAccessLog.mainDecode(args, null, null)).isNotEqualTo(0);
+  }
+
+  @Test
+  public void testMissingLogFileIsReported() throws Exception
+  {
+    final String[] args = { "-f", new File(logFile.getPath() + ".missing").getPath() };
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    assertThat(DecodeAccessLog.mainDecode(args, null, err)).isNotEqualTo(0);
+    assertThat(err.toString("UTF-8")).isNotEmpty();
+  }
+
+  private List<String> decode(String... options) throws Exception
+  {
+    final List<String> args = new ArrayList<>(Arrays.asList("-f", logFile.getPath(), "-T", TIME_FORMAT));
+    args.addAll(Arrays.asList(options));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    final int exitCode = DecodeAccessLog.mainDecode(args.toArray(new String[args.size()]), out, err);
+
+    assertThat(exitCode).as(err.toString("UTF-8")).isEqualTo(0);
+    final String output = out.toString("UTF-8");
+    return output.isEmpty() ? new ArrayList<String>() : Arrays.asList(output.split("\r?\n"));
+  }
+
+  /** Replaces the timestamp in milliseconds of a record with its formatted value, as written by the tool. */
+  private static String toText(String record)
+  {
+    final int timeEnd = record.indexOf(']');
+    return "[" + format(Long.parseLong(record.substring(1, timeEnd))) + record.substring(timeEnd);
+  }
+
+  private static String format(long time)
+  {
+    return new SimpleDateFormat(TIME_FORMAT).format(new Date(time));
+  }
+}
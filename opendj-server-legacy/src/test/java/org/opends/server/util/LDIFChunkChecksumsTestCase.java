@@ -0,0 +1,89 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LDIFChunkChecksumsTestCase extends UtilTestCase
+{
+  private static final byte[] CHUNK1 = "dn: dc=example,dc=com\nobjectClass: top\n\n".getBytes();
+  private static final byte[] CHUNK2 = "dn: ou=people,dc=example,dc=com\nobjectClass: top\n\n".getBytes();
+
+  private File writeChunks() throws IOException
+  {
+    final File ldifFile = File.createTempFile("chunks", ".ldif");
+    ldifFile.deleteOnExit();
+    LDIFChunkChecksums.getChecksumFile(ldifFile).deleteOnExit();
+
+    final LDIFChunkChecksums checksums = new LDIFChunkChecksums(0);
+    try (FileOutputStream output = new FileOutputStream(ldifFile))
+    {
+      output.write(CHUNK1);
+      checksums.addChunk(CHUNK1);
+      output.write(CHUNK2);
+      checksums.addChunk(CHUNK2);
+    }
+    checksums.write(ldifFile);
+    return ldifFile;
+  }
+
+  @Test
+  public void testVerifyIntactFile() throws Exception
+  {
+    LDIFChunkChecksums.verify(writeChunks());
+  }
+
+  @Test
+  public void testVerifyFileWithoutChecksums() throws Exception
+  {
+    final File ldifFile = writeChunks();
+    LDIFChunkChecksums.getChecksumFile(ldifFile).delete();
+    try (RandomAccessFile file = new RandomAccessFile(ldifFile, "rw"))
+    {
+      file.setLength(CHUNK1.length);
+    }
+    LDIFChunkChecksums.verify(ldifFile);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testVerifyCorruptedFile() throws Exception
+  {
+    final File ldifFile = writeChunks();
+    try (RandomAccessFile file = new RandomAccessFile(ldifFile, "rw"))
+    {
+      file.seek(CHUNK1.length + 4);
+      file.write('X');
+    }
+    LDIFChunkChecksums.verify(ldifFile);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testVerifyTruncatedFile() throws Exception
+  {
+    final File ldifFile = writeChunks();
+    try (RandomAccessFile file = new RandomAccessFile(ldifFile, "rw"))
+    {
+      file.setLength(CHUNK1.length + CHUNK2.length - 1);
+    }
+    LDIFChunkChecksums.verify(ldifFile);
+  }
+}
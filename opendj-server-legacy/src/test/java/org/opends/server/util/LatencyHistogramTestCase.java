@@ -0,0 +1,92 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions Copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.opends.server.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opends.server.util.LatencyHistogram.Snapshot;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LatencyHistogramTestCase extends UtilTestCase
+{
+  @Test
+  public void testEmptyHistogram()
+  {
+    final Snapshot total = new LatencyHistogram().getTotal();
+    assertThat(total.getCount()).isEqualTo(0);
+    assertThat(total.getValueAtPercentile(99)).isEqualTo(0);
+    assertThat(total.getMax()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSmallValuesAreExact()
+  {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 20; i++)
+    {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    final Snapshot total = histogram.getTotal();
+    assertThat(total.getCount()).isEqualTo(20);
+    assertThat(total.getSum()).isEqualTo(210);
+    assertThat(total.getValueAtPercentile(50)).isEqualTo(10);
+    assertThat(total.getValueAtPercentile(90)).isEqualTo(18);
+    assertThat(total.getMax()).isEqualTo(20);
+  }
+
+  @Test
+  public void testPercentilesAreWithinPrecision()
+  {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100000; i++)
+    {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    final Snapshot total = histogram.getTotal();
+    assertThat(total.getCount()).isEqualTo(100000);
+    assertThat(total.getValueAtPercentile(50)).isBetween(50000L, 50000L * 17 / 16);
+    assertThat(total.getValueAtPercentile(99)).isBetween(99000L, 99000L * 17 / 16);
+    assertThat(total.getValueAtPercentile(99.9)).isBetween(99900L, 99900L * 17 / 16);
+    assertThat(total.getMax()).isBetween(100000L, 100000L * 17 / 16);
+  }
+
+  @Test
+  public void testHugeValuesAreCapped()
+  {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.DAYS.toNanos(10));
+    assertThat(histogram.getTotal().getMax()).isGreaterThanOrEqualTo(TimeUnit.DAYS.toMicros(1));
+  }
+
+  @Test
+  public void testLastInterval() throws Exception
+  {
+    final LatencyHistogram histogram = new LatencyHistogram(100, TimeUnit.MILLISECONDS);
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(5));
+    assertThat(histogram.getLastInterval().getCount()).isEqualTo(0);
+
+    Thread.sleep(150);
+    assertThat(histogram.getLastInterval().getCount()).isEqualTo(1);
+    assertThat(histogram.getLastInterval().getMax()).isEqualTo(5);
+
+    Thread.sleep(200);
+    assertThat(histogram.getLastInterval().getCount()).isEqualTo(0);
+    assertThat(histogram.getTotal().getCount()).isEqualTo(1);
+  }
+}